@@ -40,7 +40,8 @@ import org.apache.directory.server.xdbm.Index;
  * )
  * </pre>
  * There is one more parameter, the 'factory', which can be used to declare
- * a specific kind of Index. It defaults to JdbmIndex.
+ * a specific kind of Index. It defaults to JdbmIndex. The 'substring' parameter
+ * adds a n-gram index used to evaluate the (attr=*abc*) and (attr=*abc) filters.
  *
  * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
  */
@@ -59,4 +60,8 @@ public @interface CreateIndex
 
     /** @return The indexed attribute */
     String attribute();
+
+
+    /** @return <code>true</code> if the substring filters on the attribute should use a n-gram index */
+    boolean substring() default false;
 }
@@ -56,6 +56,8 @@ import org.apache.directory.server.core.partition.impl.btree.AbstractBTreePartit
 import org.apache.directory.server.core.partition.impl.btree.jdbm.JdbmIndex;
 import org.apache.directory.server.core.partition.impl.btree.mavibot.MavibotIndex;
 import org.apache.directory.server.i18n.I18n;
+import org.apache.directory.server.xdbm.AbstractIndex;
+import org.apache.directory.server.xdbm.Index;
 import org.junit.runner.Description;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -243,6 +245,11 @@ public final class DSAnnotationProcessor
                 {
                     partitionFactory.addIndex( partition,
                         createIndex.attribute(), createIndex.cacheSize() );
+
+                    if ( createIndex.substring() )
+                    {
+                        setSubstringIndexed( partition, createIndex.attribute() );
+                    }
                 }
 
                 partition.initialize();
@@ -276,6 +283,7 @@ public final class DSAnnotationProcessor
                         {
                             // Mavibot index
                             MavibotIndex index = new MavibotIndex( createIndex.attribute(), false );
+                            index.setSubstringIndexed( createIndex.substring() );
 
                             btreePartition.addIndexedAttributes( index );
                         }
@@ -285,6 +293,7 @@ public final class DSAnnotationProcessor
                             // type.
                             // We use the generic index implementation.
                             JdbmIndex index = new JdbmIndex( createIndex.attribute(), false );
+                            index.setSubstringIndexed( createIndex.substring() );
 
                             btreePartition.addIndexedAttributes( index );
                         }
@@ -361,6 +370,27 @@ public final class DSAnnotationProcessor
     }
 
 
+    /**
+     * Requests a substring index for an attribute index added by a PartitionFactory
+     *
+     * @param partition The partition
+     * @param attributeId The indexed attribute
+     */
+    private static void setSubstringIndexed( Partition partition, String attributeId )
+    {
+        if ( partition instanceof AbstractBTreePartition )
+        {
+            for ( Index<?, String> index : ( ( AbstractBTreePartition ) partition ).getIndexedAttributes() )
+            {
+                if ( attributeId.equalsIgnoreCase( index.getAttributeId() ) && ( index instanceof AbstractIndex ) )
+                {
+                    ( ( AbstractIndex<?, ?> ) index ).setSubstringIndexed( true );
+                }
+            }
+        }
+    }
+
+
     /**
      * injects an LDIF entry in the given DirectoryService
      * 
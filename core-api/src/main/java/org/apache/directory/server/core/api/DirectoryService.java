@@ -578,6 +578,21 @@ public interface DirectoryService extends ServerEntryFactory
     long getSyncPeriodMillis();
 
 
+    /**
+     * Sets the number of partitions searched at the same time by a subtree search from the
+     * rootDSE. The default value, 0, searches the partitions one after the other.
+     *
+     * @param searchParallelism The number of partitions searched at the same time
+     */
+    void setSearchParallelism( int searchParallelism );
+
+
+    /**
+     * @return The number of partitions searched at the same time by a subtree search from the rootDSE
+     */
+    int getSearchParallelism();
+
+
     /**
      * @return the cache service
      */
@@ -20,6 +20,7 @@
 package org.apache.directory.server.core.api;
 
 
+import java.util.Map;
 import java.util.concurrent.locks.ReadWriteLock;
 
 import org.apache.directory.api.ldap.model.entry.Entry;
@@ -38,6 +39,8 @@ import org.apache.directory.server.core.api.interceptor.context.MoveOperationCon
 import org.apache.directory.server.core.api.interceptor.context.RenameOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.SearchOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.UnbindOperationContext;
+import org.apache.directory.server.core.api.partition.Partition;
+import org.apache.directory.server.core.api.partition.PartitionLock;
 
 
 /**
@@ -171,31 +174,78 @@ public interface OperationManager
 
 
     /**
-     * Acquires a WriteLock
+     * Acquires the server wide WriteLock. No other operation can be processed on any
+     * partition until it's released.
      */
     void lockWrite();
 
 
     /**
-     * Releases a WriteLock
+     * Releases the server wide WriteLock
      */
     void unlockWrite();
 
 
     /**
-     * Acquires a ReadLock
+     * Acquires the server wide ReadLock
      */
     void lockRead();
 
 
     /**
-     * Releases a ReadLock
+     * Releases the server wide ReadLock
      */
     void unlockRead();
 
 
     /**
-     * @return the OperationManager R/W lock
+     * Acquires a WriteLock on the given partition. Operations on other partitions
+     * are not blocked.
+     * 
+     * @param partition The partition to lock
+     */
+    void lockWrite( Partition partition );
+
+
+    /**
+     * Releases a WriteLock on the given partition
+     * 
+     * @param partition The partition to unlock
+     */
+    void unlockWrite( Partition partition );
+
+
+    /**
+     * Acquires a ReadLock on the given partition
+     * 
+     * @param partition The partition to lock
+     */
+    void lockRead( Partition partition );
+
+
+    /**
+     * Releases a ReadLock on the given partition
+     * 
+     * @param partition The partition to unlock
+     */
+    void unlockRead( Partition partition );
+
+
+    /**
+     * @return the OperationManager server wide R/W lock
      */
     ReadWriteLock getRWLock();
+
+
+    /**
+     * @param partition The partition we want the lock for
+     * @return the R/W lock protecting the given partition
+     */
+    ReadWriteLock getRWLock( Partition partition );
+
+
+    /**
+     * @return The partition locks, and their contention statistics, per partition ID
+     */
+    Map<String, PartitionLock> getPartitionLocks();
 }
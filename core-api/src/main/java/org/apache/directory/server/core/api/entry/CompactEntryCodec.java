@@ -0,0 +1,541 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.api.entry;
+
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.NotSerializableException;
+import java.io.ObjectInput;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutput;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.directory.api.ldap.model.entry.Attribute;
+import org.apache.directory.api.ldap.model.entry.DefaultAttribute;
+import org.apache.directory.api.ldap.model.entry.DefaultEntry;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.model.name.Rdn;
+import org.apache.directory.api.ldap.model.schema.AttributeType;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+
+
+/**
+ * Serializes and deserializes the entries stored by the server, in the master tables and
+ * in the replication journal. The format is a compact binary one, which does not use the
+ * Java serialization streams :
+ * <ul>
+ *   <li><b>[version]</b> : a byte, {@link #VERSION}</li>
+ *   <li><b>[Dn kind]</b> : a byte, {@link #NO_DN}, {@link #RDN} or {@link #FULL_DN}</li>
+ *   <li><b>[Rdn or Dn]</b> : the entry Rdn or Dn, if any</li>
+ *   <li><b>[number of attributes]</b> : a varint</li>
+ *   <li>For each Attribute :
+ *     <ul>
+ *       <li><b>[attribute type id]</b> : a varint, the position of the OID in the dictionary of the
+ *       most used attribute types, or 0 when the OID is not in the dictionary</li>
+ *       <li><b>[OID length]</b> and <b>[OID]</b> : a varint and the OID in ASCII, only if the id is 0</li>
+ *       <li><b>[attribute]</b> : the attribute and its values</li>
+ *     </ul>
+ *   </li>
+ * </ul>
+ * The entries serialized with an ObjectOutputStream by the previous versions of the server,
+ * which start with the Java serialization magic number, can still be read.
+ * <br><br>
+ * <b>This class must *not* be used outside of the server.</b>
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public final class CompactEntryCodec
+{
+    /** The first byte of the entries serialized with the compact format */
+    public static final byte VERSION = 0x01;
+
+    /** The entry has no Dn */
+    public static final byte NO_DN = 0x00;
+
+    /** Only the entry Rdn is stored */
+    public static final byte RDN = 0x01;
+
+    /** The entry full Dn is stored */
+    public static final byte FULL_DN = 0x02;
+
+    /** The first byte of a Java serialization stream, used by the previous format */
+    private static final byte STREAM_MAGIC = ( byte ) 0xAC;
+
+    /**
+     * The dictionary of the most used attribute types : their id is their position in this
+     * array. The ids are stored in the entries, so this array can only be appended to.
+     */
+    private static final String[] DICTIONARY =
+        {
+            // 0 : the OID is not in the dictionary
+            null,
+
+            // Operational attributes
+            "1.3.6.1.1.16.4", // entryUUID
+            "1.3.6.1.4.1.4203.666.1.7", // entryCSN
+            "2.5.18.1", // createTimestamp
+            "2.5.18.2", // modifyTimestamp
+            "2.5.18.3", // creatorsName
+            "2.5.18.4", // modifiersName
+
+            // User attributes
+            "2.5.4.0", // objectClass
+            "2.5.4.3", // cn
+            "2.5.4.4", // sn
+            "2.5.4.6", // c
+            "2.5.4.7", // l
+            "2.5.4.8", // st
+            "2.5.4.9", // street
+            "2.5.4.10", // o
+            "2.5.4.11", // ou
+            "2.5.4.12", // title
+            "2.5.4.13", // description
+            "2.5.4.16", // postalAddress
+            "2.5.4.17", // postalCode
+            "2.5.4.20", // telephoneNumber
+            "2.5.4.23", // facsimileTelephoneNumber
+            "2.5.4.31", // member
+            "2.5.4.34", // seeAlso
+            "2.5.4.35", // userPassword
+            "2.5.4.36", // userCertificate
+            "2.5.4.42", // givenName
+            "2.5.4.43", // initials
+            "2.5.4.50", // uniqueMember
+            "0.9.2342.19200300.100.1.1", // uid
+            "0.9.2342.19200300.100.1.3", // mail
+            "0.9.2342.19200300.100.1.25", // dc
+            "0.9.2342.19200300.100.1.41", // mobile
+            "0.9.2342.19200300.100.1.60", // jpegPhoto
+            "2.16.840.1.113730.3.1.3", // employeeNumber
+            "2.16.840.1.113730.3.1.241" // displayName
+    };
+
+    /** The ids of the dictionary OIDs */
+    private static final Map<String, Integer> DICTIONARY_IDS = new HashMap<>();
+
+    static
+    {
+        for ( int i = 1; i < DICTIONARY.length; i++ )
+        {
+            DICTIONARY_IDS.put( DICTIONARY[i], i );
+        }
+    }
+
+
+    private CompactEntryCodec()
+    {
+    }
+
+
+    /**
+     * An ObjectOutput writing directly into a stream, without the Java serialization
+     * headers. The externalizable elements of an entry only write primitive values.
+     */
+    private static final class EntryOutput extends DataOutputStream implements ObjectOutput
+    {
+        private EntryOutput( OutputStream out )
+        {
+            super( out );
+        }
+
+
+        @Override
+        public void writeObject( Object object ) throws IOException
+        {
+            throw new NotSerializableException( object.getClass().getName() );
+        }
+
+
+        private void writeVarInt( int value ) throws IOException
+        {
+            int remaining = value;
+
+            while ( ( remaining & ~0x7F ) != 0 )
+            {
+                write( ( remaining & 0x7F ) | 0x80 );
+                remaining >>>= 7;
+            }
+
+            write( remaining );
+        }
+    }
+
+
+    /**
+     * An ObjectInput reading directly from a stream, without the Java serialization headers.
+     */
+    private static final class EntryInput extends DataInputStream implements ObjectInput
+    {
+        private EntryInput( InputStream in )
+        {
+            super( in );
+        }
+
+
+        @Override
+        public Object readObject() throws IOException
+        {
+            throw new NotSerializableException();
+        }
+
+
+        private int readVarInt() throws IOException
+        {
+            int value = 0;
+
+            for ( int shift = 0; shift < 32; shift += 7 )
+            {
+                int b = readUnsignedByte();
+                value |= ( b & 0x7F ) << shift;
+
+                if ( ( b & 0x80 ) == 0 )
+                {
+                    return value;
+                }
+            }
+
+            throw new IOException( "Malformed varint" );
+        }
+    }
+
+
+    /**
+     * An InputStream reading the bytes of a buffer, without copying them.
+     */
+    private static final class ByteBufferInputStream extends InputStream
+    {
+        private final ByteBuffer buffer;
+
+
+        private ByteBufferInputStream( ByteBuffer buffer )
+        {
+            this.buffer = buffer;
+        }
+
+
+        @Override
+        public int read()
+        {
+            if ( !buffer.hasRemaining() )
+            {
+                return -1;
+            }
+
+            return buffer.get() & 0xFF;
+        }
+
+
+        @Override
+        public int read( byte[] bytes, int offset, int length )
+        {
+            if ( length == 0 )
+            {
+                return 0;
+            }
+
+            if ( !buffer.hasRemaining() )
+            {
+                return -1;
+            }
+
+            int nbRead = Math.min( length, buffer.remaining() );
+            buffer.get( bytes, offset, nbRead );
+
+            return nbRead;
+        }
+
+
+        @Override
+        public int available()
+        {
+            return buffer.remaining();
+        }
+    }
+
+
+    /**
+     * Serializes an entry.
+     *
+     * @param entry The entry to serialize
+     * @param dnKind {@link #NO_DN} to ignore the Dn, {@link #RDN} to store only the Rdn, which is the
+     * case of the master tables, or {@link #FULL_DN} to store the full Dn
+     * @return The serialized entry
+     * @throws IOException If the entry can't be serialized
+     */
+    public static byte[] serialize( Entry entry, byte dnKind ) throws IOException
+    {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream( 512 );
+
+        try ( EntryOutput out = new EntryOutput( baos ) )
+        {
+            out.writeByte( VERSION );
+
+            Dn dn = entry.getDn();
+
+            if ( ( dnKind == NO_DN ) || ( dn == null ) || dn.isEmpty() )
+            {
+                out.writeByte( NO_DN );
+            }
+            else if ( dnKind == RDN )
+            {
+                out.writeByte( RDN );
+                dn.getRdn().writeExternal( out );
+            }
+            else
+            {
+                out.writeByte( FULL_DN );
+                dn.writeExternal( out );
+            }
+
+            out.writeVarInt( entry.getAttributes().size() );
+
+            for ( Attribute attribute : entry.getAttributes() )
+            {
+                String oid = attribute.getAttributeType().getOid();
+                Integer id = DICTIONARY_IDS.get( oid );
+
+                if ( id != null )
+                {
+                    out.writeVarInt( id );
+                }
+                else
+                {
+                    byte[] oidBytes = oid.getBytes( StandardCharsets.US_ASCII );
+
+                    out.writeVarInt( 0 );
+                    out.writeVarInt( oidBytes.length );
+                    out.write( oidBytes );
+                }
+
+                attribute.writeExternal( out );
+            }
+
+            out.flush();
+        }
+
+        return baos.toByteArray();
+    }
+
+
+    /**
+     * Deserializes an entry.
+     *
+     * @param schemaManager The SchemaManager
+     * @param bytes The serialized entry
+     * @param offset The position of the serialized entry in the array
+     * @param length The length of the serialized entry
+     * @return The entry. Its Dn is empty if no Dn was stored, and contains only the Rdn if
+     * only the Rdn was stored
+     * @throws IOException If the entry can't be deserialized
+     */
+    public static Entry deserialize( SchemaManager schemaManager, byte[] bytes, int offset, int length )
+        throws IOException
+    {
+        if ( ( length > 0 ) && ( bytes[offset] == STREAM_MAGIC ) )
+        {
+            return deserializeLegacy( schemaManager, bytes, offset, length );
+        }
+
+        return readEntry( schemaManager, new EntryInput( new ByteArrayInputStream( bytes, offset, length ) ) );
+    }
+
+
+    /**
+     * Deserializes an entry, reading it directly from a buffer, which may be a direct one
+     * mapped on a database file : the entry bytes are not copied. The buffer position is
+     * not modified.
+     *
+     * @param schemaManager The SchemaManager
+     * @param buffer The serialized entry, between the buffer position and its limit
+     * @return The entry. Its Dn is empty if no Dn was stored, and contains only the Rdn if
+     * only the Rdn was stored
+     * @throws IOException If the entry can't be deserialized
+     */
+    public static Entry deserialize( SchemaManager schemaManager, ByteBuffer buffer ) throws IOException
+    {
+        if ( buffer.hasArray() )
+        {
+            return deserialize( schemaManager, buffer.array(), buffer.arrayOffset() + buffer.position(),
+                buffer.remaining() );
+        }
+
+        if ( buffer.hasRemaining() && ( buffer.get( buffer.position() ) == STREAM_MAGIC ) )
+        {
+            byte[] bytes = new byte[buffer.remaining()];
+            buffer.duplicate().get( bytes );
+
+            return deserializeLegacy( schemaManager, bytes, 0, bytes.length );
+        }
+
+        return readEntry( schemaManager, new EntryInput( new ByteBufferInputStream( buffer.duplicate() ) ) );
+    }
+
+
+    /**
+     * Reads an entry serialized with the compact format
+     */
+    private static Entry readEntry( SchemaManager schemaManager, EntryInput input ) throws IOException
+    {
+        try ( EntryInput in = input )
+        {
+            byte version = in.readByte();
+
+            if ( version != VERSION )
+            {
+                throw new IOException( "Unknown entry serialization version : " + version );
+            }
+
+            Entry entry = new DefaultEntry( schemaManager );
+
+            readDn( schemaManager, in, in.readByte(), entry );
+
+            int nbAttributes = in.readVarInt();
+
+            for ( int i = 0; i < nbAttributes; i++ )
+            {
+                int id = in.readVarInt();
+                String oid;
+
+                if ( id == 0 )
+                {
+                    byte[] oidBytes = new byte[in.readVarInt()];
+                    in.readFully( oidBytes );
+                    oid = new String( oidBytes, StandardCharsets.US_ASCII );
+                }
+                else if ( id < DICTIONARY.length )
+                {
+                    oid = DICTIONARY[id];
+                }
+                else
+                {
+                    throw new IOException( "Unknown attribute type id : " + id );
+                }
+
+                entry.add( readAttribute( schemaManager, in, oid ) );
+            }
+
+            return entry;
+        }
+        catch ( LdapException le )
+        {
+            throw new IOException( le.getMessage(), le );
+        }
+    }
+
+
+    /**
+     * Reads the Dn of the entry
+     */
+    private static void readDn( SchemaManager schemaManager, ObjectInput in, byte dnKind, Entry entry )
+        throws IOException, LdapException
+    {
+        try
+        {
+            switch ( dnKind )
+            {
+                case NO_DN:
+                    entry.setDn( Dn.EMPTY_DN );
+                    break;
+
+                case RDN:
+                    Rdn rdn = new Rdn( schemaManager );
+                    rdn.readExternal( in );
+                    entry.setDn( new Dn( schemaManager, rdn ) );
+                    break;
+
+                case FULL_DN:
+                    Dn dn = new Dn( schemaManager );
+                    dn.readExternal( in );
+                    entry.setDn( dn );
+                    break;
+
+                default:
+                    throw new IOException( "Unknown Dn kind : " + dnKind );
+            }
+        }
+        catch ( ClassNotFoundException cnfe )
+        {
+            throw new IOException( cnfe.getMessage(), cnfe );
+        }
+    }
+
+
+    /**
+     * Reads an attribute, knowing its OID
+     */
+    private static Attribute readAttribute( SchemaManager schemaManager, ObjectInput in, String oid )
+        throws IOException, LdapException
+    {
+        AttributeType attributeType = schemaManager.lookupAttributeTypeRegistry( oid );
+        Attribute attribute = new DefaultAttribute( attributeType );
+
+        try
+        {
+            attribute.readExternal( in );
+        }
+        catch ( ClassNotFoundException cnfe )
+        {
+            throw new IOException( cnfe.getMessage(), cnfe );
+        }
+
+        return attribute;
+    }
+
+
+    /**
+     * Reads an entry stored with the previous format : an ObjectOutputStream containing a
+     * flag telling if there is a Rdn, the Rdn, the number of attributes, and for each
+     * attribute its OID and the attribute.
+     */
+    private static Entry deserializeLegacy( SchemaManager schemaManager, byte[] bytes, int offset, int length )
+        throws IOException
+    {
+        try ( ObjectInputStream in = new ObjectInputStream( new ByteArrayInputStream( bytes, offset, length ) ) )
+        {
+            Entry entry = new DefaultEntry( schemaManager );
+
+            readDn( schemaManager, in, in.readByte(), entry );
+
+            int nbAttributes = in.readInt();
+
+            for ( int i = 0; i < nbAttributes; i++ )
+            {
+                entry.add( readAttribute( schemaManager, in, in.readUTF() ) );
+            }
+
+            return entry;
+        }
+        catch ( LdapException le )
+        {
+            throw new IOException( le.getMessage(), le );
+        }
+    }
+}
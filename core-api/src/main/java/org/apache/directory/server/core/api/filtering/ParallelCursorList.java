@@ -0,0 +1,625 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.api.filtering;
+
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.directory.api.ldap.model.constants.Loggers;
+import org.apache.directory.api.ldap.model.cursor.AbstractCursor;
+import org.apache.directory.api.ldap.model.cursor.ClosureMonitor;
+import org.apache.directory.api.ldap.model.cursor.CursorException;
+import org.apache.directory.api.ldap.model.cursor.InvalidCursorPositionException;
+import org.apache.directory.api.ldap.model.entry.DefaultEntry;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.exception.OperationAbandonedException;
+import org.apache.directory.server.core.api.interceptor.context.SearchOperationContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * A Cursor merging the entries of many searches run at the same time on an executor,
+ * typically one search per partition. Each search is opened and read by a task which
+ * pushes the entries into a bounded queue read by this cursor : a slow reader
+ * blocks the tasks instead of letting the entries pile up in memory.
+ * <br>
+ * The searches are started when the cursor is first moved, so that the entry filters
+ * added by the interceptors are applied by each search. The entries are returned in
+ * the order they are produced. Moving the cursor before the first entry again restarts
+ * all the searches. Closing or abandoning the cursor stops all of them.
+ *
+ * WARN this is only used internally !
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class ParallelCursorList extends AbstractCursor<Entry> implements EntryFilteringCursor
+{
+    /** A dedicated log for cursors */
+    private static final Logger LOG_CURSOR = LoggerFactory.getLogger( Loggers.CURSOR_LOG.getName() );
+
+    /** Speedup for logs */
+    private static final boolean IS_DEBUG = LOG_CURSOR.isDebugEnabled();
+
+    /** The logger for this class */
+    private static final Logger LOG = LoggerFactory.getLogger( ParallelCursorList.class );
+
+    /** The marker pushed by a search when it is done */
+    private static final Entry END = new DefaultEntry();
+
+    /** How long a blocked search waits before checking if the cursor has been closed, in ms */
+    private static final long POLL_DELAY = 100L;
+
+    /** The searches to run. Each call opens a new search, and returns null if there is nothing to search */
+    private final List<Callable<EntryFilteringCursor>> searches;
+
+    /** The executor running the searches */
+    private final ExecutorService executor;
+
+    /** The maximum number of entries waiting to be read */
+    private final int queueSize;
+
+    /** the operation context */
+    private final SearchOperationContext searchContext;
+
+    /** The filters to add to each search */
+    private final List<EntryFilter> filters = new CopyOnWriteArrayList<>();
+
+    /** The closure monitor to set on each search */
+    private volatile ClosureMonitor monitor;
+
+    /** The current execution of the searches, null if they are not started */
+    private volatile Run run;
+
+    /** The current entry */
+    private Entry current;
+
+    /** flag to detect the closed cursor */
+    private volatile boolean closed;
+
+
+    /**
+     * Creates a new ParallelCursorList.
+     *
+     * @param searches the searches to run
+     * @param executor the executor running the searches
+     * @param queueSize the maximum number of entries waiting to be read
+     * @param searchContext The SearchContext instance
+     */
+    public ParallelCursorList( List<Callable<EntryFilteringCursor>> searches, ExecutorService executor, int queueSize,
+        SearchOperationContext searchContext )
+    {
+        if ( IS_DEBUG )
+        {
+            LOG_CURSOR.debug( "Creating ParallelCursorList {}", this );
+        }
+
+        this.searches = searches;
+        this.executor = executor;
+        this.queueSize = queueSize;
+        this.searchContext = searchContext;
+    }
+
+
+    /**
+     * An execution of all the searches
+     */
+    private final class Run
+    {
+        /** The entries waiting to be read */
+        private final BlockingQueue<Entry> queue = new ArrayBlockingQueue<>( queueSize );
+
+        /** The opened searches, so that we can abandon them */
+        private final List<EntryFilteringCursor> cursors = new CopyOnWriteArrayList<>();
+
+        /** The tasks */
+        private final List<Future<?>> futures = new ArrayList<>();
+
+        /** The number of searches which are not done yet */
+        private int remaining;
+
+        /** Set when the searches must stop */
+        private volatile boolean stopped;
+
+        /** The first error met by a search */
+        private volatile Exception failure;
+
+
+        private void start() throws CursorException
+        {
+            remaining = searches.size();
+
+            try
+            {
+                for ( final Callable<EntryFilteringCursor> search : searches )
+                {
+                    futures.add( executor.submit( new Runnable()
+                    {
+                        @Override
+                        public void run()
+                        {
+                            produce( search );
+                        }
+                    } ) );
+                }
+            }
+            catch ( RejectedExecutionException ree )
+            {
+                stop();
+
+                throw new CursorException( ree.getMessage(), ree );
+            }
+        }
+
+
+        /**
+         * Opens a search, and pushes its entries into the queue
+         */
+        private void produce( Callable<EntryFilteringCursor> search )
+        {
+            EntryFilteringCursor cursor = null;
+
+            try
+            {
+                if ( stopped )
+                {
+                    return;
+                }
+
+                cursor = search.call();
+
+                if ( cursor == null )
+                {
+                    return;
+                }
+
+                for ( EntryFilter filter : filters )
+                {
+                    cursor.addEntryFilter( filter );
+                }
+
+                if ( monitor != null )
+                {
+                    cursor.setClosureMonitor( monitor );
+                }
+
+                cursors.add( cursor );
+
+                while ( !stopped && cursor.next() )
+                {
+                    if ( !push( cursor.get() ) )
+                    {
+                        return;
+                    }
+                }
+            }
+            catch ( InterruptedException ie )
+            {
+                Thread.currentThread().interrupt();
+            }
+            catch ( Exception e )
+            {
+                if ( !stopped && ( failure == null ) )
+                {
+                    failure = e;
+                }
+            }
+            finally
+            {
+                if ( cursor != null )
+                {
+                    cursors.remove( cursor );
+
+                    try
+                    {
+                        cursor.close();
+                    }
+                    catch ( Exception e )
+                    {
+                        LOG.warn( "Failed to close the cursor" );
+                    }
+                }
+
+                try
+                {
+                    push( END );
+                }
+                catch ( InterruptedException ie )
+                {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+
+
+        /**
+         * Pushes an entry into the queue, waiting for some room if needed.
+         *
+         * @return false if the searches have been stopped
+         */
+        private boolean push( Entry entry ) throws InterruptedException
+        {
+            while ( !queue.offer( entry, POLL_DELAY, TimeUnit.MILLISECONDS ) )
+            {
+                if ( stopped )
+                {
+                    return false;
+                }
+            }
+
+            return true;
+        }
+
+
+        /**
+         * Gets the next entry, or null if all the searches are done
+         */
+        private Entry take() throws LdapException, CursorException
+        {
+            while ( remaining > 0 )
+            {
+                Entry entry;
+
+                try
+                {
+                    entry = queue.take();
+                }
+                catch ( InterruptedException ie )
+                {
+                    Thread.currentThread().interrupt();
+
+                    throw new CursorException( ie.getMessage(), ie );
+                }
+
+                if ( entry != END )
+                {
+                    return entry;
+                }
+
+                remaining--;
+
+                Exception error = failure;
+
+                if ( error != null )
+                {
+                    stop();
+
+                    if ( error instanceof LdapException )
+                    {
+                        throw ( LdapException ) error;
+                    }
+                    else if ( error instanceof CursorException )
+                    {
+                        throw ( CursorException ) error;
+                    }
+
+                    throw new CursorException( error.getMessage(), error );
+                }
+            }
+
+            return null;
+        }
+
+
+        /**
+         * Stops the searches. The running tasks stop as soon as they check the flag,
+         * the tasks not started yet are cancelled.
+         */
+        private void stop()
+        {
+            stopped = true;
+
+            for ( Future<?> future : futures )
+            {
+                future.cancel( false );
+            }
+
+            // Free some room for the tasks waiting on a full queue
+            queue.clear();
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean available()
+    {
+        return current != null;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public void before( Entry element ) throws LdapException, CursorException
+    {
+        throw new UnsupportedOperationException( "ParallelCursorList doesn't support this operation" );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public void after( Entry element ) throws LdapException, CursorException
+    {
+        throw new UnsupportedOperationException( "ParallelCursorList doesn't support this operation" );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public void beforeFirst() throws LdapException, CursorException
+    {
+        if ( run != null )
+        {
+            // The searches will be started again
+            run.stop();
+            run = null;
+        }
+
+        current = null;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public void afterLast() throws LdapException, CursorException
+    {
+        throw new UnsupportedOperationException( "ParallelCursorList doesn't support this operation" );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean first() throws LdapException, CursorException
+    {
+        beforeFirst();
+
+        return next();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean last() throws LdapException, CursorException
+    {
+        throw new UnsupportedOperationException( "ParallelCursorList doesn't support this operation" );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean isFirst()
+    {
+        throw new UnsupportedOperationException( "ParallelCursorList doesn't support this operation" );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean isLast()
+    {
+        throw new UnsupportedOperationException( "ParallelCursorList doesn't support this operation" );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean isAfterLast()
+    {
+        return ( run != null ) && ( run.remaining == 0 ) && ( current == null );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean isBeforeFirst()
+    {
+        return run == null;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean previous() throws LdapException, CursorException
+    {
+        throw new UnsupportedOperationException( "ParallelCursorList doesn't support this operation" );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean next() throws LdapException, CursorException
+    {
+        if ( closed )
+        {
+            throw new CursorException( "The cursor has been closed" );
+        }
+
+        if ( searchContext.isAbandoned() )
+        {
+            LOG.info( "Cursor has been abandoned." );
+            close();
+
+            throw new OperationAbandonedException();
+        }
+
+        if ( run == null )
+        {
+            run = new Run();
+            run.start();
+        }
+
+        current = run.take();
+
+        return current != null;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public Entry get() throws CursorException
+    {
+        if ( current != null )
+        {
+            return current;
+        }
+
+        throw new InvalidCursorPositionException();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean addEntryFilter( EntryFilter filter )
+    {
+        return filters.add( filter );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public List<EntryFilter> getEntryFilters()
+    {
+        return filters;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public SearchOperationContext getOperationContext()
+    {
+        return searchContext;
+    }
+
+
+    public boolean isAbandoned()
+    {
+        return searchContext.isAbandoned();
+    }
+
+
+    public void setAbandoned( boolean abandoned )
+    {
+        searchContext.setAbandoned( abandoned );
+
+        if ( abandoned )
+        {
+            LOG.info( "Cursor has been abandoned." );
+
+            Run currentRun = run;
+
+            if ( currentRun != null )
+            {
+                for ( EntryFilteringCursor cursor : currentRun.cursors )
+                {
+                    cursor.setAbandoned( true );
+                }
+
+                currentRun.stop();
+            }
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public void close()
+    {
+        if ( IS_DEBUG )
+        {
+            LOG_CURSOR.debug( "Closing ParallelCursorList {}", this );
+        }
+
+        close( null );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public void close( Exception reason )
+    {
+        if ( IS_DEBUG )
+        {
+            LOG_CURSOR.debug( "Closing ParallelCursorList {}", this );
+        }
+
+        closed = true;
+        current = null;
+
+        // The tasks close their own cursor when they stop
+        if ( run != null )
+        {
+            run.stop();
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean isClosed()
+    {
+        return closed;
+    }
+
+
+    public Iterator<Entry> iterator()
+    {
+        throw new UnsupportedOperationException();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public void setClosureMonitor( ClosureMonitor monitor )
+    {
+        this.monitor = monitor;
+    }
+}
@@ -113,6 +113,30 @@ public abstract class AbstractOperationContext implements OperationContext
     }
 
 
+    /**
+     * Creates a new instance of AbstractOperationContext, copying an existing context.
+     * The controls are shared with the copied context.
+     *
+     * @param operationContext The context to copy
+     */
+    protected AbstractOperationContext( AbstractOperationContext operationContext )
+    {
+        dn = operationContext.dn;
+        entry = operationContext.entry;
+        originalEntry = operationContext.originalEntry;
+        requestControls = operationContext.requestControls;
+        responseControls = operationContext.responseControls;
+        byPassed = operationContext.byPassed;
+        interceptors = operationContext.interceptors;
+        currentInterceptor = operationContext.currentInterceptor;
+        authorizedPrincipal = operationContext.authorizedPrincipal;
+        session = operationContext.session;
+        throwReferral = operationContext.throwReferral;
+        transaction = operationContext.transaction;
+        partition = operationContext.partition;
+    }
+
+
     /**
      * {@inheritDoc}
      */
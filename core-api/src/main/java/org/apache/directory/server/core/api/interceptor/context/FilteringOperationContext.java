@@ -121,6 +121,24 @@ public abstract class FilteringOperationContext extends AbstractOperationContext
     }
 
 
+    /**
+     * Creates a new instance of FilteringOperationContext, copying an existing context.
+     *
+     * @param filteringContext The context to copy
+     */
+    protected FilteringOperationContext( FilteringOperationContext filteringContext )
+    {
+        super( filteringContext );
+
+        returningAttributes = filteringContext.returningAttributes;
+        returningAttributesString = filteringContext.returningAttributesString;
+        allOperationalAttributes = filteringContext.allOperationalAttributes;
+        allUserAttributes = filteringContext.allUserAttributes;
+        noAttributes = filteringContext.noAttributes;
+        typesOnly = filteringContext.typesOnly;
+    }
+
+
     /**
      * @return the returningAttributes as a Set of AttributeTypeOptions
      */
@@ -20,6 +20,9 @@
 package org.apache.directory.server.core.api.interceptor.context;
 
 
+import java.util.List;
+
+import org.apache.directory.api.ldap.model.entry.Modification;
 import org.apache.directory.api.ldap.model.name.Dn;
 import org.apache.directory.server.core.api.CoreSession;
 import org.apache.directory.server.core.api.OperationEnum;
@@ -36,6 +39,9 @@ public class LookupOperationContext extends FilteringOperationContext
     /** flag to indicate if this search is done for replication */
     private boolean syncreplLookup;
 
+    /** The modifications the entry is read for, if any */
+    private List<Modification> modifications;
+
     /**
      * Creates a new instance of LookupOperationContext.
      *
@@ -131,4 +137,28 @@ public class LookupOperationContext extends FilteringOperationContext
     {
         this.syncreplLookup = syncreplLookup;
     }
+
+
+    /**
+     * @return The modifications the entry is read for, or null if the entry is not read
+     * to be modified
+     */
+    public List<Modification> getModifications()
+    {
+        return modifications;
+    }
+
+
+    /**
+     * Tells that the entry is read to check some modifications before they are applied. A
+     * partition storing the values of the very large attributes out of the entries then only
+     * reads the values of these attributes that the modifications need : the returned entry
+     * must not be used for anything else.
+     *
+     * @param modifications The modifications the entry is read for
+     */
+    public void setModifications( List<Modification> modifications )
+    {
+        this.modifications = modifications;
+    }
 }
@@ -37,6 +37,7 @@ import org.apache.directory.api.ldap.model.name.Dn;
 import org.apache.directory.server.core.api.CoreSession;
 import org.apache.directory.server.core.api.OperationEnum;
 import org.apache.directory.server.core.api.entry.ServerEntryUtils;
+import org.apache.directory.server.core.api.partition.LazyAttributesLoader;
 
 
 /**
@@ -55,6 +56,9 @@ public class ModifyOperationContext extends AbstractChangeOperationContext
     /** The entry after being renamed and altered for rdn attributes */
     private Entry alteredEntry;
 
+    /** The loader of the altered entry attributes which have not been read yet, if any */
+    private LazyAttributesLoader alteredEntryLoader;
+
 
     /**
      * Creates a new instance of ModifyOperationContext.
@@ -171,11 +175,41 @@ public class ModifyOperationContext extends AbstractChangeOperationContext
 
     /**
      * Returns the entry after it has been renamed and potentially changed for
-     * Rdn alterations.
+     * Rdn alterations. If the partition has not read all its attributes, they are
+     * read now.
      *
      * @return the new renamed entry
      */
-    public Entry getAlteredEntry()
+    public synchronized Entry getAlteredEntry()
+    {
+        if ( alteredEntryLoader != null )
+        {
+            try
+            {
+                alteredEntryLoader.load( alteredEntry );
+            }
+            catch ( LdapException le )
+            {
+                throw new IllegalStateException( le.getMessage(), le );
+            }
+
+            alteredEntryLoader = null;
+        }
+
+        return alteredEntry;
+    }
+
+
+    /**
+     * Returns the entry after it has been renamed and potentially changed for
+     * Rdn alterations, without reading the attributes the partition has not read
+     * yet, like the values of the very large attributes. It must only be used when
+     * these attributes are not needed, for instance to check the ObjectClasses or
+     * the access control attributes of the entry.
+     *
+     * @return the new renamed entry, which may miss some attributes
+     */
+    public synchronized Entry getPartialAlteredEntry()
     {
         return alteredEntry;
     }
@@ -187,9 +221,25 @@ public class ModifyOperationContext extends AbstractChangeOperationContext
      *
      * @param alteredEntry The modified entry
      */
-    public void setAlteredEntry( Entry alteredEntry )
+    public synchronized void setAlteredEntry( Entry alteredEntry )
+    {
+        this.alteredEntry = alteredEntry;
+        alteredEntryLoader = null;
+    }
+
+
+    /**
+     * Set the modified entry once the operation has been proceced on the backend,
+     * when some of its attributes have not been read : they will only be read if
+     * the altered entry is requested.
+     *
+     * @param alteredEntry The modified entry, without some of its attributes
+     * @param alteredEntryLoader The loader of the missing attributes
+     */
+    public synchronized void setAlteredEntry( Entry alteredEntry, LazyAttributesLoader alteredEntryLoader )
     {
         this.alteredEntry = alteredEntry;
+        this.alteredEntryLoader = alteredEntryLoader;
     }
 
 
@@ -65,6 +65,9 @@ public class SearchOperationContext extends FilteringOperationContext
 
     /** flag to indicate if this search is done for replication */
     private boolean syncreplSearch;
+
+    /** flag set by the partition when the entries are returned in the order requested by the sort control */
+    private boolean sorted;
     
     /**
      * Creates a new instance of SearchOperationContext.
@@ -158,6 +161,27 @@ public class SearchOperationContext extends FilteringOperationContext
     }
 
 
+    /**
+     * Creates a new instance of SearchOperationContext, copying an existing context. This is
+     * used to search many partitions at the same time, each search using its own context.
+     *
+     * @param searchContext The context to copy
+     */
+    public SearchOperationContext( SearchOperationContext searchContext )
+    {
+        super( searchContext );
+
+        aliasDerefMode = searchContext.aliasDerefMode;
+        sizeLimit = searchContext.sizeLimit;
+        timeLimit = searchContext.timeLimit;
+        scope = searchContext.scope;
+        abandoned = searchContext.abandoned;
+        filter = searchContext.filter;
+        syncreplSearch = searchContext.syncreplSearch;
+        sorted = searchContext.sorted;
+    }
+
+
     /**
      * Checks whether or not the ManageDsaITControl is present.  If not
      * present then the filter is modified to force the return of all referral
@@ -221,6 +245,27 @@ public class SearchOperationContext extends FilteringOperationContext
     }
 
 
+    /**
+     * @return true if the partition returns the entries already sorted as requested by the sort control
+     */
+    public boolean isSorted()
+    {
+        return sorted;
+    }
+
+
+    /**
+     * Sets the flag indicating that the entries are returned in the order requested
+     * by the sort control, so that they don't have to be sorted again.
+     * 
+     * @param sorted The flag indicating the entries are sorted
+     */
+    public void setSorted( boolean sorted )
+    {
+        this.sorted = sorted;
+    }
+
+
     /**
      * @return The alias dereferencing mode
      */
@@ -199,7 +199,11 @@ public interface Partition
 
 
     /**
-     * Modifies an entry by adding, removing or replacing a set of attributes.
+     * Modifies an entry by adding, removing or replacing a set of attributes. The modified
+     * entry is stored in the context. A partition may not read all its attributes : the JDBM
+     * partition stores the values of the very large attributes, like member, out of the entries,
+     * and they are only read when {@link ModifyOperationContext#getAlteredEntry()} is called.
+     * The other partitions keep all the values in the entries.
      *
      * @param modifyContext The context containing the modification operation
      * to perform on the entry which is one of constants specified by the
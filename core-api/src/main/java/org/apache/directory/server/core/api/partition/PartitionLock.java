@@ -0,0 +1,339 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.api.partition;
+
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+
+/**
+ * A fair ReadWrite lock protecting a single partition. Writers on a partition are
+ * serialized, and exclude readers of the same partition, but they don't block
+ * operations on any other partition. The lock also gathers a few contention
+ * counters, which can be used to monitor the server.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class PartitionLock implements ReadWriteLock
+{
+    /** The ID of the partition this lock is protecting */
+    private final String partitionId;
+
+    /** The underlying fair lock */
+    private final ReentrantReadWriteLock rwLock = new ReentrantReadWriteLock( true );
+
+    /** The instrumented read lock */
+    private final InstrumentedLock readLock;
+
+    /** The instrumented write lock */
+    private final InstrumentedLock writeLock;
+
+
+    /**
+     * A Lock wrapper counting the acquisitions, the contended acquisitions, and
+     * the time spent waiting for the lock.
+     */
+    private final class InstrumentedLock implements Lock
+    {
+        /** The wrapped lock */
+        private final Lock lock;
+
+        /** Tells if this is the write lock */
+        private final boolean isWrite;
+
+        /** The number of time the lock has been acquired */
+        private final AtomicLong acquired = new AtomicLong();
+
+        /** The number of time we had to wait to get the lock */
+        private final AtomicLong contended = new AtomicLong();
+
+        /** The total time spent waiting for the lock, in nanoseconds */
+        private final AtomicLong waitTime = new AtomicLong();
+
+
+        private InstrumentedLock( Lock lock, boolean isWrite )
+        {
+            this.lock = lock;
+            this.isWrite = isWrite;
+        }
+
+
+        /**
+         * Tells if the current thread will probably have to wait for the lock. This
+         * is only an estimation, as the lock state may change at any time.
+         */
+        private boolean isContended()
+        {
+            if ( rwLock.isWriteLockedByCurrentThread() )
+            {
+                return false;
+            }
+
+            if ( isWrite )
+            {
+                return rwLock.isWriteLocked() || ( rwLock.getReadLockCount() > 0 ) || rwLock.hasQueuedThreads();
+            }
+            else
+            {
+                return ( rwLock.getReadHoldCount() == 0 ) && ( rwLock.isWriteLocked() || rwLock.hasQueuedThreads() );
+            }
+        }
+
+
+        @Override
+        public void lock()
+        {
+            if ( isContended() )
+            {
+                contended.incrementAndGet();
+                long start = System.nanoTime();
+                lock.lock();
+                waitTime.addAndGet( System.nanoTime() - start );
+            }
+            else
+            {
+                lock.lock();
+            }
+
+            acquired.incrementAndGet();
+        }
+
+
+        @Override
+        public void lockInterruptibly() throws InterruptedException
+        {
+            if ( isContended() )
+            {
+                contended.incrementAndGet();
+                long start = System.nanoTime();
+
+                try
+                {
+                    lock.lockInterruptibly();
+                }
+                finally
+                {
+                    waitTime.addAndGet( System.nanoTime() - start );
+                }
+            }
+            else
+            {
+                lock.lockInterruptibly();
+            }
+
+            acquired.incrementAndGet();
+        }
+
+
+        @Override
+        public boolean tryLock()
+        {
+            boolean locked = lock.tryLock();
+
+            if ( locked )
+            {
+                acquired.incrementAndGet();
+            }
+
+            return locked;
+        }
+
+
+        @Override
+        public boolean tryLock( long time, TimeUnit unit ) throws InterruptedException
+        {
+            long start = System.nanoTime();
+            boolean locked = lock.tryLock( time, unit );
+            long waited = System.nanoTime() - start;
+
+            if ( locked )
+            {
+                acquired.incrementAndGet();
+            }
+
+            if ( !locked || ( waited > 0L ) )
+            {
+                contended.incrementAndGet();
+                waitTime.addAndGet( waited );
+            }
+
+            return locked;
+        }
+
+
+        @Override
+        public void unlock()
+        {
+            lock.unlock();
+        }
+
+
+        @Override
+        public Condition newCondition()
+        {
+            return lock.newCondition();
+        }
+    }
+
+
+    /**
+     * Creates a new PartitionLock instance
+     *
+     * @param partitionId The ID of the protected partition
+     */
+    public PartitionLock( String partitionId )
+    {
+        this.partitionId = partitionId;
+        readLock = new InstrumentedLock( rwLock.readLock(), false );
+        writeLock = new InstrumentedLock( rwLock.writeLock(), true );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Lock readLock()
+    {
+        return readLock;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Lock writeLock()
+    {
+        return writeLock;
+    }
+
+
+    /**
+     * @return The ID of the partition this lock is protecting
+     */
+    public String getPartitionId()
+    {
+        return partitionId;
+    }
+
+
+    /**
+     * @return The number of time the read lock has been acquired
+     */
+    public long getReadAcquired()
+    {
+        return readLock.acquired.get();
+    }
+
+
+    /**
+     * @return The number of time a reader had to wait for the lock
+     */
+    public long getReadContended()
+    {
+        return readLock.contended.get();
+    }
+
+
+    /**
+     * @return The total time spent by readers waiting for the lock, in nanoseconds
+     */
+    public long getReadWaitTime()
+    {
+        return readLock.waitTime.get();
+    }
+
+
+    /**
+     * @return The number of time the write lock has been acquired
+     */
+    public long getWriteAcquired()
+    {
+        return writeLock.acquired.get();
+    }
+
+
+    /**
+     * @return The number of time a writer had to wait for the lock
+     */
+    public long getWriteContended()
+    {
+        return writeLock.contended.get();
+    }
+
+
+    /**
+     * @return The total time spent by writers waiting for the lock, in nanoseconds
+     */
+    public long getWriteWaitTime()
+    {
+        return writeLock.waitTime.get();
+    }
+
+
+    /**
+     * @return The number of threads currently waiting for this lock
+     */
+    public int getQueueLength()
+    {
+        return rwLock.getQueueLength();
+    }
+
+
+    /**
+     * Reset all the counters
+     */
+    public void resetStatistics()
+    {
+        readLock.acquired.set( 0L );
+        readLock.contended.set( 0L );
+        readLock.waitTime.set( 0L );
+        writeLock.acquired.set( 0L );
+        writeLock.contended.set( 0L );
+        writeLock.waitTime.set( 0L );
+    }
+
+
+    /**
+     * @see Object#toString()
+     */
+    @Override
+    public String toString()
+    {
+        StringBuilder sb = new StringBuilder();
+
+        sb.append( "PartitionLock[" ).append( partitionId ).append( "] " );
+        sb.append( "read(acquired=" ).append( getReadAcquired() );
+        sb.append( ", contended=" ).append( getReadContended() );
+        sb.append( ", wait=" ).append( getReadWaitTime() ).append( "ns), " );
+        sb.append( "write(acquired=" ).append( getWriteAcquired() );
+        sb.append( ", contended=" ).append( getWriteContended() );
+        sb.append( ", wait=" ).append( getWriteWaitTime() ).append( "ns), " );
+        sb.append( "queued=" ).append( getQueueLength() );
+
+        return sb.toString();
+    }
+}
@@ -20,6 +20,8 @@
 package org.apache.directory.server.core.api.partition;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * The Write Transaction interface
@@ -28,11 +30,88 @@ import java.io.IOException;
  */
 public class PartitionWriteTxn implements PartitionTxn
 {
+    /** The actions undoing the changes made in memory by this transaction */
+    private List<Runnable> rollbackActions;
+
+
+    /**
+     * Adds an action undoing a change made by this transaction out of the store, like the
+     * update of an index kept in memory. The actions are run in the reverse order when an
+     * implementation rolling back the store changes is aborted, and dropped when it's committed.
+     *
+     * @param rollbackAction The action undoing the change
+     */
+    public void addRollbackAction( Runnable rollbackAction )
+    {
+        if ( rollbackActions == null )
+        {
+            rollbackActions = new ArrayList<>();
+        }
+
+        rollbackActions.add( rollbackAction );
+    }
+
+
+    /**
+     * Runs the rollback actions, in the reverse order they have been added. This method
+     * must be called by the implementations rolling back the store changes when aborted.
+     */
+    protected void runRollbackActions()
+    {
+        if ( rollbackActions == null )
+        {
+            return;
+        }
+
+        for ( int i = rollbackActions.size() - 1; i >= 0; i-- )
+        {
+            rollbackActions.get( i ).run();
+        }
+
+        rollbackActions = null;
+    }
+
+
+    /**
+     * Drops the rollback actions, once the transaction is committed.
+     */
+    protected void clearRollbackActions()
+    {
+        rollbackActions = null;
+    }
+
+
     /**
      * {@inheritDoc}
      */
     @Override
     public void commit() throws IOException
+    {
+        clearRollbackActions();
+    }
+
+
+    /**
+     * Commits the transaction, without waiting for its changes to be synced on disk. The
+     * caller must then call {@link #awaitSync()} once it has released the partition lock,
+     * so that the transactions committed meanwhile on the partition can share the same
+     * sync. This implementation commits the transaction.
+     *
+     * @throws IOException If the transaction can't be committed
+     */
+    public void commitWithoutSync() throws IOException
+    {
+        commit();
+    }
+
+
+    /**
+     * Waits until the changes of a transaction committed with {@link #commitWithoutSync()}
+     * are synced on disk. This implementation does nothing.
+     *
+     * @throws IOException If the changes can't be synced
+     */
+    public void awaitSync() throws IOException
     {
     }
 
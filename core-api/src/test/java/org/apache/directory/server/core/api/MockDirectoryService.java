@@ -476,6 +476,17 @@ public class MockDirectoryService implements DirectoryService
     }
 
 
+    public int getSearchParallelism()
+    {
+        return 0;
+    }
+
+
+    public void setSearchParallelism( int searchParallelism )
+    {
+    }
+
+
     public CacheService getCacheService()
     {
         return null;
@@ -20,6 +20,8 @@
 package org.apache.directory.server.core.api;
 
 
+import java.util.Collections;
+import java.util.Map;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
@@ -41,6 +43,7 @@ import org.apache.directory.server.core.api.interceptor.context.RenameOperationC
 import org.apache.directory.server.core.api.interceptor.context.SearchOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.UnbindOperationContext;
 import org.apache.directory.server.core.api.partition.Partition;
+import org.apache.directory.server.core.api.partition.PartitionLock;
 import org.apache.directory.server.core.api.partition.PartitionTxn;
 
 
@@ -156,4 +159,42 @@ public class MockOperationManager implements OperationManager
     {
         return new ReentrantReadWriteLock();
     }
+
+
+    @Override
+    public void lockWrite( Partition partition )
+    {
+    }
+
+
+    @Override
+    public void unlockWrite( Partition partition )
+    {
+    }
+
+
+    @Override
+    public void lockRead( Partition partition )
+    {
+    }
+
+
+    @Override
+    public void unlockRead( Partition partition )
+    {
+    }
+
+
+    @Override
+    public ReadWriteLock getRWLock( Partition partition )
+    {
+        return new PartitionLock( partition.getId() );
+    }
+
+
+    @Override
+    public Map<String, PartitionLock> getPartitionLocks()
+    {
+        return Collections.emptyMap();
+    }
 }
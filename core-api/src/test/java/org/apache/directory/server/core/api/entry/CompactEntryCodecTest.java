@@ -0,0 +1,115 @@
+/*
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *   or more contributor license agreements.  See the NOTICE file
+ *   distributed with this work for additional information
+ *   regarding copyright ownership.  The ASF licenses this file
+ *   to you under the Apache License, Version 2.0 (the
+ *   "License"); you may not use this file except in compliance
+ *   with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing,
+ *   software distributed under the License is distributed on an
+ *   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *   KIND, either express or implied.  See the License for the
+ *   specific language governing permissions and limitations
+ *   under the License.
+ *
+ */
+package org.apache.directory.server.core.api.entry;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import org.apache.directory.api.ldap.model.entry.Attribute;
+import org.apache.directory.api.ldap.model.entry.DefaultEntry;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.api.ldap.schema.manager.impl.DefaultSchemaManager;
+import org.apache.directory.api.util.Strings;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+
+/**
+ * Tests the CompactEntryCodec class.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class CompactEntryCodecTest
+{
+    private static SchemaManager schemaManager;
+
+
+    @BeforeClass
+    public static void setup() throws Exception
+    {
+        schemaManager = new DefaultSchemaManager();
+    }
+
+
+    private static Entry createEntry() throws Exception
+    {
+        return new DefaultEntry( schemaManager,
+            "cn=test,ou=system",
+            "objectClass: top",
+            "objectClass: person",
+            "objectClass: extensibleObject",
+            "cn: test",
+            "sn: Test",
+            "description: A test entry",
+            "userPassword", Strings.getBytesUtf8( "password" ),
+            // Not in the dictionary
+            "houseIdentifier: 42",
+            "entryUUID: f8ee4c5c-61c4-4d59-a8b3-4e4ee0a6f1d3" );
+    }
+
+
+    @Test
+    public void testRoundTrip() throws Exception
+    {
+        Entry entry = createEntry();
+
+        byte[] data = CompactEntryCodec.serialize( entry, CompactEntryCodec.FULL_DN );
+
+        assertEquals( CompactEntryCodec.VERSION, data[0] );
+
+        Entry result = CompactEntryCodec.deserialize( schemaManager, data, 0, data.length );
+
+        assertEquals( entry.getDn(), result.getDn() );
+        assertEquals( entry.size(), result.size() );
+
+        for ( Attribute attribute : entry )
+        {
+            assertEquals( attribute, result.get( attribute.getAttributeType() ) );
+        }
+
+        // Read from a direct buffer
+        ByteBuffer buffer = ByteBuffer.allocateDirect( data.length );
+        buffer.put( data ).flip();
+
+        assertEquals( result, CompactEntryCodec.deserialize( schemaManager, buffer ) );
+        assertEquals( 0, buffer.position() );
+    }
+
+
+    @Test
+    public void testDictionaryIds() throws Exception
+    {
+        Entry entry = createEntry();
+
+        byte[] data = CompactEntryCodec.serialize( entry, CompactEntryCodec.NO_DN );
+        String serialized = new String( data, StandardCharsets.ISO_8859_1 );
+
+        // The OIDs of the dictionary are not stored, the other ones are
+        assertFalse( serialized.contains( "2.5.4.3" ) );
+        assertFalse( serialized.contains( "1.3.6.1.1.16.4" ) );
+        assertTrue( serialized.contains( schemaManager.getAttributeType( "houseIdentifier" ).getOid() ) );
+    }
+}
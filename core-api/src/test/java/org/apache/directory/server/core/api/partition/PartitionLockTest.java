@@ -0,0 +1,140 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.api.partition;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Test;
+
+
+/**
+ * Unit tests for the PartitionLock class.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class PartitionLockTest
+{
+    @Test
+    public void testReadersDontBlockEachOther() throws Exception
+    {
+        final PartitionLock lock = new PartitionLock( "example" );
+
+        lock.readLock().lock();
+
+        Thread reader = new Thread( new Runnable()
+        {
+            public void run()
+            {
+                lock.readLock().lock();
+                lock.readLock().unlock();
+            }
+        } );
+
+        reader.start();
+        reader.join( 5000L );
+
+        assertFalse( reader.isAlive() );
+        lock.readLock().unlock();
+
+        assertEquals( 2L, lock.getReadAcquired() );
+        assertEquals( 0L, lock.getReadContended() );
+        assertEquals( 0L, lock.getWriteAcquired() );
+    }
+
+
+    @Test
+    public void testWriterWaitsForReaders() throws Exception
+    {
+        final PartitionLock lock = new PartitionLock( "example" );
+        final CountDownLatch started = new CountDownLatch( 1 );
+
+        lock.readLock().lock();
+
+        Thread writer = new Thread( new Runnable()
+        {
+            public void run()
+            {
+                started.countDown();
+                lock.writeLock().lock();
+                lock.writeLock().unlock();
+            }
+        } );
+
+        writer.start();
+        started.await();
+
+        // Give the writer some time to get queued
+        while ( lock.getQueueLength() == 0 )
+        {
+            Thread.sleep( 1L );
+        }
+
+        assertTrue( writer.isAlive() );
+        lock.readLock().unlock();
+        writer.join( 5000L );
+
+        assertFalse( writer.isAlive() );
+        assertEquals( 1L, lock.getWriteAcquired() );
+        assertEquals( 1L, lock.getWriteContended() );
+        assertTrue( lock.getWriteWaitTime() > 0L );
+    }
+
+
+    @Test
+    public void testDistinctLocksAreIndependent() throws Exception
+    {
+        PartitionLock lockA = new PartitionLock( "a" );
+        final PartitionLock lockB = new PartitionLock( "b" );
+
+        lockA.writeLock().lock();
+
+        try
+        {
+            Thread reader = new Thread( new Runnable()
+            {
+                public void run()
+                {
+                    lockB.readLock().lock();
+                    lockB.readLock().unlock();
+                }
+            } );
+
+            reader.start();
+            reader.join( 5000L );
+
+            assertFalse( reader.isAlive() );
+            assertEquals( 1L, lockB.getReadAcquired() );
+            assertEquals( 0L, lockB.getReadContended() );
+        }
+        finally
+        {
+            lockA.writeLock().unlock();
+        }
+
+        lockA.resetStatistics();
+
+        assertEquals( 0L, lockA.getWriteAcquired() );
+    }
+}
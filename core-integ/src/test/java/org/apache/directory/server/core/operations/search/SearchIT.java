@@ -67,6 +67,7 @@ import org.apache.directory.server.core.api.LdapCoreSessionConnection;
 import org.apache.directory.server.core.integ.AbstractLdapTestUnit;
 import org.apache.directory.server.core.integ.FrameworkRunner;
 import org.apache.directory.server.core.integ.IntegrationUtils;
+import org.apache.directory.server.core.shared.partition.DefaultPartitionNexus;
 import org.junit.Before;
 import org.junit.Ignore;
 import org.junit.Test;
@@ -2145,4 +2146,52 @@ public class SearchIT extends AbstractLdapTestUnit
         assertEquals(3, count);
         cursor.close();
     }
+
+
+    /**
+     * Check that a subtree search from the rootDSE returns the same entries when the
+     * partitions are searched in parallel.
+     */
+    @Test
+    public void testSearchRootDSESubtreeInParallel() throws Exception
+    {
+        LdapConnection conn = getAdminConnection( service );
+        DefaultPartitionNexus nexus = ( DefaultPartitionNexus ) service.getPartitionNexus();
+
+        Set<String> expected = new HashSet<String>();
+        EntryCursor cursor = conn.search( "", "(objectClass=*)", SearchScope.SUBTREE, "*" );
+
+        while ( cursor.next() )
+        {
+            expected.add( cursor.get().getDn().getNormName() );
+        }
+
+        cursor.close();
+
+        try
+        {
+            nexus.setSearchParallelism( 4 );
+
+            Set<String> found = new HashSet<String>();
+            cursor = conn.search( "", "(objectClass=*)", SearchScope.SUBTREE, "*" );
+
+            while ( cursor.next() )
+            {
+                assertTrue( found.add( cursor.get().getDn().getNormName() ) );
+            }
+
+            cursor.close();
+
+            assertEquals( expected, found );
+
+            // Stop reading before the end
+            cursor = conn.search( "", "(objectClass=*)", SearchScope.SUBTREE, "*" );
+            assertTrue( cursor.next() );
+            cursor.close();
+        }
+        finally
+        {
+            nexus.setSearchParallelism( 0 );
+        }
+    }
 }
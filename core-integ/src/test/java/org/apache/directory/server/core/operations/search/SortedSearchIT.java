@@ -417,4 +417,49 @@ public class SortedSearchIT extends AbstractLdapTestUnit
         }
     }
 
+
+    @Test
+    public void testSortByMultipleKeys() throws Exception
+    {
+        // user0 and user2 have the same givenName, they are sorted by sn in the reverse order
+        sk.setAttributeTypeDesc( "givenName" );
+        SortKey snKey = new SortKey( "sn" );
+        snKey.setReverseOrder( true );
+        ctrl.addSortKey( snKey );
+
+        SearchCursor cursor = connection.search( req );
+
+        List<String> expectedOrder = new ArrayList<String>();
+        expectedOrder.add( "uid=person1,ou=parent,ou=system" );
+        expectedOrder.add( "uid=person2,ou=parent,ou=system" );
+        expectedOrder.add( "uid=person3,ou=parent,ou=system" );
+        expectedOrder.add( "uid=user2,ou=children,ou=parent,ou=system" );
+        expectedOrder.add( "uid=user0,ou=parent,ou=system" );
+        expectedOrder.add( "uid=user1,ou=parent,ou=system" );
+        expectedOrder.add( "uid=user3,ou=children,ou=parent,ou=system" );
+        expectedOrder.add( "uid=user4,ou=grandchildren,ou=children,ou=parent,ou=system" );
+        expectedOrder.add( "uid=user5,ou=grandchildren,ou=children,ou=parent,ou=system" );
+        expectedOrder.add( "uid=user6,ou=parent,ou=system" );
+        expectedOrder.add( "uid=user7,ou=parent,ou=system" );
+
+        List<String> actualOrder = new ArrayList<String>();
+
+        while ( cursor.next() )
+        {
+            SearchResultEntry se = ( SearchResultEntry ) cursor.get();
+            actualOrder.add( se.getEntry().getDn().getName() );
+        }
+
+        SearchResultDone sd = cursor.getSearchResultDone();
+        cursor.close();
+
+        SortResponse resp = ( SortResponse ) sd.getControl( SortResponse.OID );
+        assertNotNull( resp );
+        assertEquals( SortResultCode.SUCCESS, resp.getSortResult() );
+
+        // the 3 entries without givenName are the last ones
+        assertEquals( expectedOrder.size() + 3, actualOrder.size() );
+        assertEquals( expectedOrder, actualOrder.subList( 0, expectedOrder.size() ) );
+    }
+
 }
@@ -26,20 +26,30 @@ import java.net.SocketAddress;
 import java.text.ParseException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.PriorityQueue;
 import java.util.Set;
 import java.util.concurrent.atomic.AtomicLong;
 
 import jdbm.recman.BaseRecordManager;
 
 import org.apache.directory.api.ldap.extras.controls.syncrepl.syncRequest.SyncRequestValue;
+import org.apache.directory.api.ldap.extras.controls.vlv.VirtualListViewRequest;
+import org.apache.directory.api.ldap.extras.controls.vlv.VirtualListViewResponse;
+import org.apache.directory.api.ldap.extras.controls.vlv.VirtualListViewResponseImpl;
+import org.apache.directory.api.ldap.extras.controls.vlv.VirtualListViewResultCode;
 import org.apache.directory.api.ldap.model.constants.AuthenticationLevel;
 import org.apache.directory.api.ldap.model.constants.SchemaConstants;
 import org.apache.directory.api.ldap.model.cursor.Cursor;
 import org.apache.directory.api.ldap.model.cursor.CursorException;
 import org.apache.directory.api.ldap.model.cursor.EmptyCursor;
+import org.apache.directory.api.ldap.model.cursor.ListCursor;
+import org.apache.directory.api.ldap.model.entry.DefaultEntry;
 import org.apache.directory.api.ldap.model.entry.DefaultModification;
 import org.apache.directory.api.ldap.model.entry.Entry;
 import org.apache.directory.api.ldap.model.entry.Modification;
@@ -113,6 +123,12 @@ public class DefaultCoreSession implements CoreSession
     /** A logger for this class */
     private static final Logger LOG = LoggerFactory.getLogger( DefaultCoreSession.class );
 
+    /** The number of entries above which the sorted entries are spilled to a temporary file */
+    private static final int SORT_SPILL_THRESHOLD = 10000;
+
+    /** The minimum number of entries between two samples of the VLV offset map */
+    private static final int VLV_SAMPLE_INTERVAL = 1000;
+
     /** The DirectoryService we are connected to */
     private final DirectoryService directoryService;
 
@@ -1200,15 +1216,92 @@ public class DefaultCoreSession implements CoreSession
             }
         }
 
+        // Check if we received a VLV Control : the entries must be sorted
+        VirtualListViewRequest vlvControl = ( VirtualListViewRequest ) searchRequest.getControls().get(
+            VirtualListViewRequest.OID );
+
+        VirtualListViewResponse vlvRespCtrl = null;
+
+        if ( vlvControl != null )
+        {
+            vlvRespCtrl = new VirtualListViewResponseImpl();
+            vlvRespCtrl.setContextId( vlvControl.getContextId() );
+
+            if ( ( sortRespCtrl == null ) || ( sortRespCtrl.getSortResult() != SortResultCode.SUCCESS ) )
+            {
+                if ( sortRespCtrl == null )
+                {
+                    vlvRespCtrl.setVirtualListViewResult( VirtualListViewResultCode.SORTCONTROLMISSING );
+                }
+                else
+                {
+                    vlvRespCtrl.setVirtualListViewResult( VirtualListViewResultCode.UNWILLINGTOPERFORM );
+                }
+
+                if ( vlvControl.isCritical() )
+                {
+                    ldapResult.setResultCode( ResultCodeEnum.UNAVAILABLE_CRITICAL_EXTENSION );
+                    done.addControl( vlvRespCtrl );
+
+                    return new EmptyCursor<>();
+                }
+
+                // Not critical : the control is ignored
+                vlvControl = null;
+            }
+            else if ( vlvControl.hasOffset() && ( vlvControl.getOffset() == 0 ) )
+            {
+                ldapResult.setResultCode( ResultCodeEnum.OTHER );
+                ldapResult.setDiagnosticMessage( "The VLV target offset must be greater than 0" );
+                vlvRespCtrl.setVirtualListViewResult( VirtualListViewResultCode.OFFSETRANGEERROR );
+                done.addControl( vlvRespCtrl );
+
+                return new EmptyCursor<>();
+            }
+        }
+
         Cursor<Entry> cursor = null;
 
         try
         {
             cursor = operationManager.search( searchContext );
 
-            if ( ( sortRespCtrl != null ) && ( sortRespCtrl.getSortResult() == SortResultCode.SUCCESS ) )
+            long limit = searchContext.getSizeLimit();
+            AtomicLong nbEntries = null;
+
+            if ( vlvControl != null )
             {
-                cursor = sortResults( cursor, sortControl, getDirectoryService().getSchemaManager() );
+                // The size limit is applied to the entries of the list, not to the view
+                limit = 0L;
+
+                // The sort counts the entries of the list
+                nbEntries = new AtomicLong();
+
+                // If the target is known, we only keep the entries up to the end of the view
+                if ( vlvControl.hasOffset() && ( vlvControl.getContentCount() == 0 ) )
+                {
+                    limit = ( long ) vlvControl.getOffset() + vlvControl.getAfterCount();
+                }
+            }
+
+            // The partition may have returned the entries in the requested order
+            if ( ( sortRespCtrl != null ) && ( sortRespCtrl.getSortResult() == SortResultCode.SUCCESS )
+                && !searchContext.isSorted() )
+            {
+                cursor = sortResults( cursor, sortControl, limit, nbEntries, getDirectoryService().getSchemaManager() );
+            }
+
+            if ( vlvControl != null )
+            {
+                long knownCount = -1L;
+
+                if ( ( nbEntries != null ) && ( nbEntries.get() > 0L ) )
+                {
+                    knownCount = nbEntries.get();
+                }
+
+                cursor = selectVirtualListView( cursor, vlvControl, vlvRespCtrl, sortControl, knownCount,
+                    getDirectoryService().getSchemaManager() );
             }
 
             // the below condition is to satisfy the scenario 6 in section 2 of rfc2891
@@ -1248,6 +1341,11 @@ public class DefaultCoreSession implements CoreSession
             done.addControl( sortRespCtrl );
         }
 
+        if ( vlvRespCtrl != null )
+        {
+            done.addControl( vlvRespCtrl );
+        }
+
         done.addAllControls( searchContext.getResponseControls() );
 
         return cursor;
@@ -1290,19 +1388,34 @@ public class DefaultCoreSession implements CoreSession
      */
     private SortResponse canSort( SortRequest sortControl, LdapResult ldapResult, SchemaManager schemaManager )
     {
+        for ( SortKey sk : sortControl.getSortKeys() )
+        {
+            SortResponse resp = canSort( sk, ldapResult, schemaManager );
+
+            if ( resp.getSortResult() != SortResultCode.SUCCESS )
+            {
+                return resp;
+            }
+        }
+
         SortResponse resp = new SortResponseImpl();
+        resp.setSortResult( SortResultCode.SUCCESS );
 
-        List<SortKey> keys = sortControl.getSortKeys();
+        return resp;
+    }
 
-        // only ONE key is supported by the server for now
-        if ( keys.size() > 1 )
-        {
-            ldapResult.setDiagnosticMessage( "Cannot sort results based on more than one attribute" );
-            resp.setSortResult( SortResultCode.UNWILLINGTOPERFORM );
-            return resp;
-        }
 
-        SortKey sk = keys.get( 0 );
+    /**
+     * Checks if the requested search results can be sorted using one of the sort keys
+     * 
+     * @param sk the sort key
+     * @param ldapResult the refrence to the LDAP result of the ongoing search operation
+     * @param schemaManager the SchemaManager
+     * @return a sort response control
+     */
+    private SortResponse canSort( SortKey sk, LdapResult ldapResult, SchemaManager schemaManager )
+    {
+        SortResponse resp = new SortResponseImpl();
 
         AttributeType at = schemaManager.getAttributeType( sk.getAttributeTypeDesc() );
 
@@ -1378,10 +1491,15 @@ public class DefaultCoreSession implements CoreSession
 
 
     /**
-     * Sorts the entries based on the given sortkey and returns the cursor
+     * Sorts the entries based on the given sortkeys and returns the cursor. The entries are
+     * sorted in memory, unless there are more than {@link #SORT_SPILL_THRESHOLD} entries :
+     * in this case, they are sorted using a BTree stored in a temporary file. When only the
+     * first entries are returned, we keep them in a bounded heap instead.
      * 
      * @param unsortedEntries the cursor containing un-sorted entries
      * @param control the sort control
+     * @param limit the maximum number of entries to return, or 0 if all the entries are returned
+     * @param nbEntries if not null, receives the number of entries read when only the first ones are kept
      * @param schemaManager schema manager
      * @return a cursor containing sorted entries
      * @throws CursorException
@@ -1389,8 +1507,8 @@ public class DefaultCoreSession implements CoreSession
      * @throws IOException
      * @throws KeyNotFoundException 
      */
-    private Cursor<Entry> sortResults( Cursor<Entry> unsortedEntries, SortRequest control, SchemaManager schemaManager )
-        throws CursorException, LdapException, IOException
+    private Cursor<Entry> sortResults( Cursor<Entry> unsortedEntries, SortRequest control, long limit,
+        AtomicLong nbEntries, SchemaManager schemaManager ) throws CursorException, LdapException, IOException
     {
         unsortedEntries.beforeFirst();
 
@@ -1408,12 +1526,53 @@ public class DefaultCoreSession implements CoreSession
             return unsortedEntries;
         }
 
-        SortKey sk = control.getSortKeys().get( 0 );
+        final SortedEntryComparator comparator = SortedEntryComparator.create( control.getSortKeys(), schemaManager );
 
-        AttributeType at = schemaManager.getAttributeType( sk.getAttributeTypeDesc() );
+        // Keep one more entry than the limit, so that the size limit is reported as exceeded
+        if ( ( limit > 0 ) && ( limit < SORT_SPILL_THRESHOLD ) )
+        {
+            return sortTopEntries( unsortedEntries, first, comparator, ( int ) limit + 1, nbEntries );
+        }
+
+        // at this stage the cursor will be _on_ the second element, so read it
+        List<Entry> entries = new ArrayList<>();
+        entries.add( first );
+        entries.add( unsortedEntries.get() );
+
+        boolean spill = false;
+
+        while ( unsortedEntries.next() )
+        {
+            entries.add( unsortedEntries.get() );
 
-        SortedEntryComparator comparator = new SortedEntryComparator( at, sk.getMatchingRuleId(), sk.isReverseOrder(),
-            schemaManager );
+            if ( entries.size() >= SORT_SPILL_THRESHOLD )
+            {
+                spill = true;
+                break;
+            }
+        }
+
+        if ( !spill )
+        {
+            unsortedEntries.close();
+
+            if ( nbEntries != null )
+            {
+                nbEntries.set( entries.size() );
+            }
+
+            // The sort is stable : the entries with the same sort key are kept in the order they were read
+            Collections.sort( entries, new Comparator<Entry>()
+            {
+                @Override
+                public int compare( Entry entry1, Entry entry2 )
+                {
+                    return comparator.compareEntries( entry1, entry2 );
+                }
+            } );
+
+            return new ListCursor<>( entries );
+        }
 
         SortedEntrySerializer keySerializer = new SortedEntrySerializer();
         SortedEntrySerializer.setSchemaManager( schemaManager );
@@ -1437,23 +1596,267 @@ public class DefaultCoreSession implements CoreSession
         jdbm.btree.BTree<Entry, String> btree = new jdbm.btree.BTree<>( recMan, comparator, keySerializer, NullStringSerializer.INSTANCE );
         
 
-        btree.insert( first, "", false );
+        for ( Entry entry : entries )
+        {
+            btree.insert( entry, "", false );
+        }
 
-        // at this stage the cursor will be _on_ the next element, so read it
-        btree.insert( unsortedEntries.get(), "", false );
+        long count = entries.size();
+        entries.clear();
 
         while ( unsortedEntries.next() )
         {
             Entry entry = unsortedEntries.get();
             btree.insert( entry, "", false );
+            count++;
         }
 
         unsortedEntries.close();
 
+        if ( nbEntries != null )
+        {
+            nbEntries.set( count );
+        }
+
         return new SortedEntryCursor( btree, recMan, file );
     }
 
 
+    /**
+     * Keeps the first entries in a bounded heap, and returns them sorted. The heap top is
+     * the last of the kept entries, it is replaced when a smaller entry is read. The
+     * entries with the same sort keys are kept in the order they were read.
+     * 
+     * @param unsortedEntries the cursor containing un-sorted entries, positioned on the second entry
+     * @param first the first entry
+     * @param comparator the entries comparator
+     * @param size the number of entries to keep
+     * @param nbEntries if not null, receives the number of entries read
+     * @return a cursor containing the sorted entries
+     */
+    private Cursor<Entry> sortTopEntries( Cursor<Entry> unsortedEntries, Entry first,
+        final SortedEntryComparator comparator, int size, AtomicLong nbEntries )
+        throws CursorException, LdapException, IOException
+    {
+        // The rank of the entries, used to keep the sort stable
+        final Map<Entry, Long> ranks = new IdentityHashMap<>();
+
+        Comparator<Entry> rankComparator = new Comparator<Entry>()
+        {
+            @Override
+            public int compare( Entry entry1, Entry entry2 )
+            {
+                int c = comparator.compareEntries( entry1, entry2 );
+
+                if ( c == 0 )
+                {
+                    c = ranks.get( entry1 ).compareTo( ranks.get( entry2 ) );
+                }
+
+                return c;
+            }
+        };
+
+        PriorityQueue<Entry> heap = new PriorityQueue<>( size + 1, Collections.reverseOrder( rankComparator ) );
+        long rank = 0L;
+
+        ranks.put( first, rank++ );
+        heap.add( first );
+
+        // at this stage the cursor will be _on_ the second element
+        do
+        {
+            Entry entry = unsortedEntries.get();
+            ranks.put( entry, rank++ );
+
+            if ( heap.size() < size )
+            {
+                heap.add( entry );
+            }
+            else if ( rankComparator.compare( entry, heap.peek() ) < 0 )
+            {
+                ranks.remove( heap.poll() );
+                heap.add( entry );
+            }
+            else
+            {
+                ranks.remove( entry );
+            }
+        }
+        while ( unsortedEntries.next() );
+
+        unsortedEntries.close();
+
+        if ( nbEntries != null )
+        {
+            nbEntries.set( rank );
+        }
+
+        List<Entry> entries = new ArrayList<>( heap );
+        Collections.sort( entries, rankComparator );
+
+        return new ListCursor<>( entries );
+    }
+
+
+    /**
+     * Selects the entries of a virtual list view in the sorted entries. The target entry is
+     * either given by its offset in the list, or it is the first entry which sort key is
+     * greater than or equal to the given assertion value. When the number of entries isn't
+     * known or the target is given by an assertion value, the entries are read once to count
+     * them and find the target. Reading the sorted entries spilled on disk then fills a
+     * sampled offset map, so that the view is read from the closest sample instead of from
+     * the first entry.
+     *
+     * @param sortedEntries the sorted entries
+     * @param vlvControl the VLV request control
+     * @param vlvRespCtrl the VLV response control to update
+     * @param sortControl the sort control
+     * @param knownCount the number of entries in the list if already known, -1 otherwise
+     * @param schemaManager the SchemaManager
+     * @return a cursor over the view entries
+     */
+    private Cursor<Entry> selectVirtualListView( Cursor<Entry> sortedEntries, VirtualListViewRequest vlvControl,
+        VirtualListViewResponse vlvRespCtrl, SortRequest sortControl, long knownCount, SchemaManager schemaManager )
+        throws CursorException, LdapException, IOException
+    {
+        long count = 0L;
+        long target = 0L;
+        SortedEntryComparator comparator = null;
+        Entry assertionEntry = null;
+
+        if ( !vlvControl.hasOffset() )
+        {
+            // The assertion value is compared with the first sort key
+            SortKey sk = sortControl.getSortKeys().get( 0 );
+            AttributeType at = schemaManager.getAttributeType( sk.getAttributeTypeDesc() );
+            comparator = new SortedEntryComparator( at, sk.getMatchingRuleId(), sk.isReverseOrder(),
+                schemaManager );
+            assertionEntry = new DefaultEntry( schemaManager );
+
+            if ( at.getSyntax().isHumanReadable() )
+            {
+                assertionEntry.add( at, Strings.utf8ToString( vlvControl.getAssertionValue() ) );
+            }
+            else
+            {
+                assertionEntry.add( at, vlvControl.getAssertionValue() );
+            }
+        }
+
+        SampledOffsetMap<Entry> offsets = null;
+
+        if ( ( knownCount < 0L ) || ( assertionEntry != null ) )
+        {
+            SortedEntryComparator sortComparator = null;
+            Entry previous = null;
+
+            if ( sortedEntries instanceof SortedEntryCursor )
+            {
+                sortComparator = SortedEntryComparator.create( sortControl.getSortKeys(), schemaManager );
+                offsets = new SampledOffsetMap<>( VLV_SAMPLE_INTERVAL );
+            }
+
+            sortedEntries.beforeFirst();
+
+            while ( sortedEntries.next() )
+            {
+                count++;
+                Entry entry = sortedEntries.get();
+
+                if ( ( assertionEntry != null ) && ( target == 0L )
+                    && ( comparator.compareEntries( entry, assertionEntry ) >= 0 ) )
+                {
+                    target = count;
+                }
+
+                if ( offsets != null )
+                {
+                    // Seeking the previous entry skips the entries with the same sort key, so
+                    // it resumes on the current entry only if its sort key is different
+                    if ( ( previous != null ) && ( sortComparator.compareEntries( previous, entry ) != 0 ) )
+                    {
+                        offsets.add( count, previous );
+                    }
+
+                    previous = entry;
+                }
+            }
+        }
+        else
+        {
+            count = knownCount;
+        }
+
+        if ( vlvControl.hasOffset() )
+        {
+            long offset = vlvControl.getOffset();
+            long contentCount = vlvControl.getContentCount();
+
+            if ( ( contentCount == 0L ) || ( offset == 1L ) )
+            {
+                target = offset;
+            }
+            else if ( offset >= contentCount )
+            {
+                target = count;
+            }
+            else
+            {
+                // The client estimate of the list size is not accurate, keep the same ratio
+                target = Math.round( ( double ) offset * count / contentCount );
+            }
+
+            target = Math.max( 1L, Math.min( target, count ) );
+        }
+        else if ( target == 0L )
+        {
+            // All the entries are smaller than the assertion value
+            target = count + 1;
+        }
+
+        vlvRespCtrl.setTargetPosition( ( int ) target );
+        vlvRespCtrl.setContentCount( ( int ) count );
+        vlvRespCtrl.setVirtualListViewResult( VirtualListViewResultCode.SUCCESS );
+
+        long from = Math.max( 1L, target - vlvControl.getBeforeCount() );
+        long to = Math.min( count, target + vlvControl.getAfterCount() );
+
+        List<Entry> view = new ArrayList<>();
+        long position = 0L;
+        Map.Entry<Long, Entry> sample = null;
+
+        if ( offsets != null )
+        {
+            sample = offsets.floor( from );
+        }
+
+        if ( sample != null )
+        {
+            sortedEntries.before( sample.getValue() );
+            position = sample.getKey() - 1L;
+        }
+        else
+        {
+            sortedEntries.beforeFirst();
+        }
+
+        while ( ( position < to ) && sortedEntries.next() )
+        {
+            position++;
+
+            if ( position >= from )
+            {
+                view.add( sortedEntries.get() );
+            }
+        }
+
+        sortedEntries.close();
+
+        return new ListCursor<>( view );
+    }
+
+
     /**
      * {@inheritDoc}
      */
@@ -0,0 +1,100 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ * 
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ * 
+ */
+package org.apache.directory.server.core.shared;
+
+
+import java.util.Map;
+import java.util.TreeMap;
+
+
+/**
+ * Keeps some positions of a sorted list of elements, associated with the element to seek
+ * to resume reading the list at this position. A position can then be reached from the
+ * closest sample before it, instead of reading the list from its beginning. At most one
+ * sample is kept per interval.
+ *
+ * @param <E> The type of the list elements
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class SampledOffsetMap<E>
+{
+    /** The minimum distance between two samples */
+    private final long interval;
+
+    /** The samples, per position */
+    private final TreeMap<Long, E> samples = new TreeMap<>();
+
+    /** The position of the last sample, the list starts at position 1 */
+    private long lastPosition = 1L;
+
+
+    /**
+     * Creates a new instance of SampledOffsetMap.
+     *
+     * @param interval The minimum distance between two samples
+     */
+    public SampledOffsetMap( long interval )
+    {
+        this.interval = interval;
+    }
+
+
+    /**
+     * Adds a sample. It's ignored if it's too close to the previous one.
+     *
+     * @param position The position of the element read after the seek, starting at 1
+     * @param element The element to seek to resume reading the list at this position
+     * @return <tt>true</tt> if the sample has been kept
+     */
+    public boolean add( long position, E element )
+    {
+        if ( position - lastPosition < interval )
+        {
+            return false;
+        }
+
+        samples.put( position, element );
+        lastPosition = position;
+
+        return true;
+    }
+
+
+    /**
+     * Gets the closest sample to reach a position
+     *
+     * @param position The position to reach, starting at 1
+     * @return The sample with the greatest position lower than or equal to the given one,
+     * or null if the list has to be read from its beginning
+     */
+    public Map.Entry<Long, E> floor( long position )
+    {
+        return samples.floorEntry( position );
+    }
+
+
+    /**
+     * @return The number of samples
+     */
+    public int size()
+    {
+        return samples.size();
+    }
+}
@@ -22,6 +22,7 @@ package org.apache.directory.server.core.shared;
 
 import java.io.Serializable;
 import java.util.Comparator;
+import java.util.List;
 import java.util.TreeSet;
 
 import org.apache.directory.api.ldap.model.constants.SchemaConstants;
@@ -29,6 +30,7 @@ import org.apache.directory.api.ldap.model.entry.Attribute;
 import org.apache.directory.api.ldap.model.entry.Entry;
 import org.apache.directory.api.ldap.model.entry.Value;
 import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.message.controls.SortKey;
 import org.apache.directory.api.ldap.model.schema.AttributeType;
 import org.apache.directory.api.ldap.model.schema.LdapComparator;
 import org.apache.directory.api.ldap.model.schema.MatchingRule;
@@ -58,6 +60,9 @@ class SortedEntryComparator implements Comparator<Entry>, Serializable
     /** flag to indicate if the attribute is human readable or binary */
     private boolean hr;
 
+    /** the comparator of the next sort key, used when the entries have the same value for this key */
+    private SortedEntryComparator next;
+
 
     /**
      * 
@@ -110,15 +115,96 @@ class SortedEntryComparator implements Comparator<Entry>, Serializable
     }
 
 
+    /**
+     * Creates a comparator sorting the entries on many keys : the entries are compared
+     * using the first key, then the next one if they have the same value for this key.
+     *
+     * @param sortKeys the sort keys
+     * @param schemaManager the SchemaManager
+     * @return the comparator for the first key
+     * @throws LdapException if the matching rule of a key is not found
+     */
+    static SortedEntryComparator create( List<SortKey> sortKeys, SchemaManager schemaManager ) throws LdapException
+    {
+        SortedEntryComparator first = null;
+        SortedEntryComparator last = null;
+
+        for ( SortKey sk : sortKeys )
+        {
+            AttributeType at = schemaManager.getAttributeType( sk.getAttributeTypeDesc() );
+            SortedEntryComparator comparator = new SortedEntryComparator( at, sk.getMatchingRuleId(),
+                sk.isReverseOrder(), schemaManager );
+
+            if ( first == null )
+            {
+                first = comparator;
+            }
+            else
+            {
+                last.next = comparator;
+            }
+
+            last = comparator;
+        }
+
+        return first;
+    }
+
+
+    /**
+     * Compares two entries. The entries with the same sort key are never considered
+     * equal, so that they are all kept in the BTree used to sort them.
+     */
     @Override
     public int compare( Entry entry1, Entry entry2 )
+    {
+        int c = compareEntries( entry1, entry2 );
+
+        if ( c == 0 )
+        {
+            return 1;
+        }
+
+        return c;
+    }
+
+
+    /**
+     * Compares the sort keys of two entries
+     * 
+     * @param entry1 The first entry
+     * @param entry2 The second entry
+     * @return a negative value if the first entry is sorted before the second entry, 0 if
+     * they have the same sort key, a positive value otherwise
+     */
+    int compareEntries( Entry entry1, Entry entry2 )
+    {
+        int c = compareKey( entry1, entry2 );
+
+        if ( ( c == 0 ) && ( next != null ) )
+        {
+            return next.compareEntries( entry1, entry2 );
+        }
+
+        return c;
+    }
+
+
+    /**
+     * Compares the values of this comparator sort key
+     */
+    private int compareKey( Entry entry1, Entry entry2 )
     {
         Attribute at1 = entry1.get( type );
 
         Attribute at2 = entry2.get( type );
 
         // as per section 2.2 of the spec null values are considered larger
-        if ( at1 == null )
+        if ( ( at1 == null ) && ( at2 == null ) )
+        {
+            return 0;
+        }
+        else if ( at1 == null )
         {
             return reverse ? -1 : 1;
         }
@@ -168,11 +254,6 @@ class SortedEntryComparator implements Comparator<Entry>, Serializable
             {
                 c = comparator.compare( comparator.getNormalizer().normalize( ( String ) o1 ), o2 );
             }
-    
-            if ( c == 0 )
-            {
-                return 1;
-            }
 
             return c;
         }
@@ -82,10 +82,25 @@ public class SortedEntryCursor extends AbstractCursor<Entry> implements EntryFil
     }
 
 
+    /**
+     * Positions the cursor before the first entry which sort key is greater than the given
+     * entry's one. As the entries with the same sort key are never equal, the entries with
+     * the same sort key as the given entry are skipped.
+     *
+     * @param element The entry to seek
+     */
     @Override
     public void before( Entry element ) throws LdapException, CursorException
     {
-        throw new UnsupportedOperationException();
+        try
+        {
+            clearValue();
+            browser = btree.browse( element );
+        }
+        catch ( IOException e )
+        {
+            throw new CursorException( e );
+        }
     }
 
 
@@ -30,6 +30,13 @@ import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.directory.api.ldap.model.constants.SchemaConstants;
 import org.apache.directory.api.ldap.model.cursor.CursorException;
@@ -56,15 +63,16 @@ import org.apache.directory.api.ldap.model.name.Dn;
 import org.apache.directory.api.ldap.model.schema.AttributeType;
 import org.apache.directory.api.ldap.model.schema.AttributeTypeOptions;
 import org.apache.directory.api.ldap.model.schema.UsageEnum;
-import org.apache.directory.api.ldap.util.tree.DnNode;
 import org.apache.directory.api.util.exception.MultiException;
 import org.apache.directory.server.constants.ServerDNConstants;
 import org.apache.directory.server.core.api.DirectoryService;
 import org.apache.directory.server.core.api.InterceptorEnum;
+import org.apache.directory.server.core.api.OperationManager;
 import org.apache.directory.server.core.api.entry.ClonedServerEntry;
 import org.apache.directory.server.core.api.filtering.CursorList;
 import org.apache.directory.server.core.api.filtering.EntryFilteringCursor;
 import org.apache.directory.server.core.api.filtering.EntryFilteringCursorImpl;
+import org.apache.directory.server.core.api.filtering.ParallelCursorList;
 import org.apache.directory.server.core.api.interceptor.context.AddOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.CompareOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.DeleteOperationContext;
@@ -117,14 +125,23 @@ public class DefaultPartitionNexus extends AbstractPartition implements Partitio
     /** The DirectoryService instance */
     private DirectoryService directoryService;
 
-    /** the partitions keyed by normalized suffix strings */
-    private Map<String, Partition> partitions = new HashMap<>();
+    /** the partitions keyed by normalized suffix strings. This map is never modified, it is replaced */
+    private volatile Map<String, Partition> partitions = Collections.emptyMap();
 
-    /** A structure to hold all the partitions */
-    private DnNode<Partition> partitionLookupTree = new DnNode<>();
+    /** A structure to hold all the partitions, rebuilt when a partition is added or removed */
+    private volatile PartitionLookupTree partitionLookupTree = PartitionLookupTree.EMPTY;
 
     private final List<Modification> mods = new ArrayList<>( 2 );
 
+    /** The maximum number of entries read from the partitions and waiting to be returned by a parallel search */
+    private static final int PARALLEL_SEARCH_QUEUE_SIZE = 1024;
+
+    /** The number of partitions searched at the same time by a subtree search from the rootDSE, 0 or 1 to search them one after the other */
+    private int searchParallelism = 0;
+
+    /** The executor running the searches on each partition, when they are done in parallel */
+    private volatile ExecutorService searchExecutor;
+
     /** The cn=schema Dn */
     private Dn subschemaSubentryDn;
 
@@ -285,6 +302,12 @@ public class DefaultPartitionNexus extends AbstractPartition implements Partitio
             return;
         }
 
+        if ( searchExecutor != null )
+        {
+            searchExecutor.shutdownNow();
+            searchExecutor = null;
+        }
+
         // make sure this loop is not fail fast so all backing stores can
         // have an attempt at closing down and synching their cached entries
         for ( String suffix : new HashSet<>( this.partitions.keySet() ) )
@@ -722,14 +745,28 @@ public class DefaultPartitionNexus extends AbstractPartition implements Partitio
                 }
             }
 
+            // The entries of the naming contexts are not sorted
+            searchContext.setSorted( false );
+
             return new CursorList( cursors, searchContext );
         }
         else
         {
+            ExecutorService executor = searchExecutor;
+            Map<String, Partition> searchedPartitions = partitions;
+
+            if ( ( executor != null ) && ( searchedPartitions.size() > 1 ) )
+            {
+                return searchFromRootInParallel( searchContext, searchedPartitions, executor );
+            }
+
             // This is a SUBLEVEL search. We will do multiple searches and wrap
             // a CursorList into the EntryFilteringCursor
             List<EntryFilteringCursor> cursors = new ArrayList<>();
 
+            // Each partition sorts its own entries only
+            boolean sorted = false;
+
             for ( Partition partition : partitions.values() )
             {
                 PartitionTxn partitionTxn = partition.beginReadTransaction();
@@ -744,6 +781,7 @@ public class DefaultPartitionNexus extends AbstractPartition implements Partitio
                 if ( partition.hasEntry( hasEntryContext ) )
                 {
                     searchContext.setDn( contextDn );
+                    searchContext.setSorted( false );
                     EntryFilteringCursor cursor = partition.search( searchContext );
 
                     try
@@ -752,6 +790,7 @@ public class DefaultPartitionNexus extends AbstractPartition implements Partitio
                         {
                             cursor.beforeFirst();
                             cursors.add( cursor );
+                            sorted = searchContext.isSorted();
                         }
                     }
                     catch ( CursorException e )
@@ -765,17 +804,85 @@ public class DefaultPartitionNexus extends AbstractPartition implements Partitio
             if ( cursors.isEmpty() )
             {
                 // No candidate, return an emtpy cursor
+                searchContext.setSorted( false );
+
                 return new EntryFilteringCursorImpl( new EmptyCursor<Entry>(), searchContext,
                     directoryService.getSchemaManager() );
             }
             else
             {
+                searchContext.setSorted( sorted && ( cursors.size() == 1 ) );
+
                 return new CursorList( cursors, searchContext );
             }
         }
     }
 
 
+    /**
+     * Searches the whole subtree of all the partitions at the same time. Each partition is
+     * searched with its own copy of the search context, by a task which is started when
+     * the entries are read.
+     *
+     * @param searchContext The search context
+     * @param searchedPartitions The partitions to search
+     * @param executor The executor running the searches
+     * @return A cursor over the entries of all the partitions
+     */
+    private EntryFilteringCursor searchFromRootInParallel( final SearchOperationContext searchContext,
+        Map<String, Partition> searchedPartitions, ExecutorService executor )
+    {
+        List<Callable<EntryFilteringCursor>> searches = new ArrayList<>( searchedPartitions.size() );
+
+        for ( final Partition partition : searchedPartitions.values() )
+        {
+            searches.add( new Callable<EntryFilteringCursor>()
+            {
+                @Override
+                public EntryFilteringCursor call() throws LdapException
+                {
+                    // The search runs in its own thread, it can't use the locks taken by
+                    // the OperationManager
+                    OperationManager operationManager = directoryService.getOperationManager();
+                    operationManager.lockRead( partition );
+
+                    try
+                    {
+                        PartitionTxn partitionTxn = partition.beginReadTransaction();
+                        Dn contextDn = partition.getSuffixDn();
+                        HasEntryOperationContext hasEntryContext = new HasEntryOperationContext(
+                            searchContext.getSession(), contextDn );
+                        hasEntryContext.setPartition( partition );
+                        hasEntryContext.setTransaction( partitionTxn );
+
+                        if ( !partition.hasEntry( hasEntryContext ) )
+                        {
+                            return null;
+                        }
+
+                        SearchOperationContext partitionSearchContext = new SearchOperationContext( searchContext );
+                        partitionSearchContext.setPartition( partition );
+                        partitionSearchContext.setTransaction( partitionTxn );
+                        partitionSearchContext.setDn( contextDn );
+                        partitionSearchContext.setSorted( false );
+
+                        return partition.search( partitionSearchContext );
+                    }
+                    finally
+                    {
+                        operationManager.unlockRead( partition );
+                    }
+                }
+            } );
+        }
+
+        // The entries of the partitions are mixed
+        searchContext.setSorted( false );
+
+        return new ParallelCursorList( searches, executor, PARALLEL_SEARCH_QUEUE_SIZE, searchContext );
+    }
+
+
     /**
      * {@inheritDoc}
      */
@@ -812,6 +919,62 @@ public class DefaultPartitionNexus extends AbstractPartition implements Partitio
     }
 
 
+    /**
+     * @return The number of partitions searched at the same time by a subtree search from the rootDSE
+     */
+    public synchronized int getSearchParallelism()
+    {
+        return searchParallelism;
+    }
+
+
+    /**
+     * Sets the number of partitions searched at the same time by a subtree search from the
+     * rootDSE. The default value, 0, searches the partitions one after the other. With a
+     * value above 1, the partitions are searched on a pool of this number of threads, and
+     * the entries are returned in the order they are found.
+     *
+     * @param searchParallelism The number of partitions searched at the same time
+     */
+    public synchronized void setSearchParallelism( int searchParallelism )
+    {
+        if ( searchParallelism == this.searchParallelism )
+        {
+            return;
+        }
+
+        this.searchParallelism = searchParallelism;
+
+        // The running searches keep the previous executor until they are done
+        if ( searchExecutor != null )
+        {
+            searchExecutor.shutdown();
+            searchExecutor = null;
+        }
+
+        if ( searchParallelism > 1 )
+        {
+            ThreadFactory threadFactory = new ThreadFactory()
+            {
+                @Override
+                public Thread newThread( Runnable runnable )
+                {
+                    Thread newThread = Executors.defaultThreadFactory().newThread( runnable );
+                    newThread.setName( "partition-search-" + newThread.getName() );
+                    newThread.setDaemon( true );
+
+                    return newThread;
+                }
+            };
+
+            ThreadPoolExecutor executor = new ThreadPoolExecutor( searchParallelism, searchParallelism, 60L,
+                TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), threadFactory );
+            executor.allowCoreThreadTimeOut( true );
+            searchExecutor = executor;
+        }
+    }
+
+
     /**
      * {@inheritDoc}
      */
@@ -832,34 +995,45 @@ public class DefaultPartitionNexus extends AbstractPartition implements Partitio
             partition.initialize();
         }
 
-        synchronized ( partitionLookupTree )
-        {
-            Dn partitionSuffix = partition.getSuffixDn();
+        Dn partitionSuffix = partition.getSuffixDn();
 
-            if ( partitionSuffix == null )
-            {
-                throw new LdapOtherException( I18n.err( I18n.ERR_267, partition.getId() ) );
-            }
+        if ( partitionSuffix == null )
+        {
+            throw new LdapOtherException( I18n.err( I18n.ERR_267, partition.getId() ) );
+        }
 
-            partitions.put( partitionSuffix.getNormName(), partition );
-            partitionLookupTree.add( partition.getSuffixDn(), partition );
+        Map<String, Partition> newPartitions = new HashMap<>( partitions );
+        newPartitions.put( partitionSuffix.getNormName(), partition );
+        publishPartitions( newPartitions );
 
-            Attribute namingContexts = rootDse.get( SchemaConstants.NAMING_CONTEXTS_AT );
+        Attribute namingContexts = rootDse.get( SchemaConstants.NAMING_CONTEXTS_AT );
 
-            if ( namingContexts == null )
-            {
-                namingContexts = new DefaultAttribute( schemaManager
-                    .lookupAttributeTypeRegistry( SchemaConstants.NAMING_CONTEXTS_AT ), partitionSuffix.getName() );
-                rootDse.put( namingContexts );
-            }
-            else
-            {
-                namingContexts.add( partitionSuffix.getName() );
-            }
+        if ( namingContexts == null )
+        {
+            namingContexts = new DefaultAttribute( schemaManager
+                .lookupAttributeTypeRegistry( SchemaConstants.NAMING_CONTEXTS_AT ), partitionSuffix.getName() );
+            rootDse.put( namingContexts );
+        }
+        else
+        {
+            namingContexts.add( partitionSuffix.getName() );
         }
     }
 
 
+    /**
+     * Replaces the partitions and the lookup tree. They are never modified once published,
+     * so the operations can use them without any lock. The callers are synchronized.
+     *
+     * @param newPartitions The partitions, keyed by their normalized suffix
+     */
+    private void publishPartitions( Map<String, Partition> newPartitions )
+    {
+        partitionLookupTree = PartitionLookupTree.build( newPartitions.values() );
+        partitions = Collections.unmodifiableMap( newPartitions );
+    }
+
+
     /**
      * {@inheritDoc}
      */
@@ -911,12 +1085,9 @@ public class DefaultPartitionNexus extends AbstractPartition implements Partitio
         }
 
         // Update the partition tree
-        synchronized ( partitionLookupTree )
-        {
-            partitionLookupTree.remove( partition.getSuffixDn() );
-        }
-
-        partitions.remove( partitionDn );
+        Map<String, Partition> newPartitions = new HashMap<>( partitions );
+        newPartitions.remove( partitionDn );
+        publishPartitions( newPartitions );
 
         try
         {
@@ -935,8 +1106,6 @@ public class DefaultPartitionNexus extends AbstractPartition implements Partitio
     @Override
     public Partition getPartition( Dn dn ) throws LdapException
     {
-        Partition parent;
-
         if ( dn == null )
         {
             dn = Dn.ROOT_DSE;
@@ -952,10 +1121,8 @@ public class DefaultPartitionNexus extends AbstractPartition implements Partitio
             return new RootPartition( schemaManager );
         }
 
-        synchronized ( partitionLookupTree )
-        {
-            parent = partitionLookupTree.getElement( dn );
-        }
+        // The lookup tree is immutable, no need to lock it
+        Partition parent = partitionLookupTree.getPartition( dn );
 
         if ( parent == null )
         {
@@ -1043,7 +1210,7 @@ public class DefaultPartitionNexus extends AbstractPartition implements Partitio
      * BackendNexus.
      * @throws Exception if there are problems unregistering the partition
      */
-    private void unregister( Partition partition )
+    private synchronized void unregister( Partition partition )
     {
         Attribute namingContexts = rootDse.get( SchemaConstants.NAMING_CONTEXTS_AT );
 
@@ -1052,7 +1219,9 @@ public class DefaultPartitionNexus extends AbstractPartition implements Partitio
             namingContexts.remove( partition.getSuffixDn().getName() );
         }
 
-        partitions.remove( partition.getSuffixDn().getName() );
+        Map<String, Partition> newPartitions = new HashMap<>( partitions );
+        newPartitions.remove( partition.getSuffixDn().getName() );
+        publishPartitions( newPartitions );
     }
 
 
@@ -0,0 +1,146 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.shared.partition;
+
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.server.core.api.partition.Partition;
+
+
+/**
+ * An immutable tree of the partitions, keyed by the normalized RDNs of their suffix,
+ * used to find the partition holding an entry. The tree is never modified once built :
+ * a new tree is built when a partition is added or removed, so that it can be read by
+ * many threads without any lock.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+final class PartitionLookupTree
+{
+    /** The partition which suffix is this node, if any */
+    private final Partition partition;
+
+    /** The children, keyed by their normalized RDN */
+    private final Map<String, PartitionLookupTree> children;
+
+    /** An empty tree */
+    static final PartitionLookupTree EMPTY = new PartitionLookupTree( null, new HashMap<String, PartitionLookupTree>() );
+
+
+    private PartitionLookupTree( Partition partition, Map<String, PartitionLookupTree> children )
+    {
+        this.partition = partition;
+        this.children = children;
+    }
+
+
+    /**
+     * Builds a tree holding the given partitions.
+     *
+     * @param partitions The partitions
+     * @return The tree
+     */
+    static PartitionLookupTree build( Collection<Partition> partitions )
+    {
+        Builder root = new Builder();
+
+        for ( Partition partition : partitions )
+        {
+            Dn suffixDn = partition.getSuffixDn();
+            Builder current = root;
+
+            for ( int i = suffixDn.size() - 1; i >= 0; i-- )
+            {
+                String rdn = suffixDn.getRdn( i ).getNormName();
+                Builder child = current.children.get( rdn );
+
+                if ( child == null )
+                {
+                    child = new Builder();
+                    current.children.put( rdn, child );
+                }
+
+                current = child;
+            }
+
+            current.partition = partition;
+        }
+
+        return root.build();
+    }
+
+
+    /**
+     * Gets the partition which suffix is the closest ancestor of a Dn, or the Dn itself.
+     *
+     * @param dn The normalized Dn
+     * @return The partition, or null if no partition suffix is an ancestor of the Dn
+     */
+    Partition getPartition( Dn dn )
+    {
+        PartitionLookupTree current = this;
+        Partition found = null;
+
+        for ( int i = dn.size() - 1; i >= 0; i-- )
+        {
+            current = current.children.get( dn.getRdn( i ).getNormName() );
+
+            if ( current == null )
+            {
+                break;
+            }
+
+            if ( current.partition != null )
+            {
+                found = current.partition;
+            }
+        }
+
+        return found;
+    }
+
+
+    /**
+     * A mutable node, used while building the tree
+     */
+    private static final class Builder
+    {
+        private Partition partition;
+
+        private final Map<String, Builder> children = new HashMap<>();
+
+
+        private PartitionLookupTree build()
+        {
+            Map<String, PartitionLookupTree> built = new HashMap<>( children.size() * 2 );
+
+            for ( Map.Entry<String, Builder> child : children.entrySet() )
+            {
+                built.put( child.getKey(), child.getValue().build() );
+            }
+
+            return new PartitionLookupTree( partition, built );
+        }
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ * 
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ * 
+ */
+package org.apache.directory.server.core.shared;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Map;
+
+import org.junit.Test;
+
+
+/**
+ * Unit tests for the SampledOffsetMap class.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class SampledOffsetMapTest
+{
+    @Test
+    public void testSamplesAreSpaced()
+    {
+        SampledOffsetMap<String> offsets = new SampledOffsetMap<>( 10 );
+
+        // Too close to the beginning of the list
+        assertFalse( offsets.add( 5L, "e4" ) );
+
+        assertTrue( offsets.add( 11L, "e10" ) );
+        assertFalse( offsets.add( 20L, "e19" ) );
+        assertTrue( offsets.add( 25L, "e24" ) );
+        assertTrue( offsets.add( 40L, "e39" ) );
+
+        assertEquals( 3, offsets.size() );
+    }
+
+
+    @Test
+    public void testFloor()
+    {
+        SampledOffsetMap<String> offsets = new SampledOffsetMap<>( 10 );
+
+        for ( long position = 2L; position <= 100L; position++ )
+        {
+            offsets.add( position, "e" + ( position - 1L ) );
+        }
+
+        // The list is read from its beginning
+        assertNull( offsets.floor( 1L ) );
+        assertNull( offsets.floor( 10L ) );
+
+        Map.Entry<Long, String> sample = offsets.floor( 11L );
+        assertEquals( 11L, sample.getKey().longValue() );
+        assertEquals( "e10", sample.getValue() );
+
+        sample = offsets.floor( 55L );
+        assertEquals( 51L, sample.getKey().longValue() );
+        assertEquals( "e50", sample.getValue() );
+
+        sample = offsets.floor( 1000L );
+        assertEquals( 91L, sample.getKey().longValue() );
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ * 
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ * 
+ */
+package org.apache.directory.server.core.shared;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import jdbm.btree.BTree;
+import jdbm.recman.BaseRecordManager;
+
+import org.apache.directory.api.ldap.model.entry.DefaultEntry;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.message.controls.SortKey;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.api.ldap.schema.manager.impl.DefaultSchemaManager;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+
+/**
+ * Unit tests for the SortedEntryCursor class.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class SortedEntryCursorTest
+{
+    private static SchemaManager schemaManager;
+
+
+    @BeforeClass
+    public static void init() throws Exception
+    {
+        schemaManager = new DefaultSchemaManager();
+        SortedEntrySerializer.setSchemaManager( schemaManager );
+    }
+
+
+    private Entry createEntry( int i, String sn ) throws Exception
+    {
+        return new DefaultEntry( schemaManager, "cn=user" + i + ",ou=system",
+            "objectClass: top",
+            "objectClass: person",
+            "cn: user" + i,
+            "sn: " + sn );
+    }
+
+
+    @Test
+    public void testBefore() throws Exception
+    {
+        File file = File.createTempFile( "SortedEntryCursorTest", ".sorted-data" );
+        BaseRecordManager recMan = new BaseRecordManager( file.getAbsolutePath() );
+        SortedEntryComparator comparator = SortedEntryComparator.create(
+            Collections.singletonList( new SortKey( "sn" ) ), schemaManager );
+        BTree<Entry, String> btree = new BTree<>( recMan, comparator, new SortedEntrySerializer(),
+            NullStringSerializer.INSTANCE );
+
+        List<Entry> entries = new ArrayList<>();
+        entries.add( createEntry( 0, "d" ) );
+        entries.add( createEntry( 1, "b" ) );
+        entries.add( createEntry( 2, "a" ) );
+        entries.add( createEntry( 3, "b" ) );
+        entries.add( createEntry( 4, "c" ) );
+        entries.add( createEntry( 5, "b" ) );
+
+        for ( Entry entry : entries )
+        {
+            btree.insert( entry, "", false );
+        }
+
+        SortedEntryCursor cursor = new SortedEntryCursor( btree, recMan, file );
+
+        // The seek resumes after the entries with the same sort key
+        cursor.before( entries.get( 2 ) );
+        assertTrue( cursor.next() );
+        assertEquals( "b", cursor.get().get( "sn" ).getString() );
+
+        cursor.before( entries.get( 3 ) );
+        assertTrue( cursor.next() );
+        assertEquals( "c", cursor.get().get( "sn" ).getString() );
+        assertTrue( cursor.next() );
+        assertEquals( "d", cursor.get().get( "sn" ).getString() );
+        assertFalse( cursor.next() );
+
+        cursor.before( entries.get( 0 ) );
+        assertFalse( cursor.next() );
+
+        cursor.close();
+    }
+}
@@ -0,0 +1,223 @@
+/*
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *   or more contributor license agreements.  See the NOTICE file
+ *   distributed with this work for additional information
+ *   regarding copyright ownership.  The ASF licenses this file
+ *   to you under the Apache License, Version 2.0 (the
+ *   "License"); you may not use this file except in compliance
+ *   with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing,
+ *   software distributed under the License is distributed on an
+ *   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *   KIND, either express or implied.  See the License for the
+ *   specific language governing permissions and limitations
+ *   under the License.
+ *
+ */
+package org.apache.directory.server.core.shared.partition;
+
+
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.api.ldap.schema.manager.impl.DefaultSchemaManager;
+import org.apache.directory.server.core.api.partition.Partition;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+
+/**
+ * Unit tests for the PartitionLookupTree class.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class PartitionLookupTreeTest
+{
+    private static SchemaManager schemaManager;
+
+    private static Partition system;
+    private static Partition example;
+    private static Partition people;
+
+
+    @BeforeClass
+    public static void init() throws Exception
+    {
+        schemaManager = new DefaultSchemaManager();
+
+        system = createPartition( "system", "ou=system" );
+        example = createPartition( "example", "dc=example,dc=com" );
+        people = createPartition( "people", "ou=people,dc=example,dc=com" );
+    }
+
+
+    /**
+     * Creates a partition which only knows its id and suffix, which is all the tree uses.
+     */
+    private static Partition createPartition( final String id, String suffix ) throws Exception
+    {
+        final Dn suffixDn = new Dn( schemaManager, suffix );
+
+        return ( Partition ) Proxy.newProxyInstance( Partition.class.getClassLoader(), new Class<?>[]
+            { Partition.class }, new InvocationHandler()
+            {
+                @Override
+                public Object invoke( Object proxy, Method method, Object[] args )
+                {
+                    switch ( method.getName() )
+                    {
+                        case "getSuffixDn":
+                            return suffixDn;
+
+                        case "getId":
+                        case "toString":
+                            return id;
+
+                        case "hashCode":
+                            return System.identityHashCode( proxy );
+
+                        case "equals":
+                            return proxy == args[0];
+
+                        default:
+                            throw new UnsupportedOperationException( method.getName() );
+                    }
+                }
+            } );
+    }
+
+
+    private static Dn dn( String name ) throws Exception
+    {
+        return new Dn( schemaManager, name );
+    }
+
+
+    @Test
+    public void testEmptyTree() throws Exception
+    {
+        assertNull( PartitionLookupTree.EMPTY.getPartition( dn( "ou=system" ) ) );
+        assertNull( PartitionLookupTree.EMPTY.getPartition( Dn.ROOT_DSE ) );
+    }
+
+
+    @Test
+    public void testSuffixAndDescendants() throws Exception
+    {
+        PartitionLookupTree tree = PartitionLookupTree.build( Arrays.asList( system, example ) );
+
+        assertSame( system, tree.getPartition( dn( "ou=system" ) ) );
+        assertSame( system, tree.getPartition( dn( "uid=admin,OU=System" ) ) );
+        assertSame( example, tree.getPartition( dn( "dc=example,dc=com" ) ) );
+        assertSame( example, tree.getPartition( dn( "cn=test,ou=groups,dc=example,dc=com" ) ) );
+    }
+
+
+    @Test
+    public void testNoMatchingSuffix() throws Exception
+    {
+        PartitionLookupTree tree = PartitionLookupTree.build( Arrays.asList( system, example ) );
+
+        // An intermediate node of a suffix, which is not a suffix itself
+        assertNull( tree.getPartition( dn( "dc=com" ) ) );
+        assertNull( tree.getPartition( dn( "dc=other,dc=com" ) ) );
+        assertNull( tree.getPartition( dn( "ou=schema" ) ) );
+    }
+
+
+    @Test
+    public void testRootDse() throws Exception
+    {
+        PartitionLookupTree tree = PartitionLookupTree.build( Arrays.asList( system, example, people ) );
+
+        assertNull( tree.getPartition( Dn.ROOT_DSE ) );
+        assertNull( tree.getPartition( dn( "" ) ) );
+    }
+
+
+    @Test
+    public void testNestedSuffixesDeepestMatch() throws Exception
+    {
+        PartitionLookupTree tree = PartitionLookupTree.build( Arrays.asList( system, example, people ) );
+
+        assertSame( example, tree.getPartition( dn( "dc=example,dc=com" ) ) );
+        assertSame( example, tree.getPartition( dn( "ou=groups,dc=example,dc=com" ) ) );
+        assertSame( people, tree.getPartition( dn( "ou=people,dc=example,dc=com" ) ) );
+        assertSame( people, tree.getPartition( dn( "uid=jdoe,ou=people,dc=example,dc=com" ) ) );
+
+        // The order the partitions are added in does not matter
+        tree = PartitionLookupTree.build( Arrays.asList( people, system, example ) );
+
+        assertSame( example, tree.getPartition( dn( "ou=groups,dc=example,dc=com" ) ) );
+        assertSame( people, tree.getPartition( dn( "uid=jdoe,ou=people,dc=example,dc=com" ) ) );
+    }
+
+
+    @Test
+    public void testNestedSuffixWithoutParentPartition() throws Exception
+    {
+        PartitionLookupTree tree = PartitionLookupTree.build( Arrays.asList( system, people ) );
+
+        assertSame( people, tree.getPartition( dn( "uid=jdoe,ou=people,dc=example,dc=com" ) ) );
+        assertNull( tree.getPartition( dn( "ou=groups,dc=example,dc=com" ) ) );
+        assertNull( tree.getPartition( dn( "dc=example,dc=com" ) ) );
+    }
+
+
+    @Test
+    public void testRebuildOnAdd() throws Exception
+    {
+        List<Partition> partitions = new ArrayList<>( Arrays.asList( system, example ) );
+        PartitionLookupTree tree = PartitionLookupTree.build( partitions );
+
+        partitions.add( people );
+        PartitionLookupTree newTree = PartitionLookupTree.build( partitions );
+
+        assertSame( people, newTree.getPartition( dn( "uid=jdoe,ou=people,dc=example,dc=com" ) ) );
+        assertSame( example, newTree.getPartition( dn( "ou=groups,dc=example,dc=com" ) ) );
+
+        // The previous tree is not modified
+        assertSame( example, tree.getPartition( dn( "uid=jdoe,ou=people,dc=example,dc=com" ) ) );
+    }
+
+
+    @Test
+    public void testRebuildOnRemove() throws Exception
+    {
+        List<Partition> partitions = new ArrayList<>( Arrays.asList( system, example, people ) );
+        PartitionLookupTree tree = PartitionLookupTree.build( partitions );
+
+        // Removing the nested partition : its entries fall back to the parent partition
+        partitions.remove( people );
+        PartitionLookupTree newTree = PartitionLookupTree.build( partitions );
+
+        assertSame( example, newTree.getPartition( dn( "uid=jdoe,ou=people,dc=example,dc=com" ) ) );
+        assertSame( people, tree.getPartition( dn( "uid=jdoe,ou=people,dc=example,dc=com" ) ) );
+
+        // Removing the parent partition : the nested one is still found
+        partitions.remove( example );
+        partitions.add( people );
+        newTree = PartitionLookupTree.build( partitions );
+
+        assertSame( people, newTree.getPartition( dn( "uid=jdoe,ou=people,dc=example,dc=com" ) ) );
+        assertNull( newTree.getPartition( dn( "ou=groups,dc=example,dc=com" ) ) );
+        assertSame( system, newTree.getPartition( dn( "ou=system" ) ) );
+
+        // Removing everything
+        newTree = PartitionLookupTree.build( new ArrayList<Partition>() );
+
+        assertNull( newTree.getPartition( dn( "ou=system" ) ) );
+    }
+}
@@ -199,6 +199,9 @@ public class DefaultDirectoryService implements DirectoryService
     /** The delay to wait between each sync on disk */
     private long syncPeriodMillis;
 
+    /** The number of partitions searched at the same time by a subtree search from the rootDSE */
+    private int searchParallelism;
+
     /** The default delay to wait between sync on disk : 15 seconds */
     private static final long DEFAULT_SYNC_PERIOD = 15000;
 
@@ -1985,6 +1988,7 @@ public class DefaultDirectoryService implements DirectoryService
         // TODO - NOTE: Need to find a way to instantiate without dependency on DPN
         partitionNexus = new DefaultPartitionNexus( new DefaultEntry( schemaManager, Dn.ROOT_DSE ) );
         partitionNexus.setDirectoryService( this );
+        partitionNexus.setSearchParallelism( searchParallelism );
         partitionNexus.initialize();
 
         try
@@ -2323,6 +2327,31 @@ public class DefaultDirectoryService implements DirectoryService
     }
 
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getSearchParallelism()
+    {
+        return searchParallelism;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setSearchParallelism( int searchParallelism )
+    {
+        this.searchParallelism = searchParallelism;
+
+        if ( partitionNexus != null )
+        {
+            partitionNexus.setSearchParallelism( searchParallelism );
+        }
+    }
+
+
     /**
      * checks if the working directory is already in use by some other directory service, if yes
      * then throws a runtime exception else will obtain the lock on the working directory
@@ -22,7 +22,12 @@ package org.apache.directory.server.core;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
@@ -66,7 +71,10 @@ import org.apache.directory.server.core.api.interceptor.context.RenameOperationC
 import org.apache.directory.server.core.api.interceptor.context.SearchOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.UnbindOperationContext;
 import org.apache.directory.server.core.api.partition.Partition;
+import org.apache.directory.server.core.api.partition.PartitionNexus;
+import org.apache.directory.server.core.api.partition.PartitionLock;
 import org.apache.directory.server.core.api.partition.PartitionTxn;
+import org.apache.directory.server.core.api.partition.PartitionWriteTxn;
 import org.apache.directory.server.i18n.I18n;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -96,9 +104,18 @@ public class DefaultOperationManager implements OperationManager
     /** The directory service instance */
     private final DirectoryService directoryService;
 
-    /** A lock used to protect against concurrent operations */
+    /** The ID used for the partitions that don't have one, like the RootDSE */
+    private static final String ROOT_PARTITION_ID = "";
+
+    /** 
+     * A server wide lock. Every operation holds it in read mode, it's only taken in 
+     * write mode when the whole server has to be frozen (on shutdown, for instance)
+     */
     private ReadWriteLock rwLock = new ReentrantReadWriteLock( true );
 
+    /** The locks used to protect each partition against concurrent operations */
+    private final ConcurrentMap<String, PartitionLock> partitionLocks = new ConcurrentHashMap<>();
+
     public DefaultOperationManager( DirectoryService directoryService )
     {
         this.directoryService = directoryService;
@@ -115,7 +132,47 @@ public class DefaultOperationManager implements OperationManager
 
 
     /**
-     * Acquires a ReadLock
+     * {@inheritDoc}
+     */
+    @Override
+    public ReadWriteLock getRWLock( Partition partition )
+    {
+        String partitionId = ROOT_PARTITION_ID;
+        
+        if ( ( partition != null ) && ( partition.getId() != null ) )
+        {
+            partitionId = partition.getId();
+        }
+        
+        PartitionLock partitionLock = partitionLocks.get( partitionId );
+
+        if ( partitionLock == null )
+        {
+            PartitionLock newLock = new PartitionLock( partitionId );
+            partitionLock = partitionLocks.putIfAbsent( partitionId, newLock );
+
+            if ( partitionLock == null )
+            {
+                partitionLock = newLock;
+            }
+        }
+
+        return partitionLock;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Map<String, PartitionLock> getPartitionLocks()
+    {
+        return Collections.unmodifiableMap( partitionLocks );
+    }
+
+
+    /**
+     * Acquires the server wide ReadLock
      */
     public void lockRead()
     {
@@ -124,7 +181,7 @@ public class DefaultOperationManager implements OperationManager
 
 
     /**
-     * Acquires a WriteLock
+     * Acquires the server wide WriteLock
      */
     public void lockWrite()
     {
@@ -133,7 +190,7 @@ public class DefaultOperationManager implements OperationManager
 
 
     /**
-     * Releases a WriteLock
+     * Releases the server wide WriteLock
      */
     public void unlockWrite()
     {
@@ -142,7 +199,7 @@ public class DefaultOperationManager implements OperationManager
 
 
     /**
-     * Releases a ReadLock
+     * Releases the server wide ReadLock
      */
     public void unlockRead()
     {
@@ -150,6 +207,169 @@ public class DefaultOperationManager implements OperationManager
     }
 
 
+    /**
+     * Commits the write transaction of an operation, leaving the sync of its changes
+     * to {@link #awaitSync(PartitionTxn, CoreSession)}
+     */
+    private void commitWithoutSync( PartitionTxn transaction ) throws IOException
+    {
+        if ( transaction instanceof PartitionWriteTxn )
+        {
+            ( ( PartitionWriteTxn ) transaction ).commitWithoutSync();
+        }
+        else
+        {
+            transaction.commit();
+        }
+    }
+
+
+    /**
+     * Waits until the changes of an operation are synced on disk. It's called once the
+     * partition lock has been released, so that the operations committed meanwhile on
+     * the partition can share the same sync.
+     */
+    private void awaitSync( PartitionTxn transaction, CoreSession session ) throws LdapException
+    {
+        if ( session.hasSessionTransaction() || !( transaction instanceof PartitionWriteTxn ) )
+        {
+            return;
+        }
+
+        try
+        {
+            ( ( PartitionWriteTxn ) transaction ).awaitSync();
+        }
+        catch ( IOException ioe )
+        {
+            throw new LdapOtherException( ioe.getMessage(), ioe );
+        }
+    }
+
+
+    /**
+     * Gets the partitions read by a search. A search from the rootDSE which is not limited
+     * to the rootDSE entry reads every partition, so all of them have to be locked. They
+     * are returned sorted by ID, so that they are always locked in the same order.
+     */
+    private List<Partition> getSearchedPartitions( SearchOperationContext searchContext, Partition partition )
+        throws LdapException
+    {
+        List<Partition> searchedPartitions = new ArrayList<>();
+        searchedPartitions.add( partition );
+
+        if ( !searchContext.getDn().isRootDse() || ( searchContext.getScope() == SearchScope.OBJECT ) )
+        {
+            return searchedPartitions;
+        }
+
+        PartitionNexus nexus = directoryService.getPartitionNexus();
+
+        for ( String suffix : nexus.listSuffixes() )
+        {
+            Partition suffixPartition = nexus.getPartition( new Dn( directoryService.getSchemaManager(), suffix ) );
+
+            if ( !searchedPartitions.contains( suffixPartition ) )
+            {
+                searchedPartitions.add( suffixPartition );
+            }
+        }
+
+        Collections.sort( searchedPartitions, new Comparator<Partition>()
+        {
+            @Override
+            public int compare( Partition partition1, Partition partition2 )
+            {
+                return String.valueOf( partition1.getId() ).compareTo( String.valueOf( partition2.getId() ) );
+            }
+        } );
+
+        return searchedPartitions;
+    }
+
+
+    /**
+     * Acquires a ReadLock on a partition. The server wide lock is also acquired
+     * in read mode.
+     * 
+     * @param partition The partition to lock
+     */
+    public void lockRead( Partition partition )
+    {
+        rwLock.readLock().lock();
+        
+        try
+        {
+            getRWLock( partition ).readLock().lock();
+        }
+        catch ( RuntimeException re )
+        {
+            rwLock.readLock().unlock();
+            
+            throw re;
+        }
+    }
+
+
+    /**
+     * Acquires a WriteLock on a partition. The server wide lock is acquired
+     * in read mode, so that writes on other partitions can be processed concurrently.
+     * 
+     * @param partition The partition to lock
+     */
+    public void lockWrite( Partition partition )
+    {
+        rwLock.readLock().lock();
+        
+        try
+        {
+            getRWLock( partition ).writeLock().lock();
+        }
+        catch ( RuntimeException re )
+        {
+            rwLock.readLock().unlock();
+            
+            throw re;
+        }
+    }
+
+
+    /**
+     * Releases a WriteLock on a partition
+     * 
+     * @param partition The partition to unlock
+     */
+    public void unlockWrite( Partition partition )
+    {
+        try
+        {
+            getRWLock( partition ).writeLock().unlock();
+        }
+        finally
+        {
+            rwLock.readLock().unlock();
+        }
+    }
+
+
+    /**
+     * Releases a ReadLock on a partition
+     * 
+     * @param partition The partition to unlock
+     */
+    public void unlockRead( Partition partition )
+    {
+        try
+        {
+            getRWLock( partition ).readLock().unlock();
+        }
+        finally
+        {
+            rwLock.readLock().unlock();
+        }
+    }
+
+
     /**
      * Eagerly populates fields of operation contexts so multiple Interceptors
      * in the processing pathway can reuse this value without performing a
@@ -173,6 +393,14 @@ public class DefaultOperationManager implements OperationManager
                 SchemaConstants.ALL_ATTRIBUTES_ARRAY );
             lookupContext.setPartition( opContext.getPartition() );
             lookupContext.setTransaction( opContext.getTransaction() );
+
+            if ( opContext instanceof ModifyOperationContext )
+            {
+                // The partition may only read the values of the very large attributes the
+                // modifications need
+                lookupContext.setModifications( ( ( ModifyOperationContext ) opContext ).getModItems() );
+            }
+
             Entry foundEntry = opContext.getSession().getDirectoryService().getPartitionNexus().lookup( lookupContext );
 
             if ( foundEntry != null )
@@ -398,7 +626,7 @@ public class DefaultOperationManager implements OperationManager
         // Call the Add method
         Interceptor head = directoryService.getInterceptor( addContext.getNextInterceptor() );
 
-        lockWrite();
+        lockWrite( partition );
 
         // Start a Write transaction right away
         PartitionTxn transaction = addContext.getSession().getTransaction( partition ); 
@@ -421,7 +649,7 @@ public class DefaultOperationManager implements OperationManager
             
             if ( !addContext.getSession().hasSessionTransaction() )
             {
-                transaction.commit();
+                commitWithoutSync( transaction );
             }
         }
         catch ( LdapException le )
@@ -455,9 +683,11 @@ public class DefaultOperationManager implements OperationManager
         }
         finally
         {
-            unlockWrite();
+            unlockWrite( partition );
         }
 
+        awaitSync( transaction, addContext.getSession() );
+
         if ( IS_DEBUG )
         {
             OPERATION_LOG.debug( "<< AddOperation successful" );
@@ -501,12 +731,12 @@ public class DefaultOperationManager implements OperationManager
             bindContext.setDn( dn );
         }
 
-        lockRead();
+        Partition partition = directoryService.getPartitionNexus().getPartition( dn );
+
+        lockRead( partition );
 
         try
         {
-            Partition partition = directoryService.getPartitionNexus().getPartition( dn );
-            
             try ( PartitionTxn partitionTxn = partition.beginReadTransaction() )
             {
                 bindContext.setPartition( partition );
@@ -521,7 +751,7 @@ public class DefaultOperationManager implements OperationManager
         }
         finally
         {
-            unlockRead();
+            unlockRead( partition );
         }
 
         if ( IS_DEBUG )
@@ -616,12 +846,12 @@ public class DefaultOperationManager implements OperationManager
 
         boolean result = false;
 
-        lockRead();
+        Partition partition = directoryService.getPartitionNexus().getPartition( dn );
+
+        lockRead( partition );
 
         try
         {
-            Partition partition = directoryService.getPartitionNexus().getPartition( dn );
-            
             try ( PartitionTxn partitionTxn = partition.beginReadTransaction() )
             {
                 compareContext.setPartition( partition );
@@ -636,7 +866,7 @@ public class DefaultOperationManager implements OperationManager
         }
         finally
         {
-            unlockRead();
+            unlockRead( partition );
         }
 
         if ( IS_DEBUG )
@@ -729,7 +959,7 @@ public class DefaultOperationManager implements OperationManager
         }
 
         // populate the context with the old entry
-        lockWrite();
+        lockWrite( partition );
 
         // Start a Write transaction right away
         PartitionTxn transaction = deleteContext.getSession().getTransaction( partition ); 
@@ -757,7 +987,7 @@ public class DefaultOperationManager implements OperationManager
 
             if ( !deleteContext.getSession().hasSessionTransaction() )
             {
-                transaction.commit();
+                commitWithoutSync( transaction );
             }
         }
         catch ( LdapException le )
@@ -791,9 +1021,11 @@ public class DefaultOperationManager implements OperationManager
         }
         finally
         {
-            unlockWrite();
+            unlockWrite( partition );
         }
 
+        awaitSync( transaction, deleteContext.getSession() );
+
         if ( IS_DEBUG )
         {
             OPERATION_LOG.debug( "<< DeleteOperation successful" );
@@ -828,12 +1060,12 @@ public class DefaultOperationManager implements OperationManager
         Interceptor head = directoryService.getInterceptor( getRootDseContext.getNextInterceptor() );
         Entry root;
 
+        Partition partition = directoryService.getPartitionNexus().getPartition( Dn.ROOT_DSE );
+
+        lockRead( partition );
+
         try
         {
-            lockRead();
-            
-            Partition partition = directoryService.getPartitionNexus().getPartition( Dn.ROOT_DSE );
-            
             try ( PartitionTxn partitionTxn = partition.beginReadTransaction() )
             {
                 getRootDseContext.setPartition( partition );
@@ -848,7 +1080,7 @@ public class DefaultOperationManager implements OperationManager
         }
         finally
         {
-            unlockRead();
+            unlockRead( partition );
         }
 
         if ( IS_DEBUG )
@@ -888,8 +1120,6 @@ public class DefaultOperationManager implements OperationManager
 
         boolean result = false;
 
-        lockRead();
-
         // Normalize the addContext Dn
         Dn dn = hasEntryContext.getDn();
         
@@ -899,10 +1129,12 @@ public class DefaultOperationManager implements OperationManager
             hasEntryContext.setDn( dn );
         }
 
+        Partition partition = directoryService.getPartitionNexus().getPartition( dn );
+
+        lockRead( partition );
+
         try
         {
-            Partition partition = directoryService.getPartitionNexus().getPartition( dn );
-
             try ( PartitionTxn partitionTxn = partition.beginReadTransaction() )
             {
                 hasEntryContext.setPartition( partition );
@@ -917,7 +1149,7 @@ public class DefaultOperationManager implements OperationManager
         }
         finally
         {
-            unlockRead();
+            unlockRead( partition );
         }
 
         if ( IS_DEBUG )
@@ -974,7 +1206,7 @@ public class DefaultOperationManager implements OperationManager
         {
             lookupContext.setTransaction( transaction );
 
-            lockRead();
+            lockRead( partition );
     
             try
             {
@@ -982,7 +1214,7 @@ public class DefaultOperationManager implements OperationManager
             }
             finally
             {
-                unlockRead();
+                unlockRead( partition );
             }
         }
         catch ( IOException ioe )
@@ -1089,7 +1321,7 @@ public class DefaultOperationManager implements OperationManager
         Partition partition = directoryService.getPartitionNexus().getPartition( dn );
         modifyContext.setPartition( partition );
         
-        lockWrite();
+        lockWrite( partition );
         
         // Start a Write transaction right away
         PartitionTxn transaction = modifyContext.getSession().getTransaction( partition ); 
@@ -1118,7 +1350,7 @@ public class DefaultOperationManager implements OperationManager
             
             if ( !modifyContext.getSession().hasSessionTransaction() )
             {
-                transaction.commit();
+                commitWithoutSync( transaction );
             }
         }
         catch ( LdapException le )
@@ -1152,9 +1384,11 @@ public class DefaultOperationManager implements OperationManager
         }
         finally
         {
-            unlockWrite();
+            unlockWrite( partition );
         }
 
+        awaitSync( transaction, modifyContext.getSession() );
+
         if ( IS_DEBUG )
         {
             OPERATION_LOG.debug( "<< ModifyOperation successful" );
@@ -1260,12 +1494,12 @@ public class DefaultOperationManager implements OperationManager
             directoryService.getReferralManager().unlock();
         }
 
-        lockWrite();
-        
         // Find the working partition
         Partition partition = directoryService.getPartitionNexus().getPartition( dn );
         moveContext.setPartition( partition );
 
+        lockWrite( partition );
+
         // Start a Write transaction right away
         PartitionTxn transaction = moveContext.getSession().getTransaction( partition ); 
         
@@ -1293,7 +1527,7 @@ public class DefaultOperationManager implements OperationManager
             
             if ( !moveContext.getSession().hasSessionTransaction() )
             {
-                transaction.commit();
+                commitWithoutSync( transaction );
             }
         }
         catch ( LdapException le )
@@ -1330,9 +1564,11 @@ public class DefaultOperationManager implements OperationManager
         }
         finally
         {
-            unlockWrite();
+            unlockWrite( partition );
         }
 
+        awaitSync( transaction, moveContext.getSession() );
+
         if ( IS_DEBUG )
         {
             OPERATION_LOG.debug( "<< MoveOperation successful" );
@@ -1443,7 +1679,7 @@ public class DefaultOperationManager implements OperationManager
         Partition partition = directoryService.getPartitionNexus().getPartition( dn );
         moveAndRenameContext.setPartition( partition );
 
-        lockWrite();
+        lockWrite( partition );
         
         // Start a Write transaction right away
         PartitionTxn transaction = moveAndRenameContext.getSession().getTransaction( partition ); 
@@ -1471,7 +1707,7 @@ public class DefaultOperationManager implements OperationManager
 
             if ( !moveAndRenameContext.getSession().hasSessionTransaction() )
             {
-                transaction.commit();
+                commitWithoutSync( transaction );
             }
         }
         catch ( LdapException le )
@@ -1505,9 +1741,11 @@ public class DefaultOperationManager implements OperationManager
         }
         finally
         {
-            unlockWrite();
+            unlockWrite( partition );
         }
 
+        awaitSync( transaction, moveAndRenameContext.getSession() );
+
         if ( IS_DEBUG )
         {
             OPERATION_LOG.debug( "<< MoveAndRenameOperation successful" );
@@ -1611,10 +1849,10 @@ public class DefaultOperationManager implements OperationManager
             directoryService.getReferralManager().unlock();
         }
 
-        lockWrite();
-
         Partition partition = directoryService.getPartitionNexus().getPartition( dn );
 
+        lockWrite( partition );
+
         // Start a Write transaction right away
         PartitionTxn transaction = renameContext.getSession().getTransaction( partition ); 
         
@@ -1687,7 +1925,7 @@ public class DefaultOperationManager implements OperationManager
                 
                 if ( !renameContext.getSession().hasSessionTransaction() )
                 {
-                    transaction.commit();
+                    commitWithoutSync( transaction );
                 }
             }
             catch ( LdapException le )
@@ -1725,9 +1963,11 @@ public class DefaultOperationManager implements OperationManager
         }
         finally
         {
-            unlockWrite();
+            unlockWrite( partition );
         }
 
+        awaitSync( transaction, renameContext.getSession() );
+
         if ( IS_DEBUG )
         {
             OPERATION_LOG.debug( "<< RenameOperation successful" );
@@ -1820,19 +2060,30 @@ public class DefaultOperationManager implements OperationManager
         EntryFilteringCursor cursor = null;
         Partition partition = directoryService.getPartitionNexus().getPartition( dn );
         
+        List<Partition> searchedPartitions = getSearchedPartitions( searchContext, partition );
+
         try ( PartitionTxn partitionTxn = partition.beginReadTransaction() )
         {
             searchContext.setPartition( partition );
             searchContext.setTransaction( partitionTxn );
-            lockRead();
-    
+            int nbLocked = 0;
+
             try
             {
+                for ( Partition searchedPartition : searchedPartitions )
+                {
+                    lockRead( searchedPartition );
+                    nbLocked++;
+                }
+
                 cursor = head.search( searchContext );
             }
             finally
             {
-                unlockRead();
+                for ( int i = nbLocked - 1; i >= 0; i-- )
+                {
+                    unlockRead( searchedPartitions.get( i ) );
+                }
             }
         }
         catch ( IOException ioe )
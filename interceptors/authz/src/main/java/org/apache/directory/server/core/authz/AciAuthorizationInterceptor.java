@@ -848,7 +848,7 @@ public class AciAuthorizationInterceptor extends BaseInterceptor
         {
             next( modifyContext );
 
-            Entry modifiedEntry = modifyContext.getAlteredEntry();
+            Entry modifiedEntry = modifyContext.getPartialAlteredEntry();
             tupleCache.subentryModified( dn, mods, modifiedEntry );
             groupCache.groupModified( dn, mods, entry, schemaManager );
 
@@ -969,7 +969,7 @@ public class AciAuthorizationInterceptor extends BaseInterceptor
 
         next( modifyContext );
 
-        Entry modifiedEntry = modifyContext.getAlteredEntry();
+        Entry modifiedEntry = modifyContext.getPartialAlteredEntry();
         tupleCache.subentryModified( dn, mods, modifiedEntry );
         groupCache.groupModified( dn, mods, entry, schemaManager );
     }
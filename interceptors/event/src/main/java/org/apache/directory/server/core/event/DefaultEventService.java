@@ -48,6 +48,9 @@ class DefaultEventService implements EventService
     /** The list of RegistrationEntries being registered */
     private List<RegistrationEntry> registrations = new CopyOnWriteArrayList<>();
 
+    /** The index used to find the registrations interested in a change */
+    private RegistrationIndex registrationIndex = new RegistrationIndex();
+
     /** The DirectoryService instance */
     private DirectoryService directoryService;
 
@@ -82,7 +85,9 @@ class DefaultEventService implements EventService
 
         ExprNode result = ( ExprNode ) criteria.getFilter().accept( filterNormalizer );
         criteria.setFilter( result );
-        registrations.add( new RegistrationEntry( listener, criteria ) );
+        RegistrationEntry registration = new RegistrationEntry( listener, criteria );
+        registrations.add( registration );
+        registrationIndex.add( registration );
     }
 
 
@@ -97,6 +102,7 @@ class DefaultEventService implements EventService
             if ( entry.getListener() == listener )
             {
                 registrations.remove( entry );
+                registrationIndex.remove( entry );
             }
         }
     }
@@ -110,4 +116,13 @@ class DefaultEventService implements EventService
     {
         return Collections.unmodifiableList( registrations );
     }
+
+
+    /**
+     * @return The index of the registrations
+     */
+    RegistrationIndex getRegistrationIndex()
+    {
+        return registrationIndex;
+    }
 }
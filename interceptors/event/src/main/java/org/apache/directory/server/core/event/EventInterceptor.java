@@ -25,6 +25,7 @@ import static org.apache.directory.api.ldap.model.message.SearchScope.ONELEVEL;
 import static org.apache.directory.api.ldap.model.message.SearchScope.SUBTREE;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.ArrayBlockingQueue;
@@ -33,7 +34,9 @@ import java.util.concurrent.Executors;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
+import org.apache.directory.api.ldap.model.constants.Loggers;
 import org.apache.directory.api.ldap.model.constants.SchemaConstants;
 import org.apache.directory.api.ldap.model.entry.Entry;
 import org.apache.directory.api.ldap.model.exception.LdapException;
@@ -45,6 +48,7 @@ import org.apache.directory.server.core.api.InterceptorEnum;
 import org.apache.directory.server.core.api.entry.ClonedServerEntry;
 import org.apache.directory.server.core.api.event.DirectoryListener;
 import org.apache.directory.server.core.api.event.Evaluator;
+import org.apache.directory.server.core.api.event.EventService;
 import org.apache.directory.server.core.api.event.EventType;
 import org.apache.directory.server.core.api.event.ExpressionEvaluator;
 import org.apache.directory.server.core.api.event.NotificationCriteria;
@@ -72,9 +76,27 @@ public class EventInterceptor extends BaseInterceptor
     /** A logger for this class */
     private static final Logger LOG = LoggerFactory.getLogger( EventInterceptor.class );
 
+    /** The logger publishing the listener selection statistics, like the TimerInterceptor */
+    private static final Logger OPERATION_STATS = LoggerFactory.getLogger( Loggers.OPERATION_STAT.getName() );
+
+    /** The number of changes between two statistics */
+    private static final int STATS_PERIOD = 1000;
+
     private Evaluator evaluator;
     private ExecutorService executor;
 
+    /** The number of changes checked against the registrations */
+    private final AtomicLong changeCount = new AtomicLong( 0 );
+
+    /** The number of filters evaluated */
+    private final AtomicLong evaluationCount = new AtomicLong( 0 );
+
+    /** The number of registrations which have selected a change */
+    private final AtomicLong matchCount = new AtomicLong( 0 );
+
+    /** The time spent selecting the registrations, in nanoseconds */
+    private final AtomicLong evaluationTime = new AtomicLong( 0 );
+
 
     /**
      * Creates a new instance of a EventInterceptor.
@@ -428,20 +450,31 @@ public class EventInterceptor extends BaseInterceptor
 
     /**
      * Find a list of registrationEntries given an entry and a name. We check against
-     * the criteria for each registrationEntry
+     * the criteria for each registrationEntry which may select the entry, according to
+     * the registrations index.
      */
     private List<RegistrationEntry> getSelectingRegistrations( Dn name, Entry entry ) throws LdapException
     {
-        List<RegistrationEntry> registrations = directoryService.getEventService().getRegistrationEntries();
+        EventService eventService = directoryService.getEventService();
+        List<RegistrationEntry> registrations = eventService.getRegistrationEntries();
 
         if ( registrations.isEmpty() )
         {
             return Collections.emptyList();
         }
 
+        long t0 = System.nanoTime();
+        Collection<RegistrationEntry> candidates = registrations;
+
+        if ( ( eventService instanceof DefaultEventService ) && name.isSchemaAware() )
+        {
+            candidates = new ArrayList<>();
+            ( ( DefaultEventService ) eventService ).getRegistrationIndex().collectCandidates( name, entry, candidates );
+        }
+
         List<RegistrationEntry> selecting = new ArrayList<>();
 
-        for ( RegistrationEntry registration : registrations )
+        for ( RegistrationEntry registration : candidates )
         {
             NotificationCriteria criteria = registration.getCriteria();
 
@@ -461,9 +494,64 @@ public class EventInterceptor extends BaseInterceptor
             }
         }
 
+        long nbChanges = changeCount.incrementAndGet();
+        evaluationCount.addAndGet( candidates.size() );
+        matchCount.addAndGet( selecting.size() );
+        evaluationTime.addAndGet( System.nanoTime() - t0 );
+
+        if ( ( nbChanges % STATS_PERIOD == 0 ) && OPERATION_STATS.isDebugEnabled() )
+        {
+            OPERATION_STATS.debug( "{} : Average listener selection = {} microseconds, nb changes = {}, "
+                + "nb evaluations = {}, nb matches = {}", getName(), evaluationTime.get() / ( nbChanges * 1000 ),
+                nbChanges, evaluationCount.get(), matchCount.get() );
+        }
+
+        if ( LOG.isDebugEnabled() )
+        {
+            LOG.debug( "{} registrations out of {} evaluated for {}, {} selected", candidates.size(),
+                registrations.size(), name, selecting.size() );
+        }
+
         return selecting;
     }
 
+
+    /**
+     * @return The number of changes checked against the registered listeners
+     */
+    public long getChangeCount()
+    {
+        return changeCount.get();
+    }
+
+
+    /**
+     * @return The number of listener filters evaluated against the changed entries
+     */
+    public long getEvaluationCount()
+    {
+        return evaluationCount.get();
+    }
+
+
+    /**
+     * @return The number of listeners which have been selected by a change
+     */
+    public long getMatchCount()
+    {
+        return matchCount.get();
+    }
+
+
+    /**
+     * @return The time spent selecting the listeners interested in the changes, in
+     * nanoseconds
+     */
+    public long getEvaluationTime()
+    {
+        return evaluationTime.get();
+    }
+
     
     /**
      * {@inheritDoc}
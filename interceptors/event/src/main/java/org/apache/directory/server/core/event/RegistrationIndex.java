@@ -0,0 +1,440 @@
+/*
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *   or more contributor license agreements.  See the NOTICE file
+ *   distributed with this work for additional information
+ *   regarding copyright ownership.  The ASF licenses this file
+ *   to you under the Apache License, Version 2.0 (the
+ *   "License"); you may not use this file except in compliance
+ *   with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing,
+ *   software distributed under the License is distributed on an
+ *   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *   KIND, either express or implied.  See the License for the
+ *   specific language governing permissions and limitations
+ *   under the License.
+ *
+ */
+package org.apache.directory.server.core.event;
+
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.apache.directory.api.ldap.model.constants.SchemaConstants;
+import org.apache.directory.api.ldap.model.entry.Attribute;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.entry.Value;
+import org.apache.directory.api.ldap.model.exception.LdapInvalidAttributeValueException;
+import org.apache.directory.api.ldap.model.filter.AndNode;
+import org.apache.directory.api.ldap.model.filter.EqualityNode;
+import org.apache.directory.api.ldap.model.filter.ExprNode;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.model.schema.AttributeType;
+import org.apache.directory.server.core.api.event.NotificationCriteria;
+import org.apache.directory.server.core.api.event.RegistrationEntry;
+
+
+/**
+ * An index of the registered listeners, used to find the few registrations which may
+ * be interested in a change without evaluating the filter of every one of them.
+ * <br>
+ * The registrations are first indexed by scope and normalized base DN : the candidates
+ * for a change on an entry are the OBJECT registrations on this entry, the ONELEVEL
+ * registrations on its parent, and the SUBTREE registrations on any of its ancestors,
+ * found by walking up the DN.
+ * <br>
+ * Then, in each base, the registrations whose filter requires an attribute value - an
+ * equality filter, or an AND filter with an equality child - are indexed by this
+ * attribute and normalized value. They are candidates only if the entry has this value.
+ * The other registrations are always candidates.
+ * <br>
+ * The candidates still have to be evaluated against the entry : the index only
+ * discards the registrations which can't match.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+class RegistrationIndex
+{
+    /** The OBJECT scope registrations, by normalized base DN */
+    private final Map<String, Bucket> objectRegistrations = new ConcurrentHashMap<>();
+
+    /** The ONELEVEL scope registrations, by normalized base DN */
+    private final Map<String, Bucket> oneLevelRegistrations = new ConcurrentHashMap<>();
+
+    /** The SUBTREE scope registrations, by normalized base DN */
+    private final Map<String, Bucket> subtreeRegistrations = new ConcurrentHashMap<>();
+
+    /** The registrations sharing a base DN and a scope */
+    private static class Bucket
+    {
+        /** The registrations with no required attribute value */
+        private final List<RegistrationEntry> unkeyed = new CopyOnWriteArrayList<>();
+
+        /** The registrations requiring an attribute value, by attribute OID */
+        private final Map<String, KeyedRegistrations> keyed = new ConcurrentHashMap<>();
+
+
+        private boolean isEmpty()
+        {
+            return unkeyed.isEmpty() && keyed.isEmpty();
+        }
+    }
+
+    /** The registrations requiring a value of an attribute */
+    private static class KeyedRegistrations
+    {
+        /** The attribute */
+        private final AttributeType attributeType;
+
+        /** The registrations, by required normalized value */
+        private final Map<String, List<RegistrationEntry>> byValue = new ConcurrentHashMap<>();
+
+
+        private KeyedRegistrations( AttributeType attributeType )
+        {
+            this.attributeType = attributeType;
+        }
+    }
+
+    /** The attribute value required by a filter */
+    private static class Key
+    {
+        private final AttributeType attributeType;
+        private final String normValue;
+
+
+        private Key( AttributeType attributeType, String normValue )
+        {
+            this.attributeType = attributeType;
+            this.normValue = normValue;
+        }
+    }
+
+    /** The key under which each registration has been stored, to be able to remove it */
+    private final Map<RegistrationEntry, Key> keys = new HashMap<>();
+
+    /** The number of registrations */
+    private volatile int size;
+
+
+    /**
+     * Adds a registration. Its base DN must be schema aware and its filter normalized.
+     *
+     * @param registration The registration to add
+     */
+    synchronized void add( RegistrationEntry registration )
+    {
+        NotificationCriteria criteria = registration.getCriteria();
+        Map<String, Bucket> registrations = getRegistrations( criteria );
+        String base = criteria.getBase().getNormName();
+        Bucket bucket = registrations.get( base );
+
+        if ( bucket == null )
+        {
+            bucket = new Bucket();
+            registrations.put( base, bucket );
+        }
+
+        Key key = getKey( criteria.getFilter() );
+
+        if ( key == null )
+        {
+            bucket.unkeyed.add( registration );
+        }
+        else
+        {
+            String oid = key.attributeType.getOid();
+            KeyedRegistrations keyedRegistrations = bucket.keyed.get( oid );
+
+            if ( keyedRegistrations == null )
+            {
+                keyedRegistrations = new KeyedRegistrations( key.attributeType );
+                bucket.keyed.put( oid, keyedRegistrations );
+            }
+
+            List<RegistrationEntry> list = keyedRegistrations.byValue.get( key.normValue );
+
+            if ( list == null )
+            {
+                list = new CopyOnWriteArrayList<>();
+                keyedRegistrations.byValue.put( key.normValue, list );
+            }
+
+            list.add( registration );
+            keys.put( registration, key );
+        }
+
+        size++;
+    }
+
+
+    /**
+     * Removes a registration.
+     *
+     * @param registration The registration to remove
+     */
+    synchronized void remove( RegistrationEntry registration )
+    {
+        NotificationCriteria criteria = registration.getCriteria();
+        Map<String, Bucket> registrations = getRegistrations( criteria );
+        String base = criteria.getBase().getNormName();
+        Bucket bucket = registrations.get( base );
+
+        if ( bucket == null )
+        {
+            return;
+        }
+
+        Key key = keys.remove( registration );
+        boolean removed = false;
+
+        if ( key == null )
+        {
+            removed = bucket.unkeyed.remove( registration );
+        }
+        else
+        {
+            String oid = key.attributeType.getOid();
+            KeyedRegistrations keyedRegistrations = bucket.keyed.get( oid );
+
+            if ( keyedRegistrations != null )
+            {
+                List<RegistrationEntry> list = keyedRegistrations.byValue.get( key.normValue );
+
+                if ( list != null )
+                {
+                    removed = list.remove( registration );
+
+                    if ( list.isEmpty() )
+                    {
+                        keyedRegistrations.byValue.remove( key.normValue );
+                    }
+                }
+
+                if ( keyedRegistrations.byValue.isEmpty() )
+                {
+                    bucket.keyed.remove( oid );
+                }
+            }
+        }
+
+        if ( bucket.isEmpty() )
+        {
+            registrations.remove( base );
+        }
+
+        if ( removed )
+        {
+            size--;
+        }
+    }
+
+
+    /**
+     * @return The number of registrations
+     */
+    int size()
+    {
+        return size;
+    }
+
+
+    /**
+     * @return The number of base DNs having registrations, for all the scopes
+     */
+    int bucketCount()
+    {
+        return objectRegistrations.size() + oneLevelRegistrations.size() + subtreeRegistrations.size();
+    }
+
+
+    /**
+     * Adds the registrations which may select a change on an entry to a collection.
+     *
+     * @param name The schema aware DN of the entry
+     * @param entry The entry
+     * @param candidates The collection where the candidates are added
+     */
+    void collectCandidates( Dn name, Entry entry, Collection<RegistrationEntry> candidates )
+    {
+        collect( objectRegistrations.get( name.getNormName() ), entry, candidates );
+
+        if ( name.isEmpty() )
+        {
+            collect( subtreeRegistrations.get( name.getNormName() ), entry, candidates );
+
+            return;
+        }
+
+        Dn parent = name.getParent();
+        collect( oneLevelRegistrations.get( parent.getNormName() ), entry, candidates );
+
+        if ( subtreeRegistrations.isEmpty() )
+        {
+            return;
+        }
+
+        // Walk up the DN, down to the rootDSE
+        collect( subtreeRegistrations.get( name.getNormName() ), entry, candidates );
+        Dn ancestor = parent;
+
+        while ( true )
+        {
+            collect( subtreeRegistrations.get( ancestor.getNormName() ), entry, candidates );
+
+            if ( ancestor.isEmpty() )
+            {
+                break;
+            }
+
+            ancestor = ancestor.getParent();
+        }
+    }
+
+
+    /**
+     * Adds the registrations of a bucket which may select an entry
+     */
+    private void collect( Bucket bucket, Entry entry, Collection<RegistrationEntry> candidates )
+    {
+        if ( bucket == null )
+        {
+            return;
+        }
+
+        candidates.addAll( bucket.unkeyed );
+
+        if ( entry == null )
+        {
+            return;
+        }
+
+        for ( KeyedRegistrations keyedRegistrations : bucket.keyed.values() )
+        {
+            Attribute attribute = entry.get( keyedRegistrations.attributeType );
+
+            if ( attribute == null )
+            {
+                continue;
+            }
+
+            for ( Value value : attribute )
+            {
+                List<RegistrationEntry> list = keyedRegistrations.byValue.get( value.getNormalized() );
+
+                if ( list != null )
+                {
+                    candidates.addAll( list );
+                }
+            }
+        }
+    }
+
+
+    /**
+     * @return The registrations map associated with the criteria scope
+     */
+    private Map<String, Bucket> getRegistrations( NotificationCriteria criteria )
+    {
+        switch ( criteria.getScope() )
+        {
+            case OBJECT:
+                return objectRegistrations;
+
+            case ONELEVEL:
+                return oneLevelRegistrations;
+
+            default:
+                return subtreeRegistrations;
+        }
+    }
+
+
+    /**
+     * Finds an attribute value the entries must have to be selected by a filter. An
+     * ObjectClass value is only used if there is no other equality assertion, as it is
+     * usually shared by many entries.
+     *
+     * @return The attribute value, or null if there is none
+     */
+    private Key getKey( ExprNode filter )
+    {
+        if ( filter instanceof EqualityNode )
+        {
+            return getKey( ( EqualityNode<?> ) filter );
+        }
+
+        if ( !( filter instanceof AndNode ) )
+        {
+            return null;
+        }
+
+        Key objectClassKey = null;
+
+        for ( ExprNode child : ( ( AndNode ) filter ).getChildren() )
+        {
+            if ( child instanceof EqualityNode )
+            {
+                Key key = getKey( ( EqualityNode<?> ) child );
+
+                if ( key == null )
+                {
+                    continue;
+                }
+
+                if ( !SchemaConstants.OBJECT_CLASS_AT_OID.equals( key.attributeType.getOid() ) )
+                {
+                    return key;
+                }
+
+                if ( objectClassKey == null )
+                {
+                    objectClassKey = key;
+                }
+            }
+        }
+
+        return objectClassKey;
+    }
+
+
+    /**
+     * @return The normalized value of an equality assertion, or null if it can't be
+     * compared with the entry values normalized form
+     */
+    private Key getKey( EqualityNode<?> node )
+    {
+        AttributeType attributeType = node.getAttributeType();
+
+        if ( ( attributeType == null ) || ( attributeType.getSyntax() == null )
+            || !attributeType.getSyntax().isHumanReadable() || ( node.getValue() == null ) )
+        {
+            return null;
+        }
+
+        try
+        {
+            // Normalize the value the way the entry values are
+            Value value = new Value( attributeType, node.getValue().getString() );
+            String normValue = value.getNormalized();
+
+            if ( normValue == null )
+            {
+                return null;
+            }
+
+            return new Key( attributeType, normValue );
+        }
+        catch ( LdapInvalidAttributeValueException liave )
+        {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,264 @@
+/*
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *   or more contributor license agreements.  See the NOTICE file
+ *   distributed with this work for additional information
+ *   regarding copyright ownership.  The ASF licenses this file
+ *   to you under the Apache License, Version 2.0 (the
+ *   "License"); you may not use this file except in compliance
+ *   with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing,
+ *   software distributed under the License is distributed on an
+ *   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *   KIND, either express or implied.  See the License for the
+ *   specific language governing permissions and limitations
+ *   under the License.
+ *
+ */
+package org.apache.directory.server.core.event;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+import org.apache.directory.api.ldap.model.entry.DefaultEntry;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.message.SearchScope;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.api.ldap.schema.manager.impl.DefaultSchemaManager;
+import org.apache.directory.server.core.api.event.NotificationCriteria;
+import org.apache.directory.server.core.api.event.RegistrationEntry;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+
+/**
+ * Unit tests for the RegistrationIndex class.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class RegistrationIndexTest
+{
+    private static SchemaManager schemaManager;
+
+    private RegistrationIndex index;
+
+
+    @BeforeClass
+    public static void init() throws Exception
+    {
+        schemaManager = new DefaultSchemaManager();
+    }
+
+
+    @Before
+    public void setUp()
+    {
+        index = new RegistrationIndex();
+    }
+
+
+    /**
+     * Creates and adds a registration to the index.
+     */
+    private RegistrationEntry register( String base, SearchScope scope, String filter ) throws Exception
+    {
+        NotificationCriteria criteria = new NotificationCriteria( schemaManager );
+        criteria.setBase( new Dn( schemaManager, base ) );
+        criteria.setScope( scope );
+        criteria.setFilter( filter );
+
+        RegistrationEntry registration = new RegistrationEntry( null, criteria );
+        index.add( registration );
+
+        return registration;
+    }
+
+
+    /**
+     * Creates a person entry.
+     */
+    private Entry createPerson( String dn, String cn ) throws Exception
+    {
+        return new DefaultEntry( schemaManager, dn,
+            "objectClass: top",
+            "objectClass: person",
+            "cn: " + cn,
+            "sn: Doe",
+            "userPassword: secret" );
+    }
+
+
+    /**
+     * @return The registrations the index selects for a change on an entry
+     */
+    private List<RegistrationEntry> getCandidates( String dn, Entry entry ) throws Exception
+    {
+        List<RegistrationEntry> candidates = new ArrayList<>();
+        index.collectCandidates( new Dn( schemaManager, dn ), entry, candidates );
+
+        return candidates;
+    }
+
+
+    private static void assertCandidates( List<RegistrationEntry> candidates, RegistrationEntry... expected )
+    {
+        assertEquals( expected.length, candidates.size() );
+        assertEquals( new HashSet<>( Arrays.asList( expected ) ), new HashSet<>( candidates ) );
+    }
+
+
+    @Test
+    public void testScopes() throws Exception
+    {
+        RegistrationEntry object = register( "ou=people,ou=system", SearchScope.OBJECT, "(objectClass=*)" );
+        RegistrationEntry oneLevel = register( "ou=people,ou=system", SearchScope.ONELEVEL, "(objectClass=*)" );
+        RegistrationEntry subtree = register( "ou=people,ou=system", SearchScope.SUBTREE, "(objectClass=*)" );
+        RegistrationEntry other = register( "ou=groups,ou=system", SearchScope.SUBTREE, "(objectClass=*)" );
+
+        assertEquals( 4, index.size() );
+
+        // The base itself : OBJECT and SUBTREE, the base DN case is not relevant
+        assertCandidates( getCandidates( "OU=People,ou=system", null ), object, subtree );
+
+        // A child : ONELEVEL and SUBTREE
+        Entry child = createPerson( "cn=jdoe,ou=people,ou=system", "jdoe" );
+        assertCandidates( getCandidates( "cn=jdoe,ou=people,ou=system", child ), oneLevel, subtree );
+
+        // A grand child : SUBTREE only
+        assertCandidates( getCandidates( "cn=jdoe,ou=admins,ou=people,ou=system", null ), subtree );
+
+        // The parent of the base : none
+        assertCandidates( getCandidates( "ou=system", null ) );
+
+        // Another branch
+        assertCandidates( getCandidates( "cn=admins,ou=groups,ou=system", null ), other );
+    }
+
+
+    @Test
+    public void testRootDseSubtree() throws Exception
+    {
+        RegistrationEntry all = register( "", SearchScope.SUBTREE, "(objectClass=*)" );
+        RegistrationEntry system = register( "ou=system", SearchScope.SUBTREE, "(objectClass=*)" );
+
+        // The walk goes up to the rootDSE
+        assertCandidates( getCandidates( "cn=jdoe,ou=people,ou=system", null ), all, system );
+        assertCandidates( getCandidates( "ou=system", null ), all, system );
+        assertCandidates( getCandidates( "dc=example,dc=com", null ), all );
+
+        // A change on the rootDSE itself
+        assertCandidates( getCandidates( "", null ), all );
+    }
+
+
+    @Test
+    public void testEqualityKey() throws Exception
+    {
+        RegistrationEntry jdoe = register( "ou=system", SearchScope.SUBTREE, "(cn=JDoe)" );
+        RegistrationEntry jsmith = register( "ou=system", SearchScope.SUBTREE, "(cn=jsmith)" );
+
+        // The value is compared in its normalized form
+        Entry entry = createPerson( "cn=jdoe,ou=system", "  jDOE " );
+        assertCandidates( getCandidates( "cn=jdoe,ou=system", entry ), jdoe );
+
+        entry = createPerson( "cn=jsmith,ou=system", "JSmith" );
+        assertCandidates( getCandidates( "cn=jsmith,ou=system", entry ), jsmith );
+
+        entry = createPerson( "cn=other,ou=system", "other" );
+        assertCandidates( getCandidates( "cn=other,ou=system", entry ) );
+    }
+
+
+    @Test
+    public void testAndFilterKey() throws Exception
+    {
+        // Only an objectClass equality : keyed on the objectClass
+        RegistrationEntry persons = register( "ou=system", SearchScope.SUBTREE,
+            "(&(objectClass=person)(description=*))" );
+
+        // An objectClass equality and another equality : keyed on the other one
+        RegistrationEntry jdoe = register( "ou=system", SearchScope.SUBTREE, "(&(objectClass=person)(cn=jdoe))" );
+
+        Entry entry = createPerson( "cn=jdoe,ou=system", "jdoe" );
+        assertCandidates( getCandidates( "cn=jdoe,ou=system", entry ), persons, jdoe );
+
+        entry = createPerson( "cn=jsmith,ou=system", "jsmith" );
+        assertCandidates( getCandidates( "cn=jsmith,ou=system", entry ), persons );
+
+        entry = new DefaultEntry( schemaManager, "ou=people,ou=system",
+            "objectClass: top",
+            "objectClass: organizationalUnit",
+            "ou: people" );
+        assertCandidates( getCandidates( "ou=people,ou=system", entry ) );
+    }
+
+
+    @Test
+    public void testUnkeyedFilters() throws Exception
+    {
+        // userPassword is not human readable, its values can't be keyed
+        RegistrationEntry password = register( "ou=system", SearchScope.SUBTREE, "(userPassword=secret)" );
+        RegistrationEntry or = register( "ou=system", SearchScope.SUBTREE, "(|(cn=jdoe)(cn=jsmith))" );
+        RegistrationEntry keyed = register( "ou=system", SearchScope.SUBTREE, "(cn=jdoe)" );
+
+        Entry entry = createPerson( "cn=other,ou=system", "other" );
+        assertCandidates( getCandidates( "cn=other,ou=system", entry ), password, or );
+
+        entry = createPerson( "cn=jdoe,ou=system", "jdoe" );
+        assertCandidates( getCandidates( "cn=jdoe,ou=system", entry ), password, or, keyed );
+
+        // Without an entry, only the unkeyed registrations are candidates
+        assertCandidates( getCandidates( "cn=jdoe,ou=system", null ), password, or );
+    }
+
+
+    @Test
+    public void testRemove() throws Exception
+    {
+        RegistrationEntry unkeyed = register( "ou=system", SearchScope.SUBTREE, "(objectClass=*)" );
+        RegistrationEntry jdoe1 = register( "ou=system", SearchScope.SUBTREE, "(cn=jdoe)" );
+        RegistrationEntry jdoe2 = register( "ou=system", SearchScope.SUBTREE, "(cn=jdoe)" );
+        RegistrationEntry object = register( "cn=jdoe,ou=system", SearchScope.OBJECT, "(cn=jdoe)" );
+
+        assertEquals( 4, index.size() );
+        assertEquals( 2, index.bucketCount() );
+
+        Entry entry = createPerson( "cn=jdoe,ou=system", "jdoe" );
+        assertCandidates( getCandidates( "cn=jdoe,ou=system", entry ), unkeyed, jdoe1, jdoe2, object );
+
+        index.remove( jdoe1 );
+        assertEquals( 3, index.size() );
+        assertCandidates( getCandidates( "cn=jdoe,ou=system", entry ), unkeyed, jdoe2, object );
+
+        // Removing a registration twice does nothing
+        index.remove( jdoe1 );
+        assertEquals( 3, index.size() );
+
+        // The OBJECT bucket is removed with its last registration
+        index.remove( object );
+        assertEquals( 2, index.size() );
+        assertEquals( 1, index.bucketCount() );
+        assertCandidates( getCandidates( "cn=jdoe,ou=system", entry ), unkeyed, jdoe2 );
+
+        index.remove( jdoe2 );
+        assertEquals( 1, index.bucketCount() );
+        index.remove( unkeyed );
+        assertEquals( 0, index.size() );
+        assertEquals( 0, index.bucketCount() );
+        assertTrue( getCandidates( "cn=jdoe,ou=system", entry ).isEmpty() );
+
+        // The index can be filled again
+        RegistrationEntry again = register( "ou=system", SearchScope.SUBTREE, "(cn=jdoe)" );
+        assertCandidates( getCandidates( "cn=jdoe,ou=system", entry ), again );
+    }
+}
@@ -1247,7 +1247,8 @@ public class SubentryInterceptor extends BaseInterceptor
 
             if ( !containsSubentryOC )
             {
-                Entry newEntry = modifyContext.getAlteredEntry();
+                // The subtree specifications only select the entries on their ObjectClasses
+                Entry newEntry = modifyContext.getPartialAlteredEntry();
 
                 List<Modification> subentriesOpAttrMods = getModsOnEntryModification( dn, entry, newEntry );
 
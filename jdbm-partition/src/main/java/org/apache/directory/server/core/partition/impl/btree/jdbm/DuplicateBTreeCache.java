@@ -0,0 +1,191 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.partition.impl.btree.jdbm;
+
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import jdbm.btree.BTree;
+
+
+/**
+ * A cache of the BTrees storing the duplicate values of a {@link JdbmTable}, keyed by
+ * their record ID. The cache is split in stripes, each of them being a LRU map protected
+ * by its own lock, so that the readers of different keys of a hot index do not all wait
+ * on the same monitor.
+ *
+ * @param <K> The BTree key type
+ * @param <V> The BTree value type
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+final class DuplicateBTreeCache<K, V>
+{
+    /** The maximum number of stripes */
+    private static final int MAX_STRIPES = 16;
+
+    /** The stripes */
+    private final Stripe<K, V>[] stripes;
+
+    /** The mask used to select a stripe */
+    private final int mask;
+
+
+    /**
+     * A LRU map holding a part of the cached BTrees
+     */
+    private static final class Stripe<K, V> extends LinkedHashMap<Long, BTree<K, V>>
+    {
+        private static final long serialVersionUID = 1L;
+
+        /** The maximum number of BTrees in this stripe */
+        private final int maxSize;
+
+
+        private Stripe( int maxSize )
+        {
+            super( 16, 0.75f, true );
+            this.maxSize = maxSize;
+        }
+
+
+        @Override
+        protected boolean removeEldestEntry( Map.Entry<Long, BTree<K, V>> eldest )
+        {
+            return size() > maxSize;
+        }
+    }
+
+
+    /**
+     * Creates a new instance of DuplicateBTreeCache.
+     *
+     * @param maxSize The maximum number of cached BTrees
+     */
+    @SuppressWarnings("unchecked")
+    DuplicateBTreeCache( int maxSize )
+    {
+        int nbStripes = Integer.highestOneBit( Math.max( 1, Math.min( MAX_STRIPES, maxSize ) ) );
+        int stripeSize = Math.max( 1, maxSize / nbStripes );
+
+        stripes = new Stripe[nbStripes];
+        mask = nbStripes - 1;
+
+        for ( int i = 0; i < nbStripes; i++ )
+        {
+            stripes[i] = new Stripe<>( stripeSize );
+        }
+    }
+
+
+    /**
+     * Gets a cached BTree.
+     *
+     * @param recId The BTree record ID
+     * @return The BTree, or null if it's not cached
+     */
+    BTree<K, V> get( long recId )
+    {
+        Stripe<K, V> stripe = getStripe( recId );
+
+        synchronized ( stripe )
+        {
+            return stripe.get( recId );
+        }
+    }
+
+
+    /**
+     * Caches a BTree, unless another instance has been cached for the same record ID in
+     * the meantime.
+     *
+     * @param recId The BTree record ID
+     * @param tree The BTree
+     * @return The cached BTree
+     */
+    BTree<K, V> putIfAbsent( long recId, BTree<K, V> tree )
+    {
+        Stripe<K, V> stripe = getStripe( recId );
+
+        synchronized ( stripe )
+        {
+            BTree<K, V> cached = stripe.get( recId );
+
+            if ( cached != null )
+            {
+                return cached;
+            }
+
+            stripe.put( recId, tree );
+
+            return tree;
+        }
+    }
+
+
+    /**
+     * Removes a BTree from the cache, when its record is deleted.
+     *
+     * @param recId The BTree record ID
+     */
+    void remove( long recId )
+    {
+        Stripe<K, V> stripe = getStripe( recId );
+
+        synchronized ( stripe )
+        {
+            stripe.remove( recId );
+        }
+    }
+
+
+    /**
+     * @return The number of cached BTrees
+     */
+    int size()
+    {
+        int size = 0;
+
+        for ( Stripe<K, V> stripe : stripes )
+        {
+            synchronized ( stripe )
+            {
+                size += stripe.size();
+            }
+        }
+
+        return size;
+    }
+
+
+    /**
+     * Selects the stripe of a record ID. The record IDs are file offsets, their bits are
+     * mixed before being masked.
+     */
+    private Stripe<K, V> getStripe( long recId )
+    {
+        int hash = ( int ) ( recId ^ ( recId >>> 32 ) );
+        hash ^= ( hash >>> 16 );
+        hash *= 0x85EBCA6B;
+        hash ^= ( hash >>> 13 );
+
+        return stripes[hash & mask];
+    }
+}
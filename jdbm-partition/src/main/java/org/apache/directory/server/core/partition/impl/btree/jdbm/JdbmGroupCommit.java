@@ -0,0 +1,159 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.partition.impl.btree.jdbm;
+
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import jdbm.recman.BaseRecordManager;
+
+
+/**
+ * Syncs the JDBM transaction log for many writers at once. The JDBM log is the write
+ * ahead log of the partition : a commit appends the modified pages to the log, and
+ * synchronizing the log writes them to the database file.
+ * <br>
+ * A writer commits its transaction while it holds the partition lock, gets a sequence
+ * number, and waits for the sync once it has released the lock. The first waiting writer
+ * syncs the log for all the transactions committed so far, the others wait for it, so
+ * that a single sync acknowledges a whole batch of writes. The syncing writer may wait
+ * a bit before syncing, letting more writers join the batch.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+final class JdbmGroupCommit
+{
+    /** The record manager which log is synced */
+    private final BaseRecordManager baseRecordManager;
+
+    /** The time the syncing writer waits for more writers, in nanoseconds */
+    private final long delayNanos;
+
+    /** The sequence number of the last committed transaction */
+    private long committed;
+
+    /** The sequence number of the last synced transaction */
+    private long synced;
+
+    /** Tells if a writer is syncing the log */
+    private boolean syncing;
+
+
+    /**
+     * Creates a new instance of JdbmGroupCommit.
+     *
+     * @param baseRecordManager The record manager which log is synced
+     * @param delayMicros The time the syncing writer waits for more writers, in microseconds
+     */
+    JdbmGroupCommit( BaseRecordManager baseRecordManager, long delayMicros )
+    {
+        this.baseRecordManager = baseRecordManager;
+        this.delayNanos = TimeUnit.MICROSECONDS.toNanos( delayMicros );
+    }
+
+
+    /**
+     * Registers a transaction which has just been committed in the JDBM log.
+     *
+     * @return The sequence number to wait for
+     */
+    synchronized long committed()
+    {
+        committed++;
+
+        return committed;
+    }
+
+
+    /**
+     * Waits until the log has been synced for a transaction, syncing it if no other
+     * writer is doing so.
+     *
+     * @param sequence The transaction sequence number
+     * @throws IOException If the log can't be synced
+     */
+    void awaitSync( long sequence ) throws IOException
+    {
+        synchronized ( this )
+        {
+            while ( syncing && ( synced < sequence ) )
+            {
+                try
+                {
+                    wait();
+                }
+                catch ( InterruptedException ie )
+                {
+                    Thread.currentThread().interrupt();
+
+                    throw new InterruptedIOException( "Interrupted while waiting for the log sync" );
+                }
+            }
+
+            if ( synced >= sequence )
+            {
+                return;
+            }
+
+            syncing = true;
+        }
+
+        long target = sequence;
+        boolean done = false;
+
+        try
+        {
+            if ( delayNanos > 0 )
+            {
+                LockSupport.parkNanos( delayNanos );
+            }
+
+            synchronized ( this )
+            {
+                target = committed;
+            }
+
+            // Exclude the commits while the log is written to the database file
+            synchronized ( baseRecordManager )
+            {
+                baseRecordManager.getTransactionManager().synchronizeLog();
+            }
+
+            done = true;
+        }
+        finally
+        {
+            synchronized ( this )
+            {
+                syncing = false;
+
+                if ( done && ( target > synced ) )
+                {
+                    synced = target;
+                }
+
+                notifyAll();
+            }
+        }
+    }
+}
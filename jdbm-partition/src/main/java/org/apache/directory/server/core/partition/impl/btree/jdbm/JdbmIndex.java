@@ -60,6 +60,9 @@ public class JdbmIndex<K> extends AbstractIndex<K, String>
     /** default duplicate limit before duplicate keys switch to using a btree for values */
     public static final int DEFAULT_DUPLICATE_LIMIT = 512;
 
+    /** default number of duplicate btrees kept in memory by each table of the index */
+    public static final int DEFAULT_DUPLICATE_BTREE_CACHE_SIZE = 100;
+
     /**  the key used for the forward btree name */
     public static final String FORWARD_BTREE = "_forward";
 
@@ -90,6 +93,11 @@ public class JdbmIndex<K> extends AbstractIndex<K, String>
      */
     protected int numDupLimit = DEFAULT_DUPLICATE_LIMIT;
 
+    /**
+     * number of duplicate btrees kept in memory by each table of the index
+     */
+    protected int duplicateBTreeCacheSize = DEFAULT_DUPLICATE_BTREE_CACHE_SIZE;
+
     /** a custom working directory path when specified in configuration */
     protected File wkDirPath;
 
@@ -207,13 +215,13 @@ public class JdbmIndex<K> extends AbstractIndex<K, String>
         if ( mr.getSyntax().isHumanReadable() )
         {
             forward = new JdbmTable<>( schemaManager, attributeType.getOid() + FORWARD_BTREE, numDupLimit,
-                recMan,
+                duplicateBTreeCacheSize, recMan,
                 comp, UuidComparator.INSTANCE, StringSerializer.INSTANCE, UuidSerializer.INSTANCE );
         }
         else
         {
             forward = new JdbmTable<>( schemaManager, attributeType.getOid() + FORWARD_BTREE, numDupLimit,
-                recMan,
+                duplicateBTreeCacheSize, recMan,
                 comp, UuidComparator.INSTANCE, new ByteArraySerializer(), UuidSerializer.INSTANCE );
         }
 
@@ -233,7 +241,7 @@ public class JdbmIndex<K> extends AbstractIndex<K, String>
             else
             {
                 reverse = new JdbmTable<>( schemaManager, attributeType.getOid() + REVERSE_BTREE, numDupLimit,
-                    recMan,
+                    duplicateBTreeCacheSize, recMan,
                     UuidComparator.INSTANCE, comp, UuidSerializer.INSTANCE, null );
             }
         }
@@ -268,6 +276,31 @@ public class JdbmIndex<K> extends AbstractIndex<K, String>
     }
 
 
+    /**
+     * Gets the number of duplicate btrees each table of this index keeps in memory.
+     *
+     * @return the number of cached duplicate btrees
+     */
+    public int getDuplicateBTreeCacheSize()
+    {
+        return duplicateBTreeCacheSize;
+    }
+
+
+    /**
+     * Sets the number of duplicate btrees each table of this index keeps in memory. Hot
+     * indices, like objectClass, with many keys having more than numDupLimit values may
+     * need a bigger cache.
+     *
+     * @param duplicateBTreeCacheSize the number of cached duplicate btrees
+     */
+    public void setDuplicateBTreeCacheSize( int duplicateBTreeCacheSize )
+    {
+        protect( "duplicateBTreeCacheSize" );
+        this.duplicateBTreeCacheSize = duplicateBTreeCacheSize;
+    }
+
+
     /**
      * Sets the working directory path to something other than the default. Sometimes more
      * performance is gained by locating indices on separate disk spindles.
@@ -372,6 +405,11 @@ public class JdbmIndex<K> extends AbstractIndex<K, String>
      */
     public synchronized void add( PartitionTxn partitionTxn,  K attrVal, String id ) throws LdapException
     {
+        if ( !forward.has( partitionTxn, attrVal, id ) )
+        {
+            statistics.add( attrVal, !forward.has( partitionTxn, attrVal ) );
+        }
+
         // The pair to be added must exists
         forward.put( partitionTxn, attrVal, id );
 
@@ -391,6 +429,7 @@ public class JdbmIndex<K> extends AbstractIndex<K, String>
         if ( forward.has( partitionTxn, attrVal, id ) )
         {
             forward.remove( partitionTxn, attrVal, id );
+            statistics.drop( attrVal, !forward.has( partitionTxn, attrVal ) );
 
             if ( withReverse )
             {
@@ -418,7 +457,9 @@ public class JdbmIndex<K> extends AbstractIndex<K, String>
                     while ( values.next() )
                     {
                         // Remove the Key -> entryId from the index
-                        forward.remove( partitionTxn, values.get().getValue(), entryId );
+                        K key = values.get().getValue();
+                        forward.remove( partitionTxn, key, entryId );
+                        statistics.drop( key, !forward.has( partitionTxn, key ) );
                     }
     
                     values.close();
@@ -433,6 +474,7 @@ public class JdbmIndex<K> extends AbstractIndex<K, String>
                 K key = reverse.get( partitionTxn, entryId );
 
                 forward.remove( partitionTxn, key );
+                statistics.drop( key, true );
             }
 
             // Remove the id -> key from the reverse index
@@ -45,32 +45,28 @@ import org.apache.directory.api.ldap.model.message.ResultCodeEnum;
 import org.apache.directory.api.ldap.model.name.Dn;
 import org.apache.directory.api.ldap.model.schema.AttributeType;
 import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.api.ldap.model.schema.comparators.UuidComparator;
 import org.apache.directory.api.util.exception.MultiException;
 import org.apache.directory.server.constants.ApacheSchemaConstants;
 import org.apache.directory.server.core.api.DnFactory;
-import org.apache.directory.server.core.api.entry.ClonedServerEntry;
 import org.apache.directory.server.core.api.interceptor.context.AddOperationContext;
-import org.apache.directory.server.core.api.interceptor.context.DeleteOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.LookupOperationContext;
-import org.apache.directory.server.core.api.interceptor.context.ModifyOperationContext;
-import org.apache.directory.server.core.api.interceptor.context.MoveAndRenameOperationContext;
-import org.apache.directory.server.core.api.interceptor.context.MoveOperationContext;
-import org.apache.directory.server.core.api.interceptor.context.OperationContext;
-import org.apache.directory.server.core.api.interceptor.context.RenameOperationContext;
 import org.apache.directory.server.core.api.partition.Partition;
 import org.apache.directory.server.core.api.partition.PartitionReadTxn;
 import org.apache.directory.server.core.api.partition.PartitionTxn;
 import org.apache.directory.server.core.api.partition.PartitionWriteTxn;
 import org.apache.directory.server.core.partition.impl.btree.AbstractBTreePartition;
+import org.apache.directory.server.core.partition.impl.btree.SnapshotReadTxn;
 import org.apache.directory.server.i18n.I18n;
+import org.apache.directory.server.xdbm.EhcacheEntryCache;
 import org.apache.directory.server.xdbm.Index;
 import org.apache.directory.server.xdbm.ParentIdAndRdn;
+import org.apache.directory.server.xdbm.Table;
 import org.apache.directory.server.xdbm.search.impl.CursorBuilder;
 import org.apache.directory.server.xdbm.search.impl.DefaultOptimizer;
 import org.apache.directory.server.xdbm.search.impl.DefaultSearchEngine;
 import org.apache.directory.server.xdbm.search.impl.EvaluatorBuilder;
 import org.apache.directory.server.xdbm.search.impl.NoOpOptimizer;
-import org.ehcache.Cache;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -104,11 +100,20 @@ public class JdbmPartition extends AbstractBTreePartition
         }
     };
 
+    /** The suffix of the tables storing the values of the large attributes */
+    private static final String LARGE_ATTRIBUTE_BTREE = "_values";
+
+    /** The default time a writer syncing the log waits for other writers, in microseconds */
+    public static final long DEFAULT_GROUP_COMMIT_DELAY = 200L;
+
     /** the JDBM record manager used by this database */
     private RecordManager recMan;
 
-    /** the entry cache */
-    private Cache< String, Entry > entryCache;
+    /** The group commit syncing the JDBM log for the concurrent writers */
+    private JdbmGroupCommit groupCommit;
+
+    /** The time a writer syncing the log waits for other writers, in microseconds */
+    private long groupCommitDelay = DEFAULT_GROUP_COMMIT_DELAY;
 
 
     /**
@@ -157,6 +162,7 @@ public class JdbmPartition extends AbstractBTreePartition
                 String id = tuple.getKey();
 
                 Entry entry = tuple.getValue();
+                loadLargeAttributes( partitionTxn, id, entry );
                 
                 // Start with the RdnIndex
                 String parentId = entry.get( ApacheSchemaConstants.ENTRY_PARENT_ID_OID ).getString();
@@ -440,6 +446,7 @@ public class JdbmPartition extends AbstractBTreePartition
                 LOG.info( "Setting CacheRecondManager's cache size to {}", recCacheSize );
                 
                 recMan = new CacheRecordManager( base, new MRU( recCacheSize ) );
+                groupCommit = new JdbmGroupCommit( base, groupCommitDelay );
             }
             catch ( IOException ioe )
             {
@@ -533,9 +540,20 @@ public class JdbmPartition extends AbstractBTreePartition
                 buildUserIndex( beginReadTransaction(), indexToBuild );
             }
 
-            if ( cacheService != null )
+            // Load the index statistics used by the optimizer
+            try ( PartitionTxn partitionTxn = beginReadTransaction() )
+            {
+                loadStatistics( partitionTxn );
+                buildSubstringIndices( partitionTxn );
+            }
+            catch ( IOException ioe )
+            {
+                throw new LdapOtherException( ioe.getMessage(), ioe );
+            }
+
+            if ( ( entryCache == null ) && ( cacheService != null ) )
             {
-                entryCache = cacheService.getCache( getId(), String.class, Entry.class );
+                entryCache = new EhcacheEntryCache( cacheService.getCache( getId(), String.class, Entry.class ) );
 
                 //int cacheSizeConfig = ( int ) entryCache.getCacheConfiguration().getMaxEntriesLocalHeap();
 
@@ -649,6 +667,28 @@ public class JdbmPartition extends AbstractBTreePartition
     }
 
 
+    /**
+     * @return The time a writer syncing the log waits for the other writers, in microseconds
+     */
+    public long getGroupCommitDelay()
+    {
+        return groupCommitDelay;
+    }
+
+
+    /**
+     * Sets the time a writer syncing the log waits for the other writers to commit, so that
+     * they share the same sync. It's only used when the partition syncs on each write, and
+     * must be set before the partition is initialized.
+     *
+     * @param groupCommitDelay The delay, in microseconds. 0 to sync immediately
+     */
+    public void setGroupCommitDelay( long groupCommitDelay )
+    {
+        this.groupCommitDelay = groupCommitDelay;
+    }
+
+
     /**
      * {@inheritDoc}}
      */
@@ -669,7 +709,9 @@ public class JdbmPartition extends AbstractBTreePartition
 
     /**
      * This method is called when the synch thread is waking up, to write
-     * the modified data.
+     * the modified data, and when the server is shut down. It also writes the index
+     * statistics : the writes don't call it, they only wait for their own commit
+     * to be on disk.
      * 
      * @throws LdapException on failures to sync database files to disk
      */
@@ -683,27 +725,16 @@ public class JdbmPartition extends AbstractBTreePartition
         
         try
         {
-            // Commit
+            // Commit, and flush the journal
             recMan.commit();
-    
-            // And flush the journal
-            BaseRecordManager baseRecordManager = null;
-    
-            if ( recMan instanceof CacheRecordManager )
-            {
-                baseRecordManager = ( ( BaseRecordManager ) ( ( CacheRecordManager ) recMan ).getRecordManager() );
-            }
-            else
-            {
-                baseRecordManager = ( ( BaseRecordManager ) recMan );
-            }
-    
-            baseRecordManager.getTransactionManager().synchronizeLog();
+            groupCommit.awaitSync( groupCommit.committed() );
         }
         catch ( IOException ioe )
         {
             throw new LdapOtherException( ioe.getMessage(), ioe );
         }
+
+        saveStatistics();
     }
 
 
@@ -745,6 +776,12 @@ public class JdbmPartition extends AbstractBTreePartition
                     String id = tuple.getKey();
                     Entry entry = tuple.getValue();
     
+                    if ( largeAttributeTables.containsKey( attributeOid ) )
+                    {
+                        // The values are not stored in the entry
+                        loadLargeAttributes( partitionTxn, id, entry );
+                    }
+
                     Attribute entryAttr = entry.get( atType );
     
                     if ( entryAttr != null )
@@ -847,6 +884,26 @@ public class JdbmPartition extends AbstractBTreePartition
     }
 
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected Table<String, String> createLargeAttributeTable( AttributeType attributeType ) throws LdapException
+    {
+        try
+        {
+            return new JdbmTable<>( schemaManager, attributeType.getOid() + LARGE_ATTRIBUTE_BTREE,
+                JdbmIndex.DEFAULT_DUPLICATE_LIMIT, recMan, UuidComparator.INSTANCE,
+                new LargeValueComparator( attributeType.getEquality().getOid() ), UuidSerializer.INSTANCE,
+                StringSerializer.INSTANCE );
+        }
+        catch ( IOException ioe )
+        {
+            throw new LdapOtherException( ioe.getMessage(), ioe );
+        }
+    }
+
+
     /**
      * {@inheritDoc}
      */
@@ -884,7 +941,7 @@ public class JdbmPartition extends AbstractBTreePartition
         {
             if ( entryCache != null )
             {
-                entryCache.clear();
+                entryCache.close();
             }
         }
 
@@ -929,87 +986,16 @@ public class JdbmPartition extends AbstractBTreePartition
     }
 
 
-    @Override
-    public void updateCache( OperationContext opCtx )
-    {
-        if ( entryCache == null )
-        {
-            return;
-        }
-
-        try
-        {
-            if ( opCtx instanceof ModifyOperationContext )
-            {
-                // replace the entry
-                ModifyOperationContext modCtx = ( ModifyOperationContext ) opCtx;
-                Entry entry = modCtx.getAlteredEntry();
-                String id = entry.get( SchemaConstants.ENTRY_UUID_AT ).getString();
-
-                if ( entry instanceof ClonedServerEntry )
-                {
-                    entry = ( ( ClonedServerEntry ) entry ).getOriginalEntry();
-                }
-
-                entryCache.replace( id, entry );
-            }
-            else if ( ( opCtx instanceof MoveOperationContext )
-                || ( opCtx instanceof MoveAndRenameOperationContext )
-                || ( opCtx instanceof RenameOperationContext ) )
-            {
-                // clear the cache it is not worth updating all the children
-                entryCache.clear();
-            }
-            else if ( opCtx instanceof DeleteOperationContext )
-            {
-                // delete the entry
-                DeleteOperationContext delCtx = ( DeleteOperationContext ) opCtx;
-                entryCache.remove( delCtx.getEntry().get( SchemaConstants.ENTRY_UUID_AT ).getString() );
-            }
-        }
-        catch ( LdapException e )
-        {
-            LOG.warn( "Failed to update entry cache", e );
-        }
-    }
-
-
-    @Override
-    public Entry lookupCache( String id )
-    {
-        return ( entryCache != null ) ? entryCache.get( id ) : null;
-    }
-
-
-    @Override
-    public void addToCache( String id, Entry entry )
-    {
-        if ( entryCache == null )
-        {
-            return;
-        }
-
-        Entry addedEntry = entry;
-        
-        if ( entry instanceof ClonedServerEntry )
-        {
-            addedEntry = ( ( ClonedServerEntry ) entry ).getOriginalEntry();
-        }
-
-        entryCache.put( id, addedEntry );
-    }
-
-
     @Override
     public PartitionReadTxn beginReadTransaction()
     {
-        return new PartitionReadTxn();
+        return new SnapshotReadTxn();
     }
 
 
     @Override
     public PartitionWriteTxn beginWriteTransaction()
     {
-        return new JdbmPartitionWriteTxn( recMan, isSyncOnWrite() );
+        return new JdbmPartitionWriteTxn( recMan, isSyncOnWrite(), groupCommit );
     }
 }
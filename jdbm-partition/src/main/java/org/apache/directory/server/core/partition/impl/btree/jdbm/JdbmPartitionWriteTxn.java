@@ -39,6 +39,12 @@ public class JdbmPartitionWriteTxn extends PartitionWriteTxn
     
     /** A flag used to flush data immediately or not */
     private boolean syncOnWrite = false;
+
+    /** The group commit syncing the log for many transactions, if any */
+    private JdbmGroupCommit groupCommit;
+
+    /** The sequence number of the committed transaction, waiting for the log sync */
+    private long commitSequence;
     
     /**
      * Create an instance of JdbmPartitionWriteTxn
@@ -51,6 +57,20 @@ public class JdbmPartitionWriteTxn extends PartitionWriteTxn
         this.recordManager = recordManager;
         this.syncOnWrite = syncOnWrite;
     }
+
+
+    /**
+     * Create an instance of JdbmPartitionWriteTxn which log is synced by a group commit
+     * 
+     * @param recordManager The RecordManager instance
+     * @param syncOnWrite If we want to data to be flushed on each write
+     * @param groupCommit The group commit syncing the log
+     */
+    JdbmPartitionWriteTxn( RecordManager recordManager, boolean syncOnWrite, JdbmGroupCommit groupCommit )
+    {
+        this( recordManager, syncOnWrite );
+        this.groupCommit = groupCommit;
+    }
     
     
     /**
@@ -58,8 +78,30 @@ public class JdbmPartitionWriteTxn extends PartitionWriteTxn
      */
     @Override
     public void commit() throws IOException
+    {
+        commitWithoutSync();
+        awaitSync();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void commitWithoutSync() throws IOException
     {
         recordManager.commit();
+        clearRollbackActions();
+
+        if ( groupCommit != null )
+        {
+            if ( syncOnWrite )
+            {
+                commitSequence = groupCommit.committed();
+            }
+
+            return;
+        }
         
         // And flush the journal
         BaseRecordManager baseRecordManager = null;
@@ -81,6 +123,21 @@ public class JdbmPartitionWriteTxn extends PartitionWriteTxn
     }
 
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void awaitSync() throws IOException
+    {
+        if ( commitSequence > 0 )
+        {
+            long sequence = commitSequence;
+            commitSequence = 0;
+            groupCommit.awaitSync( sequence );
+        }
+    }
+
+
     /**
      * {@inheritDoc}
      */
@@ -88,6 +145,7 @@ public class JdbmPartitionWriteTxn extends PartitionWriteTxn
     public void abort() throws IOException
     {
         recordManager.rollback();
+        runRollbackActions();
     }
 
 
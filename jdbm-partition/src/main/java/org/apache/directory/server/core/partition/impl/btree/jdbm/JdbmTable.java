@@ -22,7 +22,6 @@ package org.apache.directory.server.core.partition.impl.btree.jdbm;
 
 import java.io.IOException;
 import java.util.Comparator;
-import java.util.Map;
 
 import jdbm.RecordManager;
 import jdbm.btree.BTree;
@@ -39,7 +38,6 @@ import org.apache.directory.api.ldap.model.exception.LdapOtherException;
 import org.apache.directory.api.ldap.model.schema.SchemaManager;
 import org.apache.directory.api.ldap.model.schema.comparators.SerializableComparator;
 import org.apache.directory.api.util.Strings;
-import org.apache.directory.api.util.SynchronizedLRUMap;
 import org.apache.directory.server.core.api.partition.PartitionTxn;
 import org.apache.directory.server.core.avltree.ArrayMarshaller;
 import org.apache.directory.server.core.avltree.ArrayTree;
@@ -72,7 +70,7 @@ public class JdbmTable<K, V> extends AbstractTable<K, V>
     private int numDupLimit = JdbmIndex.DEFAULT_DUPLICATE_LIMIT;
 
     /** a cache of duplicate BTrees */
-    private final Map<Long, BTree<K, V>> duplicateBtrees;
+    private final DuplicateBTreeCache<K, V> duplicateBtrees;
 
     /** A value serializer */
     private final Serializer valueSerializer;
@@ -101,11 +99,38 @@ public class JdbmTable<K, V> extends AbstractTable<K, V>
      * using default Java serialization which could be very expensive
      * @throws IOException if the table's file cannot be created
      */
-    @SuppressWarnings("unchecked")
     public JdbmTable( SchemaManager schemaManager, String name, int numDupLimit, RecordManager manager,
         Comparator<K> keyComparator, Comparator<V> valueComparator,
         Serializer keySerializer, Serializer valueSerializer )
         throws IOException
+    {
+        this( schemaManager, name, numDupLimit, JdbmIndex.DEFAULT_DUPLICATE_BTREE_CACHE_SIZE, manager,
+            keyComparator, valueComparator, keySerializer, valueSerializer );
+    }
+
+
+    /**
+     * Creates a Jdbm BTree based tuple Table abstraction that enables 
+     * duplicates, with a specific number of cached duplicate BTrees.
+     *
+     * @param schemaManager The server schemaManager
+     * @param name the name of the table
+     * @param numDupLimit the size limit of duplicates before switching to BTrees for values instead of AvlTrees
+     * @param duplicateBTreeCacheSize the number of duplicate BTrees kept in memory
+     * @param manager the record manager to be used for this table
+     * @param keyComparator a key comparator
+     * @param valueComparator a value comparator
+     * @param keySerializer a serializer to use for the keys instead of using
+     * default Java serialization which could be very expensive
+     * @param valueSerializer a serializer to use for the values instead of
+     * using default Java serialization which could be very expensive
+     * @throws IOException if the table's file cannot be created
+     */
+    @SuppressWarnings("unchecked")
+    public JdbmTable( SchemaManager schemaManager, String name, int numDupLimit, int duplicateBTreeCacheSize,
+        RecordManager manager, Comparator<K> keyComparator, Comparator<V> valueComparator,
+        Serializer keySerializer, Serializer valueSerializer )
+        throws IOException
     {
         super( schemaManager, name, keyComparator, valueComparator );
 
@@ -114,8 +139,7 @@ public class JdbmTable<K, V> extends AbstractTable<K, V>
             throw new IllegalArgumentException( I18n.err( I18n.ERR_592 ) );
         }
 
-        // TODO make the size of the duplicate btree cache configurable via constructor
-        duplicateBtrees = new SynchronizedLRUMap( 100 );
+        duplicateBtrees = new DuplicateBTreeCache<>( duplicateBTreeCacheSize );
 
         if ( valueSerializer != null )
         {
@@ -698,6 +722,7 @@ public class JdbmTable<K, V> extends AbstractTable<K, V>
                     ArrayTree<V> avlTree = convertToArrayTree( tree );
                     bt.insert( key, ( V ) marshaller.serialize( avlTree ), true );
                     recMan.delete( tree.getRecordId() );
+                    duplicateBtrees.remove( tree.getRecordId() );
                 }
 
                 count--;
@@ -982,16 +1007,17 @@ public class JdbmTable<K, V> extends AbstractTable<K, V>
 
     BTree getBTree( BTreeRedirect redirect ) throws IOException
     {
-        if ( duplicateBtrees.containsKey( redirect.getRecId() ) )
+        BTree<K, V> tree = duplicateBtrees.get( redirect.getRecId() );
+
+        if ( tree != null )
         {
-            return duplicateBtrees.get( redirect.getRecId() );
+            return tree;
         }
 
-        BTree<K, V> tree = new BTree<K, V>().load( recMan, redirect.getRecId() );
+        tree = new BTree<K, V>().load( recMan, redirect.getRecId() );
         ( ( SerializableComparator<K> ) tree.getComparator() ).setSchemaManager( schemaManager );
-        duplicateBtrees.put( redirect.getRecId(), tree );
 
-        return tree;
+        return duplicateBtrees.putIfAbsent( redirect.getRecId(), tree );
     }
 
 
@@ -0,0 +1,59 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.partition.impl.btree.jdbm;
+
+
+import org.apache.directory.api.ldap.model.schema.comparators.SerializableComparator;
+import org.apache.directory.server.xdbm.LargeAttributeTable;
+
+
+/**
+ * A comparator used to compare the values stored in a {@link LargeAttributeTable}. Only
+ * the normalized part of the values is compared, so that a value can be found without
+ * knowing its user provided form.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class LargeValueComparator extends SerializableComparator<String>
+{
+    /** The serialVersionUID */
+    private static final long serialVersionUID = 1L;
+
+
+    /**
+     * Creates a new instance of LargeValueComparator.
+     *
+     * @param oid The equality matching rule OID of the stored attribute
+     */
+    public LargeValueComparator( String oid )
+    {
+        super( oid );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int compare( String value1, String value2 )
+    {
+        return LargeAttributeTable.getNormalized( value1 ).compareTo( LargeAttributeTable.getNormalized( value2 ) );
+    }
+}
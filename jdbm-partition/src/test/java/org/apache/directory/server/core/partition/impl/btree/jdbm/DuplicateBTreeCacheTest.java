@@ -0,0 +1,85 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.partition.impl.btree.jdbm;
+
+
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import jdbm.btree.BTree;
+
+import org.junit.Test;
+
+
+/**
+ * Test cases for DuplicateBTreeCache.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class DuplicateBTreeCacheTest
+{
+    @Test
+    public void testPutIfAbsent()
+    {
+        DuplicateBTreeCache<String, String> cache = new DuplicateBTreeCache<>( 10 );
+        BTree<String, String> tree1 = new BTree<>();
+        BTree<String, String> tree2 = new BTree<>();
+
+        assertNull( cache.get( 8192L ) );
+        assertSame( tree1, cache.putIfAbsent( 8192L, tree1 ) );
+
+        // The first cached instance is kept
+        assertSame( tree1, cache.putIfAbsent( 8192L, tree2 ) );
+        assertSame( tree1, cache.get( 8192L ) );
+
+        cache.remove( 8192L );
+        assertNull( cache.get( 8192L ) );
+    }
+
+
+    @Test
+    public void testMaxSize()
+    {
+        DuplicateBTreeCache<String, String> cache = new DuplicateBTreeCache<>( 32 );
+
+        for ( long recId = 0; recId < 1000; recId++ )
+        {
+            cache.putIfAbsent( recId * 8192L, new BTree<String, String>() );
+        }
+
+        // Each stripe is bounded
+        assertTrue( cache.size() <= 32 );
+    }
+
+
+    @Test
+    public void testSmallCache()
+    {
+        DuplicateBTreeCache<String, String> cache = new DuplicateBTreeCache<>( 1 );
+        BTree<String, String> tree = new BTree<>();
+
+        cache.putIfAbsent( 1L, tree );
+        cache.putIfAbsent( 2L, new BTree<String, String>() );
+
+        assertNull( cache.get( 1L ) );
+        assertTrue( cache.size() == 1 );
+    }
+}
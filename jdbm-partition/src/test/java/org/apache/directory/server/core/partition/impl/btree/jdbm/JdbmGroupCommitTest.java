@@ -0,0 +1,188 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.partition.impl.btree.jdbm;
+
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import jdbm.recman.BaseRecordManager;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+
+/**
+ * Test cases for JdbmGroupCommit.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class JdbmGroupCommitTest
+{
+    private static final String TEST_OUTPUT_PATH = "test.output.path";
+
+    private static final int NB_WRITERS = 8;
+    private static final int NB_WRITES = 50;
+
+    private File dbFile;
+    private BaseRecordManager recman;
+
+
+    @Before
+    public void createRecordManager() throws Exception
+    {
+        File tmpDir = null;
+
+        if ( System.getProperty( TEST_OUTPUT_PATH, null ) != null )
+        {
+            tmpDir = new File( System.getProperty( TEST_OUTPUT_PATH ) );
+        }
+
+        dbFile = File.createTempFile( getClass().getSimpleName(), "db", tmpDir );
+        recman = new BaseRecordManager( dbFile.getAbsolutePath() );
+    }
+
+
+    @After
+    public void destroyRecordManager() throws Exception
+    {
+        if ( recman != null )
+        {
+            recman.close();
+        }
+
+        recman = null;
+
+        if ( dbFile != null )
+        {
+            String fileToDelete = dbFile.getAbsolutePath();
+            new File( fileToDelete + ".db" ).delete();
+            new File( fileToDelete + ".lg" ).delete();
+
+            dbFile.delete();
+        }
+
+        dbFile = null;
+    }
+
+
+    @Test
+    public void testConcurrentWriters() throws Exception
+    {
+        final JdbmGroupCommit groupCommit = new JdbmGroupCommit( recman, 100L );
+
+        // The partition lock, serializing the writers
+        final Lock lock = new ReentrantLock();
+
+        ExecutorService executor = Executors.newFixedThreadPool( NB_WRITERS );
+        List<Future<List<Long>>> futures = new ArrayList<>();
+
+        for ( int i = 0; i < NB_WRITERS; i++ )
+        {
+            final int writer = i;
+
+            futures.add( executor.submit( new Callable<List<Long>>()
+            {
+                @Override
+                public List<Long> call() throws Exception
+                {
+                    List<Long> recids = new ArrayList<>();
+
+                    for ( int j = 0; j < NB_WRITES; j++ )
+                    {
+                        long sequence;
+
+                        lock.lock();
+
+                        try
+                        {
+                            recids.add( recman.insert( writer + "-" + j ) );
+                            recman.commit();
+                            sequence = groupCommit.committed();
+                        }
+                        finally
+                        {
+                            lock.unlock();
+                        }
+
+                        groupCommit.awaitSync( sequence );
+                    }
+
+                    return recids;
+                }
+            } ) );
+        }
+
+        List<List<Long>> allRecids = new ArrayList<>();
+
+        for ( Future<List<Long>> future : futures )
+        {
+            allRecids.add( future.get() );
+        }
+
+        executor.shutdown();
+
+        // Every record must be found once the record manager is opened again
+        recman.close();
+        recman = new BaseRecordManager( dbFile.getAbsolutePath() );
+
+        for ( int i = 0; i < NB_WRITERS; i++ )
+        {
+            for ( int j = 0; j < NB_WRITES; j++ )
+            {
+                assertEquals( i + "-" + j, recman.fetch( allRecids.get( i ).get( j ) ) );
+            }
+        }
+    }
+
+
+    @Test
+    public void testAlreadySynced() throws Exception
+    {
+        JdbmGroupCommit groupCommit = new JdbmGroupCommit( recman, 0L );
+
+        long recid = recman.insert( "value" );
+        recman.commit();
+        long first = groupCommit.committed();
+
+        recman.update( recid, "updated" );
+        recman.commit();
+        long second = groupCommit.committed();
+
+        // Syncing the second transaction also syncs the first one
+        groupCommit.awaitSync( second );
+        groupCommit.awaitSync( first );
+
+        recman.close();
+        recman = new BaseRecordManager( dbFile.getAbsolutePath() );
+
+        assertEquals( "updated", recman.fetch( recid ) );
+    }
+}
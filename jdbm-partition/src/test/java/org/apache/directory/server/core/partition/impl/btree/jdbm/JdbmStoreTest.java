@@ -28,18 +28,25 @@ import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 import java.io.File;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.directory.api.util.FileUtils;
 import org.apache.directory.api.ldap.model.constants.SchemaConstants;
 import org.apache.directory.api.ldap.model.csn.CsnFactory;
+import org.apache.directory.api.ldap.model.cursor.Cursor;
 import org.apache.directory.api.ldap.model.entry.Attribute;
 import org.apache.directory.api.ldap.model.entry.DefaultAttribute;
 import org.apache.directory.api.ldap.model.entry.DefaultEntry;
@@ -47,8 +54,11 @@ import org.apache.directory.api.ldap.model.entry.DefaultModification;
 import org.apache.directory.api.ldap.model.entry.Entry;
 import org.apache.directory.api.ldap.model.entry.Modification;
 import org.apache.directory.api.ldap.model.entry.ModificationOperation;
+import org.apache.directory.api.ldap.model.entry.Value;
+import org.apache.directory.api.ldap.model.exception.LdapException;
 import org.apache.directory.api.ldap.model.exception.LdapNoSuchObjectException;
 import org.apache.directory.api.ldap.model.exception.LdapSchemaViolationException;
+import org.apache.directory.api.ldap.model.filter.SubstringNode;
 import org.apache.directory.api.ldap.model.name.Dn;
 import org.apache.directory.api.ldap.model.name.Rdn;
 import org.apache.directory.api.ldap.model.schema.AttributeType;
@@ -70,12 +80,15 @@ import org.apache.directory.server.core.api.MockDirectoryService;
 import org.apache.directory.server.core.api.interceptor.context.AddOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.LookupOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.ModDnAva;
+import org.apache.directory.server.core.api.interceptor.context.ModifyOperationContext;
 import org.apache.directory.server.core.api.partition.PartitionTxn;
 import org.apache.directory.server.core.shared.DefaultDnFactory;
 import org.apache.directory.server.xdbm.Index;
 import org.apache.directory.server.xdbm.IndexNotFoundException;
+import org.apache.directory.server.xdbm.NGramIndex;
 import org.apache.directory.server.xdbm.Store;
 import org.apache.directory.server.xdbm.StoreUtils;
+import org.apache.directory.server.xdbm.Table;
 import org.junit.After;
 import org.junit.AfterClass;
 import org.junit.Before;
@@ -276,6 +289,336 @@ public class JdbmStoreTest
     }
 
 
+    @Test
+    public void testLargeAttributes() throws Exception
+    {
+        // setup the working directory for the 2nd store
+        Path wkdir2 = Files.createTempDirectory( JdbmIndexTest.class.getSimpleName() + "_db3" );
+
+        // initialize the 2nd partition, storing the member values out of the entries
+        JdbmPartition store2 = new JdbmPartition( schemaManager, dnFactory );
+        store2.setId( "example3" );
+        store2.setCacheSize( 10 );
+        store2.setPartitionPath( wkdir2.toFile().toURI() );
+        store2.setSyncOnWrite( false );
+        store2.addIndex( new JdbmIndex( SchemaConstants.MEMBER_AT_OID, false ) );
+        store2.setLargeAttributes( Collections.singleton( SchemaConstants.MEMBER_AT ) );
+        store2.setSuffixDn( EXAMPLE_COM );
+        store2.setCacheService( cacheService );
+        store2.initialize();
+
+        Dn suffixDn = new Dn( schemaManager, "dc=example,dc=com" );
+        Entry entry = new DefaultEntry( schemaManager, suffixDn,
+            "objectClass: top",
+            "objectClass: domain",
+            "dc: example",
+            SchemaConstants.ENTRY_CSN_AT, new CsnFactory( 0 ).newInstance().toString(),
+            SchemaConstants.ENTRY_UUID_AT, UUID.randomUUID().toString() );
+
+        AddOperationContext addContext = new AddOperationContext( null, entry );
+        addContext.setPartition( store2 );
+        addContext.setTransaction( store2.beginWriteTransaction() );
+        store2.add( addContext );
+
+        // Add a group with some members
+        Dn groupDn = new Dn( schemaManager, "cn=group,dc=example,dc=com" );
+        Entry group = new DefaultEntry( schemaManager, groupDn,
+            "objectClass: top",
+            "objectClass: groupOfNames",
+            "cn: group",
+            "member: uid=user0,dc=example,dc=com",
+            "member: uid=user1,dc=example,dc=com",
+            SchemaConstants.ENTRY_CSN_AT, new CsnFactory( 0 ).newInstance().toString(),
+            SchemaConstants.ENTRY_UUID_AT, UUID.randomUUID().toString() );
+
+        addContext = new AddOperationContext( null, group );
+        addContext.setPartition( store2 );
+        addContext.setTransaction( store2.beginWriteTransaction() );
+        store2.add( addContext );
+
+        String id = store2.getEntryId( partitionTxn, groupDn );
+
+        // The values are not stored in the master table
+        assertNull( store2.getMasterTable().get( partitionTxn, id ).get( SchemaConstants.MEMBER_AT ) );
+        assertEquals( 2, store2.fetch( partitionTxn, id, groupDn ).get( SchemaConstants.MEMBER_AT ).size() );
+
+        // Add a member, and remove another one
+        AttributeType memberAT = schemaManager.getAttributeType( SchemaConstants.MEMBER_AT );
+        Entry modified = store2.modify( partitionTxn, groupDn,
+            new DefaultModification( ModificationOperation.ADD_ATTRIBUTE, memberAT,
+                "uid=user2,dc=example,dc=com" ),
+            new DefaultModification( ModificationOperation.REMOVE_ATTRIBUTE, memberAT,
+                "UID=user0, DC=example, DC=com" ) );
+
+        Attribute members = modified.get( SchemaConstants.MEMBER_AT );
+        assertEquals( 2, members.size() );
+        assertTrue( members.contains( "uid=user1,dc=example,dc=com" ) );
+        assertTrue( members.contains( "uid=user2,dc=example,dc=com" ) );
+        assertNull( store2.getMasterTable().get( partitionTxn, id ).get( SchemaConstants.MEMBER_AT ) );
+
+        Index<String, String> memberIndex = ( Index<String, String> ) store2.getUserIndex( members.getAttributeType() );
+        Value removed = new Value( members.getAttributeType(), "uid=user0,dc=example,dc=com" );
+        assertFalse( memberIndex.forward( partitionTxn, removed.getNormalized(), id ) );
+        assertTrue( memberIndex.forward( partitionTxn, members.get().getNormalized(), id ) );
+
+        // Through the operation context, the values are only read when the altered entry is used
+        List<Modification> mods = new ArrayList<>();
+        mods.add( new DefaultModification( ModificationOperation.ADD_ATTRIBUTE, memberAT,
+            "uid=user3,dc=example,dc=com" ) );
+
+        ModifyOperationContext modifyContext = new ModifyOperationContext( null, groupDn, mods );
+        modifyContext.setPartition( store2 );
+        modifyContext.setTransaction( store2.beginWriteTransaction() );
+        store2.modify( modifyContext );
+
+        members = modifyContext.getAlteredEntry().get( SchemaConstants.MEMBER_AT );
+        assertEquals( 3, members.size() );
+        assertTrue( members.contains( "uid=user3,dc=example,dc=com" ) );
+        assertEquals( 3, store2.fetch( partitionTxn, id, groupDn ).get( SchemaConstants.MEMBER_AT ).size() );
+
+        // Deleting the group removes its values
+        store2.delete( partitionTxn, id );
+        assertEquals( 0, store2.getLargeAttributeTable( members.getAttributeType() ).count( partitionTxn, id ) );
+
+        // make sure all files are closed so that they can be deleted on Windows.
+        store2.destroy( partitionTxn );
+    }
+
+
+    /**
+     * Wraps a table or a cursor, counting the values read through the cursors it returns
+     */
+    @SuppressWarnings(
+        { "unchecked", "rawtypes" })
+    private static <T> T countReads( final T target, Class<T> type, final AtomicInteger reads )
+    {
+        return ( T ) Proxy.newProxyInstance( type.getClassLoader(), new Class<?>[]
+            { type }, new InvocationHandler()
+            {
+                @Override
+                public Object invoke( Object proxy, Method method, Object[] args ) throws Throwable
+                {
+                    Object result;
+
+                    try
+                    {
+                        result = method.invoke( target, args );
+                    }
+                    catch ( InvocationTargetException ite )
+                    {
+                        throw ite.getCause();
+                    }
+
+                    if ( result instanceof Cursor )
+                    {
+                        return countReads( ( Cursor ) result, Cursor.class, reads );
+                    }
+
+                    if ( ( target instanceof Cursor ) && method.getName().equals( "get" ) )
+                    {
+                        reads.incrementAndGet();
+                    }
+
+                    return result;
+                }
+            } );
+    }
+
+
+    @Test
+    public void testLargeAttributeModifyReads() throws Exception
+    {
+        // setup the working directory for the 2nd store
+        Path wkdir2 = Files.createTempDirectory( JdbmIndexTest.class.getSimpleName() + "_db5" );
+        final AtomicInteger reads = new AtomicInteger();
+
+        // initialize the 2nd partition, counting the member values read from their table
+        JdbmPartition store2 = new JdbmPartition( schemaManager, dnFactory )
+        {
+            @Override
+            @SuppressWarnings("unchecked")
+            protected Table<String, String> createLargeAttributeTable( AttributeType attributeType )
+                throws LdapException
+            {
+                return countReads( super.createLargeAttributeTable( attributeType ), Table.class, reads );
+            }
+        };
+
+        store2.setId( "example5" );
+        store2.setCacheSize( 10 );
+        store2.setPartitionPath( wkdir2.toFile().toURI() );
+        store2.setSyncOnWrite( false );
+        store2.addIndex( new JdbmIndex( SchemaConstants.MEMBER_AT_OID, false ) );
+        store2.setLargeAttributes( Collections.singleton( SchemaConstants.MEMBER_AT ) );
+        store2.setSuffixDn( EXAMPLE_COM );
+        store2.setCacheService( cacheService );
+        store2.initialize();
+
+        Dn suffixDn = new Dn( schemaManager, "dc=example,dc=com" );
+        Entry entry = new DefaultEntry( schemaManager, suffixDn,
+            "objectClass: top",
+            "objectClass: domain",
+            "dc: example",
+            SchemaConstants.ENTRY_CSN_AT, new CsnFactory( 0 ).newInstance().toString(),
+            SchemaConstants.ENTRY_UUID_AT, UUID.randomUUID().toString() );
+
+        AddOperationContext addContext = new AddOperationContext( null, entry );
+        addContext.setPartition( store2 );
+        addContext.setTransaction( store2.beginWriteTransaction() );
+        store2.add( addContext );
+
+        // Add a group with 500 members
+        Dn groupDn = new Dn( schemaManager, "cn=group,dc=example,dc=com" );
+        Entry group = new DefaultEntry( schemaManager, groupDn,
+            "objectClass: top",
+            "objectClass: groupOfNames",
+            "cn: group",
+            SchemaConstants.ENTRY_CSN_AT, new CsnFactory( 0 ).newInstance().toString(),
+            SchemaConstants.ENTRY_UUID_AT, UUID.randomUUID().toString() );
+
+        for ( int i = 0; i < 500; i++ )
+        {
+            group.add( SchemaConstants.MEMBER_AT, "uid=user" + i + ",dc=example,dc=com" );
+        }
+
+        addContext = new AddOperationContext( null, group );
+        addContext.setPartition( store2 );
+        addContext.setTransaction( store2.beginWriteTransaction() );
+        store2.add( addContext );
+
+        AttributeType memberAT = schemaManager.getAttributeType( SchemaConstants.MEMBER_AT );
+        ModifyOperationContext modifyContext = null;
+
+        // Replace some members, reading the entry before modifying it, as the operation manager does
+        for ( int i = 0; i < 3; i++ )
+        {
+            String added = "uid=new" + i + ",dc=example,dc=com";
+            String removed = "uid=user" + i + ",dc=example,dc=com";
+
+            List<Modification> mods = new ArrayList<>();
+            mods.add( new DefaultModification( ModificationOperation.ADD_ATTRIBUTE, memberAT,
+                added ) );
+            mods.add( new DefaultModification( ModificationOperation.REMOVE_ATTRIBUTE, memberAT,
+                removed ) );
+
+            reads.set( 0 );
+
+            PartitionTxn writeTxn = store2.beginWriteTransaction();
+            LookupOperationContext lookupContext = new LookupOperationContext( null, groupDn );
+            lookupContext.setPartition( store2 );
+            lookupContext.setTransaction( writeTxn );
+            lookupContext.setModifications( mods );
+
+            Entry current = store2.lookup( lookupContext );
+            Attribute members = current.get( SchemaConstants.MEMBER_AT );
+
+            // The entry has the removed value, not the added one, and enough values to stay a group
+            assertTrue( members.contains( removed ) );
+            assertFalse( members.contains( added ) );
+            assertTrue( members.size() <= 4 );
+
+            modifyContext = new ModifyOperationContext( null, groupDn, mods );
+            modifyContext.setEntry( current );
+            modifyContext.setPartition( store2 );
+            modifyContext.setTransaction( writeTxn );
+            store2.modify( modifyContext );
+            writeTxn.commit();
+
+            // Only the first values have been read : one more than the number of modified values
+            assertEquals( 3, reads.get() );
+
+            // The ObjectClasses of the altered entry can be checked without reading the values
+            assertTrue( modifyContext.getPartialAlteredEntry().contains( SchemaConstants.OBJECT_CLASS_AT,
+                "groupOfNames" ) );
+            assertEquals( 3, reads.get() );
+        }
+
+        // All the values are read when the complete altered entry is used
+        reads.set( 0 );
+        Attribute members = modifyContext.getAlteredEntry().get( SchemaConstants.MEMBER_AT );
+
+        assertEquals( 500, members.size() );
+        assertEquals( 500, reads.get() );
+        assertTrue( members.contains( "uid=new2,dc=example,dc=com" ) );
+        assertFalse( members.contains( "uid=user2,dc=example,dc=com" ) );
+
+        // make sure all files are closed so that they can be deleted on Windows.
+        store2.destroy( partitionTxn );
+    }
+
+
+    @Test
+    public void testSubstringIndexRollback() throws Exception
+    {
+        Path wkdir3 = Files.createTempDirectory( JdbmIndexTest.class.getSimpleName() + "_db4" );
+
+        // initialize a partition with a n-gram index on ou
+        JdbmPartition store3 = new JdbmPartition( schemaManager, dnFactory );
+        store3.setId( "example4" );
+        store3.setCacheSize( 10 );
+        store3.setPartitionPath( wkdir3.toFile().toURI() );
+        store3.setSyncOnWrite( false );
+        JdbmIndex<String> ouIndex = new JdbmIndex<>( SchemaConstants.OU_AT_OID, false );
+        ouIndex.setSubstringIndexed( true );
+        store3.addIndex( ouIndex );
+        store3.setSuffixDn( EXAMPLE_COM );
+        store3.setCacheService( cacheService );
+        store3.initialize();
+
+        Entry entry = new DefaultEntry( schemaManager, EXAMPLE_COM,
+            "objectClass: top",
+            "objectClass: domain",
+            "dc: example",
+            SchemaConstants.ENTRY_CSN_AT, new CsnFactory( 0 ).newInstance().toString(),
+            SchemaConstants.ENTRY_UUID_AT, UUID.randomUUID().toString() );
+
+        AddOperationContext addContext = new AddOperationContext( null, entry );
+        addContext.setPartition( store3 );
+        addContext.setTransaction( store3.beginWriteTransaction() );
+        store3.add( addContext );
+        addContext.getTransaction().commit();
+
+        Dn ouDn = new Dn( schemaManager, "ou=Engineering,dc=example,dc=com" );
+        entry = new DefaultEntry( schemaManager, ouDn,
+            "objectClass: top",
+            "objectClass: organizationalUnit",
+            "ou: Engineering",
+            SchemaConstants.ENTRY_CSN_AT, new CsnFactory( 0 ).newInstance().toString(),
+            SchemaConstants.ENTRY_UUID_AT, UUID.randomUUID().toString() );
+
+        addContext = new AddOperationContext( null, entry );
+        addContext.setPartition( store3 );
+        addContext.setTransaction( store3.beginWriteTransaction() );
+        store3.add( addContext );
+        addContext.getTransaction().commit();
+
+        int id = store3.getEntryIdDictionary().getOrAssign( store3.getEntryId( partitionTxn, ouDn ) );
+        NGramIndex substringIndex = store3.getSubstringIndex( OU_AT );
+        SubstringNode engineering = new SubstringNode( OU_AT, null, "eering" );
+        SubstringNode sales = new SubstringNode( OU_AT, null, "ales" );
+
+        // An aborted modification leaves the n-gram index unchanged
+        List<Modification> mods = new ArrayList<>();
+        mods.add( new DefaultModification( ModificationOperation.REPLACE_ATTRIBUTE, OU_AT,
+            "Engineering", "Sales" ) );
+
+        ModifyOperationContext modifyContext = new ModifyOperationContext( null, ouDn, mods );
+        modifyContext.setPartition( store3 );
+        modifyContext.setTransaction( store3.beginWriteTransaction() );
+        store3.modify( modifyContext );
+
+        assertTrue( substringIndex.getCandidates( sales ).contains( id ) );
+        assertFalse( substringIndex.getCandidates( engineering ).contains( id ) );
+
+        modifyContext.getTransaction().abort();
+
+        assertTrue( substringIndex.getCandidates( engineering ).contains( id ) );
+        assertFalse( substringIndex.getCandidates( sales ).contains( id ) );
+
+        store3.destroy( partitionTxn );
+    }
+
+
     @Test
     public void testSimplePropertiesUnlocked() throws Exception
     {
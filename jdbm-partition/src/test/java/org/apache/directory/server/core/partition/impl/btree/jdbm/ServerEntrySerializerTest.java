@@ -23,7 +23,9 @@ package org.apache.directory.server.core.partition.impl.btree.jdbm;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.fail;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.ObjectOutputStream;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -42,6 +44,7 @@ import org.apache.directory.api.ldap.schema.loader.LdifSchemaLoader;
 import org.apache.directory.api.ldap.schema.manager.impl.DefaultSchemaManager;
 import org.apache.directory.api.util.Strings;
 import org.apache.directory.api.util.exception.Exceptions;
+import org.apache.directory.server.core.api.entry.CompactEntryCodec;
 import org.junit.BeforeClass;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -287,4 +290,53 @@ public class ServerEntrySerializerTest
 
         assertEquals( entry, result );
     }
+
+
+    /**
+     * Test that the entries stored with an ObjectOutputStream by the previous versions can
+     * still be read
+     */
+    @Test
+    public void testDeserializeLegacyServerEntry() throws Exception
+    {
+        Entry entry = new DefaultEntry( schemaManager,
+            "cn=test,ou=system",
+            "objectClass: top",
+            "objectClass: person",
+            "cn: test",
+            "SN: Test",
+            "userPassword", Strings.getBytesUtf8( "password" ) );
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+
+        try ( ObjectOutputStream out = new ObjectOutputStream( baos ) )
+        {
+            out.writeByte( 1 );
+            entry.getDn().getRdn().writeExternal( out );
+            out.writeInt( entry.getAttributes().size() );
+
+            for ( Attribute attribute : entry.getAttributes() )
+            {
+                out.writeUTF( attribute.getAttributeType().getOid() );
+                attribute.writeExternal( out );
+            }
+        }
+
+        EntrySerializer ses = new EntrySerializer( schemaManager );
+
+        Entry result = ( Entry ) ses.deserialize( baos.toByteArray() );
+
+        assertEquals( "cn=test", result.getDn().getName() );
+        assertEquals( entry.size(), result.size() );
+
+        for ( Attribute attribute : entry )
+        {
+            assertEquals( attribute, result.get( attribute.getAttributeType() ) );
+        }
+
+        // And the entry is written back with the compact format
+        byte[] data = ses.serialize( result );
+        assertEquals( CompactEntryCodec.VERSION, data[0] );
+        assertEquals( result, ses.deserialize( data ) );
+    }
 }
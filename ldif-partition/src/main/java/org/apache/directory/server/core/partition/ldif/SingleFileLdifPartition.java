@@ -21,22 +21,41 @@
 package org.apache.directory.server.core.partition.ldif;
 
 
+import java.io.BufferedWriter;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
 import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.apache.directory.api.ldap.model.constants.SchemaConstants;
 import org.apache.directory.api.ldap.model.cursor.Cursor;
+import org.apache.directory.api.ldap.model.entry.Attribute;
 import org.apache.directory.api.ldap.model.entry.DefaultEntry;
+import org.apache.directory.api.ldap.model.entry.DefaultModification;
 import org.apache.directory.api.ldap.model.entry.Entry;
 import org.apache.directory.api.ldap.model.entry.Modification;
 import org.apache.directory.api.ldap.model.exception.LdapException;
 import org.apache.directory.api.ldap.model.exception.LdapInvalidDnException;
 import org.apache.directory.api.ldap.model.exception.LdapOperationException;
 import org.apache.directory.api.ldap.model.exception.LdapOtherException;
+import org.apache.directory.api.ldap.model.ldif.ChangeType;
 import org.apache.directory.api.ldap.model.ldif.LdifEntry;
 import org.apache.directory.api.ldap.model.ldif.LdifReader;
 import org.apache.directory.api.ldap.model.ldif.LdifUtils;
@@ -60,6 +79,18 @@ import org.slf4j.LoggerFactory;
 
 /**
  * A Partition implementation backed by a single LDIF file.
+ * <p>
+ * The added, modified and deleted entries are not written in the LDIF file : they are appended
+ * as LDIF change records in a change log stored next to it (the LDIF file name followed by
+ * <tt>.log</tt>), so that a write costs the size of the change, not the size of the partition.
+ * The change log is replayed when the partition is initialized, and compacted into a fresh
+ * LDIF file in the background once it gets bigger than the compaction threshold, so the LDIF
+ * file remains a plain, human readable, dump of the partition. Renames and moves, which are
+ * rare, still rewrite the LDIF file.
+ * <p>
+ * A compaction first writes a snapshot of the partition in a temporary file, which is renamed
+ * once synced, then copies it in the LDIF file and empties the change log. A snapshot found
+ * at startup is thus complete, and replaces both the LDIF file and the change log.
  *
  * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
  */
@@ -77,6 +108,48 @@ public class SingleFileLdifPartition extends AbstractLdifPartition
     /** lock for serializing the operations on the backing LDIF file */
     private Object lock = new Object();
 
+    /** The suffix of the change log file name */
+    private static final String CHANGE_LOG_SUFFIX = ".log";
+
+    /** The suffix of the name of a complete snapshot, not yet copied in the LDIF file */
+    private static final String SNAPSHOT_SUFFIX = ".snapshot";
+
+    /** The suffix of the name of a snapshot being written */
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    /** The comment line closing each record of the change log */
+    private static final String COMMIT_MARKER = "# commit";
+
+    /** The size of the buffer used to copy a snapshot in the LDIF file */
+    private static final int COPY_BUFFER_SIZE = 64 * 1024;
+
+    /** The default size of the change log, in bytes, above which it gets compacted */
+    public static final long DEFAULT_COMPACTION_THRESHOLD = 1024L * 1024L;
+
+    /** the change log, holding the changes not yet written in the LDIF file */
+    private RandomAccessFile changeLog;
+
+    /** the change log file */
+    private File changeLogFile;
+
+    /** the file containing a complete snapshot of the partition, not yet copied in the LDIF file */
+    private File snapshotFile;
+
+    /** the file containing the snapshot being written */
+    private File tempFile;
+
+    /** the number of records appended in the change log since the last compaction */
+    private int nbLogRecords;
+
+    /** the size of the change log above which it gets compacted */
+    private volatile long compactionThreshold = DEFAULT_COMPACTION_THRESHOLD;
+
+    /** the executor running the background compactions */
+    private ExecutorService compactor;
+
+    /** tells if a background compaction has already been scheduled */
+    private final AtomicBoolean compactionScheduled = new AtomicBoolean( false );
+
     private static final Logger LOG = LoggerFactory.getLogger( SingleFileLdifPartition.class );
 
 
@@ -109,9 +182,14 @@ public class SingleFileLdifPartition extends AbstractLdifPartition
                 throw new IllegalArgumentException( "Partition path must be a LDIF file" );
             }
 
+            changeLogFile = new File( partitionFile.getPath() + CHANGE_LOG_SUFFIX );
+            snapshotFile = new File( partitionFile.getPath() + SNAPSHOT_SUFFIX );
+            tempFile = new File( partitionFile.getPath() + TEMP_SUFFIX );
+
             try
             {
                 ldifFile = new RandomAccessFile( partitionFile, "rws" );
+                changeLog = new RandomAccessFile( changeLogFile, "rws" );
             }
             catch ( FileNotFoundException fnfe )
             {
@@ -136,7 +214,169 @@ public class SingleFileLdifPartition extends AbstractLdifPartition
 
             super.doInit();
 
+            installPendingSnapshot();
             loadEntries();
+            replayChangeLog();
+
+            ThreadFactory threadFactory = new ThreadFactory()
+            {
+                @Override
+                public Thread newThread( Runnable runnable )
+                {
+                    Thread newThread = Executors.defaultThreadFactory().newThread( runnable );
+                    newThread.setName( "ldif-compactor-" + getId() );
+                    newThread.setDaemon( true );
+
+                    return newThread;
+                }
+            };
+
+            compactor = Executors.newSingleThreadExecutor( threadFactory );
+        }
+    }
+
+
+    /**
+     * Installs the snapshot left by a compaction which has been interrupted after the
+     * snapshot was written, and removes the one which was still being written.
+     */
+    private void installPendingSnapshot() throws LdapException
+    {
+        try
+        {
+            // An incomplete snapshot is useless : the LDIF file and the change log are still valid
+            Files.deleteIfExists( tempFile.toPath() );
+
+            if ( snapshotFile.exists() )
+            {
+                LOG.warn( "Installing the snapshot {} left by an interrupted compaction", snapshotFile );
+                installSnapshot();
+                ldifFile.seek( 0L );
+            }
+        }
+        catch ( IOException ioe )
+        {
+            throw new LdapOtherException( ioe.getMessage(), ioe );
+        }
+    }
+
+
+    /**
+     * Replays the changes stored in the change log on top of the entries loaded from the
+     * LDIF file, then compacts them into the LDIF file. An incomplete last record, which
+     * has not been acknowledged to the client, is ignored.
+     */
+    private void replayChangeLog() throws LdapException
+    {
+        String content;
+
+        try
+        {
+            if ( changeLog.length() == 0L )
+            {
+                return;
+            }
+
+            byte[] data = new byte[( int ) changeLog.length()];
+            changeLog.seek( 0L );
+            changeLog.readFully( data );
+            content = Strings.utf8ToString( data );
+        }
+        catch ( IOException ioe )
+        {
+            throw new LdapOtherException( ioe.getMessage(), ioe );
+        }
+
+        PartitionTxn partitionTxn = beginWriteTransaction();
+        StringBuilder record = new StringBuilder();
+
+        try ( LdifReader reader = new LdifReader() )
+        {
+            for ( String line : content.split( "\n" ) )
+            {
+                if ( COMMIT_MARKER.equals( line ) )
+                {
+                    for ( LdifEntry change : reader.parseLdif( record.toString() ) )
+                    {
+                        replay( partitionTxn, change );
+                    }
+
+                    record.setLength( 0 );
+                    nbLogRecords++;
+                }
+                else
+                {
+                    record.append( line ).append( '\n' );
+                }
+            }
+        }
+        catch ( IOException ioe )
+        {
+            throw new LdapOtherException( ioe.getMessage(), ioe );
+        }
+
+        if ( !Strings.isEmpty( record.toString().trim() ) )
+        {
+            LOG.warn( "Ignoring the incomplete last record of the change log {}", changeLogFile );
+        }
+
+        LOG.debug( "Replayed {} changes from {}", nbLogRecords, changeLogFile );
+
+        // Start with an empty change log
+        compact( partitionTxn );
+    }
+
+
+    /**
+     * Applies a change read from the change log
+     */
+    private void replay( PartitionTxn partitionTxn, LdifEntry change ) throws LdapException
+    {
+        Dn dn = new Dn( schemaManager, change.getDn() );
+
+        switch ( change.getChangeType().getChangeType() )
+        {
+            case ChangeType.ADD_ORDINAL:
+                Entry entry = new DefaultEntry( schemaManager, change.getEntry() );
+
+                AddOperationContext addContext = new AddOperationContext( null, entry );
+                addContext.setPartition( this );
+                addContext.setTransaction( partitionTxn );
+
+                super.add( addContext );
+
+                if ( ( contextEntry == null ) && dn.equals( suffixDn ) )
+                {
+                    contextEntry = entry;
+                }
+
+                break;
+
+            case ChangeType.DELETE_ORDINAL:
+                String id = getEntryId( partitionTxn, dn );
+
+                if ( id != null )
+                {
+                    super.delete( partitionTxn, id );
+                }
+
+                break;
+
+            case ChangeType.MODIFY_ORDINAL:
+                List<Modification> modifications = new ArrayList<>();
+
+                for ( Modification modification : change.getModifications() )
+                {
+                    modifications.add( new DefaultModification( schemaManager, modification ) );
+                }
+
+                super.modify( partitionTxn, dn, modifications.toArray( new Modification[]
+                    {} ) );
+
+                break;
+
+            default:
+                throw new LdapOtherException( "Unexpected change in " + changeLogFile + " : " + change );
         }
     }
 
@@ -220,8 +460,21 @@ public class SingleFileLdifPartition extends AbstractLdifPartition
                 }
             }
 
-            dirty = true;
-            rewritePartitionData( addContext.getTransaction() );
+            Entry addedEntry = addContext.getEntry();
+            LdifEntry change = new LdifEntry();
+            change.setChangeType( ChangeType.Add );
+            change.setDn( addedEntry.getDn() );
+
+            for ( Attribute attribute : addedEntry )
+            {
+                // Don't write the EntryDN attribute
+                if ( !entryDnAT.equals( attribute.getAttributeType() ) )
+                {
+                    change.addAttribute( attribute.clone() );
+                }
+            }
+
+            appendChange( addContext.getTransaction(), change );
         }
     }
 
@@ -252,8 +505,16 @@ public class SingleFileLdifPartition extends AbstractLdifPartition
                 throw new LdapOperationException( e.getMessage(), e );
             }
 
-            dirty = true;
-            rewritePartitionData( partitionTxn );
+            LdifEntry change = new LdifEntry();
+            change.setChangeType( ChangeType.Modify );
+            change.setDn( modifyContext.getDn() );
+
+            for ( Modification modification : modifyContext.getModItems() )
+            {
+                change.addModification( modification );
+            }
+
+            appendChange( partitionTxn, change );
         }
     }
 
@@ -308,15 +569,107 @@ public class SingleFileLdifPartition extends AbstractLdifPartition
     {
         synchronized ( lock )
         {
+            Dn dn = buildEntryDn( partitionTxn, id );
             Entry deletedEntry = super.delete( partitionTxn, id );
-            dirty = true;
-            rewritePartitionData( partitionTxn );
+
+            LdifEntry change = new LdifEntry();
+            change.setChangeType( ChangeType.Delete );
+            change.setDn( dn );
+
+            appendChange( partitionTxn, change );
 
             return deletedEntry;
         }
     }
 
 
+    /**
+     * appends a change in the change log if {@link #enableRewriting} is set to true, and
+     * schedules a compaction if the change log has grown above the threshold. Otherwise,
+     * the partition is flagged as {@link #dirty}.
+     *
+     * @param partitionTxn The transaction to use
+     * @param change The change to append
+     * @throws LdapException If the change can't be written
+     */
+    private void appendChange( PartitionTxn partitionTxn, LdifEntry change ) throws LdapException
+    {
+        synchronized ( lock )
+        {
+            if ( !enableRewriting || dirty )
+            {
+                // Some changes are not in the change log : only a rewrite can save them
+                dirty = true;
+                rewritePartitionData( partitionTxn );
+
+                return;
+            }
+
+            try
+            {
+                String ldif = LdifUtils.convertToLdif( change );
+
+                if ( !ldif.endsWith( "\n" ) )
+                {
+                    ldif = ldif + "\n";
+                }
+
+                // A single write per record : a record without its commit marker has not been acknowledged
+                changeLog.seek( changeLog.length() );
+                changeLog.write( Strings.getBytesUtf8( ldif + COMMIT_MARKER + "\n\n" ) );
+                nbLogRecords++;
+
+                if ( changeLog.length() > compactionThreshold )
+                {
+                    scheduleCompaction();
+                }
+            }
+            catch ( IOException ioe )
+            {
+                throw new LdapOtherException( ioe.getMessage(), ioe );
+            }
+        }
+    }
+
+
+    /**
+     * Schedules a background compaction, unless one is already pending
+     */
+    private void scheduleCompaction()
+    {
+        if ( !compactionScheduled.compareAndSet( false, true ) )
+        {
+            return;
+        }
+
+        compactor.execute( new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    synchronized ( lock )
+                    {
+                        if ( nbLogRecords > 0 )
+                        {
+                            compact( beginReadTransaction() );
+                        }
+                    }
+                }
+                catch ( LdapException le )
+                {
+                    LOG.error( "Failed to compact the change log {}", changeLogFile, le );
+                }
+                finally
+                {
+                    compactionScheduled.set( false );
+                }
+            }
+        } );
+    }
+
+
     /**
      * writes the partition's data to the file if {@link #enableRewriting} is set to true
      * and partition was modified since the last write or {@link #dirty} data. 
@@ -332,18 +685,67 @@ public class SingleFileLdifPartition extends AbstractLdifPartition
                 return;
             }
 
+            compact( partitionTxn );
+        }
+    }
+
+
+    /**
+     * Writes the whole partition in the LDIF file, and empties the change log.
+     * 
+     * @throws LdapException If the partition can't be written
+     */
+    public void compact() throws LdapException
+    {
+        compact( beginReadTransaction() );
+    }
+
+
+    /**
+     * Writes a snapshot of the partition, then installs it as the new LDIF file.
+     */
+    private void compact( PartitionTxn partitionTxn ) throws LdapException
+    {
+        synchronized ( lock )
+        {
             try
             {
-                ldifFile.setLength( 0 ); // wipe the file clean
+                writeSnapshot( partitionTxn );
 
-                String suffixId = getEntryId( partitionTxn, suffixDn );
+                // From now on, the snapshot supersedes the LDIF file and the change log
+                Files.move( tempFile.toPath(), snapshotFile.toPath(), StandardCopyOption.ATOMIC_MOVE );
 
-                if ( suffixId == null )
-                {
-                    contextEntry = null;
-                    return;
-                }
+                installSnapshot();
+                dirty = false;
+            }
+            catch ( LdapException e )
+            {
+                throw e;
+            }
+            catch ( Exception e )
+            {
+                throw new LdapException( e );
+            }
+        }
+    }
 
+
+    /**
+     * Writes all the entries of the partition in the temporary snapshot file, and syncs it
+     */
+    private void writeSnapshot( PartitionTxn partitionTxn ) throws Exception
+    {
+        try ( FileOutputStream out = new FileOutputStream( tempFile );
+            Writer writer = new BufferedWriter( new OutputStreamWriter( out, StandardCharsets.UTF_8 ) ) )
+        {
+            String suffixId = getEntryId( partitionTxn, suffixDn );
+
+            if ( suffixId == null )
+            {
+                contextEntry = null;
+            }
+            else
+            {
                 ParentIdAndRdn suffixEntry = rdnIdx.reverseLookup( partitionTxn, suffixId );
 
                 if ( suffixEntry != null )
@@ -355,26 +757,44 @@ public class SingleFileLdifPartition extends AbstractLdifPartition
 
                     entry.setDn( suffixDn );
 
-                    appendLdif( entry );
+                    appendLdif( writer, entry );
 
-                    appendRecursive( partitionTxn, suffixId, suffixEntry.getNbChildren() );
+                    appendRecursive( partitionTxn, writer, suffixId, suffixEntry.getNbChildren() );
                 }
-
-                dirty = false;
             }
-            catch ( LdapException e )
-            {
-                throw e;
-            }
-            catch ( Exception e )
+
+            writer.flush();
+            out.getFD().sync();
+        }
+    }
+
+
+    /**
+     * Copies the snapshot in the LDIF file, then empties the change log and removes the snapshot
+     */
+    private void installSnapshot() throws IOException
+    {
+        ldifFile.setLength( 0 ); // wipe the file clean
+
+        try ( InputStream in = new FileInputStream( snapshotFile ) )
+        {
+            byte[] buffer = new byte[COPY_BUFFER_SIZE];
+            int nbRead;
+
+            while ( ( nbRead = in.read( buffer ) ) != -1 )
             {
-                throw new LdapException( e );
+                ldifFile.write( buffer, 0, nbRead );
             }
         }
+
+        changeLog.setLength( 0 );
+        nbLogRecords = 0;
+
+        Files.delete( snapshotFile.toPath() );
     }
 
 
-    private void appendRecursive( PartitionTxn partitionTxn, String id, int nbSibbling ) throws Exception
+    private void appendRecursive( PartitionTxn partitionTxn, Writer writer, String id, int nbSibbling ) throws Exception
     {
         // Start with the root
         Cursor<IndexEntry<ParentIdAndRdn, String>> cursor = rdnIdx.forwardCursor( partitionTxn );
@@ -393,7 +813,7 @@ public class SingleFileLdifPartition extends AbstractLdifPartition
             // Remove the EntryDn
             entry.removeAttributes( SchemaConstants.ENTRY_DN_AT );
 
-            appendLdif( entry );
+            appendLdif( writer, entry );
 
             countChildren++;
 
@@ -402,7 +822,7 @@ public class SingleFileLdifPartition extends AbstractLdifPartition
 
             if ( nbChildren > 0 )
             {
-                appendRecursive( partitionTxn, childId, nbChildren );
+                appendRecursive( partitionTxn, writer, childId, nbChildren );
             }
         }
 
@@ -411,18 +831,16 @@ public class SingleFileLdifPartition extends AbstractLdifPartition
 
 
     /**
-     * append data to the LDIF file
+     * append data to the snapshot
      *
+     * @param writer the snapshot writer
      * @param entry the entry to be written
      * @throws LdapException
      */
-    private void appendLdif( Entry entry ) throws IOException
+    private void appendLdif( Writer writer, Entry entry ) throws IOException, LdapException
     {
-        synchronized ( lock )
-        {
-            String ldif = LdifUtils.convertToLdif( entry );
-            ldifFile.write( Strings.getBytesUtf8( ldif + "\n" ) );
-        }
+        String ldif = LdifUtils.convertToLdif( entry );
+        writer.write( ldif + "\n" );
     }
 
     /**
@@ -505,11 +923,35 @@ public class SingleFileLdifPartition extends AbstractLdifPartition
     @Override
     protected void doDestroy( PartitionTxn partitionTxn ) throws LdapException
     {
+        if ( compactor != null )
+        {
+            compactor.shutdown();
+
+            try
+            {
+                compactor.awaitTermination( 1L, TimeUnit.MINUTES );
+            }
+            catch ( InterruptedException ie )
+            {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        // Leave a LDIF file containing the whole partition
+        synchronized ( lock )
+        {
+            if ( nbLogRecords > 0 )
+            {
+                compact( beginReadTransaction() );
+            }
+        }
+
         super.doDestroy( partitionTxn );
         
         try
         {
             ldifFile.close();
+            changeLog.close();
         }
         catch ( IOException ioe )
         {
@@ -518,9 +960,31 @@ public class SingleFileLdifPartition extends AbstractLdifPartition
     }
 
 
+    /**
+     * @return the size of the change log, in bytes, above which it gets compacted in the LDIF file
+     */
+    public long getCompactionThreshold()
+    {
+        return compactionThreshold;
+    }
+
+
+    /**
+     * Sets the size of the change log above which it gets compacted in the LDIF file. Defaults
+     * to {@link #DEFAULT_COMPACTION_THRESHOLD}
+     *
+     * @param compactionThreshold the threshold, in bytes
+     */
+    public void setCompactionThreshold( long compactionThreshold )
+    {
+        this.compactionThreshold = compactionThreshold;
+    }
+
+
     /**
      * enable/disable the re-writing of partition data.
-     * This method internally calls the rewritePartitionData() method to save any dirty data if present
+     * This method internally calls the rewritePartitionData() method to save any dirty data if present,
+     * and writes in the LDIF file the changes pending in the change log
      * 
      * @param partitionTxn The transaction to use
      * @param enableRewriting flag to enable/disable re-writing
@@ -530,7 +994,17 @@ public class SingleFileLdifPartition extends AbstractLdifPartition
     {
         this.enableRewriting = enableRewriting;
 
-        // save data if found dirty 
-        rewritePartitionData( partitionTxn );
+        synchronized ( lock )
+        {
+            if ( nbLogRecords > 0 )
+            {
+                compact( partitionTxn );
+            }
+            else
+            {
+                // save data if found dirty 
+                rewritePartitionData( partitionTxn );
+            }
+        }
     }
 }
@@ -240,6 +240,9 @@ public class SingleFileLdifPartitionTest
             rf.setLength( 0 );
 
             rf.close();
+
+            // and the changes which haven't been compacted yet
+            new File( fileName + ".log" ).delete();
         }
 
         SingleFileLdifPartition partition = new SingleFileLdifPartition( schemaManager, dnFactory );
@@ -371,6 +374,9 @@ public class SingleFileLdifPartitionTest
 
         assertEquals( contextEntry, fetched );
 
+        // the entry is in the change log, until it gets compacted
+        partition.compact();
+
         RandomAccessFile file = new RandomAccessFile( new File( partition.getPartitionPath() ), "r" );
 
         assertEquals( getEntryLdifLen( contextEntry ), file.length() );
@@ -465,6 +471,7 @@ public class SingleFileLdifPartitionTest
         modOpCtx.setDn( contextEntry.getDn() );
 
         partition.modify( modOpCtx );
+        partition.compact();
         RandomAccessFile file = new RandomAccessFile( new File( partition.getPartitionPath() ), "r" );
         assertEquals( getEntryLdifLen( modOpCtx.getAlteredEntry() ), file.length() );
 
@@ -487,6 +494,7 @@ public class SingleFileLdifPartitionTest
         modOpCtx.setDn( contextEntry.getDn() );
 
         partition.modify( modOpCtx );
+        partition.compact();
         assertEquals( getEntryLdifLen( modOpCtx.getAlteredEntry() ), file.length() );
 
         Entry entry1 = createEntry( "cn=test,ou=test,ou=system" );
@@ -521,6 +529,7 @@ public class SingleFileLdifPartitionTest
         modOpCtx.setModItems( modItems );
 
         partition.modify( modOpCtx );
+        partition.compact();
 
         long ctxEntryLen = getEntryLdifLen( contextEntry );
         long entry1Len = getEntryLdifLen( entry1 );
@@ -559,6 +568,7 @@ public class SingleFileLdifPartitionTest
         modOpCtx.setModItems( modItems );
 
         partition.modify( modOpCtx );
+        partition.compact();
 
         file.seek( ctxEntryLen );
 
@@ -663,6 +673,7 @@ public class SingleFileLdifPartitionTest
         delOpCtx.setTransaction( partition.beginWriteTransaction() );
 
         partition.delete( delOpCtx );
+        partition.compact();
         RandomAccessFile file = new RandomAccessFile( new File( partition.getPartitionPath() ), "r" );
 
         assertEquals( 0L, file.length() );
@@ -1135,6 +1146,87 @@ public class SingleFileLdifPartitionTest
     }
 
 
+    /**
+     * Check that the changes appended in the change log are replayed when the partition
+     * is reloaded, ignoring an incomplete last record
+     */
+    @Test
+    public void testChangeLogReplay() throws Exception
+    {
+        SingleFileLdifPartition partition = createPartition( null, true );
+        AddOperationContext addCtx = new AddOperationContext( mockSession );
+        addCtx.setEntry( contextEntry );
+        addCtx.setPartition( partition );
+        addCtx.setTransaction( partition.beginWriteTransaction() );
+
+        partition.add( addCtx );
+
+        Entry entry1 = createEntry( "cn=test,ou=test,ou=system" );
+        entry1.put( "ObjectClass", "top", "person" );
+        entry1.put( "cn", "test" );
+        addCtx.setEntry( entry1 );
+
+        partition.add( addCtx );
+
+        Entry entry2 = createEntry( "cn=test2,ou=test,ou=system" );
+        entry2.put( "ObjectClass", "top", "person" );
+        entry2.put( "cn", "test2" );
+        addCtx.setEntry( entry2 );
+
+        partition.add( addCtx );
+
+        ModifyOperationContext modOpCtx = new ModifyOperationContext( mockSession );
+        modOpCtx.setEntry( new ClonedServerEntry( entry1 ) );
+        modOpCtx.setDn( entry1.getDn() );
+        modOpCtx.setPartition( partition );
+        modOpCtx.setTransaction( partition.beginWriteTransaction() );
+
+        List<Modification> modItems = new ArrayList<Modification>();
+
+        Attribute attribute = new DefaultAttribute( schemaManager.lookupAttributeTypeRegistry( "description" ) );
+        attribute.add( "desc of entry1" );
+
+        Modification mod = new DefaultModification();
+        mod.setOperation( ModificationOperation.ADD_ATTRIBUTE );
+        mod.setAttribute( attribute );
+
+        modItems.add( mod );
+        modOpCtx.setModItems( modItems );
+
+        partition.modify( modOpCtx );
+
+        DeleteOperationContext delOpCtx = new DeleteOperationContext( mockSession );
+        delOpCtx.setDn( entry2.getDn() );
+        delOpCtx.setPartition( partition );
+        delOpCtx.setTransaction( partition.beginWriteTransaction() );
+
+        partition.delete( delOpCtx );
+
+        // Nothing has been written in the LDIF file yet
+        assertEquals( 0L, new File( partition.getPartitionPath() ).length() );
+
+        // Simulate a crash while a record was being written
+        File changeLogFile = new File( ldifFileInUse.getAbsolutePath() + ".log" );
+        assertTrue( changeLogFile.length() > 0L );
+
+        RandomAccessFile changeLog = new RandomAccessFile( changeLogFile, "rws" );
+        changeLog.seek( changeLog.length() );
+        changeLog.write( Strings.getBytesUtf8( "dn: cn=partial,ou=test,ou=system\nchangetype: add\nobjectClass: top\n" ) );
+        changeLog.close();
+
+        partition = reloadPartition();
+        assertExists( partition, contextEntry );
+        assertExists( partition, modOpCtx.getAlteredEntry() );
+        assertNotExists( partition, entry2 );
+        assertNotExists( partition, createEntry( "cn=partial,ou=test,ou=system" ) );
+
+        // The replayed changes have been compacted in the LDIF file
+        assertEquals( 0L, changeLogFile.length() );
+        assertEquals( getEntryLdifLen( contextEntry ) + getEntryLdifLen( modOpCtx.getAlteredEntry() ),
+            new File( partition.getPartitionPath() ).length() );
+    }
+
+
     /**
      * An important test to check the stability of the partition
      * under high concurrency
@@ -0,0 +1,91 @@
+/*
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *   or more contributor license agreements.  See the NOTICE file
+ *   distributed with this work for additional information
+ *   regarding copyright ownership.  The ASF licenses this file
+ *   to you under the Apache License, Version 2.0 (the
+ *   "License"); you may not use this file except in compliance
+ *   with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing,
+ *   software distributed under the License is distributed on an
+ *   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *   KIND, either express or implied.  See the License for the
+ *   specific language governing permissions and limitations
+ *   under the License.
+ *
+ */
+package org.apache.directory.server.core.partition.impl.btree.lmdb;
+
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.server.core.api.entry.CompactEntryCodec;
+import org.apache.directory.server.i18n.I18n;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * Serialize and deserialize an Entry, using the {@link CompactEntryCodec} format. Only the
+ * entry Rdn is stored, the Dn is rebuilt from the Rdn index when the entry is fetched.
+ * <br>
+ * The entries are read straight from the memory mapped pages of the database, without
+ * being copied first.
+ * <br><br>
+ * <b>This class must *not* be used outside of the server.</b>
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class EntrySerializer implements LmdbSerializer<Entry>
+{
+    /** the logger for this class */
+    private static final Logger LOG = LoggerFactory.getLogger( EntrySerializer.class );
+
+    /** The schemaManager reference */
+    private final SchemaManager schemaManager;
+
+
+    /**
+     * Creates a new instance of EntrySerializer.
+     *
+     * @param schemaManager The reference to the global schemaManager
+     */
+    public EntrySerializer( SchemaManager schemaManager )
+    {
+        this.schemaManager = schemaManager;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public byte[] serialize( Entry entry ) throws IOException
+    {
+        return CompactEntryCodec.serialize( entry, CompactEntryCodec.RDN );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Entry deserialize( ByteBuffer buffer ) throws IOException
+    {
+        try
+        {
+            return CompactEntryCodec.deserialize( schemaManager, buffer );
+        }
+        catch ( IOException ioe )
+        {
+            LOG.error( I18n.err( I18n.ERR_134, ioe.getLocalizedMessage() ) );
+            throw ioe;
+        }
+    }
+}
@@ -0,0 +1,501 @@
+/*
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *   or more contributor license agreements.  See the NOTICE file
+ *   distributed with this work for additional information
+ *   regarding copyright ownership.  The ASF licenses this file
+ *   to you under the Apache License, Version 2.0 (the
+ *   "License"); you may not use this file except in compliance
+ *   with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing,
+ *   software distributed under the License is distributed on an
+ *   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *   KIND, either express or implied.  See the License for the
+ *   specific language governing permissions and limitations
+ *   under the License.
+ *
+ */
+package org.apache.directory.server.core.partition.impl.btree.lmdb;
+
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.apache.directory.api.ldap.model.constants.Loggers;
+import org.apache.directory.api.ldap.model.cursor.AbstractCursor;
+import org.apache.directory.api.ldap.model.cursor.CursorException;
+import org.apache.directory.api.ldap.model.cursor.InvalidCursorPositionException;
+import org.apache.directory.api.ldap.model.cursor.Tuple;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.exception.LdapOtherException;
+import org.lmdbjava.GetOp;
+import org.lmdbjava.LmdbException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * A Cursor over the tuples of a {@link LmdbTable}, or over the tuples of one of its keys.
+ * It moves a LMDB cursor, and deserializes the tuple it's positioned on before the next
+ * move, as the bytes read from LMDB are only valid until then.
+ * <br>
+ * The LMDB transaction used by the cursor is closed with it, if it has been opened for
+ * this cursor.
+ *
+ * @param <K> The key
+ * @param <V> The stored value
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class LmdbCursor<K, V> extends AbstractCursor<Tuple<K, V>>
+{
+    /** A dedicated log for cursors */
+    private static final Logger LOG_CURSOR = LoggerFactory.getLogger( Loggers.CURSOR_LOG.getName() );
+
+    /** Speedup for logs */
+    private static final boolean IS_DEBUG = LOG_CURSOR.isDebugEnabled();
+
+    /** The possible positions of the cursor */
+    private enum Position
+    {
+        BEFORE_FIRST,
+        BEFORE_TUPLE,
+        ON_TUPLE,
+        AFTER_TUPLE,
+        AFTER_LAST
+    }
+
+    /** The table this cursor traverses over */
+    private final LmdbTable<K, V> table;
+
+    /** The LMDB transaction used by this cursor */
+    private final TxnScope scope;
+
+    /** The LMDB cursor */
+    private final org.lmdbjava.Cursor<ByteBuffer> cursor;
+
+    /** The escaped key all the returned records start with, if not null */
+    private final byte[] prefix;
+
+    /** The record bytes the cursor is positioned before or after */
+    private byte[] target;
+
+    /** The tuple the cursor is positioned on */
+    private Tuple<K, V> tuple;
+
+    /** The position of the cursor */
+    private Position position = Position.BEFORE_FIRST;
+
+
+    /**
+     * Creates a new instance of LmdbCursor.
+     *
+     * @param table The table to browse
+     * @param scope The LMDB transaction to use
+     * @param prefix The escaped key to restrict the cursor to, or null to browse the whole table
+     */
+    LmdbCursor( LmdbTable<K, V> table, TxnScope scope, byte[] prefix )
+    {
+        if ( IS_DEBUG )
+        {
+            LOG_CURSOR.debug( "Creating LmdbCursor {}", this );
+        }
+
+        this.table = table;
+        this.scope = scope;
+        this.prefix = prefix;
+
+        try
+        {
+            cursor = table.getDb().openCursor( scope.get() );
+        }
+        catch ( LmdbException le )
+        {
+            scope.close();
+            throw le;
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean available()
+    {
+        return position == Position.ON_TUPLE;
+    }
+
+
+    /**
+     * Positions the cursor before the first value of the given key
+     *
+     * @param key The key
+     * @throws LdapException If the key can't be serialized
+     * @throws CursorException If the cursor is closed
+     */
+    public void beforeKey( K key ) throws LdapException, CursorException
+    {
+        beforeValue( key, null );
+    }
+
+
+    /**
+     * Positions the cursor before the given value of the given key
+     *
+     * @param key The key
+     * @param value The value, or null to position the cursor before all the values of the key
+     * @throws LdapException If the key or the value can't be serialized
+     * @throws CursorException If the cursor is closed
+     */
+    public void beforeValue( K key, V value ) throws LdapException, CursorException
+    {
+        checkNotClosed();
+        setTarget( key, value, false );
+        position = Position.BEFORE_TUPLE;
+    }
+
+
+    /**
+     * Positions the cursor after the last value of the given key
+     *
+     * @param key The key
+     * @throws LdapException If the key can't be serialized
+     * @throws CursorException If the cursor is closed
+     */
+    public void afterKey( K key ) throws LdapException, CursorException
+    {
+        afterValue( key, null );
+    }
+
+
+    /**
+     * Positions the cursor after the given value of the given key
+     *
+     * @param key The key
+     * @param value The value, or null to position the cursor after all the values of the key
+     * @throws LdapException If the key or the value can't be serialized
+     * @throws CursorException If the cursor is closed
+     */
+    public void afterValue( K key, V value ) throws LdapException, CursorException
+    {
+        checkNotClosed();
+        setTarget( key, value, true );
+        position = Position.AFTER_TUPLE;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public void before( Tuple<K, V> element ) throws LdapException, CursorException
+    {
+        if ( element == null )
+        {
+            beforeFirst();
+            return;
+        }
+
+        beforeValue( element.getKey(), element.getValue() );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public void after( Tuple<K, V> element ) throws LdapException, CursorException
+    {
+        if ( element == null )
+        {
+            afterLast();
+            return;
+        }
+
+        afterValue( element.getKey(), element.getValue() );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public void beforeFirst() throws LdapException, CursorException
+    {
+        checkNotClosed();
+        clear( Position.BEFORE_FIRST );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public void afterLast() throws LdapException, CursorException
+    {
+        checkNotClosed();
+        clear( Position.AFTER_LAST );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean first() throws LdapException, CursorException
+    {
+        beforeFirst();
+
+        return next();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean last() throws LdapException, CursorException
+    {
+        afterLast();
+
+        return previous();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean next() throws LdapException, CursorException
+    {
+        checkNotClosed();
+
+        try
+        {
+            boolean found;
+
+            switch ( position )
+            {
+                case BEFORE_FIRST:
+                    found = ( prefix == null ) ? cursor.first() : seek( prefix );
+                    break;
+
+                case BEFORE_TUPLE:
+                    found = seek( target );
+                    break;
+
+                case ON_TUPLE:
+                    found = cursor.next();
+                    break;
+
+                case AFTER_TUPLE:
+                    found = seek( target );
+
+                    if ( found && LmdbTable.equals( cursor.key(), target ) )
+                    {
+                        found = cursor.next();
+                    }
+
+                    break;
+
+                case AFTER_LAST:
+                    return false;
+
+                default:
+                    throw new IllegalStateException( "Unexpected position " + position );
+            }
+
+            if ( !found || !isInRange() )
+            {
+                clear( Position.AFTER_LAST );
+
+                return false;
+            }
+
+            readTuple();
+
+            return true;
+        }
+        catch ( IOException | LmdbException e )
+        {
+            throw new LdapOtherException( e.getMessage(), e );
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean previous() throws LdapException, CursorException
+    {
+        checkNotClosed();
+
+        try
+        {
+            boolean found;
+
+            switch ( position )
+            {
+                case BEFORE_FIRST:
+                    return false;
+
+                case BEFORE_TUPLE:
+                    found = seek( target ) ? cursor.prev() : cursor.last();
+                    break;
+
+                case ON_TUPLE:
+                    found = cursor.prev();
+                    break;
+
+                case AFTER_TUPLE:
+                    if ( seek( target ) )
+                    {
+                        found = LmdbTable.equals( cursor.key(), target ) || cursor.prev();
+                    }
+                    else
+                    {
+                        found = cursor.last();
+                    }
+
+                    break;
+
+                case AFTER_LAST:
+                    if ( prefix == null )
+                    {
+                        found = cursor.last();
+                    }
+                    else
+                    {
+                        found = seek( LmdbTable.afterPrefix( prefix ) ) ? cursor.prev() : cursor.last();
+                    }
+
+                    break;
+
+                default:
+                    throw new IllegalStateException( "Unexpected position " + position );
+            }
+
+            if ( !found || !isInRange() )
+            {
+                clear( Position.BEFORE_FIRST );
+
+                return false;
+            }
+
+            readTuple();
+
+            return true;
+        }
+        catch ( IOException | LmdbException e )
+        {
+            throw new LdapOtherException( e.getMessage(), e );
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public Tuple<K, V> get() throws CursorException
+    {
+        checkNotClosed();
+
+        if ( position == Position.ON_TUPLE )
+        {
+            return tuple;
+        }
+
+        throw new InvalidCursorPositionException();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void close() throws IOException
+    {
+        if ( IS_DEBUG )
+        {
+            LOG_CURSOR.debug( "Closing LmdbCursor {}", this );
+        }
+
+        release();
+        super.close();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void close( Exception reason ) throws IOException
+    {
+        if ( IS_DEBUG )
+        {
+            LOG_CURSOR.debug( "Closing LmdbCursor {}", this );
+        }
+
+        release();
+        super.close( reason );
+    }
+
+
+    private void release()
+    {
+        if ( isClosed() )
+        {
+            return;
+        }
+
+        try
+        {
+            cursor.close();
+        }
+        catch ( LmdbException le )
+        {
+            // The transaction has already been closed, and the cursor with it
+            LOG_CURSOR.debug( "The LMDB cursor has already been closed", le );
+        }
+        finally
+        {
+            scope.close();
+        }
+    }
+
+
+    private boolean seek( byte[] bytes )
+    {
+        return cursor.get( LmdbTable.toBuffer( bytes, LmdbTable.KEY ), GetOp.MDB_SET_RANGE );
+    }
+
+
+    private void setTarget( K key, V value, boolean after ) throws LdapException
+    {
+        try
+        {
+            target = table.positionBytes( key, value, after );
+            tuple = null;
+        }
+        catch ( IOException ioe )
+        {
+            throw new LdapOtherException( ioe.getMessage(), ioe );
+        }
+    }
+
+
+    private boolean isInRange()
+    {
+        return ( prefix == null ) || LmdbTable.startsWith( cursor.key(), prefix );
+    }
+
+
+    private void readTuple() throws IOException
+    {
+        tuple = table.readTuple( cursor.key(), cursor.val(), ( prefix == null ) ? -1 : prefix.length );
+        target = null;
+        position = Position.ON_TUPLE;
+    }
+
+
+    private void clear( Position position )
+    {
+        target = null;
+        tuple = null;
+        this.position = position;
+    }
+}
@@ -0,0 +1,703 @@
+/*
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *   or more contributor license agreements.  See the NOTICE file
+ *   distributed with this work for additional information
+ *   regarding copyright ownership.  The ASF licenses this file
+ *   to you under the Apache License, Version 2.0 (the
+ *   "License"); you may not use this file except in compliance
+ *   with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing,
+ *   software distributed under the License is distributed on an
+ *   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *   KIND, either express or implied.  See the License for the
+ *   specific language governing permissions and limitations
+ *   under the License.
+ *
+ */
+package org.apache.directory.server.core.partition.impl.btree.lmdb;
+
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+
+import org.apache.directory.api.ldap.model.constants.SchemaConstants;
+import org.apache.directory.api.ldap.model.csn.CsnFactory;
+import org.apache.directory.api.ldap.model.cursor.Cursor;
+import org.apache.directory.api.ldap.model.cursor.CursorException;
+import org.apache.directory.api.ldap.model.cursor.Tuple;
+import org.apache.directory.api.ldap.model.entry.Attribute;
+import org.apache.directory.api.ldap.model.entry.DefaultEntry;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.entry.Value;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.exception.LdapOtherException;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.model.schema.AttributeType;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.api.util.exception.MultiException;
+import org.apache.directory.server.constants.ApacheSchemaConstants;
+import org.apache.directory.server.core.api.DnFactory;
+import org.apache.directory.server.core.api.interceptor.context.AddOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.LookupOperationContext;
+import org.apache.directory.server.core.api.partition.Partition;
+import org.apache.directory.server.core.api.partition.PartitionReadTxn;
+import org.apache.directory.server.core.api.partition.PartitionTxn;
+import org.apache.directory.server.core.api.partition.PartitionWriteTxn;
+import org.apache.directory.server.core.partition.impl.btree.AbstractBTreePartition;
+import org.apache.directory.server.i18n.I18n;
+import org.apache.directory.server.xdbm.EhcacheEntryCache;
+import org.apache.directory.server.xdbm.Index;
+import org.apache.directory.server.xdbm.search.impl.CursorBuilder;
+import org.apache.directory.server.xdbm.search.impl.DefaultOptimizer;
+import org.apache.directory.server.xdbm.search.impl.DefaultSearchEngine;
+import org.apache.directory.server.xdbm.search.impl.EvaluatorBuilder;
+import org.apache.directory.server.xdbm.search.impl.NoOpOptimizer;
+import org.lmdbjava.Env;
+import org.lmdbjava.EnvFlags;
+import org.lmdbjava.LmdbException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * A {@link Partition} that stores entries in a
+ * <a href="https://symas.com/lmdb/">LMDB</a> database.
+ * <br>
+ * All the tables of the partition are stored in the same LMDB environment, in a single
+ * file. The partition read transactions see a snapshot of the database, and the entries
+ * are read from the memory mapped pages, without being copied first. LMDB only allows one
+ * writer at a time : the other writers wait until the current write transaction is done.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class LmdbPartition extends AbstractBTreePartition
+{
+    /** static logger */
+    private static final Logger LOG = LoggerFactory.getLogger( LmdbPartition.class );
+
+    /** The extension of the LMDB file */
+    private static final String LMDB_FILE_EXTN = ".mdb";
+
+    /** The default maximum size of the database, in bytes */
+    public static final long DEFAULT_MAP_SIZE = 10L * 1024L * 1024L * 1024L;
+
+    /** The default maximum number of concurrent read transactions */
+    public static final int DEFAULT_MAX_READERS = 1024;
+
+    /** The default maximum number of tables */
+    public static final int DEFAULT_MAX_DBS = 512;
+
+    /** The LMDB environment used by this partition */
+    private Env<ByteBuffer> env;
+
+    /** The maximum size of the database, in bytes */
+    private long mapSize = DEFAULT_MAP_SIZE;
+
+    /** The maximum number of concurrent read transactions */
+    private int maxReaders = DEFAULT_MAX_READERS;
+
+    /** The maximum number of tables */
+    private int maxDbs = DEFAULT_MAX_DBS;
+
+
+    /**
+     * Creates a store based on LMDB.
+     *
+     * @param schemaManager The SchemaManager instance
+     * @param dnFactory The DN factory instance
+     */
+    public LmdbPartition( SchemaManager schemaManager, DnFactory dnFactory )
+    {
+        super( schemaManager, dnFactory );
+
+        // Initialize the cache size
+        if ( cacheSize < 0 )
+        {
+            cacheSize = DEFAULT_CACHE_SIZE;
+            LOG.debug( "Using the default entry cache size of {} for {} partition", cacheSize, id );
+        }
+        else
+        {
+            LOG.debug( "Using the custom configured cache size of {} for {} partition", cacheSize, id );
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void doRepair() throws LdapException
+    {
+        // LMDB never leaves a database in an inconsistent state : the last committed
+        // transaction is always valid, there is nothing to repair.
+        LOG.info( "The {} LMDB partition does not need to be repaired", id );
+    }
+
+
+    @Override
+    protected void doInit() throws LdapException
+    {
+        if ( !initialized )
+        {
+            // setup optimizer and registries for parent
+            if ( !optimizerEnabled )
+            {
+                setOptimizer( new NoOpOptimizer() );
+            }
+            else
+            {
+                setOptimizer( new DefaultOptimizer( this ) );
+            }
+
+            EvaluatorBuilder evaluatorBuilder = new EvaluatorBuilder( this, schemaManager );
+            CursorBuilder cursorBuilder = new CursorBuilder( this, evaluatorBuilder );
+
+            setSearchEngine( new DefaultSearchEngine( this, cursorBuilder, evaluatorBuilder, getOptimizer() ) );
+
+            // Create the underlying directories (only if needed)
+            File partitionDir = new File( getPartitionPath() );
+
+            if ( !partitionDir.exists() && !partitionDir.mkdirs() )
+            {
+                throw new LdapOtherException( I18n.err( I18n.ERR_112_COULD_NOT_CREATE_DIRECTORY, partitionDir ) );
+            }
+
+            // All the tables are stored in one single file
+            File file = new File( partitionDir, id + LMDB_FILE_EXTN );
+
+            // The read transactions are not bound to a thread, as the search cursors may
+            // be read by another thread than the one which has opened them
+            List<EnvFlags> flags = new ArrayList<>();
+            flags.add( EnvFlags.MDB_NOSUBDIR );
+            flags.add( EnvFlags.MDB_NOTLS );
+
+            if ( !isSyncOnWrite() )
+            {
+                // The database is synced by the sync thread
+                flags.add( EnvFlags.MDB_NOSYNC );
+            }
+
+            Set<String> tables = new HashSet<>();
+
+            try
+            {
+                env = Env.create().setMapSize( mapSize ).setMaxReaders( maxReaders ).setMaxDbs( maxDbs )
+                    .open( file, flags.toArray( new EnvFlags[flags.size()] ) );
+
+                for ( byte[] name : env.getDbiNames() )
+                {
+                    tables.add( new String( name, StandardCharsets.UTF_8 ) );
+                }
+            }
+            catch ( LmdbException le )
+            {
+                throw new LdapOtherException( le.getMessage(), le );
+            }
+
+            // Iterate on the declared indexes
+            List<Index<?, String>> indexToBuild = new ArrayList<>();
+
+            for ( Index<?, String> index : getIndexedAttributes() )
+            {
+                String oid = schemaManager.lookupAttributeTypeRegistry( index.getAttributeId() ).getOid();
+
+                // Check the forward index only (we suppose we never will add a reverse index later on)
+                if ( !tables.contains( oid + LmdbIndex.FORWARD_BTREE ) )
+                {
+                    // The index does not exist in the database, we need to build it
+                    indexToBuild.add( index );
+                }
+            }
+
+            // Initialize the indexes
+            super.doInit();
+
+            if ( cacheSize < 0 )
+            {
+                cacheSize = DEFAULT_CACHE_SIZE;
+                LOG.debug( "Using the default entry cache size of {} for {} partition", cacheSize, id );
+            }
+            else
+            {
+                LOG.debug( "Using the custom configured cache size of {} for {} partition", cacheSize, id );
+            }
+
+            // Create the master table (the table containing all the entries)
+            try
+            {
+                master = new LmdbMasterTable( env, schemaManager );
+            }
+            catch ( LmdbException le )
+            {
+                throw new LdapOtherException( le.getMessage(), le );
+            }
+
+            if ( !indexToBuild.isEmpty() )
+            {
+                buildUserIndex( indexToBuild );
+            }
+
+            // Load the index statistics used by the optimizer
+            try ( PartitionTxn partitionTxn = beginReadTransaction() )
+            {
+                loadStatistics( partitionTxn );
+                buildSubstringIndices( partitionTxn );
+            }
+            catch ( IOException ioe )
+            {
+                throw new LdapOtherException( ioe.getMessage(), ioe );
+            }
+
+            if ( ( entryCache == null ) && ( cacheService != null ) )
+            {
+                entryCache = new EhcacheEntryCache( cacheService.getCache( getId(), String.class, Entry.class ) );
+            }
+
+            // Initialization of the context entry
+            if ( ( suffixDn != null ) && ( contextEntry != null ) )
+            {
+                Dn contextEntryDn = contextEntry.getDn();
+
+                // Checking if the context entry DN is schema aware
+                if ( !contextEntryDn.isSchemaAware() )
+                {
+                    contextEntryDn = new Dn( schemaManager, contextEntryDn );
+                }
+
+                // We're only adding the entry if the two DNs are equal
+                if ( suffixDn.equals( contextEntryDn ) )
+                {
+                    // Looking for the current context entry
+                    Entry suffixEntry;
+                    LookupOperationContext lookupContext = new LookupOperationContext( null, suffixDn );
+                    lookupContext.setPartition( this );
+
+                    try ( PartitionTxn partitionTxn = beginReadTransaction() )
+                    {
+                        lookupContext.setTransaction( partitionTxn );
+                        suffixEntry = lookup( lookupContext );
+                    }
+                    catch ( IOException ioe )
+                    {
+                        throw new LdapOtherException( ioe.getMessage(), ioe );
+                    }
+
+                    // We're only adding the context entry if it doesn't already exist
+                    if ( suffixEntry == null )
+                    {
+                        // Checking of the context entry is schema aware
+                        if ( !contextEntry.isSchemaAware() )
+                        {
+                            // Making the context entry schema aware
+                            contextEntry = new DefaultEntry( schemaManager, contextEntry );
+                        }
+
+                        // Adding the 'entryCsn' attribute
+                        if ( contextEntry.get( SchemaConstants.ENTRY_CSN_AT ) == null )
+                        {
+                            contextEntry.add( SchemaConstants.ENTRY_CSN_AT, new CsnFactory( 0 ).newInstance()
+                                .toString() );
+                        }
+
+                        // Adding the 'entryUuid' attribute
+                        if ( contextEntry.get( SchemaConstants.ENTRY_UUID_AT ) == null )
+                        {
+                            String uuid = UUID.randomUUID().toString();
+                            contextEntry.add( SchemaConstants.ENTRY_UUID_AT, uuid );
+                        }
+
+                        // And add this entry to the underlying partition
+                        PartitionTxn partitionTxn = beginWriteTransaction();
+                        AddOperationContext addContext = new AddOperationContext( null, contextEntry );
+
+                        try
+                        {
+                            addContext.setTransaction( partitionTxn );
+
+                            add( addContext );
+                            partitionTxn.commit();
+                        }
+                        catch ( LdapException le )
+                        {
+                            abort( partitionTxn );
+
+                            throw le;
+                        }
+                        catch ( IOException ioe )
+                        {
+                            abort( partitionTxn );
+
+                            throw new LdapOtherException( ioe.getMessage(), ioe );
+                        }
+                    }
+                }
+            }
+
+            // We are done !
+            initialized = true;
+        }
+    }
+
+
+    /**
+     * @return The maximum size of the database, in bytes
+     */
+    public long getMapSize()
+    {
+        return mapSize;
+    }
+
+
+    /**
+     * Sets the maximum size of the database. The whole database is mapped in memory, but
+     * only the used pages are read from the disk. It must be set before the partition is
+     * initialized.
+     *
+     * @param mapSize The maximum size of the database, in bytes
+     */
+    public void setMapSize( long mapSize )
+    {
+        checkInitialized( "mapSize" );
+        this.mapSize = mapSize;
+    }
+
+
+    /**
+     * @return The maximum number of concurrent read transactions
+     */
+    public int getMaxReaders()
+    {
+        return maxReaders;
+    }
+
+
+    /**
+     * Sets the maximum number of concurrent read transactions, which includes the opened
+     * search cursors. It must be set before the partition is initialized.
+     *
+     * @param maxReaders The maximum number of concurrent read transactions
+     */
+    public void setMaxReaders( int maxReaders )
+    {
+        checkInitialized( "maxReaders" );
+        this.maxReaders = maxReaders;
+    }
+
+
+    /**
+     * @return The maximum number of tables
+     */
+    public int getMaxDbs()
+    {
+        return maxDbs;
+    }
+
+
+    /**
+     * Sets the maximum number of tables. Each index uses two to four tables. It must be set
+     * before the partition is initialized.
+     *
+     * @param maxDbs The maximum number of tables
+     */
+    public void setMaxDbs( int maxDbs )
+    {
+        checkInitialized( "maxDbs" );
+        this.maxDbs = maxDbs;
+    }
+
+
+    /**
+     * {@inheritDoc}}
+     */
+    public String getDefaultId()
+    {
+        return Partition.DEFAULT_ID;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public String getRootId()
+    {
+        return Partition.ROOT_ID;
+    }
+
+
+    /**
+     * This method is called when the synch thread is waking up, to write
+     * the modified data, and when the server is shut down. It also writes the index
+     * statistics : the writes don't call it, they only wait for their own commit
+     * to be on disk.
+     *
+     * @throws LdapException on failures to sync database files to disk
+     */
+    @Override
+    public synchronized void sync() throws LdapException
+    {
+        if ( !initialized )
+        {
+            return;
+        }
+
+        try
+        {
+            // Flush the committed transactions on disk
+            env.sync( true );
+        }
+        catch ( LmdbException le )
+        {
+            throw new LdapOtherException( le.getMessage(), le );
+        }
+
+        saveStatistics();
+    }
+
+
+    /**
+     * Builds user defined indexes on a attributes by browsing all the entries present in master db
+     *
+     * Note: if the given list of indices contains any system index that will be skipped.
+     *
+     * WARN: MUST be called after calling super.doInit()
+     *
+     * @param indices then selected indexes that need to be built
+     * @throws Exception in case of any problems while building the index
+     */
+    private void buildUserIndex( List<Index<?, String>> indices ) throws LdapException
+    {
+        PartitionTxn partitionTxn = beginWriteTransaction();
+
+        try
+        {
+            Cursor<Tuple<String, Entry>> cursor = ( ( LmdbMasterTable ) master ).cursor( partitionTxn );
+            cursor.beforeFirst();
+
+            while ( cursor.next() )
+            {
+                for ( Index index : indices )
+                {
+                    AttributeType atType = index.getAttribute();
+
+                    String attributeOid = index.getAttribute().getOid();
+
+                    if ( systemIndices.get( attributeOid ) != null )
+                    {
+                        // skipping building of the system index
+                        continue;
+                    }
+
+                    LOG.info( "building the index for attribute type {}", atType );
+
+                    Tuple<String, Entry> tuple = cursor.get();
+
+                    String id = tuple.getKey();
+                    Entry entry = tuple.getValue();
+
+                    Attribute entryAttr = entry.get( atType );
+
+                    if ( entryAttr != null )
+                    {
+                        for ( Value value : entryAttr )
+                        {
+                            index.add( partitionTxn, value.getString(), id );
+                        }
+
+                        // Adds only those attributes that are indexed
+                        presenceIdx.add( partitionTxn, attributeOid, id );
+                    }
+                }
+            }
+
+            cursor.close();
+            partitionTxn.commit();
+        }
+        catch ( LdapException le )
+        {
+            abort( partitionTxn );
+
+            throw le;
+        }
+        catch ( CursorException | IOException e )
+        {
+            abort( partitionTxn );
+
+            throw new LdapOtherException( e.getMessage(), e );
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected Index<?, String> convertAndInit( Index<?, String> index ) throws LdapException
+    {
+        LmdbIndex<?> lmdbIndex;
+
+        if ( index instanceof LmdbRdnIndex )
+        {
+            lmdbIndex = ( LmdbRdnIndex ) index;
+        }
+        else if ( index instanceof LmdbDnIndex )
+        {
+            lmdbIndex = ( LmdbDnIndex ) index;
+        }
+        else if ( index instanceof LmdbIndex<?> )
+        {
+            lmdbIndex = ( LmdbIndex<?> ) index;
+        }
+        else
+        {
+            LOG.debug( "Supplied index {} is not a LmdbIndex.  "
+                + "Will create new LmdbIndex using copied configuration parameters.", index );
+            lmdbIndex = new LmdbIndex( index.getAttributeId(), true );
+            lmdbIndex.setCacheSize( index.getCacheSize() );
+        }
+
+        try
+        {
+            lmdbIndex.init( env, schemaManager, schemaManager.lookupAttributeTypeRegistry( index.getAttributeId() ) );
+        }
+        catch ( IOException | LmdbException e )
+        {
+            throw new LdapOtherException( e.getMessage(), e );
+        }
+
+        return lmdbIndex;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected synchronized void doDestroy( PartitionTxn partitionTxn ) throws LdapException
+    {
+        MultiException errors = new MultiException( I18n.err( I18n.ERR_577 ) );
+
+        if ( !initialized )
+        {
+            return;
+        }
+
+        try
+        {
+            super.doDestroy( partitionTxn );
+        }
+        catch ( Exception e )
+        {
+            errors.addThrowable( e );
+        }
+
+        // This is specific to the LMDB store : close the environment
+        try
+        {
+            env.close();
+            LOG.debug( "Closed the LMDB environment for {} partition.", suffixDn );
+        }
+        catch ( LmdbException le )
+        {
+            LOG.error( I18n.err( I18n.ERR_127 ), le );
+            errors.addThrowable( le );
+        }
+        finally
+        {
+            if ( entryCache != null )
+            {
+                entryCache.close();
+            }
+        }
+
+        if ( errors.size() > 0 )
+        {
+            throw new LdapOtherException( errors.getMessage(), errors );
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected final Index createSystemIndex( String oid, URI path, boolean withReverse ) throws LdapException
+    {
+        LOG.debug( "Supplied index {} is not a LmdbIndex.  "
+            + "Will create new LmdbIndex using copied configuration parameters." );
+        LmdbIndex<?> lmdbIndex;
+
+        if ( oid.equals( ApacheSchemaConstants.APACHE_RDN_AT_OID ) )
+        {
+            lmdbIndex = new LmdbRdnIndex();
+            lmdbIndex.setAttributeId( ApacheSchemaConstants.APACHE_RDN_AT_OID );
+        }
+        else if ( oid.equals( ApacheSchemaConstants.APACHE_ALIAS_AT_OID ) )
+        {
+            lmdbIndex = new LmdbDnIndex( ApacheSchemaConstants.APACHE_ALIAS_AT_OID );
+            lmdbIndex.setAttributeId( ApacheSchemaConstants.APACHE_ALIAS_AT_OID );
+        }
+        else
+        {
+            lmdbIndex = new LmdbIndex( oid, withReverse );
+        }
+
+        lmdbIndex.setWkDirPath( path );
+
+        return lmdbIndex;
+    }
+
+
+    @Override
+    public PartitionReadTxn beginReadTransaction()
+    {
+        return new LmdbPartitionReadTxn( env );
+    }
+
+
+    @Override
+    public PartitionWriteTxn beginWriteTransaction()
+    {
+        return new LmdbPartitionWriteTxn( env );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void releaseSnapshot( PartitionTxn partitionTxn )
+    {
+        super.releaseSnapshot( partitionTxn );
+
+        // The search is done, the LMDB read transaction can be released
+        if ( partitionTxn instanceof LmdbPartitionReadTxn )
+        {
+            ( ( LmdbPartitionReadTxn ) partitionTxn ).unpinned();
+        }
+    }
+
+
+    private void abort( PartitionTxn partitionTxn ) throws LdapException
+    {
+        try
+        {
+            partitionTxn.abort();
+        }
+        catch ( IOException ioe )
+        {
+            throw new LdapOtherException( ioe.getMessage(), ioe );
+        }
+    }
+}
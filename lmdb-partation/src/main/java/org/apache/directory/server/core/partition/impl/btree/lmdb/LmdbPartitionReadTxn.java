@@ -0,0 +1,149 @@
+/*
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *   or more contributor license agreements.  See the NOTICE file
+ *   distributed with this work for additional information
+ *   regarding copyright ownership.  The ASF licenses this file
+ *   to you under the Apache License, Version 2.0 (the
+ *   "License"); you may not use this file except in compliance
+ *   with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing,
+ *   software distributed under the License is distributed on an
+ *   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *   KIND, either express or implied.  See the License for the
+ *   specific language governing permissions and limitations
+ *   under the License.
+ *
+ */
+package org.apache.directory.server.core.partition.impl.btree.lmdb;
+
+
+import java.nio.ByteBuffer;
+
+import org.apache.directory.server.core.partition.impl.btree.SnapshotReadTxn;
+import org.lmdbjava.Env;
+import org.lmdbjava.Txn;
+
+
+/**
+ * The LMDB partition read transaction. It holds a LMDB read transaction, opened when it
+ * is first used, so that all the reads done with this transaction see the same version
+ * of the database.
+ * <br>
+ * A search returns a cursor which is still read once the transaction has been closed :
+ * when the transaction is pinned by a search, the LMDB transaction is only released when
+ * the search cursor is closed.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class LmdbPartitionReadTxn extends SnapshotReadTxn
+{
+    /** The LMDB environment */
+    private final Env<ByteBuffer> env;
+
+    /** The LMDB read transaction, if opened */
+    private Txn<ByteBuffer> txn;
+
+    /** Tells if this transaction has been closed */
+    private boolean closed;
+
+
+    /**
+     * Create an instance of LmdbPartitionReadTxn
+     *
+     * @param env The LMDB environment
+     */
+    public LmdbPartitionReadTxn( Env<ByteBuffer> env )
+    {
+        this.env = env;
+    }
+
+
+    /**
+     * @return The LMDB read transaction, or null if this transaction has been closed
+     */
+    synchronized Txn<ByteBuffer> getTxn()
+    {
+        if ( txn == null )
+        {
+            if ( closed )
+            {
+                return null;
+            }
+
+            txn = env.txnRead();
+        }
+
+        return txn;
+    }
+
+
+    /**
+     * Releases the LMDB transaction once the search pinning this transaction is done, if
+     * this transaction has been closed.
+     */
+    synchronized void unpinned()
+    {
+        if ( closed )
+        {
+            release();
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void commit()
+    {
+        close();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void abort()
+    {
+        close();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized boolean isClosed()
+    {
+        return closed;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized void close()
+    {
+        closed = true;
+
+        if ( !isPinned() )
+        {
+            release();
+        }
+    }
+
+
+    private void release()
+    {
+        if ( txn != null )
+        {
+            txn.close();
+            txn = null;
+        }
+    }
+}
@@ -0,0 +1,196 @@
+/*
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *   or more contributor license agreements.  See the NOTICE file
+ *   distributed with this work for additional information
+ *   regarding copyright ownership.  The ASF licenses this file
+ *   to you under the Apache License, Version 2.0 (the
+ *   "License"); you may not use this file except in compliance
+ *   with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing,
+ *   software distributed under the License is distributed on an
+ *   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *   KIND, either express or implied.  See the License for the
+ *   specific language governing permissions and limitations
+ *   under the License.
+ *
+ */
+package org.apache.directory.server.core.partition.impl.btree.lmdb;
+
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.apache.directory.server.core.api.partition.PartitionWriteTxn;
+import org.lmdbjava.Env;
+import org.lmdbjava.LmdbException;
+import org.lmdbjava.Txn;
+
+
+/**
+ * The LMDB partition write transaction. It holds a LMDB write transaction, opened when it
+ * is first used : LMDB only allows one write transaction at a time, the other writers
+ * wait until it's committed or aborted.
+ * <br>
+ * A LMDB write transaction must be used by the thread which has opened it. While it's
+ * opened, the tables modified without any transaction by this thread use it.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class LmdbPartitionWriteTxn extends PartitionWriteTxn
+{
+    /** The write transaction opened by the current thread, if any */
+    private static final ThreadLocal<LmdbPartitionWriteTxn> CURRENT = new ThreadLocal<>();
+
+    /** The LMDB environment */
+    private final Env<ByteBuffer> env;
+
+    /** The LMDB write transaction, if opened */
+    private Txn<ByteBuffer> txn;
+
+    /** Tells if this transaction has been committed or aborted */
+    private boolean closed;
+
+
+    /**
+     * Create an instance of LmdbPartitionWriteTxn
+     *
+     * @param env The LMDB environment
+     */
+    public LmdbPartitionWriteTxn( Env<ByteBuffer> env )
+    {
+        this.env = env;
+    }
+
+
+    /**
+     * @return The LMDB write transaction, opened if needed, or null if this transaction has
+     * already been committed or aborted
+     */
+    Txn<ByteBuffer> getTxn()
+    {
+        if ( closed )
+        {
+            return null;
+        }
+
+        if ( txn == null )
+        {
+            txn = env.txnWrite();
+            CURRENT.set( this );
+        }
+
+        return txn;
+    }
+
+
+    /**
+     * Gets the LMDB write transaction opened by the current thread on an environment
+     *
+     * @param env The LMDB environment
+     * @return The LMDB write transaction, or null if there is none
+     */
+    static Txn<ByteBuffer> current( Env<ByteBuffer> env )
+    {
+        LmdbPartitionWriteTxn current = CURRENT.get();
+
+        if ( ( current == null ) || ( current.env != env ) )
+        {
+            return null;
+        }
+
+        return current.txn;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void commit() throws IOException
+    {
+        closed = true;
+        clearRollbackActions();
+
+        if ( txn == null )
+        {
+            return;
+        }
+
+        try
+        {
+            txn.commit();
+        }
+        catch ( LmdbException le )
+        {
+            throw new IOException( le.getMessage(), le );
+        }
+        finally
+        {
+            release();
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void abort() throws IOException
+    {
+        closed = true;
+        runRollbackActions();
+
+        if ( txn == null )
+        {
+            return;
+        }
+
+        try
+        {
+            txn.abort();
+        }
+        catch ( LmdbException le )
+        {
+            throw new IOException( le.getMessage(), le );
+        }
+        finally
+        {
+            release();
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isClosed()
+    {
+        return closed;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void close() throws IOException
+    {
+        commit();
+    }
+
+
+    private void release()
+    {
+        txn.close();
+        txn = null;
+
+        if ( CURRENT.get() == this )
+        {
+            CURRENT.remove();
+        }
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *   or more contributor license agreements.  See the NOTICE file
+ *   distributed with this work for additional information
+ *   regarding copyright ownership.  The ASF licenses this file
+ *   to you under the Apache License, Version 2.0 (the
+ *   "License"); you may not use this file except in compliance
+ *   with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing,
+ *   software distributed under the License is distributed on an
+ *   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *   KIND, either express or implied.  See the License for the
+ *   specific language governing permissions and limitations
+ *   under the License.
+ *
+ */
+package org.apache.directory.server.core.partition.impl.btree.lmdb;
+
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.api.ldap.model.schema.comparators.UuidComparator;
+import org.apache.directory.server.xdbm.ParentIdAndRdn;
+import org.apache.directory.server.xdbm.ParentIdAndRdnComparator;
+import org.lmdbjava.Env;
+
+
+/**
+ * The forward table of the Rdn index. Its LMDB keys only contain the parent ID and the
+ * Rdns of the ParentIdAndRdn, so that they are sorted like the ParentIdAndRdn. The LMDB
+ * values contain the entry ID, followed by the whole ParentIdAndRdn, with its number of
+ * children and descendants.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class LmdbRdnTable extends LmdbTable<ParentIdAndRdn, String>
+{
+    /** The ParentIdAndRdn serializer */
+    private final ParentIdAndRdnSerializer serializer;
+
+
+    /**
+     * Creates the Rdn index forward table.
+     *
+     * @param schemaManager The server schemaManager
+     * @param name the name of the table
+     * @param env the LMDB environment storing the table
+     * @param keyComparator the ParentIdAndRdn comparator
+     * @param serializer the ParentIdAndRdn serializer
+     */
+    public LmdbRdnTable( SchemaManager schemaManager, String name, Env<ByteBuffer> env,
+        ParentIdAndRdnComparator<String> keyComparator, ParentIdAndRdnSerializer serializer )
+    {
+        super( schemaManager, name, env, keyComparator, serializer, UuidSerializer.INSTANCE );
+
+        this.serializer = serializer;
+        UuidComparator.INSTANCE.setSchemaManager( schemaManager );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected byte[] serializeKey( ParentIdAndRdn key ) throws IOException
+    {
+        return serializer.serializeKey( key );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected byte[] serializeValue( ParentIdAndRdn key, String value ) throws IOException
+    {
+        byte[] parentIdAndRdnBytes = serializer.serialize( key );
+        byte[] bytes = new byte[UuidSerializer.UUID_SIZE + parentIdAndRdnBytes.length];
+
+        UuidSerializer.write( value, bytes, 0 );
+        System.arraycopy( parentIdAndRdnBytes, 0, bytes, UuidSerializer.UUID_SIZE, parentIdAndRdnBytes.length );
+
+        return bytes;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected ParentIdAndRdn deserializeKey( ByteBuffer key, ByteBuffer value ) throws IOException
+    {
+        ByteBuffer parentIdAndRdn = value.duplicate();
+        parentIdAndRdn.position( value.position() + UuidSerializer.UUID_SIZE );
+
+        return serializer.deserialize( parentIdAndRdn );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected String deserializeValue( ByteBuffer value ) throws IOException
+    {
+        return UuidSerializer.read( value, value.position() );
+    }
+}
@@ -0,0 +1,58 @@
+/*
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *   or more contributor license agreements.  See the NOTICE file
+ *   distributed with this work for additional information
+ *   regarding copyright ownership.  The ASF licenses this file
+ *   to you under the Apache License, Version 2.0 (the
+ *   "License"); you may not use this file except in compliance
+ *   with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing,
+ *   software distributed under the License is distributed on an
+ *   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *   KIND, either express or implied.  See the License for the
+ *   specific language governing permissions and limitations
+ *   under the License.
+ *
+ */
+package org.apache.directory.server.core.partition.impl.btree.lmdb;
+
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+
+/**
+ * Serializes and deserializes the keys and the values stored in a {@link LmdbTable}.
+ * <br>
+ * LMDB sorts the keys by comparing their bytes, so a key serializer has to produce bytes
+ * sorted in the same order as the keys, and equal bytes for equal keys.
+ *
+ * @param <T> The serialized type
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public interface LmdbSerializer<T>
+{
+    /**
+     * Serializes an element.
+     *
+     * @param element The element to serialize
+     * @return The serialized element
+     * @throws IOException If the element can't be serialized
+     */
+    byte[] serialize( T element ) throws IOException;
+
+
+    /**
+     * Deserializes an element. The buffer is usually pointing to a memory mapped page of the
+     * database, and is only valid until the next operation on the transaction : the element
+     * must be read immediately, and the buffer must not be kept.
+     *
+     * @param buffer The serialized element, between the buffer position and its limit
+     * @return The deserialized element
+     * @throws IOException If the element can't be deserialized
+     */
+    T deserialize( ByteBuffer buffer ) throws IOException;
+}
@@ -0,0 +1,1443 @@
+/*
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *   or more contributor license agreements.  See the NOTICE file
+ *   distributed with this work for additional information
+ *   regarding copyright ownership.  The ASF licenses this file
+ *   to you under the Apache License, Version 2.0 (the
+ *   "License"); you may not use this file except in compliance
+ *   with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing,
+ *   software distributed under the License is distributed on an
+ *   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *   KIND, either express or implied.  See the License for the
+ *   specific language governing permissions and limitations
+ *   under the License.
+ *
+ */
+package org.apache.directory.server.core.partition.impl.btree.lmdb;
+
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Comparator;
+
+import org.apache.directory.api.ldap.model.cursor.Cursor;
+import org.apache.directory.api.ldap.model.cursor.EmptyCursor;
+import org.apache.directory.api.ldap.model.cursor.SingletonCursor;
+import org.apache.directory.api.ldap.model.cursor.Tuple;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.exception.LdapOtherException;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.server.core.api.partition.PartitionTxn;
+import org.apache.directory.server.i18n.I18n;
+import org.apache.directory.server.xdbm.AbstractTable;
+import org.lmdbjava.Dbi;
+import org.lmdbjava.DbiFlags;
+import org.lmdbjava.Env;
+import org.lmdbjava.GetOp;
+import org.lmdbjava.LmdbException;
+import org.lmdbjava.PutFlags;
+import org.lmdbjava.Txn;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * A LMDB database backed Table implementation.
+ * <br>
+ * LMDB sorts the keys by comparing their bytes, and not with the table comparators : the
+ * serializers must produce bytes sorted in the order of the comparators. The values read
+ * from the database are deserialized straight from its memory mapped pages.
+ * <br>
+ * When duplicates are allowed, each value is stored in its own LMDB record, which key is
+ * the table key followed by the value, and which data is empty. The key bytes are escaped,
+ * and followed by an end marker, so that all the values of a key are stored together, in
+ * the value bytes order, and that the keys are still sorted in their bytes order. The
+ * number of values of each key is stored in another LMDB database, which name ends with
+ * {@link #KEYS_SUFFIX}.
+ * <br>
+ * LMDB keys can't be longer than {@link Env#getMaxKeySize()}. When duplicates are allowed,
+ * a key which escaped form is longer than {@link #MAX_PREFIX_SIZE} is replaced by its first
+ * bytes, followed by 0x00 0x03 and the SHA-256 digest of the key, and a record longer than
+ * a LMDB key keeps the first bytes of the value, followed by the digest of the value. The
+ * data of these records contains the key and the value, which are compared when reading or
+ * updating the record, so that a digest collision is never mistaken for a stored value. The
+ * long keys and values are then sorted by their first bytes, and by their digests.
+ *
+ * @param <K> The key
+ * @param <V> The stored value
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class LmdbTable<K, V> extends AbstractTable<K, V>
+{
+    /** A logger for this class */
+    private static final Logger LOG = LoggerFactory.getLogger( LmdbTable.class );
+
+    /** The suffix of the database storing the number of values of each key */
+    public static final String KEYS_SUFFIX = "_keys";
+
+    /** The byte escaping a 0x00 in a key, or ending the key, when duplicates are allowed */
+    private static final byte ESCAPE = 0x00;
+
+    /** A 0x00 in a key is stored as 0x00 0xFF */
+    private static final byte ESCAPED_ZERO = ( byte ) 0xFF;
+
+    /** The end of a key is stored as 0x00 0x01 */
+    private static final byte KEY_END = 0x01;
+
+    /** The byte following 0x00 after the values of a key */
+    private static final byte AFTER_KEY = 0x02;
+
+    /** A key too long to be stored is replaced by its first bytes, 0x00 0x03 and its digest */
+    private static final byte HASHED = 0x03;
+
+    /** The biggest escaped key, end marker included, which is stored as is in the records */
+    static final int MAX_PREFIX_SIZE = 256;
+
+    /** The number of bytes kept from a key which is too long */
+    private static final int KEY_HEAD_SIZE = 64;
+
+    /** The size of the SHA-256 digests replacing the end of the keys and values too long */
+    private static final int DIGEST_SIZE = 32;
+
+    /** The data of the records of a table with duplicates */
+    private static final ByteBuffer EMPTY = ByteBuffer.allocateDirect( 0 );
+
+    /** The size of the direct buffers kept by each thread to write the keys and values */
+    private static final int BUFFER_SIZE = 4096;
+
+    /** The biggest direct buffer kept by a thread, the bigger values use a new buffer */
+    private static final int MAX_BUFFER_SIZE = 64 * 1024;
+
+    /** The direct buffers used by each thread to give the keys and values to LMDB */
+    private static final ThreadLocal<ByteBuffer[]> BUFFERS = new ThreadLocal<ByteBuffer[]>()
+    {
+        @Override
+        protected ByteBuffer[] initialValue()
+        {
+            return new ByteBuffer[2];
+        }
+    };
+
+    /** The slot of the key buffer */
+    static final int KEY = 0;
+
+    /** The slot of the value buffer */
+    static final int VALUE = 1;
+
+    /** The LMDB environment */
+    protected final Env<ByteBuffer> env;
+
+    /** The database storing the records */
+    private final Dbi<ByteBuffer> db;
+
+    /** The database storing the number of values of each key, when duplicates are allowed */
+    private final Dbi<ByteBuffer> keysDb;
+
+    /** The key serializer */
+    protected final LmdbSerializer<K> keySerializer;
+
+    /** The value serializer */
+    protected final LmdbSerializer<V> valueSerializer;
+
+    /** The biggest LMDB key */
+    private final int maxKeySize;
+
+
+    /**
+     * Creates a new LMDB backed table, which does not allow duplicates.
+     *
+     * @param schemaManager The server schemaManager
+     * @param name the name of the table
+     * @param env the LMDB environment storing the table
+     * @param keyComparator a key comparator
+     * @param keySerializer a serializer to use for the keys
+     * @param valueSerializer a serializer to use for the values
+     */
+    public LmdbTable( SchemaManager schemaManager, String name, Env<ByteBuffer> env, Comparator<K> keyComparator,
+        LmdbSerializer<K> keySerializer, LmdbSerializer<V> valueSerializer )
+    {
+        this( schemaManager, name, env, keyComparator, null, keySerializer, valueSerializer, false );
+    }
+
+
+    /**
+     * Creates a new LMDB backed table, which allows duplicates.
+     *
+     * @param schemaManager The server schemaManager
+     * @param name the name of the table
+     * @param env the LMDB environment storing the table
+     * @param keyComparator a key comparator
+     * @param valueComparator a value comparator
+     * @param keySerializer a serializer to use for the keys
+     * @param valueSerializer a serializer to use for the values
+     */
+    public LmdbTable( SchemaManager schemaManager, String name, Env<ByteBuffer> env, Comparator<K> keyComparator,
+        Comparator<V> valueComparator, LmdbSerializer<K> keySerializer, LmdbSerializer<V> valueSerializer )
+    {
+        this( schemaManager, name, env, keyComparator, valueComparator, keySerializer, valueSerializer, true );
+    }
+
+
+    private LmdbTable( SchemaManager schemaManager, String name, Env<ByteBuffer> env, Comparator<K> keyComparator,
+        Comparator<V> valueComparator, LmdbSerializer<K> keySerializer, LmdbSerializer<V> valueSerializer,
+        boolean allowsDuplicates )
+    {
+        super( schemaManager, name, keyComparator, valueComparator );
+
+        if ( allowsDuplicates && ( valueComparator == null ) )
+        {
+            throw new IllegalArgumentException( I18n.err( I18n.ERR_592 ) );
+        }
+
+        this.env = env;
+        this.keySerializer = keySerializer;
+        this.valueSerializer = valueSerializer;
+        this.allowsDuplicates = allowsDuplicates;
+        maxKeySize = env.getMaxKeySize();
+
+        db = env.openDbi( name, DbiFlags.MDB_CREATE );
+
+        if ( allowsDuplicates )
+        {
+            keysDb = env.openDbi( name + KEYS_SUFFIX, DbiFlags.MDB_CREATE );
+        }
+        else
+        {
+            keysDb = null;
+        }
+    }
+
+
+    // ------------------------------------------------------------------------
+    // Serialization, which can be specialized for tables without duplicates
+    // ------------------------------------------------------------------------
+    /**
+     * Serializes a key
+     *
+     * @param key The key
+     * @return The key bytes, which are unique for a key
+     * @throws IOException If the key can't be serialized
+     */
+    protected byte[] serializeKey( K key ) throws IOException
+    {
+        return keySerializer.serialize( key );
+    }
+
+
+    /**
+     * Serializes a value
+     *
+     * @param key The key associated with the value
+     * @param value The value
+     * @return The value bytes
+     * @throws IOException If the value can't be serialized
+     */
+    protected byte[] serializeValue( K key, V value ) throws IOException
+    {
+        return valueSerializer.serialize( value );
+    }
+
+
+    /**
+     * Deserializes a key
+     *
+     * @param key The key bytes
+     * @param value The bytes of the value associated with the key, or null if the
+     * table allows duplicates
+     * @return The key
+     * @throws IOException If the key can't be deserialized
+     */
+    protected K deserializeKey( ByteBuffer key, ByteBuffer value ) throws IOException
+    {
+        return keySerializer.deserialize( key );
+    }
+
+
+    /**
+     * Deserializes a value
+     *
+     * @param value The value bytes
+     * @return The value
+     * @throws IOException If the value can't be deserialized
+     */
+    protected V deserializeValue( ByteBuffer value ) throws IOException
+    {
+        return valueSerializer.deserialize( value );
+    }
+
+
+    // ------------------------------------------------------------------------
+    // Simple Table Key/Value Assertions
+    // ------------------------------------------------------------------------
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean has( PartitionTxn transaction, K key ) throws LdapException
+    {
+        if ( key == null )
+        {
+            return false;
+        }
+
+        try ( TxnScope scope = TxnScope.read( env, transaction ) )
+        {
+            return getKey( scope.get(), serializeKey( key ) ) != null;
+        }
+        catch ( IOException | LmdbException e )
+        {
+            throw new LdapOtherException( e.getMessage(), e );
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean has( PartitionTxn transaction, K key, V value ) throws LdapException
+    {
+        if ( key == null )
+        {
+            return false;
+        }
+
+        try ( TxnScope scope = TxnScope.read( env, transaction ) )
+        {
+            if ( allowsDuplicates )
+            {
+                if ( value == null )
+                {
+                    return false;
+                }
+
+                byte[] keyBytes = serializeKey( key );
+                byte[] prefix = prefix( keyBytes );
+                byte[] valueBytes = serializeValue( key, value );
+                ByteBuffer stored = db.get( scope.get(), toBuffer( recordKey( prefix, valueBytes ), KEY ) );
+
+                return ( stored != null ) && matches( stored, recordData( keyBytes, prefix, valueBytes ) );
+            }
+
+            ByteBuffer stored = getKey( scope.get(), serializeKey( key ) );
+
+            return ( stored != null ) && isEqual( deserializeValue( stored ), value );
+        }
+        catch ( IOException | LmdbException e )
+        {
+            throw new LdapOtherException( e.getMessage(), e );
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean hasGreaterOrEqual( PartitionTxn transaction, K key ) throws LdapException
+    {
+        if ( key == null )
+        {
+            return false;
+        }
+
+        try ( TxnScope scope = TxnScope.read( env, transaction );
+            org.lmdbjava.Cursor<ByteBuffer> cursor = keys().openCursor( scope.get() ) )
+        {
+            return cursor.get( toBuffer( keysKey( serializeKey( key ) ), KEY ), GetOp.MDB_SET_RANGE );
+        }
+        catch ( IOException | LmdbException e )
+        {
+            throw new LdapOtherException( e.getMessage(), e );
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean hasLessOrEqual( PartitionTxn transaction, K key ) throws LdapException
+    {
+        if ( key == null )
+        {
+            return false;
+        }
+
+        try ( TxnScope scope = TxnScope.read( env, transaction );
+            org.lmdbjava.Cursor<ByteBuffer> cursor = keys().openCursor( scope.get() ) )
+        {
+            byte[] keyBytes = keysKey( serializeKey( key ) );
+
+            if ( !cursor.get( toBuffer( keyBytes, KEY ), GetOp.MDB_SET_RANGE ) )
+            {
+                // All the keys are lower
+                return cursor.last();
+            }
+
+            return equals( cursor.key(), keyBytes ) || cursor.prev();
+        }
+        catch ( IOException | LmdbException e )
+        {
+            throw new LdapOtherException( e.getMessage(), e );
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean hasGreaterOrEqual( PartitionTxn transaction, K key, V val ) throws LdapException
+    {
+        if ( key == null )
+        {
+            return false;
+        }
+
+        if ( !allowsDuplicates )
+        {
+            throw new UnsupportedOperationException( I18n.err( I18n.ERR_593 ) );
+        }
+
+        try ( TxnScope scope = TxnScope.read( env, transaction );
+            org.lmdbjava.Cursor<ByteBuffer> cursor = db.openCursor( scope.get() ) )
+        {
+            byte[] prefix = prefix( serializeKey( key ) );
+
+            return cursor.get( toBuffer( recordKey( prefix, serializeValue( key, val ) ), KEY ), GetOp.MDB_SET_RANGE )
+                && startsWith( cursor.key(), prefix );
+        }
+        catch ( IOException | LmdbException e )
+        {
+            throw new LdapOtherException( e.getMessage(), e );
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean hasLessOrEqual( PartitionTxn transaction, K key, V val ) throws LdapException
+    {
+        if ( key == null )
+        {
+            return false;
+        }
+
+        if ( !allowsDuplicates )
+        {
+            throw new UnsupportedOperationException( I18n.err( I18n.ERR_593 ) );
+        }
+
+        try ( TxnScope scope = TxnScope.read( env, transaction );
+            org.lmdbjava.Cursor<ByteBuffer> cursor = db.openCursor( scope.get() ) )
+        {
+            byte[] prefix = prefix( serializeKey( key ) );
+            byte[] recordBytes = recordKey( prefix, serializeValue( key, val ) );
+
+            if ( !cursor.get( toBuffer( recordBytes, KEY ), GetOp.MDB_SET_RANGE ) )
+            {
+                return cursor.last() && startsWith( cursor.key(), prefix );
+            }
+
+            if ( equals( cursor.key(), recordBytes ) )
+            {
+                return true;
+            }
+
+            return cursor.prev() && startsWith( cursor.key(), prefix );
+        }
+        catch ( IOException | LmdbException e )
+        {
+            throw new LdapOtherException( e.getMessage(), e );
+        }
+    }
+
+
+    // ------------------------------------------------------------------------
+    // Table Operations
+    // ------------------------------------------------------------------------
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public V get( PartitionTxn transaction, K key ) throws LdapException
+    {
+        if ( key == null )
+        {
+            return null;
+        }
+
+        try ( TxnScope scope = TxnScope.read( env, transaction ) )
+        {
+            if ( !allowsDuplicates )
+            {
+                ByteBuffer value = getKey( scope.get(), serializeKey( key ) );
+
+                if ( value == null )
+                {
+                    return null;
+                }
+
+                return deserializeValue( value );
+            }
+
+            // Return the first value of the key
+            try ( org.lmdbjava.Cursor<ByteBuffer> cursor = db.openCursor( scope.get() ) )
+            {
+                byte[] prefix = prefix( serializeKey( key ) );
+
+                if ( cursor.get( toBuffer( prefix, KEY ), GetOp.MDB_SET_RANGE ) && startsWith( cursor.key(), prefix ) )
+                {
+                    return readValue( cursor.key(), cursor.val(), prefix.length );
+                }
+
+                return null;
+            }
+        }
+        catch ( IOException | LmdbException e )
+        {
+            throw new LdapOtherException( e.getMessage(), e );
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void put( PartitionTxn transaction, K key, V value ) throws LdapException
+    {
+        if ( LOG.isDebugEnabled() )
+        {
+            LOG.debug( "---> Add {} = {}", name, key );
+        }
+
+        if ( ( value == null ) || ( key == null ) )
+        {
+            throw new IllegalArgumentException( I18n.err( I18n.ERR_594 ) );
+        }
+
+        try ( TxnScope scope = TxnScope.write( env, transaction ) )
+        {
+            Txn<ByteBuffer> txn = scope.get();
+            byte[] keyBytes = serializeKey( key );
+
+            if ( !allowsDuplicates )
+            {
+                if ( keyBytes.length > maxKeySize )
+                {
+                    throw new IOException( "The key is " + keyBytes.length + " bytes long, the table " + name
+                        + " does not accept keys longer than " + maxKeySize + " bytes" );
+                }
+
+                db.put( txn, toBuffer( keyBytes, KEY ), toBuffer( serializeValue( key, value ), VALUE ) );
+            }
+            else
+            {
+                byte[] prefix = prefix( keyBytes );
+                byte[] valueBytes = serializeValue( key, value );
+                byte[] recordKey = recordKey( prefix, valueBytes );
+                byte[] data = recordData( keyBytes, prefix, valueBytes );
+
+                if ( isHashed( keyBytes ) )
+                {
+                    // Another key with the same digest can't be stored
+                    ByteBuffer stored = keysDb.get( txn, toBuffer( prefix, KEY ) );
+
+                    if ( ( stored != null ) && !isStoredKey( stored, keyBytes ) )
+                    {
+                        throw new IOException( "The digest of a key of the table " + name
+                            + " collides with another key" );
+                    }
+                }
+
+                ByteBuffer dataBuffer = ( data == null ) ? EMPTY : toBuffer( data, VALUE );
+
+                if ( db.put( txn, toBuffer( recordKey, KEY ), dataBuffer, PutFlags.MDB_NOOVERWRITE ) )
+                {
+                    // A new value, update the number of values of the key
+                    addCount( txn, keyBytes, prefix, 1L );
+                }
+                else if ( !matches( db.get( txn, toBuffer( recordKey, KEY ) ), data ) )
+                {
+                    throw new IOException( "The digest of a value of the table " + name
+                        + " collides with another value" );
+                }
+            }
+
+            scope.commit();
+        }
+        catch ( IOException | LmdbException e )
+        {
+            LOG.error( I18n.err( I18n.ERR_131, key, name ), e );
+            throw new LdapOtherException( e.getMessage(), e );
+        }
+
+        if ( LOG.isDebugEnabled() )
+        {
+            LOG.debug( "<--- Add ONE {} = {}", name, key );
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void remove( PartitionTxn transaction, K key ) throws LdapException
+    {
+        if ( LOG.isDebugEnabled() )
+        {
+            LOG.debug( "---> Remove {} = {}", name, key );
+        }
+
+        if ( key == null )
+        {
+            return;
+        }
+
+        try ( TxnScope scope = TxnScope.write( env, transaction ) )
+        {
+            Txn<ByteBuffer> txn = scope.get();
+            byte[] keyBytes = serializeKey( key );
+
+            if ( !allowsDuplicates )
+            {
+                if ( keyBytes.length <= maxKeySize )
+                {
+                    db.delete( txn, toBuffer( keyBytes, KEY ) );
+                }
+            }
+            else if ( getKey( txn, keyBytes ) != null )
+            {
+                // Delete all the values of the key
+                byte[] prefix = prefix( keyBytes );
+                keysDb.delete( txn, toBuffer( prefix, KEY ) );
+
+                try ( org.lmdbjava.Cursor<ByteBuffer> cursor = db.openCursor( txn ) )
+                {
+                    boolean found = cursor.get( toBuffer( prefix, KEY ), GetOp.MDB_SET_RANGE );
+
+                    while ( found && startsWith( cursor.key(), prefix ) )
+                    {
+                        cursor.delete();
+                        found = cursor.get( toBuffer( prefix, KEY ), GetOp.MDB_SET_RANGE );
+                    }
+                }
+            }
+
+            scope.commit();
+        }
+        catch ( IOException | LmdbException e )
+        {
+            LOG.error( I18n.err( I18n.ERR_133, key, name ), e );
+            throw new LdapOtherException( e.getMessage(), e );
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void remove( PartitionTxn transaction, K key, V value ) throws LdapException
+    {
+        if ( LOG.isDebugEnabled() )
+        {
+            LOG.debug( "---> Remove {} = {}, {}", name, key, value );
+        }
+
+        if ( key == null )
+        {
+            return;
+        }
+
+        if ( !allowsDuplicates && ( value == null ) )
+        {
+            remove( transaction, key );
+
+            return;
+        }
+
+        try ( TxnScope scope = TxnScope.write( env, transaction ) )
+        {
+            Txn<ByteBuffer> txn = scope.get();
+            byte[] keyBytes = serializeKey( key );
+
+            if ( !allowsDuplicates )
+            {
+                ByteBuffer stored = getKey( txn, keyBytes );
+
+                if ( ( stored != null ) && isEqual( deserializeValue( stored ), value ) )
+                {
+                    db.delete( txn, toBuffer( keyBytes, KEY ) );
+                }
+            }
+            else
+            {
+                byte[] prefix = prefix( keyBytes );
+                byte[] valueBytes = serializeValue( key, value );
+                byte[] recordKey = recordKey( prefix, valueBytes );
+                ByteBuffer stored = db.get( txn, toBuffer( recordKey, KEY ) );
+
+                if ( ( stored != null ) && matches( stored, recordData( keyBytes, prefix, valueBytes ) ) )
+                {
+                    db.delete( txn, toBuffer( recordKey, KEY ) );
+                    addCount( txn, keyBytes, prefix, -1L );
+                }
+            }
+
+            scope.commit();
+        }
+        catch ( IOException | LmdbException e )
+        {
+            LOG.error( I18n.err( I18n.ERR_132, key, value, name ), e );
+            throw new LdapOtherException( e.getMessage(), e );
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Cursor<Tuple<K, V>> cursor()
+    {
+        return cursor( null );
+    }
+
+
+    /**
+     * Creates a Cursor over all the tuples of this table, reading the LMDB transaction of
+     * a partition transaction.
+     *
+     * @param partitionTxn The partition transaction, may be null
+     * @return A Cursor over the tuples
+     */
+    public Cursor<Tuple<K, V>> cursor( PartitionTxn partitionTxn )
+    {
+        return new LmdbCursor<>( this, TxnScope.read( env, partitionTxn ), null );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Cursor<Tuple<K, V>> cursor( PartitionTxn partitionTxn, K key ) throws LdapException
+    {
+        if ( key == null )
+        {
+            return new EmptyCursor<>();
+        }
+
+        if ( !allowsDuplicates )
+        {
+            V value = get( partitionTxn, key );
+
+            if ( value == null )
+            {
+                return new EmptyCursor<>();
+            }
+
+            return new SingletonCursor<>( new Tuple<K, V>( key, value ) );
+        }
+
+        try
+        {
+            return new LmdbCursor<>( this, TxnScope.read( env, partitionTxn ), prefix( serializeKey( key ) ) );
+        }
+        catch ( IOException | LmdbException e )
+        {
+            throw new LdapOtherException( e.getMessage(), e );
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Cursor<V> valueCursor( PartitionTxn transaction, K key ) throws LdapException
+    {
+        if ( key == null )
+        {
+            return new EmptyCursor<>();
+        }
+
+        if ( !allowsDuplicates )
+        {
+            V value = get( transaction, key );
+
+            if ( value == null )
+            {
+                return new EmptyCursor<>();
+            }
+
+            return new SingletonCursor<>( value );
+        }
+
+        try
+        {
+            return new LmdbValueCursor<>( new LmdbCursor<>( this, TxnScope.read( env, transaction ),
+                prefix( serializeKey( key ) ) ), key );
+        }
+        catch ( IOException | LmdbException e )
+        {
+            throw new LdapOtherException( e.getMessage(), e );
+        }
+    }
+
+
+    // ------------------------------------------------------------------------
+    // Count Methods
+    // ------------------------------------------------------------------------
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long count( PartitionTxn transaction ) throws LdapException
+    {
+        try ( TxnScope scope = TxnScope.read( env, transaction ) )
+        {
+            return db.stat( scope.get() ).entries;
+        }
+        catch ( LmdbException le )
+        {
+            throw new LdapOtherException( le.getMessage(), le );
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long count( PartitionTxn transaction, K key ) throws LdapException
+    {
+        if ( key == null )
+        {
+            return 0L;
+        }
+
+        try ( TxnScope scope = TxnScope.read( env, transaction ) )
+        {
+            ByteBuffer stored = getKey( scope.get(), serializeKey( key ) );
+
+            if ( stored == null )
+            {
+                return 0L;
+            }
+
+            return allowsDuplicates ? readLong( stored ) : 1L;
+        }
+        catch ( IOException | LmdbException e )
+        {
+            throw new LdapOtherException( e.getMessage(), e );
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long greaterThanCount( PartitionTxn transaction, K key ) throws LdapException
+    {
+        // take a best guess
+        return Math.min( count( transaction ), 10L );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long lessThanCount( PartitionTxn transaction, K key ) throws LdapException
+    {
+        // take a best guess
+        return Math.min( count( transaction ), 10L );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void close( PartitionTxn transaction ) throws LdapException
+    {
+        // The databases are closed with the environment
+    }
+
+
+    // ------------------------------------------------------------------------
+    // Helper methods, also used by the cursors
+    // ------------------------------------------------------------------------
+    /**
+     * @return The database storing the records
+     */
+    Dbi<ByteBuffer> getDb()
+    {
+        return db;
+    }
+
+
+    /**
+     * Reads the tuple a LMDB cursor is positioned on
+     *
+     * @param key The record key
+     * @param value The record value
+     * @param prefixLength The length of the escaped key, if the table allows duplicates
+     * and the key is known, otherwise -1
+     * @return The tuple
+     * @throws IOException If the tuple can't be deserialized
+     */
+    Tuple<K, V> readTuple( ByteBuffer key, ByteBuffer value, int prefixLength ) throws IOException
+    {
+        if ( !allowsDuplicates )
+        {
+            return new Tuple<>( deserializeKey( key, value ), deserializeValue( value ) );
+        }
+
+        if ( value.hasRemaining() )
+        {
+            // The key or the value were too long, they are stored in the record data
+            int keyLength = readInt( value );
+            ByteBuffer keyBytes = value.duplicate();
+            keyBytes.position( value.position() + 4 ).limit( value.position() + 4 + keyLength );
+            ByteBuffer valueBytes = value.duplicate();
+            valueBytes.position( value.position() + 4 + keyLength );
+
+            return new Tuple<>( deserializeKey( keyBytes, null ), deserializeValue( valueBytes ) );
+        }
+
+        int length = prefixLength;
+
+        if ( length < 0 )
+        {
+            length = prefixLength( key );
+        }
+
+        return new Tuple<>( deserializeKey( unescape( key, length ), null ),
+            deserializeValue( valuePart( key, length ) ) );
+    }
+
+
+    /**
+     * Serializes the record a cursor is positioned before or after
+     *
+     * @param key The key
+     * @param value The value, or null to position the cursor around all the values of the key
+     * @param after <tt>true</tt> if the cursor is positioned after the record
+     * @return The record bytes to look for
+     * @throws IOException If the key or the value can't be serialized
+     */
+    byte[] positionBytes( K key, V value, boolean after ) throws IOException
+    {
+        byte[] keyBytes = serializeKey( key );
+
+        if ( !allowsDuplicates )
+        {
+            return keyBytes;
+        }
+
+        byte[] prefix = prefix( keyBytes );
+
+        if ( value != null )
+        {
+            return recordKey( prefix, serializeValue( key, value ) );
+        }
+
+        return after ? afterPrefix( prefix ) : prefix;
+    }
+
+
+    /**
+     * Builds the escaped form of a key, followed by the end marker. All the records of
+     * this key start with these bytes. A key which escaped form is longer than
+     * {@link #MAX_PREFIX_SIZE} is replaced by its first bytes and its digest.
+     *
+     * @param keyBytes The key bytes
+     * @return The key prefix
+     */
+    static byte[] prefix( byte[] keyBytes )
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream( Math.min( keyBytes.length, MAX_PREFIX_SIZE ) + 4 );
+
+        if ( isHashed( keyBytes ) )
+        {
+            escape( out, keyBytes, KEY_HEAD_SIZE );
+            out.write( ESCAPE );
+            out.write( HASHED );
+
+            byte[] digest = digest( keyBytes );
+            escape( out, digest, digest.length );
+        }
+        else
+        {
+            escape( out, keyBytes, keyBytes.length );
+        }
+
+        out.write( ESCAPE );
+        out.write( KEY_END );
+
+        return out.toByteArray();
+    }
+
+
+    /**
+     * Tells if a key is too long to be stored as is in the records of a table with duplicates
+     *
+     * @param keyBytes The key bytes
+     * @return <tt>true</tt> if the key is replaced by its first bytes and its digest
+     */
+    static boolean isHashed( byte[] keyBytes )
+    {
+        // The escaped key, with its end marker
+        int length = keyBytes.length + 2;
+
+        for ( byte b : keyBytes )
+        {
+            if ( b == ESCAPE )
+            {
+                length++;
+            }
+        }
+
+        return length > MAX_PREFIX_SIZE;
+    }
+
+
+    /**
+     * Builds the LMDB key of a record of a table with duplicates. A record longer than
+     * a LMDB key keeps the first bytes of the value, followed by the digest of the value.
+     *
+     * @param prefix The key prefix
+     * @param valueBytes The value bytes
+     * @return The LMDB key of the record
+     */
+    byte[] recordKey( byte[] prefix, byte[] valueBytes )
+    {
+        if ( prefix.length + valueBytes.length <= maxKeySize )
+        {
+            return record( prefix, valueBytes );
+        }
+
+        int headSize = maxKeySize - prefix.length - DIGEST_SIZE;
+        byte[] recordKey = new byte[maxKeySize];
+        System.arraycopy( prefix, 0, recordKey, 0, prefix.length );
+        System.arraycopy( valueBytes, 0, recordKey, prefix.length, headSize );
+        System.arraycopy( digest( valueBytes ), 0, recordKey, prefix.length + headSize, DIGEST_SIZE );
+
+        return recordKey;
+    }
+
+
+    /**
+     * Builds the smallest record key which is greater than all the records of a key
+     *
+     * @param prefix The key prefix
+     * @return The record key following the records of the key
+     */
+    static byte[] afterPrefix( byte[] prefix )
+    {
+        byte[] after = prefix.clone();
+        after[after.length - 1] = AFTER_KEY;
+
+        return after;
+    }
+
+
+    /**
+     * Copies some bytes in a direct buffer, which can be given to LMDB. The buffer belongs
+     * to the current thread, and is reused by the next call using the same slot.
+     *
+     * @param bytes The bytes to copy
+     * @param slot The buffer slot, {@link #KEY} or {@link #VALUE}
+     * @return The buffer
+     */
+    static ByteBuffer toBuffer( byte[] bytes, int slot )
+    {
+        if ( bytes.length > MAX_BUFFER_SIZE )
+        {
+            ByteBuffer buffer = ByteBuffer.allocateDirect( bytes.length );
+            buffer.put( bytes ).flip();
+
+            return buffer;
+        }
+
+        ByteBuffer[] buffers = BUFFERS.get();
+        ByteBuffer buffer = buffers[slot];
+
+        if ( ( buffer == null ) || ( buffer.capacity() < bytes.length ) )
+        {
+            buffer = ByteBuffer.allocateDirect( Math.max( bytes.length, BUFFER_SIZE ) );
+            buffers[slot] = buffer;
+        }
+
+        buffer.clear();
+        buffer.put( bytes ).flip();
+
+        return buffer;
+    }
+
+
+    /**
+     * Tells if a buffer starts with some bytes
+     *
+     * @param buffer The buffer
+     * @param prefix The bytes
+     * @return <tt>true</tt> if the buffer starts with the bytes
+     */
+    static boolean startsWith( ByteBuffer buffer, byte[] prefix )
+    {
+        if ( buffer.remaining() < prefix.length )
+        {
+            return false;
+        }
+
+        int position = buffer.position();
+
+        for ( int i = 0; i < prefix.length; i++ )
+        {
+            if ( buffer.get( position + i ) != prefix[i] )
+            {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+
+    /**
+     * Tells if a buffer contains some bytes
+     *
+     * @param buffer The buffer
+     * @param bytes The bytes
+     * @return <tt>true</tt> if the buffer contains exactly the bytes
+     */
+    static boolean equals( ByteBuffer buffer, byte[] bytes )
+    {
+        return ( buffer.remaining() == bytes.length ) && startsWith( buffer, bytes );
+    }
+
+
+    /**
+     * @return The database storing one record per key
+     */
+    private Dbi<ByteBuffer> keys()
+    {
+        return allowsDuplicates ? keysDb : db;
+    }
+
+
+    /**
+     * @return The key stored in the database storing one record per key
+     */
+    private byte[] keysKey( byte[] keyBytes )
+    {
+        return allowsDuplicates ? prefix( keyBytes ) : keyBytes;
+    }
+
+
+    /**
+     * Reads the data stored for a key in the database storing one record per key
+     *
+     * @return The data, or null if the key is not stored
+     */
+    private ByteBuffer getKey( Txn<ByteBuffer> txn, byte[] keyBytes )
+    {
+        if ( !allowsDuplicates )
+        {
+            // A key too long can't be stored
+            return ( keyBytes.length > maxKeySize ) ? null : db.get( txn, toBuffer( keyBytes, KEY ) );
+        }
+
+        ByteBuffer stored = keysDb.get( txn, toBuffer( prefix( keyBytes ), KEY ) );
+
+        if ( ( stored != null ) && isHashed( keyBytes ) && !isStoredKey( stored, keyBytes ) )
+        {
+            // Another key with the same digest
+            return null;
+        }
+
+        return stored;
+    }
+
+
+    /**
+     * Tells if the number of values of a hashed key, followed by the key, is stored for a key
+     */
+    private static boolean isStoredKey( ByteBuffer stored, byte[] keyBytes )
+    {
+        ByteBuffer storedKey = stored.duplicate();
+        storedKey.position( stored.position() + 8 );
+
+        return equals( storedKey, keyBytes );
+    }
+
+
+    /**
+     * Builds the data of a record of a table with duplicates : nothing when the key and the
+     * value can be read from the record key, otherwise the key length, the key and the value.
+     *
+     * @return The record data, or null if it is empty
+     */
+    private byte[] recordData( byte[] keyBytes, byte[] prefix, byte[] valueBytes )
+    {
+        if ( ( prefix.length + valueBytes.length <= maxKeySize ) && !isHashed( keyBytes ) )
+        {
+            return null;
+        }
+
+        byte[] data = new byte[4 + keyBytes.length + valueBytes.length];
+        ByteBuffer.wrap( data ).putInt( keyBytes.length ).put( keyBytes ).put( valueBytes );
+
+        return data;
+    }
+
+
+    /**
+     * Tells if the data of a record are the expected ones, a record which key and value
+     * are too long being found when another one has the same digest
+     */
+    private static boolean matches( ByteBuffer stored, byte[] data )
+    {
+        if ( data == null )
+        {
+            return !stored.hasRemaining();
+        }
+
+        return equals( stored, data );
+    }
+
+
+    /**
+     * Reads the value of a record of a table with duplicates
+     */
+    private V readValue( ByteBuffer key, ByteBuffer data, int prefixLength ) throws IOException
+    {
+        if ( data.hasRemaining() )
+        {
+            ByteBuffer value = data.duplicate();
+            value.position( data.position() + 4 + readInt( data ) );
+
+            return deserializeValue( value );
+        }
+
+        return deserializeValue( valuePart( key, prefixLength ) );
+    }
+
+
+    private boolean isEqual( V stored, V value )
+    {
+        if ( valueComparator != null )
+        {
+            return valueComparator.compare( stored, value ) == 0;
+        }
+
+        return stored.equals( value );
+    }
+
+
+    /**
+     * Adds a delta to the number of values of a key, removing the key when it has no value.
+     * The number of values of a hashed key is followed by the key.
+     */
+    private void addCount( Txn<ByteBuffer> txn, byte[] keyBytes, byte[] prefix, long delta )
+    {
+        ByteBuffer stored = keysDb.get( txn, toBuffer( prefix, KEY ) );
+        long nbValues = delta;
+
+        if ( stored != null )
+        {
+            nbValues += readLong( stored );
+        }
+
+        if ( nbValues <= 0L )
+        {
+            keysDb.delete( txn, toBuffer( prefix, KEY ) );
+
+            return;
+        }
+
+        byte[] data = new byte[isHashed( keyBytes ) ? 8 + keyBytes.length : 8];
+        ByteBuffer.wrap( data ).putLong( nbValues );
+
+        if ( data.length > 8 )
+        {
+            System.arraycopy( keyBytes, 0, data, 8, keyBytes.length );
+        }
+
+        keysDb.put( txn, toBuffer( prefix, KEY ), toBuffer( data, VALUE ) );
+    }
+
+
+    /**
+     * Writes the escaped form of the first bytes of a key
+     */
+    private static void escape( ByteArrayOutputStream out, byte[] bytes, int length )
+    {
+        for ( int i = 0; i < length; i++ )
+        {
+            byte b = bytes[i];
+            out.write( b );
+
+            if ( b == ESCAPE )
+            {
+                out.write( ESCAPED_ZERO );
+            }
+        }
+    }
+
+
+    /**
+     * Computes the SHA-256 digest of a key or a value too long to be stored in a LMDB key
+     */
+    private static byte[] digest( byte[] bytes )
+    {
+        try
+        {
+            return MessageDigest.getInstance( "SHA-256" ).digest( bytes );
+        }
+        catch ( NoSuchAlgorithmException nsae )
+        {
+            // Every Java platform supports SHA-256
+            throw new IllegalStateException( nsae.getMessage(), nsae );
+        }
+    }
+
+
+    private static byte[] record( byte[] prefix, byte[] valueBytes )
+    {
+        byte[] record = new byte[prefix.length + valueBytes.length];
+        System.arraycopy( prefix, 0, record, 0, prefix.length );
+        System.arraycopy( valueBytes, 0, record, prefix.length, valueBytes.length );
+
+        return record;
+    }
+
+
+    private static int readInt( ByteBuffer buffer )
+    {
+        int value = 0;
+        int position = buffer.position();
+
+        for ( int i = 0; i < 4; i++ )
+        {
+            value = ( value << 8 ) | ( buffer.get( position + i ) & 0xFF );
+        }
+
+        return value;
+    }
+
+
+    private static long readLong( ByteBuffer buffer )
+    {
+        long value = 0L;
+        int position = buffer.position();
+
+        // The buffers mapped by LMDB may not be big endian, the bytes are read one by one
+        for ( int i = 0; i < 8; i++ )
+        {
+            value = ( value << 8 ) | ( buffer.get( position + i ) & 0xFFL );
+        }
+
+        return value;
+    }
+
+
+    /**
+     * Finds the length of the escaped key at the beginning of a record, end marker included
+     */
+    private static int prefixLength( ByteBuffer record ) throws IOException
+    {
+        int position = record.position();
+        int limit = record.limit();
+
+        for ( int i = position; i < limit - 1; i++ )
+        {
+            if ( record.get( i ) == ESCAPE )
+            {
+                if ( record.get( i + 1 ) == KEY_END )
+                {
+                    return i + 2 - position;
+                }
+
+                // Skip the escaped 0x00
+                i++;
+            }
+        }
+
+        throw new IOException( "Invalid record, the key end has not been found" );
+    }
+
+
+    /**
+     * Gets the key bytes of a record, without copying them if they don't contain any 0x00
+     */
+    private static ByteBuffer unescape( ByteBuffer record, int prefixLength )
+    {
+        int position = record.position();
+        int keyLength = prefixLength - 2;
+        int nbEscaped = 0;
+
+        for ( int i = position; i < position + keyLength; i++ )
+        {
+            if ( record.get( i ) == ESCAPE )
+            {
+                nbEscaped++;
+                i++;
+            }
+        }
+
+        if ( nbEscaped == 0 )
+        {
+            ByteBuffer key = record.duplicate();
+            key.limit( position + keyLength );
+
+            return key;
+        }
+
+        ByteBuffer key = ByteBuffer.allocate( keyLength - nbEscaped );
+
+        for ( int i = position; i < position + keyLength; i++ )
+        {
+            byte b = record.get( i );
+            key.put( b );
+
+            if ( b == ESCAPE )
+            {
+                // Skip the 0xFF following the escaped 0x00
+                i++;
+            }
+        }
+
+        key.flip();
+
+        return key;
+    }
+
+
+    /**
+     * Gets the value bytes of a record, without copying them
+     */
+    private static ByteBuffer valuePart( ByteBuffer record, int prefixLength )
+    {
+        ByteBuffer value = record.duplicate();
+        value.position( record.position() + prefixLength );
+
+        return value;
+    }
+}
@@ -0,0 +1,223 @@
+/*
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *   or more contributor license agreements.  See the NOTICE file
+ *   distributed with this work for additional information
+ *   regarding copyright ownership.  The ASF licenses this file
+ *   to you under the Apache License, Version 2.0 (the
+ *   "License"); you may not use this file except in compliance
+ *   with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing,
+ *   software distributed under the License is distributed on an
+ *   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *   KIND, either express or implied.  See the License for the
+ *   specific language governing permissions and limitations
+ *   under the License.
+ *
+ */
+package org.apache.directory.server.core.partition.impl.btree.lmdb;
+
+
+import java.io.IOException;
+
+import org.apache.directory.api.ldap.model.constants.Loggers;
+import org.apache.directory.api.ldap.model.cursor.AbstractCursor;
+import org.apache.directory.api.ldap.model.cursor.CursorException;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * Cursor over the values of a key of a {@link LmdbTable} allowing duplicates.
+ *
+ * @param <K> The key
+ * @param <V> The stored value
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class LmdbValueCursor<K, V> extends AbstractCursor<V>
+{
+    /** A dedicated log for cursors */
+    private static final Logger LOG_CURSOR = LoggerFactory.getLogger( Loggers.CURSOR_LOG.getName() );
+
+    /** Speedup for logs */
+    private static final boolean IS_DEBUG = LOG_CURSOR.isDebugEnabled();
+
+    /** The cursor over the tuples of the key */
+    private final LmdbCursor<K, V> wrapped;
+
+    /** The key */
+    private final K key;
+
+
+    /**
+     * Creates a Cursor over the values of a key.
+     *
+     * @param wrapped the cursor over the tuples of the key
+     * @param key the key
+     */
+    LmdbValueCursor( LmdbCursor<K, V> wrapped, K key )
+    {
+        if ( IS_DEBUG )
+        {
+            LOG_CURSOR.debug( "Creating LmdbValueCursor {}", this );
+        }
+
+        this.wrapped = wrapped;
+        this.key = key;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean available()
+    {
+        return wrapped.available();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public void before( V element ) throws LdapException, CursorException
+    {
+        checkNotClosed();
+
+        if ( element == null )
+        {
+            wrapped.beforeFirst();
+        }
+        else
+        {
+            wrapped.beforeValue( key, element );
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public void after( V element ) throws LdapException, CursorException
+    {
+        checkNotClosed();
+
+        if ( element == null )
+        {
+            wrapped.afterLast();
+        }
+        else
+        {
+            wrapped.afterValue( key, element );
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public void beforeFirst() throws LdapException, CursorException
+    {
+        checkNotClosed();
+        wrapped.beforeFirst();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public void afterLast() throws LdapException, CursorException
+    {
+        checkNotClosed();
+        wrapped.afterLast();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean first() throws LdapException, CursorException
+    {
+        checkNotClosed();
+
+        return wrapped.first();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean last() throws LdapException, CursorException
+    {
+        checkNotClosed();
+
+        return wrapped.last();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean previous() throws LdapException, CursorException
+    {
+        checkNotClosed();
+
+        return wrapped.previous();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean next() throws LdapException, CursorException
+    {
+        checkNotClosed();
+
+        return wrapped.next();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public V get() throws CursorException
+    {
+        checkNotClosed();
+
+        return wrapped.get().getValue();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void close() throws IOException
+    {
+        if ( IS_DEBUG )
+        {
+            LOG_CURSOR.debug( "Closing LmdbValueCursor {}", this );
+        }
+
+        wrapped.close();
+        super.close();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void close( Exception cause ) throws IOException
+    {
+        if ( IS_DEBUG )
+        {
+            LOG_CURSOR.debug( "Closing LmdbValueCursor {}", this );
+        }
+
+        wrapped.close( cause );
+        super.close( cause );
+    }
+}
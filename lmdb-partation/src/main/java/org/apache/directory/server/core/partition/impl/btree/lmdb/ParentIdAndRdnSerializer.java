@@ -0,0 +1,195 @@
+/*
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *   or more contributor license agreements.  See the NOTICE file
+ *   distributed with this work for additional information
+ *   regarding copyright ownership.  The ASF licenses this file
+ *   to you under the Apache License, Version 2.0 (the
+ *   "License"); you may not use this file except in compliance
+ *   with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing,
+ *   software distributed under the License is distributed on an
+ *   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *   KIND, either express or implied.  See the License for the
+ *   specific language governing permissions and limitations
+ *   under the License.
+ *
+ */
+package org.apache.directory.server.core.partition.impl.btree.lmdb;
+
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutput;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import org.apache.directory.api.ldap.model.name.Rdn;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.server.i18n.I18n;
+import org.apache.directory.server.xdbm.ParentIdAndRdn;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * Serialize and deserialize a ParentIdAndRdn, with its Rdns, its parent ID and its
+ * number of children and descendants.
+ * <br>
+ * As the number of children and descendants are not part of the identity of a
+ * ParentIdAndRdn, this serialization can't be used as a key : the keys of the Rdn index
+ * are built by {@link #serializeKey(ParentIdAndRdn)}.
+ * <br><br>
+ * <b>This class must *not* be used outside of the server.</b>
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class ParentIdAndRdnSerializer implements LmdbSerializer<ParentIdAndRdn>
+{
+    /** the logger for this class */
+    private static final Logger LOG = LoggerFactory.getLogger( ParentIdAndRdnSerializer.class );
+
+    /** The byte separating the Rdns in a key */
+    private static final byte RDN_SEPARATOR = 0x00;
+
+    /** The schemaManager reference */
+    private final SchemaManager schemaManager;
+
+
+    /**
+     * Creates a new instance of ParentIdAndRdnSerializer.
+     *
+     * @param schemaManager The reference to the global schemaManager
+     */
+    public ParentIdAndRdnSerializer( SchemaManager schemaManager )
+    {
+        this.schemaManager = schemaManager;
+    }
+
+
+    /**
+     * Builds the key of a ParentIdAndRdn : its parent ID, then the number of Rdns and their
+     * normalized form. The keys are sorted by parent ID and number of Rdns, like the
+     * ParentIdAndRdn themselves, so that all the children of an entry are stored together.
+     * A ParentIdAndRdn without any Rdn is stored before all the children of its parent.
+     *
+     * @param parentIdAndRdn The ParentIdAndRdn
+     * @return The key
+     * @throws IOException If the parent ID is not a valid UUID
+     */
+    public byte[] serializeKey( ParentIdAndRdn parentIdAndRdn ) throws IOException
+    {
+        Rdn[] rdns = parentIdAndRdn.getRdns();
+
+        if ( rdns == null )
+        {
+            return UuidSerializer.INSTANCE.serialize( parentIdAndRdn.getParentId() );
+        }
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream( 64 );
+        baos.write( UuidSerializer.INSTANCE.serialize( parentIdAndRdn.getParentId() ) );
+        baos.write( rdns.length );
+
+        for ( int i = 0; i < rdns.length; i++ )
+        {
+            if ( i > 0 )
+            {
+                baos.write( RDN_SEPARATOR );
+            }
+
+            baos.write( rdns[i].getNormName().getBytes( StandardCharsets.UTF_8 ) );
+        }
+
+        return baos.toByteArray();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public byte[] serialize( ParentIdAndRdn parentIdAndRdn ) throws IOException
+    {
+        try ( ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            ObjectOutput out = new ObjectOutputStream( baos ) )
+        {
+            // First, the Rdns
+            Rdn[] rdns = parentIdAndRdn.getRdns();
+
+            if ( ( rdns == null ) || ( rdns.length == 0 ) )
+            {
+                out.writeByte( 0 );
+            }
+            else
+            {
+                out.writeByte( rdns.length );
+
+                for ( Rdn rdn : rdns )
+                {
+                    rdn.writeExternal( out );
+                }
+            }
+
+            // Then the parentId.
+            out.writeUTF( parentIdAndRdn.getParentId() );
+
+            // The number of children
+            out.writeInt( parentIdAndRdn.getNbChildren() );
+
+            // The number of descendants
+            out.writeInt( parentIdAndRdn.getNbDescendants() );
+
+            out.flush();
+
+            return baos.toByteArray();
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public ParentIdAndRdn deserialize( ByteBuffer buffer ) throws IOException
+    {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.duplicate().get( bytes );
+
+        try ( ObjectInputStream in = new ObjectInputStream( new ByteArrayInputStream( bytes ) ) )
+        {
+            ParentIdAndRdn parentIdAndRdn = new ParentIdAndRdn();
+
+            // Read the number of rdns, if any
+            byte nbRdns = in.readByte();
+            Rdn[] rdns = new Rdn[nbRdns];
+
+            for ( int i = 0; i < nbRdns; i++ )
+            {
+                Rdn rdn = new Rdn( schemaManager );
+                rdn.readExternal( in );
+                rdns[i] = rdn;
+            }
+
+            parentIdAndRdn.setRdns( rdns );
+
+            // Read the parent ID
+            parentIdAndRdn.setParentId( in.readUTF() );
+
+            // Read the number of children and descendants
+            parentIdAndRdn.setNbChildren( in.readInt() );
+            parentIdAndRdn.setNbDescendants( in.readInt() );
+
+            return parentIdAndRdn;
+        }
+        catch ( ClassNotFoundException cnfe )
+        {
+            LOG.error( I18n.err( I18n.ERR_134, cnfe.getLocalizedMessage() ) );
+            throw new IOException( cnfe.getLocalizedMessage() );
+        }
+    }
+}
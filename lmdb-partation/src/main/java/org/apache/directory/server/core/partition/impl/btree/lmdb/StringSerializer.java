@@ -0,0 +1,77 @@
+/*
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *   or more contributor license agreements.  See the NOTICE file
+ *   distributed with this work for additional information
+ *   regarding copyright ownership.  The ASF licenses this file
+ *   to you under the Apache License, Version 2.0 (the
+ *   "License"); you may not use this file except in compliance
+ *   with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing,
+ *   software distributed under the License is distributed on an
+ *   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *   KIND, either express or implied.  See the License for the
+ *   specific language governing permissions and limitations
+ *   under the License.
+ *
+ */
+package org.apache.directory.server.core.partition.impl.btree.lmdb;
+
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+
+/**
+ * Serializes a String in UTF-8. The UTF-8 bytes are sorted in the code point order of
+ * the Strings.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class StringSerializer implements LmdbSerializer<String>
+{
+    /** A static instance of a StringSerializer */
+    public static final StringSerializer INSTANCE = new StringSerializer();
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public byte[] serialize( String element )
+    {
+        return element.getBytes( StandardCharsets.UTF_8 );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String deserialize( ByteBuffer buffer )
+    {
+        int length = buffer.remaining();
+        int position = buffer.position();
+        char[] chars = new char[length];
+
+        // Most of the values are ASCII ones, which can be decoded without any copy
+        for ( int i = 0; i < length; i++ )
+        {
+            byte b = buffer.get( position + i );
+
+            if ( b < 0 )
+            {
+                byte[] bytes = new byte[length];
+                buffer.duplicate().get( bytes );
+
+                return new String( bytes, StandardCharsets.UTF_8 );
+            }
+
+            chars[i] = ( char ) b;
+        }
+
+        return new String( chars );
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *   or more contributor license agreements.  See the NOTICE file
+ *   distributed with this work for additional information
+ *   regarding copyright ownership.  The ASF licenses this file
+ *   to you under the Apache License, Version 2.0 (the
+ *   "License"); you may not use this file except in compliance
+ *   with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing,
+ *   software distributed under the License is distributed on an
+ *   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *   KIND, either express or implied.  See the License for the
+ *   specific language governing permissions and limitations
+ *   under the License.
+ *
+ */
+package org.apache.directory.server.core.partition.impl.btree.lmdb;
+
+
+import java.nio.ByteBuffer;
+
+import org.apache.directory.server.core.api.partition.PartitionTxn;
+import org.lmdbjava.Env;
+import org.lmdbjava.Txn;
+
+
+/**
+ * The LMDB transaction used by a table operation. It's the transaction of the partition
+ * transaction given to the operation if there is one and it's still opened, otherwise a
+ * transaction is opened for this operation only, and closed with the scope.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+final class TxnScope implements AutoCloseable
+{
+    /** The LMDB transaction */
+    private final Txn<ByteBuffer> txn;
+
+    /** Tells if the transaction has been opened for this scope */
+    private final boolean owned;
+
+
+    private TxnScope( Txn<ByteBuffer> txn, boolean owned )
+    {
+        this.txn = txn;
+        this.owned = owned;
+    }
+
+
+    /**
+     * Gets a scope to read a table
+     *
+     * @param env The LMDB environment
+     * @param partitionTxn The partition transaction, may be null
+     * @return The scope
+     */
+    static TxnScope read( Env<ByteBuffer> env, PartitionTxn partitionTxn )
+    {
+        Txn<ByteBuffer> txn = null;
+
+        if ( partitionTxn instanceof LmdbPartitionWriteTxn )
+        {
+            txn = ( ( LmdbPartitionWriteTxn ) partitionTxn ).getTxn();
+        }
+        else if ( partitionTxn instanceof LmdbPartitionReadTxn )
+        {
+            txn = ( ( LmdbPartitionReadTxn ) partitionTxn ).getTxn();
+        }
+
+        if ( txn == null )
+        {
+            // Read what the current thread is writing, if it is
+            txn = LmdbPartitionWriteTxn.current( env );
+        }
+
+        if ( txn != null )
+        {
+            return new TxnScope( txn, false );
+        }
+
+        return new TxnScope( env.txnRead(), true );
+    }
+
+
+    /**
+     * Gets a scope to modify a table
+     *
+     * @param env The LMDB environment
+     * @param partitionTxn The partition transaction, may be null
+     * @return The scope
+     */
+    static TxnScope write( Env<ByteBuffer> env, PartitionTxn partitionTxn )
+    {
+        Txn<ByteBuffer> txn = null;
+
+        if ( partitionTxn instanceof LmdbPartitionWriteTxn )
+        {
+            txn = ( ( LmdbPartitionWriteTxn ) partitionTxn ).getTxn();
+        }
+
+        if ( txn == null )
+        {
+            txn = LmdbPartitionWriteTxn.current( env );
+        }
+
+        if ( txn != null )
+        {
+            return new TxnScope( txn, false );
+        }
+
+        return new TxnScope( env.txnWrite(), true );
+    }
+
+
+    /**
+     * @return The LMDB transaction
+     */
+    Txn<ByteBuffer> get()
+    {
+        return txn;
+    }
+
+
+    /**
+     * Commits the transaction if it has been opened for this scope. Otherwise, the
+     * changes are committed with the partition transaction.
+     */
+    void commit()
+    {
+        if ( owned )
+        {
+            txn.commit();
+        }
+    }
+
+
+    /**
+     * Closes the transaction if it has been opened for this scope. It's aborted if it
+     * has not been committed.
+     */
+    @Override
+    public void close()
+    {
+        if ( owned )
+        {
+            txn.close();
+        }
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *   or more contributor license agreements.  See the NOTICE file
+ *   distributed with this work for additional information
+ *   regarding copyright ownership.  The ASF licenses this file
+ *   to you under the Apache License, Version 2.0 (the
+ *   "License"); you may not use this file except in compliance
+ *   with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing,
+ *   software distributed under the License is distributed on an
+ *   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *   KIND, either express or implied.  See the License for the
+ *   specific language governing permissions and limitations
+ *   under the License.
+ *
+ */
+package org.apache.directory.server.core.partition.impl.btree.lmdb;
+
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.UUID;
+
+
+/**
+ * Serializes the entry IDs, which are UUIDs, on 16 bytes. The bytes are sorted in the
+ * order of the UUID Strings, as the hexadecimal digits are in the ASCII order.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class UuidSerializer implements LmdbSerializer<String>
+{
+    /** A static instance of a UuidSerializer */
+    public static final UuidSerializer INSTANCE = new UuidSerializer();
+
+    /** The size of a serialized UUID */
+    public static final int UUID_SIZE = 16;
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public byte[] serialize( String element ) throws IOException
+    {
+        byte[] bytes = new byte[UUID_SIZE];
+
+        write( element, bytes, 0 );
+
+        return bytes;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String deserialize( ByteBuffer buffer ) throws IOException
+    {
+        return read( buffer, buffer.position() );
+    }
+
+
+    /**
+     * Writes a UUID in an array
+     *
+     * @param uuid The UUID to write
+     * @param bytes The array
+     * @param offset The position of the UUID in the array
+     * @throws IOException If the String is not a UUID
+     */
+    static void write( String uuid, byte[] bytes, int offset ) throws IOException
+    {
+        UUID value;
+
+        try
+        {
+            value = UUID.fromString( uuid );
+        }
+        catch ( IllegalArgumentException iae )
+        {
+            throw new IOException( iae.getMessage(), iae );
+        }
+
+        writeLong( value.getMostSignificantBits(), bytes, offset );
+        writeLong( value.getLeastSignificantBits(), bytes, offset + 8 );
+    }
+
+
+    /**
+     * Reads a UUID from a buffer, without modifying its position
+     *
+     * @param buffer The buffer
+     * @param position The position of the UUID in the buffer
+     * @return The UUID String
+     * @throws IOException If the buffer is too small
+     */
+    static String read( ByteBuffer buffer, int position ) throws IOException
+    {
+        if ( buffer.limit() - position < UUID_SIZE )
+        {
+            throw new IOException( "Invalid serialized UUID" );
+        }
+
+        return new UUID( readLong( buffer, position ), readLong( buffer, position + 8 ) ).toString();
+    }
+
+
+    private static void writeLong( long value, byte[] bytes, int offset )
+    {
+        for ( int i = 0; i < 8; i++ )
+        {
+            bytes[offset + i] = ( byte ) ( value >>> ( 56 - i * 8 ) );
+        }
+    }
+
+
+    private static long readLong( ByteBuffer buffer, int position )
+    {
+        long value = 0L;
+
+        // The buffers mapped by LMDB may not be big endian, the bytes are read one by one
+        for ( int i = 0; i < 8; i++ )
+        {
+            value = ( value << 8 ) | ( buffer.get( position + i ) & 0xFFL );
+        }
+
+        return value;
+    }
+}
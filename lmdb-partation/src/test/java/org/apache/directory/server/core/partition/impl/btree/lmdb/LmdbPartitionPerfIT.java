@@ -0,0 +1,241 @@
+/*
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *   or more contributor license agreements.  See the NOTICE file
+ *   distributed with this work for additional information
+ *   regarding copyright ownership.  The ASF licenses this file
+ *   to you under the Apache License, Version 2.0 (the
+ *   "License"); you may not use this file except in compliance
+ *   with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing,
+ *   software distributed under the License is distributed on an
+ *   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *   KIND, either express or implied.  See the License for the
+ *   specific language governing permissions and limitations
+ *   under the License.
+ *
+ */
+package org.apache.directory.server.core.partition.impl.btree.lmdb;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import org.apache.directory.api.ldap.model.constants.SchemaConstants;
+import org.apache.directory.api.ldap.model.csn.CsnFactory;
+import org.apache.directory.api.ldap.model.cursor.Cursor;
+import org.apache.directory.api.ldap.model.entry.DefaultEntry;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.api.ldap.schema.extractor.SchemaLdifExtractor;
+import org.apache.directory.api.ldap.schema.extractor.impl.DefaultSchemaLdifExtractor;
+import org.apache.directory.api.ldap.schema.loader.LdifSchemaLoader;
+import org.apache.directory.api.ldap.schema.manager.impl.DefaultSchemaManager;
+import org.apache.directory.api.util.FileUtils;
+import org.apache.directory.api.util.exception.Exceptions;
+import org.apache.directory.server.core.api.CacheService;
+import org.apache.directory.server.core.api.DnFactory;
+import org.apache.directory.server.core.api.interceptor.context.AddOperationContext;
+import org.apache.directory.server.core.api.partition.PartitionTxn;
+import org.apache.directory.server.core.partition.impl.btree.AbstractBTreePartition;
+import org.apache.directory.server.core.partition.impl.btree.jdbm.JdbmIndex;
+import org.apache.directory.server.core.partition.impl.btree.jdbm.JdbmPartition;
+import org.apache.directory.server.core.shared.DefaultDnFactory;
+import org.apache.directory.server.xdbm.Index;
+import org.apache.directory.server.xdbm.IndexEntry;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+
+/**
+ * Compares the lookup and the indexed search performances of the LMDB and JDBM partitions,
+ * with the entry cache disabled so that the entries are read from the database. It's not
+ * run with the unit tests : run it with -Dtest=LmdbPartitionPerfIT.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class LmdbPartitionPerfIT
+{
+    /** The number of entries in each partition */
+    private static final int NB_ENTRIES = 20000;
+
+    /** The number of times the entries are read */
+    private static final int NB_ROUNDS = 5;
+
+    private static SchemaManager schemaManager;
+    private static DnFactory dnFactory;
+    private static Path tempDir;
+
+
+    @BeforeClass
+    public static void setup() throws Exception
+    {
+        tempDir = Files.createTempDirectory( LmdbPartitionPerfIT.class.getSimpleName() );
+
+        File schemaRepository = new File( tempDir.toFile(), "schema" );
+        SchemaLdifExtractor extractor = new DefaultSchemaLdifExtractor( tempDir.toFile() );
+        extractor.extractOrCopy( true );
+        schemaManager = new DefaultSchemaManager( new LdifSchemaLoader( schemaRepository ) );
+
+        if ( !schemaManager.loadAllEnabled() )
+        {
+            fail( "Schema load failed : " + Exceptions.printErrors( schemaManager.getErrors() ) );
+        }
+
+        CacheService cacheService = new CacheService();
+        cacheService.initialize( null );
+        dnFactory = new DefaultDnFactory( schemaManager, cacheService.getCache( "dnCache", String.class, Dn.class ) );
+    }
+
+
+    @AfterClass
+    public static void cleanup() throws Exception
+    {
+        FileUtils.deleteDirectory( tempDir.toFile() );
+    }
+
+
+    @Test
+    public void testLookupAndSearch() throws Exception
+    {
+        LmdbPartition lmdbPartition = new LmdbPartition( schemaManager, dnFactory );
+        lmdbPartition.addIndex( new LmdbIndex<String>( SchemaConstants.CN_AT_OID, false ) );
+        run( "LMDB", lmdbPartition );
+
+        JdbmPartition jdbmPartition = new JdbmPartition( schemaManager, dnFactory );
+        jdbmPartition.addIndex( new JdbmIndex<String>( SchemaConstants.CN_AT_OID, false ) );
+        run( "JDBM", jdbmPartition );
+    }
+
+
+    private void run( String name, AbstractBTreePartition partition ) throws Exception
+    {
+        partition.setId( name.toLowerCase() );
+        partition.setPartitionPath( new File( tempDir.toFile(), name ).toURI() );
+        partition.setSyncOnWrite( false );
+        partition.setSuffixDn( new Dn( schemaManager, "dc=example,dc=com" ) );
+        partition.initialize();
+
+        try
+        {
+            List<String> ids = load( partition );
+            Index<String, String> cnIndex = ( Index<String, String> ) partition.getUserIndex(
+                schemaManager.getAttributeType( SchemaConstants.CN_AT ) );
+
+            // Warm up the JVM and the file system cache
+            lookup( partition, ids );
+
+            long t0 = System.nanoTime();
+
+            for ( int i = 0; i < NB_ROUNDS; i++ )
+            {
+                lookup( partition, ids );
+            }
+
+            long t1 = System.nanoTime();
+
+            for ( int i = 0; i < NB_ROUNDS; i++ )
+            {
+                search( partition, cnIndex );
+            }
+
+            long t2 = System.nanoTime();
+
+            System.out.println( name + " : " + ( NB_ROUNDS * NB_ENTRIES * 1000L ) / ( ( t1 - t0 ) / 1000L )
+                + " lookups/s, " + ( NB_ROUNDS * NB_ENTRIES * 1000L ) / ( ( t2 - t1 ) / 1000L )
+                + " searched entries/s" );
+        }
+        finally
+        {
+            partition.destroy( null );
+        }
+    }
+
+
+    private List<String> load( AbstractBTreePartition partition ) throws Exception
+    {
+        List<String> ids = new ArrayList<>( NB_ENTRIES );
+        CsnFactory csnFactory = new CsnFactory( 0 );
+
+        PartitionTxn partitionTxn = partition.beginWriteTransaction();
+        add( partition, partitionTxn, new DefaultEntry( schemaManager, "dc=example,dc=com",
+            "objectClass: top",
+            "objectClass: domain",
+            "dc: example",
+            SchemaConstants.ENTRY_CSN_AT, csnFactory.newInstance().toString(),
+            SchemaConstants.ENTRY_UUID_AT, UUID.randomUUID().toString() ) );
+
+        for ( int i = 0; i < NB_ENTRIES; i++ )
+        {
+            String uuid = UUID.randomUUID().toString();
+            add( partition, partitionTxn, new DefaultEntry( schemaManager, "cn=user" + i + ",dc=example,dc=com",
+                "objectClass: top",
+                "objectClass: person",
+                "cn: user" + i,
+                "sn: user " + i,
+                "description: a person entry, stored in the " + partition.getId() + " partition",
+                SchemaConstants.ENTRY_CSN_AT, csnFactory.newInstance().toString(),
+                SchemaConstants.ENTRY_UUID_AT, uuid ) );
+            ids.add( uuid );
+        }
+
+        partitionTxn.commit();
+        partition.sync();
+
+        return ids;
+    }
+
+
+    private void add( AbstractBTreePartition partition, PartitionTxn partitionTxn, Entry entry ) throws Exception
+    {
+        AddOperationContext addContext = new AddOperationContext( null, entry );
+        addContext.setPartition( partition );
+        addContext.setTransaction( partitionTxn );
+        partition.add( addContext );
+    }
+
+
+    private void lookup( AbstractBTreePartition partition, List<String> ids ) throws Exception
+    {
+        try ( PartitionTxn partitionTxn = partition.beginReadTransaction() )
+        {
+            for ( String id : ids )
+            {
+                // Read the master table, the entry cache is not used
+                assertNotNull( partition.getMasterTable().get( partitionTxn, id ) );
+            }
+        }
+    }
+
+
+    private void search( AbstractBTreePartition partition, Index<String, String> cnIndex ) throws Exception
+    {
+        int count = 0;
+
+        try ( PartitionTxn partitionTxn = partition.beginReadTransaction();
+            Cursor<IndexEntry<String, String>> cursor = cnIndex.forwardCursor( partitionTxn ) )
+        {
+            while ( cursor.next() )
+            {
+                if ( partition.getMasterTable().get( partitionTxn, cursor.get().getId() ) != null )
+                {
+                    count++;
+                }
+            }
+        }
+
+        assertEquals( NB_ENTRIES, count );
+    }
+}
@@ -0,0 +1,354 @@
+/*
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *   or more contributor license agreements.  See the NOTICE file
+ *   distributed with this work for additional information
+ *   regarding copyright ownership.  The ASF licenses this file
+ *   to you under the Apache License, Version 2.0 (the
+ *   "License"); you may not use this file except in compliance
+ *   with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing,
+ *   software distributed under the License is distributed on an
+ *   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *   KIND, either express or implied.  See the License for the
+ *   specific language governing permissions and limitations
+ *   under the License.
+ *
+ */
+package org.apache.directory.server.core.partition.impl.btree.lmdb;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.UUID;
+
+import org.apache.directory.api.ldap.model.constants.SchemaConstants;
+import org.apache.directory.api.ldap.model.csn.CsnFactory;
+import org.apache.directory.api.ldap.model.entry.DefaultEntry;
+import org.apache.directory.api.ldap.model.entry.DefaultModification;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.entry.ModificationOperation;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.model.name.Rdn;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.api.ldap.schema.extractor.SchemaLdifExtractor;
+import org.apache.directory.api.ldap.schema.extractor.impl.DefaultSchemaLdifExtractor;
+import org.apache.directory.api.ldap.schema.loader.LdifSchemaLoader;
+import org.apache.directory.api.ldap.schema.manager.impl.DefaultSchemaManager;
+import org.apache.directory.api.util.FileUtils;
+import org.apache.directory.api.util.Strings;
+import org.apache.directory.api.util.exception.Exceptions;
+import org.apache.directory.server.core.api.CacheService;
+import org.apache.directory.server.core.api.DnFactory;
+import org.apache.directory.server.core.api.interceptor.context.AddOperationContext;
+import org.apache.directory.server.core.api.partition.PartitionTxn;
+import org.apache.directory.server.core.shared.DefaultDnFactory;
+import org.apache.directory.server.xdbm.Index;
+import org.apache.directory.server.xdbm.StoreUtils;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+
+/**
+ * Unit test cases for LmdbPartition
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class LmdbStoreTest
+{
+    LmdbPartition partition;
+
+    private static SchemaManager schemaManager = null;
+    private static DnFactory dnFactory;
+    private static CacheService cacheService;
+
+    /** The temporary directory the files will be created in */
+    private static Path tempDir;
+
+
+    @BeforeClass
+    public static void setup() throws Exception
+    {
+        tempDir = Files.createTempDirectory( LmdbStoreTest.class.getSimpleName() );
+
+        File schemaRepository = new File( tempDir.toFile(), "schema" );
+        SchemaLdifExtractor extractor = new DefaultSchemaLdifExtractor( tempDir.toFile() );
+        extractor.extractOrCopy( true );
+        LdifSchemaLoader loader = new LdifSchemaLoader( schemaRepository );
+        schemaManager = new DefaultSchemaManager( loader );
+
+        boolean loaded = schemaManager.loadAllEnabled();
+
+        if ( !loaded )
+        {
+            fail( "Schema load failed : " + Exceptions.printErrors( schemaManager.getErrors() ) );
+        }
+
+        cacheService = new CacheService();
+        cacheService.initialize( null );
+        dnFactory = new DefaultDnFactory( schemaManager,
+            cacheService.getCache( "dnCache", String.class, Dn.class ) );
+    }
+
+
+    @Before
+    public void createStore() throws Exception
+    {
+        StoreUtils.createdExtraAttributes( schemaManager );
+
+        partition = createPartition();
+        StoreUtils.loadExampleData( partition, schemaManager );
+    }
+
+
+    @After
+    public void destroyStore() throws Exception
+    {
+        if ( partition != null )
+        {
+            partition.destroy( null );
+        }
+
+        for ( File file : tempDir.toFile().listFiles() )
+        {
+            if ( !file.isDirectory() )
+            {
+                file.delete();
+            }
+        }
+
+        partition = null;
+    }
+
+
+    @AfterClass
+    public static void cleanup() throws Exception
+    {
+        FileUtils.deleteDirectory( tempDir.toFile() );
+    }
+
+
+    private LmdbPartition createPartition() throws Exception
+    {
+        LmdbPartition lmdbPartition = new LmdbPartition( schemaManager, dnFactory );
+        lmdbPartition.setId( "example" );
+        lmdbPartition.setCacheSize( 10 );
+        lmdbPartition.setPartitionPath( tempDir.toUri() );
+        lmdbPartition.setSyncOnWrite( false );
+        lmdbPartition.setMapSize( 64L * 1024L * 1024L );
+
+        LmdbIndex<String> ouIndex = new LmdbIndex<>( SchemaConstants.OU_AT_OID, false );
+        ouIndex.setWkDirPath( tempDir.toUri() );
+        lmdbPartition.addIndex( ouIndex );
+
+        LmdbIndex<String> uidIndex = new LmdbIndex<>( SchemaConstants.UID_AT_OID, false );
+        uidIndex.setWkDirPath( tempDir.toUri() );
+        lmdbPartition.addIndex( uidIndex );
+
+        lmdbPartition.setSuffixDn( new Dn( schemaManager, "o=Good Times Co." ) );
+        lmdbPartition.setCacheService( cacheService );
+        lmdbPartition.initialize();
+
+        return lmdbPartition;
+    }
+
+
+    private Entry createEntry( String dn ) throws Exception
+    {
+        return new DefaultEntry( schemaManager, dn,
+            "objectClass: top",
+            "objectClass: person",
+            "objectClass: organizationalPerson",
+            "ou: Engineering",
+            "cn: " + new Dn( dn ).getRdn().getValue(),
+            "sn: Ryan",
+            "entryCSN", new CsnFactory( 1 ).newInstance().toString(),
+            "entryUUID", UUID.randomUUID().toString() );
+    }
+
+
+    private void add( PartitionTxn partitionTxn, Entry entry ) throws Exception
+    {
+        AddOperationContext addContext = new AddOperationContext( null, entry );
+        addContext.setPartition( partition );
+        addContext.setTransaction( partitionTxn );
+
+        partition.add( addContext );
+    }
+
+
+    @Test
+    public void testFreshStore() throws Exception
+    {
+        Dn dn = new Dn( schemaManager, "o=Good Times Co." );
+
+        try ( PartitionTxn partitionTxn = partition.beginReadTransaction() )
+        {
+            assertEquals( Strings.getUUID( 1L ), partition.getEntryId( partitionTxn, dn ) );
+            assertEquals( 11, partition.count( partitionTxn ) );
+            assertEquals( 3, partition.getChildCount( partitionTxn, Strings.getUUID( 1L ) ) );
+            assertEquals( dn.getName(), partition.getEntryDn( partitionTxn, Strings.getUUID( 1L ) ).getName() );
+
+            // note that the suffix entry returns 0 for it's parent which does not exist
+            assertEquals( Strings.getUUID( 0L ), partition.getParentId( partitionTxn, Strings.getUUID( 1L ) ) );
+            assertNull( partition.getParentId( partitionTxn, Strings.getUUID( 0L ) ) );
+        }
+    }
+
+
+    @Test
+    public void testCommitAndAbort() throws Exception
+    {
+        Dn committedDn = new Dn( schemaManager, "cn=Private Ryan,ou=Engineering,o=Good Times Co." );
+        Dn abortedDn = new Dn( schemaManager, "cn=Corporal Ryan,ou=Engineering,o=Good Times Co." );
+
+        PartitionTxn partitionTxn = partition.beginWriteTransaction();
+        add( partitionTxn, createEntry( committedDn.getName() ) );
+        partitionTxn.commit();
+
+        partitionTxn = partition.beginWriteTransaction();
+        add( partitionTxn, createEntry( abortedDn.getName() ) );
+
+        // The changes are visible in the write transaction only
+        assertNotNull( partition.getEntryId( partitionTxn, abortedDn ) );
+        partitionTxn.abort();
+
+        try ( PartitionTxn readTxn = partition.beginReadTransaction() )
+        {
+            assertNotNull( partition.getEntryId( readTxn, committedDn ) );
+            assertNull( partition.getEntryId( readTxn, abortedDn ) );
+            assertEquals( 12, partition.count( readTxn ) );
+        }
+    }
+
+
+    @Test
+    public void testReadTransactionSnapshot() throws Exception
+    {
+        Dn dn = new Dn( schemaManager, "cn=JOhnny WAlkeR,ou=Sales,o=Good Times Co." );
+
+        try ( PartitionTxn readTxn = partition.beginReadTransaction() )
+        {
+            String id = partition.getEntryId( readTxn, dn );
+            assertNotNull( id );
+
+            PartitionTxn partitionTxn = partition.beginWriteTransaction();
+            partition.delete( partitionTxn, id );
+            partitionTxn.commit();
+
+            // The read transaction still sees the deleted entry
+            assertEquals( id, partition.getEntryId( readTxn, dn ) );
+            assertEquals( 11, partition.count( readTxn ) );
+        }
+
+        try ( PartitionTxn readTxn = partition.beginReadTransaction() )
+        {
+            assertNull( partition.getEntryId( readTxn, dn ) );
+            assertEquals( 10, partition.count( readTxn ) );
+        }
+    }
+
+
+    @Test
+    public void testModifyAndRename() throws Exception
+    {
+        Dn dn = new Dn( schemaManager, "cn=JOhnny WAlkeR,ou=Sales,o=Good Times Co." );
+
+        PartitionTxn partitionTxn = partition.beginWriteTransaction();
+        partition.modify( partitionTxn, dn,
+            new DefaultModification( ModificationOperation.ADD_ATTRIBUTE,
+                schemaManager.getAttributeType( SchemaConstants.OU_AT ), "Engineering" ) );
+        partition.rename( partitionTxn, dn, new Rdn( schemaManager, "sn=Ja\\+es" ), false, null );
+        partitionTxn.commit();
+
+        Dn renamedDn = new Dn( schemaManager, "sn=Ja\\+es,ou=Sales,o=Good Times Co." );
+
+        try ( PartitionTxn readTxn = partition.beginReadTransaction() )
+        {
+            assertNull( partition.getEntryId( readTxn, dn ) );
+
+            String id = partition.getEntryId( readTxn, renamedDn );
+            assertNotNull( id );
+
+            Entry entry = partition.fetch( readTxn, id, renamedDn );
+            assertTrue( entry.contains( SchemaConstants.OU_AT, "Engineering" ) );
+            assertTrue( entry.contains( SchemaConstants.SN_AT, "Ja+es" ) );
+        }
+    }
+
+
+    @Test
+    public void testLongIndexedValue() throws Exception
+    {
+        Dn dn = new Dn( schemaManager, "cn=JOhnny WAlkeR,ou=Sales,o=Good Times Co." );
+        char[] chars = new char[1024];
+        Arrays.fill( chars, 'x' );
+        String longOu = new String( chars );
+
+        PartitionTxn partitionTxn = partition.beginWriteTransaction();
+        partition.modify( partitionTxn, dn,
+            new DefaultModification( ModificationOperation.ADD_ATTRIBUTE,
+                schemaManager.getAttributeType( SchemaConstants.OU_AT ), longOu ) );
+        partitionTxn.commit();
+
+        @SuppressWarnings("unchecked")
+        Index<String, String> ouIndex = ( Index<String, String> ) partition.getUserIndex(
+            schemaManager.getAttributeType( SchemaConstants.OU_AT_OID ) );
+
+        try ( PartitionTxn readTxn = partition.beginReadTransaction() )
+        {
+            String id = partition.getEntryId( readTxn, dn );
+            assertEquals( id, ouIndex.forwardLookup( readTxn, longOu ) );
+            assertTrue( ouIndex.forward( readTxn, longOu, id ) );
+            assertEquals( 1, ouIndex.count( readTxn, longOu ) );
+        }
+
+        partitionTxn = partition.beginWriteTransaction();
+        partition.modify( partitionTxn, dn,
+            new DefaultModification( ModificationOperation.REMOVE_ATTRIBUTE,
+                schemaManager.getAttributeType( SchemaConstants.OU_AT ), longOu ) );
+        partitionTxn.commit();
+
+        try ( PartitionTxn readTxn = partition.beginReadTransaction() )
+        {
+            assertNull( ouIndex.forwardLookup( readTxn, longOu ) );
+        }
+    }
+
+
+    @Test
+    public void testReopen() throws Exception
+    {
+        Dn dn = new Dn( schemaManager, "cn=Private Ryan,ou=Engineering,o=Good Times Co." );
+
+        PartitionTxn partitionTxn = partition.beginWriteTransaction();
+        add( partitionTxn, createEntry( dn.getName() ) );
+        partitionTxn.commit();
+
+        partition.destroy( null );
+        partition = createPartition();
+
+        try ( PartitionTxn readTxn = partition.beginReadTransaction() )
+        {
+            String id = partition.getEntryId( readTxn, dn );
+            assertNotNull( id );
+            assertEquals( "Private Ryan", partition.fetch( readTxn, id, dn ).get( SchemaConstants.CN_AT ).getString() );
+            assertEquals( 12, partition.count( readTxn ) );
+            assertFalse( partition.getChildCount( readTxn, Strings.getUUID( 1L ) ) == 0 );
+        }
+    }
+}
@@ -0,0 +1,347 @@
+/*
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *   or more contributor license agreements.  See the NOTICE file
+ *   distributed with this work for additional information
+ *   regarding copyright ownership.  The ASF licenses this file
+ *   to you under the Apache License, Version 2.0 (the
+ *   "License"); you may not use this file except in compliance
+ *   with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing,
+ *   software distributed under the License is distributed on an
+ *   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *   KIND, either express or implied.  See the License for the
+ *   specific language governing permissions and limitations
+ *   under the License.
+ *
+ */
+package org.apache.directory.server.core.partition.impl.btree.lmdb;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+import org.apache.directory.api.ldap.model.cursor.Cursor;
+import org.apache.directory.api.ldap.model.cursor.Tuple;
+import org.apache.directory.api.ldap.model.exception.LdapOtherException;
+import org.apache.directory.api.util.FileUtils;
+import org.apache.directory.server.core.api.partition.PartitionTxn;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.lmdbjava.Env;
+import org.lmdbjava.EnvFlags;
+
+
+/**
+ * Tests the LmdbTable operations, with and without duplicates.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class LmdbTableTest
+{
+    /** The String comparator, matching the UTF-8 bytes order of ASCII strings */
+    private static final Comparator<String> COMPARATOR = new Comparator<String>()
+    {
+        @Override
+        public int compare( String s1, String s2 )
+        {
+            return s1.compareTo( s2 );
+        }
+    };
+
+    private File dir;
+    private Env<ByteBuffer> env;
+    private LmdbTable<String, String> noDups;
+    private LmdbTable<String, String> dups;
+
+
+    @Before
+    public void createTables() throws Exception
+    {
+        dir = Files.createTempDirectory( LmdbTableTest.class.getSimpleName() ).toFile();
+        env = Env.create().setMapSize( 64L * 1024L * 1024L ).setMaxDbs( 8 )
+            .open( new File( dir, "test.mdb" ), EnvFlags.MDB_NOSUBDIR, EnvFlags.MDB_NOTLS );
+
+        noDups = new LmdbTable<>( null, "noDups", env, COMPARATOR, StringSerializer.INSTANCE,
+            StringSerializer.INSTANCE );
+        dups = new LmdbTable<>( null, "dups", env, COMPARATOR, COMPARATOR, StringSerializer.INSTANCE,
+            StringSerializer.INSTANCE );
+    }
+
+
+    @After
+    public void destroyTables() throws Exception
+    {
+        env.close();
+        FileUtils.deleteDirectory( dir );
+    }
+
+
+    @Test
+    public void testNoDuplicates() throws Exception
+    {
+        assertFalse( noDups.isDupsEnabled() );
+        assertNull( noDups.get( null, "a" ) );
+
+        noDups.put( null, "b", "2" );
+        noDups.put( null, "a", "1" );
+        noDups.put( null, "c", "3" );
+        noDups.put( null, "a", "4" );
+
+        assertEquals( 3, noDups.count( null ) );
+        assertEquals( "4", noDups.get( null, "a" ) );
+        assertTrue( noDups.has( null, "a", "4" ) );
+        assertFalse( noDups.has( null, "a", "1" ) );
+        assertTrue( noDups.hasGreaterOrEqual( null, "bb" ) );
+        assertFalse( noDups.hasGreaterOrEqual( null, "d" ) );
+        assertTrue( noDups.hasLessOrEqual( null, "a" ) );
+        assertFalse( noDups.hasLessOrEqual( null, "0" ) );
+
+        noDups.remove( null, "b", "1" );
+        assertTrue( noDups.has( null, "b" ) );
+        noDups.remove( null, "b" );
+        assertFalse( noDups.has( null, "b" ) );
+        assertEquals( 2, noDups.count( null ) );
+
+        assertEquals( "[<a,4>, <c,3>]", browse( noDups.cursor() ) );
+    }
+
+
+    @Test
+    public void testDuplicates() throws Exception
+    {
+        assertTrue( dups.isDupsEnabled() );
+
+        dups.put( null, "b", "2" );
+        dups.put( null, "a", "3" );
+        dups.put( null, "a", "1" );
+        dups.put( null, "a", "2" );
+        dups.put( null, "a", "2" );
+
+        // A key containing a 0x00 and a key prefixed by another one
+        dups.put( null, "a\u0000", "5" );
+        dups.put( null, "ab", "4" );
+
+        assertEquals( 6, dups.count( null ) );
+        assertEquals( 3, dups.count( null, "a" ) );
+        assertEquals( 1, dups.count( null, "a\u0000" ) );
+        assertEquals( "1", dups.get( null, "a" ) );
+        assertTrue( dups.has( null, "a", "2" ) );
+        assertFalse( dups.has( null, "a", "4" ) );
+        assertTrue( dups.hasGreaterOrEqual( null, "a", "3" ) );
+        assertFalse( dups.hasGreaterOrEqual( null, "a", "4" ) );
+        assertTrue( dups.hasLessOrEqual( null, "b", "3" ) );
+        assertFalse( dups.hasLessOrEqual( null, "b", "1" ) );
+
+        assertEquals( "[<a,1>, <a,2>, <a,3>, <a\u0000,5>, <ab,4>, <b,2>]", browse( dups.cursor() ) );
+        assertEquals( "[<a,1>, <a,2>, <a,3>]", browse( dups.cursor( null, "a" ) ) );
+
+        List<String> values = new ArrayList<>();
+
+        try ( Cursor<String> cursor = dups.valueCursor( null, "a" ) )
+        {
+            cursor.afterLast();
+
+            while ( cursor.previous() )
+            {
+                values.add( cursor.get() );
+            }
+        }
+
+        assertEquals( "[3, 2, 1]", values.toString() );
+
+        dups.remove( null, "a", "2" );
+        assertEquals( 2, dups.count( null, "a" ) );
+        dups.remove( null, "a" );
+        assertEquals( 0, dups.count( null, "a" ) );
+        assertNull( dups.get( null, "a" ) );
+        assertEquals( "[<a\u0000,5>, <ab,4>, <b,2>]", browse( dups.cursor() ) );
+    }
+
+
+    @Test
+    public void testLongKeysAndValues() throws Exception
+    {
+        // A key and values longer than the LMDB keys
+        String longKey = repeat( 'k', 1024 );
+        String longValue1 = repeat( 'v', 1024 ) + "1";
+        String longValue2 = repeat( 'v', 1024 ) + "2";
+
+        dups.put( null, longKey, "1" );
+        dups.put( null, longKey, longValue2 );
+        dups.put( null, longKey, longValue1 );
+        dups.put( null, longKey, longValue1 );
+        dups.put( null, "a", longValue1 );
+
+        // A key sharing the first bytes of the long key
+        dups.put( null, longKey + "x", "2" );
+
+        assertEquals( 3, dups.count( null, longKey ) );
+        assertEquals( 1, dups.count( null, longKey + "x" ) );
+        assertEquals( 0, dups.count( null, longKey + "y" ) );
+        assertTrue( dups.has( null, longKey ) );
+        assertTrue( dups.has( null, longKey, longValue1 ) );
+        assertTrue( dups.has( null, "a", longValue1 ) );
+        assertFalse( dups.has( null, "a", longValue2 ) );
+        assertFalse( dups.has( null, longKey + "x", "1" ) );
+        assertEquals( "1", dups.get( null, longKey ) );
+
+        List<String> values = new ArrayList<>();
+
+        try ( Cursor<String> cursor = dups.valueCursor( null, longKey ) )
+        {
+            while ( cursor.next() )
+            {
+                values.add( cursor.get() );
+            }
+        }
+
+        assertEquals( 3, values.size() );
+        assertEquals( "1", values.get( 0 ) );
+        assertTrue( values.contains( longValue1 ) );
+        assertTrue( values.contains( longValue2 ) );
+
+        try ( Cursor<Tuple<String, String>> cursor = dups.cursor() )
+        {
+            assertTrue( cursor.next() );
+            assertEquals( "a", cursor.get().getKey() );
+            assertEquals( longValue1, cursor.get().getValue() );
+        }
+
+        dups.remove( null, longKey, longValue2 );
+        assertEquals( 2, dups.count( null, longKey ) );
+        assertFalse( dups.has( null, longKey, longValue2 ) );
+        dups.remove( null, longKey );
+        assertFalse( dups.has( null, longKey ) );
+        assertEquals( 1, dups.count( null, longKey + "x" ) );
+        assertEquals( 2, dups.count( null ) );
+
+        // The tables without duplicates don't accept keys longer than the LMDB keys
+        assertFalse( noDups.has( null, longKey ) );
+
+        try
+        {
+            noDups.put( null, longKey, "1" );
+            fail();
+        }
+        catch ( LdapOtherException loe )
+        {
+            assertTrue( loe.getMessage().contains( "longer than" ) );
+        }
+    }
+
+
+    @Test
+    public void testCursorPositioning() throws Exception
+    {
+        for ( int i = 0; i < 5; i++ )
+        {
+            dups.put( null, "k", Integer.toString( i ) );
+        }
+
+        try ( LmdbCursor<String, String> cursor = ( LmdbCursor<String, String> ) dups.cursor( null, "k" ) )
+        {
+            cursor.beforeValue( "k", "2" );
+            assertTrue( cursor.next() );
+            assertEquals( "2", cursor.get().getValue() );
+
+            cursor.afterValue( "k", "2" );
+            assertTrue( cursor.next() );
+            assertEquals( "3", cursor.get().getValue() );
+
+            cursor.afterValue( "k", "2" );
+            assertTrue( cursor.previous() );
+            assertEquals( "2", cursor.get().getValue() );
+
+            cursor.beforeValue( "k", "2" );
+            assertTrue( cursor.previous() );
+            assertEquals( "1", cursor.get().getValue() );
+
+            assertTrue( cursor.last() );
+            assertEquals( "4", cursor.get().getValue() );
+            assertFalse( cursor.next() );
+
+            assertTrue( cursor.first() );
+            assertEquals( "0", cursor.get().getValue() );
+            assertFalse( cursor.previous() );
+        }
+    }
+
+
+    @Test
+    public void testTransactions() throws Exception
+    {
+        noDups.put( null, "a", "1" );
+
+        PartitionTxn readTxn = new LmdbPartitionReadTxn( env );
+        assertEquals( "1", noDups.get( readTxn, "a" ) );
+
+        // The changes are only visible once committed
+        LmdbPartitionWriteTxn writeTxn = new LmdbPartitionWriteTxn( env );
+        noDups.put( writeTxn, "a", "2" );
+        noDups.put( writeTxn, "b", "3" );
+        assertEquals( "2", noDups.get( writeTxn, "a" ) );
+
+        // Without transaction, the current thread reads its own changes
+        assertEquals( "2", noDups.get( null, "a" ) );
+        writeTxn.commit();
+
+        // The read transaction still sees the previous version
+        assertEquals( "1", noDups.get( readTxn, "a" ) );
+        assertFalse( noDups.has( readTxn, "b" ) );
+        readTxn.close();
+
+        assertEquals( "2", noDups.get( null, "a" ) );
+
+        // An aborted transaction changes nothing
+        writeTxn = new LmdbPartitionWriteTxn( env );
+        noDups.remove( writeTxn, "a" );
+        writeTxn.abort();
+
+        assertEquals( "2", noDups.get( null, "a" ) );
+    }
+
+
+    private static String repeat( char c, int length )
+    {
+        char[] chars = new char[length];
+        Arrays.fill( chars, c );
+
+        return new String( chars );
+    }
+
+
+    private static String browse( Cursor<Tuple<String, String>> cursor ) throws Exception
+    {
+        List<String> tuples = new ArrayList<>();
+
+        try
+        {
+            while ( cursor.next() )
+            {
+                Tuple<String, String> tuple = cursor.get();
+                tuples.add( "<" + tuple.getKey() + "," + tuple.getValue() + ">" );
+            }
+        }
+        finally
+        {
+            cursor.close();
+        }
+
+        return tuples.toString();
+    }
+}
@@ -337,7 +337,11 @@ public class MavibotIndex<K> extends AbstractIndex<K, String>
      */
     public synchronized void add( PartitionTxn partitionTxn, K attrVal, String id ) throws LdapException
     {
-        // The pair to be removed must exists
+        if ( !forward.has( partitionTxn, attrVal, id ) )
+        {
+            statistics.add( attrVal, !forward.has( partitionTxn, attrVal ) );
+        }
+
         forward.put( partitionTxn, attrVal, id );
 
         if ( withReverse )
@@ -357,6 +361,7 @@ public class MavibotIndex<K> extends AbstractIndex<K, String>
         if ( forward.has( partitionTxn, attrVal, id ) )
         {
             forward.remove( partitionTxn, attrVal, id );
+            statistics.drop( attrVal, !forward.has( partitionTxn, attrVal ) );
 
             if ( withReverse )
             {
@@ -384,7 +389,9 @@ public class MavibotIndex<K> extends AbstractIndex<K, String>
                     while ( values.next() )
                     {
                         // Remove the Key -> entryId from the index
-                        forward.remove( partitionTxn, values.get().getValue(), entryId );
+                        K key = values.get().getValue();
+                        forward.remove( partitionTxn, key, entryId );
+                        statistics.drop( key, !forward.has( partitionTxn, key ) );
                     }
     
                     values.close();
@@ -399,6 +406,7 @@ public class MavibotIndex<K> extends AbstractIndex<K, String>
                 K key = reverse.get( partitionTxn, entryId );
 
                 forward.remove( partitionTxn, key );
+                statistics.drop( key, true );
             }
 
             // Remove the id -> key from the reverse index
@@ -30,8 +30,6 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 
-import org.ehcache.Cache;
-import org.apache.directory.api.ldap.model.constants.SchemaConstants;
 import org.apache.directory.api.ldap.model.cursor.Cursor;
 import org.apache.directory.api.ldap.model.cursor.Tuple;
 import org.apache.directory.api.ldap.model.entry.Attribute;
@@ -45,19 +43,14 @@ import org.apache.directory.api.util.exception.MultiException;
 import org.apache.directory.mavibot.btree.RecordManager;
 import org.apache.directory.server.constants.ApacheSchemaConstants;
 import org.apache.directory.server.core.api.DnFactory;
-import org.apache.directory.server.core.api.entry.ClonedServerEntry;
-import org.apache.directory.server.core.api.interceptor.context.DeleteOperationContext;
-import org.apache.directory.server.core.api.interceptor.context.ModifyOperationContext;
-import org.apache.directory.server.core.api.interceptor.context.MoveAndRenameOperationContext;
-import org.apache.directory.server.core.api.interceptor.context.MoveOperationContext;
-import org.apache.directory.server.core.api.interceptor.context.OperationContext;
-import org.apache.directory.server.core.api.interceptor.context.RenameOperationContext;
 import org.apache.directory.server.core.api.partition.Partition;
 import org.apache.directory.server.core.api.partition.PartitionReadTxn;
 import org.apache.directory.server.core.api.partition.PartitionTxn;
 import org.apache.directory.server.core.api.partition.PartitionWriteTxn;
 import org.apache.directory.server.core.partition.impl.btree.AbstractBTreePartition;
+import org.apache.directory.server.core.partition.impl.btree.SnapshotReadTxn;
 import org.apache.directory.server.i18n.I18n;
+import org.apache.directory.server.xdbm.EhcacheEntryCache;
 import org.apache.directory.server.xdbm.Index;
 import org.apache.directory.server.xdbm.search.impl.CursorBuilder;
 import org.apache.directory.server.xdbm.search.impl.DefaultOptimizer;
@@ -92,9 +85,6 @@ public class MavibotPartition extends AbstractBTreePartition
 
     private RecordManager recordMan;
 
-    /** the entry cache */
-    private Cache< String, Entry > entryCache;
-
 
     public MavibotPartition( SchemaManager schemaManager, DnFactory dnFactory )
     {
@@ -227,9 +217,20 @@ public class MavibotPartition extends AbstractBTreePartition
                         deleteUnusedIndexFiles( allIndices, allIndexDbFiles );
             */
 
-            if ( cacheService != null )
+            // Load the index statistics used by the optimizer
+            try ( PartitionTxn partitionTxn = beginReadTransaction() )
             {
-                entryCache = cacheService.getCache( getId(), String.class, Entry.class );
+                loadStatistics( partitionTxn );
+                buildSubstringIndices( partitionTxn );
+            }
+            catch ( IOException ioe )
+            {
+                throw new LdapOtherException( ioe.getMessage(), ioe );
+            }
+
+            if ( ( entryCache == null ) && ( cacheService != null ) )
+            {
+                entryCache = new EhcacheEntryCache( cacheService.getCache( getId(), String.class, Entry.class ) );
             }
 
             // We are done !
@@ -321,7 +322,7 @@ public class MavibotPartition extends AbstractBTreePartition
         {
             if ( entryCache != null )
             {
-                entryCache.clear();
+                entryCache.close();
             }
         }
 
@@ -439,76 +440,6 @@ public class MavibotPartition extends AbstractBTreePartition
     }
 
 
-    /**
-     * {@inheritDoc}
-     */
-    @Override
-    public Entry lookupCache( String id )
-    {
-        return ( entryCache != null ) ? entryCache.get( id ) : null;
-    }
-
-
-    @Override
-    public void addToCache( String id, Entry entry )
-    {
-        if ( entryCache == null )
-        {
-            return;
-        }
-
-        if ( entry instanceof ClonedServerEntry )
-        {
-            entry = ( ( ClonedServerEntry ) entry ).getOriginalEntry();
-        }
-
-        entryCache.put( id, entry );
-    }
-
-
-    @Override
-    public void updateCache( OperationContext opCtx )
-    {
-        if ( entryCache == null )
-        {
-            return;
-        }
-
-        try
-        {
-            if ( opCtx instanceof ModifyOperationContext )
-            {
-                // replace the entry
-                ModifyOperationContext modCtx = ( ModifyOperationContext ) opCtx;
-                Entry entry = modCtx.getAlteredEntry();
-                String id = entry.get( SchemaConstants.ENTRY_UUID_AT ).getString();
-
-                if ( entry instanceof ClonedServerEntry )
-                {
-                    entry = ( ( ClonedServerEntry ) entry ).getOriginalEntry();
-                }
-
-                entryCache.replace( id, entry );
-            }
-            else if ( ( opCtx instanceof MoveOperationContext ) || ( opCtx instanceof MoveAndRenameOperationContext )
-                || ( opCtx instanceof RenameOperationContext ) )
-            {
-                // clear the cache it is not worth updating all the children
-                entryCache.clear();
-            }
-            else if ( opCtx instanceof DeleteOperationContext )
-            {
-                // delete the entry
-                DeleteOperationContext delCtx = ( DeleteOperationContext ) opCtx;
-                entryCache.remove( delCtx.getEntry().get( SchemaConstants.ENTRY_UUID_AT ).getString() );
-            }
-        }
-        catch ( LdapException e )
-        {
-            LOG.warn( "Failed to update entry cache", e );
-        }
-    }
-
     
     /**
      * @return The set of system and user indexes
@@ -525,7 +456,7 @@ public class MavibotPartition extends AbstractBTreePartition
     @Override
     public PartitionReadTxn beginReadTransaction()
     {
-        return new PartitionReadTxn();
+        return new SnapshotReadTxn();
     }
 
 
@@ -132,6 +132,12 @@ class LdapProtocolHandler extends DemuxingIoHandler
         // Abandon all the requests
         ldapSession.abandonAllOutstandingRequests();
 
+        // And resume the paused writers, if any, so that they release their cursors
+        ldapServer.getOutboundFlowControl().resume( ldapSession );
+
+        // Close the PagedSearch cursors
+        ldapServer.getPagedSearchContextManager().removeAll( ldapSession );
+
         if ( !ldapSession.getIoSession().isClosing() || ldapSession.getIoSession().isConnected() )
         {
             try
@@ -152,6 +158,9 @@ class LdapProtocolHandler extends DemuxingIoHandler
     @Override
     public void messageSent( IoSession session, Object message ) throws Exception
     {
+        // Resume the writers, if they were waiting for the client
+        ldapServer.getOutboundFlowControl().messageSent( ldapServer.getLdapSessionManager().getLdapSession( session ) );
+
         // Do nothing : we have to ignore this message, otherwise we get an exception,
         // thanks to the way MINA 2 works ...
         if ( message instanceof IoBuffer )
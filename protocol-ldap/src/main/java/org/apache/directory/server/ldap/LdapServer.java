@@ -20,6 +20,7 @@
 package org.apache.directory.server.ldap;
 
 
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.file.Files;
@@ -37,6 +38,8 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
 
 import javax.net.ssl.KeyManagerFactory;
 
@@ -74,6 +77,7 @@ import org.apache.directory.server.core.security.CoreKeyStoreSpi;
 import org.apache.directory.server.i18n.I18n;
 import org.apache.directory.server.ldap.handlers.LdapRequestHandler;
 import org.apache.directory.server.ldap.handlers.LdapResponseHandler;
+import org.apache.directory.server.ldap.handlers.controls.PagedSearchContextManager;
 import org.apache.directory.server.ldap.handlers.extended.StartTlsHandler;
 import org.apache.directory.server.ldap.handlers.request.AbandonRequestHandler;
 import org.apache.directory.server.ldap.handlers.request.AddRequestHandler;
@@ -115,7 +119,6 @@ import org.apache.mina.core.session.IoSession;
 import org.apache.mina.filter.codec.ProtocolCodecFactory;
 import org.apache.mina.filter.codec.ProtocolCodecFilter;
 import org.apache.mina.filter.executor.ExecutorFilter;
-import org.apache.mina.filter.executor.UnorderedThreadPoolExecutor;
 import org.apache.mina.handler.demux.MessageHandler;
 import org.apache.mina.transport.socket.AbstractSocketSessionConfig;
 import org.apache.mina.transport.socket.SocketAcceptor;
@@ -144,6 +147,9 @@ public class LdapServer extends DirectoryBackedService
     /** Value (0) for configuration where time limit is unlimited. */
     public static final int NO_TIME_LIMIT = 0;
 
+    /** Value (0) for configuration where the number of concurrent requests is unlimited. */
+    public static final int NO_CONCURRENCY_LIMIT = 0;
+
     /** the constant service name of this ldap protocol provider **/
     public static final String SERVICE_NAME = "ldap";
 
@@ -180,6 +186,27 @@ public class LdapServer extends DirectoryBackedService
     /** The maximum size for an incoming PDU */
     private int maxPDUSize = Integer.MAX_VALUE;
 
+    /** The control of the responses written to slow clients */
+    private final OutboundFlowControl outboundFlowControl = new OutboundFlowControl();
+
+    /** The executor resuming the searches paused by the outbound flow control */
+    private ExecutorService resumptionExecutor;
+
+    /** The executors processing the requests received on the transports */
+    private final List<ExecutorService> requestExecutors = new ArrayList<>();
+
+    /** The manager of the PagedSearch contexts of all the sessions */
+    private final PagedSearchContextManager pagedSearchContextManager = new PagedSearchContextManager();
+
+    /** The way the requests are executed */
+    private RequestExecutionMode requestExecutionMode = RequestExecutionMode.POOLED;
+
+    /** The maximum number of requests executed at the same time in virtual mode */
+    private int maxConcurrentRequests = NO_CONCURRENCY_LIMIT;
+
+    /** Tells if the search result entries are encoded without going through the codec */
+    private boolean directEntryEncoding = true;
+
     /** If LDAPS is activated : the external Keystore file, if defined */
     private String keystoreFile;
 
@@ -533,6 +560,27 @@ public class LdapServer extends DirectoryBackedService
         // Install the replication handler if we have one
         startReplicationProducer();
 
+        // The limiter is shared by all the transports
+        Semaphore requestLimiter = null;
+
+        if ( maxConcurrentRequests > NO_CONCURRENCY_LIMIT )
+        {
+            requestLimiter = new Semaphore( maxConcurrentRequests );
+        }
+
+        // The paused searches are resumed in their own threads : the MINA IoProcessor
+        // thread which sees that a client has read its responses must not write the next ones
+        int nbThreads = 1;
+
+        for ( Transport transport : transports )
+        {
+            nbThreads = Math.max( nbThreads, transport.getNbThreads() );
+        }
+
+        resumptionExecutor = RequestExecutors.createResumptionExecutor( requestExecutionMode, nbThreads,
+            requestLimiter );
+        outboundFlowControl.setExecutor( resumptionExecutor );
+
         for ( Transport transport : transports )
         {
             if ( !( transport instanceof TcpTransport ) )
@@ -558,9 +606,14 @@ public class LdapServer extends DirectoryBackedService
 
             // Now inject an ExecutorFilter for the write operations
             // We use the same number of thread than the number of IoProcessor
-            // (NOTE : this has to be double checked)
-            ( ( DefaultIoFilterChainBuilder ) chain ).addLast( "executor", new ExecutorFilter(
-                new UnorderedThreadPoolExecutor( transport.getNbThreads() ), IoEventType.MESSAGE_RECEIVED ) );
+            // (NOTE : this has to be double checked), unless the requests are
+            // executed in virtual threads
+            ExecutorService requestExecutor = RequestExecutors.createExecutor( requestExecutionMode,
+                transport.getNbThreads(), requestLimiter );
+            requestExecutors.add( requestExecutor );
+
+            ( ( DefaultIoFilterChainBuilder ) chain ).addLast( "executor", new ExecutorFilter( requestExecutor,
+                IoEventType.MESSAGE_RECEIVED ) );
 
             /*
             // Trace all the incoming and outgoing message to the console
@@ -588,6 +641,9 @@ public class LdapServer extends DirectoryBackedService
         // these should be started only after starting the network see DIRSERVER-1894
         startReplicationConsumers();
 
+        // Discard the idle PagedSearch contexts
+        pagedSearchContextManager.start();
+
         started = true;
 
         LOG.info( "Ldap service started." );
@@ -639,6 +695,8 @@ public class LdapServer extends DirectoryBackedService
                 catch ( IllegalArgumentException e )
                 {
                     LOG.warn( "Seems like the LDAP service ({}) has already been unbound.", getPort() );
+                    shutdownExecutors();
+
                     return;
                 }
 
@@ -681,6 +739,10 @@ public class LdapServer extends DirectoryBackedService
             LOG.warn( "Failed to sent NoD.", e );
         }
 
+        pagedSearchContextManager.stop();
+
+        shutdownExecutors();
+
         started = false;
         LOG.info( "Ldap service stopped." );
     }
@@ -1767,6 +1829,207 @@ public class LdapServer extends DirectoryBackedService
     }
 
 
+    /**
+     * Shuts down the executors processing the requests and resuming the paused searches.
+     * The ExecutorFilters only shut down the executors they have created themselves.
+     */
+    private void shutdownExecutors()
+    {
+        // The sessions are closed, the paused searches have been resumed
+        outboundFlowControl.setExecutor( null );
+
+        if ( resumptionExecutor != null )
+        {
+            resumptionExecutor.shutdown();
+            resumptionExecutor = null;
+        }
+
+        for ( ExecutorService requestExecutor : requestExecutors )
+        {
+            requestExecutor.shutdown();
+        }
+
+        requestExecutors.clear();
+    }
+
+
+    /**
+     * @return The control of the flow of responses written to the clients, which
+     * holds the per session and global outbound buffer limits
+     */
+    public OutboundFlowControl getOutboundFlowControl()
+    {
+        return outboundFlowControl;
+    }
+
+
+    /**
+     * Sets the number of bytes waiting to be sent to a client above which the
+     * server stops writing search results into its session.
+     *
+     * @param highWaterMark The number of pending bytes, 0 to disable the control
+     */
+    public void setOutboundHighWaterMark( int highWaterMark )
+    {
+        outboundFlowControl.setHighWaterMark( highWaterMark );
+    }
+
+
+    /**
+     * Sets the number of bytes waiting to be sent to a client below which a
+     * paused search is resumed.
+     *
+     * @param lowWaterMark The number of pending bytes
+     */
+    public void setOutboundLowWaterMark( int lowWaterMark )
+    {
+        outboundFlowControl.setLowWaterMark( lowWaterMark );
+    }
+
+
+    /**
+     * Sets the maximum number of bytes waiting to be sent to all the clients of
+     * a transport above which all the searches are paused.
+     *
+     * @param maxOutboundBytes The number of pending bytes, 0 to disable the control
+     */
+    public void setMaxOutboundBytes( int maxOutboundBytes )
+    {
+        outboundFlowControl.setMaxOutboundBytes( maxOutboundBytes );
+    }
+
+
+    /**
+     * @return The manager of the PagedSearch contexts, which holds the limits on
+     * the number of opened paged searches
+     */
+    public PagedSearchContextManager getPagedSearchContextManager()
+    {
+        return pagedSearchContextManager;
+    }
+
+
+    /**
+     * Sets the maximum number of PagedSearch contexts a session can keep. When a
+     * new one is created above this limit, the least recently used one is discarded.
+     *
+     * @param maxPagedSearchesPerSession The number of contexts, 0 for no limit
+     */
+    public void setMaxPagedSearchesPerSession( int maxPagedSearchesPerSession )
+    {
+        pagedSearchContextManager.setMaxContextsPerSession( maxPagedSearchesPerSession );
+    }
+
+
+    /**
+     * Sets the maximum number of PagedSearch contexts holding an open cursor, for
+     * all the sessions.
+     *
+     * @param maxPagedSearches The number of contexts, 0 for no limit
+     */
+    public void setMaxPagedSearches( int maxPagedSearches )
+    {
+        pagedSearchContextManager.setMaxContexts( maxPagedSearches );
+    }
+
+
+    /**
+     * Sets the time after which a PagedSearch context which is not used is discarded.
+     *
+     * @param pagedSearchIdleTimeout The timeout in ms, 0 to keep the contexts until
+     * the session is closed
+     */
+    public void setPagedSearchIdleTimeout( long pagedSearchIdleTimeout )
+    {
+        pagedSearchContextManager.setIdleTimeout( pagedSearchIdleTimeout );
+    }
+
+
+    /**
+     * Sets the directory where the PagedSearch contexts are spilled when there are
+     * too many of them.
+     *
+     * @param pagedSearchSpillDirectory The directory, null to discard the contexts
+     */
+    public void setPagedSearchSpillDirectory( File pagedSearchSpillDirectory )
+    {
+        pagedSearchContextManager.setSpillDirectory( pagedSearchSpillDirectory );
+    }
+
+
+    /**
+     * @return The way the requests are executed
+     */
+    public RequestExecutionMode getRequestExecutionMode()
+    {
+        return requestExecutionMode;
+    }
+
+
+    /**
+     * Sets the way the requests are executed. It's taken into account when the
+     * server is started.
+     *
+     * @param requestExecutionMode The execution mode. If null, the requests are
+     * executed by a pool of threads
+     */
+    public void setRequestExecutionMode( RequestExecutionMode requestExecutionMode )
+    {
+        if ( requestExecutionMode == null )
+        {
+            this.requestExecutionMode = RequestExecutionMode.POOLED;
+        }
+        else
+        {
+            this.requestExecutionMode = requestExecutionMode;
+        }
+    }
+
+
+    /**
+     * @return The maximum number of requests executed at the same time in virtual mode
+     */
+    public int getMaxConcurrentRequests()
+    {
+        return maxConcurrentRequests;
+    }
+
+
+    /**
+     * Sets the maximum number of requests executed at the same time, for all the
+     * transports, when they are executed in virtual threads. In pooled mode, the
+     * number of threads of each transport bounds the concurrency.
+     *
+     * @param maxConcurrentRequests The maximum number of concurrent requests, 0 or a
+     * negative value for no limit
+     */
+    public void setMaxConcurrentRequests( int maxConcurrentRequests )
+    {
+        this.maxConcurrentRequests = Math.max( maxConcurrentRequests, NO_CONCURRENCY_LIMIT );
+    }
+
+
+    /**
+     * @return <code>true</code> if the search result entries are directly encoded
+     */
+    public boolean isDirectEntryEncoding()
+    {
+        return directEntryEncoding;
+    }
+
+
+    /**
+     * Tells the server to encode the search result entries without control directly
+     * into the written buffer, instead of going through the LDAP codec.
+     *
+     * @param directEntryEncoding <code>true</code> to encode the entries directly
+     */
+    public void setDirectEntryEncoding( boolean directEntryEncoding )
+    {
+        this.directEntryEncoding = directEntryEncoding;
+    }
+
+
     /**
      * @return the number of seconds pinger thread sleeps between subsequent pings
      */
@@ -25,7 +25,9 @@ import java.net.SocketAddress;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Queue;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
@@ -96,6 +98,9 @@ public class LdapSession
     /** A map containing all the paged search context */
     private Map<Integer, PagedSearchContext> pagedSearchContexts;
 
+    /** The writers paused until the client has read the pending responses */
+    private final Queue<Runnable> outboundContinuations = new ConcurrentLinkedQueue<>();
+
 
     /**
      * Creates a new instance of LdapSession associated with the underlying
@@ -188,6 +193,25 @@ public class LdapSession
     }
 
 
+    /**
+     * @return The continuations of the writers paused until the client reads the pending responses
+     * @see OutboundFlowControl
+     */
+    Queue<Runnable> getOutboundContinuations()
+    {
+        return outboundContinuations;
+    }
+
+
+    /**
+     * @return <code>true</code> if a writer is paused until the client reads the pending responses
+     */
+    boolean isOutboundPaused()
+    {
+        return !outboundContinuations.isEmpty();
+    }
+
+
     /**
      * Gets the logical core DirectoryService session associated with this
      * LdapSession.
@@ -561,6 +585,7 @@ public class LdapSession
     {
         for ( Map.Entry<Integer, PagedSearchContext> entry : pagedSearchContexts.entrySet() )
         {
+            pagedSearchContexts.remove( entry.getKey() );
             Cursor<Entry> cursor = entry.getValue().getCursor();
 
             if ( cursor != null )
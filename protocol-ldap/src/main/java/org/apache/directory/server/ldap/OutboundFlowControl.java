@@ -0,0 +1,419 @@
+/*
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *   or more contributor license agreements.  See the NOTICE file
+ *   distributed with this work for additional information
+ *   regarding copyright ownership.  The ASF licenses this file
+ *   to you under the Apache License, Version 2.0 (the
+ *   "License"); you may not use this file except in compliance
+ *   with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing,
+ *   software distributed under the License is distributed on an
+ *   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *   KIND, either express or implied.  See the License for the
+ *   specific language governing permissions and limitations
+ *   under the License.
+ *
+ */
+package org.apache.directory.server.ldap;
+
+
+import java.util.Collections;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.directory.api.ldap.model.message.AbandonableRequest;
+import org.apache.mina.core.service.IoService;
+import org.apache.mina.core.session.IoSession;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * Controls the flow of the responses written to the clients. The results of a search
+ * are read from the backend way faster than a slow client can consume them, and
+ * every response we write is kept encoded in the MINA write queue until it has been
+ * sent. Without any control, a search returning millions of entries to a slow client
+ * would end with the whole result set buffered in memory.
+ * <p>
+ * The loops writing results check {@link #mustPause(LdapSession)} before reading the
+ * next entry : it returns <code>true</code> when the session has more than
+ * <em>highWaterMark</em> bytes waiting to be sent, or when all the sessions together
+ * have more than <em>maxOutboundBytes</em> bytes pending. The loop then registers its
+ * continuation with {@link #pause(LdapSession, Runnable)} and returns, releasing its
+ * thread. The continuation is run by {@link #messageSent(LdapSession)} once the session
+ * has drained below the <em>lowWaterMark</em>, or when the session is closed, in the
+ * executor given to {@link #setExecutor(Executor)} : the MINA IoProcessor thread
+ * calling messageSent must not write responses itself.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class OutboundFlowControl
+{
+    /** The logger */
+    private static final Logger LOG = LoggerFactory.getLogger( OutboundFlowControl.class );
+
+    /** The default number of pending bytes above which a session is paused (1 MB) */
+    public static final int HIGH_WATER_MARK_DEFAULT = 1024 * 1024;
+
+    /** The default number of pending bytes below which a paused session is resumed (256 KB) */
+    public static final int LOW_WATER_MARK_DEFAULT = 256 * 1024;
+
+    /** The value used to disable a limit */
+    public static final int NO_LIMIT = 0;
+
+    /** The maximum time we wait before checking the session state again, in ms */
+    private static final long WAIT_SLICE = 100L;
+
+    /** The number of pending bytes above which a session is paused */
+    private volatile int highWaterMark = HIGH_WATER_MARK_DEFAULT;
+
+    /** The number of pending bytes below which a paused session is resumed */
+    private volatile int lowWaterMark = LOW_WATER_MARK_DEFAULT;
+
+    /** The maximum number of pending bytes for all the sessions */
+    private volatile int maxOutboundBytes = NO_LIMIT;
+
+    /** The executor running the continuations of the paused writers. If null, they are run by the caller */
+    private volatile Executor executor;
+
+    /**
+     * The paused sessions : a session paused because all the sessions together are
+     * over the limit may have nothing left to send, it has to be resumed when another
+     * session sends a message
+     */
+    private final Set<LdapSession> pausedSessions = Collections
+        .newSetFromMap( new ConcurrentHashMap<LdapSession, Boolean>() );
+
+
+    /**
+     * Tells if the writer has to pause before writing more responses into the given
+     * session : the session has too many bytes pending, or the server is globally
+     * over its limit. A closing session is never paused.
+     *
+     * @param session The session we want to write into
+     * @return <code>true</code> if the writer must call {@link #pause(LdapSession, Runnable)}
+     */
+    public boolean mustPause( LdapSession session )
+    {
+        IoSession ioSession = session.getIoSession();
+
+        return !ioSession.isClosing() && mustPause( ioSession );
+    }
+
+
+    /**
+     * Pauses a writer without holding its thread : the given continuation will be run
+     * once the session has drained below the low water mark, when the session is closed,
+     * or when the request it writes for is abandoned (see {@link #resume(LdapSession)}).
+     * The continuation must check those last two conditions itself, and it may have to
+     * pause again. It may also be run before this method returns, if the session has
+     * drained in the meantime.
+     *
+     * @param session The session we want to write into
+     * @param continuation The task writing the next responses
+     */
+    public void pause( LdapSession session, Runnable continuation )
+    {
+        IoSession ioSession = session.getIoSession();
+
+        LOG.debug( "Pausing the responses written into the session {}, {} bytes are pending", ioSession.getId(),
+            ioSession.getScheduledWriteBytes() );
+
+        session.getOutboundContinuations().add( continuation );
+        pausedSessions.add( session );
+
+        // The messages may have been sent, or the session closed, before the continuation was
+        // registered : nobody would resume it
+        if ( ioSession.isClosing() || canResume( ioSession ) )
+        {
+            resume( session );
+        }
+    }
+
+
+    /**
+     * Waits until the given session can accept more responses. This method returns
+     * immediately if the session is below the limits, otherwise it blocks until the
+     * session has drained below the low water mark, the session is closing, or the
+     * request has been abandoned. The caller is expected to check those last two
+     * conditions itself.
+     * <p>
+     * This method holds the calling thread : it is only used by the replication
+     * provider, which serves a handful of consumers. The searches use
+     * {@link #pause(LdapSession, Runnable)}.
+     *
+     * @param session The session we want to write into
+     * @param request The request the responses are written for
+     */
+    public void awaitWritable( LdapSession session, AbandonableRequest request )
+    {
+        if ( !mustPause( session ) )
+        {
+            return;
+        }
+
+        final CountDownLatch resumed = new CountDownLatch( 1 );
+
+        pause( session, new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                resumed.countDown();
+            }
+        } );
+
+        try
+        {
+            while ( !resumed.await( WAIT_SLICE, TimeUnit.MILLISECONDS ) )
+            {
+                if ( request.isAbandoned() )
+                {
+                    return;
+                }
+            }
+        }
+        catch ( InterruptedException ie )
+        {
+            Thread.currentThread().interrupt();
+        }
+
+        LOG.debug( "Resuming the responses for message {}", request.getMessageId() );
+    }
+
+
+    /**
+     * Called when a message has been sent to the client. If the session was paused
+     * and has drained enough, its writers are resumed. The sessions paused because
+     * the server was over its global limit are resumed too, if they can.
+     *
+     * @param session The session a message has been sent on
+     */
+    void messageSent( LdapSession session )
+    {
+        if ( pausedSessions.isEmpty() )
+        {
+            return;
+        }
+
+        if ( ( session != null ) && canResume( session.getIoSession() ) )
+        {
+            resume( session );
+        }
+
+        if ( maxOutboundBytes > NO_LIMIT )
+        {
+            for ( LdapSession pausedSession : pausedSessions )
+            {
+                if ( canResume( pausedSession.getIoSession() ) )
+                {
+                    resume( pausedSession );
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Resumes the writers paused on a session, if any, whatever the session state is.
+     * They will check the session and the request state again before writing, and
+     * pause again if needed. This is done when the session is closed or when a request
+     * is abandoned, so that the paused writers can release their resources.
+     *
+     * @param session The session to resume
+     */
+    public void resume( LdapSession session )
+    {
+        // The session is removed first : a continuation pausing again while we are
+        // running the previous ones will register it again
+        pausedSessions.remove( session );
+
+        Queue<Runnable> continuations = session.getOutboundContinuations();
+        Runnable continuation = continuations.poll();
+
+        while ( continuation != null )
+        {
+            execute( continuation );
+            continuation = continuations.poll();
+        }
+    }
+
+
+    /**
+     * Runs a continuation in the executor, or in the calling thread if we don't have any
+     */
+    private void execute( Runnable continuation )
+    {
+        Executor currentExecutor = executor;
+
+        if ( currentExecutor != null )
+        {
+            try
+            {
+                currentExecutor.execute( continuation );
+
+                return;
+            }
+            catch ( RejectedExecutionException ree )
+            {
+                // The server is being stopped
+                LOG.debug( "Cannot resume a paused writer : {}", ree.getMessage() );
+            }
+        }
+
+        continuation.run();
+    }
+
+
+    /**
+     * Tells if the writer has to pause : the session has too many bytes pending
+     * or the server is globally over its limit
+     */
+    private boolean mustPause( IoSession ioSession )
+    {
+        int high = highWaterMark;
+
+        if ( ( high > NO_LIMIT ) && ( ioSession.getScheduledWriteBytes() > high ) )
+        {
+            return true;
+        }
+
+        return isGloballyFull( ioSession, maxOutboundBytes );
+    }
+
+
+    /**
+     * Tells if a paused writer can resume.
+     */
+    private boolean canResume( IoSession ioSession )
+    {
+        int high = highWaterMark;
+
+        if ( ( high > NO_LIMIT ) && ( ioSession.getScheduledWriteBytes() > Math.min( lowWaterMark, high ) ) )
+        {
+            return false;
+        }
+
+        return !isGloballyFull( ioSession, maxOutboundBytes );
+    }
+
+
+    private boolean isGloballyFull( IoSession ioSession, int max )
+    {
+        if ( max <= NO_LIMIT )
+        {
+            return false;
+        }
+
+        IoService service = ioSession.getService();
+
+        return ( service != null ) && ( service.getScheduledWriteBytes() > max );
+    }
+
+
+    /**
+     * @return The number of pending bytes above which a session is paused
+     */
+    public int getHighWaterMark()
+    {
+        return highWaterMark;
+    }
+
+
+    /**
+     * Sets the number of bytes waiting to be sent to a client above which we stop
+     * writing responses into its session. A null or negative value disables the
+     * per session control.
+     *
+     * @param highWaterMark The number of pending bytes above which a session is paused
+     */
+    public void setHighWaterMark( int highWaterMark )
+    {
+        this.highWaterMark = highWaterMark;
+    }
+
+
+    /**
+     * @return The number of pending bytes below which a paused session is resumed
+     */
+    public int getLowWaterMark()
+    {
+        return lowWaterMark;
+    }
+
+
+    /**
+     * Sets the number of bytes waiting to be sent to a client below which we resume
+     * writing responses into a paused session. It should be lower than the high water
+     * mark, otherwise the high water mark is used.
+     *
+     * @param lowWaterMark The number of pending bytes below which a paused session is resumed
+     */
+    public void setLowWaterMark( int lowWaterMark )
+    {
+        this.lowWaterMark = lowWaterMark;
+    }
+
+
+    /**
+     * @return The maximum number of bytes pending for all the sessions of a transport
+     */
+    public int getMaxOutboundBytes()
+    {
+        return maxOutboundBytes;
+    }
+
+
+    /**
+     * Sets the maximum number of bytes waiting to be sent for all the sessions of a
+     * transport. When this limit is reached, every writer is paused until the pending
+     * bytes get below it. A null or negative value disables the global control.
+     *
+     * @param maxOutboundBytes The maximum number of pending bytes for all the sessions
+     */
+    public void setMaxOutboundBytes( int maxOutboundBytes )
+    {
+        this.maxOutboundBytes = maxOutboundBytes;
+    }
+
+
+    /**
+     * @return The executor running the continuations of the paused writers
+     */
+    public Executor getExecutor()
+    {
+        return executor;
+    }
+
+
+    /**
+     * Sets the executor running the continuations of the paused writers. It is set
+     * by the LdapServer when it starts. If null, the continuations are run by the
+     * thread resuming the session.
+     *
+     * @param executor The executor to use
+     */
+    public void setExecutor( Executor executor )
+    {
+        this.executor = executor;
+    }
+
+
+    /**
+     * @see Object#toString()
+     */
+    @Override
+    public String toString()
+    {
+        return "OutboundFlowControl[high: " + highWaterMark + ", low: " + lowWaterMark + ", max: "
+            + maxOutboundBytes + "]";
+    }
+}
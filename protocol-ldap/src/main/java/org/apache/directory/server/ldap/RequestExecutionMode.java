@@ -0,0 +1,61 @@
+/*
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *   or more contributor license agreements.  See the NOTICE file
+ *   distributed with this work for additional information
+ *   regarding copyright ownership.  The ASF licenses this file
+ *   to you under the Apache License, Version 2.0 (the
+ *   "License"); you may not use this file except in compliance
+ *   with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing,
+ *   software distributed under the License is distributed on an
+ *   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *   KIND, either express or implied.  See the License for the
+ *   specific language governing permissions and limitations
+ *   under the License.
+ *
+ */
+package org.apache.directory.server.ldap;
+
+
+/**
+ * The way the LDAP requests are executed once they have been decoded.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public enum RequestExecutionMode
+{
+    /** The requests are executed by a fixed pool of threads, one per transport */
+    POOLED,
+
+    /**
+     * Each request is executed in its own virtual thread, when the JVM supports
+     * them. Otherwise, the server falls back to the {@link #POOLED} mode.
+     */
+    VIRTUAL;
+
+
+    /**
+     * Get the mode from its name, ignoring the case.
+     *
+     * @param name The mode name
+     * @return The associated mode, or {@link #POOLED} if the name is null or unknown
+     */
+    public static RequestExecutionMode getMode( String name )
+    {
+        if ( name != null )
+        {
+            for ( RequestExecutionMode mode : values() )
+            {
+                if ( mode.name().equalsIgnoreCase( name.trim() ) )
+                {
+                    return mode;
+                }
+            }
+        }
+
+        return POOLED;
+    }
+}
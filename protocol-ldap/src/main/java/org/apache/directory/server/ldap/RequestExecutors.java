@@ -0,0 +1,294 @@
+/*
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *   or more contributor license agreements.  See the NOTICE file
+ *   distributed with this work for additional information
+ *   regarding copyright ownership.  The ASF licenses this file
+ *   to you under the Apache License, Version 2.0 (the
+ *   "License"); you may not use this file except in compliance
+ *   with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing,
+ *   software distributed under the License is distributed on an
+ *   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *   KIND, either express or implied.  See the License for the
+ *   specific language governing permissions and limitations
+ *   under the License.
+ *
+ */
+package org.apache.directory.server.ldap;
+
+
+import java.lang.reflect.Method;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.mina.filter.executor.UnorderedThreadPoolExecutor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * Creates the Executors used by the LdapServer to process the decoded requests.
+ * <br>
+ * In {@link RequestExecutionMode#POOLED} mode, a fixed pool of threads processes the
+ * requests, so a request blocked on a partition read, a lock or a disk sync holds one
+ * of the few threads of the pool.
+ * <br>
+ * In {@link RequestExecutionMode#VIRTUAL} mode, each request is processed in its own
+ * virtual thread. Virtual threads are only available since Java 21, so the factory is
+ * looked up at runtime : on older JVMs, the pooled mode is used instead. The number of
+ * requests processed at the same time can be bounded by a limiter shared by all the
+ * transports.
+ * <br>
+ * In both modes, the requests are dispatched in the order they are decoded, without
+ * waiting for the previous requests of the same session to be completed : as required
+ * by RFC 4511, the clients wait for the BindResponse or the StartTLS response before
+ * sending any other request.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public final class RequestExecutors
+{
+    /** The logger */
+    private static final Logger LOG = LoggerFactory.getLogger( RequestExecutors.class );
+
+    /** The factory method creating a virtual thread per task executor, if the JVM has one */
+    private static final Method VIRTUAL_EXECUTOR_FACTORY = lookupVirtualExecutorFactory();
+
+
+    private RequestExecutors()
+    {
+    }
+
+
+    /**
+     * Look for the Executors.newVirtualThreadPerTaskExecutor() method, which is available
+     * starting with Java 21.
+     */
+    private static Method lookupVirtualExecutorFactory()
+    {
+        try
+        {
+            return Executors.class.getMethod( "newVirtualThreadPerTaskExecutor" );
+        }
+        catch ( NoSuchMethodException nsme )
+        {
+            return null;
+        }
+        catch ( SecurityException se )
+        {
+            return null;
+        }
+    }
+
+
+    /**
+     * @return <code>true</code> if the JVM supports virtual threads
+     */
+    public static boolean isVirtualThreadSupported()
+    {
+        return VIRTUAL_EXECUTOR_FACTORY != null;
+    }
+
+
+    /**
+     * Creates the Executor processing the requests received on a transport.
+     *
+     * @param mode The execution mode
+     * @param nbThreads The number of threads of the transport, used in pooled mode
+     * @param limiter The limiter bounding the number of requests processed concurrently
+     * in virtual mode. May be null.
+     * @return The ExecutorService to use, which has to be shut down when the server stops
+     */
+    public static ExecutorService createExecutor( RequestExecutionMode mode, int nbThreads, Semaphore limiter )
+    {
+        if ( mode == RequestExecutionMode.VIRTUAL )
+        {
+            ExecutorService virtualExecutor = createVirtualExecutor();
+
+            if ( virtualExecutor != null )
+            {
+                if ( limiter == null )
+                {
+                    return virtualExecutor;
+                }
+
+                return new LimitedExecutor( virtualExecutor, limiter );
+            }
+
+            LOG.warn( "Virtual threads are not supported by this JVM, the requests will be processed by a pool of {} threads",
+                nbThreads );
+        }
+
+        return new UnorderedThreadPoolExecutor( nbThreads );
+    }
+
+
+    /**
+     * Creates the Executor resuming the searches paused by the {@link OutboundFlowControl}.
+     * The MINA executors only accept their own events, so the paused searches can't be
+     * resumed by the Executor processing the requests.
+     *
+     * @param mode The execution mode
+     * @param nbThreads The maximum number of threads, used in pooled mode
+     * @param limiter The limiter bounding the number of requests processed concurrently
+     * in virtual mode. May be null.
+     * @return The ExecutorService to use, which has to be shut down when the server stops
+     */
+    public static ExecutorService createResumptionExecutor( RequestExecutionMode mode, int nbThreads,
+        Semaphore limiter )
+    {
+        if ( mode == RequestExecutionMode.VIRTUAL )
+        {
+            ExecutorService virtualExecutor = createVirtualExecutor();
+
+            if ( virtualExecutor != null )
+            {
+                if ( limiter == null )
+                {
+                    return virtualExecutor;
+                }
+
+                // A resumed search counts as a request being processed
+                return new LimitedExecutor( virtualExecutor, limiter );
+            }
+        }
+
+        // The threads are only created when some searches are paused
+        ThreadPoolExecutor executor = new ThreadPoolExecutor( nbThreads, nbThreads, 60L, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<Runnable>() );
+        executor.allowCoreThreadTimeOut( true );
+
+        return executor;
+    }
+
+
+    /**
+     * Creates a virtual thread per task executor, or returns null if it's not possible.
+     */
+    private static ExecutorService createVirtualExecutor()
+    {
+        if ( VIRTUAL_EXECUTOR_FACTORY == null )
+        {
+            return null;
+        }
+
+        try
+        {
+            return ( ExecutorService ) VIRTUAL_EXECUTOR_FACTORY.invoke( null );
+        }
+        catch ( Exception e )
+        {
+            LOG.warn( "Cannot create the virtual thread executor : {}", e.getMessage() );
+
+            return null;
+        }
+    }
+
+
+    /**
+     * An ExecutorService which bounds the number of tasks running at the same time. The task
+     * waits for a permit in its own thread, so the caller (the MINA IoProcessor) is never
+     * blocked : a waiting virtual thread costs nearly nothing. Shutting it down shuts down
+     * the wrapped ExecutorService.
+     */
+    static class LimitedExecutor extends AbstractExecutorService
+    {
+        /** The wrapped executor */
+        private final ExecutorService executor;
+
+        /** The permits shared by all the executors of a server */
+        private final Semaphore limiter;
+
+
+        LimitedExecutor( ExecutorService executor, Semaphore limiter )
+        {
+            this.executor = executor;
+            this.limiter = limiter;
+        }
+
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void execute( final Runnable task )
+        {
+            executor.execute( new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    limiter.acquireUninterruptibly();
+
+                    try
+                    {
+                        task.run();
+                    }
+                    finally
+                    {
+                        limiter.release();
+                    }
+                }
+            } );
+        }
+
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void shutdown()
+        {
+            executor.shutdown();
+        }
+
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public List<Runnable> shutdownNow()
+        {
+            return executor.shutdownNow();
+        }
+
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public boolean isShutdown()
+        {
+            return executor.isShutdown();
+        }
+
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public boolean isTerminated()
+        {
+            return executor.isTerminated();
+        }
+
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public boolean awaitTermination( long timeout, TimeUnit unit ) throws InterruptedException
+        {
+            return executor.awaitTermination( timeout, unit );
+        }
+    }
+}
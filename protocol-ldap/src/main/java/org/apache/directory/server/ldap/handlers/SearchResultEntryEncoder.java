@@ -0,0 +1,258 @@
+/*
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *   or more contributor license agreements.  See the NOTICE file
+ *   distributed with this work for additional information
+ *   regarding copyright ownership.  The ASF licenses this file
+ *   to you under the Apache License, Version 2.0 (the
+ *   "License"); you may not use this file except in compliance
+ *   with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing,
+ *   software distributed under the License is distributed on an
+ *   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *   KIND, either express or implied.  See the License for the
+ *   specific language governing permissions and limitations
+ *   under the License.
+ *
+ */
+package org.apache.directory.server.ldap.handlers;
+
+
+import org.apache.directory.api.ldap.model.entry.Attribute;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.entry.Value;
+import org.apache.directory.api.util.Strings;
+import org.apache.mina.core.buffer.IoBuffer;
+
+
+/**
+ * Encodes a SearchResultEntry directly into an IoBuffer, bypassing the LDAP codec.
+ * <br>
+ * The generic encoder builds a SearchResultEntry message for each entry, then encodes
+ * it into a growing buffer. Here, the lengths of all the elements are computed in a first
+ * pass, and the PDU is written in a second pass into a buffer of the exact size :
+ * <pre>
+ * LdapMessage ::= SEQUENCE {
+ *     messageID      MessageID,
+ *     protocolOp     SearchResultEntry ::= [APPLICATION 4] SEQUENCE {
+ *         objectName     LDAPDN,
+ *         attributes     SEQUENCE OF partialAttribute SEQUENCE {
+ *             type       AttributeDescription,
+ *             vals       SET OF value AttributeValue } } }
+ * </pre>
+ * The encoded PDU has no controls : responses with controls have to go through the codec.
+ * MINA does not encode an IoBuffer again, it's written as is.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public final class SearchResultEntryEncoder
+{
+    /** The universal tags */
+    private static final byte INTEGER_TAG = 0x02;
+    private static final byte OCTET_STRING_TAG = 0x04;
+    private static final byte SEQUENCE_TAG = 0x30;
+    private static final byte SET_TAG = 0x31;
+
+    /** The SearchResultEntry [APPLICATION 4] constructed tag */
+    private static final byte SEARCH_RESULT_ENTRY_TAG = 0x64;
+
+    /** An empty array of values, for attributes without value (typesOnly searches) */
+    private static final byte[][] NO_VALUES = new byte[0][];
+
+
+    private SearchResultEntryEncoder()
+    {
+    }
+
+
+    /**
+     * Encodes a SearchResultEntry PDU for the given entry.
+     *
+     * @param messageId The ID of the search request
+     * @param entry The entry to return
+     * @return The encoded PDU, ready to be written
+     */
+    public static IoBuffer encode( int messageId, Entry entry )
+    {
+        // First pass : get the bytes and compute the lengths
+        byte[] objectName = Strings.getBytesUtf8( entry.getDn().getName() );
+
+        int nbAttributes = entry.size();
+        byte[][] types = new byte[nbAttributes][];
+        byte[][][] values = new byte[nbAttributes][][];
+        int[] valsLengths = new int[nbAttributes];
+        int[] partialAttributeLengths = new int[nbAttributes];
+        int attributesLength = 0;
+        int pos = 0;
+
+        for ( Attribute attribute : entry )
+        {
+            byte[] type = Strings.getBytesUtf8( attribute.getUpId() );
+            byte[][] vals = NO_VALUES;
+            int valsLength = 0;
+
+            if ( attribute.size() > 0 )
+            {
+                vals = new byte[attribute.size()][];
+                int i = 0;
+
+                for ( Value value : attribute )
+                {
+                    byte[] bytes = value.getBytes();
+
+                    if ( bytes == null )
+                    {
+                        bytes = Strings.EMPTY_BYTES;
+                    }
+
+                    vals[i++] = bytes;
+                    valsLength += tlvLength( bytes.length );
+                }
+            }
+
+            int partialAttributeLength = tlvLength( type.length ) + tlvLength( valsLength );
+
+            types[pos] = type;
+            values[pos] = vals;
+            valsLengths[pos] = valsLength;
+            partialAttributeLengths[pos] = partialAttributeLength;
+            attributesLength += tlvLength( partialAttributeLength );
+            pos++;
+        }
+
+        int protocolOpLength = tlvLength( objectName.length ) + tlvLength( attributesLength );
+        int messageIdLength = integerLength( messageId );
+        int messageLength = tlvLength( messageIdLength ) + tlvLength( protocolOpLength );
+
+        // Second pass : write the PDU
+        IoBuffer buffer = IoBuffer.allocate( tlvLength( messageLength ) );
+
+        buffer.put( SEQUENCE_TAG );
+        putLength( buffer, messageLength );
+
+        buffer.put( INTEGER_TAG );
+        putLength( buffer, messageIdLength );
+
+        for ( int shift = ( messageIdLength - 1 ) * 8; shift >= 0; shift -= 8 )
+        {
+            buffer.put( ( byte ) ( messageId >> shift ) );
+        }
+
+        buffer.put( SEARCH_RESULT_ENTRY_TAG );
+        putLength( buffer, protocolOpLength );
+        putOctetString( buffer, objectName );
+
+        buffer.put( SEQUENCE_TAG );
+        putLength( buffer, attributesLength );
+
+        for ( int i = 0; i < pos; i++ )
+        {
+            buffer.put( SEQUENCE_TAG );
+            putLength( buffer, partialAttributeLengths[i] );
+            putOctetString( buffer, types[i] );
+
+            buffer.put( SET_TAG );
+            putLength( buffer, valsLengths[i] );
+
+            for ( byte[] value : values[i] )
+            {
+                putOctetString( buffer, value );
+            }
+        }
+
+        buffer.flip();
+
+        return buffer;
+    }
+
+
+    /**
+     * @return The length of a TLV which value has the given length
+     */
+    private static int tlvLength( int valueLength )
+    {
+        return 1 + lengthLength( valueLength ) + valueLength;
+    }
+
+
+    /**
+     * @return The number of bytes needed to encode a length
+     */
+    private static int lengthLength( int length )
+    {
+        if ( length < 0x80 )
+        {
+            return 1;
+        }
+        else if ( length < 0x100 )
+        {
+            return 2;
+        }
+        else if ( length < 0x10000 )
+        {
+            return 3;
+        }
+        else if ( length < 0x1000000 )
+        {
+            return 4;
+        }
+        else
+        {
+            return 5;
+        }
+    }
+
+
+    /**
+     * @return The number of bytes needed to encode a positive integer
+     */
+    private static int integerLength( int value )
+    {
+        if ( value < 0x80 )
+        {
+            return 1;
+        }
+        else if ( value < 0x8000 )
+        {
+            return 2;
+        }
+        else if ( value < 0x800000 )
+        {
+            return 3;
+        }
+        else
+        {
+            return 4;
+        }
+    }
+
+
+    private static void putLength( IoBuffer buffer, int length )
+    {
+        int nbBytes = lengthLength( length ) - 1;
+
+        if ( nbBytes == 0 )
+        {
+            buffer.put( ( byte ) length );
+        }
+        else
+        {
+            buffer.put( ( byte ) ( 0x80 | nbBytes ) );
+
+            for ( int shift = ( nbBytes - 1 ) * 8; shift >= 0; shift -= 8 )
+            {
+                buffer.put( ( byte ) ( length >> shift ) );
+            }
+        }
+    }
+
+
+    private static void putOctetString( IoBuffer buffer, byte[] bytes )
+    {
+        buffer.put( OCTET_STRING_TAG );
+        putLength( buffer, bytes.length );
+        buffer.put( bytes );
+    }
+}
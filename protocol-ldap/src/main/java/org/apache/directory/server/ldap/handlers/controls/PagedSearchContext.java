@@ -61,6 +61,15 @@ public class PagedSearchContext
     /** The associated cursor for the current search request */
     private Cursor<Entry> cursor;
 
+    /** The last time this context was used */
+    private volatile long lastAccess;
+
+    /** Set while a page is being read : the context can't be evicted */
+    private volatile boolean busy;
+
+    /** Set when the remaining entries have been spilled to disk */
+    private volatile boolean spilled;
+
 
     /**
      * Creates a new instance of this class, storing the SearchRequest into it.
@@ -71,6 +80,7 @@ public class PagedSearchContext
     {
         previousSearchRequest = searchRequest;
         currentPosition = 0;
+        lastAccess = System.currentTimeMillis();
 
         // We compute a key for this cookie. It combines the search request
         // and some time seed, in order to avoid possible collisions, as
@@ -319,6 +329,54 @@ public class PagedSearchContext
     }
 
 
+    /**
+     * @return The last time this context was used, in ms
+     */
+    public long getLastAccess()
+    {
+        return lastAccess;
+    }
+
+
+    /**
+     * @return <code>true</code> if a page is being read from this context
+     */
+    public boolean isBusy()
+    {
+        return busy;
+    }
+
+
+    /**
+     * Mark the context as being used or not. The last access time is updated.
+     *
+     * @param busy <code>true</code> if a page is being read from this context
+     */
+    public void setBusy( boolean busy )
+    {
+        this.busy = busy;
+        lastAccess = System.currentTimeMillis();
+    }
+
+
+    /**
+     * @return <code>true</code> if the remaining entries have been spilled to disk
+     */
+    public boolean isSpilled()
+    {
+        return spilled;
+    }
+
+
+    /**
+     * @param spilled <code>true</code> if the remaining entries have been spilled to disk
+     */
+    public void setSpilled( boolean spilled )
+    {
+        this.spilled = spilled;
+    }
+
+
     /**
      * @see Object#toString()
      */
@@ -330,6 +388,12 @@ public class PagedSearchContext
         sb.append( Strings.dumpBytes( cookie ) );
         sb.append( ", " );
         sb.append( currentPosition );
+
+        if ( spilled )
+        {
+            sb.append( ", spilled" );
+        }
+
         sb.append( ">" );
 
         return sb.toString();
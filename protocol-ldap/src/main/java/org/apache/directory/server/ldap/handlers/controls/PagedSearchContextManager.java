@@ -0,0 +1,660 @@
+/*
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *   or more contributor license agreements.  See the NOTICE file
+ *   distributed with this work for additional information
+ *   regarding copyright ownership.  The ASF licenses this file
+ *   to you under the Apache License, Version 2.0 (the
+ *   "License"); you may not use this file except in compliance
+ *   with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing,
+ *   software distributed under the License is distributed on an
+ *   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *   KIND, either express or implied.  See the License for the
+ *   specific language governing permissions and limitations
+ *   under the License.
+ *
+ */
+package org.apache.directory.server.ldap.handlers.controls;
+
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.directory.api.ldap.model.cursor.Cursor;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.server.ldap.LdapSession;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * Keeps track of the PagedSearch contexts of all the sessions. Each context holds an
+ * open cursor, and with it the candidates of the search, for as long as the client
+ * keeps the cookie, so the manager bounds them :
+ * <ul>
+ *   <li>a session can't have more than <em>maxContextsPerSession</em> contexts : the
+ *   least recently used one is discarded when a new one is added</li>
+ *   <li>the server can't hold more than <em>maxContexts</em> open cursors : the least
+ *   recently used context is either spilled to disk, if a spill directory has been
+ *   configured, or discarded. Spilling reads the whole remaining result set of another
+ *   client, so it's done by the background thread, and not by the thread adding the
+ *   new context : the limit may be exceeded until the spill is done</li>
+ *   <li>a context which has not been used for <em>idleTimeout</em> ms is discarded by a
+ *   background sweeper</li>
+ * </ul>
+ * A discarded context is closed, and its cookie is not valid anymore. A spilled
+ * context keeps its cookie : the DNs of the entries that have not yet been returned
+ * are written into a temporary file, the cursor is closed, and the next pages are
+ * read from the file by a {@link SpilledEntryCursor}.
+ * <br>
+ * The contexts which are being read are never discarded nor spilled.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class PagedSearchContextManager
+{
+    /** The logger */
+    private static final Logger LOG = LoggerFactory.getLogger( PagedSearchContextManager.class );
+
+    /** The default maximum number of contexts per session */
+    public static final int MAX_CONTEXTS_PER_SESSION_DEFAULT = 16;
+
+    /** The default maximum number of contexts holding an open cursor */
+    public static final int MAX_CONTEXTS_DEFAULT = 1024;
+
+    /** The default idle timeout (10 minutes) */
+    public static final long IDLE_TIMEOUT_DEFAULT = 10 * 60 * 1000L;
+
+    /** The value used to disable a limit */
+    public static final int NO_LIMIT = 0;
+
+    /** The minimum delay between two sweeps, in ms */
+    private static final long MIN_SWEEP_PERIOD = 1000L;
+
+    /** The maximum delay between two sweeps, in ms */
+    private static final long MAX_SWEEP_PERIOD = 60000L;
+
+    /** All the contexts, and the session they belong to */
+    private final Map<PagedSearchContext, LdapSession> contexts = new ConcurrentHashMap<>();
+
+    /** The maximum number of contexts per session */
+    private volatile int maxContextsPerSession = MAX_CONTEXTS_PER_SESSION_DEFAULT;
+
+    /** The maximum number of contexts holding an open cursor */
+    private volatile int maxContexts = MAX_CONTEXTS_DEFAULT;
+
+    /** The time after which an unused context is discarded, in ms */
+    private volatile long idleTimeout = IDLE_TIMEOUT_DEFAULT;
+
+    /** The directory where the contexts are spilled. If null, they are discarded */
+    private volatile File spillDirectory;
+
+    /** The executor running the idle contexts sweeper and the spills */
+    private ScheduledExecutorService sweeper;
+
+    /** Tells if the sweeper has been started */
+    private boolean sweeping;
+
+    /** Tells if a spill of the contexts over the limit is waiting for the sweeper */
+    private final AtomicBoolean spillScheduled = new AtomicBoolean( false );
+
+
+    /**
+     * Starts the sweeper discarding the idle contexts.
+     */
+    public synchronized void start()
+    {
+        if ( sweeping || ( idleTimeout <= NO_LIMIT ) )
+        {
+            return;
+        }
+
+        sweeping = true;
+        long period = Math.min( MAX_SWEEP_PERIOD, Math.max( MIN_SWEEP_PERIOD, idleTimeout / 4 ) );
+
+        getSweeper().scheduleWithFixedDelay( new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                sweep();
+            }
+        }, period, period, TimeUnit.MILLISECONDS );
+    }
+
+
+    /**
+     * Stops the sweeper.
+     */
+    public synchronized void stop()
+    {
+        if ( sweeper != null )
+        {
+            sweeper.shutdownNow();
+            sweeper = null;
+        }
+
+        sweeping = false;
+    }
+
+
+    /**
+     * @return The executor running the sweeper and the spills, created when first needed
+     */
+    private synchronized ScheduledExecutorService getSweeper()
+    {
+        if ( sweeper == null )
+        {
+            sweeper = Executors.newSingleThreadScheduledExecutor( new ThreadFactory()
+            {
+                @Override
+                public Thread newThread( Runnable runnable )
+                {
+                    Thread thread = new Thread( runnable, "PagedSearchSweeper" );
+                    thread.setDaemon( true );
+
+                    return thread;
+                }
+            } );
+        }
+
+        return sweeper;
+    }
+
+
+    /**
+     * Adds a new context to a session. The context is marked busy, it has to be
+     * released when the page has been read. If the session or the server is above
+     * its limits, some other contexts are discarded or spilled.
+     *
+     * @param session The session
+     * @param context The new context
+     */
+    public void add( LdapSession session, PagedSearchContext context )
+    {
+        context.setBusy( true );
+        session.addPagedSearchContext( context );
+        contexts.put( context, session );
+
+        enforceSessionLimit( session );
+        enforceGlobalLimit();
+    }
+
+
+    /**
+     * Gets the context associated with a cookie, and marks it busy. It has to be
+     * released when the page has been read.
+     *
+     * @param session The session
+     * @param cookieValue The cookie value
+     * @return The context, or null if there is none
+     */
+    public PagedSearchContext acquire( LdapSession session, int cookieValue )
+    {
+        PagedSearchContext context = session.getPagedSearchContext( cookieValue );
+
+        if ( context == null )
+        {
+            return null;
+        }
+
+        // Wait for a spill in progress to be completed
+        synchronized ( context )
+        {
+            // The context may have been discarded, and its cursor closed, before we got its monitor
+            if ( session.getPagedSearchContext( cookieValue ) != context )
+            {
+                return null;
+            }
+
+            context.setBusy( true );
+        }
+
+        return context;
+    }
+
+
+    /**
+     * Tells the manager that a page has been read from a context.
+     *
+     * @param context The context
+     */
+    public void release( PagedSearchContext context )
+    {
+        if ( context != null )
+        {
+            context.setBusy( false );
+        }
+    }
+
+
+    /**
+     * Removes a context from a session. The cursor is not closed.
+     *
+     * @param session The session
+     * @param cookieValue The cookie value
+     * @return The removed context, if any
+     */
+    public PagedSearchContext remove( LdapSession session, int cookieValue )
+    {
+        PagedSearchContext context = session.removePagedSearchContext( cookieValue );
+
+        if ( context != null )
+        {
+            contexts.remove( context );
+        }
+
+        return context;
+    }
+
+
+    /**
+     * Closes all the contexts of a session which is being closed.
+     *
+     * @param session The session
+     */
+    public void removeAll( LdapSession session )
+    {
+        for ( Map.Entry<PagedSearchContext, LdapSession> entry : contexts.entrySet() )
+        {
+            if ( entry.getValue() == session )
+            {
+                contexts.remove( entry.getKey() );
+            }
+        }
+
+        try
+        {
+            session.closeAllPagedSearches();
+        }
+        catch ( Exception e )
+        {
+            LOG.warn( "Failed to close the paged searches of {} : {}", session, e.getMessage() );
+        }
+    }
+
+
+    /**
+     * @return The number of contexts
+     */
+    public int size()
+    {
+        return contexts.size();
+    }
+
+
+    /**
+     * Discards the least recently used contexts of a session, until it is below the limit
+     */
+    private void enforceSessionLimit( LdapSession session )
+    {
+        int max = maxContextsPerSession;
+
+        if ( max <= NO_LIMIT )
+        {
+            return;
+        }
+
+        while ( true )
+        {
+            PagedSearchContext victim = null;
+            int count = 0;
+
+            for ( Map.Entry<PagedSearchContext, LdapSession> entry : contexts.entrySet() )
+            {
+                if ( entry.getValue() == session )
+                {
+                    count++;
+                    victim = olderOf( victim, entry.getKey() );
+                }
+            }
+
+            if ( ( count <= max ) || ( victim == null ) || !discard( session, victim ) )
+            {
+                return;
+            }
+
+            LOG.debug( "Discarded the paged search {}, the session has more than {} contexts", victim, max );
+        }
+    }
+
+
+    /**
+     * Discards the least recently used contexts until the number of open cursors is below
+     * the limit. When they can be spilled, the sweeper thread is asked to do it.
+     */
+    private void enforceGlobalLimit()
+    {
+        int max = maxContexts;
+
+        if ( max <= NO_LIMIT )
+        {
+            return;
+        }
+
+        if ( spillDirectory == null )
+        {
+            reduceOpenCursors( max );
+
+            return;
+        }
+
+        if ( ( countOpenCursors() > max ) && spillScheduled.compareAndSet( false, true ) )
+        {
+            getSweeper().execute( new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    spillScheduled.set( false );
+                    reduceOpenCursors( maxContexts );
+                }
+            } );
+        }
+    }
+
+
+    /**
+     * @return The number of contexts holding an open cursor
+     */
+    private int countOpenCursors()
+    {
+        int count = 0;
+
+        for ( PagedSearchContext context : contexts.keySet() )
+        {
+            if ( !context.isSpilled() )
+            {
+                count++;
+            }
+        }
+
+        return count;
+    }
+
+
+    /**
+     * Spills or discards the least recently used contexts, until the number of open
+     * cursors is below the limit
+     */
+    private void reduceOpenCursors( int max )
+    {
+        if ( max <= NO_LIMIT )
+        {
+            return;
+        }
+
+        while ( true )
+        {
+            PagedSearchContext victim = null;
+            int count = 0;
+
+            for ( PagedSearchContext context : contexts.keySet() )
+            {
+                if ( !context.isSpilled() )
+                {
+                    count++;
+                    victim = olderOf( victim, context );
+                }
+            }
+
+            if ( ( count <= max ) || ( victim == null ) )
+            {
+                return;
+            }
+
+            LdapSession session = contexts.get( victim );
+
+            if ( ( session == null ) || ( !spill( session, victim ) && !discard( session, victim ) ) )
+            {
+                return;
+            }
+        }
+    }
+
+
+    /**
+     * @return the least recently used of two contexts, ignoring the busy ones
+     */
+    private PagedSearchContext olderOf( PagedSearchContext older, PagedSearchContext context )
+    {
+        if ( context.isBusy() )
+        {
+            return older;
+        }
+
+        if ( ( older == null ) || ( context.getLastAccess() < older.getLastAccess() ) )
+        {
+            return context;
+        }
+
+        return older;
+    }
+
+
+    /**
+     * Removes the idle contexts, and the ones which have been removed from their session
+     * without telling the manager. The contexts which were busy when they had to be spilled
+     * are spilled now.
+     */
+    void sweep()
+    {
+        long limit = System.currentTimeMillis() - idleTimeout;
+
+        for ( Map.Entry<PagedSearchContext, LdapSession> entry : contexts.entrySet() )
+        {
+            PagedSearchContext context = entry.getKey();
+            LdapSession session = entry.getValue();
+
+            if ( session.getPagedSearchContext( context.getCookieValue() ) != context )
+            {
+                contexts.remove( context );
+            }
+            else if ( ( idleTimeout > NO_LIMIT ) && !context.isBusy() && ( context.getLastAccess() < limit )
+                && discard( session, context ) )
+            {
+                LOG.debug( "Discarded the idle paged search {}", context );
+            }
+        }
+
+        reduceOpenCursors( maxContexts );
+    }
+
+
+    /**
+     * Removes a context from its session and close its cursor.
+     *
+     * @return <code>false</code> if the context is being used
+     */
+    private boolean discard( LdapSession session, PagedSearchContext context )
+    {
+        synchronized ( context )
+        {
+            if ( context.isBusy() )
+            {
+                return false;
+            }
+
+            contexts.remove( context );
+
+            if ( session.getPagedSearchContext( context.getCookieValue() ) == context )
+            {
+                session.removePagedSearchContext( context.getCookieValue() );
+            }
+
+            closeCursor( context.getCursor() );
+
+            return true;
+        }
+    }
+
+
+    /**
+     * Writes the DNs of the entries which have not yet been returned into a file, and
+     * replace the cursor by a cursor reading this file.
+     *
+     * @return <code>false</code> if the context can't be spilled
+     */
+    private boolean spill( LdapSession session, PagedSearchContext context )
+    {
+        File directory = spillDirectory;
+
+        if ( directory == null )
+        {
+            return false;
+        }
+
+        synchronized ( context )
+        {
+            if ( context.isBusy() || context.isSpilled() || ( context.getCursor() == null ) )
+            {
+                return false;
+            }
+
+            File file = null;
+
+            try
+            {
+                file = File.createTempFile( "pagedSearch", ".dn", directory );
+                Cursor<Entry> cursor = context.getCursor();
+                long nbEntries = 0L;
+
+                try ( DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream( new FileOutputStream( file ) ) ) )
+                {
+                    while ( cursor.next() )
+                    {
+                        out.writeUTF( cursor.get().getDn().getName() );
+                        nbEntries++;
+                    }
+                }
+
+                closeCursor( cursor );
+                context.setCursor( new SpilledEntryCursor( file, session.getCoreSession(),
+                    context.getPreviousSearchRequest().getAttributes() ) );
+                context.setSpilled( true );
+
+                LOG.debug( "Spilled {} entries of the paged search {} into {}", nbEntries, context, file );
+
+                return true;
+            }
+            catch ( Exception e )
+            {
+                LOG.warn( "Cannot spill the paged search {} : {}", context, e.getMessage() );
+
+                if ( ( file != null ) && !file.delete() )
+                {
+                    LOG.warn( "Cannot delete the paged search spill file {}", file );
+                }
+
+                return false;
+            }
+        }
+    }
+
+
+    private void closeCursor( Cursor<Entry> cursor )
+    {
+        if ( cursor != null )
+        {
+            try
+            {
+                cursor.close();
+            }
+            catch ( Exception e )
+            {
+                LOG.warn( "Failed to close a paged search cursor : {}", e.getMessage() );
+            }
+        }
+    }
+
+
+    /**
+     * @return The maximum number of contexts per session
+     */
+    public int getMaxContextsPerSession()
+    {
+        return maxContextsPerSession;
+    }
+
+
+    /**
+     * @param maxContextsPerSession The maximum number of contexts per session, 0 for no limit
+     */
+    public void setMaxContextsPerSession( int maxContextsPerSession )
+    {
+        this.maxContextsPerSession = maxContextsPerSession;
+    }
+
+
+    /**
+     * @return The maximum number of contexts holding an open cursor
+     */
+    public int getMaxContexts()
+    {
+        return maxContexts;
+    }
+
+
+    /**
+     * @param maxContexts The maximum number of contexts holding an open cursor, for all
+     * the sessions, 0 for no limit
+     */
+    public void setMaxContexts( int maxContexts )
+    {
+        this.maxContexts = maxContexts;
+    }
+
+
+    /**
+     * @return The time after which an unused context is discarded, in ms
+     */
+    public long getIdleTimeout()
+    {
+        return idleTimeout;
+    }
+
+
+    /**
+     * Sets the time after which an unused context is discarded. It's taken into
+     * account by the sweeper when the server is started.
+     *
+     * @param idleTimeout The idle timeout in ms, 0 to keep the contexts until the
+     * session is closed
+     */
+    public void setIdleTimeout( long idleTimeout )
+    {
+        this.idleTimeout = idleTimeout;
+    }
+
+
+    /**
+     * @return The directory where the contexts are spilled
+     */
+    public File getSpillDirectory()
+    {
+        return spillDirectory;
+    }
+
+
+    /**
+     * @param spillDirectory The directory where the contexts are spilled when there are
+     * too many open cursors. If null, the contexts are discarded
+     */
+    public void setSpillDirectory( File spillDirectory )
+    {
+        this.spillDirectory = spillDirectory;
+    }
+}
@@ -0,0 +1,311 @@
+/*
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *   or more contributor license agreements.  See the NOTICE file
+ *   distributed with this work for additional information
+ *   regarding copyright ownership.  The ASF licenses this file
+ *   to you under the Apache License, Version 2.0 (the
+ *   "License"); you may not use this file except in compliance
+ *   with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing,
+ *   software distributed under the License is distributed on an
+ *   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *   KIND, either express or implied.  See the License for the
+ *   specific language governing permissions and limitations
+ *   under the License.
+ *
+ */
+package org.apache.directory.server.ldap.handlers.controls;
+
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.List;
+
+import org.apache.directory.api.ldap.model.cursor.AbstractCursor;
+import org.apache.directory.api.ldap.model.cursor.CursorException;
+import org.apache.directory.api.ldap.model.cursor.InvalidCursorPositionException;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.exception.LdapNoSuchObjectException;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.server.core.api.CoreSession;
+import org.apache.directory.server.i18n.I18n;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * A forward only Cursor over the entries of a paged search which have been spilled to
+ * disk. The file contains the DNs of the entries that have not yet been returned : each
+ * entry is read again when the cursor reaches it, using the attributes of the search
+ * request. The entries deleted in the meantime are skipped.
+ * <br>
+ * The paged search handler moves one entry forward to know if there are more entries,
+ * then moves back, so this cursor can move backward by one position. The spill file is
+ * deleted when the cursor is closed.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class SpilledEntryCursor extends AbstractCursor<Entry>
+{
+    /** The logger */
+    private static final Logger LOG = LoggerFactory.getLogger( SpilledEntryCursor.class );
+
+    /** The file containing the DNs */
+    private final File file;
+
+    /** The stream reading the file */
+    private final DataInputStream in;
+
+    /** The session used to read the entries back */
+    private final CoreSession coreSession;
+
+    /** The attributes to return */
+    private final String[] attributes;
+
+    /** The current entry */
+    private Entry current;
+
+    /** Set when the cursor has moved backward : the next move will return the current entry */
+    private boolean pushedBack;
+
+
+    /**
+     * Creates a new instance of SpilledEntryCursor.
+     *
+     * @param file The file containing the DNs of the entries to return
+     * @param coreSession The session used to read the entries
+     * @param attributes The attributes to return
+     * @throws IOException If the file cannot be opened
+     */
+    public SpilledEntryCursor( File file, CoreSession coreSession, List<String> attributes ) throws IOException
+    {
+        this.file = file;
+        this.coreSession = coreSession;
+        this.attributes = attributes.toArray( new String[attributes.size()] );
+        in = new DataInputStream( new BufferedInputStream( new FileInputStream( file ) ) );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean available()
+    {
+        return ( current != null ) && !pushedBack;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void before( Entry element ) throws LdapException, CursorException
+    {
+        throw new UnsupportedOperationException( I18n.err( I18n.ERR_446 ) );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void after( Entry element ) throws LdapException, CursorException
+    {
+        throw new UnsupportedOperationException( I18n.err( I18n.ERR_446 ) );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void beforeFirst() throws LdapException, CursorException
+    {
+        throw new UnsupportedOperationException( I18n.err( I18n.ERR_446 ) );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void afterLast() throws LdapException, CursorException
+    {
+        throw new UnsupportedOperationException( I18n.err( I18n.ERR_446 ) );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean first() throws LdapException, CursorException
+    {
+        throw new UnsupportedOperationException( I18n.err( I18n.ERR_446 ) );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean last() throws LdapException, CursorException
+    {
+        throw new UnsupportedOperationException( I18n.err( I18n.ERR_446 ) );
+    }
+
+
+    /**
+     * Moves back to the previously returned entry. Only one step back is possible.
+     */
+    @Override
+    public boolean previous() throws LdapException, CursorException
+    {
+        checkNotClosed();
+
+        if ( ( current == null ) || pushedBack )
+        {
+            throw new UnsupportedOperationException( I18n.err( I18n.ERR_446 ) );
+        }
+
+        pushedBack = true;
+
+        return true;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean next() throws LdapException, CursorException
+    {
+        checkNotClosed();
+
+        if ( pushedBack )
+        {
+            pushedBack = false;
+
+            return true;
+        }
+
+        try
+        {
+            while ( true )
+            {
+                String dn;
+
+                try
+                {
+                    dn = in.readUTF();
+                }
+                catch ( EOFException eofe )
+                {
+                    current = null;
+
+                    return false;
+                }
+
+                try
+                {
+                    current = coreSession.lookup( new Dn( coreSession.getDirectoryService().getSchemaManager(), dn ),
+                        attributes );
+                }
+                catch ( LdapNoSuchObjectException lnsoe )
+                {
+                    current = null;
+                }
+
+                if ( current != null )
+                {
+                    return true;
+                }
+
+                LOG.debug( "The spilled entry {} does not exist anymore", dn );
+            }
+        }
+        catch ( IOException ioe )
+        {
+            throw new CursorException( ioe );
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Entry get() throws CursorException
+    {
+        checkNotClosed();
+
+        if ( !available() )
+        {
+            throw new InvalidCursorPositionException();
+        }
+
+        return current;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void close() throws IOException
+    {
+        try
+        {
+            super.close();
+        }
+        finally
+        {
+            release();
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void close( Exception cause ) throws IOException
+    {
+        try
+        {
+            super.close( cause );
+        }
+        finally
+        {
+            release();
+        }
+    }
+
+
+    /**
+     * Close the file and delete it
+     */
+    private void release() throws IOException
+    {
+        try
+        {
+            in.close();
+        }
+        finally
+        {
+            if ( file.exists() && !file.delete() )
+            {
+                LOG.warn( "Cannot delete the paged search spill file {}", file );
+            }
+        }
+    }
+}
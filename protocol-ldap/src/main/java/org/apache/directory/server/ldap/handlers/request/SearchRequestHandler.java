@@ -33,6 +33,7 @@ import org.apache.directory.api.ldap.extras.controls.syncrepl.syncRequest.SyncRe
 import org.apache.directory.api.ldap.model.constants.SchemaConstants;
 import org.apache.directory.api.ldap.model.cursor.Cursor;
 import org.apache.directory.api.ldap.model.cursor.CursorClosedException;
+import org.apache.directory.api.ldap.model.cursor.CursorException;
 import org.apache.directory.api.ldap.model.entry.Attribute;
 import org.apache.directory.api.ldap.model.entry.Entry;
 import org.apache.directory.api.ldap.model.entry.Value;
@@ -44,6 +45,8 @@ import org.apache.directory.api.ldap.model.filter.EqualityNode;
 import org.apache.directory.api.ldap.model.filter.ExprNode;
 import org.apache.directory.api.ldap.model.filter.OrNode;
 import org.apache.directory.api.ldap.model.filter.PresenceNode;
+import org.apache.directory.api.ldap.model.message.AbandonListener;
+import org.apache.directory.api.ldap.model.message.AbandonableRequest;
 import org.apache.directory.api.ldap.model.message.Control;
 import org.apache.directory.api.ldap.model.message.LdapResult;
 import org.apache.directory.api.ldap.model.message.MessageTypeEnum;
@@ -76,9 +79,11 @@ import org.apache.directory.server.core.api.filtering.EntryFilteringCursor;
 import org.apache.directory.server.core.api.partition.PartitionNexus;
 import org.apache.directory.server.i18n.I18n;
 import org.apache.directory.server.ldap.LdapSession;
+import org.apache.directory.server.ldap.OutboundFlowControl;
 import org.apache.directory.server.ldap.handlers.LdapRequestHandler;
 import org.apache.directory.server.ldap.handlers.PersistentSearchListener;
 import org.apache.directory.server.ldap.handlers.SearchAbandonListener;
+import org.apache.directory.server.ldap.handlers.SearchResultEntryEncoder;
 import org.apache.directory.server.ldap.handlers.SearchTimeLimitingMonitor;
 import org.apache.directory.server.ldap.handlers.controls.PagedSearchContext;
 import org.apache.directory.server.ldap.replication.provider.ReplicationRequestHandler;
@@ -131,25 +136,59 @@ public class SearchRequestHandler extends LdapRequestHandler<SearchRequest>
      * @param psearchDecorator the persistent search decorator extracted
      * @throws Exception if failures are encountered while searching
      */
-    private void handlePersistentSearch( LdapSession session, SearchRequest req, PersistentSearch psearch ) throws Exception
+    private void handlePersistentSearch( final LdapSession session, final SearchRequest req,
+        final PersistentSearch psearch ) throws Exception
     {
         /*
          * We want the search to complete first before we start listening to
-         * events when the decorator does NOT specify changes ONLY mode.
+         * events when the decorator does NOT specify changes ONLY mode. The
+         * search may be paused while its entries are written, so we only
+         * start listening once it's done.
          */
         if ( !psearch.isChangesOnly() )
         {
-            SearchResultDone done = doSimpleSearch( session, req );
-
-            // ok if normal search beforehand failed somehow quickly abandon psearch
-            if ( done.getLdapResult().getResultCode() != ResultCodeEnum.SUCCESS )
+            doSimpleSearch( session, req, new SearchCompletion()
             {
-                session.getIoSession().write( done );
+                @Override
+                public void completed( SearchResultDone done ) throws Exception
+                {
+                    // ok if normal search beforehand failed somehow quickly abandon psearch
+                    if ( done.getLdapResult().getResultCode() != ResultCodeEnum.SUCCESS )
+                    {
+                        session.getIoSession().write( done );
 
-                return;
-            }
+                        return;
+                    }
+
+                    listenToChanges( session, req, psearch );
+                }
+
+
+                @Override
+                public void failed( Exception e )
+                {
+                    searchFailed( session, req, e );
+                }
+            } );
         }
+        else
+        {
+            listenToChanges( session, req, psearch );
+        }
+    }
 
+
+    /**
+     * Registers the listener sending the changes to a persistent search client.
+     *
+     * @param session the LdapSession for which this search is conducted
+     * @param req the search request containing the persistent search decorator
+     * @param psearch the persistent search decorator extracted
+     * @throws Exception if the listener cannot be registered
+     */
+    private void listenToChanges( LdapSession session, SearchRequest req, PersistentSearch psearch )
+        throws Exception
+    {
         if ( req.isAbandoned() )
         {
             return;
@@ -273,7 +312,7 @@ public class SearchRequestHandler extends LdapRequestHandler<SearchRequest>
             req.getAttributes().toArray( new String[]
                 {} ) );
 
-        session.getIoSession().write( generateResponse( session, req, entry ) );
+        writeResponse( session, req, entry );
 
         // write the SearchResultDone message
         session.getIoSession().write( req.getResultResponse() );
@@ -371,159 +410,403 @@ public class SearchRequestHandler extends LdapRequestHandler<SearchRequest>
     }
 
 
-    private void writeResults( LdapSession session, SearchRequest req, LdapResult ldapResult,
-        Cursor<Entry> cursor, long sizeLimit ) throws Exception
+    /**
+     * Closes a cursor, unless it has already been closed.
+     */
+    private void closeCursor( Cursor<Entry> cursor )
+    {
+        if ( ( cursor != null ) && !cursor.isClosed() )
+        {
+            try
+            {
+                cursor.close();
+            }
+            catch ( Exception e )
+            {
+                LOG.error( I18n.err( I18n.ERR_168 ), e );
+            }
+        }
+    }
+
+
+    /**
+     * Sends the response of a failed search, and removes the request from the session.
+     */
+    private void searchFailed( LdapSession session, SearchRequest req, Exception e )
+    {
+        // An abandoned search must not send back anything (RFC 4511, section 4.11)
+        if ( !( e instanceof OperationAbandonedException ) )
+        {
+            handleException( session, req, e );
+        }
+
+        session.unregisterOutstandingRequest( req );
+    }
+
+
+    /**
+     * Called when a search is done. As the search may have been paused while its entries
+     * were written, it may be called by another thread than the one which received the
+     * request.
+     */
+    private interface SearchCompletion
+    {
+        /**
+         * Called once all the entries have been written and the cursor released.
+         *
+         * @param done The SearchResultDone, which has not been written
+         * @throws Exception If the search cannot be completed
+         */
+        void completed( SearchResultDone done ) throws Exception;
+
+
+        /**
+         * Called when the search has failed, once the cursor has been released.
+         *
+         * @param e The error
+         */
+        void failed( Exception e );
+    }
+
+
+    /**
+     * Writes the entries returned by a search cursor. When the client does not read the
+     * responses fast enough, the writer stops reading the cursor and returns, releasing
+     * its thread : the {@link OutboundFlowControl} runs it again once the client has read
+     * the pending responses, or when the request is abandoned or the session closed.
+     */
+    private class SearchResultsWriter implements Runnable, AbandonListener
     {
-        long count = 0;
+        /** The session the entries are written into */
+        protected final LdapSession session;
 
-        while ( ( count < sizeLimit ) && cursor.next() )
+        /** The search request */
+        protected final SearchRequest req;
+
+        /** The cursor on the entries to write */
+        protected final Cursor<Entry> cursor;
+
+        /** The maximum number of entries to return */
+        protected final long sizeLimit;
+
+        /** What to do once the entries have been written */
+        protected final SearchCompletion completion;
+
+        /** The number of entries returned so far */
+        protected long count;
+
+
+        SearchResultsWriter( LdapSession session, SearchRequest req, Cursor<Entry> cursor, long sizeLimit,
+            SearchCompletion completion )
         {
-            // Handle closed session
-            if ( session.getIoSession().isClosing() )
+            this.session = session;
+            this.req = req;
+            this.cursor = cursor;
+            this.sizeLimit = sizeLimit;
+            this.completion = completion;
+
+            req.addAbandonListener( this );
+        }
+
+
+        /**
+         * Writes the next entries, then completes the search, unless the writer has been paused.
+         */
+        @Override
+        public void run()
+        {
+            try
             {
-                // The client has closed the connection
-                if ( IS_DEBUG )
+                if ( writeEntries() )
                 {
-                    LOG.debug( "Request terminated for message {}, the client has closed the session",
-                        req.getMessageId() );
+                    complete();
                 }
-
-                break;
             }
+            catch ( Exception e )
+            {
+                fail( e );
+            }
+        }
 
-            if ( req.isAbandoned() )
+
+        /**
+         * Resumes the writer if it has been paused, so that it stops.
+         */
+        @Override
+        public void requestAbandoned( AbandonableRequest abandonedRequest )
+        {
+            ldapServer.getOutboundFlowControl().resume( session );
+        }
+
+
+        /**
+         * Writes the entries until a limit is reached or the cursor is exhausted.
+         *
+         * @return <code>false</code> if the writer has been paused
+         */
+        private boolean writeEntries() throws Exception
+        {
+            OutboundFlowControl flowControl = ldapServer.getOutboundFlowControl();
+
+            while ( !isFull() )
             {
-                cursor.close( new OperationAbandonedException() );
+                // Don't queue more responses than the client can read : stop reading
+                // the cursor until the client has read the pending responses
+                if ( flowControl.mustPause( session ) && !req.isAbandoned() )
+                {
+                    flowControl.pause( session, this );
+
+                    return false;
+                }
+
+                if ( !cursor.next() )
+                {
+                    break;
+                }
+
+                // Handle closed session
+                if ( session.getIoSession().isClosing() )
+                {
+                    // The client has closed the connection
+                    if ( IS_DEBUG )
+                    {
+                        LOG.debug( "Request terminated for message {}, the client has closed the session",
+                            req.getMessageId() );
+                    }
+
+                    break;
+                }
+
+                if ( req.isAbandoned() )
+                {
+                    cursor.close( new OperationAbandonedException() );
+
+                    // The cursor has been closed by an abandon request.
+                    if ( IS_DEBUG )
+                    {
+                        LOG.debug( "Request terminated by an AbandonRequest for message {}", req.getMessageId() );
+                    }
+
+                    break;
+                }
+
+                Entry entry = cursor.get();
+                writeResponse( session, req, entry );
 
-                // The cursor has been closed by an abandon request.
                 if ( IS_DEBUG )
                 {
-                    LOG.debug( "Request terminated by an AbandonRequest for message {}", req.getMessageId() );
+                    LOG.debug( "Sending {}", entry.getDn() );
                 }
 
-                break;
+                entryWritten();
             }
 
-            Entry entry = cursor.get();
-            session.getIoSession().write( generateResponse( session, req, entry ) );
+            return true;
+        }
 
-            if ( IS_DEBUG )
-            {
-                LOG.debug( "Sending {}", entry.getDn() );
-            }
 
+        /**
+         * @return <code>true</code> if no more entry can be returned
+         */
+        protected boolean isFull()
+        {
+            return count >= sizeLimit;
+        }
+
+
+        /**
+         * Counts an entry which has been written
+         */
+        protected void entryWritten()
+        {
             count++;
         }
 
-        // check if the result code is not already set
-        // the result code might be set when sort control is present
-        if ( ldapResult.getResultCode() == null )
+
+        /**
+         * Sets the result, releases the cursor and completes the search.
+         */
+        protected void complete() throws Exception
         {
-            // DO NOT WRITE THE RESPONSE - JUST RETURN IT
-            ldapResult.setResultCode( ResultCodeEnum.SUCCESS );
+            LdapResult ldapResult = req.getResultResponse().getLdapResult();
+
+            // check if the result code is not already set
+            // the result code might be set when sort control is present
+            if ( ldapResult.getResultCode() == null )
+            {
+                // DO NOT WRITE THE RESPONSE - JUST RETURN IT
+                ldapResult.setResultCode( ResultCodeEnum.SUCCESS );
+            }
+
+            if ( ( count >= sizeLimit ) && ( cursor.next() ) )
+            {
+                // We have reached the limit
+                // Move backward on the cursor to restore the previous position, as we moved forward
+                // to check if there is one more entry available
+                cursor.previous();
+                // Special case if the user has requested more elements than the request size limit
+                ldapResult.setResultCode( ResultCodeEnum.SIZE_LIMIT_EXCEEDED );
+            }
+
+            closeCursor( cursor );
+
+            completion.completed( ( SearchResultDone ) req.getResultResponse() );
         }
 
-        if ( ( count >= sizeLimit ) && ( cursor.next() ) )
+
+        /**
+         * Releases the cursor and fails the search.
+         */
+        protected void fail( Exception e )
         {
-            // We have reached the limit
-            // Move backward on the cursor to restore the previous position, as we moved forward
-            // to check if there is one more entry available
-            cursor.previous();
-            // Special case if the user has requested more elements than the request size limit
-            ldapResult.setResultCode( ResultCodeEnum.SIZE_LIMIT_EXCEEDED );
+            closeCursor( cursor );
+
+            completion.failed( e );
         }
     }
 
 
-    private void readPagedResults( LdapSession session, SearchRequest req, LdapResult ldapResult,
-        Cursor<Entry> cursor, long sizeLimit, int pagedLimit, PagedSearchContext pagedContext,
-        PagedResults pagedResultsControl ) throws Exception
+    /**
+     * Writes a page of entries of a paged search. The cursor is kept in the paged search
+     * context until the last page has been written.
+     */
+    private class PagedResultsWriter extends SearchResultsWriter
     {
-        req.addAbandonListener( new SearchAbandonListener( ldapServer, cursor ) );
-        setTimeLimitsOnCursor( req, session, cursor );
+        /** The maximum number of entries in the page */
+        private final int pagedLimit;
 
-        if ( IS_DEBUG )
-        {
-            LOG.debug( "using <{},{}> for size limit", sizeLimit, pagedLimit );
-        }
+        /** The context of the paged search, acquired until the page has been written */
+        private final PagedSearchContext pagedContext;
+
+        /** The control returned with the page */
+        private final PagedResults pagedResultsControl;
 
-        int cookieValue = 0;
+        /** The number of entries written in this page */
+        private int pageCount;
 
-        int count = pagedContext.getCurrentPosition();
-        int pageCount = 0;
 
-        while ( ( count < sizeLimit ) && ( pageCount < pagedLimit ) && cursor.next() )
+        PagedResultsWriter( LdapSession session, SearchRequest req, Cursor<Entry> cursor, long sizeLimit,
+            int pagedLimit, PagedSearchContext pagedContext, PagedResults pagedResultsControl,
+            SearchCompletion completion )
         {
-            if ( session.getIoSession().isClosing() )
-            {
-                break;
-            }
+            super( session, req, cursor, sizeLimit, completion );
 
-            Entry entry = cursor.get();
-            session.getIoSession().write( generateResponse( session, req, entry ) );
-            count++;
-            pageCount++;
+            this.pagedLimit = pagedLimit;
+            this.pagedContext = pagedContext;
+            this.pagedResultsControl = pagedResultsControl;
+            count = pagedContext.getCurrentPosition();
         }
 
-        // DO NOT WRITE THE RESPONSE - JUST RETURN IT
-        ldapResult.setResultCode( ResultCodeEnum.SUCCESS );
 
-        boolean hasMoreEntry = cursor.next();
-
-        // We have some entry, move back to the first one, as we just moved forward
-        // to get the first entry
-        if ( hasMoreEntry )
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        protected boolean isFull()
         {
-            cursor.previous();
+            return super.isFull() || ( pageCount >= pagedLimit );
         }
 
-        if ( !hasMoreEntry )
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        protected void entryWritten()
         {
-            // That means we don't have anymore entry
-            // If we are here, it means we have returned all the entries
-            // We have to remove the cookie from the session
-            cookieValue = pagedContext.getCookieValue();
-            PagedSearchContext psCookie = session.removePagedSearchContext( cookieValue );
+            super.entryWritten();
+            pageCount++;
+        }
 
-            // Close the cursor if there is one
-            if ( psCookie != null )
-            {
-                cursor = psCookie.getCursor();
 
-                if ( cursor != null )
-                {
-                    cursor.close();
-                }
+        /**
+         * Sets the result and the paged results control, releases the paged search
+         * context and completes the search.
+         */
+        @Override
+        protected void complete() throws Exception
+        {
+            if ( req.isAbandoned() )
+            {
+                // The cursor has been closed, the page can't be completed
+                throw new OperationAbandonedException();
             }
 
-            pagedResultsControl = new PagedResultsImpl();
-            pagedResultsControl.setCritical( true );
-            pagedResultsControl.setSize( 0 );
-            req.getResultResponse().addControl( pagedResultsControl );
-        }
-        else
-        {
-            // We have reached one limit
+            LdapResult ldapResult = req.getResultResponse().getLdapResult();
+
+            // DO NOT WRITE THE RESPONSE - JUST RETURN IT
+            ldapResult.setResultCode( ResultCodeEnum.SUCCESS );
+
+            boolean hasMoreEntry = cursor.next();
 
-            if ( count < sizeLimit )
+            // We have some entry, move back to the first one, as we just moved forward
+            // to get the first entry
+            if ( hasMoreEntry )
             {
-                // We stop here. We have to add a ResponseControl
-                // DO NOT WRITE THE RESPONSE - JUST RETURN IT
-                ldapResult.setResultCode( ResultCodeEnum.SUCCESS );
-                req.getResultResponse().addControl( pagedResultsControl );
+                cursor.previous();
+            }
+
+            if ( !hasMoreEntry )
+            {
+                // That means we don't have anymore entry
+                // If we are here, it means we have returned all the entries
+                // We have to remove the cookie from the session
+                int cookieValue = pagedContext.getCookieValue();
+                PagedSearchContext psCookie = ldapServer.getPagedSearchContextManager().remove( session, cookieValue );
 
-                // Stores the cursor current position
-                pagedContext.incrementCurrentPosition( pageCount );
+                // Close the cursor if there is one
+                if ( psCookie != null )
+                {
+                    closeCursor( psCookie.getCursor() );
+                }
+
+                PagedResults lastPageControl = new PagedResultsImpl();
+                lastPageControl.setCritical( true );
+                lastPageControl.setSize( 0 );
+                req.getResultResponse().addControl( lastPageControl );
             }
             else
             {
-                // Return an exception, close the cursor, and clean the session
-                ldapResult.setResultCode( ResultCodeEnum.SIZE_LIMIT_EXCEEDED );
+                // We have reached one limit
 
-                cursor.close();
+                if ( count < sizeLimit )
+                {
+                    // We stop here. We have to add a ResponseControl
+                    // DO NOT WRITE THE RESPONSE - JUST RETURN IT
+                    ldapResult.setResultCode( ResultCodeEnum.SUCCESS );
+                    req.getResultResponse().addControl( pagedResultsControl );
 
-                session.removePagedSearchContext( cookieValue );
+                    // Stores the cursor current position
+                    pagedContext.incrementCurrentPosition( pageCount );
+                }
+                else
+                {
+                    // Return an exception, close the cursor, and clean the session
+                    ldapResult.setResultCode( ResultCodeEnum.SIZE_LIMIT_EXCEEDED );
+
+                    cursor.close();
+
+                    ldapServer.getPagedSearchContextManager().remove( session, pagedContext.getCookieValue() );
+                }
             }
+
+            // The context can now be discarded or spilled
+            ldapServer.getPagedSearchContextManager().release( pagedContext );
+
+            completion.completed( ( SearchResultDone ) req.getResultResponse() );
+        }
+
+
+        /**
+         * Removes the paged search context and fails the search : the page is incomplete.
+         */
+        @Override
+        protected void fail( Exception e )
+        {
+            removeContext( session, pagedContext );
+            ldapServer.getPagedSearchContextManager().release( pagedContext );
+
+            super.fail( e );
         }
     }
 
@@ -542,17 +825,22 @@ public class SearchRequestHandler extends LdapRequestHandler<SearchRequest>
             // If the cookie is not null, we have to destroy the associated
             // cursor stored into the session (if any)
             int cookieValue = pagedSearchControl.getCookieValue();
-            PagedSearchContext psCookie = session.removePagedSearchContext( cookieValue );
-            pagedSearchControl.setCookie( psCookie.getCookie() );
+            PagedSearchContext psCookie = ldapServer.getPagedSearchContextManager().remove( session, cookieValue );
             pagedSearchControl.setSize( 0 );
             pagedSearchControl.setCritical( true );
 
-            // Close the cursor
-            Cursor<Entry> cursor = psCookie.getCursor();
-
-            if ( cursor != null )
+            // The context may already have been discarded
+            if ( psCookie != null )
             {
-                cursor.close();
+                pagedSearchControl.setCookie( psCookie.getCookie() );
+
+                // Close the cursor
+                Cursor<Entry> cursor = psCookie.getCursor();
+
+                if ( cursor != null )
+                {
+                    cursor.close();
+                }
             }
         }
         else
@@ -583,15 +871,15 @@ public class SearchRequestHandler extends LdapRequestHandler<SearchRequest>
 
         int cookieValue = cookieInstance.getCookieValue();
 
-        return session.removePagedSearchContext( cookieValue );
+        return ldapServer.getPagedSearchContextManager().remove( session, cookieValue );
     }
 
 
     /**
      * Handle a Paged Search request.
      */
-    private SearchResultDone doPagedSearch( LdapSession session, SearchRequest req, PagedResults control )
-        throws Exception
+    private void doPagedSearch( LdapSession session, SearchRequest req, PagedResults control,
+        SearchCompletion completion ) throws Exception
     {
         PagedResults pagedSearchControl = control;
         PagedResults pagedResultsControl = null;
@@ -625,7 +913,9 @@ public class SearchRequestHandler extends LdapRequestHandler<SearchRequest>
         if ( pagedLimit == 0L )
         {
             // An abandoned paged search
-            return abandonPagedSearch( session, req );
+            completion.completed( abandonPagedSearch( session, req ) );
+
+            return;
         }
 
         // Now, depending on the cookie, we will deal with case 2, 3, 4 and 5
@@ -645,43 +935,25 @@ public class SearchRequestHandler extends LdapRequestHandler<SearchRequest>
             // standard search
             if ( pagedLimit > sizeLimit )
             {
-                // Normal search : create the cursor, and set pagedControl to false
-                try
-                {
-                    // And write the entries
-                    writeResults( session, req, ldapResult, cursor, sizeLimit );
-                }
-                finally
-                {
-                    try
-                    {
-                        cursor.close();
-                    }
-                    catch ( Exception e )
-                    {
-                        LOG.error( I18n.err( I18n.ERR_168 ), e );
-                    }
-                }
+                // Normal search : write the entries, the writer closes the cursor once it's done
+                new SearchResultsWriter( session, req, cursor, sizeLimit, completion ).run();
 
-                // If we had a cookie in the session, remove it
-                removeContext( session, pagedContext );
-
-                return ( SearchResultDone ) req.getResultResponse();
+                return;
             }
             else
             {
                 // Case 2 : create the context
                 pagedContext = new PagedSearchContext( req );
 
-                session.addPagedSearchContext( pagedContext );
+                // And stores the cursor into the session
+                pagedContext.setCursor( cursor );
+
+                ldapServer.getPagedSearchContextManager().add( session, pagedContext );
                 cookie = pagedContext.getCookie();
                 pagedResultsControl = new PagedResultsImpl();
                 pagedResultsControl.setCookie( cookie );
                 pagedResultsControl.setSize( 0 );
                 pagedResultsControl.setCritical( true );
-
-                // And stores the cursor into the session
-                pagedContext.setCursor( cursor );
             }
         }
         else
@@ -689,7 +961,7 @@ public class SearchRequestHandler extends LdapRequestHandler<SearchRequest>
             // We have a cookie
             // Either case 3, 4 or 5
             int cookieValue = pagedSearchControl.getCookieValue();
-            pagedContext = session.getPagedSearchContext( cookieValue );
+            pagedContext = ldapServer.getPagedSearchContextManager().acquire( session, cookieValue );
 
             if ( pagedContext == null )
             {
@@ -697,8 +969,9 @@ public class SearchRequestHandler extends LdapRequestHandler<SearchRequest>
                 // send an error.
                 ldapResult.setDiagnosticMessage( "Invalid cookie for this PagedSearch request." );
                 ldapResult.setResultCode( ResultCodeEnum.UNWILLING_TO_PERFORM );
+                completion.completed( ( SearchResultDone ) req.getResultResponse() );
 
-                return ( SearchResultDone ) req.getResultResponse();
+                return;
             }
 
             if ( pagedContext.hasSameRequest( req, session ) )
@@ -716,8 +989,8 @@ public class SearchRequestHandler extends LdapRequestHandler<SearchRequest>
             }
             else
             {
-                // case 2 : create a new cursor
-                // We have to close the cursor
+                // Case 4 : discard the previous context and create a new cursor
+                ldapServer.getPagedSearchContextManager().remove( session, cookieValue );
                 cursor = pagedContext.getCursor();
 
                 if ( cursor != null )
@@ -725,10 +998,14 @@ public class SearchRequestHandler extends LdapRequestHandler<SearchRequest>
                     cursor.close();
                 }
 
+                cursor = session.getCoreSession().search( req );
+                cursor.beforeFirst();
+
                 // Now create a new context and stores it into the session
                 pagedContext = new PagedSearchContext( req );
+                pagedContext.setCursor( cursor );
 
-                session.addPagedSearchContext( pagedContext );
+                ldapServer.getPagedSearchContextManager().add( session, pagedContext );
 
                 cookie = pagedContext.getCookie();
                 pagedResultsControl = new PagedResultsImpl();
@@ -739,31 +1016,21 @@ public class SearchRequestHandler extends LdapRequestHandler<SearchRequest>
         }
 
         // Now, do the real search
-        /*
-         * Iterate through all search results building and sending back responses
-         * for each search result returned.
-         */
-        try
-        {
-            readPagedResults( session, req, ldapResult, cursor, sizeLimit, pagedLimit, pagedContext,
-                pagedResultsControl );
-        }
-        catch ( Exception e )
+        req.addAbandonListener( new SearchAbandonListener( ldapServer, cursor ) );
+        setTimeLimitsOnCursor( req, session, cursor );
+
+        if ( IS_DEBUG )
         {
-            if ( cursor != null )
-            {
-                try
-                {
-                    cursor.close();
-                }
-                catch ( Exception ne )
-                {
-                    LOG.error( I18n.err( I18n.ERR_168 ), ne );
-                }
-            }
+            LOG.debug( "using <{},{}> for size limit", sizeLimit, pagedLimit );
         }
 
-        return ( SearchResultDone ) req.getResultResponse();
+        /*
+         * Iterate through all search results building and sending back responses
+         * for each search result returned. The writer releases the context once
+         * the page has been written.
+         */
+        new PagedResultsWriter( session, req, cursor, sizeLimit, pagedLimit, pagedContext, pagedResultsControl,
+            completion ).run();
     }
 
 
@@ -773,41 +1040,42 @@ public class SearchRequestHandler extends LdapRequestHandler<SearchRequest>
      * returned so the persistent search mechanism can leverage this method
      * along with standard search.<br>
      * <br>
+     * The search may be paused if the client does not read the entries fast
+     * enough : the completion is then called by the thread resuming it.
+     * The failures are also given to the completion.
+     *
      * @param session the LDAP session object for this request
      * @param req the search request
-     * @return the result done
-     * @throws Exception if there are failures while processing the request
+     * @param completion called with the result done, or the failure
      */
-    private SearchResultDone doSimpleSearch( LdapSession session, SearchRequest req ) throws Exception
+    private void doSimpleSearch( LdapSession session, SearchRequest req, SearchCompletion completion )
     {
-        LdapResult ldapResult = req.getResultResponse().getLdapResult();
-
-        // Check if we are using the Paged Search Control
-        Object control = req.getControls().get( PagedResults.OID );
+        Cursor<Entry> cursor = null;
 
-        if ( control != null )
+        try
         {
-            // Let's deal with the pagedControl
-            return doPagedSearch( session, req, ( PagedResults ) control );
-        }
+            // Check if we are using the Paged Search Control
+            Object control = req.getControls().get( PagedResults.OID );
 
-        // A normal search
-        // Check that we have a cursor or not.
-        // No cursor : do a search.
-        Cursor<Entry> cursor = session.getCoreSession().search( req );
+            if ( control != null )
+            {
+                // Let's deal with the pagedControl
+                doPagedSearch( session, req, ( PagedResults ) control, completion );
 
-        // register the request in the session
-        session.registerSearchRequest( req, cursor );
+                return;
+            }
 
-        // Position the cursor at the beginning
-        cursor.beforeFirst();
+            // A normal search
+            // Check that we have a cursor or not.
+            // No cursor : do a search.
+            cursor = session.getCoreSession().search( req );
+
+            // register the request in the session
+            session.registerSearchRequest( req, cursor );
+
+            // Position the cursor at the beginning
+            cursor.beforeFirst();
 
-        /*
-         * Iterate through all search results building and sending back responses
-         * for each search result returned.
-         */
-        try
-        {
             // Get the size limits
             // Don't bother setting size limits for administrators that don't ask for it
             long serverLimit = getServerSizeLimit( session, req );
@@ -824,24 +1092,17 @@ public class SearchRequestHandler extends LdapRequestHandler<SearchRequest>
 
             long sizeLimit = min( requestLimit, serverLimit );
 
-            writeResults( session, req, ldapResult, cursor, sizeLimit );
+            /*
+             * Iterate through all search results building and sending back responses
+             * for each search result returned. The writer closes the cursor once it's done.
+             */
+            new SearchResultsWriter( session, req, cursor, sizeLimit, completion ).run();
         }
-        finally
+        catch ( Exception e )
         {
-            if ( !cursor.isClosed() )
-            {
-                try
-                {
-                    cursor.close();
-                }
-                catch ( Exception e )
-                {
-                    LOG.error( I18n.err( I18n.ERR_168 ), e );
-                }
-            }
+            closeCursor( cursor );
+            completion.failed( e );
         }
-
-        return ( SearchResultDone ) req.getResultResponse();
     }
 
 
@@ -930,6 +1191,32 @@ public class SearchRequestHandler extends LdapRequestHandler<SearchRequest>
     }
 
 
+    /**
+     * Writes the response for an entry. The SearchResultEntries without control are
+     * directly encoded, the other responses go through the codec.
+     *
+     * @param session the LDAP session
+     * @param req the search request
+     * @param entry the entry to be handled
+     * @throws Exception if there are problems in generating the response
+     */
+    private void writeResponse( LdapSession session, SearchRequest req, Entry entry ) throws Exception
+    {
+        Response response = generateResponse( session, req, entry );
+
+        if ( ldapServer.isDirectEntryEncoding() && ( response instanceof SearchResultEntry )
+            && response.getControls().isEmpty() )
+        {
+            session.getIoSession().write(
+                SearchResultEntryEncoder.encode( req.getMessageId(), ( ( SearchResultEntry ) response ).getEntry() ) );
+        }
+        else
+        {
+            session.getIoSession().write( response );
+        }
+    }
+
+
     /**
      * Alters the filter expression based on the presence of the
      * ManageDsaIT decorator.  If the decorator is not present, the search
@@ -1082,7 +1369,7 @@ public class SearchRequestHandler extends LdapRequestHandler<SearchRequest>
      * @param session the associated session
      * @param req the received SearchRequest
      */
-    private void handleIgnoringReferrals( LdapSession session, SearchRequest req )
+    private void handleIgnoringReferrals( final LdapSession session, final SearchRequest req )
     {
         if ( IS_DEBUG )
         {
@@ -1096,6 +1383,10 @@ public class SearchRequestHandler extends LdapRequestHandler<SearchRequest>
         // persistent search
         boolean persistentSearchException = false;
 
+        // A flag set when a regular search has been started : the request
+        // will be removed from the session once the search is done
+        boolean isRegularSearch = false;
+
         // add the search request to the registry of outstanding requests for this session
         session.registerOutstandingRequest( req );
 
@@ -1133,26 +1424,36 @@ public class SearchRequestHandler extends LdapRequestHandler<SearchRequest>
             // Handle regular search requests from here down
             // ===============================================================
 
-            boolean isLogSearchTime = SEARCH_TIME_LOG.isDebugEnabled();
+            final boolean isLogSearchTime = SEARCH_TIME_LOG.isDebugEnabled();
+            final long t0 = System.nanoTime();
+            final String filter = isLogSearchTime ? req.getFilter().toString() : null;
 
-            long t0 = 0;
-            String filter = null;
+            isRegularSearch = true;
 
-            if ( isLogSearchTime )
+            doSimpleSearch( session, req, new SearchCompletion()
             {
-                t0 = System.nanoTime();
-                filter = req.getFilter().toString();
-            }
+                @Override
+                public void completed( SearchResultDone done )
+                {
+                    session.getIoSession().write( done );
 
-            SearchResultDone done = doSimpleSearch( session, req );
-            session.getIoSession().write( done );
+                    if ( isLogSearchTime )
+                    {
+                        long t1 = System.nanoTime();
+                        SEARCH_TIME_LOG.debug( "Search with filter {} took {}ms. Filter with assigned counts is {}",
+                            filter, ( ( t1 - t0 ) / 1000000 ), req.getFilter() );
+                    }
 
-            if ( isLogSearchTime )
-            {
-                long t1 = System.nanoTime();
-                SEARCH_TIME_LOG.debug( "Search with filter {} took {}ms. Filter with assigned counts is {}", filter,
-                    ( ( t1 - t0 ) / 1000000 ), req.getFilter() );
-            }
+                    session.unregisterOutstandingRequest( req );
+                }
+
+
+                @Override
+                public void failed( Exception e )
+                {
+                    searchFailed( session, req, e );
+                }
+            } );
         }
         catch ( Exception e )
         {
@@ -1186,8 +1487,9 @@ public class SearchRequestHandler extends LdapRequestHandler<SearchRequest>
         {
 
             // remove the request from the session, except if
-            // we didn't got an exception for a Persistent search
-            if ( !isPersistentSearch || persistentSearchException )
+            // we didn't got an exception for a Persistent search, or
+            // if the search removes it itself once it's done
+            if ( !isRegularSearch && ( !isPersistentSearch || persistentSearchException ) )
             {
                 session.unregisterOutstandingRequest( req );
             }
@@ -1652,6 +1954,12 @@ public class SearchRequestHandler extends LdapRequestHandler<SearchRequest>
             cause = e;
         }
 
+        // The cursors wrap the errors met while reading the entries
+        while ( ( cause instanceof CursorException ) && ( cause.getCause() instanceof Exception ) )
+        {
+            cause = ( Exception ) cause.getCause();
+        }
+
         if ( cause instanceof LdapOperationException )
         {
             code = ( ( LdapOperationException ) cause ).getResultCode();
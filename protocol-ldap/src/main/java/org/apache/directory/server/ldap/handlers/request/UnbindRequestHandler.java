@@ -46,7 +46,7 @@ public class UnbindRequestHandler extends LdapRequestHandler<UnbindRequest>
 
         try
         {
-            session.closeAllPagedSearches();
+            ldapServer.getPagedSearchContextManager().removeAll( session );
             session.getCoreSession().unbind( unbindRequest );
             session.getIoSession().closeNow();
             ldapServer.getLdapSessionManager().removeLdapSession( session.getIoSession() );
@@ -21,11 +21,8 @@ package org.apache.directory.server.ldap.replication;
 
 
 import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.ObjectInputStream;
-import java.io.ObjectOutput;
-import java.io.ObjectOutputStream;
 
 import jdbm.helper.Serializer;
 
@@ -34,6 +31,7 @@ import org.apache.directory.api.ldap.model.entry.Entry;
 import org.apache.directory.api.ldap.model.message.controls.ChangeType;
 import org.apache.directory.api.ldap.model.name.Dn;
 import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.server.core.api.entry.CompactEntryCodec;
 
 
 /**
@@ -56,6 +54,9 @@ public class ReplicaEventMessageSerializer implements Serializer
     /** The schemaManager */
     private transient SchemaManager schemaManager;
 
+    /** The first byte of a Java serialization stream, used by the previous format */
+    private static final byte STREAM_MAGIC = ( byte ) 0xAC;
+
 
     /**
      * Creates a new instance of ReplicaEventMessageSerializer.
@@ -78,23 +79,13 @@ public class ReplicaEventMessageSerializer implements Serializer
         Entry entry = replicaEventMessage.getEntry();
         ChangeType changeType = replicaEventMessage.getChangeType();
 
-        try ( ByteArrayOutputStream baos = new ByteArrayOutputStream();
-            ObjectOutput out = new ObjectOutputStream( baos ) )
-        {
-
-            // The change type first
-            out.writeByte( changeType.getValue() );
-
-            // The entry DN
-            entry.getDn().writeExternal( out );
-
-            // The entry
-            entry.writeExternal( out );
-
-            out.flush();
+        // The change type first, then the entry and its DN
+        byte[] serializedEntry = CompactEntryCodec.serialize( entry, CompactEntryCodec.FULL_DN );
+        byte[] bytes = new byte[serializedEntry.length + 1];
+        bytes[0] = ( byte ) changeType.getValue();
+        System.arraycopy( serializedEntry, 0, bytes, 1, serializedEntry.length );
 
-            return baos.toByteArray();
-        }
+        return bytes;
     }
 
 
@@ -107,6 +98,15 @@ public class ReplicaEventMessageSerializer implements Serializer
      */
     public Object deserialize( byte[] bytes ) throws IOException
     {
+        if ( bytes[0] != STREAM_MAGIC )
+        {
+            ChangeType changeType = ChangeType.getChangeType( bytes[0] );
+            Entry entry = CompactEntryCodec.deserialize( schemaManager, bytes, 1, bytes.length - 1 );
+
+            return new ReplicaEventMessage( changeType, entry );
+        }
+
+        // A message stored with the previous format
         ObjectInputStream in = new ObjectInputStream( new ByteArrayInputStream( bytes ) );
 
         ReplicaEventMessage replicaEventMessage = null;
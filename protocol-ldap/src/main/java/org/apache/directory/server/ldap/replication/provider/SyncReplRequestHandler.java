@@ -371,6 +371,15 @@ public class SyncReplRequestHandler implements ReplicationRequestHandler
         {
             while ( cursor.next() )
             {
+                // Don't queue more entries than the consumer can read
+                ldapServer.getOutboundFlowControl().awaitWritable( session, req );
+
+                if ( session.getIoSession().isClosing() )
+                {
+                    PROVIDER_LOG.debug( "The consumer {} has closed the session", clientMsgLog.getId() );
+                    break;
+                }
+
                 ReplicaEventMessage replicaEventMessage = cursor.get();
                 Entry entry = replicaEventMessage.getEntry();
                 PROVIDER_LOG.debug( "Read message from the queue {}", entry );
@@ -708,6 +717,9 @@ public class SyncReplRequestHandler implements ReplicationRequestHandler
 
         while ( ( count < sizeLimit ) && cursor.next() )
         {
+            // Don't queue more entries than the consumer can read
+            ldapServer.getOutboundFlowControl().awaitWritable( session, req );
+
             // Handle closed session
             if ( session.getIoSession().isClosing() )
             {
@@ -91,4 +91,24 @@ public class LdapServerSettingsTest
         server.removeSaslMechanismHandler( SupportedSaslMechanisms.PLAIN );
         assertNull( server.getMechanismHandler( SupportedSaslMechanisms.PLAIN ) );
     }
+
+
+    @Test
+    public void testSetRequestExecution()
+    {
+        LdapServer server = new LdapServer();
+        assertEquals( RequestExecutionMode.POOLED, server.getRequestExecutionMode() );
+        assertEquals( LdapServer.NO_CONCURRENCY_LIMIT, server.getMaxConcurrentRequests() );
+
+        server.setRequestExecutionMode( RequestExecutionMode.getMode( " Virtual " ) );
+        assertEquals( RequestExecutionMode.VIRTUAL, server.getRequestExecutionMode() );
+        server.setRequestExecutionMode( null );
+        assertEquals( RequestExecutionMode.POOLED, server.getRequestExecutionMode() );
+        assertEquals( RequestExecutionMode.POOLED, RequestExecutionMode.getMode( "unknown" ) );
+
+        server.setMaxConcurrentRequests( 100 );
+        assertEquals( 100, server.getMaxConcurrentRequests() );
+        server.setMaxConcurrentRequests( -1 );
+        assertEquals( LdapServer.NO_CONCURRENCY_LIMIT, server.getMaxConcurrentRequests() );
+    }
 }
@@ -0,0 +1,245 @@
+/*
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *   or more contributor license agreements.  See the NOTICE file
+ *   distributed with this work for additional information
+ *   regarding copyright ownership.  The ASF licenses this file
+ *   to you under the Apache License, Version 2.0 (the
+ *   "License"); you may not use this file except in compliance
+ *   with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing,
+ *   software distributed under the License is distributed on an
+ *   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *   KIND, either express or implied.  See the License for the
+ *   specific language governing permissions and limitations
+ *   under the License.
+ *
+ */
+package org.apache.directory.server.ldap;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.directory.api.ldap.model.message.SearchRequest;
+import org.apache.directory.api.ldap.model.message.SearchRequestImpl;
+import org.apache.mina.core.session.DummySession;
+import org.junit.Before;
+import org.junit.Test;
+
+
+/**
+ * Tests the pause and resume of the writers sending responses to slow clients.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class OutboundFlowControlTest
+{
+    private OutboundFlowControl flowControl;
+    private DummySession ioSession;
+    private LdapSession session;
+    private SearchRequest request;
+
+
+    @Before
+    public void setup()
+    {
+        flowControl = new OutboundFlowControl();
+        flowControl.setHighWaterMark( 1000 );
+        flowControl.setLowWaterMark( 100 );
+
+        ioSession = new DummySession();
+        session = new LdapSession( ioSession );
+        request = new SearchRequestImpl();
+        request.setMessageId( 1 );
+    }
+
+
+    /**
+     * Starts a thread waiting for the session to be writable, and returns a latch
+     * released when it's done
+     */
+    private CountDownLatch startWriter()
+    {
+        final CountDownLatch done = new CountDownLatch( 1 );
+
+        Thread writer = new Thread()
+        {
+            public void run()
+            {
+                flowControl.awaitWritable( session, request );
+                done.countDown();
+            }
+        };
+
+        writer.start();
+
+        return done;
+    }
+
+
+    /**
+     * Creates a continuation counting the number of times it is run
+     */
+    private Runnable counter( final AtomicInteger runs )
+    {
+        return new Runnable()
+        {
+            public void run()
+            {
+                runs.incrementAndGet();
+            }
+        };
+    }
+
+
+    @Test
+    public void testPauseWithoutBlocking() throws Exception
+    {
+        AtomicInteger runs = new AtomicInteger();
+        ioSession.increaseScheduledWriteBytes( 2000 );
+
+        assertTrue( flowControl.mustPause( session ) );
+
+        // The writer is paused, nothing is run
+        flowControl.pause( session, counter( runs ) );
+        assertEquals( 0, runs.get() );
+        assertTrue( session.isOutboundPaused() );
+
+        // Below the high water mark, but not yet below the low water mark
+        ioSession.increaseScheduledWriteBytes( -1500 );
+        flowControl.messageSent( session );
+        assertEquals( 0, runs.get() );
+
+        // Drained : the continuation is run once
+        ioSession.increaseScheduledWriteBytes( -450 );
+        flowControl.messageSent( session );
+        flowControl.messageSent( session );
+        assertEquals( 1, runs.get() );
+        assertFalse( session.isOutboundPaused() );
+        assertFalse( flowControl.mustPause( session ) );
+    }
+
+
+    @Test
+    public void testPauseAfterDrain() throws Exception
+    {
+        AtomicInteger runs = new AtomicInteger();
+
+        // The session has drained before the writer got paused : it's resumed at once
+        flowControl.pause( session, counter( runs ) );
+
+        assertEquals( 1, runs.get() );
+        assertFalse( session.isOutboundPaused() );
+    }
+
+
+    @Test
+    public void testResumeOnClose() throws Exception
+    {
+        AtomicInteger runs = new AtomicInteger();
+        ioSession.increaseScheduledWriteBytes( 2000 );
+
+        flowControl.pause( session, counter( runs ) );
+        flowControl.pause( session, counter( runs ) );
+        assertEquals( 0, runs.get() );
+
+        // The session is closed : all its writers are resumed so that they can stop
+        flowControl.resume( session );
+        assertEquals( 2, runs.get() );
+        assertFalse( session.isOutboundPaused() );
+    }
+
+
+    @Test
+    public void testPausedWritersRunInTheExecutor() throws Exception
+    {
+        final AtomicInteger executed = new AtomicInteger();
+        AtomicInteger runs = new AtomicInteger();
+
+        flowControl.setExecutor( new Executor()
+        {
+            public void execute( Runnable task )
+            {
+                executed.incrementAndGet();
+                task.run();
+            }
+        } );
+
+        ioSession.increaseScheduledWriteBytes( 2000 );
+        flowControl.pause( session, counter( runs ) );
+
+        ioSession.increaseScheduledWriteBytes( -2000 );
+        flowControl.messageSent( session );
+
+        assertEquals( 1, executed.get() );
+        assertEquals( 1, runs.get() );
+    }
+
+
+    @Test
+    public void testBelowHighWaterMark() throws Exception
+    {
+        ioSession.increaseScheduledWriteBytes( 500 );
+
+        assertTrue( startWriter().await( 1, TimeUnit.SECONDS ) );
+        assertFalse( session.isOutboundPaused() );
+    }
+
+
+    @Test
+    public void testPauseAndResume() throws Exception
+    {
+        ioSession.increaseScheduledWriteBytes( 2000 );
+
+        CountDownLatch done = startWriter();
+
+        // Still above the high water mark
+        assertFalse( done.await( 300, TimeUnit.MILLISECONDS ) );
+        assertTrue( session.isOutboundPaused() );
+
+        // Below the high water mark, but not yet below the low water mark
+        ioSession.increaseScheduledWriteBytes( -1500 );
+        flowControl.messageSent( session );
+        assertFalse( done.await( 300, TimeUnit.MILLISECONDS ) );
+
+        // Drained
+        ioSession.increaseScheduledWriteBytes( -450 );
+        flowControl.messageSent( session );
+        assertTrue( done.await( 1, TimeUnit.SECONDS ) );
+        assertFalse( session.isOutboundPaused() );
+    }
+
+
+    @Test
+    public void testAbandonReleasesTheWriter() throws Exception
+    {
+        ioSession.increaseScheduledWriteBytes( 2000 );
+
+        CountDownLatch done = startWriter();
+        assertFalse( done.await( 200, TimeUnit.MILLISECONDS ) );
+
+        request.abandon();
+
+        assertTrue( done.await( 1, TimeUnit.SECONDS ) );
+    }
+
+
+    @Test
+    public void testDisabled() throws Exception
+    {
+        flowControl.setHighWaterMark( OutboundFlowControl.NO_LIMIT );
+        ioSession.increaseScheduledWriteBytes( 2000 );
+
+        assertTrue( startWriter().await( 1, TimeUnit.SECONDS ) );
+        assertEquals( OutboundFlowControl.NO_LIMIT, flowControl.getMaxOutboundBytes() );
+    }
+}
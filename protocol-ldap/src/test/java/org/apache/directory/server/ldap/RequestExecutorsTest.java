@@ -0,0 +1,152 @@
+/*
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *   or more contributor license agreements.  See the NOTICE file
+ *   distributed with this work for additional information
+ *   regarding copyright ownership.  The ASF licenses this file
+ *   to you under the Apache License, Version 2.0 (the
+ *   "License"); you may not use this file except in compliance
+ *   with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing,
+ *   software distributed under the License is distributed on an
+ *   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *   KIND, either express or implied.  See the License for the
+ *   specific language governing permissions and limitations
+ *   under the License.
+ *
+ */
+package org.apache.directory.server.ldap;
+
+
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.mina.filter.executor.UnorderedThreadPoolExecutor;
+import org.junit.Test;
+
+
+/**
+ * Tests the Executors created to process the LDAP requests.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class RequestExecutorsTest
+{
+    @Test
+    public void testPooledExecutor()
+    {
+        Executor executor = RequestExecutors.createExecutor( RequestExecutionMode.POOLED, 3, new Semaphore( 1 ) );
+
+        assertTrue( executor instanceof UnorderedThreadPoolExecutor );
+        ( ( UnorderedThreadPoolExecutor ) executor ).shutdown();
+    }
+
+
+    @Test
+    public void testVirtualExecutor() throws Exception
+    {
+        Executor executor = RequestExecutors.createExecutor( RequestExecutionMode.VIRTUAL, 3, null );
+        assertNotNull( executor );
+
+        if ( !RequestExecutors.isVirtualThreadSupported() )
+        {
+            // Falls back to the pooled mode
+            assertTrue( executor instanceof UnorderedThreadPoolExecutor );
+        }
+
+        final CountDownLatch done = new CountDownLatch( 1 );
+
+        executor.execute( new Runnable()
+        {
+            public void run()
+            {
+                done.countDown();
+            }
+        } );
+
+        assertTrue( done.await( 5, TimeUnit.SECONDS ) );
+        ( ( ExecutorService ) executor ).shutdown();
+    }
+
+
+    @Test
+    public void testLimitedExecutor() throws Exception
+    {
+        ExecutorService pool = Executors.newCachedThreadPool();
+        Executor executor = new RequestExecutors.LimitedExecutor( pool, new Semaphore( 2 ) );
+
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger maxRunning = new AtomicInteger();
+        final CountDownLatch done = new CountDownLatch( 10 );
+
+        for ( int i = 0; i < 10; i++ )
+        {
+            executor.execute( new Runnable()
+            {
+                public void run()
+                {
+                    int nb = running.incrementAndGet();
+
+                    synchronized ( maxRunning )
+                    {
+                        maxRunning.set( Math.max( nb, maxRunning.get() ) );
+                    }
+
+                    try
+                    {
+                        Thread.sleep( 20 );
+                    }
+                    catch ( InterruptedException ie )
+                    {
+                        Thread.currentThread().interrupt();
+                    }
+
+                    running.decrementAndGet();
+                    done.countDown();
+                }
+            } );
+        }
+
+        assertTrue( done.await( 10, TimeUnit.SECONDS ) );
+        assertTrue( maxRunning.get() <= 2 );
+        pool.shutdown();
+    }
+
+
+    @Test
+    public void testLimitedExecutorShutdown() throws Exception
+    {
+        ExecutorService pool = Executors.newCachedThreadPool();
+        ExecutorService executor = new RequestExecutors.LimitedExecutor( pool, new Semaphore( 2 ) );
+
+        // Shutting down the limited executor shuts down the wrapped one
+        executor.shutdown();
+
+        assertTrue( pool.isShutdown() );
+        assertTrue( executor.isShutdown() );
+        assertTrue( executor.awaitTermination( 5, TimeUnit.SECONDS ) );
+        assertTrue( executor.isTerminated() );
+    }
+
+
+    @Test
+    public void testVirtualExecutorWithLimiter() throws Exception
+    {
+        ExecutorService executor = RequestExecutors.createExecutor( RequestExecutionMode.VIRTUAL, 3,
+            new Semaphore( 1 ) );
+
+        executor.shutdown();
+
+        assertTrue( executor.awaitTermination( 5, TimeUnit.SECONDS ) );
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *   or more contributor license agreements.  See the NOTICE file
+ *   distributed with this work for additional information
+ *   regarding copyright ownership.  The ASF licenses this file
+ *   to you under the Apache License, Version 2.0 (the
+ *   "License"); you may not use this file except in compliance
+ *   with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing,
+ *   software distributed under the License is distributed on an
+ *   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *   KIND, either express or implied.  See the License for the
+ *   specific language governing permissions and limitations
+ *   under the License.
+ *
+ */
+package org.apache.directory.server.ldap.handlers;
+
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.nio.ByteBuffer;
+
+import org.apache.directory.api.asn1.util.Asn1Buffer;
+import org.apache.directory.api.ldap.codec.api.LdapApiServiceFactory;
+import org.apache.directory.api.ldap.codec.api.LdapEncoder;
+import org.apache.directory.api.ldap.model.entry.DefaultEntry;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.message.SearchResultEntry;
+import org.apache.directory.api.ldap.model.message.SearchResultEntryImpl;
+import org.apache.mina.core.buffer.IoBuffer;
+import org.junit.Test;
+
+
+/**
+ * Checks that the directly encoded SearchResultEntries are the ones the codec produces.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class SearchResultEntryEncoderTest
+{
+    private byte[] encodeWithCodec( int messageId, Entry entry ) throws Exception
+    {
+        SearchResultEntry response = new SearchResultEntryImpl( messageId );
+        response.setEntry( entry );
+        response.setObjectName( entry.getDn() );
+
+        ByteBuffer bb = LdapEncoder.encodeMessage( new Asn1Buffer(), LdapApiServiceFactory.getSingleton(), response );
+
+        return bb.array();
+    }
+
+
+    private byte[] encodeDirectly( int messageId, Entry entry )
+    {
+        IoBuffer buffer = SearchResultEntryEncoder.encode( messageId, entry );
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get( bytes );
+
+        return bytes;
+    }
+
+
+    @Test
+    public void testSmallEntry() throws Exception
+    {
+        Entry entry = new DefaultEntry( "cn=test,ou=system",
+            "objectClass: top",
+            "objectClass: person",
+            "cn: test",
+            "sn: Test" );
+
+        byte[] encoded = encodeDirectly( 1, entry );
+
+        assertEquals( 0x30, encoded[0] );
+        assertEquals( encoded.length - 2, encoded[1] );
+        assertArrayEquals( encodeWithCodec( 1, entry ), encoded );
+    }
+
+
+    @Test
+    public void testLongLengthsAndMessageId() throws Exception
+    {
+        StringBuilder sb = new StringBuilder();
+
+        for ( int i = 0; i < 1000; i++ )
+        {
+            sb.append( ( char ) ( 'a' + ( i % 26 ) ) );
+        }
+
+        Entry entry = new DefaultEntry( "cn=éléphant,ou=system",
+            "objectClass: top",
+            "objectClass: person",
+            "cn: éléphant",
+            "sn: " + sb.substring( 0, 200 ),
+            "description: " + sb.toString(),
+            "userPassword", new byte[]
+                { 0x00, 0x01, ( byte ) 0xFF } );
+
+        for ( int messageId : new int[]
+            { 0, 127, 128, 300, 40000, 9000000, Integer.MAX_VALUE } )
+        {
+            assertArrayEquals( encodeWithCodec( messageId, entry ), encodeDirectly( messageId, entry ) );
+        }
+    }
+}
@@ -0,0 +1,277 @@
+/*
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *   or more contributor license agreements.  See the NOTICE file
+ *   distributed with this work for additional information
+ *   regarding copyright ownership.  The ASF licenses this file
+ *   to you under the Apache License, Version 2.0 (the
+ *   "License"); you may not use this file except in compliance
+ *   with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing,
+ *   software distributed under the License is distributed on an
+ *   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *   KIND, either express or implied.  See the License for the
+ *   specific language governing permissions and limitations
+ *   under the License.
+ *
+ */
+package org.apache.directory.server.ldap.handlers.controls;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.file.Files;
+
+import org.apache.directory.api.ldap.model.cursor.EmptyCursor;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.message.SearchRequest;
+import org.apache.directory.api.ldap.model.message.SearchRequestImpl;
+import org.apache.directory.api.util.FileUtils;
+import org.apache.directory.server.ldap.LdapSession;
+import org.apache.mina.core.session.DummySession;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+
+/**
+ * Tests the limits on the number of PagedSearch contexts.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class PagedSearchContextManagerTest
+{
+    private PagedSearchContextManager manager;
+    private int messageId;
+
+
+    @Before
+    public void setup()
+    {
+        manager = new PagedSearchContextManager();
+        messageId = 1;
+    }
+
+
+    @After
+    public void tearDown()
+    {
+        manager.stop();
+    }
+
+
+    /**
+     * Adds a new context to a session, and release it
+     */
+    private PagedSearchContext addContext( LdapSession session ) throws Exception
+    {
+        SearchRequest request = new SearchRequestImpl();
+        request.setMessageId( messageId++ );
+        PagedSearchContext context = new PagedSearchContext( request );
+
+        manager.add( session, context );
+        manager.release( context );
+
+        // Make sure the contexts have different access times
+        Thread.sleep( 2L );
+
+        return context;
+    }
+
+
+    @Test
+    public void testMaxContextsPerSession() throws Exception
+    {
+        manager.setMaxContextsPerSession( 2 );
+        LdapSession session = new LdapSession( new DummySession() );
+        LdapSession other = new LdapSession( new DummySession() );
+
+        PagedSearchContext first = addContext( session );
+        PagedSearchContext second = addContext( session );
+        PagedSearchContext otherContext = addContext( other );
+
+        // Use the first context, the second one is now the least recently used
+        manager.release( manager.acquire( session, first.getCookieValue() ) );
+        Thread.sleep( 2L );
+
+        PagedSearchContext third = addContext( session );
+
+        assertSame( first, session.getPagedSearchContext( first.getCookieValue() ) );
+        assertNull( session.getPagedSearchContext( second.getCookieValue() ) );
+        assertSame( third, session.getPagedSearchContext( third.getCookieValue() ) );
+        assertSame( otherContext, other.getPagedSearchContext( otherContext.getCookieValue() ) );
+        assertEquals( 3, manager.size() );
+    }
+
+
+    @Test
+    public void testBusyContextIsKept() throws Exception
+    {
+        manager.setMaxContextsPerSession( 1 );
+        LdapSession session = new LdapSession( new DummySession() );
+
+        PagedSearchContext first = addContext( session );
+        manager.acquire( session, first.getCookieValue() );
+
+        PagedSearchContext second = addContext( session );
+
+        // The first context is being read, it's not discarded
+        assertSame( first, session.getPagedSearchContext( first.getCookieValue() ) );
+        assertSame( second, session.getPagedSearchContext( second.getCookieValue() ) );
+
+        manager.release( first );
+        addContext( session );
+
+        assertNull( session.getPagedSearchContext( first.getCookieValue() ) );
+        assertNull( session.getPagedSearchContext( second.getCookieValue() ) );
+        assertEquals( 1, manager.size() );
+    }
+
+
+    @Test
+    public void testMaxContexts() throws Exception
+    {
+        manager.setMaxContexts( 2 );
+        LdapSession session1 = new LdapSession( new DummySession() );
+        LdapSession session2 = new LdapSession( new DummySession() );
+
+        PagedSearchContext first = addContext( session1 );
+        PagedSearchContext second = addContext( session2 );
+        PagedSearchContext third = addContext( session2 );
+
+        // No spill directory : the least recently used context is discarded
+        assertNull( session1.getPagedSearchContext( first.getCookieValue() ) );
+        assertSame( second, session2.getPagedSearchContext( second.getCookieValue() ) );
+        assertSame( third, session2.getPagedSearchContext( third.getCookieValue() ) );
+        assertEquals( 2, manager.size() );
+    }
+
+
+    @Test
+    public void testSpillBySweeper() throws Exception
+    {
+        File spillDirectory = Files.createTempDirectory( "pagedSearchSpill" ).toFile();
+
+        try
+        {
+            manager.setMaxContexts( 1 );
+            manager.setSpillDirectory( spillDirectory );
+            LdapSession session1 = new LdapSession( new DummySession() );
+            LdapSession session2 = new LdapSession( new DummySession() );
+
+            PagedSearchContext first = addContext( session1 );
+            final String[] spillingThread = new String[1];
+
+            first.setCursor( new EmptyCursor<Entry>()
+            {
+                @Override
+                public boolean next()
+                {
+                    spillingThread[0] = Thread.currentThread().getName();
+
+                    return false;
+                }
+            } );
+
+            PagedSearchContext second = addContext( session2 );
+
+            for ( int i = 0; ( i < 100 ) && !first.isSpilled(); i++ )
+            {
+                Thread.sleep( 10L );
+            }
+
+            // The first context has been spilled by the sweeper, and not by the thread adding the second one
+            assertTrue( first.isSpilled() );
+            assertEquals( "PagedSearchSweeper", spillingThread[0] );
+            assertSame( first, session1.getPagedSearchContext( first.getCookieValue() ) );
+            assertFalse( second.isSpilled() );
+            assertEquals( 2, manager.size() );
+
+            session1.closeAllPagedSearches();
+        }
+        finally
+        {
+            FileUtils.deleteDirectory( spillDirectory );
+        }
+    }
+
+
+    @Test
+    public void testAcquireDiscardedContext() throws Exception
+    {
+        final LdapSession session = new LdapSession( new DummySession() );
+        final PagedSearchContext context = addContext( session );
+        final PagedSearchContext[] acquired = new PagedSearchContext[1];
+
+        Thread reader = new Thread()
+        {
+            @Override
+            public void run()
+            {
+                acquired[0] = manager.acquire( session, context.getCookieValue() );
+            }
+        };
+
+        synchronized ( context )
+        {
+            reader.start();
+
+            // Wait for the reader to have found the context, and to be blocked on its monitor
+            while ( reader.getState() != Thread.State.BLOCKED )
+            {
+                Thread.sleep( 1L );
+            }
+
+            // The context is discarded meanwhile
+            session.removePagedSearchContext( context.getCookieValue() );
+        }
+
+        reader.join();
+
+        assertNull( acquired[0] );
+        assertFalse( context.isBusy() );
+    }
+
+
+    @Test
+    public void testIdleContexts() throws Exception
+    {
+        manager.setIdleTimeout( 50L );
+        LdapSession session = new LdapSession( new DummySession() );
+
+        PagedSearchContext idle = addContext( session );
+        Thread.sleep( 100L );
+        PagedSearchContext active = addContext( session );
+
+        manager.sweep();
+
+        assertNull( session.getPagedSearchContext( idle.getCookieValue() ) );
+        assertSame( active, session.getPagedSearchContext( active.getCookieValue() ) );
+        assertEquals( 1, manager.size() );
+    }
+
+
+    @Test
+    public void testRemoveAll() throws Exception
+    {
+        LdapSession session = new LdapSession( new DummySession() );
+        LdapSession other = new LdapSession( new DummySession() );
+
+        PagedSearchContext context = addContext( session );
+        addContext( session );
+        PagedSearchContext otherContext = addContext( other );
+
+        manager.removeAll( session );
+
+        assertNull( session.getPagedSearchContext( context.getCookieValue() ) );
+        assertSame( otherContext, other.getPagedSearchContext( otherContext.getCookieValue() ) );
+        assertEquals( 1, manager.size() );
+    }
+}
@@ -93,6 +93,14 @@ public enum ConfigSchemaConstants
 
     ADS_DELEGATING_AUTHENTICATOR_OC("ads-delegatingAuthenticator", "1.3.6.1.4.1.18060.0.4.1.3.904"),
 
+    ADS_PARTITION_OPTIONS_OC("ads-partitionOptions", "1.3.6.1.4.1.18060.0.4.1.3.1000"),
+
+    ADS_INDEX_OPTIONS_OC("ads-indexOptions", "1.3.6.1.4.1.18060.0.4.1.3.1001"),
+
+    ADS_DIRECTORY_SERVICE_OPTIONS_OC("ads-directoryServiceOptions", "1.3.6.1.4.1.18060.0.4.1.3.1002"),
+
+    ADS_LDAP_SERVER_OPTIONS_OC("ads-ldapServerOptions", "1.3.6.1.4.1.18060.0.4.1.3.1003"),
+
     ADS_CONFIG_ID("ads-configId", ""),
 
     ADS_COMPOSITE_ELEMENT_AT("ads-compositeElement", "1.3.6.1.4.1.18060.0.4.1.2.0"),
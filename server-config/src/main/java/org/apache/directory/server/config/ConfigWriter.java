@@ -375,6 +375,14 @@ public class ConfigWriter
 
                             // Adding values to the entry
                             addAttributeTypeValues( configurationElement.attributeType(), fieldValue, entry );
+
+                            // Adding the auxiliary object class allowing the attribute type
+                            String auxiliaryObjectClass = configurationElement.auxiliaryObjectClass();
+
+                            if ( ( fieldValue != null ) && ( !"".equals( auxiliaryObjectClass ) ) )
+                            {
+                                addObjectClassAttribute( schemaManager, entry, auxiliaryObjectClass );
+                            }
                         }
                         // Checking if we have a value for the object class
                         else if ( ( objectClass != null ) && ( !"".equals( objectClass ) ) )
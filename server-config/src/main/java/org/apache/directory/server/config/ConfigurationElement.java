@@ -55,6 +55,16 @@ public @interface ConfigurationElement
     String objectClass() default "";
 
 
+    /**
+     * Returns the auxiliary object class allowing the attribute type, when the attribute
+     * type isn't allowed by the object class of the bean. It's added to the entry when a
+     * value is written.
+     *
+     * @return the auxiliary object class
+     */
+    String auxiliaryObjectClass() default "";
+
+
     /**
      * Returns true if of the qualified field (attribute type and value) 
      * is the Rdn of the entry.
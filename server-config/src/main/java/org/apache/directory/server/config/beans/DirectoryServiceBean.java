@@ -62,6 +62,11 @@ public class DirectoryServiceBean extends AdsBaseBean
     @ConfigurationElement(attributeType = "ads-dsSyncPeriodMillis")
     private long dsSyncPeriodMillis = 15000L;
 
+    /** The number of partitions searched at the same time by a subtree search from the rootDSE */
+    @ConfigurationElement(attributeType = "ads-dsSearchParallelism", auxiliaryObjectClass = "ads-directoryServiceOptions",
+        isOptional = true, defaultValue = "0")
+    private int dsSearchParallelism;
+
     /** The ldif entries to inject into the server at startup */
     @ConfigurationElement(attributeType = "ads-dsTestEntries", isOptional = true)
     private String dsTestEntries;
@@ -265,6 +270,25 @@ public class DirectoryServiceBean extends AdsBaseBean
     }
 
 
+    /**
+     * @return the number of partitions searched at the same time by a subtree search from the rootDSE
+     */
+    public int getDsSearchParallelism()
+    {
+        return dsSearchParallelism;
+    }
+
+
+    /**
+     * @param dsSearchParallelism the number of partitions searched at the same time by a subtree
+     * search from the rootDSE, 0 to search them one after the other
+     */
+    public void setDsSearchParallelism( int dsSearchParallelism )
+    {
+        this.dsSearchParallelism = dsSearchParallelism;
+    }
+
+
     /**
      * @return the dsTestEntries
      */
@@ -526,6 +550,7 @@ public class DirectoryServiceBean extends AdsBaseBean
         sb.append( toString( "  ", "denormalized attributes enabled", dsDenormalizeOpAttrsEnabled ) );
         sb.append( toString( "  ", "password hidden", dsPasswordHidden ) );
         sb.append( "  sync period millisecond : " ).append( dsSyncPeriodMillis ).append( '\n' );
+        sb.append( "  search parallelism : " ).append( dsSearchParallelism ).append( '\n' );
         sb.append( toString( "  ", "test entries", dsTestEntries ) );
 
         sb.append( "  interceptors : \n" );
@@ -37,6 +37,11 @@ public abstract class IndexBean extends AdsBaseBean
     @ConfigurationElement(attributeType = "ads-indexHasReverse")
     private boolean indexHasReverse;
 
+    /** Tells if the substring filters are computed using a n-gram index on the attribute */
+    @ConfigurationElement(attributeType = "ads-indexSubstring", auxiliaryObjectClass = "ads-indexOptions",
+        isOptional = true, defaultValue = "false")
+    private boolean indexSubstring;
+
 
     /**
      * Create a new IndexBean instance
@@ -82,6 +87,26 @@ public abstract class IndexBean extends AdsBaseBean
     }
 
 
+    /**
+     * @param indexSubstring <code>true</code> if the substring filters are computed using a
+     * n-gram index on the attribute
+     */
+    public void setIndexSubstring( boolean indexSubstring )
+    {
+        this.indexSubstring = indexSubstring;
+    }
+
+
+    /**
+     * @return <code>true</code> if the substring filters are computed using a n-gram index
+     * on the attribute
+     */
+    public boolean isIndexSubstring()
+    {
+        return indexSubstring;
+    }
+
+
     /**
      * {@inheritDoc}
      */
@@ -93,6 +118,7 @@ public abstract class IndexBean extends AdsBaseBean
         sb.append( super.toString( tabs + "  " ) );
         sb.append( tabs ).append( "  indexed attribute ID : " ).append( indexAttributeId ).append( '\n' );
         sb.append( tabs ).append( "  indexed has reverse : " ).append( indexHasReverse ).append( '\n' );
+        sb.append( toString( tabs, "  substring indexed", indexSubstring ) );
 
         return sb.toString();
     }
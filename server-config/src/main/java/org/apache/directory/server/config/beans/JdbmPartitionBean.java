@@ -34,6 +34,11 @@ public class JdbmPartitionBean extends PartitionBean
     @ConfigurationElement(attributeType = "ads-partitionCacheSize", isOptional = true, defaultValue = "-1")
     private int partitionCacheSize = -1;
 
+    /** The number of bytes of the off heap entry cache for this partition, 0 if it's not used */
+    @ConfigurationElement(attributeType = "ads-partitionEntryCacheBytes", auxiliaryObjectClass = "ads-partitionOptions",
+        isOptional = true, defaultValue = "0")
+    private long partitionEntryCacheBytes = 0L;
+
     /** Tells if the optimizer is enabled or not */
     @ConfigurationElement(attributeType = "ads-jdbmPartitionOptimizerEnabled", isOptional = true, defaultValue = "true")
     private boolean jdbmPartitionOptimizerEnabled = true;
@@ -71,6 +76,28 @@ public class JdbmPartitionBean extends PartitionBean
     }
 
 
+    /**
+     * Sets the number of bytes the entries cached out of the heap can use. When it's
+     * greater than 0, the partition uses an OffHeapEntryCache instead of the entry cache
+     * which size is a number of entries.
+     *
+     * @param partitionEntryCacheBytes the maximum number of bytes used by the off heap entry cache
+     */
+    public void setPartitionEntryCacheBytes( long partitionEntryCacheBytes )
+    {
+        this.partitionEntryCacheBytes = partitionEntryCacheBytes;
+    }
+
+
+    /**
+     * @return the maximum number of bytes used by the off heap entry cache, 0 if it's not used
+     */
+    public long getPartitionEntryCacheBytes()
+    {
+        return partitionEntryCacheBytes;
+    }
+
+
     /**
      * @return <code>true</code> if the optimizer is enabled
      */
@@ -102,6 +129,7 @@ public class JdbmPartitionBean extends PartitionBean
         sb.append( tabs ).append( "JdbmPartitionBean :\n" );
         sb.append( super.toString( tabs ) );
         sb.append( tabs ).append( "  partition cache size : " ).append( partitionCacheSize ).append( '\n' );
+        sb.append( tabs ).append( "  partition entry cache bytes : " ).append( partitionEntryCacheBytes ).append( '\n' );
         sb.append( toString( tabs, "  jdbm partition optimizer enabled", jdbmPartitionOptimizerEnabled ) );
 
         return sb.toString();
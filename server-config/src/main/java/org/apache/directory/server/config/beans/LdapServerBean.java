@@ -94,6 +94,51 @@ public class LdapServerBean extends DSBasedServerBean
     @ConfigurationElement(attributeType = "ads-replPingerSleep")
     private int replPingerSleep;
 
+    /** The way the requests are executed, 'pooled' or 'virtual' */
+    @ConfigurationElement(attributeType = "ads-requestExecutionMode", auxiliaryObjectClass = "ads-ldapServerOptions",
+        isOptional = true, defaultValue = "pooled")
+    private String requestExecutionMode = "pooled";
+
+    /** The maximum number of requests executed at the same time in virtual mode, 0 for no limit */
+    @ConfigurationElement(attributeType = "ads-maxConcurrentRequests", auxiliaryObjectClass = "ads-ldapServerOptions",
+        isOptional = true, defaultValue = "0")
+    private int maxConcurrentRequests;
+
+    /** The number of bytes waiting to be sent to a client above which its searches are paused, 0 for no limit */
+    @ConfigurationElement(attributeType = "ads-outboundHighWaterMark", auxiliaryObjectClass = "ads-ldapServerOptions",
+        isOptional = true, defaultValue = "1048576")
+    private int outboundHighWaterMark = 1048576;
+
+    /** The number of bytes waiting to be sent to a client below which its paused searches are resumed */
+    @ConfigurationElement(attributeType = "ads-outboundLowWaterMark", auxiliaryObjectClass = "ads-ldapServerOptions",
+        isOptional = true, defaultValue = "262144")
+    private int outboundLowWaterMark = 262144;
+
+    /** The number of bytes waiting to be sent to all the clients above which the searches are paused, 0 for no limit */
+    @ConfigurationElement(attributeType = "ads-maxOutboundBytes", auxiliaryObjectClass = "ads-ldapServerOptions",
+        isOptional = true, defaultValue = "0")
+    private int maxOutboundBytes;
+
+    /** The maximum number of paged searches holding an open cursor for all the sessions, 0 for no limit */
+    @ConfigurationElement(attributeType = "ads-maxPagedSearches", auxiliaryObjectClass = "ads-ldapServerOptions",
+        isOptional = true, defaultValue = "1024")
+    private int maxPagedSearches = 1024;
+
+    /** The maximum number of paged searches a session can keep, 0 for no limit */
+    @ConfigurationElement(attributeType = "ads-maxPagedSearchesPerSession",
+        auxiliaryObjectClass = "ads-ldapServerOptions", isOptional = true, defaultValue = "16")
+    private int maxPagedSearchesPerSession = 16;
+
+    /** The time in ms after which an unused paged search is discarded, 0 to keep it until the session is closed */
+    @ConfigurationElement(attributeType = "ads-pagedSearchIdleTimeout", auxiliaryObjectClass = "ads-ldapServerOptions",
+        isOptional = true, defaultValue = "600000")
+    private long pagedSearchIdleTimeout = 600000L;
+
+    /** The directory where the paged searches are spilled when there are too many of them */
+    @ConfigurationElement(attributeType = "ads-pagedSearchSpillDirectory",
+        auxiliaryObjectClass = "ads-ldapServerOptions", isOptional = true)
+    private String pagedSearchSpillDirectory;
+
 
     /**
      * Create a new LdapServerBean instance
@@ -389,6 +434,176 @@ public class LdapServerBean extends DSBasedServerBean
     }
 
 
+    /**
+     * @return The way the requests are executed, 'pooled' or 'virtual'
+     */
+    public String getRequestExecutionMode()
+    {
+        return requestExecutionMode;
+    }
+
+
+    /**
+     * @param requestExecutionMode The way the requests are executed, 'pooled' or 'virtual'
+     */
+    public void setRequestExecutionMode( String requestExecutionMode )
+    {
+        this.requestExecutionMode = requestExecutionMode;
+    }
+
+
+    /**
+     * @return The maximum number of requests executed at the same time in virtual mode
+     */
+    public int getMaxConcurrentRequests()
+    {
+        return maxConcurrentRequests;
+    }
+
+
+    /**
+     * @param maxConcurrentRequests The maximum number of requests executed at the same time
+     * in virtual mode, 0 for no limit
+     */
+    public void setMaxConcurrentRequests( int maxConcurrentRequests )
+    {
+        this.maxConcurrentRequests = maxConcurrentRequests;
+    }
+
+
+    /**
+     * @return The number of bytes waiting to be sent to a client above which its searches are paused
+     */
+    public int getOutboundHighWaterMark()
+    {
+        return outboundHighWaterMark;
+    }
+
+
+    /**
+     * @param outboundHighWaterMark The number of bytes waiting to be sent to a client above which
+     * its searches are paused, 0 for no limit
+     */
+    public void setOutboundHighWaterMark( int outboundHighWaterMark )
+    {
+        this.outboundHighWaterMark = outboundHighWaterMark;
+    }
+
+
+    /**
+     * @return The number of bytes waiting to be sent to a client below which its paused searches are resumed
+     */
+    public int getOutboundLowWaterMark()
+    {
+        return outboundLowWaterMark;
+    }
+
+
+    /**
+     * @param outboundLowWaterMark The number of bytes waiting to be sent to a client below which
+     * its paused searches are resumed
+     */
+    public void setOutboundLowWaterMark( int outboundLowWaterMark )
+    {
+        this.outboundLowWaterMark = outboundLowWaterMark;
+    }
+
+
+    /**
+     * @return The number of bytes waiting to be sent to all the clients above which the searches are paused
+     */
+    public int getMaxOutboundBytes()
+    {
+        return maxOutboundBytes;
+    }
+
+
+    /**
+     * @param maxOutboundBytes The number of bytes waiting to be sent to all the clients above which
+     * the searches are paused, 0 for no limit
+     */
+    public void setMaxOutboundBytes( int maxOutboundBytes )
+    {
+        this.maxOutboundBytes = maxOutboundBytes;
+    }
+
+
+    /**
+     * @return The maximum number of paged searches holding an open cursor for all the sessions
+     */
+    public int getMaxPagedSearches()
+    {
+        return maxPagedSearches;
+    }
+
+
+    /**
+     * @param maxPagedSearches The maximum number of paged searches holding an open cursor for
+     * all the sessions, 0 for no limit
+     */
+    public void setMaxPagedSearches( int maxPagedSearches )
+    {
+        this.maxPagedSearches = maxPagedSearches;
+    }
+
+
+    /**
+     * @return The maximum number of paged searches a session can keep
+     */
+    public int getMaxPagedSearchesPerSession()
+    {
+        return maxPagedSearchesPerSession;
+    }
+
+
+    /**
+     * @param maxPagedSearchesPerSession The maximum number of paged searches a session can keep,
+     * 0 for no limit
+     */
+    public void setMaxPagedSearchesPerSession( int maxPagedSearchesPerSession )
+    {
+        this.maxPagedSearchesPerSession = maxPagedSearchesPerSession;
+    }
+
+
+    /**
+     * @return The time in ms after which an unused paged search is discarded
+     */
+    public long getPagedSearchIdleTimeout()
+    {
+        return pagedSearchIdleTimeout;
+    }
+
+
+    /**
+     * @param pagedSearchIdleTimeout The time in ms after which an unused paged search is discarded,
+     * 0 to keep it until the session is closed
+     */
+    public void setPagedSearchIdleTimeout( long pagedSearchIdleTimeout )
+    {
+        this.pagedSearchIdleTimeout = pagedSearchIdleTimeout;
+    }
+
+
+    /**
+     * @return The directory where the paged searches are spilled when there are too many of them
+     */
+    public String getPagedSearchSpillDirectory()
+    {
+        return pagedSearchSpillDirectory;
+    }
+
+
+    /**
+     * @param pagedSearchSpillDirectory The directory where the paged searches are spilled when
+     * there are too many of them. If null, they are discarded
+     */
+    public void setPagedSearchSpillDirectory( String pagedSearchSpillDirectory )
+    {
+        this.pagedSearchSpillDirectory = pagedSearchSpillDirectory;
+    }
+
+
     /**
      * {@inheritDoc}
      */
@@ -409,6 +624,15 @@ public class LdapServerBean extends DSBasedServerBean
         sb.append( toString( tabs, "  confidentiality required", confidentialityRequired ) );
         sb.append( toString( tabs, "  enable replication provider", replReqHandler ) );
         sb.append( toString( tabs, "  Pinger thread sleep time(in sec.)", replPingerSleep ) );
+        sb.append( toString( tabs, "  request execution mode", requestExecutionMode ) );
+        sb.append( toString( tabs, "  max concurrent requests", maxConcurrentRequests ) );
+        sb.append( toString( tabs, "  outbound high water mark", outboundHighWaterMark ) );
+        sb.append( toString( tabs, "  outbound low water mark", outboundLowWaterMark ) );
+        sb.append( toString( tabs, "  max outbound bytes", maxOutboundBytes ) );
+        sb.append( toString( tabs, "  max paged searches", maxPagedSearches ) );
+        sb.append( toString( tabs, "  max paged searches per session", maxPagedSearchesPerSession ) );
+        sb.append( toString( tabs, "  paged search idle timeout", pagedSearchIdleTimeout ) );
+        sb.append( toString( tabs, "  paged search spill directory", pagedSearchSpillDirectory ) );
 
         if ( ( extendedOpHandlers != null ) && !extendedOpHandlers.isEmpty() )
         {
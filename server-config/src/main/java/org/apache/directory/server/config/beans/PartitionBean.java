@@ -46,6 +46,11 @@ public abstract class PartitionBean extends AdsBaseBean
     @ConfigurationElement(attributeType = "ads-partitionSyncOnWrite", isOptional = true)
     private boolean partitionSyncOnWrite;
 
+    /** Tells if the candidates of a search are read from the indexes while the entries are returned */
+    @ConfigurationElement(attributeType = "ads-partitionStreamingSearch", auxiliaryObjectClass = "ads-partitionOptions",
+        isOptional = true, defaultValue = "false")
+    private boolean partitionStreamingSearch;
+
     /** The partition's ContextEntry */
     @ConfigurationElement(attributeType = "ads-contextEntry", isOptional = true)
     private String contextEntry;
@@ -117,6 +122,26 @@ public abstract class PartitionBean extends AdsBaseBean
     }
 
 
+    /**
+     * @return <code>true</code> if the candidates of a search are read from the indexes while
+     * the entries are returned
+     */
+    public boolean isPartitionStreamingSearch()
+    {
+        return partitionStreamingSearch;
+    }
+
+
+    /**
+     * @param partitionStreamingSearch <code>true</code> if the candidates of a search are read
+     * from the indexes while the entries are returned, instead of being computed upfront
+     */
+    public void setPartitionStreamingSearch( boolean partitionStreamingSearch )
+    {
+        this.partitionStreamingSearch = partitionStreamingSearch;
+    }
+
+
     /**
      * @return the indexes
      */
@@ -165,6 +190,7 @@ public abstract class PartitionBean extends AdsBaseBean
         sb.append( tabs ).append( "  partition ID : " ).append( partitionId ).append( '\n' );
         sb.append( tabs ).append( "  suffix : " ).append( partitionSuffix.getName() ).append( '\n' );
         sb.append( toString( tabs, "  sync on write", partitionSyncOnWrite ) );
+        sb.append( toString( tabs, "  streaming search", partitionStreamingSearch ) );
         sb.append( toString( tabs, "  contextEntry", contextEntry ) );
 
         sb.append( tabs ).append( "  indexes : \n" );
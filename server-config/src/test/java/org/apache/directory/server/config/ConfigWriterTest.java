@@ -1,178 +1,277 @@
-/*
- *   Licensed to the Apache Software Foundation (ASF) under one
- *   or more contributor license agreements.  See the NOTICE file
- *   distributed with this work for additional information
- *   regarding copyright ownership.  The ASF licenses this file
- *   to you under the Apache License, Version 2.0 (the
- *   "License"); you may not use this file except in compliance
- *   with the License.  You may obtain a copy of the License at
- *
- *     http://www.apache.org/licenses/LICENSE-2.0
- *
- *   Unless required by applicable law or agreed to in writing,
- *   software distributed under the License is distributed on an
- *   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
- *   KIND, either express or implied.  See the License for the
- *   specific language governing permissions and limitations
- *   under the License.
- *
- */
-
-package org.apache.directory.server.config;
-
-
-import static org.junit.Assert.assertEquals;
-import static org.junit.Assert.assertNotNull;
-import static org.junit.Assert.assertTrue;
-
-import java.io.File;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
-import java.util.List;
-
-import org.apache.directory.api.util.FileUtils;
-import org.apache.directory.api.ldap.model.entry.Entry;
-import org.apache.directory.api.ldap.model.ldif.LdifEntry;
-import org.apache.directory.api.ldap.model.ldif.LdifReader;
-import org.apache.directory.api.ldap.model.name.Dn;
-import org.apache.directory.api.ldap.model.schema.SchemaManager;
-import org.apache.directory.api.ldap.model.schema.registries.SchemaLoader;
-import org.apache.directory.api.ldap.schema.extractor.SchemaLdifExtractor;
-import org.apache.directory.api.ldap.schema.extractor.impl.DefaultSchemaLdifExtractor;
-import org.apache.directory.api.ldap.schema.loader.LdifSchemaLoader;
-import org.apache.directory.api.ldap.schema.manager.impl.DefaultSchemaManager;
-import org.apache.directory.api.util.exception.Exceptions;
-import org.apache.directory.server.config.beans.ConfigBean;
-import org.apache.directory.server.core.api.CacheService;
-import org.apache.directory.server.core.api.DnFactory;
-import org.apache.directory.server.core.partition.ldif.SingleFileLdifPartition;
-import org.apache.directory.server.core.shared.DefaultDnFactory;
-import org.junit.BeforeClass;
-import org.junit.Test;
-import org.junit.runner.RunWith;
-
-import com.mycila.junit.concurrent.Concurrency;
-import com.mycila.junit.concurrent.ConcurrentJunitRunner;
-
-
-/**
- * Test class for ConfigWriter
- *
- * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
- */
-@RunWith(ConcurrentJunitRunner.class)
-@Concurrency()
-public class ConfigWriterTest
-{
-    private static SchemaManager schemaManager;
-    private static DnFactory dnFactory;
-    private static CacheService cacheService;
-
-    private static File workDir = new File( System.getProperty( "java.io.tmpdir" ) + "/server-work" );
-
-
-    @BeforeClass
-    public static void readConfig() throws Exception
-    {
-        FileUtils.deleteDirectory( workDir );
-        workDir.mkdir();
-
-        String workingDirectory = workDir.getPath();
-        // Extract the schema on disk (a brand new one) and load the registries
-        File schemaRepository = new File( workingDirectory, "schema" );
-
-        if ( schemaRepository.exists() )
-        {
-            FileUtils.deleteDirectory( schemaRepository );
-        }
-
-        SchemaLdifExtractor extractor = new DefaultSchemaLdifExtractor( new File( workingDirectory ) );
-        extractor.extractOrCopy();
-
-        SchemaLoader loader = new LdifSchemaLoader( schemaRepository );
-        schemaManager = new DefaultSchemaManager( loader );
-
-        // We have to load the schema now, otherwise we won't be able
-        // to initialize the Partitions, as we won't be able to parse 
-        // and normalize their suffix Dn
-        schemaManager.loadAllEnabled();
-
-        List<Throwable> errors = schemaManager.getErrors();
-
-        if ( errors.size() != 0 )
-        {
-            throw new Exception( "Schema load failed : " + Exceptions.printErrors( errors ) );
-        }
-
-        cacheService = new CacheService();
-        cacheService.initialize( null );
-        dnFactory = new DefaultDnFactory( schemaManager, 
-            cacheService.getCache( "dnCache", String.class, Dn.class ) );
-    }
-
-
-    @Test
-    public void testConfigWriter() throws Exception
-    {
-        // Extracting of the config file
-        File configDir = new File( workDir, "configWriter" ); // could be any directory, cause the config is now in a single file
-        String configFile = LdifConfigExtractor.extractSingleFileConfig( configDir, "config.ldif", true );
-
-        // Creating of the config partition
-        SingleFileLdifPartition configPartition = new SingleFileLdifPartition( schemaManager, dnFactory );
-        configPartition.setId( "config" );
-        configPartition.setPartitionPath( new File( configFile ).toURI() );
-        configPartition.setSuffixDn( new Dn( schemaManager, "ou=config" ) );
-        configPartition.setSchemaManager( schemaManager );
-        configPartition.setCacheService( cacheService );
-        configPartition.initialize();
-
-        // Reading the config partition
-        ConfigPartitionReader cpReader = new ConfigPartitionReader( configPartition );
-        ConfigBean configBean = cpReader.readConfig();
-        assertNotNull( configBean );
-
-        // Creating the config writer
-        ConfigWriter configWriter = new ConfigWriter( schemaManager, configBean );
-
-        // Reading the original config file
-        LdifReader ldifReader = new LdifReader( configFile );
-        List<LdifEntry> originalConfigEntries = new ArrayList<LdifEntry>();
-
-        while ( ldifReader.hasNext() )
-        {
-            originalConfigEntries.add( ldifReader.next() );
-        }
-
-        ldifReader.close();
-
-        // Getting the list of entries of generated config
-        List<LdifEntry> generatedConfigEntries = configWriter.getConvertedLdifEntries();
-
-        // Comparing the number of entries
-        assertEquals( originalConfigEntries.size(), generatedConfigEntries.size() );
-
-        // Comparing each entry in both lists (which have been sorted before)
-        Comparator<LdifEntry> dnComparator = new Comparator<LdifEntry>()
-        {
-            public int compare( LdifEntry o1, LdifEntry o2 )
-            {
-                return o1.getDn().toString().compareToIgnoreCase( o2.getDn().toString() );
-            }
-        };
-        Collections.sort( originalConfigEntries, dnComparator );
-        Collections.sort( generatedConfigEntries, dnComparator );
-        for ( int i = 0; i < originalConfigEntries.size(); i++ )
-        {
-            Entry originalConfigEntry = originalConfigEntries.get( i ).getEntry();
-            Entry generatedConfigEntry = generatedConfigEntries.get( i ).getEntry();
-
-            // Comparing DNs
-            assertTrue( originalConfigEntry.getDn().equals( generatedConfigEntry.getDn() ) );
-        }
-
-        // Destroying the config partition
-        configPartition.destroy( configPartition.beginReadTransaction() );
-    }
-}
+/*
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *   or more contributor license agreements.  See the NOTICE file
+ *   distributed with this work for additional information
+ *   regarding copyright ownership.  The ASF licenses this file
+ *   to you under the Apache License, Version 2.0 (the
+ *   "License"); you may not use this file except in compliance
+ *   with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing,
+ *   software distributed under the License is distributed on an
+ *   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *   KIND, either express or implied.  See the License for the
+ *   specific language governing permissions and limitations
+ *   under the License.
+ *
+ */
+
+package org.apache.directory.server.config;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import org.apache.directory.api.util.FileUtils;
+import org.apache.directory.api.ldap.model.entry.DefaultEntry;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.ldif.LdifEntry;
+import org.apache.directory.api.ldap.model.ldif.LdifReader;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.api.ldap.model.schema.registries.SchemaLoader;
+import org.apache.directory.api.ldap.schema.extractor.SchemaLdifExtractor;
+import org.apache.directory.api.ldap.schema.extractor.impl.DefaultSchemaLdifExtractor;
+import org.apache.directory.api.ldap.schema.loader.LdifSchemaLoader;
+import org.apache.directory.api.ldap.schema.manager.impl.DefaultSchemaManager;
+import org.apache.directory.api.util.exception.Exceptions;
+import org.apache.directory.server.config.beans.ConfigBean;
+import org.apache.directory.server.config.beans.JdbmPartitionBean;
+import org.apache.directory.server.config.beans.LdapServerBean;
+import org.apache.directory.server.config.beans.PartitionBean;
+import org.apache.directory.server.core.api.CacheService;
+import org.apache.directory.server.core.api.DnFactory;
+import org.apache.directory.server.core.partition.ldif.SingleFileLdifPartition;
+import org.apache.directory.server.core.shared.DefaultDnFactory;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import com.mycila.junit.concurrent.Concurrency;
+import com.mycila.junit.concurrent.ConcurrentJunitRunner;
+
+
+/**
+ * Test class for ConfigWriter
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+@RunWith(ConcurrentJunitRunner.class)
+@Concurrency()
+public class ConfigWriterTest
+{
+    private static SchemaManager schemaManager;
+    private static DnFactory dnFactory;
+    private static CacheService cacheService;
+
+    private static File workDir = new File( System.getProperty( "java.io.tmpdir" ) + "/server-work" );
+
+
+    @BeforeClass
+    public static void readConfig() throws Exception
+    {
+        FileUtils.deleteDirectory( workDir );
+        workDir.mkdir();
+
+        String workingDirectory = workDir.getPath();
+        // Extract the schema on disk (a brand new one) and load the registries
+        File schemaRepository = new File( workingDirectory, "schema" );
+
+        if ( schemaRepository.exists() )
+        {
+            FileUtils.deleteDirectory( schemaRepository );
+        }
+
+        SchemaLdifExtractor extractor = new DefaultSchemaLdifExtractor( new File( workingDirectory ) );
+        extractor.extractOrCopy();
+
+        SchemaLoader loader = new LdifSchemaLoader( schemaRepository );
+        schemaManager = new DefaultSchemaManager( loader );
+
+        // We have to load the schema now, otherwise we won't be able
+        // to initialize the Partitions, as we won't be able to parse 
+        // and normalize their suffix Dn
+        schemaManager.loadAllEnabled();
+
+        List<Throwable> errors = schemaManager.getErrors();
+
+        if ( errors.size() != 0 )
+        {
+            throw new Exception( "Schema load failed : " + Exceptions.printErrors( errors ) );
+        }
+
+        cacheService = new CacheService();
+        cacheService.initialize( null );
+        dnFactory = new DefaultDnFactory( schemaManager, 
+            cacheService.getCache( "dnCache", String.class, Dn.class ) );
+    }
+
+
+    @Test
+    public void testConfigWriter() throws Exception
+    {
+        // Extracting of the config file
+        File configDir = new File( workDir, "configWriter" ); // could be any directory, cause the config is now in a single file
+        String configFile = LdifConfigExtractor.extractSingleFileConfig( configDir, "config.ldif", true );
+
+        // Creating of the config partition
+        SingleFileLdifPartition configPartition = new SingleFileLdifPartition( schemaManager, dnFactory );
+        configPartition.setId( "config" );
+        configPartition.setPartitionPath( new File( configFile ).toURI() );
+        configPartition.setSuffixDn( new Dn( schemaManager, "ou=config" ) );
+        configPartition.setSchemaManager( schemaManager );
+        configPartition.setCacheService( cacheService );
+        configPartition.initialize();
+
+        // Reading the config partition
+        ConfigPartitionReader cpReader = new ConfigPartitionReader( configPartition );
+        ConfigBean configBean = cpReader.readConfig();
+        assertNotNull( configBean );
+
+        // Creating the config writer
+        ConfigWriter configWriter = new ConfigWriter( schemaManager, configBean );
+
+        // Reading the original config file
+        LdifReader ldifReader = new LdifReader( configFile );
+        List<LdifEntry> originalConfigEntries = new ArrayList<LdifEntry>();
+
+        while ( ldifReader.hasNext() )
+        {
+            originalConfigEntries.add( ldifReader.next() );
+        }
+
+        ldifReader.close();
+
+        // Getting the list of entries of generated config
+        List<LdifEntry> generatedConfigEntries = configWriter.getConvertedLdifEntries();
+
+        // Comparing the number of entries
+        assertEquals( originalConfigEntries.size(), generatedConfigEntries.size() );
+
+        // Comparing each entry in both lists (which have been sorted before)
+        Comparator<LdifEntry> dnComparator = new Comparator<LdifEntry>()
+        {
+            public int compare( LdifEntry o1, LdifEntry o2 )
+            {
+                return o1.getDn().toString().compareToIgnoreCase( o2.getDn().toString() );
+            }
+        };
+        Collections.sort( originalConfigEntries, dnComparator );
+        Collections.sort( generatedConfigEntries, dnComparator );
+        for ( int i = 0; i < originalConfigEntries.size(); i++ )
+        {
+            Entry originalConfigEntry = originalConfigEntries.get( i ).getEntry();
+            Entry generatedConfigEntry = generatedConfigEntries.get( i ).getEntry();
+
+            // Comparing DNs
+            assertTrue( originalConfigEntry.getDn().equals( generatedConfigEntry.getDn() ) );
+        }
+
+        // Destroying the config partition
+        configPartition.destroy( configPartition.beginReadTransaction() );
+    }
+
+
+    @Test
+    public void testAuxiliaryObjectClass() throws Exception
+    {
+        File configDir = new File( workDir, "configWriterAuxiliary" );
+        String configFile = LdifConfigExtractor.extractSingleFileConfig( configDir, "config.ldif", true );
+
+        SingleFileLdifPartition configPartition = new SingleFileLdifPartition( schemaManager, dnFactory );
+        configPartition.setId( "config" );
+        configPartition.setPartitionPath( new File( configFile ).toURI() );
+        configPartition.setSuffixDn( new Dn( schemaManager, "ou=config" ) );
+        configPartition.setSchemaManager( schemaManager );
+        configPartition.setCacheService( cacheService );
+        configPartition.initialize();
+
+        ConfigPartitionReader cpReader = new ConfigPartitionReader( configPartition );
+        ConfigBean configBean = cpReader.readConfig();
+        List<PartitionBean> partitionBeans = configBean.getDirectoryServiceBean().getPartitions();
+        PartitionBean partitionBean = partitionBeans.get( 0 );
+        partitionBean.setPartitionStreamingSearch( true );
+        ( ( JdbmPartitionBean ) partitionBean ).setPartitionEntryCacheBytes( 1048576L );
+        configBean.getDirectoryServiceBean().setDsSearchParallelism( 4 );
+        LdapServerBean ldapServerBean = configBean.getDirectoryServiceBean().getLdapServerBean();
+        ldapServerBean.setOutboundHighWaterMark( 4194304 );
+        ldapServerBean.setRequestExecutionMode( "virtual" );
+        ldapServerBean.setMaxPagedSearchesPerSession( 32 );
+        ldapServerBean.setPagedSearchSpillDirectory( "/var/tmp/pagedSearches" );
+
+        // The auxiliary object class is only added when the attribute is written
+        for ( LdifEntry ldifEntry : new ConfigWriter( schemaManager, configBean ).getConvertedLdifEntries() )
+        {
+            Entry entry = ldifEntry.getEntry();
+
+            if ( entry.contains( "objectClass", "ads-directoryService" ) )
+            {
+                assertTrue( entry.contains( "objectClass", "ads-directoryServiceOptions" ) );
+                assertTrue( entry.contains( "ads-dsSearchParallelism", "4" ) );
+            }
+
+            if ( entry.contains( "objectClass", "ads-ldapServer" ) )
+            {
+                assertTrue( entry.contains( "objectClass", "ads-ldapServerOptions" ) );
+                assertTrue( entry.contains( "ads-outboundHighWaterMark", "4194304" ) );
+                assertTrue( entry.contains( "ads-requestExecutionMode", "virtual" ) );
+                assertTrue( entry.contains( "ads-maxPagedSearchesPerSession", "32" ) );
+                assertTrue( entry.contains( "ads-pagedSearchSpillDirectory", "/var/tmp/pagedSearches" ) );
+
+                // The values left to their default are not written
+                assertFalse( entry.containsAttribute( "ads-outboundLowWaterMark" ) );
+                assertFalse( entry.containsAttribute( "ads-maxOutboundBytes" ) );
+                assertFalse( entry.containsAttribute( "ads-maxConcurrentRequests" ) );
+                assertFalse( entry.containsAttribute( "ads-maxPagedSearches" ) );
+                assertFalse( entry.containsAttribute( "ads-pagedSearchIdleTimeout" ) );
+
+                LdapServerBean readBean = ( LdapServerBean ) cpReader.readConfig( new DefaultEntry( schemaManager,
+                    entry ) );
+                assertEquals( 4194304, readBean.getOutboundHighWaterMark() );
+                assertEquals( 262144, readBean.getOutboundLowWaterMark() );
+                assertEquals( "virtual", readBean.getRequestExecutionMode() );
+                assertEquals( 32, readBean.getMaxPagedSearchesPerSession() );
+                assertEquals( 600000L, readBean.getPagedSearchIdleTimeout() );
+                assertEquals( "/var/tmp/pagedSearches", readBean.getPagedSearchSpillDirectory() );
+            }
+
+            if ( !entry.contains( "objectClass", "ads-partition" ) )
+            {
+                continue;
+            }
+
+            String partitionId = entry.get( "ads-partitionId" ).getString();
+
+            if ( partitionId.equals( partitionBean.getPartitionId() ) )
+            {
+                assertTrue( entry.contains( "objectClass", "ads-partitionOptions" ) );
+                assertTrue( entry.contains( "ads-partitionStreamingSearch", "TRUE" ) );
+                assertTrue( entry.contains( "ads-partitionEntryCacheBytes", "1048576" ) );
+
+                // The written entry is read back
+                PartitionBean readBean = ( PartitionBean ) cpReader.readConfig( new DefaultEntry( schemaManager,
+                    entry ) );
+                assertTrue( readBean.isPartitionStreamingSearch() );
+                assertEquals( 1048576L, ( ( JdbmPartitionBean ) readBean ).getPartitionEntryCacheBytes() );
+            }
+            else
+            {
+                assertFalse( entry.contains( "objectClass", "ads-partitionOptions" ) );
+                assertFalse( entry.containsAttribute( "ads-partitionStreamingSearch" ) );
+                assertFalse( entry.containsAttribute( "ads-partitionEntryCacheBytes" ) );
+            }
+        }
+
+        configPartition.destroy( configPartition.beginReadTransaction() );
+    }
+}
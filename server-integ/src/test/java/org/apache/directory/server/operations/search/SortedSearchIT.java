@@ -28,6 +28,10 @@ import static org.junit.Assert.assertNull;
 import java.util.ArrayList;
 import java.util.List;
 
+import org.apache.directory.api.ldap.extras.controls.vlv.VirtualListViewRequest;
+import org.apache.directory.api.ldap.extras.controls.vlv.VirtualListViewRequestImpl;
+import org.apache.directory.api.ldap.extras.controls.vlv.VirtualListViewResponse;
+import org.apache.directory.api.ldap.extras.controls.vlv.VirtualListViewResultCode;
 import org.apache.directory.api.ldap.model.constants.SchemaConstants;
 import org.apache.directory.api.ldap.model.cursor.SearchCursor;
 import org.apache.directory.api.ldap.model.entry.Entry;
@@ -419,4 +423,95 @@ public class SortedSearchIT extends AbstractLdapTestUnit
         }
     }
 
+
+    @Test
+    public void testSortWithSizeLimit() throws Exception
+    {
+        sk.setAttributeTypeDesc( "sn" );
+        req.setSizeLimit( 3 );
+
+        SearchCursor cursor = con.search( req );
+
+        List<String> actualOrder = new ArrayList<String>();
+
+        while ( cursor.next() )
+        {
+            SearchResultEntry se = ( SearchResultEntry ) cursor.get();
+            actualOrder.add( se.getEntry().getDn().getName() );
+        }
+
+        SearchResultDone sd = cursor.getSearchResultDone();
+        cursor.close();
+
+        // only the first entries are kept, but we know there are more
+        assertEquals( ResultCodeEnum.SIZE_LIMIT_EXCEEDED, sd.getLdapResult().getResultCode() );
+        assertEquals( 3, actualOrder.size() );
+        assertEquals( "uid=person1,ou=parent,ou=system", actualOrder.get( 0 ) );
+        assertEquals( "uid=person2,ou=parent,ou=system", actualOrder.get( 1 ) );
+        assertEquals( "uid=person3,ou=parent,ou=system", actualOrder.get( 2 ) );
+    }
+
+
+    @Test
+    public void testVirtualListViewByOffset() throws Exception
+    {
+        sk.setAttributeTypeDesc( "sn" );
+
+        VirtualListViewRequest vlv = new VirtualListViewRequestImpl();
+        vlv.setOffset( 4 );
+        vlv.setContentCount( 0 );
+        vlv.setBeforeCount( 1 );
+        vlv.setAfterCount( 1 );
+        req.addControl( vlv );
+
+        SearchCursor cursor = con.search( req );
+
+        List<String> actualOrder = new ArrayList<String>();
+
+        while ( cursor.next() )
+        {
+            SearchResultEntry se = ( SearchResultEntry ) cursor.get();
+            actualOrder.add( se.getEntry().getDn().getName() );
+        }
+
+        SearchResultDone sd = cursor.getSearchResultDone();
+        cursor.close();
+
+        assertEquals( ResultCodeEnum.SUCCESS, sd.getLdapResult().getResultCode() );
+        assertEquals( 3, actualOrder.size() );
+        assertEquals( "uid=person3,ou=parent,ou=system", actualOrder.get( 0 ) );
+        assertEquals( "uid=user0,ou=parent,ou=system", actualOrder.get( 1 ) );
+        assertEquals( "uid=user1,ou=parent,ou=system", actualOrder.get( 2 ) );
+
+        VirtualListViewResponse vlvResp = ( VirtualListViewResponse ) sd.getControl( VirtualListViewResponse.OID );
+        assertNotNull( vlvResp );
+        assertEquals( VirtualListViewResultCode.SUCCESS, vlvResp.getVirtualListViewResult() );
+        assertEquals( 4, vlvResp.getTargetPosition() );
+        assertEquals( 14, vlvResp.getContentCount() );
+    }
+
+
+    @Test
+    public void testVirtualListViewWithoutSortControl() throws Exception
+    {
+        req.removeControl( ctrl );
+
+        VirtualListViewRequest vlv = new VirtualListViewRequestImpl();
+        vlv.setCritical( true );
+        vlv.setOffset( 1 );
+        vlv.setAfterCount( 1 );
+        req.addControl( vlv );
+
+        SearchCursor cursor = con.search( req );
+        assertFalse( cursor.next() );
+
+        SearchResultDone sd = cursor.getSearchResultDone();
+        cursor.close();
+
+        assertEquals( ResultCodeEnum.UNAVAILABLE_CRITICAL_EXTENSION, sd.getLdapResult().getResultCode() );
+
+        VirtualListViewResponse vlvResp = ( VirtualListViewResponse ) sd.getControl( VirtualListViewResponse.OID );
+        assertNotNull( vlvResp );
+        assertEquals( VirtualListViewResultCode.SORTCONTROLMISSING, vlvResp.getVirtualListViewResult() );
+    }
 }
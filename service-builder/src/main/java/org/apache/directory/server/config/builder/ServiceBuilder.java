@@ -110,6 +110,7 @@ import org.apache.directory.server.kerberos.changepwd.ChangePasswordServer;
 import org.apache.directory.server.kerberos.kdc.KdcServer;
 import org.apache.directory.server.ldap.ExtendedOperationHandler;
 import org.apache.directory.server.ldap.LdapServer;
+import org.apache.directory.server.ldap.RequestExecutionMode;
 import org.apache.directory.server.ldap.handlers.sasl.MechanismHandler;
 import org.apache.directory.server.ldap.handlers.sasl.ntlm.NtlmMechanismHandler;
 import org.apache.directory.server.ldap.replication.SyncReplConfiguration;
@@ -122,6 +123,7 @@ import org.apache.directory.server.protocol.shared.transport.TcpTransport;
 import org.apache.directory.server.protocol.shared.transport.Transport;
 import org.apache.directory.server.protocol.shared.transport.UdpTransport;
 import org.apache.directory.server.xdbm.Index;
+import org.apache.directory.server.xdbm.OffHeapEntryCache;
 import org.apache.directory.shared.kerberos.codec.types.EncryptionType;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -1059,6 +1061,25 @@ public final class ServiceBuilder
         // Relplication pinger thread sleep time
         ldapServer.setReplPingerSleepTime( ldapServerBean.getReplPingerSleep() );
 
+        // The way the requests are executed
+        ldapServer.setRequestExecutionMode( RequestExecutionMode.getMode( ldapServerBean.getRequestExecutionMode() ) );
+        ldapServer.setMaxConcurrentRequests( ldapServerBean.getMaxConcurrentRequests() );
+
+        // The control of the responses written to slow clients
+        ldapServer.setOutboundHighWaterMark( ldapServerBean.getOutboundHighWaterMark() );
+        ldapServer.setOutboundLowWaterMark( ldapServerBean.getOutboundLowWaterMark() );
+        ldapServer.setMaxOutboundBytes( ldapServerBean.getMaxOutboundBytes() );
+
+        // The limits on the PagedSearch contexts
+        ldapServer.setMaxPagedSearches( ldapServerBean.getMaxPagedSearches() );
+        ldapServer.setMaxPagedSearchesPerSession( ldapServerBean.getMaxPagedSearchesPerSession() );
+        ldapServer.setPagedSearchIdleTimeout( ldapServerBean.getPagedSearchIdleTimeout() );
+
+        if ( !Strings.isEmpty( ldapServerBean.getPagedSearchSpillDirectory() ) )
+        {
+            ldapServer.setPagedSearchSpillDirectory( new File( ldapServerBean.getPagedSearchSpillDirectory() ) );
+        }
+
         // The transports
         Transport[] transports = createTransports( ldapServerBean.getTransports() );
         ldapServer.setTransports( transports );
@@ -1259,6 +1280,7 @@ public final class ServiceBuilder
 
         index.setCacheSize( jdbmIndexBean.getIndexCacheSize() );
         index.setNumDupLimit( jdbmIndexBean.getIndexNumDupLimit() );
+        index.setSubstringIndexed( jdbmIndexBean.isIndexSubstring() );
 
         // Find the OID for this index
         if ( jdbmIndexBean.getIndexWorkingDir() != null )
@@ -1316,8 +1338,16 @@ public final class ServiceBuilder
             directoryService.getDnFactory() );
 
         jdbmPartition.setCacheSize( jdbmPartitionBean.getPartitionCacheSize() );
+
+        if ( jdbmPartitionBean.getPartitionEntryCacheBytes() > 0L )
+        {
+            jdbmPartition.setEntryCache( new OffHeapEntryCache( directoryService.getSchemaManager(),
+                jdbmPartitionBean.getPartitionEntryCacheBytes() ) );
+        }
+
         jdbmPartition.setId( jdbmPartitionBean.getPartitionId() );
         jdbmPartition.setOptimizerEnabled( jdbmPartitionBean.isJdbmPartitionOptimizerEnabled() );
+        jdbmPartition.setStreamingSearch( jdbmPartitionBean.isPartitionStreamingSearch() );
         File partitionPath = new File( directoryService.getInstanceLayout().getPartitionsDirectory(),
             jdbmPartitionBean.getPartitionId() );
         jdbmPartition.setPartitionPath( partitionPath.toURI() );
@@ -1482,6 +1512,9 @@ public final class ServiceBuilder
         // SyncPeriodMillis
         directoryService.setSyncPeriodMillis( directoryServiceBean.getDsSyncPeriodMillis() );
 
+        // Set the search parallelism
+        directoryService.setSearchParallelism( directoryServiceBean.getDsSearchParallelism() );
+
         // testEntries
         String entryFilePath = directoryServiceBean.getDsTestEntries();
 
@@ -1527,6 +1560,7 @@ public final class ServiceBuilder
         }
 
         mvbtPartition.setSyncOnWrite( mvbtPartitionBean.isPartitionSyncOnWrite() );
+        mvbtPartition.setStreamingSearch( mvbtPartitionBean.isPartitionStreamingSearch() );
         mvbtPartition.setIndexedAttributes( createMavibotIndexes( mvbtPartition, mvbtPartitionBean.getIndexes(),
             directoryService ) );
 
@@ -1593,6 +1627,7 @@ public final class ServiceBuilder
         }
 
         index.setWkDirPath( partition.getPartitionPath() );
+        index.setSubstringIndexed( mavibotIndexBean.isIndexSubstring() );
 
         return index;
     }
@@ -31,10 +31,13 @@ import org.apache.directory.server.core.api.partition.Partition;
 import org.apache.directory.server.core.api.partition.PartitionReadTxn;
 import org.apache.directory.server.core.api.partition.PartitionWriteTxn;
 import org.apache.directory.server.core.partition.impl.btree.AbstractBTreePartition;
+import org.apache.directory.server.core.partition.impl.btree.SnapshotReadTxn;
 import org.apache.directory.server.xdbm.Index;
 import org.apache.directory.server.xdbm.impl.avl.AvlIndex;
 import org.apache.directory.server.xdbm.impl.avl.AvlMasterTable;
 import org.apache.directory.server.xdbm.impl.avl.AvlRdnIndex;
+import org.apache.directory.server.xdbm.impl.avl.ConcurrentMasterTable;
+import org.apache.directory.server.xdbm.impl.avl.ConcurrentTable;
 import org.apache.directory.server.xdbm.search.impl.CursorBuilder;
 import org.apache.directory.server.xdbm.search.impl.DefaultOptimizer;
 import org.apache.directory.server.xdbm.search.impl.DefaultSearchEngine;
@@ -45,7 +48,9 @@ import org.slf4j.LoggerFactory;
 
 
 /**
- * An XDBM Partition backed by in memory AVL Trees.
+ * An XDBM Partition backed by in memory AVL Trees. When configured as concurrent, the
+ * master table and the indexes are backed by {@link ConcurrentTable}s instead, which
+ * can be read while they are being modified, without any lock.
  *
  * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
  */
@@ -54,6 +59,9 @@ public class AvlPartition extends AbstractBTreePartition
     /** static logger */
     private static final Logger LOG = LoggerFactory.getLogger( AvlPartition.class );
 
+    /** Tells if the tables must support concurrent reads and writes */
+    private boolean concurrent;
+
 
     /**
      * Creates a store based on AVL Trees.
@@ -117,13 +125,42 @@ public class AvlPartition extends AbstractBTreePartition
             }
 
             // Create the master table (the table containing all the entries)
-            master = new AvlMasterTable( id, UuidComparator.INSTANCE, null, false );
+            if ( concurrent )
+            {
+                master = new ConcurrentMasterTable( id, UuidComparator.INSTANCE, null, false );
+            }
+            else
+            {
+                master = new AvlMasterTable( id, UuidComparator.INSTANCE, null, false );
+            }
 
             super.doInit();
         }
     }
 
 
+    /**
+     * @return <tt>true</tt> if the partition tables support concurrent reads and writes
+     */
+    public boolean isConcurrent()
+    {
+        return concurrent;
+    }
+
+
+    /**
+     * Tells the partition to store its entries and indexes in tables supporting
+     * concurrent reads and writes.
+     *
+     * @param concurrent <tt>true</tt> to use {@link ConcurrentTable}s
+     */
+    public void setConcurrent( boolean concurrent )
+    {
+        checkInitialized( "concurrent" );
+        this.concurrent = concurrent;
+    }
+
+
     /**
      * {@inheritDoc}
      */
@@ -182,6 +219,7 @@ public class AvlPartition extends AbstractBTreePartition
             avlIndex = new AvlIndex( index.getAttributeId(), true );
         }
 
+        avlIndex.setConcurrent( concurrent );
         avlIndex.init( schemaManager, schemaManager.lookupAttributeTypeRegistry( index.getAttributeId() ) );
 
         return avlIndex;
@@ -209,6 +247,8 @@ public class AvlPartition extends AbstractBTreePartition
             avlIndex = new AvlIndex( oid, withReverse );
         }
 
+        avlIndex.setConcurrent( concurrent );
+
         return avlIndex;
     }
 
@@ -227,7 +267,7 @@ public class AvlPartition extends AbstractBTreePartition
     @Override
     public PartitionReadTxn beginReadTransaction()
     {
-        return new PartitionReadTxn();
+        return new SnapshotReadTxn();
     }
 
 
@@ -20,10 +20,21 @@
 package org.apache.directory.server.core.partition.impl.btree;
 
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -44,7 +55,9 @@ import org.apache.directory.api.ldap.model.cursor.CursorException;
 import org.apache.directory.api.ldap.model.entry.Attribute;
 import org.apache.directory.api.ldap.model.entry.Entry;
 import org.apache.directory.api.ldap.model.entry.Modification;
+import org.apache.directory.api.ldap.model.entry.ModificationOperation;
 import org.apache.directory.api.ldap.model.entry.Value;
+import org.apache.directory.api.ldap.model.exception.LdapAdminLimitExceededException;
 import org.apache.directory.api.ldap.model.exception.LdapAliasDereferencingException;
 import org.apache.directory.api.ldap.model.exception.LdapAliasException;
 import org.apache.directory.api.ldap.model.exception.LdapContextNotEmptyException;
@@ -85,17 +98,25 @@ import org.apache.directory.server.core.api.interceptor.context.RenameOperationC
 import org.apache.directory.server.core.api.interceptor.context.SearchOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.UnbindOperationContext;
 import org.apache.directory.server.core.api.partition.AbstractPartition;
+import org.apache.directory.server.core.api.partition.LazyAttributesLoader;
 import org.apache.directory.server.core.api.partition.Partition;
 import org.apache.directory.server.core.api.partition.PartitionTxn;
 import org.apache.directory.server.core.api.partition.PartitionWriteTxn;
 import org.apache.directory.server.core.api.partition.Subordinates;
 import org.apache.directory.server.i18n.I18n;
+import org.apache.directory.server.xdbm.AbstractIndex;
+import org.apache.directory.server.xdbm.EntryCache;
+import org.apache.directory.server.xdbm.EntryIdDictionary;
 import org.apache.directory.server.xdbm.Index;
 import org.apache.directory.server.xdbm.IndexEntry;
 import org.apache.directory.server.xdbm.IndexNotFoundException;
+import org.apache.directory.server.xdbm.IndexStatistics;
+import org.apache.directory.server.xdbm.LargeAttributeTable;
 import org.apache.directory.server.xdbm.MasterTable;
+import org.apache.directory.server.xdbm.NGramIndex;
 import org.apache.directory.server.xdbm.ParentIdAndRdn;
 import org.apache.directory.server.xdbm.Store;
+import org.apache.directory.server.xdbm.Table;
 import org.apache.directory.server.xdbm.search.Optimizer;
 import org.apache.directory.server.xdbm.search.PartitionSearchResult;
 import org.apache.directory.server.xdbm.search.SearchEngine;
@@ -125,9 +146,15 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
     /** The default cache size is set to 10 000 objects */
     public static final int DEFAULT_CACHE_SIZE = 10000;
 
+    /** The extension of the file storing the index statistics */
+    private static final String STATISTICS_FILE_EXTN = ".stats";
+
     /** The Entry cache size for this partition */
     protected int cacheSize = DEFAULT_CACHE_SIZE;
 
+    /** The entry cache, null if the entries are not cached */
+    protected EntryCache entryCache;
+
     /** The alias cache */
     protected Cache< String, Dn > aliasCache;
 
@@ -137,6 +164,9 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
     /** true if we sync disks on every write operation */
     protected AtomicBoolean isSyncOnWrite = new AtomicBoolean( true );
 
+    /** true if the search candidates are pulled from the indexes while the entries are read */
+    protected volatile boolean streamingSearch = false;
+
     /** The suffix UUID */
     private volatile String suffixId;
 
@@ -155,6 +185,15 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
     /** a map of attributeType numeric UUID to system userIndices */
     protected Map<String, Index<?, String>> systemIndices = new HashMap<>();
 
+    /** a map of attributeType numeric UUID to substring indices */
+    protected Map<String, NGramIndex> substringIndices = new HashMap<>();
+
+    /** The ids of the attributes which values are stored in their own table, out of the entries */
+    private Set<String> largeAttributeIds = new HashSet<>();
+
+    /** a map of attributeType numeric UUID to the tables storing the values of the large attributes */
+    protected Map<String, LargeAttributeTable> largeAttributeTables = new HashMap<>();
+
     /** the relative distinguished name index */
     protected Index<ParentIdAndRdn, String> rdnIdx;
 
@@ -208,6 +247,12 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
     
     /** a semaphore to serialize the writes on context entry while updating contextCSN attribute */
     private Semaphore ctxCsnSemaphore = new Semaphore( 1 );
+
+    /** The overlay keeping the previous versions of the modified entries for the pinned searches */
+    private final SnapshotManager snapshotManager = new SnapshotManager();
+
+    /** The dense IDs associated with the entry UUIDs, used to store the search candidates */
+    private final EntryIdDictionary entryIdDictionary = new EntryIdDictionary();
     
     // ------------------------------------------------------------------------
     // C O N S T R U C T O R S
@@ -304,6 +349,30 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
     }
 
 
+    /**
+     * @return The cache of the entries read from the master table, null if the entries
+     * are not cached. Its statistics can be used to size it.
+     */
+    public EntryCache getEntryCache()
+    {
+        return entryCache;
+    }
+
+
+    /**
+     * Sets the cache of the entries read from the master table, like an
+     * {@link org.apache.directory.server.xdbm.OffHeapEntryCache} bounded by the memory
+     * it uses. It must be set before the partition is initialized, a partition using the
+     * CacheService creates its own cache if none is set.
+     *
+     * @param entryCache The entry cache
+     */
+    public void setEntryCache( EntryCache entryCache )
+    {
+        this.entryCache = entryCache;
+    }
+
+
     /**
      * Tells if the Optimizer is enabled or not
      * @return true if the optimizer is enabled
@@ -359,6 +428,66 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
     }
 
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isStreamingSearch()
+    {
+        return streamingSearch;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setStreamingSearch( boolean streamingSearch )
+    {
+        this.streamingSearch = streamingSearch;
+    }
+
+
+    /**
+     * @return The ids of the attributes which values are stored in their own table
+     */
+    public Set<String> getLargeAttributes()
+    {
+        return Collections.unmodifiableSet( largeAttributeIds );
+    }
+
+
+    /**
+     * Sets the ids of the very large multi-valued attributes, like member or uniqueMember,
+     * which values are stored in their own table instead of being stored in the entries.
+     * Adding or removing a value of these attributes does not rewrite the whole entry, and
+     * the other values are only read when the entry is fetched, or when the altered entry of
+     * the modify operation is used.
+     * <br>
+     * Only the JdbmPartition creates these tables, the other partitions ignore this setting
+     * and keep the values in the entries.
+     *
+     * @param largeAttributeIds The attributes ids
+     */
+    public void setLargeAttributes( Set<String> largeAttributeIds )
+    {
+        checkInitialized( "largeAttributes" );
+        this.largeAttributeIds = new HashSet<>( largeAttributeIds );
+    }
+
+
+    /**
+     * Gets the table storing the values of a large attribute.
+     *
+     * @param attributeType The large attribute
+     * @return The table, or null if the attribute values are stored in the entries
+     */
+    public LargeAttributeTable getLargeAttributeTable( AttributeType attributeType )
+    {
+        return largeAttributeTables.get( attributeType.getOid() );
+    }
+
+
     /**
      * Sets up the system indices.
      * 
@@ -470,8 +599,15 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
             if ( mr != null )
             {
                 Index<?, String> index = elem.getValue();
+                boolean substringIndexed = ( index instanceof AbstractIndex )
+                    && ( ( AbstractIndex<?, ?> ) index ).isSubstringIndexed();
                 index = convertAndInit( index );
                 tmp.put( oid, index );
+
+                if ( substringIndexed )
+                {
+                    substringIndices.put( oid, new NGramIndex( attributeType, entryIdDictionary ) );
+                }
             }
             else
             {
@@ -483,6 +619,57 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
     }
 
 
+    /**
+     * Sets up the tables storing the values of the large attributes. The attributes which
+     * are single valued, not human readable or substring indexed are kept in the entries.
+     *
+     * @throws LdapException If the setup failed
+     */
+    protected void setupLargeAttributeTables() throws LdapException
+    {
+        largeAttributeTables = new HashMap<>();
+
+        for ( String largeAttributeId : largeAttributeIds )
+        {
+            AttributeType attributeType = schemaManager.lookupAttributeTypeRegistry( largeAttributeId );
+            String oid = attributeType.getOid();
+
+            if ( attributeType.isSingleValued() || !attributeType.getSyntax().isHumanReadable()
+                || ( attributeType.getEquality() == null ) || substringIndices.containsKey( oid ) )
+            {
+                LOG.warn( "The {} attribute values can't be stored out of the entries in the {} partition",
+                    attributeType.getName(), id );
+                continue;
+            }
+
+            Table<String, String> table = createLargeAttributeTable( attributeType );
+
+            if ( table == null )
+            {
+                LOG.warn( "The {} partition does not support storing attribute values out of the entries", id );
+                break;
+            }
+
+            largeAttributeTables.put( oid, new LargeAttributeTable( attributeType, table ) );
+        }
+    }
+
+
+    /**
+     * Creates the table storing the values of a large attribute, keyed by entry UUID. The
+     * table must allow duplicates, and only compare the normalized part of the stored values,
+     * as explained in {@link LargeAttributeTable}.
+     *
+     * @param attributeType The large attribute
+     * @return The table, or null if the partition does not support this feature
+     * @throws LdapException If the table can't be created
+     */
+    protected Table<String, String> createLargeAttributeTable( AttributeType attributeType ) throws LdapException
+    {
+        return null;
+    }
+
+
     /**
      * Gets the DefaultSearchEngine used by this ContextPartition to search the
      * Database.
@@ -543,6 +730,15 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
         
         MultiException errors = new MultiException( I18n.err( I18n.ERR_577 ) );
 
+        try
+        {
+            saveStatistics();
+        }
+        catch ( Throwable t )
+        {
+            errors.addThrowable( t );
+        }
+
         for ( Index<?, String> index : userIndices.values() )
         {
             try
@@ -571,6 +767,19 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
             }
         }
 
+        for ( LargeAttributeTable largeAttributeTable : largeAttributeTables.values() )
+        {
+            try
+            {
+                largeAttributeTable.getTable().close( partitionTxn );
+            }
+            catch ( Throwable t )
+            {
+                LOG.error( I18n.err( I18n.ERR_124 ), t );
+                errors.addThrowable( t );
+            }
+        }
+
         try
         {
             master.close( partitionTxn );
@@ -622,6 +831,7 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
         // Now, initialize the configured index
         setupSystemIndices();
         setupUserIndices();
+        setupLargeAttributeTables();
 
         if ( cacheService != null )
         {
@@ -636,6 +846,298 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
     }
 
 
+    /**
+     * @return The file storing the index statistics, or null if the partition is not stored on disk
+     */
+    private File getStatisticsFile()
+    {
+        if ( partitionPath == null )
+        {
+            return null;
+        }
+
+        return new File( new File( partitionPath ), id + STATISTICS_FILE_EXTN );
+    }
+
+
+    /**
+     * Loads the index statistics stored on disk. The statistics of an index are only
+     * used if they are consistent with the index content, otherwise they are rebuilt
+     * by browsing the index. This method must be called once the indexes are initialized.
+     *
+     * @param partitionTxn The transaction to use
+     * @throws LdapException If the statistics can't be rebuilt
+     */
+    protected void loadStatistics( PartitionTxn partitionTxn ) throws LdapException
+    {
+        Map<String, IndexStatistics> stored = new HashMap<>();
+        File file = getStatisticsFile();
+
+        if ( ( file != null ) && file.exists() )
+        {
+            try ( DataInputStream in = new DataInputStream( new BufferedInputStream( new FileInputStream( file ) ) ) )
+            {
+                int nbIndexes = in.readInt();
+
+                for ( int i = 0; i < nbIndexes; i++ )
+                {
+                    String oid = in.readUTF();
+                    stored.put( oid, IndexStatistics.readFrom( in ) );
+                }
+            }
+            catch ( IOException ioe )
+            {
+                // Not a big deal, we will rebuild them
+                LOG.warn( "Cannot read the index statistics of partition {} : {}", id, ioe.getMessage() );
+                stored.clear();
+            }
+        }
+
+        Map<String, Index<?, String>> indexes = new HashMap<>( systemIndices );
+        indexes.putAll( userIndices );
+
+        for ( Map.Entry<String, Index<?, String>> entry : indexes.entrySet() )
+        {
+            Index<?, String> index = entry.getValue();
+            IndexStatistics statistics = index.getStatistics();
+            long count = index.count( partitionTxn );
+
+            if ( statistics.getTotal() == count )
+            {
+                // Already up to date
+                continue;
+            }
+
+            IndexStatistics storedStatistics = stored.get( entry.getKey() );
+
+            if ( ( storedStatistics != null ) && ( storedStatistics.getTotal() == count ) )
+            {
+                statistics.copyFrom( storedStatistics );
+            }
+            else
+            {
+                rebuildStatistics( partitionTxn, index );
+            }
+        }
+    }
+
+
+    /**
+     * Rebuilds the statistics of an index by browsing all its keys.
+     */
+    private <K> void rebuildStatistics( PartitionTxn partitionTxn, Index<K, String> index ) throws LdapException
+    {
+        LOG.info( "Rebuilding the statistics of the {} index for partition {}", index.getAttributeId(), id );
+
+        IndexStatistics statistics = index.getStatistics();
+        statistics.clear();
+
+        try ( Cursor<IndexEntry<K, String>> cursor = index.forwardCursor( partitionTxn ) )
+        {
+            K previousKey = null;
+            boolean first = true;
+
+            while ( cursor.next() )
+            {
+                K key = cursor.get().getKey();
+
+                // The keys are ordered, we have a new distinct key as soon as it changes
+                boolean newKey = first || ( key == null ? previousKey != null : !key.equals( previousKey ) );
+                statistics.add( key, newKey );
+                previousKey = key;
+                first = false;
+            }
+        }
+        catch ( CursorException | IOException e )
+        {
+            throw new LdapOtherException( e.getMessage(), e );
+        }
+    }
+
+
+    /**
+     * Writes the index statistics on disk, if the partition is stored on disk.
+     *
+     * @throws LdapException If the statistics can't be written
+     */
+    protected void saveStatistics() throws LdapException
+    {
+        File file = getStatisticsFile();
+
+        if ( file == null )
+        {
+            return;
+        }
+
+        Map<String, Index<?, String>> indexes = new HashMap<>( systemIndices );
+        indexes.putAll( userIndices );
+        File tmpFile = new File( file.getPath() + ".tmp" );
+
+        try
+        {
+            try ( DataOutputStream out = new DataOutputStream( new BufferedOutputStream( new FileOutputStream( tmpFile ) ) ) )
+            {
+                out.writeInt( indexes.size() );
+
+                for ( Map.Entry<String, Index<?, String>> entry : indexes.entrySet() )
+                {
+                    out.writeUTF( entry.getKey() );
+                    entry.getValue().getStatistics().writeTo( out );
+                }
+            }
+
+            // Replace the previous file only when the new one is complete
+            Files.move( tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE );
+        }
+        catch ( IOException ioe )
+        {
+            throw new LdapOtherException( ioe.getMessage(), ioe );
+        }
+    }
+
+
+    /**
+     * Builds the substring indices from the associated user indices. This method must be
+     * called once the indexes are initialized.
+     *
+     * @param partitionTxn The transaction to use
+     * @throws LdapException If the user indexes can't be read
+     */
+    protected void buildSubstringIndices( PartitionTxn partitionTxn ) throws LdapException
+    {
+        for ( Map.Entry<String, NGramIndex> elem : substringIndices.entrySet() )
+        {
+            NGramIndex substringIndex = elem.getValue();
+            Index<String, String> userIndex = ( Index<String, String> ) userIndices.get( elem.getKey() );
+
+            LOG.info( "Building the substring index of {} for partition {}", elem.getKey(), id );
+            substringIndex.clear();
+
+            try ( Cursor<IndexEntry<String, String>> cursor = userIndex.forwardCursor( partitionTxn ) )
+            {
+                while ( cursor.next() )
+                {
+                    IndexEntry<String, String> indexEntry = cursor.get();
+                    substringIndex.add( indexEntry.getKey(), indexEntry.getId() );
+                }
+            }
+            catch ( CursorException | IOException e )
+            {
+                throw new LdapOtherException( e.getMessage(), e );
+            }
+        }
+    }
+
+
+    /**
+     * Gets the normalized values of the substring indexed attributes of an entry.
+     *
+     * @param entry The entry, may be null
+     * @return The normalized values, per substring indexed attribute OID
+     */
+    private Map<String, Set<String>> getSubstringIndexedValues( Entry entry )
+    {
+        Map<String, Set<String>> values = new HashMap<>();
+
+        for ( Map.Entry<String, NGramIndex> elem : substringIndices.entrySet() )
+        {
+            Set<String> attributeValues = new HashSet<>();
+            Attribute attribute = null;
+
+            if ( entry != null )
+            {
+                attribute = entry.get( elem.getValue().getAttributeType() );
+            }
+
+            if ( attribute != null )
+            {
+                for ( Value value : attribute )
+                {
+                    attributeValues.add( value.getNormalized() );
+                }
+            }
+
+            values.put( elem.getKey(), attributeValues );
+        }
+
+        return values;
+    }
+
+
+    /**
+     * Gets the normalized values of the substring indexed attributes of a stored entry,
+     * before it gets modified.
+     *
+     * @param partitionTxn The transaction to use
+     * @param id The entry ID
+     * @return The normalized values, or null if the partition has no substring index
+     * @throws LdapException If the entry can't be read
+     */
+    private Map<String, Set<String>> getStoredSubstringIndexedValues( PartitionTxn partitionTxn, String id )
+        throws LdapException
+    {
+        if ( substringIndices.isEmpty() )
+        {
+            return null;
+        }
+
+        return getSubstringIndexedValues( master.get( partitionTxn, id ) );
+    }
+
+
+    /**
+     * Updates the substring indices when an entry is added, modified or deleted. As they are
+     * kept in memory, the update is undone if the write transaction is rolled back.
+     *
+     * @param partitionTxn The write transaction
+     * @param id The entry ID
+     * @param oldValues The values of the substring indexed attributes before the update, or null
+     * @param entry The updated entry, or null if the entry is deleted
+     */
+    private void updateSubstringIndices( PartitionTxn partitionTxn, final String id,
+        Map<String, Set<String>> oldValues, Entry entry )
+    {
+        if ( substringIndices.isEmpty() )
+        {
+            return;
+        }
+
+        Map<String, Set<String>> newValues = getSubstringIndexedValues( entry );
+
+        for ( Map.Entry<String, NGramIndex> elem : substringIndices.entrySet() )
+        {
+            final NGramIndex substringIndex = elem.getValue();
+            final Set<String> previousValues;
+
+            if ( oldValues != null )
+            {
+                previousValues = oldValues.get( elem.getKey() );
+            }
+            else
+            {
+                previousValues = null;
+            }
+
+            final Set<String> updatedValues = newValues.get( elem.getKey() );
+
+            substringIndex.update( id, previousValues, updatedValues );
+
+            if ( partitionTxn instanceof PartitionWriteTxn )
+            {
+                ( ( PartitionWriteTxn ) partitionTxn ).addRollbackAction( new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        substringIndex.update( id, updatedValues, previousValues );
+                    }
+                } );
+            }
+        }
+    }
+
+
     private void dumpAllRdnIdx( PartitionTxn partitionTxn ) throws LdapException, CursorException, IOException
     {
         if ( LOG.isDebugEnabled() )
@@ -913,7 +1415,9 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
                 setContextCsn( at.getString() );
 
                 // And finally add the entry into the master table
-                master.put( partitionTxn, id, entry );
+                putMaster( partitionTxn, id, entry );
+
+                updateSubstringIndices( partitionTxn, id, null, entry );
             }
             finally
             {
@@ -1054,6 +1558,11 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
             try
             {
                  entry = master.get( partitionTxn, id );
+
+                if ( entry != null )
+                {
+                    loadLargeAttributes( partitionTxn, id, entry );
+                }
             }
             finally
             {
@@ -1066,6 +1575,8 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
                 throw new LdapNoSuchObjectException( "Cannot find an entry for UUID " + id );
             }
 
+            keepPreviousVersion( partitionTxn, id, entry );
+
             Attribute objectClass = entry.get( objectClassAT );
 
             if ( objectClass.contains( SchemaConstants.ALIAS_OC ) )
@@ -1147,6 +1658,13 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
                     setContextCsn( csn.getString() );
                 }
 
+                updateSubstringIndices( partitionTxn, id, getSubstringIndexedValues( entry ), null );
+
+                for ( LargeAttributeTable largeAttributeTable : largeAttributeTables.values() )
+                {
+                    largeAttributeTable.drop( partitionTxn, id );
+                }
+
                 master.remove( partitionTxn, id );
             }
             finally
@@ -1154,10 +1672,7 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
                 unlockWrite();
             }
 
-            if ( isSyncOnWrite.get() )
-            {
-                sync();
-            }
+            entryIdDictionary.remove( id );
 
             return entry;
         }
@@ -1203,7 +1718,33 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
                 }
             }
             
-            PartitionSearchResult searchResult = searchEngine.computeResult( partitionTxn, schemaManager, searchContext );
+            // Pin the transaction now : the candidates are computed from the current
+            // state of the indexes, the entries have to be read in the same state
+            if ( partitionTxn instanceof SnapshotReadTxn )
+            {
+                SnapshotReadTxn snapshotReadTxn = ( SnapshotReadTxn ) partitionTxn;
+                snapshotManager.pin( snapshotReadTxn );
+
+                // The candidates IDs must not be reused while the search is open
+                if ( snapshotReadTxn.getIdEpoch() == SnapshotReadTxn.NO_REVISION )
+                {
+                    snapshotReadTxn.setIdEpoch( entryIdDictionary.open() );
+                }
+            }
+            
+            PartitionSearchResult searchResult = null;
+
+            try
+            {
+                searchResult = searchEngine.computeResult( partitionTxn, schemaManager, searchContext );
+            }
+            finally
+            {
+                if ( searchResult == null )
+                {
+                    releaseSnapshot( partitionTxn );
+                }
+            }
 
             Cursor<Entry> result = new EntryCursorAdaptor( partitionTxn, this, searchResult );
 
@@ -1261,6 +1802,13 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
                 }
             }
     
+            if ( ( lookupContext.getModifications() != null ) && !largeAttributeTables.isEmpty() )
+            {
+                // The entry is only read to check the modifications
+                return fetchForModification( partitionTxn, id, lookupContext.getDn(),
+                    lookupContext.getModifications() );
+            }
+
             return fetch( partitionTxn, id, lookupContext.getDn() );
         }
         catch ( Exception e )
@@ -1270,6 +1818,48 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
     }
 
 
+    /**
+     * Reads an entry which is about to be modified, with only the values of its large
+     * attributes the modifications need, as explained in {@link #loadModifiedLargeAttributes}.
+     * The entry cache is not used, as cloning a cached entry would copy all these values.
+     */
+    private Entry fetchForModification( PartitionTxn partitionTxn, String id, Dn dn, List<Modification> mods )
+        throws LdapException
+    {
+        Entry entry = null;
+
+        try
+        {
+            rwLock.readLock().lock();
+            entry = master.get( partitionTxn, id );
+
+            if ( entry != null )
+            {
+                loadModifiedLargeAttributes( partitionTxn, id, entry, mods );
+            }
+        }
+        finally
+        {
+            rwLock.readLock().unlock();
+        }
+
+        if ( entry == null )
+        {
+            return null;
+        }
+
+        entry.setDn( dn );
+        entry = new ClonedServerEntry( entry );
+
+        if ( !entry.containsAttribute( entryDnAT ) )
+        {
+            entry.add( entryDnAT, dn.getName() );
+        }
+
+        return entry;
+    }
+
+
     /**
      * Get back an entry knowing its UUID
      *
@@ -1290,10 +1880,22 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
                 id = "";
             }
             
+            Entry previousVersion = fetchPreviousVersion( partitionTxn, id );
+            
+            if ( previousVersion != null )
+            {
+                return previousVersion;
+            }
+            
             Dn dn = buildEntryDn( partitionTxn, id );
 
             return fetch( partitionTxn, id, dn );
         }
+        catch ( LdapAdminLimitExceededException laee )
+        {
+            // The search snapshot has been expired
+            throw laee;
+        }
         catch ( Exception e )
         {
             throw new LdapOperationErrorException( e.getMessage(), e );
@@ -1318,7 +1920,14 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
     {
         try
         {
-            Entry entry = lookupCache( id );
+            Entry entry = fetchPreviousVersion( partitionTxn, id );
+            
+            if ( entry != null )
+            {
+                return entry;
+            }
+
+            entry = lookupCache( id );
 
             if ( entry != null )
             {
@@ -1347,6 +1956,11 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
             {
                 rwLock.readLock().lock();
                 entry = master.get( partitionTxn, id );
+
+                if ( entry != null )
+                {
+                    loadLargeAttributes( partitionTxn, id, entry );
+                }
             }
             finally
             {
@@ -1373,6 +1987,11 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
 
             return null;
         }
+        catch ( LdapAdminLimitExceededException laee )
+        {
+            // The search snapshot has been expired
+            throw laee;
+        }
         catch ( Exception e )
         {
             throw new LdapOperationErrorException( e.getMessage(), e );
@@ -1398,13 +2017,28 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
         {
             setRWLock( modifyContext );
 
-            Entry modifiedEntry = modify( partitionTxn, modifyContext.getDn(),
-                modifyContext.getModItems().toArray( new Modification[]
+            String id = getEntryId( partitionTxn, modifyContext.getDn() );
+            Entry modifiedEntry = modifyEntry( partitionTxn, id, modifyContext.getModItems().toArray(
+                new Modification[]
                     {} ) );
 
-            modifyContext.setAlteredEntry( modifiedEntry );
+            if ( largeAttributeTables.isEmpty() )
+            {
+                modifyContext.setAlteredEntry( modifiedEntry );
+
+                updateCache( modifyContext );
+            }
+            else
+            {
+                // The values of the large attributes are only read if the altered entry is used,
+                // and the cached entry will be read again with them
+                modifyContext.setAlteredEntry( modifiedEntry, new LargeAttributesLoader( id ) );
 
-            updateCache( modifyContext );
+                if ( entryCache != null )
+                {
+                    entryCache.remove( id );
+                }
+            }
         }
         catch ( Exception e )
         {
@@ -1420,11 +2054,42 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
     public final synchronized Entry modify( PartitionTxn partitionTxn, Dn dn, Modification... mods ) throws LdapException
     {
         String id = getEntryId( partitionTxn, dn );
+        Entry entry = modifyEntry( partitionTxn, id, mods );
+
+        // The returned entry is the complete modified entry
+        loadLargeAttributes( partitionTxn, id, entry );
+
+        return entry;
+    }
+
+
+    /**
+     * Modifies an entry, and returns it without the values of its large attributes : a
+     * modification of these attributes only updates their tables, it does not read their
+     * other values.
+     */
+    private synchronized Entry modifyEntry( PartitionTxn partitionTxn, String id, Modification... mods )
+        throws LdapException
+    {
         Entry entry = master.get( partitionTxn, id );
 
+        keepPreviousVersion( partitionTxn, id, entry );
+
+        Map<String, Set<String>> substringIndexedValues = getSubstringIndexedValues( entry );
+
+        // The entry may have been stored before its large attributes were declared
+        storeLargeAttributes( partitionTxn, id, entry );
+
         for ( Modification mod : mods )
         {
             Attribute attrMods = mod.getAttribute();
+            LargeAttributeTable largeAttributeTable = largeAttributeTables.get( attrMods.getAttributeType().getOid() );
+
+            if ( largeAttributeTable != null )
+            {
+                modifyLargeAttribute( partitionTxn, id, largeAttributeTable, mod );
+                continue;
+            }
 
             try
             { 
@@ -1459,6 +2124,8 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
 
         setContextCsn( entry.get( entryCsnAT ).getString() );
         
+        updateSubstringIndices( partitionTxn, id, substringIndexedValues, entry );
+
         master.put( partitionTxn, id, entry );
 
         return entry;
@@ -1878,6 +2545,117 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
     }
 
 
+    /**
+     * Applies a modification on a large attribute, which values are stored in their own
+     * table, while affecting the appropriate userIndices. Only the modified values are read
+     * and written : adding or removing a value costs a lookup in the table, whatever the
+     * number of values of the attribute.
+     *
+     * @param partitionTxn The transaction to use
+     * @param id the primary key of the entry
+     * @param largeAttributeTable the table storing the attribute values
+     * @param mod the modification
+     * @throws LdapException if index alteration or attribute modification fails.
+     */
+    @SuppressWarnings("unchecked")
+    private void modifyLargeAttribute( PartitionTxn partitionTxn, String id, LargeAttributeTable largeAttributeTable,
+        Modification mod ) throws LdapException
+    {
+        Attribute mods = mod.getAttribute();
+        AttributeType attributeType = largeAttributeTable.getAttributeType();
+        String normalizedOid = presenceNormalizer.normalize( attributeType.getOid() );
+        Index<?, String> userIndex = null;
+
+        if ( hasUserIndexOn( attributeType ) )
+        {
+            try
+            {
+                userIndex = getUserIndex( attributeType );
+            }
+            catch ( IndexNotFoundException infe )
+            {
+                throw new LdapOtherException( infe.getMessage(), infe );
+            }
+        }
+
+        switch ( mod.getOperation() )
+        {
+            case ADD_ATTRIBUTE:
+                for ( Value value : mods )
+                {
+                    if ( largeAttributeTable.add( partitionTxn, id, value ) && ( userIndex != null ) )
+                    {
+                        ( ( Index ) userIndex ).add( partitionTxn, value.getNormalized(), id );
+                    }
+                }
+
+                break;
+
+            case REMOVE_ATTRIBUTE:
+                if ( mods.size() == 0 )
+                {
+                    // Remove all the values
+                    if ( userIndex != null )
+                    {
+                        ( ( Index ) userIndex ).drop( partitionTxn, id );
+                    }
+
+                    largeAttributeTable.drop( partitionTxn, id );
+                }
+                else
+                {
+                    for ( Value value : mods )
+                    {
+                        if ( largeAttributeTable.remove( partitionTxn, id, value ) && ( userIndex != null ) )
+                        {
+                            ( ( Index ) userIndex ).drop( partitionTxn, value.getNormalized(), id );
+                        }
+                    }
+                }
+
+                break;
+
+            case REPLACE_ATTRIBUTE:
+                // Drop all the previous values, and add the new ones
+                if ( userIndex != null )
+                {
+                    ( ( Index ) userIndex ).drop( partitionTxn, id );
+                }
+
+                largeAttributeTable.drop( partitionTxn, id );
+
+                for ( Value value : mods )
+                {
+                    if ( largeAttributeTable.add( partitionTxn, id, value ) && ( userIndex != null ) )
+                    {
+                        ( ( Index ) userIndex ).add( partitionTxn, value.getNormalized(), id );
+                    }
+                }
+
+                break;
+
+            default:
+                throw new LdapException( I18n.err( I18n.ERR_221 ) );
+        }
+
+        // Update the presence index, which only contains the indexed attributes
+        if ( userIndex != null )
+        {
+            boolean present = presenceIdx.forward( partitionTxn, normalizedOid, id );
+            boolean hasValues = largeAttributeTable.count( partitionTxn, id ) > 0;
+
+            if ( hasValues && !present )
+            {
+                presenceIdx.add( partitionTxn, normalizedOid, id );
+            }
+            else if ( !hasValues && present )
+            {
+                presenceIdx.drop( partitionTxn, normalizedOid, id );
+            }
+        }
+    }
+
+
     //---------------------------------------------------------------------------------------------
     // The Move operation
     //---------------------------------------------------------------------------------------------
@@ -1948,6 +2726,8 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
         String entryId = getEntryId( partitionTxn, oldDn );
         String oldParentId = getParentId( partitionTxn, entryId );
 
+        keepPreviousVersion( partitionTxn, entryId, null );
+
         /*
          * All aliases including and below oldChildDn, will be affected by
          * the move operation with respect to one and subtree userIndices since
@@ -2013,12 +2793,7 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
         
         setContextCsn( modifiedEntry.get( entryCsnAT ).getString() );
 
-        master.put( partitionTxn, entryId, modifiedEntry );
-
-        if ( isSyncOnWrite.get() )
-        {
-            sync();
-        }
+        putMaster( partitionTxn, entryId, modifiedEntry );
     }
 
 
@@ -2114,6 +2889,10 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
 
         String newParentId = getEntryId( partitionTxn, newSuperiorDn );
 
+        keepPreviousVersion( partitionTxn, entryId, null );
+
+        Map<String, Set<String>> substringIndexedValues = getStoredSubstringIndexedValues( partitionTxn, entryId );
+
         //Get the info about the moved entry
         ParentIdAndRdn movedEntry = rdnIdx.reverseLookup( partitionTxn, entryId );
         
@@ -2191,8 +2970,10 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
 
         setContextCsn( modifiedEntry.get( entryCsnAT ).getString() );
 
+        updateSubstringIndices( partitionTxn, entryId, substringIndexedValues, modifiedEntry );
+
         // save the modified entry at the new place
-        master.put( partitionTxn, entryId, modifiedEntry );
+        putMaster( partitionTxn, entryId, modifiedEntry );
     }
     
     
@@ -2311,6 +3092,8 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
     private void rename( PartitionTxn partitionTxn, String oldId, Rdn newRdn, boolean deleteOldRdn, Entry entry ) 
         throws LdapException, IndexNotFoundException
     {
+        Map<String, Set<String>> substringIndexedValues = getStoredSubstringIndexedValues( partitionTxn, oldId );
+
         if ( entry == null )
         {
             entry = master.get( partitionTxn, oldId );
@@ -2449,6 +3232,13 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
                     AttributeType oldRdnAttrType = schemaManager.lookupAttributeTypeRegistry( oldNormType );
                     entry.remove( oldRdnAttrType, oldNormValue );
 
+                    LargeAttributeTable largeAttributeTable = largeAttributeTables.get( oldRdnAttrType.getOid() );
+
+                    if ( largeAttributeTable != null )
+                    {
+                        largeAttributeTable.remove( partitionTxn, oldId, new Value( oldRdnAttrType, oldNormValue ) );
+                    }
+
                     if ( hasUserIndexOn( oldRdnAttrType ) )
                     {
                         Index<?, String> userIndex = getUserIndex( oldRdnAttrType );
@@ -2475,8 +3265,10 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
 
         setContextCsn( entry.get( entryCsnAT ).getString() );
 
+        updateSubstringIndices( partitionTxn, oldId, substringIndexedValues, entry );
+
         // And save the modified entry
-        master.put( partitionTxn, oldId, entry );
+        putMaster( partitionTxn, oldId, entry );
     }
 
 
@@ -2490,6 +3282,8 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
     {
         String oldId = getEntryId( partitionTxn, dn );
 
+        keepPreviousVersion( partitionTxn, oldId, null );
+
         try
         {
             rename( partitionTxn, oldId, newRdn, deleteOldRdn, entry );
@@ -2520,11 +3314,6 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
         rdnIdx.add( partitionTxn, parentIdAndRdn, oldId );
 
         entryDnCache.clear();
-        
-        if ( isSyncOnWrite.get() )
-        {
-            sync();
-        }
     }
 
 
@@ -3107,6 +3896,26 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
     }
 
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean hasSubstringIndexOn( AttributeType attributeType )
+    {
+        return substringIndices.containsKey( attributeType.getOid() );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public NGramIndex getSubstringIndex( AttributeType attributeType )
+    {
+        return substringIndices.get( attributeType.getOid() );
+    }
+
+
     //---------------------------------------------------------------------------------------------
     // Alias index manipulation
     //---------------------------------------------------------------------------------------------
@@ -3438,7 +4247,7 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
     /**
      * Acquire a Read lock
      */
-    private void lockRead()
+    void lockRead()
     {
         rwLock.readLock().lock();
     }
@@ -3447,7 +4256,7 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
     /**
      * Release a Read lock
      */
-    private void unlockRead()
+    void unlockRead()
     {
         rwLock.readLock().unlock();
     }
@@ -3471,6 +4280,340 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
     }
 
 
+    /**
+     * Adds the values of the large attributes, read from their tables, to an entry read
+     * from the master table.
+     *
+     * @param partitionTxn The transaction to use
+     * @param id The entry UUID
+     * @param entry The entry read from the master table
+     * @throws LdapException If the values can't be read
+     */
+    protected void loadLargeAttributes( PartitionTxn partitionTxn, String id, Entry entry ) throws LdapException
+    {
+        for ( LargeAttributeTable largeAttributeTable : largeAttributeTables.values() )
+        {
+            Attribute attribute = largeAttributeTable.load( partitionTxn, id );
+
+            if ( attribute == null )
+            {
+                continue;
+            }
+
+            Attribute existing = entry.get( largeAttributeTable.getAttributeType() );
+
+            if ( existing == null )
+            {
+                entry.put( attribute );
+            }
+            else
+            {
+                // The entry was stored before the attribute was declared as a large one
+                for ( Value value : attribute )
+                {
+                    existing.add( value );
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Adds to an entry read from the master table the values of its large attributes a set
+     * of modifications needs to be checked against the entry :
+     * <ul>
+     *   <li>the added or removed values the entry already has</li>
+     *   <li>its first values, one more than the number of removed values, so that the
+     *   attribute is present, and is only removed from the checked entry if the
+     *   modifications remove all its values</li>
+     *   <li>all the values of the replaced attributes, and of the attributes which are
+     *   removed as a whole</li>
+     * </ul>
+     * Adding or removing a value of a large attribute then only reads a few values.
+     *
+     * @param partitionTxn The transaction to use
+     * @param id The entry UUID
+     * @param entry The entry read from the master table
+     * @param mods The modifications to check
+     * @throws LdapException If the values can't be read
+     */
+    protected void loadModifiedLargeAttributes( PartitionTxn partitionTxn, String id, Entry entry,
+        List<Modification> mods ) throws LdapException
+    {
+        for ( LargeAttributeTable largeAttributeTable : largeAttributeTables.values() )
+        {
+            AttributeType attributeType = largeAttributeTable.getAttributeType();
+            List<Value> modifiedValues = new ArrayList<>();
+            boolean loadAll = false;
+
+            for ( Modification mod : mods )
+            {
+                Attribute modAttribute = mod.getAttribute();
+
+                if ( !attributeType.equals( modAttribute.getAttributeType() ) )
+                {
+                    continue;
+                }
+
+                if ( ( mod.getOperation() == ModificationOperation.REPLACE_ATTRIBUTE ) || ( modAttribute.size() == 0 ) )
+                {
+                    loadAll = true;
+                    break;
+                }
+
+                for ( Value value : modAttribute )
+                {
+                    modifiedValues.add( value );
+                }
+            }
+
+            Attribute attribute;
+
+            if ( loadAll )
+            {
+                attribute = largeAttributeTable.load( partitionTxn, id );
+            }
+            else
+            {
+                attribute = largeAttributeTable.load( partitionTxn, id, modifiedValues.size() + 1 );
+
+                if ( attribute != null )
+                {
+                    for ( Value value : modifiedValues )
+                    {
+                        if ( !attribute.contains( value ) && largeAttributeTable.has( partitionTxn, id, value ) )
+                        {
+                            attribute.add( value );
+                        }
+                    }
+                }
+            }
+
+            if ( attribute == null )
+            {
+                continue;
+            }
+
+            Attribute existing = entry.get( attributeType );
+
+            if ( existing == null )
+            {
+                entry.put( attribute );
+            }
+            else
+            {
+                // The entry was stored before the attribute was declared as a large one
+                for ( Value value : attribute )
+                {
+                    existing.add( value );
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Reads the values of the large attributes of a modified entry when they are needed, in
+     * a new read transaction, as the modification is committed when the entry is used.
+     */
+    private final class LargeAttributesLoader implements LazyAttributesLoader
+    {
+        /** The entry UUID */
+        private final String id;
+
+
+        private LargeAttributesLoader( String id )
+        {
+            this.id = id;
+        }
+
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void load( Entry entry ) throws LdapException
+        {
+            try ( PartitionTxn partitionTxn = beginReadTransaction() )
+            {
+                rwLock.readLock().lock();
+
+                try
+                {
+                    loadLargeAttributes( partitionTxn, id, entry );
+                }
+                finally
+                {
+                    rwLock.readLock().unlock();
+                }
+            }
+            catch ( IOException ioe )
+            {
+                throw new LdapOtherException( ioe.getMessage(), ioe );
+            }
+        }
+    }
+
+
+    /**
+     * Moves the values of the large attributes of an entry into their tables, and removes
+     * these attributes from the entry.
+     *
+     * @return The removed attributes
+     */
+    private List<Attribute> storeLargeAttributes( PartitionTxn partitionTxn, String id, Entry entry )
+        throws LdapException
+    {
+        if ( largeAttributeTables.isEmpty() )
+        {
+            return Collections.emptyList();
+        }
+
+        List<Attribute> removed = new ArrayList<>();
+
+        for ( LargeAttributeTable largeAttributeTable : largeAttributeTables.values() )
+        {
+            Attribute attribute = entry.get( largeAttributeTable.getAttributeType() );
+
+            if ( attribute != null )
+            {
+                for ( Value value : attribute )
+                {
+                    largeAttributeTable.add( partitionTxn, id, value );
+                }
+
+                entry.removeAttributes( attribute.getAttributeType() );
+                removed.add( attribute );
+            }
+        }
+
+        return removed;
+    }
+
+
+    /**
+     * Stores an entry in the master table, without the values of its large attributes,
+     * which are stored in their own tables. The given entry is left unchanged.
+     */
+    private void putMaster( PartitionTxn partitionTxn, String id, Entry entry ) throws LdapException
+    {
+        List<Attribute> largeAttributes = storeLargeAttributes( partitionTxn, id, entry );
+
+        try
+        {
+            master.put( partitionTxn, id, entry );
+        }
+        finally
+        {
+            for ( Attribute attribute : largeAttributes )
+            {
+                entry.put( attribute );
+            }
+        }
+    }
+
+
+    /**
+     * Keep the current version of an entry which is about to be modified, if some pinned 
+     * transaction may have to read it later.
+     * 
+     * @param partitionTxn The transaction to use
+     * @param id The ID of the entry about to be modified
+     * @param entry The current version of the entry, if already fetched, null otherwise
+     * @throws LdapException If we can't read the entry
+     */
+    private void keepPreviousVersion( PartitionTxn partitionTxn, String id, Entry entry ) throws LdapException
+    {
+        Entry previousVersion = null;
+
+        if ( snapshotManager.hasPinnedTransactions() )
+        {
+            if ( entry == null )
+            {
+                entry = master.get( partitionTxn, id );
+            }
+
+            if ( entry != null )
+            {
+                // The entry is going to be modified in place, keep a copy of it
+                previousVersion = entry.clone();
+                loadLargeAttributes( partitionTxn, id, previousVersion );
+                previousVersion.setDn( buildEntryDn( partitionTxn, id ) );
+            }
+        }
+
+        snapshotManager.modified( id, previousVersion );
+    }
+
+
+    /**
+     * Get the version of an entry as it was when the given transaction was pinned, if it
+     * has been modified since then.
+     * 
+     * @param partitionTxn The transaction to use
+     * @param id The entry ID
+     * @return A copy of the previous version of the entry, or null if the current version has to be used
+     * @throws LdapException If the copy can't be built
+     */
+    private Entry fetchPreviousVersion( PartitionTxn partitionTxn, String id ) throws LdapException
+    {
+        if ( !( partitionTxn instanceof SnapshotReadTxn ) )
+        {
+            return null;
+        }
+
+        Entry previousVersion = snapshotManager.lookup( ( SnapshotReadTxn ) partitionTxn, id );
+
+        if ( previousVersion == null )
+        {
+            return null;
+        }
+
+        Entry entry = new ClonedServerEntry( previousVersion );
+
+        if ( !entry.containsAttribute( entryDnAT ) )
+        {
+            entry.add( entryDnAT, previousVersion.getDn().getName() );
+        }
+
+        return entry;
+    }
+
+
+    /**
+     * Release the snapshot a read transaction has been pinned to by a search, if any. 
+     * This has to be called when the search cursor is closed.
+     * 
+     * @param partitionTxn The transaction to release
+     */
+    public void releaseSnapshot( PartitionTxn partitionTxn )
+    {
+        if ( partitionTxn instanceof SnapshotReadTxn )
+        {
+            SnapshotReadTxn snapshotReadTxn = ( SnapshotReadTxn ) partitionTxn;
+            snapshotManager.release( snapshotReadTxn );
+
+            synchronized ( snapshotReadTxn )
+            {
+                if ( snapshotReadTxn.getIdEpoch() != SnapshotReadTxn.NO_REVISION )
+                {
+                    entryIdDictionary.close( snapshotReadTxn.getIdEpoch() );
+                    snapshotReadTxn.setIdEpoch( SnapshotReadTxn.NO_REVISION );
+                }
+            }
+        }
+    }
+
+
+    /**
+     * @return The manager keeping the previous versions of the entries for the pinned searches
+     */
+    public SnapshotManager getSnapshotManager()
+    {
+        return snapshotManager;
+    }
+
+
     /**
      * updates the cache based on the type of OperationContext
      * 
@@ -3478,7 +4621,45 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
      */
     public void updateCache( OperationContext opCtx )
     {
-        // partition implementations should override this if they want to use cache
+        if ( entryCache == null )
+        {
+            return;
+        }
+
+        try
+        {
+            if ( opCtx instanceof ModifyOperationContext )
+            {
+                // replace the entry
+                ModifyOperationContext modCtx = ( ModifyOperationContext ) opCtx;
+                Entry entry = modCtx.getAlteredEntry();
+                String id = entry.get( SchemaConstants.ENTRY_UUID_AT ).getString();
+
+                if ( entry instanceof ClonedServerEntry )
+                {
+                    entry = ( ( ClonedServerEntry ) entry ).getOriginalEntry();
+                }
+
+                entryCache.replace( id, entry );
+            }
+            else if ( ( opCtx instanceof MoveOperationContext )
+                || ( opCtx instanceof MoveAndRenameOperationContext )
+                || ( opCtx instanceof RenameOperationContext ) )
+            {
+                // clear the cache it is not worth updating all the children
+                entryCache.clear();
+            }
+            else if ( opCtx instanceof DeleteOperationContext )
+            {
+                // delete the entry
+                DeleteOperationContext delCtx = ( DeleteOperationContext ) opCtx;
+                entryCache.remove( delCtx.getEntry().get( SchemaConstants.ENTRY_UUID_AT ).getString() );
+            }
+        }
+        catch ( LdapException e )
+        {
+            LOG.warn( "Failed to update entry cache", e );
+        }
     }
 
 
@@ -3490,7 +4671,7 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
      */
     public Entry lookupCache( String id )
     {
-        return null;
+        return ( entryCache != null ) ? entryCache.get( id ) : null;
     }
 
 
@@ -3505,6 +4686,19 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
      */
     public void addToCache( String id, Entry entry )
     {
+        if ( entryCache == null )
+        {
+            return;
+        }
+
+        Entry addedEntry = entry;
+
+        if ( entry instanceof ClonedServerEntry )
+        {
+            addedEntry = ( ( ClonedServerEntry ) entry ).getOriginalEntry();
+        }
+
+        entryCache.put( id, addedEntry );
     }
 
 
@@ -3536,7 +4730,9 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
 
 
     /**
-     * Set and return the ReadWrite lock we use to protect the backend against concurrent modifications
+     * Set and return the ReadWrite lock we use to protect the backend against concurrent modifications.
+     * This is the lock the OperationManager uses for this very partition, so operations on other
+     * partitions are not blocked.
      * 
      * @param operationContext The OperationContext which contain the reference to the OperationManager
      */
@@ -3544,7 +4740,7 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
     {
         if ( operationContext.getSession() != null )
         {
-            rwLock = operationContext.getSession().getDirectoryService().getOperationManager().getRWLock();
+            rwLock = operationContext.getSession().getDirectoryService().getOperationManager().getRWLock( this );
         }
         else
         {
@@ -3575,6 +4771,16 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
     {
         return aliasCache;
     }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public EntryIdDictionary getEntryIdDictionary()
+    {
+        return entryIdDictionary;
+    }
     
     
     /**
@@ -3669,11 +4875,13 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
 
             origEntry = ( ( ClonedServerEntry ) origEntry ).getOriginalEntry();
             
+            keepPreviousVersion( partitionTxn, contextEntryId, origEntry );
+            
             origEntry.removeAttributes( contextCsnAT, entryDnAT );
             
             origEntry.add( contextCsnAT, contextCsn );
             
-            master.put( partitionTxn, contextEntryId, origEntry );
+            putMaster( partitionTxn, contextEntryId, origEntry );
             
             ctxCsnChanged = false;
             
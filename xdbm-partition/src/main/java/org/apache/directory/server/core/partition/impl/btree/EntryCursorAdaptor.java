@@ -54,9 +54,15 @@ public class EntryCursorAdaptor extends AbstractCursor<Entry>
     /** The transaction in use */
     private PartitionTxn partitionTxn;
 
+    /** The partition we are reading entries from */
+    private final AbstractBTreePartition db;
+
     private final Cursor<IndexEntry<String, String>> indexCursor;
     private final Evaluator<? extends ExprNode> evaluator;
 
+    /** Tells if the index cursor reads the indexes while it moves */
+    private final boolean streamed;
+
 
     public EntryCursorAdaptor( PartitionTxn partitionTxn, AbstractBTreePartition db, PartitionSearchResult searchResult )
     {
@@ -67,7 +73,35 @@ public class EntryCursorAdaptor extends AbstractCursor<Entry>
 
         indexCursor = searchResult.getResultSet();
         evaluator = searchResult.getEvaluator();
+        streamed = searchResult.isStreamed();
         this.partitionTxn = partitionTxn;
+        this.db = db;
+    }
+
+
+    /**
+     * When the candidates are streamed, the index cursor reads the indexes after the
+     * search operation has released the partition lock. We hold the read lock while the
+     * cursor moves so that it does not read an index being modified.
+     */
+    private void lockStreamed()
+    {
+        if ( streamed )
+        {
+            db.lockRead();
+        }
+    }
+
+
+    /**
+     * Release the read lock acquired by lockStreamed()
+     */
+    private void unlockStreamed()
+    {
+        if ( streamed )
+        {
+            db.unlockRead();
+        }
     }
 
 
@@ -85,7 +119,16 @@ public class EntryCursorAdaptor extends AbstractCursor<Entry>
      */
     public void afterLast() throws LdapException, CursorException
     {
-        this.indexCursor.afterLast();
+        lockStreamed();
+
+        try
+        {
+            this.indexCursor.afterLast();
+        }
+        finally
+        {
+            unlockStreamed();
+        }
     }
 
 
@@ -112,7 +155,16 @@ public class EntryCursorAdaptor extends AbstractCursor<Entry>
      */
     public void beforeFirst() throws LdapException, CursorException
     {
-        indexCursor.beforeFirst();
+        lockStreamed();
+
+        try
+        {
+            indexCursor.beforeFirst();
+        }
+        finally
+        {
+            unlockStreamed();
+        }
     }
 
 
@@ -137,7 +189,14 @@ public class EntryCursorAdaptor extends AbstractCursor<Entry>
             LOG_CURSOR.debug( "Closing EntryCursorAdaptor {}", this );
         }
 
-        indexCursor.close();
+        try
+        {
+            indexCursor.close();
+        }
+        finally
+        {
+            db.releaseSnapshot( partitionTxn );
+        }
     }
 
 
@@ -152,7 +211,14 @@ public class EntryCursorAdaptor extends AbstractCursor<Entry>
             LOG_CURSOR.debug( "Closing EntryCursorAdaptor {}", this );
         }
 
-        indexCursor.close( cause );
+        try
+        {
+            indexCursor.close( cause );
+        }
+        finally
+        {
+            db.releaseSnapshot( partitionTxn );
+        }
     }
 
 
@@ -161,7 +227,16 @@ public class EntryCursorAdaptor extends AbstractCursor<Entry>
      */
     public boolean first() throws LdapException, CursorException
     {
-        return indexCursor.first();
+        lockStreamed();
+
+        try
+        {
+            return indexCursor.first();
+        }
+        finally
+        {
+            unlockStreamed();
+        }
     }
 
 
@@ -210,7 +285,16 @@ public class EntryCursorAdaptor extends AbstractCursor<Entry>
      */
     public boolean last() throws LdapException, CursorException
     {
-        return indexCursor.last();
+        lockStreamed();
+
+        try
+        {
+            return indexCursor.last();
+        }
+        finally
+        {
+            unlockStreamed();
+        }
     }
 
 
@@ -219,7 +303,16 @@ public class EntryCursorAdaptor extends AbstractCursor<Entry>
      */
     public boolean next() throws LdapException, CursorException
     {
-        return indexCursor.next();
+        lockStreamed();
+
+        try
+        {
+            return indexCursor.next();
+        }
+        finally
+        {
+            unlockStreamed();
+        }
     }
 
 
@@ -228,7 +321,16 @@ public class EntryCursorAdaptor extends AbstractCursor<Entry>
      */
     public boolean previous() throws LdapException, CursorException
     {
-        return indexCursor.previous();
+        lockStreamed();
+
+        try
+        {
+            return indexCursor.previous();
+        }
+        finally
+        {
+            unlockStreamed();
+        }
     }
 
 
@@ -0,0 +1,330 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.partition.impl.btree;
+
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.exception.LdapAdminLimitExceededException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * A copy-on-write overlay giving searches a stable view of the entries of a partition,
+ * without holding the partition lock while the results are read.
+ * <br>
+ * Every modification of an entry in the master table increments the partition revision.
+ * When at least one {@link SnapshotReadTxn} is pinned, the version of the entry as it
+ * was before the modification is kept in the overlay. A pinned transaction fetching an
+ * entry gets the first version recorded after its own revision, if any, or the current
+ * version from the master table otherwise. The kept versions are discarded as soon as
+ * no pinned transaction can read them anymore.
+ * <br>
+ * The number of kept versions is bounded : a search cursor which is never closed would
+ * otherwise keep a copy of every entry modified after it. When the bound is reached, the
+ * transactions pinned on the oldest revision are expired, and the versions only they could
+ * read are discarded. Reading an entry with an expired transaction fails with an
+ * {@link LdapAdminLimitExceededException} : the search can't go on without mixing the
+ * versions of the entries.
+ * <br>
+ * Only the entries are versioned. The indexes are always read at their current state,
+ * so the candidates have to be computed when the transaction is pinned.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class SnapshotManager
+{
+    /** A logger for this class */
+    private static final Logger LOG = LoggerFactory.getLogger( SnapshotManager.class );
+
+    /** The default maximum number of kept versions */
+    public static final int MAX_VERSIONS_DEFAULT = 10000;
+
+    /** The current revision, incremented on each entry modification */
+    private long revision;
+
+    /** The pinned revisions, and the number of transactions using them */
+    private final NavigableMap<Long, Integer> pinnedRevisions = new TreeMap<>();
+
+    /** The previous versions of the modified entries, per entry ID and revision */
+    private final Map<String, ConcurrentSkipListMap<Long, Entry>> previousVersions = new ConcurrentHashMap<>();
+
+    /** The number of kept versions */
+    private int versionCount;
+
+    /** The maximum number of kept versions */
+    private int maxVersions = MAX_VERSIONS_DEFAULT;
+
+    /** The transactions pinned on a revision below this one have been expired */
+    private volatile long expiredRevision;
+
+
+    /**
+     * Pin a read transaction to the current revision. This must be called while holding
+     * the partition read lock, so that no modification is applied concurrently.
+     *
+     * @param readTxn The transaction to pin
+     */
+    public synchronized void pin( SnapshotReadTxn readTxn )
+    {
+        if ( readTxn.isPinned() )
+        {
+            return;
+        }
+
+        readTxn.setRevision( revision );
+        Integer count = pinnedRevisions.get( revision );
+        pinnedRevisions.put( revision, count == null ? 1 : count + 1 );
+    }
+
+
+    /**
+     * Release a pinned transaction. The previous versions it was the last to possibly
+     * read are discarded.
+     *
+     * @param readTxn The transaction to release
+     */
+    public synchronized void release( SnapshotReadTxn readTxn )
+    {
+        if ( !readTxn.isPinned() )
+        {
+            return;
+        }
+
+        long pinned = readTxn.getRevision();
+        readTxn.setRevision( SnapshotReadTxn.NO_REVISION );
+        Long oldest = pinnedRevisions.isEmpty() ? null : pinnedRevisions.firstKey();
+        Integer count = pinnedRevisions.get( pinned );
+
+        if ( count != null )
+        {
+            if ( count == 1 )
+            {
+                pinnedRevisions.remove( pinned );
+            }
+            else
+            {
+                pinnedRevisions.put( pinned, count - 1 );
+            }
+        }
+
+        if ( pinnedRevisions.isEmpty() )
+        {
+            previousVersions.clear();
+            versionCount = 0;
+        }
+        else if ( ( oldest != null ) && ( oldest == pinned ) && ( pinnedRevisions.firstKey() != pinned ) )
+        {
+            // The oldest pinned revision has changed, we can drop the versions
+            // which were only visible by the released transactions
+            discardVersionsBefore( pinnedRevisions.firstKey() );
+        }
+    }
+
+
+    /**
+     * Discard the versions recorded before a revision
+     */
+    private void discardVersionsBefore( long oldestPinned )
+    {
+        Iterator<ConcurrentSkipListMap<Long, Entry>> iterator = previousVersions.values().iterator();
+
+        while ( iterator.hasNext() )
+        {
+            ConcurrentSkipListMap<Long, Entry> versions = iterator.next();
+            Map<Long, Entry> discarded = versions.headMap( oldestPinned );
+            versionCount -= discarded.size();
+            discarded.clear();
+
+            if ( versions.isEmpty() )
+            {
+                iterator.remove();
+            }
+        }
+    }
+
+
+    /**
+     * Expire the transactions pinned on the oldest revision, and discard the versions
+     * only they could read
+     */
+    private void expireOldestRevision()
+    {
+        Map.Entry<Long, Integer> oldest = pinnedRevisions.pollFirstEntry();
+        expiredRevision = oldest.getKey() + 1;
+
+        LOG.warn( "{} snapshot versions kept, expiring the {} read transaction(s) pinned on revision {}",
+            versionCount, oldest.getValue(), oldest.getKey() );
+
+        if ( pinnedRevisions.isEmpty() )
+        {
+            previousVersions.clear();
+            versionCount = 0;
+        }
+        else
+        {
+            discardVersionsBefore( pinnedRevisions.firstKey() );
+        }
+    }
+
+
+    /**
+     * Tells if some version of the entries has to be kept before they get modified.
+     *
+     * @return <tt>true</tt> if at least one transaction is pinned
+     */
+    public synchronized boolean hasPinnedTransactions()
+    {
+        return !pinnedRevisions.isEmpty();
+    }
+
+
+    /**
+     * Record an entry modification. The given entry, which is the version which is about
+     * to be modified, is kept if some pinned transaction may need it. Note that the entry
+     * must not be modified afterward : a copy has to be provided if it's going to be.
+     *
+     * @param id The modified entry ID
+     * @param entry The version of the entry before the modification, or null if we don't need
+     * to keep it because no transaction is pinned
+     */
+    public synchronized void modified( String id, Entry entry )
+    {
+        if ( ( entry != null ) && !pinnedRevisions.isEmpty() )
+        {
+            ConcurrentSkipListMap<Long, Entry> versions = previousVersions.get( id );
+
+            if ( versions == null )
+            {
+                versions = new ConcurrentSkipListMap<>();
+                previousVersions.put( id, versions );
+            }
+
+            if ( versions.putIfAbsent( revision, entry ) == null )
+            {
+                versionCount++;
+            }
+
+            while ( ( versionCount > maxVersions ) && !pinnedRevisions.isEmpty() )
+            {
+                expireOldestRevision();
+            }
+        }
+
+        revision++;
+    }
+
+
+    /**
+     * Get the version of an entry a pinned transaction should see.
+     *
+     * @param readTxn The pinned transaction
+     * @param id The entry ID
+     * @return The version of the entry to return, or null if the current version can be used
+     * @throws LdapAdminLimitExceededException If the transaction has been expired
+     */
+    public Entry lookup( SnapshotReadTxn readTxn, String id ) throws LdapAdminLimitExceededException
+    {
+        long pinned = readTxn.getRevision();
+
+        if ( pinned == SnapshotReadTxn.NO_REVISION )
+        {
+            return null;
+        }
+
+        if ( pinned < expiredRevision )
+        {
+            // The versions this transaction may need have been discarded
+            throw new LdapAdminLimitExceededException( "More than " + maxVersions
+                + " entry versions kept for the searches, the snapshot of revision " + pinned + " has been expired" );
+        }
+
+        ConcurrentSkipListMap<Long, Entry> versions = previousVersions.get( id );
+
+        if ( versions == null )
+        {
+            return null;
+        }
+
+        Map.Entry<Long, Entry> version = versions.ceilingEntry( pinned );
+
+        if ( version == null )
+        {
+            return null;
+        }
+
+        return version.getValue();
+    }
+
+
+    /**
+     * @return The current revision
+     */
+    public synchronized long getRevision()
+    {
+        return revision;
+    }
+
+
+    /**
+     * @return The number of entries for which some previous version is kept
+     */
+    public int getVersionedEntryCount()
+    {
+        return previousVersions.size();
+    }
+
+
+    /**
+     * @return The number of kept versions
+     */
+    public synchronized int getVersionCount()
+    {
+        return versionCount;
+    }
+
+
+    /**
+     * @return The maximum number of kept versions
+     */
+    public synchronized int getMaxVersions()
+    {
+        return maxVersions;
+    }
+
+
+    /**
+     * Sets the maximum number of kept versions. Above this number, the oldest pinned
+     * transactions are expired.
+     *
+     * @param maxVersions The maximum number of kept versions
+     */
+    public synchronized void setMaxVersions( int maxVersions )
+    {
+        this.maxVersions = maxVersions;
+    }
+}
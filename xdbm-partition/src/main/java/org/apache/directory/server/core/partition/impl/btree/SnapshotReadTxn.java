@@ -0,0 +1,88 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.partition.impl.btree;
+
+
+import org.apache.directory.server.core.api.partition.PartitionReadTxn;
+
+
+/**
+ * A read transaction which can be pinned to a revision of the partition. Once pinned,
+ * every entry fetched through this transaction is seen as it was at this revision,
+ * even if it has been modified, moved or deleted since then.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class SnapshotReadTxn extends PartitionReadTxn
+{
+    /** The value used when the transaction is not pinned to any revision */
+    static final long NO_REVISION = -1L;
+
+    /** The revision this transaction is pinned to */
+    private volatile long revision = NO_REVISION;
+
+    /** The epoch of the entry ID dictionary the search using this transaction has been opened in */
+    private long idEpoch = NO_REVISION;
+
+
+    /**
+     * @return The revision this transaction is pinned to, or -1 if it's not pinned
+     */
+    public long getRevision()
+    {
+        return revision;
+    }
+
+
+    /**
+     * @param revision The revision this transaction is pinned to
+     */
+    void setRevision( long revision )
+    {
+        this.revision = revision;
+    }
+
+
+    /**
+     * @return <tt>true</tt> if the transaction is pinned to a revision
+     */
+    public boolean isPinned()
+    {
+        return revision != NO_REVISION;
+    }
+
+
+    /**
+     * @return The epoch of the entry ID dictionary the search has been opened in, or -1
+     */
+    public long getIdEpoch()
+    {
+        return idEpoch;
+    }
+
+
+    /**
+     * @param idEpoch The epoch of the entry ID dictionary the search has been opened in
+     */
+    void setIdEpoch( long idEpoch )
+    {
+        this.idEpoch = idEpoch;
+    }
+}
@@ -52,6 +52,12 @@ public abstract class AbstractIndex<K, E> implements Index<K, E>
     /** A counter used to differ the commit on disk after N operations */
     protected AtomicInteger commitNumber;
 
+    /** The statistics maintained by the add and drop operations */
+    protected final IndexStatistics statistics = new IndexStatistics();
+
+    /** Tells if a substring (n-gram) index should be maintained for this attribute */
+    protected boolean substringIndexed;
+
 
     /**
      * Creates a new instance of AbstractIndex.
@@ -109,6 +115,15 @@ public abstract class AbstractIndex<K, E> implements Index<K, E>
     }
 
 
+    /**
+     * {@inheritDoc}
+     */
+    public IndexStatistics getStatistics()
+    {
+        return statistics;
+    }
+
+
     /**
      * {@inheritDoc}
      */
@@ -141,6 +156,28 @@ public abstract class AbstractIndex<K, E> implements Index<K, E>
     }
 
 
+    /**
+     * @return <tt>true</tt> if a substring (n-gram) index is maintained for this attribute
+     */
+    public boolean isSubstringIndexed()
+    {
+        return substringIndexed;
+    }
+
+
+    /**
+     * Tells the partition to maintain a substring (n-gram) index for this attribute, used
+     * to compute the candidates of the substring filters without initial component.
+     *
+     * @param substringIndexed <tt>true</tt> if a substring index should be maintained
+     */
+    public void setSubstringIndexed( boolean substringIndexed )
+    {
+        protect( "substringIndexed" );
+        this.substringIndexed = substringIndexed;
+    }
+
+
     /**
      * Protects configuration properties from being set after initialization.
      *
@@ -0,0 +1,177 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.xdbm;
+
+
+import java.util.EnumSet;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.ehcache.Cache;
+import org.ehcache.event.CacheEvent;
+import org.ehcache.event.CacheEventListener;
+import org.ehcache.event.EventFiring;
+import org.ehcache.event.EventOrdering;
+import org.ehcache.event.EventType;
+
+
+/**
+ * An {@link EntryCache} keeping the entries on the heap, in a cache provided by the
+ * CacheService. The cache is bounded by its number of entries.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class EhcacheEntryCache implements EntryCache
+{
+    /** The underlying cache */
+    private final Cache<String, Entry> cache;
+
+    /** The cache statistics */
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    /** The listener counting the evictions */
+    private final CacheEventListener<String, Entry> evictionListener = new CacheEventListener<String, Entry>()
+    {
+        @Override
+        public void onEvent( CacheEvent<? extends String, ? extends Entry> event )
+        {
+            evictions.incrementAndGet();
+        }
+    };
+
+
+    /**
+     * Creates a new instance of EhcacheEntryCache.
+     *
+     * @param cache The underlying cache
+     */
+    public EhcacheEntryCache( Cache<String, Entry> cache )
+    {
+        this.cache = cache;
+
+        cache.getRuntimeConfiguration().registerCacheEventListener( evictionListener, EventOrdering.UNORDERED,
+            EventFiring.ASYNCHRONOUS, EnumSet.of( EventType.EVICTED ) );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Entry get( String id )
+    {
+        Entry entry = cache.get( id );
+
+        if ( entry == null )
+        {
+            misses.incrementAndGet();
+        }
+        else
+        {
+            hits.incrementAndGet();
+        }
+
+        return entry;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void put( String id, Entry entry )
+    {
+        cache.put( id, entry );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void replace( String id, Entry entry )
+    {
+        cache.replace( id, entry );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void remove( String id )
+    {
+        cache.remove( id );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void clear()
+    {
+        cache.clear();
+    }
+
+
+    /**
+     * Removes all the entries from the cache. The underlying cache belongs to the
+     * CacheService, which closes it, and can be used again if the partition is
+     * initialized again.
+     */
+    @Override
+    public void close()
+    {
+        cache.clear();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getHitCount()
+    {
+        return hits.get();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getMissCount()
+    {
+        return misses.get();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getEvictionCount()
+    {
+        return evictions.get();
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.xdbm;
+
+
+import org.apache.directory.api.ldap.model.entry.Entry;
+
+
+/**
+ * The cache of the entries read from the master table of a partition, keyed by their
+ * entryUUID. The partition sets the entry Dn when it gets an entry from the cache, an
+ * implementation does not have to keep it.
+ * <br>
+ * The entries returned by {@link #get(String)} may be modified by the caller, an
+ * implementation keeping live objects has to return the same entry to all the callers,
+ * as the partition only modifies its Dn.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public interface EntryCache
+{
+    /**
+     * Gets an entry from the cache
+     *
+     * @param id The entry UUID
+     * @return The entry, or null if it's not in the cache
+     */
+    Entry get( String id );
+
+
+    /**
+     * Adds an entry to the cache. The cache may decide not to keep it.
+     *
+     * @param id The entry UUID
+     * @param entry The entry
+     */
+    void put( String id, Entry entry );
+
+
+    /**
+     * Replaces an entry in the cache, if it's already present
+     *
+     * @param id The entry UUID
+     * @param entry The new version of the entry
+     */
+    void replace( String id, Entry entry );
+
+
+    /**
+     * Removes an entry from the cache
+     *
+     * @param id The entry UUID
+     */
+    void remove( String id );
+
+
+    /**
+     * Removes all the entries from the cache
+     */
+    void clear();
+
+
+    /**
+     * Removes all the entries from the cache and releases the resources it holds. The
+     * cache can't be used anymore.
+     */
+    void close();
+
+
+    /**
+     * @return The number of lookups which have found the entry in the cache
+     */
+    long getHitCount();
+
+
+    /**
+     * @return The number of lookups which have not found the entry in the cache
+     */
+    long getMissCount();
+
+
+    /**
+     * @return The number of entries evicted from the cache to make room for other entries
+     */
+    long getEvictionCount();
+}
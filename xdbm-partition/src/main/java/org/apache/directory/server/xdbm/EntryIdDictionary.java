@@ -0,0 +1,326 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.xdbm;
+
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * Associates a dense int to each entry UUID of a partition, so that the search candidates
+ * can be stored in an {@link IdBitmap}.
+ * <br>
+ * The ints are assigned when an UUID is first seen by a search. When the entry is deleted,
+ * its int is recycled, but only once all the searches which were open at that time are
+ * closed : until then, the UUID can still be resolved from its int, so that a search which
+ * has computed its candidates before the entry was deleted can still read it. The searches
+ * holding ints have to be declared with {@link #open()} and {@link #close(long)}.
+ * <br>
+ * The number of removed ints kept for the open searches is bounded : a search which is
+ * never closed would otherwise prevent any int from being reused. When the bound is reached,
+ * the searches opened in the oldest epoch are expired, and their ints get reused. An expired
+ * search can't resolve its candidates anymore, see {@link #isExpired(long)}.
+ * <br>
+ * The dictionary is not persisted, and is rebuilt as the searches are processed.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class EntryIdDictionary
+{
+    /** A logger for this class */
+    private static final Logger LOG = LoggerFactory.getLogger( EntryIdDictionary.class );
+
+    /** The default maximum number of removed ints kept for the open searches */
+    public static final int MAX_REMOVED_IDS_DEFAULT = 10000;
+
+    /** The number of UUIDs stored in each chunk of the reverse table */
+    private static final int CHUNK_SIZE = 65536;
+
+    /** The UUID to int map */
+    private final Map<String, Integer> ids = new ConcurrentHashMap<>();
+
+    /** The int to UUID table, stored in chunks */
+    private volatile String[][] uuids = new String[1][];
+
+    /** The next int to assign */
+    private int nextId;
+
+    /** The current epoch, incremented each time an UUID is removed */
+    private long epoch;
+
+    /** The epochs the open searches have started in, and the number of searches per epoch */
+    private final NavigableMap<Long, Integer> openEpochs = new TreeMap<>();
+
+    /** The ints of the removed UUIDs which may still be used by an open search */
+    private final Deque<Integer> removedIds = new ArrayDeque<>();
+
+    /** The epochs the ints in removedIds have been removed in */
+    private final Deque<Long> removedEpochs = new ArrayDeque<>();
+
+    /** The ints which can be reassigned */
+    private final Deque<Integer> freeIds = new ArrayDeque<>();
+
+    /** The maximum number of removed ints kept for the open searches */
+    private int maxRemovedIds = MAX_REMOVED_IDS_DEFAULT;
+
+    /** The searches opened in an epoch below this one have been expired */
+    private volatile long expiredEpoch;
+
+
+    /**
+     * Get the int associated with an UUID, assigning a new one if needed.
+     *
+     * @param uuid The entry UUID
+     * @return The associated int
+     */
+    public int getOrAssign( String uuid )
+    {
+        Integer id = ids.get( uuid );
+
+        if ( id != null )
+        {
+            return id;
+        }
+
+        synchronized ( this )
+        {
+            id = ids.get( uuid );
+
+            if ( id != null )
+            {
+                return id;
+            }
+
+            int newId;
+
+            if ( freeIds.isEmpty() )
+            {
+                newId = nextId++;
+            }
+            else
+            {
+                newId = freeIds.pop();
+            }
+
+            int chunk = newId / CHUNK_SIZE;
+            String[][] table = uuids;
+
+            if ( chunk == table.length )
+            {
+                table = Arrays.copyOf( table, table.length * 2 );
+            }
+
+            if ( table[chunk] == null )
+            {
+                table[chunk] = new String[CHUNK_SIZE];
+            }
+
+            // The reverse slot must be written before the UUID gets visible in the map
+            table[chunk][newId % CHUNK_SIZE] = uuid;
+            uuids = table;
+            ids.put( uuid, newId );
+
+            return newId;
+        }
+    }
+
+
+    /**
+     * Get the UUID associated with an int.
+     *
+     * @param id The int
+     * @return The entry UUID, or null if the int has not been assigned
+     */
+    public String getUuid( int id )
+    {
+        String[][] table = uuids;
+        int chunk = id / CHUNK_SIZE;
+
+        if ( ( id < 0 ) || ( chunk >= table.length ) || ( table[chunk] == null ) )
+        {
+            return null;
+        }
+
+        return table[chunk][id % CHUNK_SIZE];
+    }
+
+
+    /**
+     * Remove an UUID from the dictionary, when the entry is deleted. The associated int is
+     * reused once the searches currently open are closed.
+     *
+     * @param uuid The entry UUID
+     */
+    public synchronized void remove( String uuid )
+    {
+        Integer id = ids.remove( uuid );
+
+        if ( id == null )
+        {
+            return;
+        }
+
+        removedIds.add( id );
+        removedEpochs.add( epoch );
+        epoch++;
+        reclaim();
+
+        while ( ( removedIds.size() > maxRemovedIds ) && !openEpochs.isEmpty() )
+        {
+            expireOldestEpoch();
+        }
+    }
+
+
+    /**
+     * Expire the searches opened in the oldest epoch, and reuse the ints only they could hold
+     */
+    private void expireOldestEpoch()
+    {
+        Map.Entry<Long, Integer> oldest = openEpochs.pollFirstEntry();
+        expiredEpoch = oldest.getKey() + 1;
+
+        LOG.warn( "{} removed entry IDs kept, expiring the {} search(es) opened in epoch {}", removedIds.size(),
+            oldest.getValue(), oldest.getKey() );
+
+        reclaim();
+    }
+
+
+    /**
+     * Tells if a search has been expired : the ints it holds may have been reassigned to
+     * other UUIDs since then.
+     *
+     * @param searchEpoch The epoch returned by {@link #open()}, or -1 if the search has not
+     * been declared
+     * @return <tt>true</tt> if the search has been expired
+     */
+    public boolean isExpired( long searchEpoch )
+    {
+        return ( searchEpoch >= 0 ) && ( searchEpoch < expiredEpoch );
+    }
+
+
+    /**
+     * Declare a search which is going to hold some ints. The removed ints it may hold
+     * won't be reused until it's closed.
+     *
+     * @return The epoch the search has been opened in, to be given to {@link #close(long)}
+     */
+    public synchronized long open()
+    {
+        Integer count = openEpochs.get( epoch );
+        openEpochs.put( epoch, count == null ? 1 : count + 1 );
+
+        return epoch;
+    }
+
+
+    /**
+     * Declare a search opened by {@link #open()} is closed.
+     *
+     * @param searchEpoch The epoch returned by {@link #open()}
+     */
+    public synchronized void close( long searchEpoch )
+    {
+        Integer count = openEpochs.get( searchEpoch );
+
+        if ( count == null )
+        {
+            return;
+        }
+
+        if ( count == 1 )
+        {
+            openEpochs.remove( searchEpoch );
+        }
+        else
+        {
+            openEpochs.put( searchEpoch, count - 1 );
+        }
+
+        reclaim();
+    }
+
+
+    /**
+     * Make the removed ints which can't be held by any open search available again
+     */
+    private void reclaim()
+    {
+        long oldestOpen = openEpochs.isEmpty() ? Long.MAX_VALUE : openEpochs.firstKey();
+
+        while ( !removedEpochs.isEmpty() && ( removedEpochs.peek() < oldestOpen ) )
+        {
+            removedEpochs.poll();
+            int id = removedIds.poll();
+            uuids[id / CHUNK_SIZE][id % CHUNK_SIZE] = null;
+            freeIds.push( id );
+        }
+    }
+
+
+    /**
+     * @return The number of UUIDs in the dictionary
+     */
+    public int size()
+    {
+        return ids.size();
+    }
+
+
+    /**
+     * @return The number of ints assigned so far, including the removed ones
+     */
+    public synchronized int capacity()
+    {
+        return nextId;
+    }
+
+
+    /**
+     * @return The maximum number of removed ints kept for the open searches
+     */
+    public synchronized int getMaxRemovedIds()
+    {
+        return maxRemovedIds;
+    }
+
+
+    /**
+     * Sets the maximum number of removed ints kept for the open searches. Above this number,
+     * the oldest open searches are expired.
+     *
+     * @param maxRemovedIds The maximum number of removed ints kept
+     */
+    public synchronized void setMaxRemovedIds( int maxRemovedIds )
+    {
+        this.maxRemovedIds = maxRemovedIds;
+    }
+}
@@ -0,0 +1,175 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.xdbm;
+
+
+import java.util.Arrays;
+
+
+/**
+ * A count-min sketch estimating the popularity of the keys of a cache, with 4 bits
+ * counters. Each key is associated to 4 counters, its frequency being the smallest of
+ * them. All the counters are halved when the number of increments reaches a sample
+ * size, so that the keys which are not used anymore are forgotten.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+final class FrequencySketch
+{
+    /** The seeds used to compute the 4 indexes of a key */
+    private static final long[] SEEDS =
+        { 0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L };
+
+    /** The mask used to halve the counters */
+    private static final long RESET_MASK = 0x7777777777777777L;
+
+    /** The mask used to count the odd counters */
+    private static final long ONE_MASK = 0x1111111111111111L;
+
+    /** The counters, 16 per long */
+    private final long[] table;
+
+    /** The mask used to compute an index in the table */
+    private final int tableMask;
+
+    /** The number of increments before the counters are halved */
+    private final int sampleSize;
+
+    /** The number of increments since the last halving */
+    private int size;
+
+
+    /**
+     * Creates a new instance of FrequencySketch.
+     *
+     * @param maximumEntries The expected maximum number of entries in the cache
+     */
+    FrequencySketch( int maximumEntries )
+    {
+        int length = Integer.highestOneBit( Math.max( maximumEntries, 16 ) - 1 ) << 1;
+
+        table = new long[length];
+        tableMask = length - 1;
+        sampleSize = 10 * length;
+    }
+
+
+    /**
+     * Gets the estimated frequency of a key
+     *
+     * @param hash The spread hash of the key
+     * @return The estimated number of occurrences of the key, between 0 and 15
+     */
+    int frequency( int hash )
+    {
+        int start = ( hash & 3 ) << 2;
+        int frequency = Integer.MAX_VALUE;
+
+        for ( int i = 0; i < 4; i++ )
+        {
+            int offset = ( start + i ) << 2;
+            int count = ( int ) ( ( table[indexOf( hash, i )] >>> offset ) & 0xFL );
+            frequency = Math.min( frequency, count );
+        }
+
+        return frequency;
+    }
+
+
+    /**
+     * Increments the popularity of a key, halving all the counters if the sample size
+     * is reached.
+     *
+     * @param hash The spread hash of the key
+     */
+    void increment( int hash )
+    {
+        int start = ( hash & 3 ) << 2;
+        boolean added = false;
+
+        for ( int i = 0; i < 4; i++ )
+        {
+            added |= incrementAt( indexOf( hash, i ), start + i );
+        }
+
+        if ( added && ( ++size == sampleSize ) )
+        {
+            reset();
+        }
+    }
+
+
+    /**
+     * Sets all the counters to zero
+     */
+    void clear()
+    {
+        Arrays.fill( table, 0L );
+        size = 0;
+    }
+
+
+    /**
+     * Increments a counter, if it has not reached its maximum value
+     */
+    private boolean incrementAt( int index, int counter )
+    {
+        int offset = counter << 2;
+        long mask = 0xFL << offset;
+
+        if ( ( table[index] & mask ) != mask )
+        {
+            table[index] += 1L << offset;
+
+            return true;
+        }
+
+        return false;
+    }
+
+
+    /**
+     * Halves all the counters
+     */
+    private void reset()
+    {
+        int odd = 0;
+
+        for ( int i = 0; i < table.length; i++ )
+        {
+            odd += Long.bitCount( table[i] & ONE_MASK );
+            table[i] = ( table[i] >>> 1 ) & RESET_MASK;
+        }
+
+        size = ( size - ( odd >>> 2 ) ) >>> 1;
+    }
+
+
+    /**
+     * Computes the index in the table of one of the counters of a key
+     */
+    private int indexOf( int hash, int i )
+    {
+        long h = ( hash + SEEDS[i] ) * SEEDS[i];
+        h += h >>> 32;
+
+        return ( int ) h & tableMask;
+    }
+}
@@ -0,0 +1,741 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.xdbm;
+
+
+import java.util.Arrays;
+
+
+/**
+ * A compressed set of positive int, used to store the dense IDs of the candidates of a search
+ * (see {@link EntryIdDictionary}).
+ * <br>
+ * The int space is split in chunks of 65536 values, keyed by the 16 high bits of the values. Each
+ * chunk stores the 16 low bits of its values either in a sorted array, when it has less than 4096
+ * values, or in a 65536 bits bitmap otherwise. Unions, intersections and differences are computed
+ * chunk by chunk.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class IdBitmap
+{
+    /** The maximum number of values stored in an array chunk */
+    private static final int ARRAY_MAX_SIZE = 4096;
+
+    /** The number of long needed to store a 65536 bits bitmap */
+    private static final int BITMAP_SIZE = 1024;
+
+    /** The chunks' keys, sorted */
+    private char[] keys = new char[4];
+
+    /** The chunks, in the same order than their keys */
+    private Chunk[] chunks = new Chunk[4];
+
+    /** The number of chunks */
+    private int nbChunks;
+
+
+    /**
+     * A chunk of values sharing the same high 16 bits. The values are either stored in
+     * a sorted array of char or in a bitmap.
+     */
+    private static final class Chunk
+    {
+        /** The sorted values, if the chunk is an array chunk */
+        private char[] values;
+
+        /** The bits, if the chunk is a bitmap chunk */
+        private long[] bits;
+
+        /** The number of values in this chunk */
+        private int cardinality;
+
+
+        private Chunk()
+        {
+            values = new char[4];
+        }
+
+
+        private Chunk( long[] bits, int cardinality )
+        {
+            this.bits = bits;
+            this.cardinality = cardinality;
+        }
+
+
+        private Chunk( char[] values, int cardinality )
+        {
+            this.values = values;
+            this.cardinality = cardinality;
+        }
+
+
+        private boolean isBitmap()
+        {
+            return bits != null;
+        }
+
+
+        private boolean contains( char value )
+        {
+            if ( bits != null )
+            {
+                return ( bits[value >>> 6] & ( 1L << value ) ) != 0L;
+            }
+
+            return Arrays.binarySearch( values, 0, cardinality, value ) >= 0;
+        }
+
+
+        /**
+         * Add a value in the chunk.
+         *
+         * @return <tt>true</tt> if the value was not already present
+         */
+        private boolean add( char value )
+        {
+            if ( bits != null )
+            {
+                int index = value >>> 6;
+                long previous = bits[index];
+                bits[index] = previous | ( 1L << value );
+
+                if ( previous != bits[index] )
+                {
+                    cardinality++;
+
+                    return true;
+                }
+
+                return false;
+            }
+
+            int pos = Arrays.binarySearch( values, 0, cardinality, value );
+
+            if ( pos >= 0 )
+            {
+                return false;
+            }
+
+            if ( cardinality == ARRAY_MAX_SIZE )
+            {
+                // Switch to a bitmap
+                bits = toBits();
+                values = null;
+
+                return add( value );
+            }
+
+            pos = -pos - 1;
+
+            if ( cardinality == values.length )
+            {
+                values = Arrays.copyOf( values, Math.min( ARRAY_MAX_SIZE, values.length * 2 ) );
+            }
+
+            System.arraycopy( values, pos, values, pos + 1, cardinality - pos );
+            values[pos] = value;
+            cardinality++;
+
+            return true;
+        }
+
+
+        /**
+         * Remove a value from the chunk.
+         *
+         * @return <tt>true</tt> if the value was present
+         */
+        private boolean remove( char value )
+        {
+            if ( bits != null )
+            {
+                int index = value >>> 6;
+                long previous = bits[index];
+                bits[index] = previous & ~( 1L << value );
+
+                if ( previous != bits[index] )
+                {
+                    cardinality--;
+
+                    return true;
+                }
+
+                return false;
+            }
+
+            int pos = Arrays.binarySearch( values, 0, cardinality, value );
+
+            if ( pos < 0 )
+            {
+                return false;
+            }
+
+            System.arraycopy( values, pos + 1, values, pos, cardinality - pos - 1 );
+            cardinality--;
+
+            return true;
+        }
+
+
+        private long[] toBits()
+        {
+            if ( bits != null )
+            {
+                return bits;
+            }
+
+            long[] result = new long[BITMAP_SIZE];
+
+            for ( int i = 0; i < cardinality; i++ )
+            {
+                char value = values[i];
+                result[value >>> 6] |= 1L << value;
+            }
+
+            return result;
+        }
+
+
+        /**
+         * Write the values of this chunk, combined with the given high bits, in the given array.
+         *
+         * @return The position following the last written value
+         */
+        private int fill( int high, int[] target, int pos )
+        {
+            if ( bits == null )
+            {
+                for ( int i = 0; i < cardinality; i++ )
+                {
+                    target[pos++] = high | values[i];
+                }
+
+                return pos;
+            }
+
+            for ( int i = 0; i < BITMAP_SIZE; i++ )
+            {
+                long word = bits[i];
+
+                while ( word != 0L )
+                {
+                    target[pos++] = high | ( i << 6 ) | Long.numberOfTrailingZeros( word );
+                    word &= word - 1;
+                }
+            }
+
+            return pos;
+        }
+
+
+        private Chunk copy()
+        {
+            if ( bits != null )
+            {
+                return new Chunk( bits.clone(), cardinality );
+            }
+
+            return new Chunk( values.clone(), cardinality );
+        }
+
+
+        /**
+         * Build a chunk from a bitmap, switching to an array if the number of values is small enough.
+         *
+         * @return The chunk, or null if the bitmap is empty
+         */
+        private static Chunk fromBits( long[] bits )
+        {
+            int cardinality = 0;
+
+            for ( long word : bits )
+            {
+                cardinality += Long.bitCount( word );
+            }
+
+            if ( cardinality == 0 )
+            {
+                return null;
+            }
+
+            if ( cardinality > ARRAY_MAX_SIZE )
+            {
+                return new Chunk( bits, cardinality );
+            }
+
+            char[] values = new char[cardinality];
+            int pos = 0;
+
+            for ( int i = 0; i < BITMAP_SIZE; i++ )
+            {
+                long word = bits[i];
+
+                while ( word != 0L )
+                {
+                    values[pos++] = ( char ) ( ( i << 6 ) | Long.numberOfTrailingZeros( word ) );
+                    word &= word - 1;
+                }
+            }
+
+            return new Chunk( values, cardinality );
+        }
+
+
+        private static Chunk and( Chunk left, Chunk right )
+        {
+            if ( left.isBitmap() && right.isBitmap() )
+            {
+                long[] result = new long[BITMAP_SIZE];
+
+                for ( int i = 0; i < BITMAP_SIZE; i++ )
+                {
+                    result[i] = left.bits[i] & right.bits[i];
+                }
+
+                return fromBits( result );
+            }
+
+            // At least one of the chunk is an array : filter it
+            Chunk array = left.isBitmap() ? right : left;
+            Chunk other = left.isBitmap() ? left : right;
+            char[] result = new char[array.cardinality];
+            int pos = 0;
+
+            for ( int i = 0; i < array.cardinality; i++ )
+            {
+                if ( other.contains( array.values[i] ) )
+                {
+                    result[pos++] = array.values[i];
+                }
+            }
+
+            return pos == 0 ? null : new Chunk( result, pos );
+        }
+
+
+        private static Chunk andNot( Chunk left, Chunk right )
+        {
+            if ( left.isBitmap() )
+            {
+                long[] result = left.bits.clone();
+
+                if ( right.isBitmap() )
+                {
+                    for ( int i = 0; i < BITMAP_SIZE; i++ )
+                    {
+                        result[i] &= ~right.bits[i];
+                    }
+                }
+                else
+                {
+                    for ( int i = 0; i < right.cardinality; i++ )
+                    {
+                        char value = right.values[i];
+                        result[value >>> 6] &= ~( 1L << value );
+                    }
+                }
+
+                return fromBits( result );
+            }
+
+            char[] result = new char[left.cardinality];
+            int pos = 0;
+
+            for ( int i = 0; i < left.cardinality; i++ )
+            {
+                if ( !right.contains( left.values[i] ) )
+                {
+                    result[pos++] = left.values[i];
+                }
+            }
+
+            return pos == 0 ? null : new Chunk( result, pos );
+        }
+
+
+        /**
+         * Add all the values of the given chunk into this chunk
+         */
+        private void or( Chunk other )
+        {
+            if ( !isBitmap() && !other.isBitmap() && ( cardinality + other.cardinality <= ARRAY_MAX_SIZE ) )
+            {
+                // Merge the two sorted arrays
+                char[] result = new char[cardinality + other.cardinality];
+                int i = 0;
+                int j = 0;
+                int pos = 0;
+
+                while ( ( i < cardinality ) && ( j < other.cardinality ) )
+                {
+                    char a = values[i];
+                    char b = other.values[j];
+
+                    if ( a < b )
+                    {
+                        result[pos++] = a;
+                        i++;
+                    }
+                    else if ( a > b )
+                    {
+                        result[pos++] = b;
+                        j++;
+                    }
+                    else
+                    {
+                        result[pos++] = a;
+                        i++;
+                        j++;
+                    }
+                }
+
+                while ( i < cardinality )
+                {
+                    result[pos++] = values[i++];
+                }
+
+                while ( j < other.cardinality )
+                {
+                    result[pos++] = other.values[j++];
+                }
+
+                values = result;
+                cardinality = pos;
+
+                return;
+            }
+
+            long[] result = toBits();
+
+            if ( result == bits )
+            {
+                // Don't modify the bits in place if they are shared
+                result = result.clone();
+            }
+
+            if ( other.isBitmap() )
+            {
+                for ( int i = 0; i < BITMAP_SIZE; i++ )
+                {
+                    result[i] |= other.bits[i];
+                }
+            }
+            else
+            {
+                for ( int i = 0; i < other.cardinality; i++ )
+                {
+                    char value = other.values[i];
+                    result[value >>> 6] |= 1L << value;
+                }
+            }
+
+            Chunk merged = fromBits( result );
+            values = merged.values;
+            bits = merged.bits;
+            cardinality = merged.cardinality;
+        }
+    }
+
+
+    /**
+     * Creates an empty IdBitmap
+     */
+    public IdBitmap()
+    {
+    }
+
+
+    /**
+     * Find the position of a chunk given its key
+     */
+    private int findChunk( char key )
+    {
+        return Arrays.binarySearch( keys, 0, nbChunks, key );
+    }
+
+
+    /**
+     * Insert a chunk at the given position
+     */
+    private void insertChunk( int pos, char key, Chunk chunk )
+    {
+        if ( nbChunks == keys.length )
+        {
+            keys = Arrays.copyOf( keys, nbChunks * 2 );
+            chunks = Arrays.copyOf( chunks, nbChunks * 2 );
+        }
+
+        System.arraycopy( keys, pos, keys, pos + 1, nbChunks - pos );
+        System.arraycopy( chunks, pos, chunks, pos + 1, nbChunks - pos );
+        keys[pos] = key;
+        chunks[pos] = chunk;
+        nbChunks++;
+    }
+
+
+    /**
+     * Append a chunk at the end of this bitmap. The key must be greater than all the existing ones.
+     */
+    private void appendChunk( char key, Chunk chunk )
+    {
+        if ( chunk != null )
+        {
+            insertChunk( nbChunks, key, chunk );
+        }
+    }
+
+
+    /**
+     * Adds a value into this bitmap
+     *
+     * @param id The value to add, which must be positive
+     * @return <tt>true</tt> if the value was not already present
+     */
+    public boolean add( int id )
+    {
+        char key = ( char ) ( id >>> 16 );
+        int pos = findChunk( key );
+        Chunk chunk;
+
+        if ( pos < 0 )
+        {
+            chunk = new Chunk();
+            insertChunk( -pos - 1, key, chunk );
+        }
+        else
+        {
+            chunk = chunks[pos];
+        }
+
+        return chunk.add( ( char ) id );
+    }
+
+
+    /**
+     * Removes a value from this bitmap
+     *
+     * @param id The value to remove
+     * @return <tt>true</tt> if the value was present
+     */
+    public boolean remove( int id )
+    {
+        int pos = findChunk( ( char ) ( id >>> 16 ) );
+
+        if ( ( pos < 0 ) || !chunks[pos].remove( ( char ) id ) )
+        {
+            return false;
+        }
+
+        if ( chunks[pos].cardinality == 0 )
+        {
+            // Drop the empty chunk
+            System.arraycopy( keys, pos + 1, keys, pos, nbChunks - pos - 1 );
+            System.arraycopy( chunks, pos + 1, chunks, pos, nbChunks - pos - 1 );
+            nbChunks--;
+            chunks[nbChunks] = null;
+        }
+
+        return true;
+    }
+
+
+    /**
+     * Tells if a value is present in this bitmap
+     *
+     * @param id The value to look for
+     * @return <tt>true</tt> if the value is present
+     */
+    public boolean contains( int id )
+    {
+        int pos = findChunk( ( char ) ( id >>> 16 ) );
+
+        return ( pos >= 0 ) && chunks[pos].contains( ( char ) id );
+    }
+
+
+    /**
+     * @return The number of values in this bitmap
+     */
+    public int getCardinality()
+    {
+        int cardinality = 0;
+
+        for ( int i = 0; i < nbChunks; i++ )
+        {
+            cardinality += chunks[i].cardinality;
+        }
+
+        return cardinality;
+    }
+
+
+    /**
+     * @return <tt>true</tt> if this bitmap does not contain any value
+     */
+    public boolean isEmpty()
+    {
+        return nbChunks == 0;
+    }
+
+
+    /**
+     * Computes the intersection of two bitmaps
+     *
+     * @param left The first bitmap
+     * @param right The second bitmap
+     * @return A new bitmap containing the values present in both bitmaps
+     */
+    public static IdBitmap and( IdBitmap left, IdBitmap right )
+    {
+        IdBitmap result = new IdBitmap();
+        int i = 0;
+        int j = 0;
+
+        while ( ( i < left.nbChunks ) && ( j < right.nbChunks ) )
+        {
+            char leftKey = left.keys[i];
+            char rightKey = right.keys[j];
+
+            if ( leftKey < rightKey )
+            {
+                i++;
+            }
+            else if ( leftKey > rightKey )
+            {
+                j++;
+            }
+            else
+            {
+                result.appendChunk( leftKey, Chunk.and( left.chunks[i], right.chunks[j] ) );
+                i++;
+                j++;
+            }
+        }
+
+        return result;
+    }
+
+
+    /**
+     * Computes the difference of two bitmaps
+     *
+     * @param left The bitmap to remove values from
+     * @param right The values to remove
+     * @return A new bitmap containing the values of the first bitmap which are not present in the second one
+     */
+    public static IdBitmap andNot( IdBitmap left, IdBitmap right )
+    {
+        IdBitmap result = new IdBitmap();
+        int j = 0;
+
+        for ( int i = 0; i < left.nbChunks; i++ )
+        {
+            char key = left.keys[i];
+
+            while ( ( j < right.nbChunks ) && ( right.keys[j] < key ) )
+            {
+                j++;
+            }
+
+            if ( ( j < right.nbChunks ) && ( right.keys[j] == key ) )
+            {
+                result.appendChunk( key, Chunk.andNot( left.chunks[i], right.chunks[j] ) );
+            }
+            else
+            {
+                result.appendChunk( key, left.chunks[i].copy() );
+            }
+        }
+
+        return result;
+    }
+
+
+    /**
+     * Adds all the values of the given bitmap into this bitmap
+     *
+     * @param other The bitmap to merge into this one
+     */
+    public void or( IdBitmap other )
+    {
+        for ( int i = 0; i < other.nbChunks; i++ )
+        {
+            char key = other.keys[i];
+            int pos = findChunk( key );
+
+            if ( pos < 0 )
+            {
+                insertChunk( -pos - 1, key, other.chunks[i].copy() );
+            }
+            else
+            {
+                chunks[pos].or( other.chunks[i] );
+            }
+        }
+    }
+
+
+    /**
+     * @return The values of this bitmap, in ascending order
+     */
+    public int[] toArray()
+    {
+        int[] result = new int[getCardinality()];
+        int pos = 0;
+
+        for ( int i = 0; i < nbChunks; i++ )
+        {
+            pos = chunks[i].fill( keys[i] << 16, result, pos );
+        }
+
+        return result;
+    }
+
+
+    /**
+     * @return The number of bitmap chunks, used for statistics
+     */
+    public int getBitmapChunkCount()
+    {
+        int count = 0;
+
+        for ( int i = 0; i < nbChunks; i++ )
+        {
+            if ( chunks[i].isBitmap() )
+            {
+                count++;
+            }
+        }
+
+        return count;
+    }
+
+
+    /**
+     * @see Object#toString()
+     */
+    @Override
+    public String toString()
+    {
+        return "IdBitmap[" + getCardinality() + " ids, " + nbChunks + " chunks]";
+    }
+}
@@ -0,0 +1,315 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.xdbm;
+
+
+import java.io.IOException;
+
+import org.apache.directory.api.ldap.model.constants.Loggers;
+import org.apache.directory.api.ldap.model.cursor.CursorException;
+import org.apache.directory.api.ldap.model.cursor.InvalidCursorPositionException;
+import org.apache.directory.api.ldap.model.exception.LdapAdminLimitExceededException;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.server.core.api.partition.PartitionTxn;
+import org.apache.directory.server.i18n.I18n;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * A Cursor over the candidates stored in an {@link IdBitmap}. The UUIDs are resolved
+ * from the {@link EntryIdDictionary} as the cursor moves, the returned IndexEntry only
+ * contain the entry UUID.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class IdBitmapCursor extends AbstractIndexCursor<String>
+{
+    /** A dedicated log for cursors */
+    private static final Logger LOG_CURSOR = LoggerFactory.getLogger( Loggers.CURSOR_LOG.getName() );
+
+    /** Speedup for logs */
+    private static final boolean IS_DEBUG = LOG_CURSOR.isDebugEnabled();
+
+    /** The candidates, in ascending order */
+    private final int[] ids;
+
+    /** The dictionary used to get back the UUIDs */
+    private final EntryIdDictionary dictionary;
+
+    /** The current position, -1 if before the first element, ids.length if after the last one */
+    private int position = -1;
+
+    /** The current element */
+    private IndexEntry<String, String> current;
+
+    /** The epoch the search has been opened in, -1 if it has not been declared to the dictionary */
+    private final long searchEpoch;
+
+
+    /**
+     * Creates a new instance of IdBitmapCursor.
+     *
+     * @param partitionTxn The transaction to use
+     * @param candidates The candidates to browse
+     * @param dictionary The dictionary used to get the UUIDs of the candidates
+     */
+    public IdBitmapCursor( PartitionTxn partitionTxn, IdBitmap candidates, EntryIdDictionary dictionary )
+    {
+        this( partitionTxn, candidates, dictionary, -1L );
+    }
+
+
+    /**
+     * Creates a new instance of IdBitmapCursor for a search declared to the dictionary.
+     * The cursor fails if the search gets expired.
+     *
+     * @param partitionTxn The transaction to use
+     * @param candidates The candidates to browse
+     * @param dictionary The dictionary used to get the UUIDs of the candidates
+     * @param searchEpoch The epoch returned by {@link EntryIdDictionary#open()}
+     */
+    public IdBitmapCursor( PartitionTxn partitionTxn, IdBitmap candidates, EntryIdDictionary dictionary,
+        long searchEpoch )
+    {
+        if ( IS_DEBUG )
+        {
+            LOG_CURSOR.debug( "Creating IdBitmapCursor {}", this );
+        }
+
+        this.partitionTxn = partitionTxn;
+        this.ids = candidates.toArray();
+        this.dictionary = dictionary;
+        this.searchEpoch = searchEpoch;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    protected String getUnsupportedMessage()
+    {
+        return UNSUPPORTED_MSG;
+    }
+
+
+    /**
+     * Set the current element from the current position
+     */
+    private boolean setCurrent() throws LdapAdminLimitExceededException
+    {
+        if ( ( position < 0 ) || ( position >= ids.length ) )
+        {
+            current = null;
+
+            return setAvailable( false );
+        }
+
+        current = new IndexEntry<>();
+        current.setId( dictionary.getUuid( ids[position] ) );
+
+        // Checked after the UUID is read : the int may have been reassigned in between
+        if ( dictionary.isExpired( searchEpoch ) )
+        {
+            current = null;
+            setAvailable( false );
+
+            throw new LdapAdminLimitExceededException( "Too many entries deleted while the search was open, "
+                + "the search has been expired" );
+        }
+
+        return setAvailable( true );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void beforeFirst() throws LdapException, CursorException
+    {
+        checkNotClosed();
+        position = -1;
+        setCurrent();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void afterLast() throws LdapException, CursorException
+    {
+        checkNotClosed();
+        position = ids.length;
+        setCurrent();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean first() throws LdapException, CursorException
+    {
+        beforeFirst();
+
+        return next();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean last() throws LdapException, CursorException
+    {
+        afterLast();
+
+        return previous();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isFirst()
+    {
+        return ( ids.length > 0 ) && ( position == 0 );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isLast()
+    {
+        return ( ids.length > 0 ) && ( position == ids.length - 1 );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isAfterLast()
+    {
+        return position >= ids.length;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isBeforeFirst()
+    {
+        return position < 0;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean previous() throws LdapException, CursorException
+    {
+        checkNotClosed();
+
+        if ( position >= 0 )
+        {
+            position--;
+        }
+
+        return setCurrent();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean next() throws LdapException, CursorException
+    {
+        checkNotClosed();
+
+        if ( position < ids.length )
+        {
+            position++;
+        }
+
+        return setCurrent();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public IndexEntry<String, String> get() throws CursorException
+    {
+        checkNotClosed();
+
+        if ( current != null )
+        {
+            return current;
+        }
+
+        if ( position < 0 )
+        {
+            throw new InvalidCursorPositionException( I18n.err( I18n.ERR_705 ) );
+        }
+        else
+        {
+            throw new InvalidCursorPositionException( I18n.err( I18n.ERR_706 ) );
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void close() throws IOException
+    {
+        if ( IS_DEBUG )
+        {
+            LOG_CURSOR.debug( "Closing IdBitmapCursor {}", this );
+        }
+
+        super.close();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void close( Exception cause ) throws IOException
+    {
+        if ( IS_DEBUG )
+        {
+            LOG_CURSOR.debug( "Closing IdBitmapCursor {}", this );
+        }
+
+        super.close( cause );
+    }
+}
@@ -157,6 +157,15 @@ public interface Index<K, E>
     long lessThanCount( PartitionTxn partitionTxn, K attrVal ) throws LdapException;
 
 
+    /**
+     * Gets the statistics maintained for this index, used to estimate the scan counts
+     * without accessing the index.
+     *
+     * @return The index statistics
+     */
+    IndexStatistics getStatistics();
+
+
     /**
      * Search for a value using the Forward table
      * 
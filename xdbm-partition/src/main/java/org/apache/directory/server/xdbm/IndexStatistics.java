@@ -0,0 +1,763 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.xdbm;
+
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.regex.Pattern;
+
+
+/**
+ * The statistics the optimizer uses to estimate the number of candidates an index
+ * will return, without reading the index. They are updated by the index on each
+ * add and drop, and contain :
+ * <ul>
+ *   <li>the total number of index entries, and the number of distinct keys</li>
+ *   <li>a histogram of the keys, based on their two first chars</li>
+ *   <li>the exact count of each key as long as the index has less than {@link #MAX_EXACT_KEYS}
+ *   distinct keys, then the counts of the {@link #MCV_SIZE} most common keys only (computed
+ *   using the Space-Saving algorithm)</li>
+ *   <li>a random sample of the keys, used to estimate the selectivity of a regular expression
+ *   on the keys which are not amongst the most common ones</li>
+ * </ul>
+ * Keys are stored using their String representation.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class IndexStatistics
+{
+    /** The maximum number of distinct keys for which we keep an exact count */
+    public static final int MAX_EXACT_KEYS = 1024;
+
+    /** The number of most common keys we keep when the counts are not exact anymore */
+    public static final int MCV_SIZE = 64;
+
+    /** The number of keys in the random sample */
+    public static final int SAMPLE_SIZE = 256;
+
+    /** The version of the serialized form */
+    private static final int VERSION = 1;
+
+    /** The number of buckets for a given first char : one for single char keys, 16 for the second char */
+    private static final int NB_GROUPS = 17;
+
+    /** The number of first chars we discriminate (any char above is stored with the last one) */
+    private static final int NB_CHARS = 128;
+
+    /** The total number of index entries */
+    private long total;
+
+    /** The number of distinct keys */
+    private long distinct;
+
+    /** The histogram, one bucket per two first chars */
+    private long[] histogram = new long[NB_CHARS * NB_GROUPS];
+
+    /** The key counts : a { count, error } pair for each key */
+    private Map<String, long[]> counts = new HashMap<>();
+
+    /** Tells if the counts are exact, or if we are only keeping the most common keys */
+    private boolean exact = true;
+
+    /** A random sample of the added keys */
+    private List<String> sample = new ArrayList<>();
+
+    /** The number of keys the sample has been drawn from */
+    private long sampled;
+
+    /** The random generator used to sample the keys */
+    private final Random random = new Random();
+
+
+    /**
+     * Updates the statistics when a new &lt;key, id&gt; tuple is added to the index.
+     *
+     * @param key The added key
+     * @param newKey true if the key was not present in the index
+     */
+    public synchronized void add( Object key, boolean newKey )
+    {
+        String stringKey = toString( key );
+
+        total++;
+        histogram[bucket( stringKey )]++;
+
+        if ( newKey )
+        {
+            distinct++;
+        }
+
+        // Reservoir sampling
+        sampled++;
+
+        if ( sample.size() < SAMPLE_SIZE )
+        {
+            sample.add( stringKey );
+        }
+        else
+        {
+            long position = ( long ) ( random.nextDouble() * sampled );
+
+            if ( position < SAMPLE_SIZE )
+            {
+                sample.set( ( int ) position, stringKey );
+            }
+        }
+
+        long[] count = counts.get( stringKey );
+
+        if ( count != null )
+        {
+            count[0]++;
+        }
+        else if ( exact )
+        {
+            counts.put( stringKey, new long[]
+                { 1L, 0L } );
+
+            if ( counts.size() > MAX_EXACT_KEYS )
+            {
+                keepMostCommonKeys();
+            }
+        }
+        else if ( counts.size() < MCV_SIZE )
+        {
+            counts.put( stringKey, new long[]
+                { 1L, 0L } );
+        }
+        else
+        {
+            // Space-Saving : the new key replaces the least common one, and inherits its count
+            String minKey = null;
+            long min = Long.MAX_VALUE;
+
+            for ( Map.Entry<String, long[]> entry : counts.entrySet() )
+            {
+                if ( entry.getValue()[0] < min )
+                {
+                    min = entry.getValue()[0];
+                    minKey = entry.getKey();
+                }
+            }
+
+            counts.remove( minKey );
+            counts.put( stringKey, new long[]
+                { min + 1L, min } );
+        }
+    }
+
+
+    /**
+     * Updates the statistics when a &lt;key, id&gt; tuple is removed from the index.
+     *
+     * @param key The removed key
+     * @param lastKey true if the key is not present anymore in the index
+     */
+    public synchronized void drop( Object key, boolean lastKey )
+    {
+        String stringKey = toString( key );
+
+        if ( total > 0L )
+        {
+            total--;
+        }
+
+        int bucket = bucket( stringKey );
+
+        if ( histogram[bucket] > 0L )
+        {
+            histogram[bucket]--;
+        }
+
+        if ( lastKey && ( distinct > 0L ) )
+        {
+            distinct--;
+        }
+
+        if ( sample.remove( stringKey ) && ( sampled > 0L ) )
+        {
+            sampled--;
+        }
+
+        long[] count = counts.get( stringKey );
+
+        if ( count != null )
+        {
+            count[0]--;
+
+            if ( lastKey || ( count[0] <= 0L ) )
+            {
+                counts.remove( stringKey );
+            }
+            else if ( count[1] > count[0] )
+            {
+                count[1] = count[0];
+            }
+        }
+    }
+
+
+    /**
+     * Resets the statistics
+     */
+    public synchronized void clear()
+    {
+        total = 0L;
+        distinct = 0L;
+        histogram = new long[NB_CHARS * NB_GROUPS];
+        counts = new HashMap<>();
+        exact = true;
+        sample = new ArrayList<>();
+        sampled = 0L;
+    }
+
+
+    /**
+     * Replaces the statistics by a copy of some other statistics.
+     *
+     * @param statistics The statistics to copy
+     */
+    public void copyFrom( IndexStatistics statistics )
+    {
+        long[] otherHistogram;
+        Map<String, long[]> otherCounts = new HashMap<>();
+        long otherTotal;
+        long otherDistinct;
+        boolean otherExact;
+        List<String> otherSample;
+        long otherSampled;
+
+        synchronized ( statistics )
+        {
+            otherTotal = statistics.total;
+            otherDistinct = statistics.distinct;
+            otherHistogram = statistics.histogram.clone();
+            otherExact = statistics.exact;
+            otherSample = new ArrayList<>( statistics.sample );
+            otherSampled = statistics.sampled;
+
+            for ( Map.Entry<String, long[]> entry : statistics.counts.entrySet() )
+            {
+                otherCounts.put( entry.getKey(), entry.getValue().clone() );
+            }
+        }
+
+        synchronized ( this )
+        {
+            total = otherTotal;
+            distinct = otherDistinct;
+            histogram = otherHistogram;
+            counts = otherCounts;
+            exact = otherExact;
+            sample = otherSample;
+            sampled = otherSampled;
+        }
+    }
+
+
+    /**
+     * @return The total number of index entries
+     */
+    public synchronized long getTotal()
+    {
+        return total;
+    }
+
+
+    /**
+     * @return The number of distinct keys
+     */
+    public synchronized long getDistinct()
+    {
+        return distinct;
+    }
+
+
+    /**
+     * @return true if we still have an exact count for each key
+     */
+    public synchronized boolean isExact()
+    {
+        return exact;
+    }
+
+
+    /**
+     * Estimates the number of index entries for a given key. The result is exact as long
+     * as we keep the count of each key, otherwise it's based on the most common keys or on
+     * the average number of entries per key.
+     *
+     * @param key The key
+     * @return The estimated number of entries
+     */
+    public synchronized long equalityCount( Object key )
+    {
+        long[] count = counts.get( toString( key ) );
+
+        if ( exact )
+        {
+            return count == null ? 0L : count[0];
+        }
+
+        long average = distinct == 0L ? total : ( total + distinct - 1L ) / distinct;
+
+        if ( count != null )
+        {
+            return Math.max( count[0] - count[1], average );
+        }
+
+        return average;
+    }
+
+
+    /**
+     * Estimates the number of index entries which key is greater or equal to a given key,
+     * using the String order of the keys.
+     *
+     * @param key The key
+     * @return The estimated number of entries
+     */
+    public long greaterOrEqualCount( Object key )
+    {
+        return greaterOrEqualCount( key, null );
+    }
+
+
+    /**
+     * Estimates the number of index entries which key is greater or equal to a given key.
+     * When a comparator is given, the histogram (which is in String order) can't be used
+     * anymore when the counts are not exact, and the estimate is based on the sample.
+     *
+     * @param key The key
+     * @param comparator The comparator the index orders its keys with, or null for the String order
+     * @return The estimated number of entries
+     */
+    public synchronized long greaterOrEqualCount( Object key, Comparator<String> comparator )
+    {
+        String stringKey = toString( key );
+
+        if ( exact )
+        {
+            long result = 0L;
+
+            for ( Map.Entry<String, long[]> entry : counts.entrySet() )
+            {
+                if ( compare( comparator, entry.getKey(), stringKey ) >= 0 )
+                {
+                    result += entry.getValue()[0];
+                }
+            }
+
+            return result;
+        }
+
+        if ( comparator != null )
+        {
+            return sampleRangeCount( comparator, stringKey, true );
+        }
+
+        int bucket = bucket( stringKey );
+        long result = ( histogram[bucket] + 1L ) / 2L;
+
+        for ( int i = bucket + 1; i < histogram.length; i++ )
+        {
+            result += histogram[i];
+        }
+
+        return result;
+    }
+
+
+    /**
+     * Estimates the number of index entries which key is lower or equal to a given key,
+     * using the String order of the keys.
+     *
+     * @param key The key
+     * @return The estimated number of entries
+     */
+    public long lessOrEqualCount( Object key )
+    {
+        return lessOrEqualCount( key, null );
+    }
+
+
+    /**
+     * Estimates the number of index entries which key is lower or equal to a given key.
+     * When a comparator is given, the histogram (which is in String order) can't be used
+     * anymore when the counts are not exact, and the estimate is based on the sample.
+     *
+     * @param key The key
+     * @param comparator The comparator the index orders its keys with, or null for the String order
+     * @return The estimated number of entries
+     */
+    public synchronized long lessOrEqualCount( Object key, Comparator<String> comparator )
+    {
+        String stringKey = toString( key );
+
+        if ( exact )
+        {
+            long result = 0L;
+
+            for ( Map.Entry<String, long[]> entry : counts.entrySet() )
+            {
+                if ( compare( comparator, entry.getKey(), stringKey ) <= 0 )
+                {
+                    result += entry.getValue()[0];
+                }
+            }
+
+            return result;
+        }
+
+        if ( comparator != null )
+        {
+            return sampleRangeCount( comparator, stringKey, false );
+        }
+
+        int bucket = bucket( stringKey );
+        long result = ( histogram[bucket] + 1L ) / 2L;
+
+        for ( int i = 0; i < bucket; i++ )
+        {
+            result += histogram[i];
+        }
+
+        return result;
+    }
+
+
+    /**
+     * Estimates the number of index entries which key starts with a given prefix.
+     *
+     * @param prefix The prefix
+     * @return The estimated number of entries
+     */
+    public synchronized long prefixCount( String prefix )
+    {
+        if ( exact )
+        {
+            long result = 0L;
+
+            for ( Map.Entry<String, long[]> entry : counts.entrySet() )
+            {
+                if ( entry.getKey().startsWith( prefix ) )
+                {
+                    result += entry.getValue()[0];
+                }
+            }
+
+            return result;
+        }
+
+        if ( prefix.isEmpty() )
+        {
+            return total;
+        }
+
+        int bucket = bucket( prefix );
+
+        if ( prefix.length() > 1 )
+        {
+            return histogram[bucket];
+        }
+
+        // All the keys starting with this char
+        long result = 0L;
+
+        for ( int i = bucket; i < bucket + NB_GROUPS; i++ )
+        {
+            result += histogram[i];
+        }
+
+        return result;
+    }
+
+
+    /**
+     * Estimates the number of index entries which key matches a regular expression. The
+     * result is exact as long as we keep the count of each key, otherwise the most common
+     * keys are counted, and the selectivity of the expression on the random sample is
+     * applied to the other entries.
+     *
+     * @param regex The regular expression
+     * @return The estimated number of entries
+     */
+    public synchronized long matchingCount( Pattern regex )
+    {
+        long counted = 0L;
+        long matched = 0L;
+
+        for ( Map.Entry<String, long[]> entry : counts.entrySet() )
+        {
+            // Only count the guaranteed occurrences of the most common keys
+            long count = entry.getValue()[0] - entry.getValue()[1];
+            counted += count;
+
+            if ( regex.matcher( entry.getKey() ).matches() )
+            {
+                matched += count;
+            }
+        }
+
+        if ( exact )
+        {
+            return matched;
+        }
+
+        long remaining = Math.max( 0L, total - counted );
+        int nbSampled = 0;
+        int nbMatched = 0;
+
+        for ( String key : sample )
+        {
+            if ( !counts.containsKey( key ) )
+            {
+                nbSampled++;
+
+                if ( regex.matcher( key ).matches() )
+                {
+                    nbMatched++;
+                }
+            }
+        }
+
+        if ( nbSampled == 0 )
+        {
+            return matched + remaining;
+        }
+
+        return matched + ( long ) Math.ceil( ( double ) remaining * nbMatched / nbSampled );
+    }
+
+
+    /**
+     * Writes the statistics.
+     *
+     * @param out The output to write to
+     * @throws IOException If the statistics can't be written
+     */
+    public synchronized void writeTo( DataOutput out ) throws IOException
+    {
+        out.writeInt( VERSION );
+        out.writeLong( total );
+        out.writeLong( distinct );
+        out.writeBoolean( exact );
+
+        for ( long bucket : histogram )
+        {
+            out.writeLong( bucket );
+        }
+
+        out.writeInt( counts.size() );
+
+        for ( Map.Entry<String, long[]> entry : counts.entrySet() )
+        {
+            writeKey( out, entry.getKey() );
+            out.writeLong( entry.getValue()[0] );
+            out.writeLong( entry.getValue()[1] );
+        }
+
+        out.writeLong( sampled );
+        out.writeInt( sample.size() );
+
+        for ( String key : sample )
+        {
+            writeKey( out, key );
+        }
+    }
+
+
+    /**
+     * Reads statistics previously written by {@link #writeTo(DataOutput)}.
+     *
+     * @param in The input to read from
+     * @return The read statistics
+     * @throws IOException If the statistics can't be read
+     */
+    public static IndexStatistics readFrom( DataInput in ) throws IOException
+    {
+        int version = in.readInt();
+
+        if ( version != VERSION )
+        {
+            throw new IOException( "Unexpected index statistics version " + version );
+        }
+
+        IndexStatistics statistics = new IndexStatistics();
+
+        statistics.total = in.readLong();
+        statistics.distinct = in.readLong();
+        statistics.exact = in.readBoolean();
+
+        for ( int i = 0; i < statistics.histogram.length; i++ )
+        {
+            statistics.histogram[i] = in.readLong();
+        }
+
+        int nbCounts = in.readInt();
+
+        for ( int i = 0; i < nbCounts; i++ )
+        {
+            statistics.counts.put( readKey( in ), new long[]
+                { in.readLong(), in.readLong() } );
+        }
+
+        statistics.sampled = in.readLong();
+        int sampleSize = in.readInt();
+
+        for ( int i = 0; i < sampleSize; i++ )
+        {
+            statistics.sample.add( readKey( in ) );
+        }
+
+        return statistics;
+    }
+
+
+    private static void writeKey( DataOutput out, String key ) throws IOException
+    {
+        byte[] bytes = key.getBytes( StandardCharsets.UTF_8 );
+        out.writeInt( bytes.length );
+        out.write( bytes );
+    }
+
+
+    private static String readKey( DataInput in ) throws IOException
+    {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully( bytes );
+
+        return new String( bytes, StandardCharsets.UTF_8 );
+    }
+
+
+    private static int compare( Comparator<String> comparator, String key1, String key2 )
+    {
+        if ( comparator == null )
+        {
+            return key1.compareTo( key2 );
+        }
+
+        return comparator.compare( key1, key2 );
+    }
+
+
+    /**
+     * Estimates a range count from the proportion of the sampled keys which are in the range
+     */
+    private long sampleRangeCount( Comparator<String> comparator, String key, boolean greater )
+    {
+        if ( sample.isEmpty() )
+        {
+            return total;
+        }
+
+        long matching = 0L;
+
+        for ( String sampleKey : sample )
+        {
+            int cmp = comparator.compare( sampleKey, key );
+
+            if ( greater ? cmp >= 0 : cmp <= 0 )
+            {
+                matching++;
+            }
+        }
+
+        return ( total * matching + sample.size() - 1L ) / sample.size();
+    }
+
+
+    /**
+     * Drops the exact counts, keeping the most common keys only
+     */
+    private void keepMostCommonKeys()
+    {
+        List<Map.Entry<String, long[]>> entries = new ArrayList<>( counts.entrySet() );
+
+        Collections.sort( entries, new Comparator<Map.Entry<String, long[]>>()
+        {
+            @Override
+            public int compare( Map.Entry<String, long[]> entry1, Map.Entry<String, long[]> entry2 )
+            {
+                return Long.compare( entry2.getValue()[0], entry1.getValue()[0] );
+            }
+        } );
+
+        Map<String, long[]> mostCommon = new HashMap<>();
+
+        for ( int i = 0; i < MCV_SIZE; i++ )
+        {
+            mostCommon.put( entries.get( i ).getKey(), entries.get( i ).getValue() );
+        }
+
+        counts = mostCommon;
+        exact = false;
+    }
+
+
+    /**
+     * Computes the histogram bucket of a key. The buckets are in the same order as the keys.
+     */
+    private static int bucket( String key )
+    {
+        if ( key.isEmpty() )
+        {
+            return 0;
+        }
+
+        int first = Math.min( key.charAt( 0 ), NB_CHARS - 1 );
+        int group = 0;
+
+        if ( key.length() > 1 )
+        {
+            group = 1 + Math.min( key.charAt( 1 ), NB_CHARS - 1 ) / 8;
+        }
+
+        return first * NB_GROUPS + group;
+    }
+
+
+    private static String toString( Object key )
+    {
+        return key == null ? "" : key.toString();
+    }
+
+
+    /**
+     * @see Object#toString()
+     */
+    @Override
+    public synchronized String toString()
+    {
+        return "IndexStatistics[total=" + total + ", distinct=" + distinct + ", exact=" + exact + ", keys="
+            + counts.size() + "]";
+    }
+}
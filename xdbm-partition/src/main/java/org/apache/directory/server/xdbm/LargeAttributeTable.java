@@ -0,0 +1,322 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.xdbm;
+
+
+import java.io.IOException;
+
+import org.apache.directory.api.ldap.model.cursor.Cursor;
+import org.apache.directory.api.ldap.model.cursor.CursorException;
+import org.apache.directory.api.ldap.model.entry.Attribute;
+import org.apache.directory.api.ldap.model.entry.DefaultAttribute;
+import org.apache.directory.api.ldap.model.entry.Value;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.exception.LdapOtherException;
+import org.apache.directory.api.ldap.model.schema.AttributeType;
+import org.apache.directory.server.core.api.partition.PartitionTxn;
+
+
+/**
+ * A table storing the values of a very large multi-valued attribute, like the member
+ * attribute of a big group, outside of the entries. The values are stored as duplicates
+ * of the entry UUID, so that a value can be added or removed without reading or writing
+ * the other values of the attribute.
+ * <br>
+ * Each value is stored as its normalized form, followed by a {@link #SEPARATOR} and by its
+ * user provided form. The table values comparator must only compare the normalized part,
+ * which is returned by {@link #getNormalized(String)}.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class LargeAttributeTable
+{
+    /** The character separating the normalized and the user provided forms of a value */
+    public static final char SEPARATOR = '\u0000';
+
+    /** The stored AttributeType */
+    private final AttributeType attributeType;
+
+    /** The table storing the values, keyed by entry UUID */
+    private final Table<String, String> table;
+
+
+    /**
+     * Creates a new instance of LargeAttributeTable.
+     *
+     * @param attributeType The stored AttributeType
+     * @param table The table storing the values, which must allow duplicates
+     */
+    public LargeAttributeTable( AttributeType attributeType, Table<String, String> table )
+    {
+        if ( !table.isDupsEnabled() )
+        {
+            throw new IllegalArgumentException( "The table " + table.getName() + " must allow duplicates" );
+        }
+
+        this.attributeType = attributeType;
+        this.table = table;
+    }
+
+
+    /**
+     * @return The stored AttributeType
+     */
+    public AttributeType getAttributeType()
+    {
+        return attributeType;
+    }
+
+
+    /**
+     * @return The underlying table
+     */
+    public Table<String, String> getTable()
+    {
+        return table;
+    }
+
+
+    /**
+     * Adds a value to an entry.
+     *
+     * @param partitionTxn The transaction to use
+     * @param id The entry UUID
+     * @param value The value to add
+     * @return true if the value was added, false if the entry already had it
+     * @throws LdapException If the table can't be updated
+     */
+    public boolean add( PartitionTxn partitionTxn, String id, Value value ) throws LdapException
+    {
+        if ( table.has( partitionTxn, id, getKey( value ) ) )
+        {
+            return false;
+        }
+
+        table.put( partitionTxn, id, encode( value ) );
+
+        return true;
+    }
+
+
+    /**
+     * Removes a value from an entry.
+     *
+     * @param partitionTxn The transaction to use
+     * @param id The entry UUID
+     * @param value The value to remove
+     * @return true if the value was removed, false if the entry did not have it
+     * @throws LdapException If the table can't be updated
+     */
+    public boolean remove( PartitionTxn partitionTxn, String id, Value value ) throws LdapException
+    {
+        String key = getKey( value );
+
+        if ( !table.has( partitionTxn, id, key ) )
+        {
+            return false;
+        }
+
+        table.remove( partitionTxn, id, key );
+
+        return true;
+    }
+
+
+    /**
+     * Tells if an entry has a value.
+     *
+     * @param partitionTxn The transaction to use
+     * @param id The entry UUID
+     * @param value The value to look for
+     * @return true if the entry has this value
+     * @throws LdapException If the table can't be read
+     */
+    public boolean has( PartitionTxn partitionTxn, String id, Value value ) throws LdapException
+    {
+        return table.has( partitionTxn, id, getKey( value ) );
+    }
+
+
+    /**
+     * Removes all the values of an entry.
+     *
+     * @param partitionTxn The transaction to use
+     * @param id The entry UUID
+     * @throws LdapException If the table can't be updated
+     */
+    public void drop( PartitionTxn partitionTxn, String id ) throws LdapException
+    {
+        table.remove( partitionTxn, id );
+    }
+
+
+    /**
+     * Gets the number of values of an entry.
+     *
+     * @param partitionTxn The transaction to use
+     * @param id The entry UUID
+     * @return The number of values
+     * @throws LdapException If the table can't be read
+     */
+    public long count( PartitionTxn partitionTxn, String id ) throws LdapException
+    {
+        return table.count( partitionTxn, id );
+    }
+
+
+    /**
+     * Gets a cursor on the stored values of an entry, in their normalized order. The
+     * stored values are converted using {@link #toValue(String)}.
+     *
+     * @param partitionTxn The transaction to use
+     * @param id The entry UUID
+     * @return A cursor on the stored values
+     * @throws LdapException If the table can't be read
+     */
+    public Cursor<String> valueCursor( PartitionTxn partitionTxn, String id ) throws LdapException
+    {
+        return table.valueCursor( partitionTxn, id );
+    }
+
+
+    /**
+     * Reads all the values of an entry.
+     *
+     * @param partitionTxn The transaction to use
+     * @param id The entry UUID
+     * @return The attribute, or null if the entry has no value
+     * @throws LdapException If the table can't be read
+     */
+    public Attribute load( PartitionTxn partitionTxn, String id ) throws LdapException
+    {
+        return load( partitionTxn, id, Integer.MAX_VALUE );
+    }
+
+
+    /**
+     * Reads the first values of an entry, in their normalized order.
+     *
+     * @param partitionTxn The transaction to use
+     * @param id The entry UUID
+     * @param maxValues The maximum number of values to read
+     * @return The attribute, or null if the entry has no value
+     * @throws LdapException If the table can't be read
+     */
+    public Attribute load( PartitionTxn partitionTxn, String id, int maxValues ) throws LdapException
+    {
+        if ( table.count( partitionTxn, id ) == 0 )
+        {
+            return null;
+        }
+
+        Attribute attribute = new DefaultAttribute( attributeType );
+        Cursor<String> cursor = table.valueCursor( partitionTxn, id );
+
+        try
+        {
+            while ( ( attribute.size() < maxValues ) && cursor.next() )
+            {
+                attribute.add( toValue( cursor.get() ) );
+            }
+        }
+        catch ( CursorException ce )
+        {
+            throw new LdapOtherException( ce.getMessage(), ce );
+        }
+        finally
+        {
+            try
+            {
+                cursor.close();
+            }
+            catch ( IOException ioe )
+            {
+                throw new LdapOtherException( ioe.getMessage(), ioe );
+            }
+        }
+
+        return attribute;
+    }
+
+
+    /**
+     * Converts a stored value back to a Value, without normalizing it again.
+     *
+     * @param stored The stored value
+     * @return The Value
+     */
+    public Value toValue( String stored )
+    {
+        int pos = stored.indexOf( SEPARATOR );
+
+        return new Value( attributeType, stored.substring( pos + 1 ), stored.substring( 0, pos ) );
+    }
+
+
+    /**
+     * Gets the normalized part of a stored value.
+     *
+     * @param stored The stored value
+     * @return The normalized value
+     */
+    public static String getNormalized( String stored )
+    {
+        int pos = stored.indexOf( SEPARATOR );
+
+        if ( pos < 0 )
+        {
+            return stored;
+        }
+
+        return stored.substring( 0, pos );
+    }
+
+
+    /**
+     * Encodes a value, with its user provided form
+     */
+    private static String encode( Value value )
+    {
+        String upValue = value.getString();
+
+        if ( upValue == null )
+        {
+            return getKey( value );
+        }
+
+        return getKey( value ) + upValue;
+    }
+
+
+    /**
+     * Encodes the normalized part of a value, which is enough to look for it in the table
+     */
+    private static String getKey( Value value )
+    {
+        String normalized = value.getNormalized();
+
+        if ( normalized == null )
+        {
+            normalized = "";
+        }
+
+        return normalized + SEPARATOR;
+    }
+}
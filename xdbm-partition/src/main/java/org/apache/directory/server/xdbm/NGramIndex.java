@@ -0,0 +1,383 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.xdbm;
+
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.filter.SubstringNode;
+import org.apache.directory.api.ldap.model.schema.AttributeType;
+import org.apache.directory.api.ldap.model.schema.Normalizer;
+import org.apache.directory.api.ldap.model.schema.PrepareString;
+
+
+/**
+ * A substring index, associating each trigram found in the normalized values of an
+ * attribute to the entries containing it. The candidates of a substring filter like
+ * (cn=*smith*) are computed by intersecting the postings of the filter trigrams, they
+ * are a superset of the matching entries, which still have to be evaluated.
+ * <br>
+ * The postings are stored in memory as {@link IdBitmap}s, using the partition
+ * {@link EntryIdDictionary}. They are built from the attribute index when the partition
+ * is initialized, and are then updated when the entries are added, modified, renamed or
+ * deleted.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class NGramIndex
+{
+    /** The size of the grams */
+    public static final int GRAM_SIZE = 3;
+
+    /** The indexed AttributeType */
+    private final AttributeType attributeType;
+
+    /** The dictionary used to get the entries ints */
+    private final EntryIdDictionary dictionary;
+
+    /** The postings, per gram */
+    private final Map<String, IdBitmap> postings = new HashMap<>();
+
+    /** The lock protecting the postings */
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    /** A comparator used to intersect the smallest postings first */
+    private static final Comparator<IdBitmap> CARDINALITY_COMPARATOR = new Comparator<IdBitmap>()
+    {
+        @Override
+        public int compare( IdBitmap bitmap1, IdBitmap bitmap2 )
+        {
+            return Integer.compare( bitmap1.getCardinality(), bitmap2.getCardinality() );
+        }
+    };
+
+
+    /**
+     * Creates a new instance of NGramIndex.
+     *
+     * @param attributeType The indexed AttributeType
+     * @param dictionary The dictionary used to get the entries ints
+     */
+    public NGramIndex( AttributeType attributeType, EntryIdDictionary dictionary )
+    {
+        this.attributeType = attributeType;
+        this.dictionary = dictionary;
+    }
+
+
+    /**
+     * @return The indexed AttributeType
+     */
+    public AttributeType getAttributeType()
+    {
+        return attributeType;
+    }
+
+
+    /**
+     * Adds the grams of a normalized value for an entry
+     *
+     * @param value The normalized value
+     * @param entryId The entry UUID
+     */
+    public void add( String value, String entryId )
+    {
+        int id = dictionary.getOrAssign( entryId );
+
+        lock.writeLock().lock();
+
+        try
+        {
+            for ( String gram : getGrams( value ) )
+            {
+                IdBitmap posting = postings.get( gram );
+
+                if ( posting == null )
+                {
+                    posting = new IdBitmap();
+                    postings.put( gram, posting );
+                }
+
+                posting.add( id );
+            }
+        }
+        finally
+        {
+            lock.writeLock().unlock();
+        }
+    }
+
+
+    /**
+     * Updates the postings of an entry when its values have changed. As an entry may have
+     * many values containing the same gram, the entry is only removed from the postings
+     * of the grams which are not present anymore in any of its values.
+     *
+     * @param entryId The entry UUID
+     * @param oldValues The previous normalized values, or null if the entry is added
+     * @param newValues The new normalized values, or null if the entry is deleted
+     */
+    public void update( String entryId, Collection<String> oldValues, Collection<String> newValues )
+    {
+        Set<String> oldGrams = getGrams( oldValues );
+        Set<String> newGrams = getGrams( newValues );
+
+        if ( oldGrams.equals( newGrams ) )
+        {
+            return;
+        }
+
+        int id = dictionary.getOrAssign( entryId );
+
+        lock.writeLock().lock();
+
+        try
+        {
+            for ( String gram : oldGrams )
+            {
+                if ( !newGrams.contains( gram ) )
+                {
+                    IdBitmap posting = postings.get( gram );
+
+                    if ( ( posting != null ) && posting.remove( id ) && posting.isEmpty() )
+                    {
+                        postings.remove( gram );
+                    }
+                }
+            }
+
+            for ( String gram : newGrams )
+            {
+                if ( !oldGrams.contains( gram ) )
+                {
+                    IdBitmap posting = postings.get( gram );
+
+                    if ( posting == null )
+                    {
+                        posting = new IdBitmap();
+                        postings.put( gram, posting );
+                    }
+
+                    posting.add( id );
+                }
+            }
+        }
+        finally
+        {
+            lock.writeLock().unlock();
+        }
+    }
+
+
+    /**
+     * Removes all the postings
+     */
+    public void clear()
+    {
+        lock.writeLock().lock();
+
+        try
+        {
+            postings.clear();
+        }
+        finally
+        {
+            lock.writeLock().unlock();
+        }
+    }
+
+
+    /**
+     * @return The number of distinct grams in the index
+     */
+    public int getGramCount()
+    {
+        lock.readLock().lock();
+
+        try
+        {
+            return postings.size();
+        }
+        finally
+        {
+            lock.readLock().unlock();
+        }
+    }
+
+
+    /**
+     * Computes the candidates of a substring filter, by intersecting the postings of
+     * the grams found in its initial, any and final components.
+     *
+     * @param node The substring filter
+     * @return The candidates, or null if the filter does not contain any gram
+     * @throws LdapException If the filter components can't be normalized
+     */
+    public IdBitmap getCandidates( SubstringNode node ) throws LdapException
+    {
+        Set<String> grams = new HashSet<>();
+        Normalizer normalizer = attributeType.getEquality().getNormalizer();
+
+        if ( node.getInitial() != null )
+        {
+            addQueryGrams( grams, normalizer.normalize( node.getInitial(),
+                PrepareString.AssertionType.SUBSTRING_INITIAL ) );
+        }
+
+        if ( node.getAny() != null )
+        {
+            for ( String any : node.getAny() )
+            {
+                addQueryGrams( grams, normalizer.normalize( any, PrepareString.AssertionType.SUBSTRING_ANY ) );
+            }
+        }
+
+        if ( node.getFinal() != null )
+        {
+            addQueryGrams( grams, normalizer.normalize( node.getFinal(),
+                PrepareString.AssertionType.SUBSTRING_FINAL ) );
+        }
+
+        if ( grams.isEmpty() )
+        {
+            return null;
+        }
+
+        lock.readLock().lock();
+
+        try
+        {
+            List<IdBitmap> gramPostings = new ArrayList<>( grams.size() );
+
+            for ( String gram : grams )
+            {
+                IdBitmap posting = postings.get( gram );
+
+                if ( posting == null )
+                {
+                    // No value contains this gram
+                    return new IdBitmap();
+                }
+
+                gramPostings.add( posting );
+            }
+
+            Collections.sort( gramPostings, CARDINALITY_COMPARATOR );
+
+            IdBitmap result = new IdBitmap();
+            result.or( gramPostings.get( 0 ) );
+
+            for ( int i = 1; ( i < gramPostings.size() ) && !result.isEmpty(); i++ )
+            {
+                result = IdBitmap.and( result, gramPostings.get( i ) );
+            }
+
+            return result;
+        }
+        finally
+        {
+            lock.readLock().unlock();
+        }
+    }
+
+
+    /**
+     * Adds the grams of a filter component. The grams containing a space are ignored, as
+     * the spaces may be normalized differently in a component and in a whole value.
+     */
+    private static void addQueryGrams( Set<String> grams, String component )
+    {
+        if ( component == null )
+        {
+            return;
+        }
+
+        for ( String gram : getGrams( component ) )
+        {
+            boolean hasSpace = false;
+
+            for ( int i = 0; i < gram.length(); i++ )
+            {
+                if ( Character.isWhitespace( gram.charAt( i ) ) )
+                {
+                    hasSpace = true;
+                    break;
+                }
+            }
+
+            if ( !hasSpace )
+            {
+                grams.add( gram );
+            }
+        }
+    }
+
+
+    /**
+     * Gets the grams of a set of values
+     */
+    private static Set<String> getGrams( Collection<String> values )
+    {
+        Set<String> grams = new HashSet<>();
+
+        if ( values != null )
+        {
+            for ( String value : values )
+            {
+                grams.addAll( getGrams( value ) );
+            }
+        }
+
+        return grams;
+    }
+
+
+    /**
+     * Gets the grams of a value
+     *
+     * @param value The value
+     * @return The set of grams of this value
+     */
+    public static Set<String> getGrams( String value )
+    {
+        Set<String> grams = new HashSet<>();
+
+        if ( value != null )
+        {
+            for ( int i = 0; i + GRAM_SIZE <= value.length(); i++ )
+            {
+                grams.add( value.substring( i, i + GRAM_SIZE ) );
+            }
+        }
+
+        return grams;
+    }
+}
@@ -0,0 +1,859 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.xdbm;
+
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.server.core.api.entry.CompactEntryCodec;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * An {@link EntryCache} storing the serialized entries out of the heap, in direct
+ * buffers, and bounded by the number of bytes it uses. The memory is split into blocks
+ * of a fixed size, an entry being stored in as many blocks as needed : the blocks freed
+ * by an evicted entry can be reused by any other entry.
+ * <br>
+ * The entries to keep are selected using a W-TinyLFU policy : a new entry is first stored
+ * in a small LRU window, and when it leaves the window, it is only admitted in the main
+ * space if it is more popular than the entry which would be evicted to make room for it.
+ * The popularity of the entries is estimated by a {@link FrequencySketch}. The main space
+ * is a segmented LRU : the entries read again while they are in its probation segment are
+ * promoted to its protected segment.
+ * <br>
+ * The cache is split into stripes, selected by the hash of the entry UUID, each one with
+ * its own memory, queues and lock, so that the threads reading different entries don't
+ * contend on a single lock. The small caches use a single stripe.
+ * <br>
+ * Each lookup deserializes the entry, so the returned entries are never shared.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class OffHeapEntryCache implements EntryCache
+{
+    /** A logger for this class */
+    private static final Logger LOG = LoggerFactory.getLogger( OffHeapEntryCache.class );
+
+    /** The default size of a block */
+    public static final int DEFAULT_BLOCK_SIZE = 512;
+
+    /** The maximum number of stripes */
+    public static final int MAX_STRIPES = 16;
+
+    /** The minimum number of blocks of a stripe, so that its policy keeps working */
+    private static final int MIN_STRIPE_BLOCKS = 1024;
+
+    /** The size of the direct buffers holding the blocks */
+    private static final int SEGMENT_SIZE = 8 * 1024 * 1024;
+
+    /** The percentage of the cache used by the window */
+    private static final int WINDOW_PERCENT = 1;
+
+    /** The percentage of the main space used by the protected segment */
+    private static final int PROTECTED_PERCENT = 80;
+
+    /** The queues an entry can be in */
+    private static final byte NONE = 0;
+    private static final byte WINDOW = 1;
+    private static final byte PROBATION = 2;
+    private static final byte PROTECTED = 3;
+
+    /** The SchemaManager used to deserialize the entries */
+    private final SchemaManager schemaManager;
+
+    /** The size of a block */
+    private final int blockSize;
+
+    /** The number of blocks per segment */
+    private final int blocksPerSegment;
+
+    /** The maximum number of blocks, for all the stripes */
+    private final int maxBlocks;
+
+    /** The stripes, their number being a power of 2 */
+    private final Stripe[] stripes;
+
+    /** The number of bits of the hash used to select a stripe */
+    private final int stripeBits;
+
+    /** The cache statistics */
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+
+    /**
+     * Creates a new instance of OffHeapEntryCache, using blocks of {@link #DEFAULT_BLOCK_SIZE} bytes.
+     *
+     * @param schemaManager The SchemaManager
+     * @param maxBytes The maximum number of bytes used to store the entries
+     */
+    public OffHeapEntryCache( SchemaManager schemaManager, long maxBytes )
+    {
+        this( schemaManager, maxBytes, DEFAULT_BLOCK_SIZE );
+    }
+
+
+    /**
+     * Creates a new instance of OffHeapEntryCache, using up to {@link #MAX_STRIPES} stripes.
+     *
+     * @param schemaManager The SchemaManager
+     * @param maxBytes The maximum number of bytes used to store the entries
+     * @param blockSize The size of the blocks the memory is split into. The last block of
+     * an entry is partially used, a smaller size wastes less memory but needs more blocks
+     * for the big entries
+     */
+    public OffHeapEntryCache( SchemaManager schemaManager, long maxBytes, int blockSize )
+    {
+        this( schemaManager, maxBytes, blockSize, MAX_STRIPES );
+    }
+
+
+    /**
+     * Creates a new instance of OffHeapEntryCache.
+     *
+     * @param schemaManager The SchemaManager
+     * @param maxBytes The maximum number of bytes used to store the entries
+     * @param blockSize The size of the blocks the memory is split into
+     * @param maxStripes The maximum number of stripes. Fewer stripes are used when they would
+     * hold less than 1024 blocks each
+     */
+    public OffHeapEntryCache( SchemaManager schemaManager, long maxBytes, int blockSize, int maxStripes )
+    {
+        if ( ( blockSize <= 0 ) || ( blockSize > SEGMENT_SIZE ) )
+        {
+            throw new IllegalArgumentException( "Invalid block size : " + blockSize );
+        }
+
+        if ( maxBytes < blockSize )
+        {
+            throw new IllegalArgumentException( "The cache must be able to hold at least one block : " + maxBytes );
+        }
+
+        this.schemaManager = schemaManager;
+        this.blockSize = blockSize;
+        blocksPerSegment = SEGMENT_SIZE / blockSize;
+
+        int totalBlocks = ( int ) Math.min( maxBytes / blockSize, Integer.MAX_VALUE );
+        int bits = 0;
+
+        while ( ( ( 2 << bits ) <= maxStripes ) && ( totalBlocks >> ( bits + 1 ) >= MIN_STRIPE_BLOCKS ) )
+        {
+            bits++;
+        }
+
+        stripeBits = bits;
+        stripes = new Stripe[1 << bits];
+
+        int stripeBlocks = totalBlocks >> bits;
+
+        for ( int i = 0; i < stripes.length; i++ )
+        {
+            stripes[i] = new Stripe( stripeBlocks );
+        }
+
+        maxBlocks = stripeBlocks << bits;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Entry get( String id )
+    {
+        int hash = spread( id.hashCode() );
+        byte[] bytes = stripeOf( hash ).get( id, hash );
+
+        if ( bytes == null )
+        {
+            misses.incrementAndGet();
+
+            return null;
+        }
+
+        hits.incrementAndGet();
+
+        try
+        {
+            return CompactEntryCodec.deserialize( schemaManager, bytes, 0, bytes.length );
+        }
+        catch ( IOException ioe )
+        {
+            LOG.warn( "Cannot deserialize the cached entry {}", id, ioe );
+            remove( id );
+
+            return null;
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void put( String id, Entry entry )
+    {
+        store( id, entry, false );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void replace( String id, Entry entry )
+    {
+        store( id, entry, true );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void remove( String id )
+    {
+        stripeOf( spread( id.hashCode() ) ).remove( id );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void clear()
+    {
+        for ( Stripe stripe : stripes )
+        {
+            stripe.clear();
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void close()
+    {
+        for ( Stripe stripe : stripes )
+        {
+            stripe.close();
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getHitCount()
+    {
+        return hits.get();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getMissCount()
+    {
+        return misses.get();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getEvictionCount()
+    {
+        return evictions.get();
+    }
+
+
+    /**
+     * @return The number of entries in the cache
+     */
+    public int getEntryCount()
+    {
+        int count = 0;
+
+        for ( Stripe stripe : stripes )
+        {
+            count += stripe.getEntryCount();
+        }
+
+        return count;
+    }
+
+
+    /**
+     * @return The number of bytes used by the entries in the cache, including the unused
+     * part of their last block
+     */
+    public long getUsedBytes()
+    {
+        long usedBlocks = 0L;
+
+        for ( Stripe stripe : stripes )
+        {
+            usedBlocks += stripe.getUsedBlocks();
+        }
+
+        return usedBlocks * blockSize;
+    }
+
+
+    /**
+     * @return The maximum number of bytes used by the cache
+     */
+    public long getMaxBytes()
+    {
+        return ( long ) maxBlocks * blockSize;
+    }
+
+
+    /**
+     * @return The number of stripes
+     */
+    public int getStripeCount()
+    {
+        return stripes.length;
+    }
+
+
+    /**
+     * Stores an entry, which is serialized before taking the lock
+     */
+    private void store( String id, Entry entry, boolean onlyIfPresent )
+    {
+        byte[] bytes;
+
+        try
+        {
+            bytes = CompactEntryCodec.serialize( entry, CompactEntryCodec.NO_DN );
+        }
+        catch ( IOException ioe )
+        {
+            LOG.warn( "Cannot serialize the entry {}, it won't be cached", id, ioe );
+            remove( id );
+
+            return;
+        }
+
+        int hash = spread( id.hashCode() );
+        stripeOf( hash ).store( id, hash, bytes, onlyIfPresent );
+    }
+
+
+    /**
+     * Selects the stripe of an entry, using other bits of its hash than the ones the
+     * stripe sketch uses
+     */
+    private Stripe stripeOf( int hash )
+    {
+        if ( stripeBits == 0 )
+        {
+            return stripes[0];
+        }
+
+        return stripes[( hash * 0x9E3779B9 ) >>> ( 32 - stripeBits )];
+    }
+
+
+    /**
+     * Spreads the bits of a hash code
+     */
+    private static int spread( int hashCode )
+    {
+        int hash = ( ( hashCode >>> 16 ) ^ hashCode ) * 0x45d9f3b;
+
+        return ( hash >>> 16 ) ^ hash;
+    }
+
+
+    /**
+     * A part of the cache, with its own memory, W-TinyLFU policy and lock
+     */
+    private final class Stripe
+    {
+        /** The maximum number of blocks */
+        private final int maxBlocks;
+
+        /** The maximum number of blocks used by the window and the protected segment */
+        private final int windowMaxBlocks;
+        private final int protectedMaxBlocks;
+
+        /** The segments, allocated when they are needed */
+        private final ByteBuffer[] segments;
+
+        /** The blocks which have been freed */
+        private int[] freeBlocks = new int[64];
+        private int nbFreeBlocks;
+
+        /** The first block which has never been used */
+        private int nextBlock;
+
+        /** The entries, per UUID */
+        private final Map<String, Node> nodes = new HashMap<>();
+
+        /** The LRU queues */
+        private final Queue window = new Queue();
+        private final Queue probation = new Queue();
+        private final Queue protectedQueue = new Queue();
+
+        /** The popularity of the entries */
+        private final FrequencySketch sketch;
+
+
+        private Stripe( int maxBlocks )
+        {
+            this.maxBlocks = maxBlocks;
+            windowMaxBlocks = Math.max( 1, ( int ) ( ( long ) maxBlocks * WINDOW_PERCENT / 100 ) );
+            protectedMaxBlocks = ( int ) ( ( long ) ( maxBlocks - windowMaxBlocks ) * PROTECTED_PERCENT / 100 );
+            segments = new ByteBuffer[( maxBlocks + blocksPerSegment - 1 ) / blocksPerSegment];
+            sketch = new FrequencySketch( Math.min( maxBlocks, 1 << 22 ) );
+        }
+
+
+        /**
+         * Copies the serialized entry on the heap, or returns null if it's not cached
+         */
+        private synchronized byte[] get( String id, int hash )
+        {
+            sketch.increment( hash );
+            Node node = nodes.get( id );
+
+            if ( node == null )
+            {
+                return null;
+            }
+
+            onAccess( node );
+
+            return read( node );
+        }
+
+
+        private synchronized void remove( String id )
+        {
+            Node node = nodes.remove( id );
+
+            if ( node != null )
+            {
+                discard( node );
+            }
+        }
+
+
+        private synchronized void clear()
+        {
+            nodes.clear();
+            window.clear();
+            probation.clear();
+            protectedQueue.clear();
+            sketch.clear();
+            nbFreeBlocks = 0;
+            nextBlock = 0;
+        }
+
+
+        private synchronized void close()
+        {
+            clear();
+            Arrays.fill( segments, null );
+            freeBlocks = new int[64];
+        }
+
+
+        private synchronized int getEntryCount()
+        {
+            return nodes.size();
+        }
+
+
+        private synchronized long getUsedBlocks()
+        {
+            return ( long ) window.weight + probation.weight + protectedQueue.weight;
+        }
+
+
+        private synchronized void store( String id, int hash, byte[] bytes, boolean onlyIfPresent )
+        {
+            int weight = ( bytes.length + blockSize - 1 ) / blockSize;
+            Node previous = nodes.remove( id );
+
+            if ( previous != null )
+            {
+                discard( previous );
+            }
+            else if ( onlyIfPresent )
+            {
+                return;
+            }
+
+            sketch.increment( hash );
+
+            if ( weight > maxBlocks )
+            {
+                evictions.incrementAndGet();
+
+                return;
+            }
+
+            Node node = new Node( id, hash, bytes.length, weight );
+            nodes.put( id, node );
+            window.addFirst( node, WINDOW );
+
+            while ( window.weight > windowMaxBlocks )
+            {
+                Node candidate = window.last;
+                window.remove( candidate );
+                admit( candidate );
+            }
+
+            // The window may have grown while the main space is full
+            while ( window.weight + probation.weight + protectedQueue.weight > maxBlocks )
+            {
+                Node victim = ( probation.last != null ) ? probation.last
+                    : ( ( protectedQueue.last != null ) ? protectedQueue.last : window.last );
+                discard( victim );
+                nodes.remove( victim.id );
+                evictions.incrementAndGet();
+            }
+
+            if ( node.queue != NONE )
+            {
+                write( node, bytes );
+            }
+        }
+
+
+        /**
+         * Moves an entry leaving the window to the main space, if it is more popular than the
+         * entries which have to be evicted to make room for it.
+         */
+        private void admit( Node candidate )
+        {
+            while ( window.weight + probation.weight + protectedQueue.weight + candidate.weight > maxBlocks )
+            {
+                Node victim = ( probation.last != null ) ? probation.last : protectedQueue.last;
+
+                if ( ( victim == null ) || ( sketch.frequency( candidate.hash ) <= sketch.frequency( victim.hash ) ) )
+                {
+                    evict( candidate );
+
+                    return;
+                }
+
+                if ( victim.queue == PROBATION )
+                {
+                    probation.remove( victim );
+                }
+                else
+                {
+                    protectedQueue.remove( victim );
+                }
+
+                evict( victim );
+            }
+
+            probation.addFirst( candidate, PROBATION );
+        }
+
+
+        /**
+         * Updates the queues when an entry is read
+         */
+        private void onAccess( Node node )
+        {
+            switch ( node.queue )
+            {
+                case WINDOW:
+                    window.remove( node );
+                    window.addFirst( node, WINDOW );
+                    break;
+
+                case PROBATION:
+                    probation.remove( node );
+                    protectedQueue.addFirst( node, PROTECTED );
+
+                    while ( protectedQueue.weight > protectedMaxBlocks )
+                    {
+                        Node demoted = protectedQueue.last;
+                        protectedQueue.remove( demoted );
+                        probation.addFirst( demoted, PROBATION );
+                    }
+
+                    break;
+
+                case PROTECTED:
+                    protectedQueue.remove( node );
+                    protectedQueue.addFirst( node, PROTECTED );
+                    break;
+
+                default:
+                    break;
+            }
+        }
+
+
+        /**
+         * Removes an entry which has been unlinked from its queue, counting it as an eviction
+         */
+        private void evict( Node node )
+        {
+            nodes.remove( node.id );
+            freeBlocks( node );
+            evictions.incrementAndGet();
+        }
+
+
+        /**
+         * Unlinks an entry removed from the map and frees its blocks
+         */
+        private void discard( Node node )
+        {
+            switch ( node.queue )
+            {
+                case WINDOW:
+                    window.remove( node );
+                    break;
+
+                case PROBATION:
+                    probation.remove( node );
+                    break;
+
+                case PROTECTED:
+                    protectedQueue.remove( node );
+                    break;
+
+                default:
+                    break;
+            }
+
+            freeBlocks( node );
+        }
+
+
+        /**
+         * Writes the serialized entry in newly allocated blocks
+         */
+        private void write( Node node, byte[] bytes )
+        {
+            node.blocks = new int[node.weight];
+
+            for ( int i = 0, pos = 0; i < node.weight; i++, pos += blockSize )
+            {
+                int block = allocateBlock();
+                node.blocks[i] = block;
+
+                ByteBuffer segment = segments[block / blocksPerSegment];
+                segment.position( ( block % blocksPerSegment ) * blockSize );
+                segment.put( bytes, pos, Math.min( blockSize, bytes.length - pos ) );
+            }
+        }
+
+
+        /**
+         * Copies the serialized entry on the heap
+         */
+        private byte[] read( Node node )
+        {
+            byte[] bytes = new byte[node.length];
+
+            for ( int i = 0, pos = 0; i < node.weight; i++, pos += blockSize )
+            {
+                int block = node.blocks[i];
+
+                ByteBuffer segment = segments[block / blocksPerSegment];
+                segment.position( ( block % blocksPerSegment ) * blockSize );
+                segment.get( bytes, pos, Math.min( blockSize, node.length - pos ) );
+            }
+
+            return bytes;
+        }
+
+
+        /**
+         * Gets a free block. The caller has checked that the cache holds less than the
+         * maximum number of blocks.
+         */
+        private int allocateBlock()
+        {
+            if ( nbFreeBlocks > 0 )
+            {
+                nbFreeBlocks--;
+
+                return freeBlocks[nbFreeBlocks];
+            }
+
+            int block = nextBlock++;
+            int segment = block / blocksPerSegment;
+
+            if ( segments[segment] == null )
+            {
+                int nbBlocks = Math.min( blocksPerSegment, maxBlocks - segment * blocksPerSegment );
+                segments[segment] = ByteBuffer.allocateDirect( nbBlocks * blockSize );
+            }
+
+            return block;
+        }
+
+
+        /**
+         * Gives the blocks of an entry back
+         */
+        private void freeBlocks( Node node )
+        {
+            node.queue = NONE;
+
+            if ( node.blocks == null )
+            {
+                return;
+            }
+
+            if ( nbFreeBlocks + node.blocks.length > freeBlocks.length )
+            {
+                freeBlocks = Arrays.copyOf( freeBlocks, Math.max( freeBlocks.length * 2, nbFreeBlocks
+                    + node.blocks.length ) );
+            }
+
+            System.arraycopy( node.blocks, 0, freeBlocks, nbFreeBlocks, node.blocks.length );
+            nbFreeBlocks += node.blocks.length;
+            node.blocks = null;
+        }
+    }
+
+
+    /**
+     * A cached entry. Only its serialized form is stored off heap.
+     */
+    private static final class Node
+    {
+        /** The entry UUID and its spread hash */
+        private final String id;
+        private final int hash;
+
+        /** The length of the serialized entry */
+        private final int length;
+
+        /** The number of blocks used by the entry */
+        private final int weight;
+
+        /** The blocks, null until the entry is written */
+        private int[] blocks;
+
+        /** The queue the entry is in */
+        private byte queue = NONE;
+
+        /** The previous and next entries in the queue, the previous one being the most recently used */
+        private Node previous;
+        private Node next;
+
+
+        private Node( String id, int hash, int length, int weight )
+        {
+            this.id = id;
+            this.hash = hash;
+            this.length = length;
+            this.weight = weight;
+        }
+    }
+
+
+    /**
+     * A LRU queue, the most recently used entry being the first one
+     */
+    private static final class Queue
+    {
+        private Node first;
+        private Node last;
+
+        /** The number of blocks used by the entries in this queue */
+        private int weight;
+
+
+        private void addFirst( Node node, byte queue )
+        {
+            node.queue = queue;
+            node.previous = null;
+            node.next = first;
+
+            if ( first == null )
+            {
+                last = node;
+            }
+            else
+            {
+                first.previous = node;
+            }
+
+            first = node;
+            weight += node.weight;
+        }
+
+
+        private void remove( Node node )
+        {
+            if ( node.previous == null )
+            {
+                first = node.next;
+            }
+            else
+            {
+                node.previous.next = node.next;
+            }
+
+            if ( node.next == null )
+            {
+                last = node.previous;
+            }
+            else
+            {
+                node.next.previous = node.previous;
+            }
+
+            node.previous = null;
+            node.next = null;
+            weight -= node.weight;
+        }
+
+
+        private void clear()
+        {
+            first = null;
+            last = null;
+            weight = 0;
+        }
+    }
+}
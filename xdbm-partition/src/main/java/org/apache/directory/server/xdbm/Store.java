@@ -143,6 +143,23 @@ public interface Store
     boolean isSyncOnWrite();
 
 
+    /**
+     * Sets the flag telling the search engine to pull the candidates from the indexes
+     * while the entries are read, instead of computing them all before returning the
+     * first entry. The candidates are still computed upfront when they have to be
+     * deduplicated.
+     *
+     * @param streamingSearch A boolean set to true if the candidates should be streamed
+     */
+    void setStreamingSearch( boolean streamingSearch );
+
+
+    /**
+     * @return <code>true</code> if the search candidates are pulled from the indexes on demand
+     */
+    boolean isStreamingSearch();
+
+
     /**
      * Sets the cache size for this store.
      * @param cacheSize The cache size
@@ -257,6 +274,24 @@ public interface Store
     boolean hasUserIndexOn( AttributeType attributeType ) throws LdapException;
 
 
+    /**
+     * Tells if a substring (n-gram) index is present for an attribute
+     * 
+     * @param attributeType The attributeType index we are looking for
+     * @return <code>true</code> if the attribute has a substring index
+     */
+    boolean hasSubstringIndexOn( AttributeType attributeType );
+
+
+    /**
+     * Get the substring (n-gram) index associated with an attribute
+     * 
+     * @param attributeType The attributeType index we are looking for
+     * @return The substring index, or null if the attribute has no substring index
+     */
+    NGramIndex getSubstringIndex( AttributeType attributeType );
+
+
     /**
      * Tells if an index is already present in the System's index list
      * @param attributeType The index we are looking for
@@ -486,4 +521,10 @@ public interface Store
      * @return The cache
      */
     Cache< String, Dn > getAliasCache();
+
+
+    /**
+     * @return The dictionary associating a dense ID to each entry UUID, used to store the search candidates
+     */
+    EntryIdDictionary getEntryIdDictionary();
 }
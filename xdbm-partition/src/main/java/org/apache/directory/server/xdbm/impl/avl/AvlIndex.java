@@ -22,6 +22,7 @@ package org.apache.directory.server.xdbm.impl.avl;
 
 import java.io.IOException;
 import java.net.URI;
+import java.util.Comparator;
 
 import org.apache.directory.api.ldap.model.cursor.Cursor;
 import org.apache.directory.api.ldap.model.cursor.CursorException;
@@ -40,6 +41,7 @@ import org.apache.directory.server.core.partition.impl.btree.IndexCursorAdaptor;
 import org.apache.directory.server.i18n.I18n;
 import org.apache.directory.server.xdbm.AbstractIndex;
 import org.apache.directory.server.xdbm.IndexEntry;
+import org.apache.directory.server.xdbm.Table;
 
 
 /**
@@ -50,8 +52,11 @@ import org.apache.directory.server.xdbm.IndexEntry;
 public class AvlIndex<K> extends AbstractIndex<K, String>
 {
     protected Normalizer normalizer;
-    protected AvlTable<K, String> forward;
-    protected AvlTable<String, K> reverse;
+    protected Table<K, String> forward;
+    protected Table<String, K> reverse;
+
+    /** Tells if the tables must support concurrent reads and writes */
+    private boolean concurrent;
 
 
     public AvlIndex()
@@ -102,7 +107,7 @@ public class AvlIndex<K> extends AbstractIndex<K, String>
          * primary keys.  A value for an attribute can occur several times in
          * different entries so the forward map can have more than one value.
          */
-        forward = new AvlTable<>( attributeType.getName(), comp, UuidComparator.INSTANCE, true );
+        forward = createTable( attributeType.getName(), comp, UuidComparator.INSTANCE, true );
 
         /*
          * Now the reverse map stores the primary key into the master table as
@@ -114,18 +119,66 @@ public class AvlIndex<K> extends AbstractIndex<K, String>
         {
             if ( attributeType.isSingleValued() )
             {
-                reverse = new AvlTable<>( attributeType.getName(), UuidComparator.INSTANCE, comp, false );
+                reverse = createTable( attributeType.getName(), UuidComparator.INSTANCE, comp, false );
             }
             else
             {
-                reverse = new AvlTable<>( attributeType.getName(), UuidComparator.INSTANCE, comp, true );
+                reverse = createTable( attributeType.getName(), UuidComparator.INSTANCE, comp, true );
             }
         }
     }
 
 
+    /**
+     * Creates one of the index tables : a {@link ConcurrentTable} if the index is concurrent,
+     * an {@link AvlTable} otherwise.
+     *
+     * @param name The table name
+     * @param keyComparator The keys comparator
+     * @param valueComparator The values comparator
+     * @param dupsEnabled Tells if a key can have more than one value
+     * @return The created table
+     */
+    protected <T, U> Table<T, U> createTable( String name, Comparator<T> keyComparator,
+        Comparator<U> valueComparator, boolean dupsEnabled )
+    {
+        if ( concurrent )
+        {
+            return new ConcurrentTable<>( name, keyComparator, valueComparator, dupsEnabled );
+        }
+
+        return new AvlTable<>( name, keyComparator, valueComparator, dupsEnabled );
+    }
+
+
+    /**
+     * @return <tt>true</tt> if the index supports concurrent reads and writes
+     */
+    public boolean isConcurrent()
+    {
+        return concurrent;
+    }
+
+
+    /**
+     * Tells the index to use tables supporting concurrent reads and writes. Must be
+     * set before the index is initialized.
+     *
+     * @param concurrent <tt>true</tt> to use {@link ConcurrentTable}s
+     */
+    public void setConcurrent( boolean concurrent )
+    {
+        this.concurrent = concurrent;
+    }
+
+
     public void add( PartitionTxn partitionTxn, K attrVal, String id ) throws LdapException
     {
+        if ( !forward.has( partitionTxn, attrVal, id ) )
+        {
+            statistics.add( attrVal, !forward.has( partitionTxn, attrVal ) );
+        }
+
         forward.put( partitionTxn, attrVal, id );
 
         if ( withReverse )
@@ -188,6 +241,7 @@ public class AvlIndex<K> extends AbstractIndex<K, String>
                     {
                         Tuple<String, K> tuple = cursor.get();
                         forward.remove( partitionTxn, tuple.getValue(), id );
+                        statistics.drop( tuple.getValue(), !forward.has( partitionTxn, tuple.getValue() ) );
                     }
     
                     cursor.close();
@@ -201,6 +255,7 @@ public class AvlIndex<K> extends AbstractIndex<K, String>
             {
                 K key = reverse.get( partitionTxn, id );
                 forward.remove( partitionTxn, key );
+                statistics.drop( key, true );
             }
 
             reverse.remove( partitionTxn, id );
@@ -214,7 +269,11 @@ public class AvlIndex<K> extends AbstractIndex<K, String>
     @Override
     public void drop( PartitionTxn partitionTxn, K attrVal, String id ) throws LdapException
     {
-        forward.remove( partitionTxn, attrVal, id );
+        if ( forward.has( partitionTxn, attrVal, id ) )
+        {
+            forward.remove( partitionTxn, attrVal, id );
+            statistics.drop( attrVal, !forward.has( partitionTxn, attrVal ) );
+        }
 
         if ( withReverse )
         {
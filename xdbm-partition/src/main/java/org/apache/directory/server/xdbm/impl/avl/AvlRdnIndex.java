@@ -84,9 +84,7 @@ public class AvlRdnIndex extends AvlIndex<ParentIdAndRdn>
          * primary keys.  A value for an attribute can occur several times in
          * different entries so the forward map can have more than one value.
          */
-        forward = new AvlTable<ParentIdAndRdn, String>( attributeType.getName(), comp, UuidComparator.INSTANCE,
-            false );
-        reverse = new AvlTable<String, ParentIdAndRdn>( attributeType.getName(), UuidComparator.INSTANCE, comp,
-            false );
+        forward = createTable( attributeType.getName(), comp, UuidComparator.INSTANCE, false );
+        reverse = createTable( attributeType.getName(), UuidComparator.INSTANCE, comp, false );
     }
 }
@@ -0,0 +1,51 @@
+/*
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *   or more contributor license agreements.  See the NOTICE file
+ *   distributed with this work for additional information
+ *   regarding copyright ownership.  The ASF licenses this file
+ *   to you under the Apache License, Version 2.0 (the
+ *   "License"); you may not use this file except in compliance
+ *   with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing,
+ *   software distributed under the License is distributed on an
+ *   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *   KIND, either express or implied.  See the License for the
+ *   specific language governing permissions and limitations
+ *   under the License.
+ *
+ */
+package org.apache.directory.server.xdbm.impl.avl;
+
+
+import java.util.Comparator;
+import java.util.UUID;
+
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.server.xdbm.MasterTable;
+
+
+/**
+ * A MasterTable which can be read and written concurrently.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class ConcurrentMasterTable extends ConcurrentTable<String, Entry> implements MasterTable
+{
+    public ConcurrentMasterTable( String name, Comparator<String> keyComparator, Comparator<Entry> valComparator,
+        boolean dupsEnabled )
+    {
+        super( name, keyComparator, valComparator, dupsEnabled );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public String getNextId( Entry entry )
+    {
+        return UUID.randomUUID().toString();
+    }
+}
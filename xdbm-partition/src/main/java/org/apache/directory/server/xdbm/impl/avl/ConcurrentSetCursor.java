@@ -0,0 +1,313 @@
+/*
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *   or more contributor license agreements.  See the NOTICE file
+ *   distributed with this work for additional information
+ *   regarding copyright ownership.  The ASF licenses this file
+ *   to you under the Apache License, Version 2.0 (the
+ *   "License"); you may not use this file except in compliance
+ *   with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing,
+ *   software distributed under the License is distributed on an
+ *   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *   KIND, either express or implied.  See the License for the
+ *   specific language governing permissions and limitations
+ *   under the License.
+ *
+ */
+package org.apache.directory.server.xdbm.impl.avl;
+
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.NavigableSet;
+
+import org.apache.directory.api.ldap.model.constants.Loggers;
+import org.apache.directory.api.ldap.model.cursor.AbstractCursor;
+import org.apache.directory.api.ldap.model.cursor.CursorException;
+import org.apache.directory.api.ldap.model.cursor.InvalidCursorPositionException;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * A Cursor over a concurrent NavigableSet, like the values of a key in a
+ * {@link ConcurrentTable}. Each move searches the element following (or preceding)
+ * the current one, so the set can be modified while the cursor is being used.
+ *
+ * @param <E> The element type
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class ConcurrentSetCursor<E> extends AbstractCursor<E>
+{
+    /** A dedicated log for cursors */
+    private static final Logger LOG_CURSOR = LoggerFactory.getLogger( Loggers.CURSOR_LOG.getName() );
+
+    /** Speedup for logs */
+    private static final boolean IS_DEBUG = LOG_CURSOR.isDebugEnabled();
+
+    /** The possible positions of the cursor */
+    private enum Position
+    {
+        BEFORE_FIRST,
+        BEFORE_ELEMENT,
+        ON_ELEMENT,
+        AFTER_ELEMENT,
+        AFTER_LAST
+    }
+
+    /** The underlying set */
+    private final NavigableSet<E> set;
+
+    /** The element the cursor is positioned on, or around */
+    private E element;
+
+    /** The position of the cursor relative to the element */
+    private Position position = Position.BEFORE_FIRST;
+
+
+    /**
+     * Creates a new instance of ConcurrentSetCursor.
+     *
+     * @param set The set to browse
+     */
+    public ConcurrentSetCursor( NavigableSet<E> set )
+    {
+        if ( IS_DEBUG )
+        {
+            LOG_CURSOR.debug( "Creating ConcurrentSetCursor {}", this );
+        }
+
+        this.set = set;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean available()
+    {
+        return position == Position.ON_ELEMENT;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public void before( E element ) throws LdapException, CursorException
+    {
+        checkNotClosed();
+
+        if ( element == null )
+        {
+            beforeFirst();
+            return;
+        }
+
+        this.element = element;
+        position = Position.BEFORE_ELEMENT;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public void after( E element ) throws LdapException, CursorException
+    {
+        checkNotClosed();
+
+        if ( element == null )
+        {
+            afterLast();
+            return;
+        }
+
+        this.element = element;
+        position = Position.AFTER_ELEMENT;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public void beforeFirst() throws LdapException, CursorException
+    {
+        checkNotClosed();
+        element = null;
+        position = Position.BEFORE_FIRST;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public void afterLast() throws LdapException, CursorException
+    {
+        checkNotClosed();
+        element = null;
+        position = Position.AFTER_LAST;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean first() throws LdapException, CursorException
+    {
+        beforeFirst();
+
+        return next();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean last() throws LdapException, CursorException
+    {
+        afterLast();
+
+        return previous();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean next() throws LdapException, CursorException
+    {
+        checkNotClosed();
+
+        E found;
+
+        switch ( position )
+        {
+            case BEFORE_FIRST:
+                Iterator<E> iterator = set.iterator();
+                found = iterator.hasNext() ? iterator.next() : null;
+                break;
+
+            case BEFORE_ELEMENT:
+                found = set.ceiling( element );
+                break;
+
+            case ON_ELEMENT:
+            case AFTER_ELEMENT:
+                found = set.higher( element );
+                break;
+
+            case AFTER_LAST:
+                return false;
+
+            default:
+                throw new IllegalStateException( "Unexpected position " + position );
+        }
+
+        if ( found == null )
+        {
+            afterLast();
+
+            return false;
+        }
+
+        element = found;
+        position = Position.ON_ELEMENT;
+
+        return true;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean previous() throws LdapException, CursorException
+    {
+        checkNotClosed();
+
+        E found;
+
+        switch ( position )
+        {
+            case BEFORE_FIRST:
+                return false;
+
+            case BEFORE_ELEMENT:
+            case ON_ELEMENT:
+                found = set.lower( element );
+                break;
+
+            case AFTER_ELEMENT:
+                found = set.floor( element );
+                break;
+
+            case AFTER_LAST:
+                Iterator<E> iterator = set.descendingIterator();
+                found = iterator.hasNext() ? iterator.next() : null;
+                break;
+
+            default:
+                throw new IllegalStateException( "Unexpected position " + position );
+        }
+
+        if ( found == null )
+        {
+            beforeFirst();
+
+            return false;
+        }
+
+        element = found;
+        position = Position.ON_ELEMENT;
+
+        return true;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public E get() throws CursorException
+    {
+        checkNotClosed();
+
+        if ( position == Position.ON_ELEMENT )
+        {
+            return element;
+        }
+
+        throw new InvalidCursorPositionException();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void close() throws IOException
+    {
+        if ( IS_DEBUG )
+        {
+            LOG_CURSOR.debug( "Closing ConcurrentSetCursor {}", this );
+        }
+
+        super.close();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void close( Exception reason ) throws IOException
+    {
+        if ( IS_DEBUG )
+        {
+            LOG_CURSOR.debug( "Closing ConcurrentSetCursor {}", this );
+        }
+
+        super.close( reason );
+    }
+}
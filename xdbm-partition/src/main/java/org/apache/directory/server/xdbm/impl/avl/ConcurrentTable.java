@@ -0,0 +1,810 @@
+/*
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *   or more contributor license agreements.  See the NOTICE file
+ *   distributed with this work for additional information
+ *   regarding copyright ownership.  The ASF licenses this file
+ *   to you under the Apache License, Version 2.0 (the
+ *   "License"); you may not use this file except in compliance
+ *   with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing,
+ *   software distributed under the License is distributed on an
+ *   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *   KIND, either express or implied.  See the License for the
+ *   specific language governing permissions and limitations
+ *   under the License.
+ *
+ */
+package org.apache.directory.server.xdbm.impl.avl;
+
+
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.directory.api.ldap.model.cursor.Cursor;
+import org.apache.directory.api.ldap.model.cursor.EmptyCursor;
+import org.apache.directory.api.ldap.model.cursor.SingletonCursor;
+import org.apache.directory.api.ldap.model.cursor.Tuple;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.server.core.api.partition.PartitionTxn;
+import org.apache.directory.server.xdbm.AbstractTable;
+
+
+/**
+ * An in memory Table implementation which can be read and written concurrently.
+ * The tuples are stored in a {@link ConcurrentSkipListMap}, the values of a key
+ * being stored in a {@link ConcurrentSkipListSet} when duplicates are allowed.
+ * <p>
+ * Readers never lock : they see the tuples as they are when they reach them, and
+ * the cursors remain valid while the table is being modified. The writers only
+ * synchronize on the set of values of the key they modify.
+ *
+ * @param <K> The key
+ * @param <V> The stored value
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class ConcurrentTable<K, V> extends AbstractTable<K, V>
+{
+    /** The tuples, when duplicates are not allowed */
+    private final ConcurrentSkipListMap<K, V> singles;
+
+    /** The values of each key, when duplicates are allowed */
+    private final ConcurrentSkipListMap<K, Values<V>> duplicates;
+
+    /** The number of tuples */
+    private final AtomicLong size = new AtomicLong();
+
+    /** A comparator on the tuples keys */
+    private final Comparator<Tuple<K, V>> keyOnlytupleComparator;
+
+
+    /**
+     * The values associated with a key, when duplicates are allowed. A set of values
+     * is only modified while holding its monitor. Once its last value has been removed,
+     * it's retired and can't be modified anymore : a writer must then use a new set.
+     */
+    static final class Values<V>
+    {
+        /** The values */
+        final ConcurrentSkipListSet<V> set;
+
+        /** The number of values in the set, which size() computes in linear time */
+        volatile int nbValues;
+
+        /** Tells if the set has been removed from the table */
+        boolean retired;
+
+
+        Values( Comparator<V> valueComparator )
+        {
+            set = new ConcurrentSkipListSet<>( valueComparator );
+        }
+
+
+        V first()
+        {
+            Iterator<V> iterator = set.iterator();
+
+            return iterator.hasNext() ? iterator.next() : null;
+        }
+
+
+        V last()
+        {
+            Iterator<V> iterator = set.descendingIterator();
+
+            return iterator.hasNext() ? iterator.next() : null;
+        }
+    }
+
+
+    /**
+     * Creates a new instance of ConcurrentTable.
+     *
+     * @param name The table name
+     * @param keyComparator The keys comparator
+     * @param valueComparator The values comparator
+     * @param dupsEnabled Tells if a key can have more than one value
+     */
+    public ConcurrentTable( String name, final Comparator<K> keyComparator, Comparator<V> valueComparator,
+        boolean dupsEnabled )
+    {
+        super( null, name, keyComparator, valueComparator );
+        allowsDuplicates = dupsEnabled;
+
+        if ( dupsEnabled )
+        {
+            singles = null;
+            duplicates = new ConcurrentSkipListMap<>( keyComparator );
+        }
+        else
+        {
+            singles = new ConcurrentSkipListMap<>( keyComparator );
+            duplicates = null;
+        }
+
+        this.keyOnlytupleComparator = new Comparator<Tuple<K, V>>()
+        {
+            public int compare( Tuple<K, V> t0, Tuple<K, V> t1 )
+            {
+                return keyComparator.compare( t0.getKey(), t1.getKey() );
+            }
+        };
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void close( PartitionTxn transaction ) throws LdapException
+    {
+        if ( allowsDuplicates )
+        {
+            duplicates.clear();
+        }
+        else
+        {
+            singles.clear();
+        }
+
+        size.set( 0L );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long count( PartitionTxn transaction ) throws LdapException
+    {
+        return size.get();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long count( PartitionTxn transaction, K key ) throws LdapException
+    {
+        if ( key == null )
+        {
+            return 0L;
+        }
+
+        if ( !allowsDuplicates )
+        {
+            return singles.containsKey( key ) ? 1L : 0L;
+        }
+
+        Values<V> values = duplicates.get( key );
+
+        if ( values == null )
+        {
+            return 0L;
+        }
+
+        return values.nbValues;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public V get( PartitionTxn transaction, K key ) throws LdapException
+    {
+        if ( key == null )
+        {
+            return null;
+        }
+
+        if ( !allowsDuplicates )
+        {
+            return singles.get( key );
+        }
+
+        Values<V> values = duplicates.get( key );
+
+        if ( values == null )
+        {
+            return null;
+        }
+
+        return values.first();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long greaterThanCount( PartitionTxn transaction, K key ) throws LdapException
+    {
+        return size.get();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long lessThanCount( PartitionTxn transaction, K key ) throws LdapException
+    {
+        return size.get();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean has( PartitionTxn transaction, K key ) throws LdapException
+    {
+        return get( transaction, key ) != null;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean has( PartitionTxn transaction, K key, V value ) throws LdapException
+    {
+        if ( ( key == null ) || ( value == null ) )
+        {
+            return false;
+        }
+
+        if ( !allowsDuplicates )
+        {
+            V stored = singles.get( key );
+
+            return ( stored != null ) && equal( stored, value );
+        }
+
+        Values<V> values = duplicates.get( key );
+
+        return ( values != null ) && values.set.contains( value );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean hasGreaterOrEqual( PartitionTxn transaction, K key ) throws LdapException
+    {
+        if ( key == null )
+        {
+            return false;
+        }
+
+        return ceiling( key, null ) != null;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean hasGreaterOrEqual( PartitionTxn transaction, K key, V val ) throws LdapException
+    {
+        if ( key == null )
+        {
+            return false;
+        }
+
+        Tuple<K, V> tuple = ceiling( key, null );
+
+        if ( tuple == null )
+        {
+            return false;
+        }
+
+        if ( allowsDuplicates )
+        {
+            Values<V> values = duplicates.get( tuple.getKey() );
+
+            return ( values != null ) && ( values.set.ceiling( val ) != null );
+        }
+
+        return valueComparator.compare( tuple.getValue(), val ) >= 0;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean hasLessOrEqual( PartitionTxn transaction, K key ) throws LdapException
+    {
+        if ( key == null )
+        {
+            return false;
+        }
+
+        return floor( key, null ) != null;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean hasLessOrEqual( PartitionTxn transaction, K key, V val ) throws LdapException
+    {
+        if ( key == null )
+        {
+            return false;
+        }
+
+        Tuple<K, V> tuple = floor( key, null );
+
+        if ( tuple == null )
+        {
+            return false;
+        }
+
+        if ( allowsDuplicates )
+        {
+            Values<V> values = duplicates.get( tuple.getKey() );
+
+            return ( values != null ) && ( values.set.floor( val ) != null );
+        }
+
+        return valueComparator.compare( tuple.getValue(), val ) <= 0;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void put( PartitionTxn partitionTxn, K key, V value ) throws LdapException
+    {
+        if ( ( key == null ) || ( value == null ) )
+        {
+            return;
+        }
+
+        if ( !allowsDuplicates )
+        {
+            if ( singles.put( key, value ) == null )
+            {
+                size.incrementAndGet();
+            }
+
+            return;
+        }
+
+        while ( true )
+        {
+            Values<V> values = duplicates.get( key );
+
+            if ( values == null )
+            {
+                values = new Values<>( valueComparator );
+                Values<V> existing = duplicates.putIfAbsent( key, values );
+
+                if ( existing != null )
+                {
+                    values = existing;
+                }
+            }
+
+            synchronized ( values )
+            {
+                if ( values.retired )
+                {
+                    // The values have been removed meanwhile, try again
+                    continue;
+                }
+
+                if ( values.set.add( value ) )
+                {
+                    values.nbValues++;
+                    size.incrementAndGet();
+                }
+
+                return;
+            }
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void remove( PartitionTxn partitionTxn, K key ) throws LdapException
+    {
+        if ( key == null )
+        {
+            return;
+        }
+
+        if ( !allowsDuplicates )
+        {
+            if ( singles.remove( key ) != null )
+            {
+                size.decrementAndGet();
+            }
+
+            return;
+        }
+
+        Values<V> values = duplicates.remove( key );
+
+        if ( values != null )
+        {
+            synchronized ( values )
+            {
+                values.retired = true;
+                size.addAndGet( -values.nbValues );
+            }
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void remove( PartitionTxn partitionTxn, K key, V value ) throws LdapException
+    {
+        if ( ( key == null ) || ( value == null ) )
+        {
+            return;
+        }
+
+        if ( !allowsDuplicates )
+        {
+            V stored = singles.get( key );
+
+            if ( ( stored != null ) && equal( stored, value ) && singles.remove( key, stored ) )
+            {
+                size.decrementAndGet();
+            }
+
+            return;
+        }
+
+        Values<V> values = duplicates.get( key );
+
+        if ( values == null )
+        {
+            return;
+        }
+
+        synchronized ( values )
+        {
+            if ( values.retired || !values.set.remove( value ) )
+            {
+                return;
+            }
+
+            values.nbValues--;
+            size.decrementAndGet();
+
+            if ( values.nbValues == 0 )
+            {
+                values.retired = true;
+                duplicates.remove( key, values );
+            }
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Cursor<Tuple<K, V>> cursor()
+    {
+        return new ConcurrentTableCursor<>( this, null );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Cursor<Tuple<K, V>> cursor( PartitionTxn partitionTxn, K key ) throws LdapException
+    {
+        if ( key == null )
+        {
+            return new EmptyCursor<>();
+        }
+
+        if ( allowsDuplicates )
+        {
+            return new ConcurrentTableCursor<>( this, key );
+        }
+
+        V value = singles.get( key );
+
+        if ( value == null )
+        {
+            return new EmptyCursor<>();
+        }
+
+        return new SingletonCursor<>( new Tuple<K, V>( key, value ), keyOnlytupleComparator );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Cursor<V> valueCursor( PartitionTxn transaction, K key ) throws LdapException
+    {
+        if ( key == null )
+        {
+            return new EmptyCursor<>();
+        }
+
+        if ( allowsDuplicates )
+        {
+            Values<V> values = duplicates.get( key );
+
+            if ( values == null )
+            {
+                return new EmptyCursor<>();
+            }
+
+            return new ConcurrentSetCursor<>( values.set );
+        }
+
+        V value = singles.get( key );
+
+        if ( value == null )
+        {
+            return new EmptyCursor<>();
+        }
+
+        return new SingletonCursor<>( value, valueComparator );
+    }
+
+
+    //---------------------------------------------------------------------------------------------
+    // Navigation, used by the cursors. A null value stands for a value lower than all the
+    // values of the key for ceiling and lower, and higher than all of them for higher and floor.
+    // The values are not taken into account when duplicates are not allowed.
+    //---------------------------------------------------------------------------------------------
+    /**
+     * @return The first tuple of the table, or null if it's empty
+     */
+    Tuple<K, V> first()
+    {
+        if ( allowsDuplicates )
+        {
+            return firstFrom( duplicates.firstEntry() );
+        }
+
+        return toTuple( singles.firstEntry() );
+    }
+
+
+    /**
+     * @return The last tuple of the table, or null if it's empty
+     */
+    Tuple<K, V> last()
+    {
+        if ( allowsDuplicates )
+        {
+            return lastFrom( duplicates.lastEntry() );
+        }
+
+        return toTuple( singles.lastEntry() );
+    }
+
+
+    /**
+     * @return The lowest tuple greater than or equal to the given key and value
+     */
+    Tuple<K, V> ceiling( K key, V value )
+    {
+        if ( !allowsDuplicates )
+        {
+            return toTuple( singles.ceilingEntry( key ) );
+        }
+
+        if ( value != null )
+        {
+            Tuple<K, V> tuple = ceilingValue( key, value, true );
+
+            if ( tuple != null )
+            {
+                return tuple;
+            }
+
+            return firstFrom( duplicates.higherEntry( key ) );
+        }
+
+        return firstFrom( duplicates.ceilingEntry( key ) );
+    }
+
+
+    /**
+     * @return The lowest tuple strictly greater than the given key and value
+     */
+    Tuple<K, V> higher( K key, V value )
+    {
+        if ( !allowsDuplicates )
+        {
+            return toTuple( singles.higherEntry( key ) );
+        }
+
+        if ( value != null )
+        {
+            Tuple<K, V> tuple = ceilingValue( key, value, false );
+
+            if ( tuple != null )
+            {
+                return tuple;
+            }
+        }
+
+        return firstFrom( duplicates.higherEntry( key ) );
+    }
+
+
+    /**
+     * @return The greatest tuple lower than or equal to the given key and value
+     */
+    Tuple<K, V> floor( K key, V value )
+    {
+        if ( !allowsDuplicates )
+        {
+            return toTuple( singles.floorEntry( key ) );
+        }
+
+        if ( value != null )
+        {
+            Tuple<K, V> tuple = floorValue( key, value, true );
+
+            if ( tuple != null )
+            {
+                return tuple;
+            }
+
+            return lastFrom( duplicates.lowerEntry( key ) );
+        }
+
+        return lastFrom( duplicates.floorEntry( key ) );
+    }
+
+
+    /**
+     * @return The greatest tuple strictly lower than the given key and value
+     */
+    Tuple<K, V> lower( K key, V value )
+    {
+        if ( !allowsDuplicates )
+        {
+            return toTuple( singles.lowerEntry( key ) );
+        }
+
+        if ( value != null )
+        {
+            Tuple<K, V> tuple = floorValue( key, value, false );
+
+            if ( tuple != null )
+            {
+                return tuple;
+            }
+        }
+
+        return lastFrom( duplicates.lowerEntry( key ) );
+    }
+
+
+    /**
+     * Searches a value of the given key greater than (or equal to) the given value
+     */
+    private Tuple<K, V> ceilingValue( K key, V value, boolean inclusive )
+    {
+        Values<V> values = duplicates.get( key );
+
+        if ( values == null )
+        {
+            return null;
+        }
+
+        V found = inclusive ? values.set.ceiling( value ) : values.set.higher( value );
+
+        return found == null ? null : new Tuple<>( key, found );
+    }
+
+
+    /**
+     * Searches a value of the given key lower than (or equal to) the given value
+     */
+    private Tuple<K, V> floorValue( K key, V value, boolean inclusive )
+    {
+        Values<V> values = duplicates.get( key );
+
+        if ( values == null )
+        {
+            return null;
+        }
+
+        V found = inclusive ? values.set.floor( value ) : values.set.lower( value );
+
+        return found == null ? null : new Tuple<>( key, found );
+    }
+
+
+    /**
+     * @return The first value of the first key, starting from the given entry, which
+     * still has some values
+     */
+    private Tuple<K, V> firstFrom( Map.Entry<K, Values<V>> entry )
+    {
+        while ( entry != null )
+        {
+            V value = entry.getValue().first();
+
+            if ( value != null )
+            {
+                return new Tuple<>( entry.getKey(), value );
+            }
+
+            entry = duplicates.higherEntry( entry.getKey() );
+        }
+
+        return null;
+    }
+
+
+    /**
+     * @return The last value of the last key, starting backward from the given entry,
+     * which still has some values
+     */
+    private Tuple<K, V> lastFrom( Map.Entry<K, Values<V>> entry )
+    {
+        while ( entry != null )
+        {
+            V value = entry.getValue().last();
+
+            if ( value != null )
+            {
+                return new Tuple<>( entry.getKey(), value );
+            }
+
+            entry = duplicates.lowerEntry( entry.getKey() );
+        }
+
+        return null;
+    }
+
+
+    private Tuple<K, V> toTuple( Map.Entry<K, V> entry )
+    {
+        if ( entry == null )
+        {
+            return null;
+        }
+
+        return new Tuple<>( entry.getKey(), entry.getValue() );
+    }
+
+
+    private boolean equal( V stored, V value )
+    {
+        if ( valueComparator == null )
+        {
+            return stored.equals( value );
+        }
+
+        return valueComparator.compare( stored, value ) == 0;
+    }
+}
@@ -0,0 +1,395 @@
+/*
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *   or more contributor license agreements.  See the NOTICE file
+ *   distributed with this work for additional information
+ *   regarding copyright ownership.  The ASF licenses this file
+ *   to you under the Apache License, Version 2.0 (the
+ *   "License"); you may not use this file except in compliance
+ *   with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing,
+ *   software distributed under the License is distributed on an
+ *   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *   KIND, either express or implied.  See the License for the
+ *   specific language governing permissions and limitations
+ *   under the License.
+ *
+ */
+package org.apache.directory.server.xdbm.impl.avl;
+
+
+import java.io.IOException;
+
+import org.apache.directory.api.ldap.model.constants.Loggers;
+import org.apache.directory.api.ldap.model.cursor.AbstractCursor;
+import org.apache.directory.api.ldap.model.cursor.CursorException;
+import org.apache.directory.api.ldap.model.cursor.InvalidCursorPositionException;
+import org.apache.directory.api.ldap.model.cursor.Tuple;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * A Cursor over the tuples of a {@link ConcurrentTable}, or over the tuples of one of
+ * its keys. It doesn't hold any node of the table : each move searches the tuple
+ * following (or preceding) the current one, so the table can be modified while the
+ * cursor is being used.
+ *
+ * @param <K> The key
+ * @param <V> The stored value
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class ConcurrentTableCursor<K, V> extends AbstractCursor<Tuple<K, V>>
+{
+    /** A dedicated log for cursors */
+    private static final Logger LOG_CURSOR = LoggerFactory.getLogger( Loggers.CURSOR_LOG.getName() );
+
+    /** Speedup for logs */
+    private static final boolean IS_DEBUG = LOG_CURSOR.isDebugEnabled();
+
+    /** The possible positions of the cursor */
+    private enum Position
+    {
+        BEFORE_FIRST,
+        BEFORE_TUPLE,
+        ON_TUPLE,
+        AFTER_TUPLE,
+        AFTER_LAST
+    }
+
+    /** The table this cursor traverses over */
+    private final ConcurrentTable<K, V> table;
+
+    /** The only key this cursor returns the tuples of, if not null */
+    private final K onlyKey;
+
+    /** The tuple the cursor is positioned on, or around */
+    private K key;
+    private V value;
+
+    /** The position of the cursor relative to the tuple */
+    private Position position = Position.BEFORE_FIRST;
+
+
+    /**
+     * Creates a new instance of ConcurrentTableCursor.
+     *
+     * @param table The table to browse
+     * @param onlyKey The key to restrict the cursor to, or null to browse the whole table
+     */
+    public ConcurrentTableCursor( ConcurrentTable<K, V> table, K onlyKey )
+    {
+        if ( IS_DEBUG )
+        {
+            LOG_CURSOR.debug( "Creating ConcurrentTableCursor {}", this );
+        }
+
+        this.table = table;
+        this.onlyKey = onlyKey;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean available()
+    {
+        return position == Position.ON_TUPLE;
+    }
+
+
+    /**
+     * Positions the cursor before the first value of the given key
+     *
+     * @param key The key
+     * @throws LdapException If the cursor is closed
+     * @throws CursorException If the cursor is closed
+     */
+    public void beforeKey( K key ) throws LdapException, CursorException
+    {
+        beforeValue( key, null );
+    }
+
+
+    /**
+     * Positions the cursor before the given value of the given key
+     *
+     * @param key The key
+     * @param value The value, or null to position the cursor before all the values of the key
+     * @throws LdapException If the cursor is closed
+     * @throws CursorException If the cursor is closed
+     */
+    public void beforeValue( K key, V value ) throws LdapException, CursorException
+    {
+        checkNotClosed();
+        this.key = key;
+        this.value = value;
+        position = Position.BEFORE_TUPLE;
+    }
+
+
+    /**
+     * Positions the cursor after the last value of the given key
+     *
+     * @param key The key
+     * @throws LdapException If the cursor is closed
+     * @throws CursorException If the cursor is closed
+     */
+    public void afterKey( K key ) throws LdapException, CursorException
+    {
+        afterValue( key, null );
+    }
+
+
+    /**
+     * Positions the cursor after the given value of the given key
+     *
+     * @param key The key
+     * @param value The value, or null to position the cursor after all the values of the key
+     * @throws LdapException If the cursor is closed
+     * @throws CursorException If the cursor is closed
+     */
+    public void afterValue( K key, V value ) throws LdapException, CursorException
+    {
+        checkNotClosed();
+        this.key = key;
+        this.value = value;
+        position = Position.AFTER_TUPLE;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public void before( Tuple<K, V> element ) throws LdapException, CursorException
+    {
+        if ( element == null )
+        {
+            beforeFirst();
+            return;
+        }
+
+        beforeValue( element.getKey(), element.getValue() );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public void after( Tuple<K, V> element ) throws LdapException, CursorException
+    {
+        if ( element == null )
+        {
+            afterLast();
+            return;
+        }
+
+        afterValue( element.getKey(), element.getValue() );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public void beforeFirst() throws LdapException, CursorException
+    {
+        checkNotClosed();
+        clear( Position.BEFORE_FIRST );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public void afterLast() throws LdapException, CursorException
+    {
+        checkNotClosed();
+        clear( Position.AFTER_LAST );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean first() throws LdapException, CursorException
+    {
+        beforeFirst();
+
+        return next();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean last() throws LdapException, CursorException
+    {
+        afterLast();
+
+        return previous();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean next() throws LdapException, CursorException
+    {
+        checkNotClosed();
+
+        Tuple<K, V> tuple;
+
+        switch ( position )
+        {
+            case BEFORE_FIRST:
+                tuple = ( onlyKey == null ) ? table.first() : table.ceiling( onlyKey, null );
+                break;
+
+            case BEFORE_TUPLE:
+                tuple = table.ceiling( key, value );
+                break;
+
+            case ON_TUPLE:
+            case AFTER_TUPLE:
+                tuple = table.higher( key, value );
+                break;
+
+            case AFTER_LAST:
+                return false;
+
+            default:
+                throw new IllegalStateException( "Unexpected position " + position );
+        }
+
+        if ( !isInRange( tuple ) )
+        {
+            clear( Position.AFTER_LAST );
+
+            return false;
+        }
+
+        setTuple( tuple );
+
+        return true;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean previous() throws LdapException, CursorException
+    {
+        checkNotClosed();
+
+        Tuple<K, V> tuple;
+
+        switch ( position )
+        {
+            case BEFORE_FIRST:
+                return false;
+
+            case BEFORE_TUPLE:
+            case ON_TUPLE:
+                tuple = table.lower( key, value );
+                break;
+
+            case AFTER_TUPLE:
+                tuple = table.floor( key, value );
+                break;
+
+            case AFTER_LAST:
+                tuple = ( onlyKey == null ) ? table.last() : table.floor( onlyKey, null );
+                break;
+
+            default:
+                throw new IllegalStateException( "Unexpected position " + position );
+        }
+
+        if ( !isInRange( tuple ) )
+        {
+            clear( Position.BEFORE_FIRST );
+
+            return false;
+        }
+
+        setTuple( tuple );
+
+        return true;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public Tuple<K, V> get() throws CursorException
+    {
+        checkNotClosed();
+
+        if ( position == Position.ON_TUPLE )
+        {
+            return new Tuple<>( key, value );
+        }
+
+        throw new InvalidCursorPositionException();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void close() throws IOException
+    {
+        if ( IS_DEBUG )
+        {
+            LOG_CURSOR.debug( "Closing ConcurrentTableCursor {}", this );
+        }
+
+        super.close();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void close( Exception reason ) throws IOException
+    {
+        if ( IS_DEBUG )
+        {
+            LOG_CURSOR.debug( "Closing ConcurrentTableCursor {}", this );
+        }
+
+        super.close( reason );
+    }
+
+
+    private boolean isInRange( Tuple<K, V> tuple )
+    {
+        if ( tuple == null )
+        {
+            return false;
+        }
+
+        return ( onlyKey == null ) || ( table.getKeyComparator().compare( onlyKey, tuple.getKey() ) == 0 );
+    }
+
+
+    private void setTuple( Tuple<K, V> tuple )
+    {
+        key = tuple.getKey();
+        value = tuple.getValue();
+        position = Position.ON_TUPLE;
+    }
+
+
+    private void clear( Position position )
+    {
+        key = null;
+        value = null;
+        this.position = position;
+    }
+}
@@ -22,17 +22,19 @@ package org.apache.directory.server.xdbm.search;
 
 import java.util.Set;
 
+import org.apache.directory.api.ldap.model.cursor.Cursor;
 import org.apache.directory.api.ldap.model.cursor.SetCursor;
 import org.apache.directory.api.ldap.model.filter.ExprNode;
 import org.apache.directory.api.ldap.model.message.AliasDerefMode;
 import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.server.xdbm.IdBitmap;
 import org.apache.directory.server.xdbm.IndexEntry;
 
 
 /**
  * A class containing the result of a search :
  * <ul>
- * <li>A set of candidate UUIDs</li>
+ * <li>A bitmap of candidate IDs</li>
  * <li>A set of aliased entry if we have any</li>
  * <li>A flag telling if we are dereferencing aliases or not</li>
  * <li>A hierarchy of evaluators to use to validate the candidates</li>
@@ -41,11 +43,14 @@ import org.apache.directory.server.xdbm.IndexEntry;
  */
 public class PartitionSearchResult
 {
-    /** The set of candidate UUIDs selected by the search */
-    private SetCursor<IndexEntry<String, String>> resultSet;
+    /** The cursor over the candidate UUIDs selected by the search */
+    private Cursor<IndexEntry<String, String>> resultSet;
 
-    /** The set of candidate UUIDs */
-    private Set<String> candidateSet;
+    /** The candidate IDs, as assigned by the partition EntryIdDictionary */
+    private IdBitmap candidates;
+
+    /** Tells if the candidates are pulled from the indexes while the resultSet is read */
+    private boolean streamed;
 
     /** The flag indicating if we are dereferencing the aliases. Default to Never. */
     private AliasDerefMode aliasDerefMode = AliasDerefMode.NEVER_DEREF_ALIASES;
@@ -71,12 +76,21 @@ public class PartitionSearchResult
     /**
      * @return the resultSet
      */
-    public SetCursor<IndexEntry<String, String>> getResultSet()
+    public Cursor<IndexEntry<String, String>> getResultSet()
     {
         return resultSet;
     }
 
 
+    /**
+     * @param cursor the cursor over the resultSet to set
+     */
+    public void setResultSet( Cursor<IndexEntry<String, String>> cursor )
+    {
+        resultSet = cursor;
+    }
+
+
     /**
      * @param set the resultSet to set
      */
@@ -87,20 +101,38 @@ public class PartitionSearchResult
 
 
     /**
-     * @return the candidateSet
+     * @return the candidates
      */
-    public Set<String> getCandidateSet()
+    public IdBitmap getCandidates()
     {
-        return candidateSet;
+        return candidates;
     }
 
 
     /**
-     * @param set the candidateSet to set
+     * @param candidates the candidates to set
      */
-    public void setCandidateSet( Set<String> set )
+    public void setCandidates( IdBitmap candidates )
     {
-        candidateSet = set;
+        this.candidates = candidates;
+    }
+
+
+    /**
+     * @return <tt>true</tt> if the candidates are read from the indexes while the resultSet is read
+     */
+    public boolean isStreamed()
+    {
+        return streamed;
+    }
+
+
+    /**
+     * @param streamed Tells if the candidates are read from the indexes while the resultSet is read
+     */
+    public void setStreamed( boolean streamed )
+    {
+        this.streamed = streamed;
     }
 
 
@@ -200,6 +232,11 @@ public class PartitionSearchResult
         {
             sb.append( "No UUID found" );
         }
+        else if ( streamed )
+        {
+            // Don't read the indexes just to print the candidates
+            sb.append( "UUIDs read on demand" );
+        }
         else
         {
             sb.append( '{' );
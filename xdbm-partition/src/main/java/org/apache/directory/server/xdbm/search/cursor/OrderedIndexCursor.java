@@ -0,0 +1,365 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.xdbm.search.cursor;
+
+
+import java.io.IOException;
+import java.util.Comparator;
+
+import org.apache.directory.api.ldap.model.constants.Loggers;
+import org.apache.directory.api.ldap.model.cursor.Cursor;
+import org.apache.directory.api.ldap.model.cursor.CursorException;
+import org.apache.directory.api.ldap.model.cursor.InvalidCursorPositionException;
+import org.apache.directory.api.ldap.model.entry.Attribute;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.entry.Value;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.schema.AttributeType;
+import org.apache.directory.server.core.api.partition.PartitionTxn;
+import org.apache.directory.server.i18n.I18n;
+import org.apache.directory.server.xdbm.AbstractIndexCursor;
+import org.apache.directory.server.xdbm.Index;
+import org.apache.directory.server.xdbm.IndexEntry;
+import org.apache.directory.server.xdbm.Store;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * A cursor walking an attribute index in the key order, or in the reverse order, used to
+ * return the entries sorted on this attribute without having to sort them. An entry is
+ * returned once, at the position of its smallest value, as specified by RFC 2891 for
+ * multi-valued attributes. The candidates still have to be evaluated against the filter.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class OrderedIndexCursor extends AbstractIndexCursor<String>
+{
+    /** A dedicated log for cursors */
+    private static final Logger LOG_CURSOR = LoggerFactory.getLogger( Loggers.CURSOR_LOG.getName() );
+
+    /** Speedup for logs */
+    private static final boolean IS_DEBUG = LOG_CURSOR.isDebugEnabled();
+
+    private static final String UNSUPPORTED_MSG = I18n.err( I18n.ERR_724 );
+
+    /** The store */
+    private final Store store;
+
+    /** The wrapped index cursor */
+    private final Cursor<IndexEntry<String, String>> indexCursor;
+
+    /** The sorted attribute */
+    private final AttributeType attributeType;
+
+    /** The comparator used to find the smallest value of multi-valued attributes, null if single valued */
+    private final Comparator<String> comparator;
+
+    /** Tells if the index is walked in the reverse order */
+    private final boolean reverse;
+
+    /** The current candidate */
+    private IndexEntry<String, String> prefetched;
+
+
+    /**
+     * Creates a new instance of an OrderedIndexCursor
+     *
+     * @param partitionTxn The transaction to use
+     * @param store The store
+     * @param index The sorted attribute index
+     * @param comparator The comparator of the index keys, used for multi-valued attributes
+     * @param reverse Tells if the entries are returned in the reverse order
+     * @throws LdapException If the cursor can't be created
+     */
+    public OrderedIndexCursor( PartitionTxn partitionTxn, Store store, Index<String, String> index,
+        Comparator<String> comparator, boolean reverse ) throws LdapException
+    {
+        if ( IS_DEBUG )
+        {
+            LOG_CURSOR.debug( "Creating OrderedIndexCursor {}", this );
+        }
+
+        this.partitionTxn = partitionTxn;
+        this.store = store;
+        this.attributeType = index.getAttribute();
+        this.reverse = reverse;
+
+        if ( attributeType.isSingleValued() )
+        {
+            this.comparator = null;
+        }
+        else
+        {
+            this.comparator = comparator;
+        }
+
+        indexCursor = index.forwardCursor( partitionTxn );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    protected String getUnsupportedMessage()
+    {
+        return UNSUPPORTED_MSG;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public void beforeFirst() throws LdapException, CursorException
+    {
+        checkNotClosed();
+
+        if ( reverse )
+        {
+            indexCursor.afterLast();
+        }
+        else
+        {
+            indexCursor.beforeFirst();
+        }
+
+        prefetched = null;
+        setAvailable( false );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public void afterLast() throws LdapException, CursorException
+    {
+        checkNotClosed();
+
+        if ( reverse )
+        {
+            indexCursor.beforeFirst();
+        }
+        else
+        {
+            indexCursor.afterLast();
+        }
+
+        prefetched = null;
+        setAvailable( false );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean first() throws LdapException, CursorException
+    {
+        beforeFirst();
+
+        return next();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean last() throws LdapException, CursorException
+    {
+        afterLast();
+
+        return previous();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean next() throws LdapException, CursorException
+    {
+        return move( !reverse );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean previous() throws LdapException, CursorException
+    {
+        return move( reverse );
+    }
+
+
+    /**
+     * Moves the index cursor forward or backward until we find an index entry
+     * associated with the smallest value of an entry.
+     */
+    private boolean move( boolean forward ) throws LdapException, CursorException
+    {
+        checkNotClosed();
+
+        while ( forward ? indexCursor.next() : indexCursor.previous() )
+        {
+            checkNotClosed();
+            IndexEntry<String, String> indexEntry = indexCursor.get();
+            IndexEntry<String, String> candidate = new IndexEntry<>();
+            candidate.setKey( indexEntry.getKey() );
+            candidate.setId( indexEntry.getId() );
+
+            if ( isSmallestValue( candidate ) )
+            {
+                prefetched = candidate;
+
+                return setAvailable( true );
+            }
+        }
+
+        prefetched = null;
+
+        return setAvailable( false );
+    }
+
+
+    /**
+     * Tells if the index entry key is the smallest value of the entry. The fetched entry
+     * is kept in the index entry, so that the evaluator does not have to read it again.
+     */
+    private boolean isSmallestValue( IndexEntry<String, String> candidate ) throws LdapException
+    {
+        if ( comparator == null )
+        {
+            return true;
+        }
+
+        Entry entry = store.fetch( partitionTxn, candidate.getId() );
+
+        if ( entry == null )
+        {
+            return false;
+        }
+
+        Attribute attribute = entry.get( attributeType );
+
+        if ( attribute == null )
+        {
+            return false;
+        }
+
+        String smallest = null;
+
+        for ( Value value : attribute )
+        {
+            String normalized = value.getNormalized();
+
+            if ( ( smallest == null ) || ( comparator.compare( normalized, smallest ) < 0 ) )
+            {
+                smallest = normalized;
+            }
+        }
+
+        candidate.setEntry( entry );
+
+        return comparator.compare( candidate.getKey(), smallest ) == 0;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public IndexEntry<String, String> get() throws CursorException
+    {
+        checkNotClosed();
+
+        if ( available() )
+        {
+            return prefetched;
+        }
+
+        throw new InvalidCursorPositionException( I18n.err( I18n.ERR_708 ) );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void close() throws IOException
+    {
+        if ( IS_DEBUG )
+        {
+            LOG_CURSOR.debug( "Closing OrderedIndexCursor {}", this );
+        }
+
+        super.close();
+        indexCursor.close();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void close( Exception cause ) throws IOException
+    {
+        if ( IS_DEBUG )
+        {
+            LOG_CURSOR.debug( "Closing OrderedIndexCursor {}", this );
+        }
+
+        super.close( cause );
+        indexCursor.close( cause );
+    }
+
+
+    /**
+     * @see Object#toString()
+     */
+    @Override
+    public String toString( String tabs )
+    {
+        StringBuilder sb = new StringBuilder();
+
+        sb.append( tabs ).append( "OrderedIndexCursor (" );
+
+        if ( available() )
+        {
+            sb.append( "available)" );
+        }
+        else
+        {
+            sb.append( "absent)" );
+        }
+
+        sb.append( reverse ? " reverse" : "" ).append( " on " ).append( attributeType.getName() ).append( " :\n" );
+        sb.append( indexCursor.toString( tabs + "    " ) );
+
+        return sb.toString();
+    }
+
+
+    /**
+     * @see Object#toString()
+     */
+    public String toString()
+    {
+        return toString( "" );
+    }
+}
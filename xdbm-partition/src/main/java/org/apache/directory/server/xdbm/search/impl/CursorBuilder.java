@@ -41,6 +41,7 @@ import org.apache.directory.api.ldap.model.filter.OrNode;
 import org.apache.directory.api.ldap.model.filter.PresenceNode;
 import org.apache.directory.api.ldap.model.filter.ScopeNode;
 import org.apache.directory.api.ldap.model.filter.SubstringNode;
+import org.apache.directory.api.ldap.model.message.AliasDerefMode;
 import org.apache.directory.api.ldap.model.message.SearchScope;
 import org.apache.directory.api.ldap.model.name.Dn;
 import org.apache.directory.api.ldap.model.name.Rdn;
@@ -53,6 +54,8 @@ import org.apache.directory.api.util.exception.NotImplementedException;
 import org.apache.directory.server.core.api.partition.Partition;
 import org.apache.directory.server.core.api.partition.PartitionTxn;
 import org.apache.directory.server.i18n.I18n;
+import org.apache.directory.server.xdbm.EmptyIndexCursor;
+import org.apache.directory.server.xdbm.IdBitmap;
 import org.apache.directory.server.xdbm.Index;
 import org.apache.directory.server.xdbm.IndexEntry;
 import org.apache.directory.server.xdbm.IndexNotFoundException;
@@ -60,10 +63,15 @@ import org.apache.directory.server.xdbm.ParentIdAndRdn;
 import org.apache.directory.server.xdbm.SingletonIndexCursor;
 import org.apache.directory.server.xdbm.Store;
 import org.apache.directory.server.xdbm.search.PartitionSearchResult;
+import org.apache.directory.server.xdbm.search.cursor.AllEntriesCursor;
 import org.apache.directory.server.xdbm.search.cursor.ApproximateCursor;
 import org.apache.directory.server.xdbm.search.cursor.ChildrenCursor;
 import org.apache.directory.server.xdbm.search.cursor.DescendantCursor;
+import org.apache.directory.server.xdbm.search.cursor.EqualityCursor;
+import org.apache.directory.server.xdbm.search.cursor.PresenceCursor;
 import org.apache.directory.server.xdbm.search.evaluator.ApproximateEvaluator;
+import org.apache.directory.server.xdbm.search.evaluator.EqualityEvaluator;
+import org.apache.directory.server.xdbm.search.evaluator.PresenceEvaluator;
 
 
 /**
@@ -73,6 +81,13 @@ import org.apache.directory.server.xdbm.search.evaluator.ApproximateEvaluator;
  */
 public class CursorBuilder
 {
+    /**
+     * The maximum ratio between the number of candidates of a conjunction child and
+     * the number of candidates of its most selective child for the child candidates
+     * to be computed and intersected
+     */
+    private static final long MAX_INTERSECTION_RATIO = 32L;
+
     /** The database used by this builder */
     private Store db = null;
 
@@ -93,7 +108,170 @@ public class CursorBuilder
     }
 
 
-    public <T> long build( PartitionTxn partitionTxn, ExprNode node, PartitionSearchResult searchResult ) throws LdapException
+    /**
+     * Computes the candidates of a filter, and store them in the search result candidates.
+     *
+     * @param partitionTxn The transaction to use
+     * @param node The filter
+     * @param searchResult The search result, which candidates will be fed
+     * @return The number of added candidates, or Long.MAX_VALUE if we have to do a full scan
+     * @throws LdapException If the candidates can't be computed
+     */
+    public long build( PartitionTxn partitionTxn, ExprNode node, PartitionSearchResult searchResult ) throws LdapException
+    {
+        return build( partitionTxn, node, searchResult, searchResult.getCandidates() );
+    }
+
+
+    /**
+     * Builds a Cursor pulling the candidates of a filter from the indexes as it is read, instead
+     * of computing them all upfront. This is only possible when the candidates don't have to be
+     * deduplicated : the most selective node of the filter must be an equality or presence node,
+     * or a scope node when the aliases aren't dereferenced while searching. When nothing can be
+     * used, all the entries are read from the master table.
+     * <br>
+     * The returned candidates must still be checked against the filter evaluator.
+     *
+     * @param partitionTxn The transaction to use
+     * @param node The annotated filter
+     * @param aliasDerefMode The alias dereferencing mode
+     * @return The Cursor over the candidates, or null if the candidates have to be computed by
+     * {@link #build(PartitionTxn, ExprNode, PartitionSearchResult)}
+     * @throws LdapException If the Cursor can't be created
+     */
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    public Cursor<IndexEntry<String, String>> buildCursor( PartitionTxn partitionTxn, ExprNode node,
+        AliasDerefMode aliasDerefMode ) throws LdapException
+    {
+        Object count = node.get( DefaultOptimizer.COUNT_ANNOTATION );
+
+        if ( count != null )
+        {
+            if ( ( Long ) count == 0L )
+            {
+                return new EmptyIndexCursor<>( partitionTxn );
+            }
+            else if ( ( Long ) count == Long.MAX_VALUE )
+            {
+                return new AllEntriesCursor( partitionTxn, db );
+            }
+        }
+
+        try
+        {
+            switch ( node.getAssertionType() )
+            {
+                case EQUALITY:
+                    if ( !db.hasIndexOn( ( ( EqualityNode<?> ) node ).getAttributeType() ) )
+                    {
+                        return new AllEntriesCursor( partitionTxn, db );
+                    }
+
+                    return ( Cursor ) new EqualityCursor( partitionTxn, db,
+                        ( EqualityEvaluator ) evaluatorBuilder.build( partitionTxn, node ) );
+
+                case PRESENCE:
+                    return new PresenceCursor( partitionTxn, db,
+                        ( PresenceEvaluator ) evaluatorBuilder.build( partitionTxn, node ) );
+
+                case SCOPE:
+                    if ( aliasDerefMode.isDerefInSearching() || aliasDerefMode.isDerefAlways() )
+                    {
+                        // The aliased entries have to be added to the candidates, only once
+                        return null;
+                    }
+
+                    return buildScopeCursor( partitionTxn, ( ScopeNode ) node );
+
+                case AND:
+                    return buildCursor( partitionTxn, getMostSelectiveChild( ( AndNode ) node ), aliasDerefMode );
+
+                default:
+                    // The other nodes may return the same candidate more than once
+                    return null;
+            }
+        }
+        catch ( IndexNotFoundException | CursorException e )
+        {
+            throw new LdapOtherException( e.getMessage(), e );
+        }
+    }
+
+
+    /**
+     * Builds a Cursor over the entries in a scope
+     */
+    private Cursor<IndexEntry<String, String>> buildScopeCursor( PartitionTxn partitionTxn, ScopeNode node )
+        throws LdapException, CursorException
+    {
+        String baseId = node.getBaseId();
+
+        if ( node.getScope() == SearchScope.ONELEVEL )
+        {
+            Cursor<IndexEntry<ParentIdAndRdn, String>> rdnCursor = db.getRdnIndex().forwardCursor( partitionTxn );
+
+            IndexEntry<ParentIdAndRdn, String> startingPos = new IndexEntry<>();
+            startingPos.setKey( new ParentIdAndRdn( baseId, ( Rdn[] ) null ) );
+            rdnCursor.before( startingPos );
+
+            return new ChildrenCursor( partitionTxn, db, baseId, rdnCursor );
+        }
+
+        // If we are searching from the partition DN, all the entries are in the scope
+        String contextEntryId = db.getEntryId( partitionTxn, ( ( Partition ) db ).getSuffixDn() );
+
+        if ( baseId.equals( contextEntryId ) )
+        {
+            return new AllEntriesCursor( partitionTxn, db );
+        }
+
+        ParentIdAndRdn parentIdAndRdn = db.getRdnIndex().reverseLookup( partitionTxn, baseId );
+        IndexEntry<ParentIdAndRdn, String> startingPos = new IndexEntry<>();
+
+        startingPos.setKey( parentIdAndRdn );
+        startingPos.setId( baseId );
+
+        Cursor<IndexEntry<ParentIdAndRdn, String>> rdnCursor = new SingletonIndexCursor<>( partitionTxn,
+            startingPos );
+
+        return new DescendantCursor( partitionTxn, db, baseId, parentIdAndRdn.getParentId(), rdnCursor );
+    }
+
+
+    /**
+     * Get the child of a conjunction with the smallest scan count
+     */
+    private ExprNode getMostSelectiveChild( AndNode node )
+    {
+        ExprNode minChild = node.getChildren().get( 0 );
+        long minValue = Long.MAX_VALUE;
+
+        for ( ExprNode child : node.getChildren() )
+        {
+            Object count = child.get( DefaultOptimizer.COUNT_ANNOTATION );
+
+            if ( ( count != null ) && ( ( Long ) count < minValue ) )
+            {
+                minValue = ( Long ) count;
+                minChild = child;
+            }
+        }
+
+        return minChild;
+    }
+
+
+    /**
+     * Add a candidate UUID into a bitmap
+     */
+    private boolean addCandidate( IdBitmap candidates, String uuid )
+    {
+        return candidates.add( db.getEntryIdDictionary().getOrAssign( uuid ) );
+    }
+
+
+    private <T> long build( PartitionTxn partitionTxn, ExprNode node, PartitionSearchResult searchResult,
+        IdBitmap candidates ) throws LdapException
     {
         Object count = node.get( DefaultOptimizer.COUNT_ANNOTATION );
 
@@ -109,44 +287,43 @@ public class CursorBuilder
             /* ---------- LEAF NODE HANDLING ---------- */
     
                 case APPROXIMATE:
-                    return computeApproximate( partitionTxn, ( ApproximateNode<T> ) node, searchResult );
+                    return computeApproximate( partitionTxn, ( ApproximateNode<T> ) node, searchResult, candidates );
     
                 case EQUALITY:
-                    return computeEquality( partitionTxn, ( EqualityNode<T> ) node, searchResult );
+                    return computeEquality( partitionTxn, ( EqualityNode<T> ) node, searchResult, candidates );
     
                 case GREATEREQ:
-                    return computeGreaterEq( partitionTxn, ( GreaterEqNode<T> ) node, searchResult );
+                    return computeGreaterEq( partitionTxn, ( GreaterEqNode<T> ) node, searchResult, candidates );
     
                 case LESSEQ:
-                    return computeLessEq( partitionTxn, ( LessEqNode<T> ) node, searchResult );
+                    return computeLessEq( partitionTxn, ( LessEqNode<T> ) node, searchResult, candidates );
     
                 case PRESENCE:
-                    return computePresence( partitionTxn, ( PresenceNode ) node, searchResult );
+                    return computePresence( partitionTxn, ( PresenceNode ) node, searchResult, candidates );
     
                 case SCOPE:
                     if ( ( ( ScopeNode ) node ).getScope() == SearchScope.ONELEVEL )
                     {
-                        return computeOneLevelScope( partitionTxn, ( ScopeNode ) node, searchResult );
+                        return computeOneLevelScope( partitionTxn, ( ScopeNode ) node, searchResult, candidates );
                     }
                     else
                     {
-                        return computeSubLevelScope( partitionTxn, ( ScopeNode ) node, searchResult );
+                        return computeSubLevelScope( partitionTxn, ( ScopeNode ) node, searchResult, candidates );
                     }
     
                 case SUBSTRING:
-                    return computeSubstring( partitionTxn, ( SubstringNode ) node, searchResult );
+                    return computeSubstring( partitionTxn, ( SubstringNode ) node, searchResult, candidates );
     
                     /* ---------- LOGICAL OPERATORS ---------- */
     
                 case AND:
-                    return computeAnd( partitionTxn, ( AndNode ) node, searchResult );
+                    return computeAnd( partitionTxn, ( AndNode ) node, searchResult, candidates );
     
                 case NOT:
-                    // Always return infinite, except if the resulting eva 
-                    return computeNot( ( NotNode ) node, searchResult );
+                    return computeNot( partitionTxn, ( NotNode ) node, searchResult, candidates );
     
                 case OR:
-                    return computeOr( partitionTxn, ( OrNode ) node, searchResult );
+                    return computeOr( partitionTxn, ( OrNode ) node, searchResult, candidates );
     
                     /* ----------  NOT IMPLEMENTED  ---------- */
     
@@ -170,7 +347,8 @@ public class CursorBuilder
      * we have an index for the AT.
      */
 
-    private <T> long computeApproximate( PartitionTxn partitionTxn, ApproximateNode<T> node, PartitionSearchResult searchResult )
+    private <T> long computeApproximate( PartitionTxn partitionTxn, ApproximateNode<T> node, PartitionSearchResult searchResult,
+        IdBitmap candidates )
         throws LdapException, IndexNotFoundException, CursorException, IOException
     {
         ApproximateCursor<T> cursor = new ApproximateCursor<>( partitionTxn, db,
@@ -178,14 +356,13 @@ public class CursorBuilder
                 .build( partitionTxn, node ) );
 
         int nbResults = 0;
-        Set<String> uuidSet = searchResult.getCandidateSet();
 
         while ( cursor.next() )
         {
             IndexEntry<T, String> indexEntry = cursor.get();
 
             String uuid = indexEntry.getId();
-            boolean added = uuidSet.add( uuid );
+            boolean added = addCandidate( candidates, uuid );
 
             // if the UUID was added increment the result count
             if ( added )
@@ -204,18 +381,17 @@ public class CursorBuilder
      * Computes the set of candidates for an Equality filter. We will feed the set only if
      * we have an index for the AT.
      */
-    private <T> long computeEquality( PartitionTxn partitionTxn, EqualityNode<T> node, PartitionSearchResult searchResult )
+    private <T> long computeEquality( PartitionTxn partitionTxn, EqualityNode<T> node, PartitionSearchResult searchResult,
+        IdBitmap candidates )
         throws LdapException, IndexNotFoundException, CursorException, IOException
     {
         Set<String> thisCandidates = ( Set<String> ) node.get( DefaultOptimizer.CANDIDATES_ANNOTATION_KEY );
 
         if ( thisCandidates != null )
         {
-            Set<String> candidates = searchResult.getCandidateSet();
-
             for ( String candidate : thisCandidates )
             {
-                candidates.add( candidate );
+                addCandidate( candidates, candidate );
             }
 
             return thisCandidates.size();
@@ -231,7 +407,6 @@ public class CursorBuilder
             // Get the cursor using the index
             Index<T, String> userIndex = ( Index<T, String> ) db.getIndex( attributeType );
             Cursor<IndexEntry<T, String>> userIdxCursor = userIndex.forwardCursor( partitionTxn, ( T ) value.getNormalized() );
-            Set<String> uuidSet = searchResult.getCandidateSet();
 
             // And loop on it
             while ( userIdxCursor.next() )
@@ -239,7 +414,7 @@ public class CursorBuilder
                 IndexEntry<T, String> indexEntry = userIdxCursor.get();
 
                 String uuid = indexEntry.getId();
-                boolean added = uuidSet.add( uuid );
+                boolean added = addCandidate( candidates, uuid );
                 
                 // if the UUID was added increment the result count
                 if ( added )
@@ -264,7 +439,8 @@ public class CursorBuilder
      * Computes the set of candidates for an GreateEq filter. We will feed the set only if
      * we have an index for the AT.
      */
-    private <T> long computeGreaterEq( PartitionTxn partitionTxn, GreaterEqNode<T> node, PartitionSearchResult searchResult )
+    private <T> long computeGreaterEq( PartitionTxn partitionTxn, GreaterEqNode<T> node, PartitionSearchResult searchResult,
+        IdBitmap candidates )
         throws LdapException, IndexNotFoundException, CursorException, IOException
     {
         AttributeType attributeType = node.getAttributeType();
@@ -283,7 +459,6 @@ public class CursorBuilder
             indexEntry.setKey( ( T ) value.getString() );
 
             userIdxCursor.before( indexEntry );
-            Set<String> uuidSet = searchResult.getCandidateSet();
 
             // And loop on it
             while ( userIdxCursor.next() )
@@ -291,7 +466,7 @@ public class CursorBuilder
                 indexEntry = userIdxCursor.get();
 
                 String uuid = indexEntry.getId();
-                boolean added = uuidSet.add( uuid );
+                boolean added = addCandidate( candidates, uuid );
 
                 // if the UUID was added increment the result count
                 if ( added )
@@ -316,7 +491,8 @@ public class CursorBuilder
      * Computes the set of candidates for an LessEq filter. We will feed the set only if
      * we have an index for the AT.
      */
-    private <T> long computeLessEq( PartitionTxn partitionTxn, LessEqNode<T> node, PartitionSearchResult searchResult )
+    private <T> long computeLessEq( PartitionTxn partitionTxn, LessEqNode<T> node, PartitionSearchResult searchResult,
+        IdBitmap candidates )
         throws LdapException, IndexNotFoundException, CursorException, IOException
     {
         AttributeType attributeType = node.getAttributeType();
@@ -335,7 +511,6 @@ public class CursorBuilder
             indexEntry.setKey( ( T ) value.getString() );
 
             userIdxCursor.after( indexEntry );
-            Set<String> uuidSet = searchResult.getCandidateSet();
 
             // And loop on it
             while ( userIdxCursor.previous() )
@@ -343,7 +518,7 @@ public class CursorBuilder
                 indexEntry = userIdxCursor.get();
 
                 String uuid = indexEntry.getId();
-                boolean added = uuidSet.add( uuid );
+                boolean added = addCandidate( candidates, uuid );
 
                 // if the UUID was added increment the result count
                 if ( added )
@@ -368,7 +543,8 @@ public class CursorBuilder
      * Computes the set of candidates for a Presence filter. We will feed the set only if
      * we have an index for the AT.
      */
-    private long computePresence( PartitionTxn partitionTxn, PresenceNode node, PartitionSearchResult searchResult )
+    private long computePresence( PartitionTxn partitionTxn, PresenceNode node, PartitionSearchResult searchResult,
+        IdBitmap candidates )
         throws LdapException, CursorException, IOException
     {
         AttributeType attributeType = node.getAttributeType();
@@ -382,7 +558,6 @@ public class CursorBuilder
                 partitionTxn, attributeType.getOid() );
 
             // Position the index on the element we should start from
-            Set<String> uuidSet = searchResult.getCandidateSet();
 
             // And loop on it
             while ( presenceCursor.next() )
@@ -390,7 +565,7 @@ public class CursorBuilder
                 IndexEntry<String, String> indexEntry = presenceCursor.get();
 
                 String uuid = indexEntry.getId();
-                boolean added = uuidSet.add( uuid );
+                boolean added = addCandidate( candidates, uuid );
 
                 // if the UUID was added increment the result count
                 if ( added )
@@ -415,7 +590,8 @@ public class CursorBuilder
      * Computes the set of candidates for a OneLevelScope filter. We will feed the set only if
      * we have an index for the AT.
      */
-    private long computeOneLevelScope( PartitionTxn partitionTxn, ScopeNode node, PartitionSearchResult searchResult )
+    private long computeOneLevelScope( PartitionTxn partitionTxn, ScopeNode node, PartitionSearchResult searchResult,
+        IdBitmap candidates )
         throws LdapException, CursorException, IOException
     {
         int nbResults = 0;
@@ -429,7 +605,6 @@ public class CursorBuilder
         rdnCursor.before( startingPos );
 
         Cursor<IndexEntry<String, String>> scopeCursor = new ChildrenCursor( partitionTxn, db, node.getBaseId(), rdnCursor );
-        Set<String> candidateSet = searchResult.getCandidateSet();
 
         // Fetch all the UUIDs if we have an index
         // And loop on it
@@ -456,7 +631,7 @@ public class CursorBuilder
 
                     // This is an alias. Add it to the set of candidates to process, if it's not already
                     // present in the candidate set 
-                    boolean added = candidateSet.add( aliasedId );
+                    boolean added = addCandidate( candidates, aliasedId );
                     
                     if ( added )
                     {
@@ -466,7 +641,7 @@ public class CursorBuilder
                 else
                 {
                     // The UUID is not present in the Set, we add it
-                    boolean added = candidateSet.add( uuid );
+                    boolean added = addCandidate( candidates, uuid );
                     
                     // This is not an alias
                     if ( added )
@@ -478,7 +653,7 @@ public class CursorBuilder
             else
             {
                 // The UUID is not present in the Set, we add it
-                boolean added = candidateSet.add( uuid );
+                boolean added = addCandidate( candidates, uuid );
                 
                 // This is not an alias
                 if ( added )
@@ -498,7 +673,8 @@ public class CursorBuilder
      * Computes the set of candidates for a SubLevelScope filter. We will feed the set only if
      * we have an index for the AT.
      */
-    private long computeSubLevelScope( PartitionTxn partitionTxn, ScopeNode node, PartitionSearchResult searchResult )
+    private long computeSubLevelScope( PartitionTxn partitionTxn, ScopeNode node, PartitionSearchResult searchResult,
+        IdBitmap candidates )
         throws LdapException, IOException, CursorException
     {
         // If we are searching from the partition DN, better get out.
@@ -525,7 +701,6 @@ public class CursorBuilder
         String parentId = parentIdAndRdn.getParentId();
 
         Cursor<IndexEntry<String, String>> scopeCursor = new DescendantCursor( partitionTxn, db, baseId, parentId, rdnCursor );
-        Set<String> candidateSet = searchResult.getCandidateSet();
 
         // Fetch all the UUIDs if we have an index
         // And loop on it
@@ -552,7 +727,7 @@ public class CursorBuilder
 
                     // This is an alias. Add it to the set of candidates to process, if it's not already
                     // present in the candidate set 
-                    boolean added = candidateSet.add( aliasedId );
+                    boolean added = addCandidate( candidates, aliasedId );
                     
                     if ( added )
                     {
@@ -564,14 +739,14 @@ public class CursorBuilder
                             aliasedId,
                             node.getScope() );
 
-                        nbResults += computeSubLevelScope( partitionTxn, newScopeNode, searchResult );
+                        nbResults += computeSubLevelScope( partitionTxn, newScopeNode, searchResult, candidates );
                     }
                 }
                 else
                 {
                     // This is not an alias
                     // The UUID is not present in the Set, we add it
-                    boolean added = candidateSet.add( uuid );
+                    boolean added = addCandidate( candidates, uuid );
                     
                     if ( added )
                     {
@@ -582,7 +757,7 @@ public class CursorBuilder
             else
             {
                 // The UUID is not present in the Set, we add it
-                boolean added = candidateSet.add( uuid );
+                boolean added = addCandidate( candidates, uuid );
                 
                 if ( added )
                 {
@@ -599,9 +774,11 @@ public class CursorBuilder
 
     /**
      * Computes the set of candidates for an Substring filter. We will feed the set only if
-     * we have an index for the AT.
+     * we have an index for the AT. If the AT has a substring index, the candidates are the
+     * entries containing all the filter n-grams, otherwise we scan the AT index.
      */
-    private long computeSubstring( PartitionTxn partitionTxn, SubstringNode node, PartitionSearchResult searchResult )
+    private long computeSubstring( PartitionTxn partitionTxn, SubstringNode node, PartitionSearchResult searchResult,
+        IdBitmap candidates )
         throws LdapException, IndexNotFoundException, CursorException, IOException
     {
         AttributeType attributeType = node.getAttributeType();
@@ -613,6 +790,25 @@ public class CursorBuilder
             return 0L;
         }
 
+        // Use the n-grams if we have a substring index
+        if ( db.hasSubstringIndexOn( attributeType ) )
+        {
+            IdBitmap ngramCandidates = ( IdBitmap ) node.get( DefaultOptimizer.NGRAM_CANDIDATES_ANNOTATION_KEY );
+
+            if ( ngramCandidates == null )
+            {
+                ngramCandidates = db.getSubstringIndex( attributeType ).getCandidates( node );
+            }
+
+            if ( ngramCandidates != null )
+            {
+                int nbCandidates = candidates.getCardinality();
+                candidates.or( ngramCandidates );
+
+                return ( long ) candidates.getCardinality() - nbCandidates;
+            }
+        }
+
         // Fetch all the UUIDs if we have an index
         if ( db.hasIndexOn( attributeType ) )
         {
@@ -669,7 +865,6 @@ public class CursorBuilder
                 regexp = null;
             }
 
-            Set<String> uuidSet = searchResult.getCandidateSet();
 
             if ( regexp == null )
             {
@@ -699,7 +894,7 @@ public class CursorBuilder
                 
                 String uuid = indexEntry.getId();
 
-                boolean added = uuidSet.add( uuid );
+                boolean added = addCandidate( candidates, uuid );
                 
                 // if the UUID was added increment the result count
                 if ( added )
@@ -727,7 +922,8 @@ public class CursorBuilder
      * @return Cursor over candidates satisfying disjunction expression
      * @throws Exception on db access failures
      */
-    private long computeOr( PartitionTxn partitionTxn, OrNode node, PartitionSearchResult searchResult ) 
+    private long computeOr( PartitionTxn partitionTxn, OrNode node, PartitionSearchResult searchResult,
+        IdBitmap candidates )
         throws LdapException
     {
         List<ExprNode> children = node.getChildren();
@@ -755,7 +951,7 @@ public class CursorBuilder
                 }
             }
 
-            long nbResults = build( partitionTxn, child, searchResult );
+            long nbResults = build( partitionTxn, child, searchResult, candidates );
 
             if ( nbResults == Long.MAX_VALUE )
             {
@@ -779,7 +975,8 @@ public class CursorBuilder
      * @return Cursor over the conjunction expression
      * @throws Exception on db access failures
      */
-    private long computeAnd( PartitionTxn partitionTxn, AndNode node, PartitionSearchResult searchResult ) 
+    private long computeAnd( PartitionTxn partitionTxn, AndNode node, PartitionSearchResult searchResult,
+        IdBitmap candidates )
         throws LdapException
     {
         int minIndex = 0;
@@ -818,40 +1015,186 @@ public class CursorBuilder
             }
         }
 
-        // Once found we return the number of candidates for this child
+        // Once found we compute the candidates for this child
         ExprNode minChild = children.get( minIndex );
+        IdBitmap andCandidates = new IdBitmap();
+        long nbResults = build( partitionTxn, minChild, searchResult, andCandidates );
+
+        if ( nbResults == Long.MAX_VALUE )
+        {
+            return nbResults;
+        }
+
+        /*
+         * Then we reduce them using the other children which are cheap enough to compute :
+         * we intersect them with the candidates of the indexed children, and remove the
+         * candidates excluded by the negated indexed children. The remaining candidates
+         * will still be checked by the evaluator.
+         */
+        for ( int i = 0; ( i < children.size() ) && !andCandidates.isEmpty(); i++ )
+        {
+            if ( i == minIndex )
+            {
+                continue;
+            }
+
+            ExprNode child = children.get( i );
+
+            if ( isIntersectable( child, minValue ) )
+            {
+                IdBitmap childCandidates = new IdBitmap();
+
+                if ( build( partitionTxn, child, searchResult, childCandidates ) != Long.MAX_VALUE )
+                {
+                    andCandidates = IdBitmap.and( andCandidates, childCandidates );
+                }
+            }
+            else if ( ( child instanceof NotNode ) && isExcludable( ( ( NotNode ) child ).getFirstChild(), minValue ) )
+            {
+                IdBitmap excludedCandidates = new IdBitmap();
 
-        return build( partitionTxn, minChild, searchResult );
+                if ( build( partitionTxn, ( ( NotNode ) child ).getFirstChild(), searchResult, excludedCandidates ) != Long.MAX_VALUE )
+                {
+                    andCandidates = IdBitmap.andNot( andCandidates, excludedCandidates );
+                }
+            }
+        }
+
+        int nbCandidates = candidates.getCardinality();
+        candidates.or( andCandidates );
+
+        return ( long ) candidates.getCardinality() - nbCandidates;
     }
 
 
     /**
-     * Creates an AndCursor over a conjunction expression branch node.
-     *
-     * @param node a conjunction expression branch node
-     * @return Cursor over the conjunction expression
-     * @throws Exception on db access failures
+     * Tells if the candidates of a node are worth being computed to be intersected with
+     * the candidates of the most selective child of a conjunction. We only consider the
+     * nodes for which we have an index, and which are not much bigger than the most
+     * selective child.
      */
-    private long computeNot( NotNode node, PartitionSearchResult searchResult )
+    private boolean isIntersectable( ExprNode node, long minCount ) throws LdapException
     {
-        final List<ExprNode> children = node.getChildren();
+        if ( !isCheaperThan( node, minCount ) )
+        {
+            return false;
+        }
+
+        switch ( node.getAssertionType() )
+        {
+            case EQUALITY:
+            case SCOPE:
+                return true;
+
+            case PRESENCE:
+                return db.hasUserIndexOn( ( ( PresenceNode ) node ).getAttributeType() );
+
+            case SUBSTRING:
+                return db.hasSubstringIndexOn( ( ( SubstringNode ) node ).getAttributeType() );
+
+            default:
+                return false;
+        }
+    }
 
-        ExprNode child = children.get( 0 );
-        Object count = child.get( DefaultOptimizer.COUNT_ANNOTATION );
+
+    /**
+     * Tells if the candidates of a negated node can be removed from the candidates of the
+     * most selective child of a conjunction. The candidates of the node must exactly be the
+     * entries it matches, which is the case for the indexed equality and presence nodes.
+     */
+    private boolean isExcludable( ExprNode node, long minCount ) throws LdapException
+    {
+        if ( !isCheaperThan( node, minCount ) )
+        {
+            return false;
+        }
+
+        switch ( node.getAssertionType() )
+        {
+            case EQUALITY:
+                return db.hasIndexOn( ( ( EqualityNode<?> ) node ).getAttributeType() );
+
+            case PRESENCE:
+                return db.hasUserIndexOn( ( ( PresenceNode ) node ).getAttributeType() );
+
+            default:
+                return false;
+        }
+    }
+
+
+    /**
+     * Checks the node count annotation against the most selective child count
+     */
+    private boolean isCheaperThan( ExprNode node, long minCount )
+    {
+        Object count = node.get( DefaultOptimizer.COUNT_ANNOTATION );
 
         if ( count == null )
         {
-            return Long.MAX_VALUE;
+            return false;
         }
 
         long value = ( Long ) count;
 
         if ( value == Long.MAX_VALUE )
         {
-            // No need to go any further : we won't have matching candidates anyway
-            return 0L;
+            return false;
+        }
+
+        return ( minCount > Long.MAX_VALUE / MAX_INTERSECTION_RATIO ) || ( value <= minCount * MAX_INTERSECTION_RATIO );
+    }
+
+
+    /**
+     * Computes the set of candidates for a negation. When the candidates of the negated node
+     * are exactly the entries it matches (an indexed equality or presence node), they are
+     * removed from the set of all the entries of the partition. Otherwise, we have to do a
+     * full scan.
+     */
+    private long computeNot( PartitionTxn partitionTxn, NotNode node, PartitionSearchResult searchResult,
+        IdBitmap candidates ) throws LdapException, CursorException, IOException
+    {
+        ExprNode child = node.getFirstChild();
+
+        if ( !isExcludable( child, Long.MAX_VALUE ) )
+        {
+            return Long.MAX_VALUE;
         }
 
-        return Long.MAX_VALUE;
+        IdBitmap excludedCandidates = new IdBitmap();
+
+        if ( build( partitionTxn, child, searchResult, excludedCandidates ) == Long.MAX_VALUE )
+        {
+            return Long.MAX_VALUE;
+        }
+
+        IdBitmap notCandidates = IdBitmap.andNot( getAllEntries( partitionTxn ), excludedCandidates );
+
+        int nbCandidates = candidates.getCardinality();
+        candidates.or( notCandidates );
+
+        return ( long ) candidates.getCardinality() - nbCandidates;
+    }
+
+
+    /**
+     * Gets the IDs of all the entries of the partition. The Rdn index is read rather than
+     * the master table, so that no entry is deserialized.
+     */
+    private IdBitmap getAllEntries( PartitionTxn partitionTxn ) throws LdapException, CursorException, IOException
+    {
+        IdBitmap allEntries = new IdBitmap();
+        Cursor<IndexEntry<ParentIdAndRdn, String>> rdnCursor = db.getRdnIndex().forwardCursor( partitionTxn );
+
+        while ( rdnCursor.next() )
+        {
+            addCandidate( allEntries, rdnCursor.get().getId() );
+        }
+
+        rdnCursor.close();
+
+        return allEntries;
     }
 }
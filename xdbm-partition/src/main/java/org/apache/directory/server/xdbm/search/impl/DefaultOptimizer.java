@@ -21,9 +21,11 @@ package org.apache.directory.server.xdbm.search.impl;
 
 
 import java.io.IOException;
+import java.util.Comparator;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.regex.Pattern;
 
 import org.apache.directory.api.ldap.model.constants.SchemaConstants;
 import org.apache.directory.api.ldap.model.cursor.Cursor;
@@ -45,27 +47,43 @@ import org.apache.directory.api.ldap.model.filter.PresenceNode;
 import org.apache.directory.api.ldap.model.filter.ScopeNode;
 import org.apache.directory.api.ldap.model.filter.SimpleNode;
 import org.apache.directory.api.ldap.model.filter.SubstringNode;
+import org.apache.directory.api.ldap.model.schema.AttributeType;
+import org.apache.directory.api.ldap.model.schema.LdapComparator;
+import org.apache.directory.api.ldap.model.schema.MatchingRule;
+import org.apache.directory.api.ldap.model.schema.Normalizer;
+import org.apache.directory.api.ldap.model.schema.PrepareString;
+import org.apache.directory.api.ldap.model.schema.normalizers.NoOpNormalizer;
 import org.apache.directory.api.util.Strings;
 import org.apache.directory.server.core.api.partition.Partition;
 import org.apache.directory.server.core.api.partition.PartitionTxn;
 import org.apache.directory.server.i18n.I18n;
+import org.apache.directory.server.xdbm.IdBitmap;
 import org.apache.directory.server.xdbm.Index;
 import org.apache.directory.server.xdbm.IndexNotFoundException;
+import org.apache.directory.server.xdbm.IndexStatistics;
 import org.apache.directory.server.xdbm.Store;
 import org.apache.directory.server.xdbm.search.Optimizer;
 
 
 /**
- * Optimizer that annotates the filter using scan counts.
+ * Optimizer that annotates the filter using scan counts. The scan counts are
+ * estimated from the {@link IndexStatistics} maintained by each index when they
+ * are available, otherwise the indexes are read.
  * 
  * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
  */
 public class DefaultOptimizer implements Optimizer
 {
     /* Package protected*/ static final String CANDIDATES_ANNOTATION_KEY = "candidates";
+
+    /** the substring index candidates annotation key, an IdBitmap */
+    /* Package protected*/ static final String NGRAM_CANDIDATES_ANNOTATION_KEY = "ngramCandidates";
     
     /* Package protected*/ static final String COUNT_ANNOTATION = "count"; 
 
+    /** The number of candidates under which we fetch them while computing the scan count */
+    private static final int MAX_CANDIDATES = 100;
+
     /** the database this optimizer operates on */
     private final Store db;
     private String contextEntryId;
@@ -209,15 +227,7 @@ public class DefaultOptimizer implements Optimizer
             }
             else if ( node instanceof NotNode )
             {
-                annotate( partitionTxn, ( ( NotNode ) node ).getFirstChild() );
-
-                /*
-                 * A negation filter is always worst case since we will have
-                 * to retrieve all entries from the master table then test
-                 * each one against the negated child filter.  There is no way
-                 * to use the indices.
-                 */
-                count = Long.MAX_VALUE;
+                count = getNegationScan( partitionTxn, ( NotNode ) node );
             }
             else
             {
@@ -305,6 +315,51 @@ public class DefaultOptimizer implements Optimizer
     }
 
 
+    /**
+     * A negation is computed as the complement of the candidates of its child, when they are
+     * exactly the entries the child matches : this is the case of an indexed equality or
+     * presence node. Otherwise, the negation filter is the worst case since we will have
+     * to retrieve all entries from the master table then test each one against the negated
+     * child filter.
+     *
+     * @param node the NOT branch node
+     * @return the scan count on the NOT node
+     * @throws LdapException if there is an error
+     */
+    private long getNegationScan( PartitionTxn partitionTxn, NotNode node ) throws LdapException
+    {
+        ExprNode child = node.getFirstChild();
+        long childCount = annotate( partitionTxn, child );
+
+        if ( childCount == Long.MAX_VALUE )
+        {
+            return Long.MAX_VALUE;
+        }
+
+        boolean exact;
+
+        if ( child instanceof EqualityNode )
+        {
+            exact = db.hasIndexOn( ( ( EqualityNode<?> ) child ).getAttributeType() );
+        }
+        else if ( child instanceof PresenceNode )
+        {
+            exact = db.hasUserIndexOn( ( ( PresenceNode ) child ).getAttributeType() );
+        }
+        else
+        {
+            exact = false;
+        }
+
+        if ( !exact )
+        {
+            return Long.MAX_VALUE;
+        }
+
+        return atLeastOne( db.count( partitionTxn ) - childCount );
+    }
+
+
     /**
      * Gets the worst case scan count for all entries that satisfy the equality
      * assertion in the SimpleNode argument.  
@@ -331,6 +386,22 @@ public class DefaultOptimizer implements Optimizer
                 normalizedKey = node.getAttributeType().getEquality().getNormalizer().normalize( node.getValue().getString() );
             }
             
+            IndexStatistics statistics = idx.getStatistics();
+            boolean hasStatistics = statistics.getTotal() > 0L;
+
+            if ( hasStatistics )
+            {
+                long estimate = statistics.equalityCount( normalizedKey );
+
+                if ( estimate >= MAX_CANDIDATES )
+                {
+                    // No need to fetch the candidates, there are too many of them
+                    node.set( CANDIDATES_ANNOTATION_KEY, null );
+
+                    return estimate;
+                }
+            }
+
             Cursor<String> result = idx.forwardValueCursor( partitionTxn, ( V ) normalizedKey );
             Set<String> values = new HashSet<>();
             int nbFound = 0;
@@ -341,7 +412,7 @@ public class DefaultOptimizer implements Optimizer
                 nbFound++;
 
                 // Arbitrary stop gathering the candidates if we have more than 100
-                if ( nbFound == 100 )
+                if ( nbFound == MAX_CANDIDATES )
                 {
                     break;
                 }
@@ -349,7 +420,7 @@ public class DefaultOptimizer implements Optimizer
 
             result.close();
 
-            if ( nbFound < 100 )
+            if ( nbFound < MAX_CANDIDATES )
             {
                 // Store the found candidates in the node
                 node.set( CANDIDATES_ANNOTATION_KEY, values );
@@ -361,6 +432,11 @@ public class DefaultOptimizer implements Optimizer
                 // Reset the candidates annotation
                 node.set( CANDIDATES_ANNOTATION_KEY, null );
 
+                if ( hasStatistics )
+                {
+                    return Math.max( MAX_CANDIDATES, statistics.equalityCount( normalizedKey ) );
+                }
+
                 return idx.count( partitionTxn, ( V ) node.getValue().getNormalized() );
             }
         }
@@ -385,6 +461,22 @@ public class DefaultOptimizer implements Optimizer
         if ( db.hasIndexOn( node.getAttributeType() ) )
         {
             Index<V, String> idx = ( Index<V, String> ) db.getIndex( node.getAttributeType() );
+            IndexStatistics statistics = idx.getStatistics();
+
+            if ( statistics.getTotal() > 0L )
+            {
+                String normalizedKey = node.getValue().getNormalized();
+                Comparator<String> comparator = getKeyComparator( node.getAttributeType() );
+
+                if ( isGreaterThan )
+                {
+                    return atLeastOne( statistics.greaterOrEqualCount( normalizedKey, comparator ) );
+                }
+                else
+                {
+                    return atLeastOne( statistics.lessOrEqualCount( normalizedKey, comparator ) );
+                }
+            }
 
             if ( isGreaterThan )
             {
@@ -402,10 +494,64 @@ public class DefaultOptimizer implements Optimizer
 
 
     /**
-     * Get a scan count based on a Substring node : we will count the entries that are greater
-     * than ABC where the filter is (attr=ABC*). Any other filter won't be evaluated (for instance,
-     * a filter like (attr=*ABC) will resolve to a full scan atm - we could have created a reverted
-     * index for such a case -, and filters like (attr=*ABC*) also esolve to a full scan).
+     * Gets the comparator the index orders its keys with, which is the one of the first
+     * matching rule amongst the equality, ordering and substring ones. The statistics keys
+     * are normalized Strings, so the comparator is only used when it accepts them.
+     *
+     * @param attributeType The indexed AttributeType
+     * @return The comparator to use for the range estimates, or null for the String order
+     */
+    @SuppressWarnings("unchecked")
+    private Comparator<String> getKeyComparator( AttributeType attributeType )
+    {
+        MatchingRule mr = attributeType.getEquality();
+
+        if ( mr == null )
+        {
+            mr = attributeType.getOrdering();
+        }
+
+        if ( mr == null )
+        {
+            mr = attributeType.getSubstring();
+        }
+
+        if ( ( mr == null ) || ( mr.getLdapComparator() == null ) )
+        {
+            return null;
+        }
+
+        final LdapComparator<Object> ldapComparator = ( LdapComparator<Object> ) mr.getLdapComparator();
+
+        return new Comparator<String>()
+        {
+            @Override
+            public int compare( String key1, String key2 )
+            {
+                try
+                {
+                    return ldapComparator.compare( key1, key2 );
+                }
+                catch ( RuntimeException re )
+                {
+                    // The comparator does not accept the normalized form, fallback to the String order
+                    return key1.compareTo( key2 );
+                }
+            }
+        };
+    }
+
+
+    /**
+     * Get a scan count based on a Substring node. When the index has some statistics, we count
+     * the keys starting with ABC where the filter is (attr=ABC*), and the keys matching the
+     * filter regexp (exactly if the index has few distinct keys, otherwise on the most common
+     * keys). Without statistics, we will count the entries that are greater than ABC where the
+     * filter is (attr=ABC*). Any other filter won't be evaluated (for instance, a filter like
+     * (attr=*ABC) will resolve to a full scan atm - we could have created a reverted index for
+     * such a case -, and filters like (attr=*ABC*) also esolve to a full scan).
+     * When the attribute has a substring index, the candidates are computed using the index
+     * n-grams, and stored in the node so that the CursorBuilder does not compute them again.
      * 
      * @param node The substring node
      * @return The number of candidates
@@ -413,12 +559,30 @@ public class DefaultOptimizer implements Optimizer
      */
     private long getSubstringScan( PartitionTxn partitionTxn, SubstringNode node ) throws LdapException, IndexNotFoundException
     {
+        if ( db.hasSubstringIndexOn( node.getAttributeType() ) )
+        {
+            IdBitmap candidates = db.getSubstringIndex( node.getAttributeType() ).getCandidates( node );
+
+            if ( candidates != null )
+            {
+                node.set( NGRAM_CANDIDATES_ANNOTATION_KEY, candidates );
+
+                return candidates.getCardinality();
+            }
+        }
+
         if ( db.hasIndexOn( node.getAttributeType() ) )
         {
             Index<String, String> idx = ( Index<String, String> ) db.getIndex( node.getAttributeType() );
+            IndexStatistics statistics = idx.getStatistics();
 
             String initial = node.getInitial();
 
+            if ( statistics.getTotal() > 0L )
+            {
+                return getSubstringEstimate( statistics, node );
+            }
+
             if ( Strings.isEmpty( initial ) )
             {
                 // Not a (attr=ABC*) filter : full index scan
@@ -437,6 +601,53 @@ public class DefaultOptimizer implements Optimizer
     }
 
 
+    /**
+     * Estimates the number of candidates of a Substring node using the index statistics.
+     */
+    private long getSubstringEstimate( IndexStatistics statistics, SubstringNode node ) throws LdapException
+    {
+        AttributeType attributeType = node.getAttributeType();
+        long estimate = statistics.getTotal();
+
+        // The regexp is only available for human readable attributes, as in the SubstringEvaluator
+        if ( attributeType.getSyntax().isHumanReadable() )
+        {
+            MatchingRule rule = attributeType.getSubstring();
+
+            if ( rule == null )
+            {
+                rule = attributeType.getEquality();
+            }
+
+            Normalizer normalizer;
+
+            if ( rule != null )
+            {
+                normalizer = rule.getNormalizer();
+            }
+            else
+            {
+                normalizer = new NoOpNormalizer( attributeType.getSyntaxOid() );
+            }
+
+            Pattern regex = node.getRegex( normalizer );
+            estimate = statistics.matchingCount( regex );
+        }
+
+        String initial = node.getInitial();
+
+        if ( !Strings.isEmpty( initial ) && ( attributeType.getEquality() != null ) )
+        {
+            // Normalize the initial the same way the SubstringCursor does
+            String normalizedInitial = attributeType.getEquality().getNormalizer().normalize( initial,
+                PrepareString.AssertionType.SUBSTRING_INITIAL );
+            estimate = Math.min( estimate, statistics.prefixCount( normalizedInitial ) );
+        }
+
+        return atLeastOne( estimate );
+    }
+
+
     /**
      * Gets the total number of entries within the database index if one is 
      * available otherwise the count of all the entries within the database is
@@ -451,6 +662,13 @@ public class DefaultOptimizer implements Optimizer
         if ( db.hasIndexOn( node.getAttributeType() ) )
         {
             Index<?, ?> idx = db.getIndex( node.getAttributeType() );
+            long total = idx.getStatistics().getTotal();
+
+            if ( total > 0L )
+            {
+                return total;
+            }
+
             return idx.count( partitionTxn );
         }
 
@@ -472,6 +690,12 @@ public class DefaultOptimizer implements Optimizer
              || node.getAttributeType().getOid().equals( SchemaConstants.ADMINISTRATIVE_ROLE_AT_OID ) )
         {
             Index<String, String> presenceIndex = db.getPresenceIndex();
+            IndexStatistics statistics = presenceIndex.getStatistics();
+
+            if ( statistics.getTotal() > 0L )
+            {
+                return atLeastOne( statistics.equalityCount( node.getAttributeType().getOid() ) );
+            }
 
             return presenceIndex.count( partitionTxn, node.getAttributeType().getOid() );
         }
@@ -487,6 +711,16 @@ public class DefaultOptimizer implements Optimizer
     }
 
 
+    /**
+     * A count of 0 means there is no candidate at all, so an estimate computed from the
+     * statistics is never lower than 1.
+     */
+    private static long atLeastOne( long estimate )
+    {
+        return Math.max( 1L, estimate );
+    }
+
+
     /**
      * Gets the scan count for the scope node attached to this filter.
      *
@@ -20,6 +20,7 @@
 package org.apache.directory.server.xdbm.search.impl;
 
 
+import java.util.Comparator;
 import java.util.HashSet;
 import java.util.Set;
 
@@ -31,23 +32,36 @@ import org.apache.directory.api.ldap.model.exception.LdapNoSuchObjectException;
 import org.apache.directory.api.ldap.model.exception.LdapOtherException;
 import org.apache.directory.api.ldap.model.filter.AndNode;
 import org.apache.directory.api.ldap.model.filter.ExprNode;
+import org.apache.directory.api.ldap.model.filter.ExtensibleNode;
+import org.apache.directory.api.ldap.model.filter.LeafNode;
 import org.apache.directory.api.ldap.model.filter.ObjectClassNode;
+import org.apache.directory.api.ldap.model.filter.OrNode;
 import org.apache.directory.api.ldap.model.filter.ScopeNode;
 import org.apache.directory.api.ldap.model.message.AliasDerefMode;
 import org.apache.directory.api.ldap.model.message.SearchScope;
+import org.apache.directory.api.ldap.model.message.controls.SortKey;
+import org.apache.directory.api.ldap.model.message.controls.SortRequest;
 import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.model.schema.AttributeType;
+import org.apache.directory.api.ldap.model.schema.LdapComparator;
 import org.apache.directory.api.ldap.model.schema.SchemaManager;
 import org.apache.directory.server.core.api.interceptor.context.SearchOperationContext;
 import org.apache.directory.server.core.api.partition.Partition;
 import org.apache.directory.server.core.api.partition.PartitionTxn;
 import org.apache.directory.server.core.partition.impl.btree.IndexCursorAdaptor;
+import org.apache.directory.server.core.partition.impl.btree.SnapshotReadTxn;
 import org.apache.directory.server.i18n.I18n;
+import org.apache.directory.server.xdbm.IdBitmap;
+import org.apache.directory.server.xdbm.IdBitmapCursor;
+import org.apache.directory.server.xdbm.Index;
 import org.apache.directory.server.xdbm.IndexEntry;
+import org.apache.directory.server.xdbm.IndexNotFoundException;
 import org.apache.directory.server.xdbm.Store;
 import org.apache.directory.server.xdbm.search.Evaluator;
 import org.apache.directory.server.xdbm.search.Optimizer;
 import org.apache.directory.server.xdbm.search.PartitionSearchResult;
 import org.apache.directory.server.xdbm.search.SearchEngine;
+import org.apache.directory.server.xdbm.search.cursor.OrderedIndexCursor;
 import org.apache.directory.server.xdbm.search.evaluator.BaseLevelScopeEvaluator;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -245,9 +259,43 @@ public class DefaultSearchEngine implements SearchEngine
         optimizer.annotate( partitionTxn, root );
         Evaluator<? extends ExprNode> evaluator = evaluatorBuilder.build( partitionTxn, root );
 
-        Set<String> uuidSet = new HashSet<>();
         searchResult.setAliasDerefMode( aliasDerefMode );
-        searchResult.setCandidateSet( uuidSet );
+
+        // Walk the index of the sort key if the entries can be read in the requested order
+        Cursor<IndexEntry<String, String>> orderedCursor = buildOrderedCursor( partitionTxn, schemaManager,
+            searchContext, root );
+
+        if ( orderedCursor != null )
+        {
+            LOG.debug( "Reading the sorted candidates from the index for filter : {}", root );
+
+            searchResult.setEvaluator( evaluator );
+            searchResult.setResultSet( orderedCursor );
+            searchResult.setStreamed( true );
+            searchContext.setSorted( true );
+
+            return searchResult;
+        }
+
+        if ( db.isStreamingSearch() )
+        {
+            // Try to pull the candidates from the indexes while the entries are read
+            Cursor<IndexEntry<String, String>> cursor = cursorBuilder.buildCursor( partitionTxn, root, aliasDerefMode );
+
+            if ( cursor != null )
+            {
+                LOG.debug( "Streaming the candidates for filter : {}", root );
+
+                searchResult.setEvaluator( evaluator );
+                searchResult.setResultSet( cursor );
+                searchResult.setStreamed( true );
+
+                return searchResult;
+            }
+        }
+
+        IdBitmap candidates = new IdBitmap();
+        searchResult.setCandidates( candidates );
 
         long nbResults = cursorBuilder.build( partitionTxn, root, searchResult );
 
@@ -255,12 +303,18 @@ public class DefaultSearchEngine implements SearchEngine
 
         if ( nbResults < Long.MAX_VALUE )
         {
-            for ( String uuid : uuidSet )
+            searchResult.setEvaluator( evaluator );
+            long searchEpoch = -1L;
+
+            if ( partitionTxn instanceof SnapshotReadTxn )
             {
-                IndexEntry<String, String> indexEntry = new IndexEntry<>();
-                indexEntry.setId( uuid );
-                resultSet.add( indexEntry );
+                searchEpoch = ( ( SnapshotReadTxn ) partitionTxn ).getIdEpoch();
             }
+
+            searchResult.setResultSet( new IdBitmapCursor( partitionTxn, candidates, db.getEntryIdDictionary(),
+                searchEpoch ) );
+
+            return searchResult;
         }
         else
         {
@@ -295,6 +349,125 @@ public class DefaultSearchEngine implements SearchEngine
     }
 
 
+    /**
+     * Creates a cursor returning the candidates in the order requested by the sort control,
+     * if there is an index on the sort key. The index must be ordered like the requested
+     * ordering rule, and all the matching entries must contain the sort key, as the entries
+     * without value are not present in the index. We also expect the filter to select a
+     * good part of the index, otherwise sorting the few candidates is cheaper.
+     *
+     * @return The cursor, or null if the index can't be used
+     */
+    @SuppressWarnings("unchecked")
+    private Cursor<IndexEntry<String, String>> buildOrderedCursor( PartitionTxn partitionTxn,
+        SchemaManager schemaManager, SearchOperationContext searchContext, ExprNode root ) throws LdapException
+    {
+        SortRequest sortRequest = ( SortRequest ) searchContext.getRequestControl( SortRequest.OID );
+
+        // The entries found through an alias are not in the searched subtree
+        if ( ( sortRequest == null ) || ( sortRequest.getSortKeys().size() != 1 )
+            || searchContext.getAliasDerefMode().isDerefInSearching()
+            || searchContext.getAliasDerefMode().isDerefAlways() )
+        {
+            return null;
+        }
+
+        SortKey sortKey = sortRequest.getSortKeys().get( 0 );
+        AttributeType attributeType = schemaManager.getAttributeType( sortKey.getAttributeTypeDesc() );
+
+        if ( ( attributeType == null ) || !attributeType.getSyntax().isHumanReadable()
+            || ( attributeType.getEquality() == null ) || !db.hasUserIndexOn( attributeType )
+            || !requiresAttribute( root, attributeType ) )
+        {
+            return null;
+        }
+
+        // The index keys are sorted using the equality matching rule comparator
+        LdapComparator<?> indexComparator = schemaManager.lookupComparatorRegistry( attributeType.getEquality()
+            .getOid() );
+        LdapComparator<?> sortComparator;
+        Index<String, String> index;
+
+        try
+        {
+            index = ( Index<String, String> ) db.getIndex( attributeType );
+
+            if ( sortKey.getMatchingRuleId() != null )
+            {
+                sortComparator = schemaManager.lookupComparatorRegistry( sortKey.getMatchingRuleId() );
+            }
+            else if ( attributeType.getOrdering() != null )
+            {
+                sortComparator = schemaManager.lookupComparatorRegistry( attributeType.getOrdering().getOid() );
+            }
+            else
+            {
+                sortComparator = indexComparator;
+            }
+        }
+        catch ( LdapException | IndexNotFoundException e )
+        {
+            return null;
+        }
+
+        if ( sortComparator.getClass() != indexComparator.getClass() )
+        {
+            return null;
+        }
+
+        Object count = root.get( DefaultOptimizer.COUNT_ANNOTATION );
+
+        if ( ( count instanceof Long ) && ( ( Long ) count < index.count( partitionTxn ) / 2 ) )
+        {
+            return null;
+        }
+
+        return new OrderedIndexCursor( partitionTxn, db, index, ( Comparator<String> ) indexComparator,
+            sortKey.isReverseOrder() );
+    }
+
+
+    /**
+     * Tells if all the entries matching a filter contain the given attribute
+     */
+    private boolean requiresAttribute( ExprNode node, AttributeType attributeType )
+    {
+        if ( node instanceof AndNode )
+        {
+            for ( ExprNode child : ( ( AndNode ) node ).getChildren() )
+            {
+                if ( requiresAttribute( child, attributeType ) )
+                {
+                    return true;
+                }
+            }
+
+            return false;
+        }
+        else if ( node instanceof OrNode )
+        {
+            for ( ExprNode child : ( ( OrNode ) node ).getChildren() )
+            {
+                if ( !requiresAttribute( child, attributeType ) )
+                {
+                    return false;
+                }
+            }
+
+            return true;
+        }
+        else if ( ( node instanceof LeafNode ) && !( node instanceof ExtensibleNode ) )
+        {
+            // The extensible filters may match the entry Dn
+            AttributeType nodeType = ( ( LeafNode ) node ).getAttributeType();
+
+            return ( nodeType != null ) && nodeType.getOid().equals( attributeType.getOid() );
+        }
+
+        return false;
+    }
+
+
     /**
      * {@inheritDoc}
      */
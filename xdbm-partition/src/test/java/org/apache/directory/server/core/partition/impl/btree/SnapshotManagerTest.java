@@ -0,0 +1,163 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.partition.impl.btree;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.apache.directory.api.ldap.model.entry.DefaultEntry;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.exception.LdapAdminLimitExceededException;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.junit.Test;
+
+
+/**
+ * Tests the SnapshotManager class.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class SnapshotManagerTest
+{
+    private static void assertExpired( SnapshotManager snapshotManager, SnapshotReadTxn txn, String id )
+    {
+        try
+        {
+            snapshotManager.lookup( txn, id );
+            fail( "The transaction should have been expired" );
+        }
+        catch ( LdapAdminLimitExceededException laee )
+        {
+            // Expected
+        }
+    }
+
+
+    @Test
+    public void testNoVersionKeptWithoutPinnedTxn() throws Exception
+    {
+        SnapshotManager snapshotManager = new SnapshotManager();
+
+        assertFalse( snapshotManager.hasPinnedTransactions() );
+
+        snapshotManager.modified( "1", new DefaultEntry( new Dn( "cn=v1" ) ) );
+
+        assertEquals( 1L, snapshotManager.getRevision() );
+        assertEquals( 0, snapshotManager.getVersionedEntryCount() );
+    }
+
+
+    @Test
+    public void testPinnedTxnSeesItsVersion() throws Exception
+    {
+        SnapshotManager snapshotManager = new SnapshotManager();
+        SnapshotReadTxn oldTxn = new SnapshotReadTxn();
+        SnapshotReadTxn newTxn = new SnapshotReadTxn();
+        Entry v1 = new DefaultEntry( new Dn( "cn=v1" ) );
+        Entry v2 = new DefaultEntry( new Dn( "cn=v2" ) );
+
+        snapshotManager.pin( oldTxn );
+        assertTrue( oldTxn.isPinned() );
+
+        // First modification : v1 is replaced by v2
+        snapshotManager.modified( "1", v1 );
+
+        snapshotManager.pin( newTxn );
+
+        // Second modification : v2 is replaced by v3
+        snapshotManager.modified( "1", v2 );
+
+        assertSame( v1, snapshotManager.lookup( oldTxn, "1" ) );
+        assertSame( v2, snapshotManager.lookup( newTxn, "1" ) );
+        assertNull( snapshotManager.lookup( oldTxn, "2" ) );
+
+        // Releasing the oldest transaction drops v1
+        snapshotManager.release( oldTxn );
+        assertFalse( oldTxn.isPinned() );
+        assertSame( v2, snapshotManager.lookup( newTxn, "1" ) );
+        assertEquals( 1, snapshotManager.getVersionedEntryCount() );
+
+        snapshotManager.release( newTxn );
+        assertEquals( 0, snapshotManager.getVersionedEntryCount() );
+        assertFalse( snapshotManager.hasPinnedTransactions() );
+    }
+
+
+    @Test
+    public void testUnpinnedTxnSeesCurrentVersion() throws Exception
+    {
+        SnapshotManager snapshotManager = new SnapshotManager();
+        SnapshotReadTxn pinnedTxn = new SnapshotReadTxn();
+        SnapshotReadTxn txn = new SnapshotReadTxn();
+
+        snapshotManager.pin( pinnedTxn );
+        snapshotManager.modified( "1", new DefaultEntry( new Dn( "cn=v1" ) ) );
+
+        assertNull( snapshotManager.lookup( txn, "1" ) );
+    }
+
+
+    @Test
+    public void testLeakedTxnIsExpired() throws Exception
+    {
+        SnapshotManager snapshotManager = new SnapshotManager();
+        snapshotManager.setMaxVersions( 10 );
+        SnapshotReadTxn leakedTxn = new SnapshotReadTxn();
+        Entry v0 = new DefaultEntry( new Dn( "cn=v0" ) );
+
+        // A cursor which is never closed
+        snapshotManager.pin( leakedTxn );
+        snapshotManager.modified( "0", v0 );
+        assertSame( v0, snapshotManager.lookup( leakedTxn, "0" ) );
+
+        SnapshotReadTxn txn = new SnapshotReadTxn();
+        snapshotManager.pin( txn );
+
+        for ( int i = 1; i <= 100; i++ )
+        {
+            snapshotManager.modified( Integer.toString( i ), new DefaultEntry( new Dn( "cn=v" + i ) ) );
+            assertTrue( snapshotManager.getVersionCount() <= 10 );
+        }
+
+        // The expired transactions can't read the entries anymore, even the ones which
+        // have no kept version
+        assertExpired( snapshotManager, leakedTxn, "0" );
+        assertExpired( snapshotManager, txn, "1" );
+        assertExpired( snapshotManager, txn, "1000" );
+        assertFalse( snapshotManager.hasPinnedTransactions() );
+
+        // Releasing the expired transactions has no effect
+        snapshotManager.release( leakedTxn );
+        snapshotManager.release( txn );
+        assertEquals( 0, snapshotManager.getVersionCount() );
+
+        // A new transaction is still protected
+        SnapshotReadTxn newTxn = new SnapshotReadTxn();
+        Entry v1 = new DefaultEntry( new Dn( "cn=v1" ) );
+        snapshotManager.pin( newTxn );
+        snapshotManager.modified( "1", v1 );
+        assertSame( v1, snapshotManager.lookup( newTxn, "1" ) );
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *   or more contributor license agreements.  See the NOTICE file
+ *   distributed with this work for additional information
+ *   regarding copyright ownership.  The ASF licenses this file
+ *   to you under the Apache License, Version 2.0 (the
+ *   "License"); you may not use this file except in compliance
+ *   with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing,
+ *   software distributed under the License is distributed on an
+ *   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *   KIND, either express or implied.  See the License for the
+ *   specific language governing permissions and limitations
+ *   under the License.
+ *
+ */
+package org.apache.directory.server.xdbm;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+
+/**
+ * Tests the {@link EntryIdDictionary} class.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class EntryIdDictionaryTest
+{
+    @Test
+    public void testRemovedIdIsReused() throws Exception
+    {
+        EntryIdDictionary dictionary = new EntryIdDictionary();
+
+        for ( int i = 0; i < 1000; i++ )
+        {
+            int id = dictionary.getOrAssign( "uuid-" + i );
+            assertEquals( "uuid-" + i, dictionary.getUuid( id ) );
+            dictionary.remove( "uuid-" + i );
+            assertNull( dictionary.getUuid( id ) );
+        }
+
+        // Add/delete churn doesn't make the dictionary grow
+        assertEquals( 0, dictionary.size() );
+        assertEquals( 1, dictionary.capacity() );
+    }
+
+
+    @Test
+    public void testRemovedIdKeptForOpenSearch() throws Exception
+    {
+        EntryIdDictionary dictionary = new EntryIdDictionary();
+        int id = dictionary.getOrAssign( "uuid-1" );
+
+        // A search holds the ID when the entry is deleted
+        long searchEpoch = dictionary.open();
+        dictionary.remove( "uuid-1" );
+
+        assertEquals( "uuid-1", dictionary.getUuid( id ) );
+
+        // A search opened after the deletion doesn't prevent the reuse
+        long laterEpoch = dictionary.open();
+        int otherId = dictionary.getOrAssign( "uuid-2" );
+        assertEquals( 1, otherId );
+
+        dictionary.close( searchEpoch );
+        assertNull( dictionary.getUuid( id ) );
+        assertEquals( id, dictionary.getOrAssign( "uuid-3" ) );
+        assertEquals( "uuid-3", dictionary.getUuid( id ) );
+
+        dictionary.close( laterEpoch );
+        assertEquals( 2, dictionary.capacity() );
+    }
+
+
+    @Test
+    public void testLeakedSearchIsExpired() throws Exception
+    {
+        EntryIdDictionary dictionary = new EntryIdDictionary();
+        dictionary.setMaxRemovedIds( 2 );
+
+        for ( int i = 0; i < 4; i++ )
+        {
+            dictionary.getOrAssign( "uuid-" + i );
+        }
+
+        // A search which is never closed
+        long leakedEpoch = dictionary.open();
+        assertFalse( dictionary.isExpired( leakedEpoch ) );
+
+        dictionary.remove( "uuid-0" );
+        dictionary.remove( "uuid-1" );
+        assertEquals( 4, dictionary.capacity() );
+        assertFalse( dictionary.isExpired( leakedEpoch ) );
+
+        // Too many removed ints kept : the search is expired and the ints are reused
+        long laterEpoch = dictionary.open();
+        dictionary.remove( "uuid-2" );
+
+        assertTrue( dictionary.isExpired( leakedEpoch ) );
+        assertFalse( dictionary.isExpired( laterEpoch ) );
+        assertFalse( dictionary.isExpired( -1L ) );
+        assertNull( dictionary.getUuid( 0 ) );
+        assertEquals( "uuid-2", dictionary.getUuid( 2 ) );
+
+        dictionary.getOrAssign( "uuid-4" );
+        dictionary.getOrAssign( "uuid-5" );
+        assertEquals( 4, dictionary.capacity() );
+
+        // Closing an expired search is harmless
+        dictionary.close( leakedEpoch );
+        dictionary.close( laterEpoch );
+        assertNull( dictionary.getUuid( 2 ) );
+    }
+}
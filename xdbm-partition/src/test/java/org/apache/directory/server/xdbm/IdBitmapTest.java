@@ -0,0 +1,212 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.xdbm;
+
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.apache.directory.api.ldap.model.exception.LdapAdminLimitExceededException;
+import org.junit.Test;
+
+
+/**
+ * Tests the {@link IdBitmap} and {@link IdBitmapCursor} classes.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class IdBitmapTest
+{
+    @Test
+    public void testAddContains()
+    {
+        IdBitmap bitmap = new IdBitmap();
+
+        assertTrue( bitmap.isEmpty() );
+        assertTrue( bitmap.add( 70000 ) );
+        assertTrue( bitmap.add( 3 ) );
+        assertFalse( bitmap.add( 3 ) );
+
+        assertTrue( bitmap.contains( 3 ) );
+        assertTrue( bitmap.contains( 70000 ) );
+        assertFalse( bitmap.contains( 4 ) );
+        assertEquals( 2, bitmap.getCardinality() );
+        assertArrayEquals( new int[]
+            { 3, 70000 }, bitmap.toArray() );
+    }
+
+
+    @Test
+    public void testDenseChunk()
+    {
+        IdBitmap bitmap = new IdBitmap();
+
+        // Enough values to switch the chunk to a bitmap
+        for ( int i = 0; i < 10000; i++ )
+        {
+            bitmap.add( i * 2 );
+        }
+
+        assertEquals( 10000, bitmap.getCardinality() );
+        assertEquals( 1, bitmap.getBitmapChunkCount() );
+        assertTrue( bitmap.contains( 19998 ) );
+        assertFalse( bitmap.contains( 19999 ) );
+
+        int[] values = bitmap.toArray();
+
+        for ( int i = 0; i < values.length; i++ )
+        {
+            assertEquals( i * 2, values[i] );
+        }
+    }
+
+
+    @Test
+    public void testAndOrAndNot()
+    {
+        IdBitmap evens = new IdBitmap();
+        IdBitmap thirds = new IdBitmap();
+
+        for ( int i = 0; i < 20000; i++ )
+        {
+            evens.add( i * 2 );
+            thirds.add( i * 3 );
+        }
+
+        IdBitmap and = IdBitmap.and( evens, thirds );
+
+        assertEquals( 6667, and.getCardinality() );
+        assertTrue( and.contains( 6 ) );
+        assertFalse( and.contains( 4 ) );
+
+        IdBitmap andNot = IdBitmap.andNot( evens, thirds );
+
+        assertEquals( 20000 - 6667, andNot.getCardinality() );
+        assertTrue( andNot.contains( 4 ) );
+        assertFalse( andNot.contains( 6 ) );
+
+        IdBitmap or = new IdBitmap();
+        or.or( evens );
+        or.or( thirds );
+
+        assertEquals( 40000 - 6667, or.getCardinality() );
+
+        // The operands must not have been modified
+        assertEquals( 20000, evens.getCardinality() );
+        assertEquals( 20000, thirds.getCardinality() );
+    }
+
+
+    @Test
+    public void testRemove()
+    {
+        IdBitmap bitmap = new IdBitmap();
+
+        // Fill a dense chunk and a sparse one
+        for ( int i = 0; i < 10000; i++ )
+        {
+            bitmap.add( i );
+        }
+
+        bitmap.add( 100000 );
+
+        assertTrue( bitmap.remove( 5000 ) );
+        assertFalse( bitmap.remove( 5000 ) );
+        assertFalse( bitmap.contains( 5000 ) );
+        assertEquals( 10000, bitmap.getCardinality() );
+
+        // Removing the last value of a chunk drops it
+        assertTrue( bitmap.remove( 100000 ) );
+        assertFalse( bitmap.remove( 200000 ) );
+        assertEquals( 9999, bitmap.getCardinality() );
+
+        for ( int i = 0; i < 10000; i++ )
+        {
+            bitmap.remove( i );
+        }
+
+        assertTrue( bitmap.isEmpty() );
+    }
+
+
+    @Test
+    public void testCursor() throws Exception
+    {
+        EntryIdDictionary dictionary = new EntryIdDictionary();
+        IdBitmap bitmap = new IdBitmap();
+
+        bitmap.add( dictionary.getOrAssign( "uuid-1" ) );
+        bitmap.add( dictionary.getOrAssign( "uuid-2" ) );
+        assertEquals( 0, dictionary.getOrAssign( "uuid-1" ) );
+
+        IdBitmapCursor cursor = new IdBitmapCursor( new MockPartitionReadTxn(), bitmap, dictionary );
+
+        assertTrue( cursor.isBeforeFirst() );
+        assertTrue( cursor.next() );
+        assertEquals( "uuid-1", cursor.get().getId() );
+        assertTrue( cursor.next() );
+        assertEquals( "uuid-2", cursor.get().getId() );
+        assertTrue( cursor.isLast() );
+        assertFalse( cursor.next() );
+        assertTrue( cursor.isAfterLast() );
+        assertTrue( cursor.previous() );
+        assertEquals( "uuid-2", cursor.get().getId() );
+
+        cursor.close();
+    }
+
+
+    @Test
+    public void testExpiredCursor() throws Exception
+    {
+        EntryIdDictionary dictionary = new EntryIdDictionary();
+        dictionary.setMaxRemovedIds( 1 );
+        IdBitmap bitmap = new IdBitmap();
+
+        bitmap.add( dictionary.getOrAssign( "uuid-1" ) );
+        bitmap.add( dictionary.getOrAssign( "uuid-2" ) );
+        bitmap.add( dictionary.getOrAssign( "uuid-3" ) );
+
+        IdBitmapCursor cursor = new IdBitmapCursor( new MockPartitionReadTxn(), bitmap, dictionary,
+            dictionary.open() );
+
+        assertTrue( cursor.next() );
+        assertEquals( "uuid-1", cursor.get().getId() );
+
+        // The search is expired, as its ints may be reassigned to other entries
+        dictionary.remove( "uuid-2" );
+        dictionary.remove( "uuid-3" );
+
+        try
+        {
+            cursor.next();
+            fail( "The search should have been expired" );
+        }
+        catch ( LdapAdminLimitExceededException laele )
+        {
+            assertFalse( cursor.available() );
+        }
+
+        cursor.close();
+    }
+}
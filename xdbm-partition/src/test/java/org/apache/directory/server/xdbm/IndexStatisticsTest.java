@@ -0,0 +1,171 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.xdbm;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.util.Comparator;
+import java.util.regex.Pattern;
+
+import org.junit.Test;
+
+
+/**
+ * Tests the {@link IndexStatistics} class.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class IndexStatisticsTest
+{
+    @Test
+    public void testExactCounts()
+    {
+        IndexStatistics statistics = new IndexStatistics();
+
+        statistics.add( "apple", true );
+        statistics.add( "apple", false );
+        statistics.add( "banana", true );
+        statistics.add( "cherry", true );
+
+        assertTrue( statistics.isExact() );
+        assertEquals( 4L, statistics.getTotal() );
+        assertEquals( 3L, statistics.getDistinct() );
+        assertEquals( 2L, statistics.equalityCount( "apple" ) );
+        assertEquals( 0L, statistics.equalityCount( "durian" ) );
+        assertEquals( 2L, statistics.greaterOrEqualCount( "banana" ) );
+        assertEquals( 3L, statistics.lessOrEqualCount( "banana" ) );
+        assertEquals( 2L, statistics.prefixCount( "app" ) );
+        assertEquals( 2L, statistics.matchingCount( Pattern.compile( ".*an.*|.*er.*" ) ) );
+
+        statistics.drop( "apple", false );
+        statistics.drop( "banana", true );
+
+        assertEquals( 2L, statistics.getTotal() );
+        assertEquals( 2L, statistics.getDistinct() );
+        assertEquals( 1L, statistics.equalityCount( "apple" ) );
+        assertEquals( 0L, statistics.equalityCount( "banana" ) );
+    }
+
+
+    @Test
+    public void testRangeCountsWithComparator()
+    {
+        Comparator<String> integerComparator = new Comparator<String>()
+        {
+            @Override
+            public int compare( String key1, String key2 )
+            {
+                return Long.compare( Long.parseLong( key1 ), Long.parseLong( key2 ) );
+            }
+        };
+
+        IndexStatistics statistics = new IndexStatistics();
+
+        for ( int i = 1; i <= 100; i++ )
+        {
+            statistics.add( Integer.toString( i ), true );
+        }
+
+        // The String order puts "10" to "89" and "100" before "9"
+        assertEquals( 11L, statistics.greaterOrEqualCount( "9" ) );
+        assertEquals( 92L, statistics.greaterOrEqualCount( "9", integerComparator ) );
+        assertEquals( 11L, statistics.greaterOrEqualCount( "90", integerComparator ) );
+        assertEquals( 9L, statistics.lessOrEqualCount( "9", integerComparator ) );
+
+        // Not exact anymore : the estimate is based on the sample
+        for ( int i = 101; i <= 4000; i++ )
+        {
+            statistics.add( Integer.toString( i ), true );
+        }
+
+        assertFalse( statistics.isExact() );
+
+        long greater = statistics.greaterOrEqualCount( "3000", integerComparator );
+        assertTrue( greater > 500L && greater < 1600L );
+
+        long less = statistics.lessOrEqualCount( "1000", integerComparator );
+        assertTrue( less > 500L && less < 1600L );
+    }
+
+
+    @Test
+    public void testMostCommonKeys()
+    {
+        IndexStatistics statistics = new IndexStatistics();
+
+        // A frequent key, and a lot of unique ones
+        for ( int i = 0; i < 5000; i++ )
+        {
+            statistics.add( "common", i == 0 );
+            statistics.add( "key" + i, true );
+        }
+
+        assertFalse( statistics.isExact() );
+        assertEquals( 10000L, statistics.getTotal() );
+        assertEquals( 5001L, statistics.getDistinct() );
+        assertTrue( statistics.equalityCount( "common" ) >= 4000L );
+        assertEquals( 2L, statistics.equalityCount( "key12" ) );
+
+        // Half of the keys start with 'k'
+        long prefixCount = statistics.prefixCount( "k" );
+        assertEquals( 5000L, prefixCount );
+
+        long greater = statistics.greaterOrEqualCount( "d" );
+        assertTrue( ( greater >= 5000L ) && ( greater < 10000L ) );
+    }
+
+
+    @Test
+    public void testSerialization() throws Exception
+    {
+        IndexStatistics statistics = new IndexStatistics();
+
+        for ( int i = 0; i < 2000; i++ )
+        {
+            statistics.add( "value" + ( i % 1500 ), i < 1500 );
+        }
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+
+        try ( DataOutputStream out = new DataOutputStream( baos ) )
+        {
+            statistics.writeTo( out );
+        }
+
+        IndexStatistics read = IndexStatistics.readFrom( new DataInputStream( new ByteArrayInputStream( baos
+            .toByteArray() ) ) );
+
+        IndexStatistics copy = new IndexStatistics();
+        copy.copyFrom( read );
+
+        assertEquals( statistics.getTotal(), copy.getTotal() );
+        assertEquals( statistics.getDistinct(), copy.getDistinct() );
+        assertEquals( statistics.isExact(), copy.isExact() );
+        assertEquals( statistics.prefixCount( "value1" ), copy.prefixCount( "value1" ) );
+        assertEquals( statistics.equalityCount( "value7" ), copy.equalityCount( "value7" ) );
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.xdbm;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.apache.directory.api.ldap.model.filter.SubstringNode;
+import org.apache.directory.api.ldap.model.schema.AttributeType;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.api.ldap.schema.extractor.SchemaLdifExtractor;
+import org.apache.directory.api.ldap.schema.extractor.impl.DefaultSchemaLdifExtractor;
+import org.apache.directory.api.ldap.schema.loader.LdifSchemaLoader;
+import org.apache.directory.api.ldap.schema.manager.impl.DefaultSchemaManager;
+import org.apache.directory.api.util.exception.Exceptions;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+
+/**
+ * Tests the {@link NGramIndex} class.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class NGramIndexTest
+{
+    private static SchemaManager schemaManager;
+    private static AttributeType cnAT;
+
+    private EntryIdDictionary dictionary;
+    private NGramIndex index;
+
+
+    @BeforeClass
+    public static void setup() throws Exception
+    {
+        String workingDirectory = System.getProperty( "workingDirectory" );
+
+        if ( workingDirectory == null )
+        {
+            String path = NGramIndexTest.class.getResource( "" ).getPath();
+            int targetPos = path.indexOf( "target" );
+            workingDirectory = path.substring( 0, targetPos + 6 );
+        }
+
+        File schemaRepository = new File( workingDirectory, "schema" );
+        SchemaLdifExtractor extractor = new DefaultSchemaLdifExtractor( new File( workingDirectory ) );
+        extractor.extractOrCopy( true );
+        LdifSchemaLoader loader = new LdifSchemaLoader( schemaRepository );
+        schemaManager = new DefaultSchemaManager( loader );
+
+        boolean loaded = schemaManager.loadAllEnabled();
+
+        if ( !loaded )
+        {
+            fail( "Schema load failed : " + Exceptions.printErrors( schemaManager.getErrors() ) );
+        }
+
+        cnAT = schemaManager.getAttributeType( "cn" );
+    }
+
+
+    @Before
+    public void createIndex()
+    {
+        dictionary = new EntryIdDictionary();
+        index = new NGramIndex( cnAT, dictionary );
+    }
+
+
+    @Test
+    public void testGetGrams()
+    {
+        assertEquals( 0, NGramIndex.getGrams( "ab" ).size() );
+        assertEquals( 1, NGramIndex.getGrams( "abc" ).size() );
+        assertEquals( 3, NGramIndex.getGrams( "smith" ).size() );
+
+        // "aaa" is found twice in "aaaa"
+        assertEquals( 1, NGramIndex.getGrams( "aaaa" ).size() );
+    }
+
+
+    @Test
+    public void testCandidates() throws Exception
+    {
+        index.add( "john smith", "uuid-1" );
+        index.add( "jane smithers", "uuid-2" );
+        index.add( "jack bean", "uuid-3" );
+
+        IdBitmap candidates = index.getCandidates( new SubstringNode( cnAT, null, "SMITH" ) );
+        assertEquals( 2, candidates.getCardinality() );
+        assertTrue( candidates.contains( dictionary.getOrAssign( "uuid-1" ) ) );
+        assertTrue( candidates.contains( dictionary.getOrAssign( "uuid-2" ) ) );
+
+        candidates = index.getCandidates( new SubstringNode( cnAT, null, "bean" ) );
+        assertEquals( 1, candidates.getCardinality() );
+        assertTrue( candidates.contains( dictionary.getOrAssign( "uuid-3" ) ) );
+
+        // No entry contains 'xyz'
+        assertTrue( index.getCandidates( new SubstringNode( cnAT, null, "xyz" ) ).isEmpty() );
+
+        // Too short to have a gram
+        assertNull( index.getCandidates( new SubstringNode( cnAT, null, "an" ) ) );
+    }
+
+
+    @Test
+    public void testUpdate() throws Exception
+    {
+        index.update( "uuid-1", null, Arrays.asList( "john smith", "johnny" ) );
+        index.update( "uuid-2", null, Collections.singleton( "johnson" ) );
+
+        IdBitmap candidates = index.getCandidates( new SubstringNode( cnAT, null, "john" ) );
+        assertEquals( 2, candidates.getCardinality() );
+
+        // "john" is still found in "johnny"
+        index.update( "uuid-1", Arrays.asList( "john smith", "johnny" ), Collections.singleton( "johnny" ) );
+        candidates = index.getCandidates( new SubstringNode( cnAT, null, "john" ) );
+        assertEquals( 2, candidates.getCardinality() );
+        assertTrue( index.getCandidates( new SubstringNode( cnAT, null, "smith" ) ).isEmpty() );
+
+        // Delete both entries
+        index.update( "uuid-1", Collections.singleton( "johnny" ), null );
+        index.update( "uuid-2", Collections.singleton( "johnson" ), null );
+        candidates = index.getCandidates( new SubstringNode( cnAT, null, "john" ) );
+        assertFalse( candidates.contains( dictionary.getOrAssign( "uuid-1" ) ) );
+        assertTrue( candidates.isEmpty() );
+        assertEquals( 0, index.getGramCount() );
+    }
+}
@@ -0,0 +1,282 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.xdbm;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+
+import org.apache.directory.api.ldap.model.entry.DefaultEntry;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.api.ldap.schema.extractor.SchemaLdifExtractor;
+import org.apache.directory.api.ldap.schema.extractor.impl.DefaultSchemaLdifExtractor;
+import org.apache.directory.api.ldap.schema.loader.LdifSchemaLoader;
+import org.apache.directory.api.ldap.schema.manager.impl.DefaultSchemaManager;
+import org.apache.directory.api.util.exception.Exceptions;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+
+/**
+ * Tests the {@link OffHeapEntryCache} class.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class OffHeapEntryCacheTest
+{
+    private static SchemaManager schemaManager;
+
+
+    @BeforeClass
+    public static void setup() throws Exception
+    {
+        String workingDirectory = System.getProperty( "workingDirectory" );
+
+        if ( workingDirectory == null )
+        {
+            String path = OffHeapEntryCacheTest.class.getResource( "" ).getPath();
+            int targetPos = path.indexOf( "target" );
+            workingDirectory = path.substring( 0, targetPos + 6 );
+        }
+
+        File schemaRepository = new File( workingDirectory, "schema" );
+        SchemaLdifExtractor extractor = new DefaultSchemaLdifExtractor( new File( workingDirectory ) );
+        extractor.extractOrCopy( true );
+        LdifSchemaLoader loader = new LdifSchemaLoader( schemaRepository );
+        schemaManager = new DefaultSchemaManager( loader );
+
+        boolean loaded = schemaManager.loadAllEnabled();
+
+        if ( !loaded )
+        {
+            fail( "Schema load failed : " + Exceptions.printErrors( schemaManager.getErrors() ) );
+        }
+    }
+
+
+    private Entry createEntry( String cn, int descriptionSize ) throws Exception
+    {
+        StringBuilder description = new StringBuilder();
+
+        for ( int i = 0; i < descriptionSize; i++ )
+        {
+            description.append( 'x' );
+        }
+
+        return new DefaultEntry( schemaManager,
+            "cn=" + cn + ",ou=system",
+            "objectClass: top",
+            "objectClass: person",
+            "cn: " + cn,
+            "sn: test",
+            "description: " + description );
+    }
+
+
+    @Test
+    public void testPutGet() throws Exception
+    {
+        OffHeapEntryCache cache = new OffHeapEntryCache( schemaManager, 64 * 1024 );
+        Entry entry = createEntry( "test", 2000 );
+
+        assertNull( cache.get( "1" ) );
+        cache.put( "1", entry );
+
+        Entry cached = cache.get( "1" );
+
+        assertNotNull( cached );
+        assertEquals( entry.getAttributes().size(), cached.getAttributes().size() );
+        assertEquals( entry.get( "description" ), cached.get( "description" ) );
+        assertEquals( 1, cache.getHitCount() );
+        assertEquals( 1, cache.getMissCount() );
+
+        // The entries are not shared
+        cached.removeAttributes( "description" );
+        assertNotNull( cache.get( "1" ).get( "description" ) );
+
+        cache.remove( "1" );
+        assertNull( cache.get( "1" ) );
+        assertEquals( 0, cache.getUsedBytes() );
+
+        cache.close();
+    }
+
+
+    @Test
+    public void testReplace() throws Exception
+    {
+        OffHeapEntryCache cache = new OffHeapEntryCache( schemaManager, 64 * 1024 );
+
+        // Not present, ignored
+        cache.replace( "1", createEntry( "test", 10 ) );
+        assertNull( cache.get( "1" ) );
+
+        cache.put( "1", createEntry( "test", 10 ) );
+        cache.replace( "1", createEntry( "test", 3000 ) );
+
+        assertEquals( 3000, cache.get( "1" ).get( "description" ).getString().length() );
+
+        cache.close();
+    }
+
+
+    @Test
+    public void testByteBudget() throws Exception
+    {
+        OffHeapEntryCache cache = new OffHeapEntryCache( schemaManager, 32 * 1024 );
+
+        for ( int i = 0; i < 1000; i++ )
+        {
+            cache.put( Integer.toString( i ), createEntry( "test" + i, 1000 ) );
+            assertTrue( cache.getUsedBytes() <= cache.getMaxBytes() );
+        }
+
+        assertTrue( cache.getEvictionCount() > 0 );
+        assertTrue( cache.getEntryCount() < 1000 );
+
+        // An entry larger than the cache is not stored
+        cache.put( "big", createEntry( "big", 64 * 1024 ) );
+        assertNull( cache.get( "big" ) );
+
+        cache.close();
+    }
+
+
+    @Test
+    public void testFrequentEntriesSurviveScan() throws Exception
+    {
+        OffHeapEntryCache cache = new OffHeapEntryCache( schemaManager, 64 * 1024 );
+
+        // Read 10 entries many times
+        for ( int round = 0; round < 5; round++ )
+        {
+            for ( int i = 0; i < 10; i++ )
+            {
+                String id = "hot" + i;
+
+                if ( cache.get( id ) == null )
+                {
+                    cache.put( id, createEntry( id, 500 ) );
+                }
+            }
+        }
+
+        // Then scan many entries read only once
+        for ( int i = 0; i < 1000; i++ )
+        {
+            String id = "scan" + i;
+
+            if ( cache.get( id ) == null )
+            {
+                cache.put( id, createEntry( id, 500 ) );
+            }
+        }
+
+        int kept = 0;
+
+        for ( int i = 0; i < 10; i++ )
+        {
+            if ( cache.get( "hot" + i ) != null )
+            {
+                kept++;
+            }
+        }
+
+        assertTrue( kept >= 8 );
+
+        cache.close();
+    }
+
+
+    @Test
+    public void testStripes() throws Exception
+    {
+        // Too small to be split
+        OffHeapEntryCache cache = new OffHeapEntryCache( schemaManager, 64 * 1024 );
+        assertEquals( 1, cache.getStripeCount() );
+        cache.close();
+
+        final OffHeapEntryCache stripedCache = new OffHeapEntryCache( schemaManager, 16 * 1024 * 1024 );
+        assertEquals( OffHeapEntryCache.MAX_STRIPES, stripedCache.getStripeCount() );
+        assertEquals( 16 * 1024 * 1024, stripedCache.getMaxBytes() );
+
+        // Concurrent readers and writers, each on its own entries
+        Thread[] threads = new Thread[4];
+        final int[] failures = new int[threads.length];
+
+        for ( int t = 0; t < threads.length; t++ )
+        {
+            final int thread = t;
+
+            threads[t] = new Thread( new Runnable()
+            {
+                public void run()
+                {
+                    try
+                    {
+                        for ( int i = 0; i < 500; i++ )
+                        {
+                            String id = thread + "-" + i;
+                            stripedCache.put( id, createEntry( id, 100 ) );
+
+                            Entry cached = stripedCache.get( id );
+
+                            if ( ( cached == null ) || !cached.contains( "cn", id ) )
+                            {
+                                failures[thread]++;
+                            }
+                        }
+                    }
+                    catch ( Exception e )
+                    {
+                        failures[thread]++;
+                    }
+                }
+            } );
+
+            threads[t].start();
+        }
+
+        for ( Thread thread : threads )
+        {
+            thread.join();
+        }
+
+        for ( int failure : failures )
+        {
+            assertEquals( 0, failure );
+        }
+
+        assertEquals( 2000, stripedCache.getEntryCount() );
+        assertEquals( 2000, stripedCache.getHitCount() );
+
+        stripedCache.clear();
+        assertEquals( 0, stripedCache.getEntryCount() );
+        assertEquals( 0, stripedCache.getUsedBytes() );
+
+        stripedCache.close();
+    }
+}
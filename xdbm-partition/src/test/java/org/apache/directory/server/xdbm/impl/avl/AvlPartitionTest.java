@@ -44,6 +44,7 @@ import org.apache.directory.api.ldap.model.entry.DefaultModification;
 import org.apache.directory.api.ldap.model.entry.Entry;
 import org.apache.directory.api.ldap.model.entry.Modification;
 import org.apache.directory.api.ldap.model.entry.ModificationOperation;
+import org.apache.directory.api.ldap.model.exception.LdapAdminLimitExceededException;
 import org.apache.directory.api.ldap.model.exception.LdapNoSuchObjectException;
 import org.apache.directory.api.ldap.model.exception.LdapSchemaViolationException;
 import org.apache.directory.api.ldap.model.name.Dn;
@@ -64,6 +65,8 @@ import org.apache.directory.server.core.api.interceptor.context.AddOperationCont
 import org.apache.directory.server.core.api.interceptor.context.ModDnAva;
 import org.apache.directory.server.core.api.partition.PartitionTxn;
 import org.apache.directory.server.core.partition.impl.avl.AvlPartition;
+import org.apache.directory.server.core.partition.impl.btree.SnapshotManager;
+import org.apache.directory.server.core.partition.impl.btree.SnapshotReadTxn;
 import org.apache.directory.server.core.shared.DefaultDnFactory;
 import org.apache.directory.server.xdbm.IndexNotFoundException;
 import org.apache.directory.server.xdbm.StoreUtils;
@@ -396,6 +399,39 @@ public class AvlPartitionTest
     }
 
 
+    @Test
+    public void testConcurrentStore() throws Exception
+    {
+        AvlPartition concurrentPartition = new AvlPartition( schemaManager, dnFactory );
+        concurrentPartition.setId( "concurrent" );
+        concurrentPartition.setConcurrent( true );
+        concurrentPartition.addIndex( new AvlIndex<String>( SchemaConstants.OU_AT_OID ) );
+        concurrentPartition.setSuffixDn( new Dn( schemaManager, "o=Good Times Co." ) );
+        concurrentPartition.setCacheService( cacheService );
+        concurrentPartition.initialize();
+
+        StoreUtils.loadExampleData( concurrentPartition, schemaManager );
+        PartitionTxn concurrentTxn = concurrentPartition.beginReadTransaction();
+
+        assertTrue( concurrentPartition.isConcurrent() );
+        assertEquals( 11, concurrentPartition.count( concurrentTxn ) );
+
+        Dn dn = new Dn( schemaManager, "cn=JOhnny WAlkeR,ou=Sales,o=Good Times Co." );
+        String id = concurrentPartition.getEntryId( concurrentTxn, dn );
+        assertNotNull( id );
+
+        concurrentPartition.modify( concurrentTxn, dn, new DefaultModification( ModificationOperation.ADD_ATTRIBUTE,
+            schemaManager.getAttributeType( "telephoneNumber" ), "+1974045779" ) );
+        assertTrue( concurrentPartition.fetch( concurrentTxn, id ).get( "telephoneNumber" ).contains( "+1974045779" ) );
+
+        concurrentPartition.delete( concurrentTxn, id );
+        assertNull( concurrentPartition.getEntryId( concurrentTxn, dn ) );
+        assertEquals( 10, concurrentPartition.count( concurrentTxn ) );
+
+        concurrentPartition.destroy( concurrentTxn );
+    }
+
+
     @Test(expected = LdapNoSuchObjectException.class)
     public void testAddWithoutParentId() throws Exception
     {
@@ -651,4 +687,43 @@ public class AvlPartitionTest
         lookedup = partition.modify( txn, dn, add );
         assertEquals( attribVal, lookedup.get( "ou" ).get().getString() );
     }
+
+
+    @Test
+    public void testExpiredSnapshot() throws Exception
+    {
+        Dn dn = new Dn( schemaManager, "cn=JOhnny WAlkeR,ou=Sales,o=Good Times Co." );
+        String id = partition.getEntryId( txn, dn );
+        SnapshotManager snapshotManager = partition.getSnapshotManager();
+        snapshotManager.setMaxVersions( 1 );
+
+        // A search pinned before the modifications
+        SnapshotReadTxn searchTxn = ( SnapshotReadTxn ) partition.beginReadTransaction();
+        snapshotManager.pin( searchTxn );
+
+        partition.modify( txn, dn, new DefaultModification( ModificationOperation.ADD_ATTRIBUTE,
+            schemaManager.getAttributeType( "telephoneNumber" ), "+1974045779" ) );
+        assertNull( partition.fetch( searchTxn, id ).get( "telephoneNumber" ) );
+
+        // The second version exceeds the bound, the search can't see its snapshot anymore
+        partition.modify( txn, dn, new DefaultModification( ModificationOperation.ADD_ATTRIBUTE,
+            schemaManager.getAttributeType( "telephoneNumber" ), "+1974045780" ) );
+
+        try
+        {
+            partition.fetch( searchTxn, id );
+            fail( "The search snapshot should have been expired" );
+        }
+        catch ( LdapAdminLimitExceededException laee )
+        {
+            // Expected
+        }
+        finally
+        {
+            partition.releaseSnapshot( searchTxn );
+        }
+
+        // The other transactions are not affected
+        assertEquals( 2, partition.fetch( txn, id ).get( "telephoneNumber" ).size() );
+    }
 }
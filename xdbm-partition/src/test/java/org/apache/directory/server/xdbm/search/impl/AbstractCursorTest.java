@@ -38,6 +38,7 @@ import org.apache.directory.server.core.api.partition.PartitionTxn;
 import org.apache.directory.server.core.partition.impl.btree.AbstractBTreePartition;
 import org.apache.directory.server.core.partition.impl.btree.EntryCursorAdaptor;
 import org.apache.directory.server.core.partition.impl.btree.IndexCursorAdaptor;
+import org.apache.directory.server.xdbm.IdBitmap;
 import org.apache.directory.server.xdbm.IndexEntry;
 import org.apache.directory.server.xdbm.Store;
 import org.apache.directory.server.xdbm.search.Evaluator;
@@ -73,17 +74,17 @@ public class AbstractCursorTest
         PartitionSearchResult searchResult = new PartitionSearchResult( schemaManager );
         Set<IndexEntry<String, String>> resultSet = new HashSet<IndexEntry<String, String>>();
 
-        Set<String> uuids = new HashSet<String>();
-        searchResult.setCandidateSet( uuids );
+        IdBitmap ids = new IdBitmap();
+        searchResult.setCandidates( ids );
 
         long candidates = cursorBuilder.build( partitionTxn, root, searchResult );
 
         if ( candidates < Long.MAX_VALUE )
         {
-            for ( String uuid : uuids )
+            for ( int id : ids.toArray() )
             {
                 IndexEntry<String, String> indexEntry = new IndexEntry<String, String>();
-                indexEntry.setId( uuid );
+                indexEntry.setId( store.getEntryIdDictionary().getUuid( id ) );
                 resultSet.add( indexEntry );
             }
         }
@@ -21,6 +21,7 @@ package org.apache.directory.server.xdbm.search.impl;
 
 
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
@@ -35,6 +36,7 @@ import org.apache.directory.api.ldap.model.cursor.InvalidCursorPositionException
 import org.apache.directory.api.ldap.model.entry.Entry;
 import org.apache.directory.api.ldap.model.filter.ExprNode;
 import org.apache.directory.api.ldap.model.filter.FilterParser;
+import org.apache.directory.api.ldap.model.message.AliasDerefMode;
 import org.apache.directory.api.ldap.model.name.Dn;
 import org.apache.directory.api.ldap.schema.extractor.SchemaLdifExtractor;
 import org.apache.directory.api.ldap.schema.extractor.impl.DefaultSchemaLdifExtractor;
@@ -49,6 +51,7 @@ import org.apache.directory.server.core.api.MockDirectoryService;
 import org.apache.directory.server.core.api.partition.Partition;
 import org.apache.directory.server.core.api.partition.PartitionTxn;
 import org.apache.directory.server.core.partition.impl.avl.AvlPartition;
+import org.apache.directory.server.xdbm.IndexEntry;
 import org.apache.directory.server.xdbm.StoreUtils;
 import org.apache.directory.server.xdbm.impl.avl.AvlIndex;
 import org.junit.After;
@@ -298,4 +301,36 @@ public class AndCursorTest extends AbstractCursorTest
         cursor.close();
         assertTrue( cursor.isClosed() );
     }
+
+
+    @Test
+    public void testStreamedCandidates() throws Exception
+    {
+        ExprNode exprNode = FilterParser.parse( schemaManager, "(&(ou=Sales)(sn=*))" );
+        PartitionTxn txn = ( ( Partition ) store ).beginReadTransaction();
+        new DefaultOptimizer( store ).annotate( txn, exprNode );
+
+        Set<String> expectedUuid = new HashSet<String>();
+        expectedUuid.add( Strings.getUUID( 2 ) );
+        expectedUuid.add( Strings.getUUID( 5 ) );
+        expectedUuid.add( Strings.getUUID( 6 ) );
+
+        // The candidates are read from the ou index, the sn filter is left to the evaluator
+        Cursor<IndexEntry<String, String>> cursor = cursorBuilder.buildCursor( txn, exprNode,
+            AliasDerefMode.NEVER_DEREF_ALIASES );
+
+        while ( cursor.next() )
+        {
+            assertTrue( expectedUuid.remove( cursor.get().getId() ) );
+        }
+
+        assertTrue( expectedUuid.isEmpty() );
+        cursor.close();
+
+        // A disjunction needs its candidates to be deduplicated
+        exprNode = FilterParser.parse( schemaManager, "(|(ou=Sales)(cn=J*))" );
+        new DefaultOptimizer( store ).annotate( txn, exprNode );
+
+        assertNull( cursorBuilder.buildCursor( txn, exprNode, AliasDerefMode.NEVER_DEREF_ALIASES ) );
+    }
 }
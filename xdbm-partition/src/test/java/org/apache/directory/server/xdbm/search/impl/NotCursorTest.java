@@ -54,11 +54,13 @@ import org.apache.directory.server.core.api.MockDirectoryService;
 import org.apache.directory.server.core.api.partition.Partition;
 import org.apache.directory.server.core.api.partition.PartitionTxn;
 import org.apache.directory.server.core.partition.impl.avl.AvlPartition;
+import org.apache.directory.server.xdbm.IdBitmap;
 import org.apache.directory.server.xdbm.IndexEntry;
 import org.apache.directory.server.xdbm.MockPartitionReadTxn;
 import org.apache.directory.server.xdbm.StoreUtils;
 import org.apache.directory.server.xdbm.impl.avl.AvlIndex;
 import org.apache.directory.server.xdbm.search.Evaluator;
+import org.apache.directory.server.xdbm.search.PartitionSearchResult;
 import org.apache.directory.server.xdbm.search.cursor.NotCursor;
 import org.apache.directory.server.xdbm.search.evaluator.SubstringEvaluator;
 import org.junit.After;
@@ -304,4 +306,39 @@ public class NotCursorTest extends AbstractCursorTest
 
         cursor.close();
     }
+
+
+    @Test
+    public void testNotCandidatesOnIndexedEquality() throws Exception
+    {
+        ExprNode exprNode = FilterParser.parse( schemaManager, "(!(ou=Sales))" );
+        PartitionTxn txn = ( ( Partition ) store ).beginReadTransaction();
+        new DefaultOptimizer( store ).annotate( txn, exprNode );
+
+        PartitionSearchResult searchResult = new PartitionSearchResult( schemaManager );
+        IdBitmap candidates = new IdBitmap();
+        searchResult.setCandidates( candidates );
+
+        // The candidates are the complement of the ou index candidates, no full scan
+        assertEquals( 8L, cursorBuilder.build( txn, exprNode, searchResult ) );
+
+        Set<String> set = new HashSet<String>();
+
+        for ( int id : candidates.toArray() )
+        {
+            set.add( store.getEntryIdDictionary().getUuid( id ) );
+        }
+
+        assertEquals( 8, set.size() );
+        assertFalse( set.contains( Strings.getUUID( 2L ) ) );
+        assertFalse( set.contains( Strings.getUUID( 5L ) ) );
+        assertFalse( set.contains( Strings.getUUID( 6L ) ) );
+
+        // A substring can't be complemented
+        exprNode = FilterParser.parse( schemaManager, "(!(cn=J*))" );
+        new DefaultOptimizer( store ).annotate( txn, exprNode );
+        searchResult.setCandidates( new IdBitmap() );
+
+        assertEquals( Long.MAX_VALUE, cursorBuilder.build( txn, exprNode, searchResult ) );
+    }
 }
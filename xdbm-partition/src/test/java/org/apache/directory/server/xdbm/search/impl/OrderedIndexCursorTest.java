@@ -0,0 +1,242 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *  
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License. 
+ *  
+ */
+package org.apache.directory.server.xdbm.search.impl;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.util.Comparator;
+
+import org.apache.directory.api.util.FileUtils;
+import org.apache.directory.api.ldap.model.constants.SchemaConstants;
+import org.apache.directory.api.ldap.model.entry.DefaultEntry;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.model.schema.AttributeType;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.api.ldap.schema.extractor.SchemaLdifExtractor;
+import org.apache.directory.api.ldap.schema.extractor.impl.DefaultSchemaLdifExtractor;
+import org.apache.directory.api.ldap.schema.loader.LdifSchemaLoader;
+import org.apache.directory.api.ldap.schema.manager.impl.DefaultSchemaManager;
+import org.apache.directory.api.util.Strings;
+import org.apache.directory.api.util.exception.Exceptions;
+import org.apache.directory.server.core.api.CacheService;
+import org.apache.directory.server.core.api.DnFactory;
+import org.apache.directory.server.core.api.partition.Partition;
+import org.apache.directory.server.core.api.partition.PartitionTxn;
+import org.apache.directory.server.core.partition.impl.avl.AvlPartition;
+import org.apache.directory.server.core.shared.DefaultDnFactory;
+import org.apache.directory.server.xdbm.Index;
+import org.apache.directory.server.xdbm.Store;
+import org.apache.directory.server.xdbm.StoreUtils;
+import org.apache.directory.server.xdbm.impl.avl.AvlIndex;
+import org.apache.directory.server.xdbm.search.cursor.OrderedIndexCursor;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+
+/**
+ * Tests the OrderedIndexCursor.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class OrderedIndexCursorTest
+{
+    File wkdir;
+    Store store;
+    static SchemaManager schemaManager = null;
+    private static DnFactory dnFactory;
+    private static CacheService cacheService;
+
+
+    @BeforeClass
+    public static void setup() throws Exception
+    {
+        String workingDirectory = System.getProperty( "workingDirectory" );
+
+        if ( workingDirectory == null )
+        {
+            String path = OrderedIndexCursorTest.class.getResource( "" ).getPath();
+            int targetPos = path.indexOf( "target" );
+            workingDirectory = path.substring( 0, targetPos + 6 );
+        }
+
+        File schemaRepository = new File( workingDirectory, "schema" );
+        SchemaLdifExtractor extractor = new DefaultSchemaLdifExtractor( new File( workingDirectory ) );
+        extractor.extractOrCopy( true );
+        LdifSchemaLoader loader = new LdifSchemaLoader( schemaRepository );
+        schemaManager = new DefaultSchemaManager( loader );
+
+        boolean loaded = schemaManager.loadAllEnabled();
+
+        if ( !loaded )
+        {
+            fail( "Schema load failed : " + Exceptions.printErrors( schemaManager.getErrors() ) );
+        }
+
+        loaded = schemaManager.loadWithDeps( loader.getSchema( "collective" ) );
+
+        if ( !loaded )
+        {
+            fail( "Schema load failed : " + Exceptions.printErrors( schemaManager.getErrors() ) );
+        }
+
+        cacheService = new CacheService();
+        cacheService.initialize( null );
+        dnFactory = new DefaultDnFactory( schemaManager, 
+            cacheService.getCache( "dnCache", String.class, Dn.class ) );
+
+    }
+
+
+    @Before
+    public void createStore() throws Exception
+    {
+        // setup the working directory for the store
+        wkdir = File.createTempFile( getClass().getSimpleName(), "db" );
+        wkdir.delete();
+        wkdir = new File( wkdir.getParentFile(), getClass().getSimpleName() );
+        wkdir.mkdirs();
+
+        StoreUtils.createdExtraAttributes( schemaManager );
+        
+        // initialize the store
+        store = new AvlPartition( schemaManager, dnFactory );
+        ( ( Partition ) store ).setId( "example" );
+        store.setCacheSize( 10 );
+        store.setPartitionPath( wkdir.toURI() );
+        store.setSyncOnWrite( false );
+
+        store.addIndex( new AvlIndex<String>( SchemaConstants.OU_AT_OID ) );
+        store.addIndex( new AvlIndex<String>( SchemaConstants.CN_AT_OID ) );
+
+        Dn suffixDn = new Dn( schemaManager, "o=Good Times Co." );
+        ( ( Partition ) store ).setSuffixDn( suffixDn );
+
+        ( ( Partition ) store ).setCacheService( cacheService );
+        ( ( Partition ) store ).initialize();
+
+        StoreUtils.loadExampleData( store, schemaManager );
+    }
+
+
+    @After
+    public void destroyStore() throws Exception
+    {
+        if ( store != null )
+        {
+            ( ( Partition ) store ).destroy( null );
+        }
+
+        store = null;
+        if ( wkdir != null )
+        {
+            FileUtils.deleteDirectory( wkdir );
+        }
+
+        wkdir = null;
+    }
+
+
+    @SuppressWarnings("unchecked")
+    private OrderedIndexCursor createCursor( PartitionTxn txn, boolean reverse ) throws Exception
+    {
+        AttributeType cnAT = schemaManager.getAttributeType( "cn" );
+        Index<String, String> index = ( Index<String, String> ) store.getIndex( cnAT );
+        Comparator<String> comparator = ( Comparator<String> ) schemaManager.lookupComparatorRegistry( cnAT
+            .getEquality().getOid() );
+
+        // An entry with many values is returned at the position of its smallest value
+        StoreUtils.injectEntryInStore( store, new DefaultEntry( schemaManager,
+            "cn=Zed,ou=Engineering,o=Good Times Co.",
+            "objectClass: top",
+            "objectClass: person",
+            "cn: Zed",
+            "cn: Arthur Dent",
+            "sn: Dent" ), 12L );
+
+        return new OrderedIndexCursor( txn, store, index, comparator, reverse );
+    }
+
+
+    @Test
+    public void testForward() throws Exception
+    {
+        PartitionTxn txn = ( ( Partition ) store ).beginReadTransaction();
+        OrderedIndexCursor cursor = createCursor( txn, false );
+
+        cursor.beforeFirst();
+
+        long[] expected = new long[]
+            { 12L, 8L, 6L, 9L, 10L, 5L, 11L };
+
+        for ( long id : expected )
+        {
+            assertTrue( cursor.next() );
+            assertEquals( Strings.getUUID( id ), cursor.get().getId() );
+        }
+
+        assertFalse( cursor.next() );
+        assertFalse( cursor.available() );
+
+        // Move back
+        assertTrue( cursor.previous() );
+        assertEquals( Strings.getUUID( 11L ), cursor.get().getId() );
+
+        assertTrue( cursor.first() );
+        assertEquals( Strings.getUUID( 12L ), cursor.get().getId() );
+        assertEquals( " arthur  dent ", cursor.get().getKey() );
+        assertFalse( cursor.previous() );
+
+        cursor.close();
+        assertTrue( cursor.isClosed() );
+    }
+
+
+    @Test
+    public void testReverse() throws Exception
+    {
+        PartitionTxn txn = ( ( Partition ) store ).beginReadTransaction();
+        OrderedIndexCursor cursor = createCursor( txn, true );
+
+        cursor.beforeFirst();
+
+        long[] expected = new long[]
+            { 11L, 5L, 10L, 9L, 6L, 8L, 12L };
+
+        for ( long id : expected )
+        {
+            assertTrue( cursor.next() );
+            assertEquals( Strings.getUUID( id ), cursor.get().getId() );
+        }
+
+        assertFalse( cursor.next() );
+
+        assertTrue( cursor.last() );
+        assertEquals( Strings.getUUID( 12L ), cursor.get().getId() );
+
+        cursor.close();
+    }
+}